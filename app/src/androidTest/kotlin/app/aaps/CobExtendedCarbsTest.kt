@@ -88,7 +88,7 @@ class CobExtendedCarbsTest @Inject constructor() {
         rxHelper.clear()
         loop.lastRun = null
         objectivesPlugin.objectives.forEach { it.startedOn = 0 }
-        (profileFunction as ProfileFunctionImpl).cache.clear()
+        (profileFunction as ProfileFunctionImpl).clearCache()
         persistenceLayer.clearDatabases()
     }
 
@@ -120,7 +120,7 @@ class CobExtendedCarbsTest @Inject constructor() {
         objectivesPlugin.onStart()
         objectivesPlugin.objectives[0].startedOn = 1
 
-        (profileFunction as ProfileFunctionImpl).cache.clear()
+        (profileFunction as ProfileFunctionImpl).clearCache()
         nsIncomingDataProcessor.processProfile(JSONObject(profileData), false)
         assertThat(profileRepository.profile.value).isNotNull()
 
@@ -241,7 +241,7 @@ class CobExtendedCarbsTest @Inject constructor() {
     /** Collect COB values from all autosens data buckets, ordered by time */
     private fun collectCobTimeline(): List<Pair<Long, Double>> {
         val ads = iobCobCalculator.ads
-        val bucketedData = ads.getBucketedDataTableCopy() ?: return emptyList()
+        val bucketedData = ads.getBucketedDataTable() ?: return emptyList()
         val timeline = mutableListOf<Pair<Long, Double>>()
         for (bd in bucketedData) {
             val ad: AutosensData? = ads.getAutosensDataAtTime(bd.timestamp)
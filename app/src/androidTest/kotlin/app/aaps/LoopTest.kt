@@ -66,7 +66,7 @@ class LoopTest @Inject constructor() {
         androidx.work.WorkManager.getInstance(context).cancelAllWork()
         iobCobCalculator.clearCache()
         runBlocking { persistenceLayer.clearDatabases() }
-        (profileFunction as ProfileFunctionImpl).cache.clear()
+        (profileFunction as ProfileFunctionImpl).clearCache()
     }
 
     @After
@@ -74,7 +74,7 @@ class LoopTest @Inject constructor() {
         rxHelper.clear()
         loop.lastRun = null
         objectivesPlugin.objectives.forEach { it.startedOn = 0 }
-        (profileFunction as ProfileFunctionImpl).cache.clear()
+        (profileFunction as ProfileFunctionImpl).clearCache()
         persistenceLayer.clearDatabases()
     }
 
@@ -114,7 +114,7 @@ class LoopTest @Inject constructor() {
         objectivesPlugin.objectives[0].startedOn = 1
 
         // Now there should be missing profile
-        (profileFunction as ProfileFunctionImpl).cache.clear()
+        (profileFunction as ProfileFunctionImpl).clearCache()
         loop.invoke("test2", allowNotification = false)
         loopStatusEvent = rxHelper.waitFor(EventLoopSetLastRunGui::class.java, comment = "step2")
         assertThat(loopStatusEvent.first).isTrue()
@@ -69,7 +69,7 @@ class RunningModeReconcilerIntegrationTest @Inject constructor() {
         context.androidInjector().inject(this)
         WorkManager.getInstance(context).cancelAllWork()
         runBlocking { persistenceLayer.clearDatabases() }
-        (profileFunction as ProfileFunctionImpl).cache.clear()
+        (profileFunction as ProfileFunctionImpl).clearCache()
         // TestApplication does not start the reconciler / scheduler on its own — start them here.
         runningModeReconciler.start()
         runningModeExpiryScheduler.start()
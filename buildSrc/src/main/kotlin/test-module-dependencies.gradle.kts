@@ -45,6 +45,8 @@ tasks.withType<Test> {
 tasks.withType<Test>().configureEach {
     failOnNoDiscoveredTests = false
     maxParallelForks = (Runtime.getRuntime().availableProcessors() / 2).coerceAtLeast(1)
+    // JVM benchmarks (see app.aaps.shared.tests.benchmark.Benchmark) run only with -Paaps.benchmark=true
+    systemProperty("aaps.benchmark", project.findProperty("aaps.benchmark") ?: "false")
 }
 
 android {
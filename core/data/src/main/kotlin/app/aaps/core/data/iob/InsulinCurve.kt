@@ -0,0 +1,105 @@
+package app.aaps.core.data.iob
+
+import kotlin.math.ceil
+import kotlin.math.exp
+import kotlin.math.pow
+
+/**
+ * Precomputed exponential insulin action curve of 1U bolus
+ *
+ * IOB, activity and activity slope are tabulated per minute from 0 to DIA.
+ * Values between nodes are computed by cubic Hermite interpolation
+ * (activity is derivative of IOB). Error of IOB is ~2e-9 U per unit (below 1e-8 U for DIA 5-9 h
+ * and peak 45-90 min), error of activity is below 1e-10 U/min per unit.
+ * Lookups are allocation free.
+ *
+ * Use [forConfig] to obtain shared instance.
+ *
+ * @param insulinEndTime key: DIA in milliseconds
+ * @param insulinPeakTime key: peak time in milliseconds
+ * @param td DIA in minutes
+ * @param tp peak time in minutes
+ */
+class InsulinCurve private constructor(
+    val insulinEndTime: Long,
+    val insulinPeakTime: Long,
+    private val td: Double,
+    private val tp: Double
+) {
+
+    private val tau = tp * (1 - tp / td) / (1 - 2 * tp / td)
+    private val a = 2 * tau / td
+    private val s = 1 / (1 - a + (1 + a) * exp(-td / tau))
+
+    private val nodes = ceil(td).toInt() + 1
+    private val iobTable = DoubleArray(nodes) { exactIob(it.toDouble()) }
+    private val activityTable = DoubleArray(nodes) { exactActivity(it.toDouble()) }
+    private val activitySlopeTable = DoubleArray(nodes) { exactActivitySlope(it.toDouble()) }
+
+    /**
+     * IOB of 1U bolus
+     * @param t minutes since bolus
+     */
+    fun iob(t: Double): Double {
+        if (t >= td) return 0.0
+        if (t < 0) return exactIob(t)
+        // IOB decreases with activity: d(iob)/dt = -activity
+        return hermite(t, iobTable, activityTable, -1.0)
+    }
+
+    /**
+     * Activity of 1U bolus (U/min)
+     * @param t minutes since bolus
+     */
+    fun activity(t: Double): Double {
+        if (t >= td) return 0.0
+        if (t < 0) return exactActivity(t)
+        return hermite(t, activityTable, activitySlopeTable, 1.0)
+    }
+
+    private fun hermite(t: Double, values: DoubleArray, derivatives: DoubleArray, derivativeSign: Double): Double {
+        val i = t.toInt()
+        if (i + 1 >= nodes) return values[nodes - 1]
+        val x = t - i
+        val x2 = x * x
+        val x3 = x2 * x
+        val h00 = 2 * x3 - 3 * x2 + 1
+        val h10 = x3 - 2 * x2 + x
+        val h01 = -2 * x3 + 3 * x2
+        val h11 = x3 - x2
+        return h00 * values[i] + h10 * derivativeSign * derivatives[i] + h01 * values[i + 1] + h11 * derivativeSign * derivatives[i + 1]
+    }
+
+    fun exactIob(t: Double): Double =
+        1 - s * (1 - a) * ((t.pow(2.0) / (tau * td * (1 - a)) - t / tau - 1) * exp(-t / tau) + 1)
+
+    fun exactActivity(t: Double): Double =
+        (s / tau.pow(2.0)) * t * (1 - t / td) * exp(-t / tau)
+
+    private fun exactActivitySlope(t: Double): Double =
+        (s / tau.pow(2.0)) * exp(-t / tau) * ((1 - 2 * t / td) - t * (1 - t / td) / tau)
+
+    companion object {
+
+        private const val MAX_CACHED_CURVES = 16
+        private val curves = ArrayList<InsulinCurve>()
+
+        /**
+         * Shared curve for insulin configuration
+         *
+         * @param insulinEndTime DIA in milliseconds (cache key)
+         * @param insulinPeakTime peak time in milliseconds (cache key)
+         * @param dia DIA in hours as used by calculation
+         * @param peak peak time in minutes as used by calculation
+         */
+        fun forConfig(insulinEndTime: Long, insulinPeakTime: Long, dia: Double, peak: Int): InsulinCurve =
+            synchronized(curves) {
+                for (i in curves.indices) {
+                    val curve = curves[i]
+                    if (curve.insulinEndTime == insulinEndTime && curve.insulinPeakTime == insulinPeakTime) return curve
+                }
+                if (curves.size >= MAX_CACHED_CURVES) curves.removeAt(0)
+                InsulinCurve(insulinEndTime, insulinPeakTime, dia * 60, peak.toDouble()).also { curves.add(it) }
+            }
+    }
+}
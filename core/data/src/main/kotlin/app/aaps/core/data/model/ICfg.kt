@@ -1,8 +1,7 @@
 package app.aaps.core.data.model
 
+import app.aaps.core.data.iob.InsulinCurve
 import app.aaps.core.data.iob.Iob
-import kotlin.math.exp
-import kotlin.math.pow
 import kotlin.math.roundToInt
 
 /**
@@ -84,25 +83,49 @@ data class ICfg(
      */
     fun deepClone(): ICfg = ICfg(insulinLabel, insulinEndTime, insulinPeakTime, concentration).also { it.insulinNickname = insulinNickname }
 
-    fun iobCalcForTreatment(bolus: BS, time: Long): Iob {
+    fun iobCalcForTreatment(bolus: BS, time: Long): Iob =
+        Iob(
+            iobContrib = iobContrib(bolus.amount, bolus.timestamp, time),
+            activityContrib = activityContrib(bolus.amount, bolus.timestamp, time)
+        )
+
+    /**
+     * IOB of insulin [amount] delivered at [timestamp] calculated to [time]
+     *
+     * Allocation free variant of [iobCalcForTreatment] for basal and extended bolus slices
+     */
+    fun iobContrib(amount: Double, timestamp: Long, time: Long): Double {
         assert(insulinEndTime != 0L)
         assert(insulinPeakTime != 0L)
-        val result = Iob()
-        if (bolus.amount != 0.0) {
-            val bolusTime = bolus.timestamp
-            val t = (time - bolusTime) / 1000.0 / 60.0
-            val td = dia * 60 //getDIA() always >= MIN_DIA
-            val tp = peak.toDouble()
-            // force the IOB to 0 if over DIA hours have passed
-            if (t < td) {
-                val tau = tp * (1 - tp / td) / (1 - 2 * tp / td)
-                val a = 2 * tau / td
-                val s = 1 / (1 - a + (1 + a) * exp(-td / tau))
-                result.activityContrib = bolus.amount * (s / tau.pow(2.0)) * t * (1 - t / td) * exp(-t / tau)
-                result.iobContrib = bolus.amount * (1 - s * (1 - a) * ((t.pow(2.0) / (tau * td * (1 - a)) - t / tau - 1) * exp(-t / tau) + 1))
-            }
-        }
-        return result
+        if (amount == 0.0) return 0.0
+        val t = (time - timestamp) / 1000.0 / 60.0
+        // force the IOB to 0 if over DIA hours have passed
+        return amount * curve().iob(t)
+    }
+
+    /**
+     * Activity of insulin [amount] delivered at [timestamp] calculated to [time]
+     *
+     * Allocation free variant of [iobCalcForTreatment] for basal and extended bolus slices
+     */
+    fun activityContrib(amount: Double, timestamp: Long, time: Long): Double {
+        assert(insulinEndTime != 0L)
+        assert(insulinPeakTime != 0L)
+        if (amount == 0.0) return 0.0
+        val t = (time - timestamp) / 1000.0 / 60.0
+        return amount * curve().activity(t)
+    }
+
+    /**
+     * Tabulated curve for current insulinEndTime and insulinPeakTime
+     */
+    @Transient private var curve: InsulinCurve? = null
+
+    private fun curve(): InsulinCurve {
+        val cached = curve
+        if (cached != null && cached.insulinEndTime == insulinEndTime && cached.insulinPeakTime == insulinPeakTime) return cached
+        //getDIA() always >= MIN_DIA
+        return InsulinCurve.forConfig(insulinEndTime, insulinPeakTime, dia, peak).also { curve = it }
     }
 
     companion object;
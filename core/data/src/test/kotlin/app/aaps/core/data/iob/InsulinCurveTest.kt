@@ -0,0 +1,41 @@
+package app.aaps.core.data.iob
+
+import app.aaps.core.data.model.ICfg
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+
+class InsulinCurveTest {
+
+    @Test
+    fun `interpolated values match exact curve`() {
+        for (dia in listOf(5.0, 6.0, 7.3, 9.0)) for (peak in listOf(45, 55, 75, 90)) {
+            val iCfg = ICfg("Test", peak, dia, 1.0)
+            val curve = InsulinCurve.forConfig(iCfg.insulinEndTime, iCfg.insulinPeakTime, iCfg.dia, iCfg.peak)
+            var t = 0.0
+            while (t < dia * 60) {
+                assertThat(curve.iob(t)).isWithin(1e-8).of(curve.exactIob(t))
+                assertThat(curve.activity(t)).isWithin(1e-10).of(curve.exactActivity(t))
+                t += 0.37
+            }
+        }
+    }
+
+    @Test
+    fun `curves are shared by insulin configuration`() {
+        val iCfg = ICfg("Test", 75, 5.0, 1.0)
+        val curve = InsulinCurve.forConfig(iCfg.insulinEndTime, iCfg.insulinPeakTime, iCfg.dia, iCfg.peak)
+        assertThat(InsulinCurve.forConfig(iCfg.insulinEndTime, iCfg.insulinPeakTime, iCfg.dia, iCfg.peak)).isSameInstanceAs(curve)
+        assertThat(InsulinCurve.forConfig(iCfg.insulinEndTime, 55 * 60000L, iCfg.dia, 55)).isNotSameInstanceAs(curve)
+    }
+
+    @Test
+    fun `primitive entry point matches treatment calculation`() {
+        val iCfg = ICfg("Test", 75, 5.0, 1.0)
+        assertThat(iCfg.iobContrib(2.0, 0L, 30 * 60000L)).isWithin(1e-8).of(2 * 0.9249701856314995)
+        assertThat(iCfg.iobContrib(2.0, 0L, 5 * 3600 * 1000L)).isEqualTo(0.0)
+        assertThat(iCfg.activityContrib(0.0, 0L, 30 * 60000L)).isEqualTo(0.0)
+        // insulin config change is reflected
+        iCfg.setPeak(55)
+        assertThat(iCfg.iobContrib(1.0, 0L, 30 * 60000L)).isWithin(1e-8).of(0.8843166919212472)
+    }
+}
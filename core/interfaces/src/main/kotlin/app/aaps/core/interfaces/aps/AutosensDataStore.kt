@@ -1,6 +1,5 @@
 package app.aaps.core.interfaces.aps
 
-import androidx.collection.LongSparseArray
 import app.aaps.core.data.iob.InMemoryGlucoseValue
 import app.aaps.core.data.model.GV
 import app.aaps.core.interfaces.logging.AAPSLogger
@@ -11,7 +10,7 @@ interface AutosensDataStore {
     val dataLock: Any
 
     var bgReadings: List<GV>
-    var autosensDataTable: LongSparseArray<AutosensData>
+    var autosensDataTable: AutosensDataTable
     var bucketedData: MutableList<InMemoryGlucoseValue>?
     var lastUsed5minCalculation: Boolean?
 
@@ -29,11 +28,39 @@ interface AutosensDataStore {
      */
     fun actualBg(): InMemoryGlucoseValue?
     fun lastDataTime(dateUtil: DateUtil): String
-    fun clone(): AutosensDataStore
+
+    /**
+     * Incremented every time [autosensDataTable] is invalidated ([newHistoryData], [reset])
+     */
+    val autosensDataGeneration: Long
+
+    /**
+     * Append new calculated [autosensData] to [autosensDataTable]
+     *
+     * @param generation [autosensDataGeneration] at the start of calculation
+     * @return updated table or null if table has been invalidated since start of calculation
+     */
+    fun appendAutosensData(generation: Long, autosensData: AutosensData): AutosensDataTable?
     fun getBgReadingsDataTableCopy(): List<GV>
     fun getLastAutosensData(reason: String, aapsLogger: AAPSLogger, dateUtil: DateUtil): AutosensData?
     fun getAutosensDataAtTime(fromTime: Long): AutosensData?
-    fun getBucketedDataTableCopy(): MutableList<InMemoryGlucoseValue>?
+
+    /**
+     * Current bucketed data (newest first) without copying.
+     * Published list is replaced on every recalculation and never modified structurally afterwards,
+     * smoothing only fills [InMemoryGlucoseValue.smoothed]
+     *
+     * @return read-only view of bucketed data or null if not calculated yet
+     */
+    fun getBucketedDataTable(): List<InMemoryGlucoseValue>?
+
+    /**
+     * Columnar view of [getBucketedDataTable] for loops over whole bucketed data.
+     * Built once after bucketed data is published (recalculated or smoothed)
+     *
+     * @return read-only view of bucketed data or null if not calculated yet
+     */
+    fun getBucketedGlucose(): BucketedGlucose?
     fun createBucketedData(aapsLogger: AAPSLogger, dateUtil: DateUtil)
     fun slowAbsorptionPercentage(timeInMinutes: Int): Double
     fun newHistoryData(time: Long, aapsLogger: AAPSLogger, dateUtil: DateUtil)
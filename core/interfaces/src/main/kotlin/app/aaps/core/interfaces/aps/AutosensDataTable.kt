@@ -0,0 +1,108 @@
+package app.aaps.core.interfaces.aps
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Immutable table of [AutosensData] ordered by time (oldest at index 0)
+ *
+ * Tables are snapshots sharing one append-only storage. [plus] of newer entry writes
+ * into the storage in place if no other snapshot has already appended behind the same entry,
+ * otherwise storage is copied (copy-on-write). [removeNewerThan] only shortens the snapshot.
+ * So once obtained, table never changes and can be read from any thread without locking.
+ */
+class AutosensDataTable private constructor(private val storage: Storage, private val size: Int) {
+
+    private class Storage(capacity: Int) {
+
+        val keys = LongArray(capacity)
+        val values = arrayOfNulls<AutosensData>(capacity)
+
+        // count of claimed slots. Slot is written only by snapshot which claimed it
+        val used = AtomicInteger(0)
+    }
+
+    constructor() : this(Storage(INITIAL_CAPACITY), 0)
+
+    fun size(): Int = size
+
+    fun keyAt(index: Int): Long {
+        checkIndex(index)
+        return storage.keys[index]
+    }
+
+    fun valueAt(index: Int): AutosensData {
+        checkIndex(index)
+        return storage.values[index]!!
+    }
+
+    operator fun get(key: Long): AutosensData? {
+        val index = indexOfKey(key)
+        return if (index >= 0) storage.values[index] else null
+    }
+
+    /**
+     * @return index of [key] or negative value if not found (same as LongSparseArray)
+     */
+    fun indexOfKey(key: Long): Int {
+        var low = 0
+        var high = size - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            val midKey = storage.keys[mid]
+            when {
+                midKey < key -> low = mid + 1
+                midKey > key -> high = mid - 1
+                else         -> return mid
+            }
+        }
+        return low.inv()
+    }
+
+    /**
+     * @return table with added or replaced [key]. Adding newer entry is O(1)
+     */
+    fun plus(key: Long, value: AutosensData): AutosensDataTable {
+        if (size == 0 || storage.keys[size - 1] < key) {
+            if (size < storage.keys.size && storage.used.compareAndSet(size, size + 1)) {
+                storage.keys[size] = key
+                storage.values[size] = value
+                return AutosensDataTable(storage, size + 1)
+            }
+            return copy(size + 1, size, key, value)
+        }
+        val index = indexOfKey(key)
+        return if (index >= 0) copy(size, index, key, value, replace = true)
+        else copy(size + 1, index.inv(), key, value)
+    }
+
+    /**
+     * @return table without entries newer than [time]
+     */
+    fun removeNewerThan(time: Long): AutosensDataTable {
+        val index = indexOfKey(time)
+        val newSize = if (index >= 0) index + 1 else index.inv()
+        return if (newSize == size) this else AutosensDataTable(storage, newSize)
+    }
+
+    private fun copy(newSize: Int, position: Int, key: Long, value: AutosensData, replace: Boolean = false): AutosensDataTable {
+        val newStorage = Storage(maxOf(INITIAL_CAPACITY, newSize * 2))
+        System.arraycopy(storage.keys, 0, newStorage.keys, 0, position)
+        System.arraycopy(storage.values, 0, newStorage.values, 0, position)
+        val tail = if (replace) position + 1 else position
+        System.arraycopy(storage.keys, tail, newStorage.keys, position + 1, size - tail)
+        System.arraycopy(storage.values, tail, newStorage.values, position + 1, size - tail)
+        newStorage.keys[position] = key
+        newStorage.values[position] = value
+        newStorage.used.set(newSize)
+        return AutosensDataTable(newStorage, newSize)
+    }
+
+    private fun checkIndex(index: Int) {
+        if (index !in 0 until size) throw IndexOutOfBoundsException("Index: $index, size: $size")
+    }
+
+    private companion object {
+
+        const val INITIAL_CAPACITY = 64
+    }
+}
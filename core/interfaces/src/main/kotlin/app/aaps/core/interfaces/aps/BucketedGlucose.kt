@@ -0,0 +1,27 @@
+package app.aaps.core.interfaces.aps
+
+import app.aaps.core.data.iob.InMemoryGlucoseValue
+
+/**
+ * Read-only columnar view of bucketed glucose (newest first)
+ *
+ * Columns are filled once per published bucketed data, after smoothing, so loops over
+ * the whole window read primitive arrays instead of [InMemoryGlucoseValue] objects.
+ */
+class BucketedGlucose(data: List<InMemoryGlucoseValue>) {
+
+    val size: Int = data.size
+    private val timestamps = LongArray(size) { data[it].timestamp }
+    private val values = DoubleArray(size) { data[it].value }
+    private val recalculated = DoubleArray(size) { data[it].recalculated }
+    private val filledGaps = BooleanArray(size) { data[it].filledGap }
+
+    fun timestamp(index: Int): Long = timestamps[index]
+    fun value(index: Int): Double = values[index]
+
+    /**
+     * Smoothed value if available, non smoothed value as a fallback
+     */
+    fun recalculated(index: Int): Double = recalculated[index]
+    fun filledGap(index: Int): Boolean = filledGaps[index]
+}
@@ -0,0 +1,60 @@
+package app.aaps.core.interfaces.aps
+
+/**
+ * Variable sensitivity (DynISF, AutoISF) values shared by APS plugins, wizard, overview and graphs
+ *
+ * Calculation of variable sensitivity needs TDD history and it's expensive. Values are calculated once
+ * per time slot and BG and all consumers read them from here.
+ * Loop results are kept in memory too to avoid database queries on every call.
+ *
+ * All values are in mg/dl
+ */
+interface VariableSensitivityCache {
+
+    /**
+     * Load APS results of last day from database. Called on start of APS plugin, next calls do nothing
+     */
+    suspend fun load()
+
+    /**
+     * Cached value without calculation
+     * @param algorithm algorithm which calculated value
+     * @param timestamp time of calculation
+     * @param slot length of time slot in milliseconds. Values within the same slot and BG are considered equal
+     * @param glucose BG used for calculation
+     * @return value or null if not calculated yet
+     */
+    fun get(algorithm: APSResult.Algorithm, timestamp: Long, slot: Long, glucose: Double): Double?
+
+    /**
+     * Cached value or value provided by [calculate] which is stored for next calls.
+     * Concurrent calls wait for running calculation instead of doing it again.
+     * @param calculate calculation of value, null result is not stored
+     * @return value or null if it cannot be calculated
+     */
+    suspend fun getOrCalculate(algorithm: APSResult.Algorithm, timestamp: Long, slot: Long, glucose: Double, calculate: suspend () -> Double?): Double?
+
+    /**
+     * Average of values cached for time slots starting in interval
+     * @return average or null if there is no value
+     */
+    fun getAverage(algorithm: APSResult.Algorithm, from: Long, to: Long): Double?
+
+    /**
+     * Store APS result of loop run or received from NS
+     */
+    fun addApsResult(apsResult: APSResult)
+
+    /**
+     * Variable sensitivity of last APS result in interval <timestamp - maxAge, timestamp>
+     * @return value or null if there is no result or it doesn't contain variable sensitivity
+     */
+    fun getLastApsResultSensitivity(timestamp: Long, maxAge: Long): Double?
+
+    /**
+     * Variable sensitivities of APS results in interval <from, to> for graphs.
+     * Older results not kept in memory are read from database.
+     * @return list of pairs timestamp, sensitivity ordered by timestamp
+     */
+    suspend fun getApsResultSensitivities(from: Long, to: Long): List<Pair<Long, Double>>
+}
@@ -1414,6 +1414,16 @@ interface PersistenceLayer {
 
     suspend fun getUserEntryFilteredDataFromTime(timestamp: Long): List<UE>
 
+    /**
+     * Get page of the same records as [getUserEntryFilteredDataFromTime] for streaming of large exports
+     *
+     * @param timestamp from
+     * @param after last record of previous page, null for the first page
+     * @param limit page size
+     * @return records ordered from newest
+     */
+    suspend fun getUserEntryFilteredDataPage(timestamp: Long, after: UE?, limit: Int): List<UE>
+
     // TDD
 
     /**
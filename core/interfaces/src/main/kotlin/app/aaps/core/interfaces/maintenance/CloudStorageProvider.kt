@@ -132,6 +132,22 @@ interface CloudStorageProvider {
         path: String
     ): String?
 
+    /**
+     * Upload a file to the specified path, streaming the content.
+     * Interrupted upload is resumed from the last offset stored by the cloud service.
+     * @param fileName File name
+     * @param content File content
+     * @param mimeType MIME type of the file
+     * @param path Target folder path
+     * @return The uploaded file ID or null if failed
+     */
+    suspend fun uploadFileToPath(
+        fileName: String,
+        content: CloudUploadSource,
+        mimeType: String,
+        path: String
+    ): String?
+
     /**
      * Upload a file to the currently selected folder.
      * @param fileName File name
@@ -0,0 +1,53 @@
+package app.aaps.core.interfaces.maintenance
+
+import android.content.ContentResolver
+import androidx.documentfile.provider.DocumentFile
+import java.io.ByteArrayInputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileNotFoundException
+import java.io.InputStream
+
+/**
+ * Content of file uploaded to cloud storage
+ *
+ * Content is read as a stream, so large files are not loaded to memory.
+ * It can be opened again at any offset to resume interrupted upload.
+ */
+interface CloudUploadSource {
+
+    /** Size of content in bytes */
+    val length: Long
+
+    /** Open content positioned at [offset] */
+    fun open(offset: Long): InputStream
+
+    companion object {
+
+        fun of(bytes: ByteArray): CloudUploadSource = object : CloudUploadSource {
+            override val length: Long = bytes.size.toLong()
+            override fun open(offset: Long): InputStream = ByteArrayInputStream(bytes, offset.toInt(), bytes.size - offset.toInt())
+        }
+
+        fun of(file: File): CloudUploadSource = object : CloudUploadSource {
+            override val length: Long = file.length()
+            override fun open(offset: Long): InputStream = FileInputStream(file).also { it.channel.position(offset) }
+        }
+
+        fun of(contentResolver: ContentResolver, file: DocumentFile): CloudUploadSource = object : CloudUploadSource {
+            override val length: Long = file.length()
+            override fun open(offset: Long): InputStream {
+                val input = contentResolver.openInputStream(file.uri) ?: throw FileNotFoundException(file.uri.toString())
+                var remaining = offset
+                while (remaining > 0) {
+                    val skipped = input.skip(remaining)
+                    if (skipped > 0) remaining -= skipped
+                    else if (input.read() >= 0) remaining--
+                    else throw EOFException("${file.name} is shorter than $offset")
+                }
+                return input
+            }
+        }
+    }
+}
@@ -14,6 +14,7 @@ interface FileListProvider {
 
     fun newPreferenceFile(): DocumentFile?
     fun newExportCsvFile(): DocumentFile?
+    fun newTraceFile(): DocumentFile?
     fun newCwfFile(filename: String, withDate: Boolean = true): DocumentFile?
 
     fun ensureResultDirExists(): File
@@ -1,8 +1,55 @@
 package app.aaps.core.interfaces.profiling
 
 import app.aaps.core.interfaces.logging.LTag
+import java.io.OutputStream
 
 interface Profiler {
 
     fun log(lTag: LTag, function: String, start: Long)
-}
\ No newline at end of file
+
+    /**
+     * Recording of loop cycle spans. When disabled [begin] and [end] do nothing
+     */
+    var tracingEnabled: Boolean
+
+    /**
+     * Start span. Spans may be nested, nesting is given by time
+     * @return start of span to pass to [end] or 0 if tracing is disabled
+     */
+    fun begin(): Long
+
+    /**
+     * Finish span started by [begin]
+     */
+    fun end(stage: TraceStage, start: Long)
+
+    /**
+     * Record span started in the past, e.g. at time of BG reading
+     * @param from start in milliseconds since epoch
+     */
+    fun record(stage: TraceStage, from: Long)
+
+    /**
+     * Latency percentiles of recorded stages
+     */
+    fun stageStats(): List<TraceStageStats>
+
+    fun resetTraces()
+
+    /**
+     * Write histograms and recent spans in binary format readable by TraceDump tool
+     */
+    fun exportTraces(output: OutputStream)
+}
+
+/**
+ * Measure [block] as span of [stage]
+ */
+inline fun <T> Profiler.trace(stage: TraceStage, block: () -> T): T {
+    val start = begin()
+    try {
+        return block()
+    } finally {
+        end(stage, start)
+    }
+}
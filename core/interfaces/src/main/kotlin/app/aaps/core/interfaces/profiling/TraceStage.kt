@@ -0,0 +1,34 @@
+package app.aaps.core.interfaces.profiling
+
+/**
+ * Traced stages of loop cycle
+ */
+enum class TraceStage {
+
+    /** Whole loop run triggered by new BG */
+    LOOP,
+
+    /** Age of BG when loop run starts */
+    BG_ARRIVAL,
+
+    /** IOB/COB and autosens data calculation */
+    IOB_COB,
+
+    /** Sensitivity detection */
+    AUTOSENS,
+
+    /** APS algorithm calculation */
+    DETERMINE_BASAL,
+
+    /** Applying constraints to APS result */
+    CONSTRAINTS,
+
+    /** Enacting of APS result including waiting in command queue */
+    COMMAND_QUEUE,
+
+    /** Execution of command by pump driver */
+    PUMP,
+
+    /** Upload of changed data to Nightscout */
+    NS_UPLOAD
+}
@@ -0,0 +1,12 @@
+package app.aaps.core.interfaces.profiling
+
+/**
+ * Latency of stage. Percentiles are upper bounds of histogram buckets in microseconds
+ */
+data class TraceStageStats(
+    val stage: TraceStage,
+    val count: Long,
+    val p50: Long,
+    val p95: Long,
+    val p99: Long
+)
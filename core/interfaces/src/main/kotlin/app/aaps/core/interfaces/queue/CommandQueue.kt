@@ -34,6 +34,12 @@ interface CommandQueue {
     fun size(): Int
     fun performing(): Command?
     fun resetPerforming()
+
+    /**
+     * Suspend [QueueWorker] until a command is added or the pump reports connection change.
+     * Returns after [timeoutMillis] at latest to check state of pumps not reporting changes
+     */
+    suspend fun awaitChange(timeoutMillis: Long)
     fun bolusInQueue(): Boolean
     suspend fun bolus(detailedBolusInfo: DetailedBolusInfo): PumpEnactResult
     fun cancelAllBoluses(id: Long?)
@@ -0,0 +1,11 @@
+package app.aaps.core.interfaces.rx.events
+
+import app.aaps.core.interfaces.rx.weardata.EventData
+
+/**
+ * Fired to send data from the mobile device to the wearable in binary (ProtoBuf) form.
+ * Used for frequent data where JSON is too big (graph sync)
+ *
+ * @param payload The data to send.
+ */
+class EventMobileDataToWear(val payload: EventData) : Event()
@@ -38,6 +38,13 @@ sealed class EventData : Event() {
     @Serializable
     data class ActionPong(val timeStamp: Long, val apiLevel: Int) : EventData()
 
+    /**
+     * Acknowledge of [WearSyncDelta]
+     * @param resync true if delta couldn't be applied and snapshot is needed
+     */
+    @Serializable
+    data class WearSyncAck(val sequence: Long, val resync: Boolean = false) : EventData()
+
     @Serializable
     data class WearException(
         val timeStamp: Long,
@@ -364,6 +371,46 @@ sealed class EventData : Event() {
         )
     }
 
+    /**
+     * Changes of [GraphData] and [TreatmentData] since [baseSequence], sent as ProtoBuf.
+     * [baseSequence] 0 means snapshot. See [WearSyncContent].
+     *
+     * @param bgTemplate fields shared by all graph entries, null if unchanged
+     * @param bgPoints new or changed graph entries
+     * @param bgRemoved timestamps of removed graph entries
+     * @param lines temp basals, basals and predictions, null if unchanged
+     */
+    @Serializable
+    data class WearSyncDelta(
+        val sequence: Long,
+        val baseSequence: Long,
+        val bgTemplate: SingleBg? = null,
+        val bgPoints: List<BgPoint> = emptyList(),
+        val bgRemoved: List<Long> = emptyList(),
+        val treatmentsAdded: List<TreatmentData.Treatment> = emptyList(),
+        val treatmentsRemoved: List<TreatmentData.Treatment> = emptyList(),
+        val lines: Lines? = null
+    ) : EventData() {
+
+        val changesGraph: Boolean get() = bgTemplate != null || bgPoints.isNotEmpty() || bgRemoved.isNotEmpty()
+        val changesTreatments: Boolean get() = lines != null || treatmentsAdded.isNotEmpty() || treatmentsRemoved.isNotEmpty()
+
+        @Serializable
+        data class BgPoint(
+            val timeStamp: Long,
+            val sgv: Double,
+            val sgvString: String,
+            val sgvLevel: Long
+        )
+
+        @Serializable
+        data class Lines(
+            val temps: List<TreatmentData.TempBasal>,
+            val basals: List<TreatmentData.Basal>,
+            val predictions: List<SingleBg>
+        )
+    }
+
     @Serializable
     data class Status(
         override var dataset: Int,
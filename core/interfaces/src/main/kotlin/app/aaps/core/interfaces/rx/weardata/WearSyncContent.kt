@@ -0,0 +1,130 @@
+package app.aaps.core.interfaces.rx.weardata
+
+import app.aaps.core.interfaces.rx.weardata.EventData.GraphData
+import app.aaps.core.interfaces.rx.weardata.EventData.SingleBg
+import app.aaps.core.interfaces.rx.weardata.EventData.TreatmentData
+import app.aaps.core.interfaces.rx.weardata.EventData.WearSyncDelta
+
+/**
+ * Graph and treatment data of watch in the form synchronized by [WearSyncDelta].
+ *
+ * Graph entries differ only in timestamp and value, all other fields are stored once in [template].
+ * Both sides keep recent contents by sequence: mobile computes [deltaFrom] last acknowledged content,
+ * watch [apply]s delta to the same content.
+ *
+ * @param template fields shared by graph entries, null if graph is not known
+ * @param points graph entries, latest first
+ * @param treatments boluses and carbs in canonical order
+ * @param lines temp basals, basals and predictions, null if not known
+ */
+class WearSyncContent private constructor(
+    val template: SingleBg?,
+    val points: List<WearSyncDelta.BgPoint>,
+    val treatments: List<TreatmentData.Treatment>,
+    val lines: WearSyncDelta.Lines?
+) {
+
+    val graphData: GraphData
+        get() = GraphData(ArrayList(template?.let { template -> points.map { it.toSingleBg(template) } } ?: emptyList()))
+
+    val treatmentData: TreatmentData
+        get() = TreatmentData(
+            ArrayList(lines?.temps ?: emptyList()),
+            ArrayList(lines?.basals ?: emptyList()),
+            ArrayList(treatments),
+            ArrayList(lines?.predictions ?: emptyList())
+        )
+
+    /**
+     * Changes from [base] to this content
+     * @param base content acknowledged by watch, null for snapshot
+     */
+    fun deltaFrom(sequence: Long, baseSequence: Long, base: WearSyncContent?): WearSyncDelta {
+        if (base == null)
+            return WearSyncDelta(sequence, 0, template, points, emptyList(), treatments, emptyList(), lines)
+        val basePoints = base.points.associateBy { it.timeStamp }
+        val timestamps = points.mapTo(HashSet()) { it.timeStamp }
+        return WearSyncDelta(
+            sequence = sequence,
+            baseSequence = baseSequence,
+            bgTemplate = template?.takeIf { base.template == null || !it.sameAs(base.template) },
+            bgPoints = points.filter { it != basePoints[it.timeStamp] },
+            bgRemoved = base.points.map { it.timeStamp }.filter { it !in timestamps },
+            treatmentsAdded = treatments.minusEach(base.treatments),
+            treatmentsRemoved = base.treatments.minusEach(treatments),
+            lines = lines?.takeIf { base.lines == null || !it.sameAs(base.lines) }
+        )
+    }
+
+    /**
+     * Apply [delta] computed from this content
+     */
+    fun apply(delta: WearSyncDelta): WearSyncContent {
+        val removed = delta.bgRemoved.toHashSet() + delta.bgPoints.map { it.timeStamp }
+        return WearSyncContent(
+            template = delta.bgTemplate ?: template,
+            points = (points.filter { it.timeStamp !in removed } + delta.bgPoints).sortedByDescending { it.timeStamp },
+            treatments = (treatments.minusEach(delta.treatmentsRemoved) + delta.treatmentsAdded).sortedWith(treatmentComparator),
+            lines = delta.lines ?: lines
+        )
+    }
+
+    /** Same data as [other], [SingleBg.equals] compares timestamp and color only */
+    fun sameAs(other: WearSyncContent): Boolean =
+        points == other.points && treatments == other.treatments &&
+            (template == null && other.template == null || template != null && other.template != null && template.sameAs(other.template)) &&
+            (lines == null && other.lines == null || lines != null && other.lines != null && lines.sameAs(other.lines))
+
+    companion object {
+
+        /** Base of snapshot */
+        val EMPTY = WearSyncContent(null, emptyList(), emptyList(), null)
+
+        private val treatmentComparator = compareBy<TreatmentData.Treatment>({ it.date }, { it.bolus }, { it.carbs }, { it.isSMB }, { it.isValid })
+
+        /**
+         * @param graphData new graph, null to keep graph of [previous]
+         * @param treatmentData new treatments, null to keep treatments of [previous]
+         * @return null if graph entries don't share one template and must be sent whole
+         */
+        fun of(graphData: GraphData?, treatmentData: TreatmentData?, previous: WearSyncContent?): WearSyncContent? {
+            var template = previous?.template
+            var points = previous?.points ?: emptyList()
+            if (graphData != null) {
+                template = graphData.entries.firstOrNull()?.toTemplate()
+                if (template != null && graphData.entries.any { !it.toTemplate().sameAs(template) }) return null
+                points = graphData.entries.map { WearSyncDelta.BgPoint(it.timeStamp, it.sgv, it.sgvString, it.sgvLevel) }.sortedByDescending { it.timeStamp }
+                if (points.distinctBy { it.timeStamp }.size != points.size) return null
+            }
+            return WearSyncContent(
+                template = template,
+                points = points,
+                treatments = treatmentData?.boluses?.sortedWith(treatmentComparator) ?: previous?.treatments ?: emptyList(),
+                lines = treatmentData?.let { WearSyncDelta.Lines(it.temps, it.basals, it.predictions) } ?: previous?.lines
+            )
+        }
+
+        private fun SingleBg.toTemplate() = copy(timeStamp = 0, sgv = 0.0, sgvString = "", sgvLevel = 0)
+
+        private fun WearSyncDelta.BgPoint.toSingleBg(template: SingleBg) =
+            template.copy(timeStamp = timeStamp, sgv = sgv, sgvString = sgvString, sgvLevel = sgvLevel)
+
+        private fun SingleBg.fields() =
+            listOf(dataset, timeStamp, sgvString, glucoseUnits, slopeArrow, delta, deltaDetailed, avgDelta, avgDeltaDetailed, sgvLevel, sgv, high, low, color, deltaMgdl, avgDeltaMgdl, id)
+
+        private fun SingleBg.sameAs(other: SingleBg) = fields() == other.fields()
+
+        private fun WearSyncDelta.Lines.sameAs(other: WearSyncDelta.Lines) =
+            temps == other.temps && basals == other.basals && predictions.map { it.fields() } == other.predictions.map { it.fields() }
+
+        /** Elements of this list not matched by an equal element of [other], duplicates counted */
+        private fun <T> List<T>.minusEach(other: List<T>): List<T> {
+            val remaining = other.groupingBy { it }.eachCount().toMutableMap()
+            return filter { element ->
+                val count = remaining[element] ?: 0
+                if (count > 0) remaining[element] = count - 1
+                count == 0
+            }
+        }
+    }
+}
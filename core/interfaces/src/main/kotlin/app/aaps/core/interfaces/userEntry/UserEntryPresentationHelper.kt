@@ -13,4 +13,10 @@ interface UserEntryPresentationHelper {
     @Composable fun iconColor(source: Sources): Color
     fun listToPresentationString(list: List<ValueWithUnit>): String
     fun userEntriesToCsv(userEntries: List<UE>): String
+
+    /** Header of [userEntriesToCsv] including line separator, for writing CSV by parts */
+    fun csvHeader(): String
+
+    /** Line of [userEntriesToCsv] without line separator */
+    fun csvEntry(entry: UE): String
 }
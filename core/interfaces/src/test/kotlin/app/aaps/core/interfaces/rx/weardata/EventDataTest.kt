@@ -157,6 +157,31 @@ class EventDataTest {
             assertThat(EventData.deserializeByte(it.serializeByte())).isEqualTo(it)
             assertThat(EventData.deserialize(it.serialize())).isEqualTo(it)
         }
+        EventData.WearSyncDelta(
+            sequence = 2,
+            baseSequence = 1,
+            bgTemplate = EventData.SingleBg(dataset = 0, 1, sgv = 2.0, high = 3.0, low = 4.0),
+            bgPoints = listOf(EventData.WearSyncDelta.BgPoint(1, 2.0, "2", 3)),
+            bgRemoved = listOf(4),
+            treatmentsAdded = listOf(EventData.TreatmentData.Treatment(1, 2.0, 3.0, true, isValid = true)),
+            treatmentsRemoved = listOf(EventData.TreatmentData.Treatment(4, 5.0, 6.0, false, isValid = true)),
+            lines = EventData.WearSyncDelta.Lines(
+                listOf(EventData.TreatmentData.TempBasal(1, 2.0, 3, 4.0, 5.0)),
+                listOf(EventData.TreatmentData.Basal(1, 2, 3.0)),
+                listOf(EventData.SingleBg(dataset = 0, 1, sgv = 2.0, high = 3.0, low = 4.0))
+            )
+        ).let {
+            assertThat(EventData.deserializeByte(it.serializeByte())).isEqualTo(it)
+            assertThat(EventData.deserialize(it.serialize())).isEqualTo(it)
+        }
+        EventData.WearSyncDelta(sequence = 2, baseSequence = 1).let {
+            assertThat(EventData.deserializeByte(it.serializeByte())).isEqualTo(it)
+            assertThat(EventData.deserialize(it.serialize())).isEqualTo(it)
+        }
+        EventData.WearSyncAck(1, resync = true).let {
+            assertThat(EventData.deserializeByte(it.serializeByte())).isEqualTo(it)
+            assertThat(EventData.deserialize(it.serialize())).isEqualTo(it)
+        }
         EventData.Preferences(1, wearControl = true, true, 2, 3, 4.0, 5.0, 6.0, 7, 8).let {
             assertThat(EventData.deserializeByte(it.serializeByte())).isEqualTo(it)
             assertThat(EventData.deserialize(it.serialize())).isEqualTo(it)
@@ -0,0 +1,95 @@
+package app.aaps.core.interfaces.rx.weardata
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+
+class WearSyncContentTest {
+
+    private fun bg(timeStamp: Long, sgv: Double, delta: String = "+1") =
+        EventData.SingleBg(dataset = 0, timeStamp = timeStamp, sgvString = sgv.toInt().toString(), delta = delta, sgv = sgv, high = 180.0, low = 70.0)
+
+    private fun graph(vararg entries: EventData.SingleBg) = EventData.GraphData(arrayListOf(*entries))
+
+    private fun treatments(vararg boluses: EventData.TreatmentData.Treatment, prediction: Double = 100.0) =
+        EventData.TreatmentData(
+            arrayListOf(EventData.TreatmentData.TempBasal(1, 1.0, 2, 2.0, 2.0)),
+            arrayListOf(EventData.TreatmentData.Basal(1, 2, 1.0)),
+            arrayListOf(*boluses),
+            arrayListOf(bg(10, prediction))
+        )
+
+    private fun bolus(date: Long, amount: Double) = EventData.TreatmentData.Treatment(date, amount, 0.0, isSMB = false, isValid = true)
+
+    private fun EventData.SingleBg.fields() = listOf(timeStamp, sgv, sgvString, delta, high, low, color)
+
+    @Test
+    fun snapshotRestoresContent() {
+        val content = WearSyncContent.of(graph(bg(2, 120.0), bg(1, 110.0)), treatments(bolus(1, 2.0)), null)!!
+        val snapshot = content.deltaFrom(1, 0, null)
+        assertThat(snapshot.baseSequence).isEqualTo(0L)
+        val restored = WearSyncContent.EMPTY.apply(snapshot)
+        assertThat(restored.sameAs(content)).isTrue()
+        assertThat(restored.graphData.entries.map { it.fields() }).containsExactly(bg(2, 120.0).fields(), bg(1, 110.0).fields()).inOrder()
+        assertThat(restored.treatmentData.boluses).containsExactly(bolus(1, 2.0))
+    }
+
+    @Test
+    fun deltaContainsOnlyChanges() {
+        val base = WearSyncContent.of(graph(bg(2, 120.0), bg(1, 110.0)), treatments(bolus(1, 2.0)), null)!!
+        val content = WearSyncContent.of(graph(bg(3, 130.0), bg(2, 121.0)), treatments(bolus(1, 2.0), bolus(3, 1.0)), null)!!
+        val delta = content.deltaFrom(2, 1, base)
+        assertThat(delta.bgTemplate).isNull()
+        assertThat(delta.bgPoints.map { it.timeStamp }).containsExactly(3L, 2L)
+        assertThat(delta.bgRemoved).containsExactly(1L)
+        assertThat(delta.treatmentsAdded).containsExactly(bolus(3, 1.0))
+        assertThat(delta.treatmentsRemoved).isEmpty()
+        assertThat(delta.lines).isNull()
+        assertThat(base.apply(delta).sameAs(content)).isTrue()
+    }
+
+    @Test
+    fun sharedFieldsAndPredictionsAreComparedByValue() {
+        val base = WearSyncContent.of(graph(bg(1, 110.0)), treatments(prediction = 100.0), null)!!
+        val content = WearSyncContent.of(graph(bg(1, 110.0, delta = "+2")), treatments(prediction = 101.0), null)!!
+        assertThat(content.sameAs(base)).isFalse()
+        val delta = content.deltaFrom(2, 1, base)
+        assertThat(delta.bgTemplate?.delta).isEqualTo("+2")
+        assertThat(delta.bgPoints).isEmpty()
+        assertThat(delta.lines?.predictions?.single()?.sgv).isEqualTo(101.0)
+        val applied = base.apply(delta)
+        assertThat(applied.graphData.entries.single().delta).isEqualTo("+2")
+        assertThat(applied.treatmentData.predictions.single().sgv).isEqualTo(101.0)
+    }
+
+    @Test
+    fun unchangedContentGivesEmptyDelta() {
+        val base = WearSyncContent.of(graph(bg(2, 120.0), bg(1, 110.0)), treatments(bolus(1, 2.0), bolus(1, 2.0)), null)!!
+        val content = WearSyncContent.of(graph(bg(1, 110.0), bg(2, 120.0)), treatments(bolus(1, 2.0), bolus(1, 2.0)), null)!!
+        assertThat(content.sameAs(base)).isTrue()
+        val delta = content.deltaFrom(2, 1, base)
+        assertThat(delta.changesGraph).isFalse()
+        assertThat(delta.changesTreatments).isFalse()
+    }
+
+    @Test
+    fun duplicateTreatmentsAreCounted() {
+        val base = WearSyncContent.of(null, treatments(bolus(1, 2.0), bolus(1, 2.0)), null)!!
+        val content = WearSyncContent.of(null, treatments(bolus(1, 2.0)), null)!!
+        val delta = content.deltaFrom(2, 1, base)
+        assertThat(delta.treatmentsRemoved).containsExactly(bolus(1, 2.0))
+        assertThat(base.apply(delta).treatmentData.boluses).containsExactly(bolus(1, 2.0))
+    }
+
+    @Test
+    fun missingPartIsTakenFromPrevious() {
+        val previous = WearSyncContent.of(graph(bg(1, 110.0)), treatments(bolus(1, 2.0)), null)!!
+        val content = WearSyncContent.of(null, treatments(bolus(2, 3.0)), previous)!!
+        assertThat(content.graphData.entries.map { it.fields() }).containsExactly(bg(1, 110.0).fields())
+        assertThat(content.treatmentData.boluses).containsExactly(bolus(2, 3.0))
+    }
+
+    @Test
+    fun entriesWithoutSharedFieldsAreNotSynchronized() {
+        assertThat(WearSyncContent.of(graph(bg(2, 120.0, delta = "+1"), bg(1, 110.0, delta = "+2")), null, null)).isNull()
+    }
+}
@@ -35,4 +35,7 @@ enum class BooleanNonKey(
     ExportCsvCloudEnabled("export_csv_cloud_enabled", false),
 
     AllowHardwarePump("allow_hardware_pump", false),
+
+    // Loop tracing toggle (managed in maintenance, no preferences UI)
+    LoopTracingEnabled("loop_tracing_enabled", false, exportable = false),
 }
\ No newline at end of file
@@ -1,7 +1,5 @@
 package app.aaps.core.objects.extensions
 
-import app.aaps.core.data.configuration.Constants
-import app.aaps.core.data.model.BS
 import app.aaps.core.data.model.EB
 import app.aaps.core.data.model.TB
 import app.aaps.core.data.time.T
@@ -48,36 +46,39 @@ fun EB.toTemporaryBasal(profile: Profile): TB =
         type = TB.Type.FAKE_EXTENDED
     )
 
-fun EB.iobCalc(time: Long, profile: EffectiveProfile): IobTotal {
-    if (!isValid) return IobTotal(time)
-    val result = IobTotal(time)
+/**
+ * Split extended bolus running up to [time] into about 5 min long boluses
+ *
+ * @param sensitivityRatio when not null, amount is corrected by profile basal adjusted by this ratio (see [basalSensitivityRatio])
+ * @param action receives middle of the interval and insulin of each part
+ */
+inline fun EB.forEachInsulinPart(time: Long, profile: Profile, sensitivityRatio: Double?, action: (calcDate: Long, amount: Double) -> Unit) {
     val realDuration = getPassedDurationToTimeInMinutes(time)
-    if (realDuration > 0) {
-        val insulinEndTime = profile.iCfg.insulinEndTime
-        val diaAgo = time - insulinEndTime
-        val aboutFiveMinIntervals = ceil(realDuration / 5.0).toInt()
+    if (realDuration <= 0) return
+    val aboutFiveMinIntervals = ceil(realDuration / 5.0).toInt()
+    if (sensitivityRatio == null) {
         val spacing = realDuration / aboutFiveMinIntervals.toDouble()
         for (j in 0L until aboutFiveMinIntervals) {
             // find middle of the interval
             val calcDate = (timestamp + j * spacing * 60 * 1000 + 0.5 * spacing * 60 * 1000).toLong()
-            if (calcDate > diaAgo && calcDate <= time) {
-                val tempBolusSize: Double = rate * spacing / 60.0
-                val tempBolusPart = BS(
-                    timestamp = calcDate,
-                    amount = tempBolusSize,
-                    type = BS.Type.NORMAL,
-                    iCfg = profile.iCfg
-                )
-                val aIOB = tempBolusPart.iobCalc(time)
-                result.iob += aIOB.iobContrib
-                result.activity += aIOB.activityContrib
-                result.extendedBolusInsulin += tempBolusPart.amount
-            }
+            action(calcDate, rate * spacing / 60.0)
+        }
+    } else {
+        val spacing = realDuration / aboutFiveMinIntervals
+        for (j in 0L until aboutFiveMinIntervals) {
+            // find middle of the interval
+            val calcDate = (timestamp + j * spacing * 60 * 1000 + 0.5 * spacing * 60 * 1000).toLong()
+            val basalRate = profile.getBasal(calcDate)
+            val basalRateCorrection = basalRate * (sensitivityRatio - 1)
+            val netBasalRate = rate - basalRateCorrection
+            action(calcDate, netBasalRate * spacing / 60.0)
         }
     }
-    return result
 }
 
+fun EB.iobCalc(time: Long, profile: EffectiveProfile): IobTotal =
+    iobCalc(time, profile, null)
+
 fun EB.iobCalc(
     time: Long,
     profile: EffectiveProfile,
@@ -85,45 +86,20 @@ fun EB.iobCalc(
     exerciseMode: Boolean,
     halfBasalExerciseTarget: Int,
     isTempTarget: Boolean
-): IobTotal {
+): IobTotal =
+    iobCalc(time, profile, basalSensitivityRatio(profile, lastAutosensResult, exerciseMode, halfBasalExerciseTarget, isTempTarget))
+
+private fun EB.iobCalc(time: Long, profile: EffectiveProfile, sensitivityRatio: Double?): IobTotal {
     if (!isValid) return IobTotal(time)
     val result = IobTotal(time)
-    val realDuration = getPassedDurationToTimeInMinutes(time)
-    var sensitivityRatio = lastAutosensResult.ratio
-    val normalTarget = Constants.NORMAL_TARGET_MGDL.toDouble()
-    if (exerciseMode && isTempTarget && profile.getTargetMgdl() >= normalTarget + 5) {
-        // w/ target 100, temp target 110 = .89, 120 = 0.8, 140 = 0.67, 160 = .57, and 200 = .44
-        // e.g.: Sensitivity ratio set to 0.8 based on temp target of 120; Adjusting basal from 1.65 to 1.35; ISF from 58.9 to 73.6
-        val c = halfBasalExerciseTarget - normalTarget
-        sensitivityRatio = c / (c + profile.getTargetMgdl() - normalTarget)
-    }
-    if (realDuration > 0) {
-        var netBasalRate: Double
-        val insulinEndTime = profile.iCfg.insulinEndTime
-        val diaAgo = time - insulinEndTime
-        val aboutFiveMinIntervals = ceil(realDuration / 5.0).toInt()
-        val spacing = realDuration / aboutFiveMinIntervals
-        for (j in 0L until aboutFiveMinIntervals) {
-            // find middle of the interval
-            val calcDate = (timestamp + j * spacing * 60 * 1000 + 0.5 * spacing * 60 * 1000).toLong()
-            val basalRate = profile.getBasal(calcDate)
-            val basalRateCorrection = basalRate * (sensitivityRatio - 1)
-            netBasalRate = rate - basalRateCorrection
-            if (calcDate > diaAgo && calcDate <= time) {
-                val tempBolusSize = netBasalRate * spacing / 60.0
-                val tempBolusPart = BS(
-                    timestamp = calcDate,
-                    amount = tempBolusSize,
-                    type = BS.Type.NORMAL,
-                    iCfg = profile.iCfg
-                )
-                val aIOB = tempBolusPart.iobCalc(time)
-                result.iob += aIOB.iobContrib
-                result.activity += aIOB.activityContrib
-                result.extendedBolusInsulin += tempBolusPart.amount
-            }
+    val iCfg = profile.iCfg
+    val diaAgo = time - iCfg.insulinEndTime
+    forEachInsulinPart(time, profile, sensitivityRatio) { calcDate, tempBolusSize ->
+        if (calcDate > diaAgo && calcDate <= time) {
+            result.iob += iCfg.iobContrib(tempBolusSize, calcDate, time)
+            result.activity += iCfg.activityContrib(tempBolusSize, calcDate, time)
+            result.extendedBolusInsulin += tempBolusSize
         }
     }
     return result
 }
-
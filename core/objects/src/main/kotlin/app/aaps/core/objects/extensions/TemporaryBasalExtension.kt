@@ -1,7 +1,6 @@
 package app.aaps.core.objects.extensions
 
 import app.aaps.core.data.configuration.Constants
-import app.aaps.core.data.model.BS
 import app.aaps.core.data.model.TB
 import app.aaps.core.data.time.T
 import app.aaps.core.interfaces.aps.AutosensResult
@@ -76,49 +75,58 @@ fun TB.toStringShort(rh: ResourceHelper): String =
     if (isAbsolute || type == TB.Type.FAKE_EXTENDED) rh.gs(app.aaps.core.ui.R.string.pump_base_basal_rate, rate)
     else rh.gs(app.aaps.core.ui.R.string.formatPercent, rate)
 
-fun TB.iobCalc(time: Long, profile: EffectiveProfile): IobTotal {
-    if (!isValid) return IobTotal(time)
-    val result = IobTotal(time)
+/**
+ * Sensitivity ratio applied to profile basal by autosens aware IOB calculation
+ */
+fun basalSensitivityRatio(
+    profile: EffectiveProfile,
+    lastAutosensResult: AutosensResult,
+    exerciseMode: Boolean,
+    halfBasalExerciseTarget: Int,
+    isTempTarget: Boolean
+): Double {
+    var sensitivityRatio = lastAutosensResult.ratio
+    val normalTarget = Constants.NORMAL_TARGET_MGDL.toDouble()
+    if (exerciseMode && isTempTarget && profile.getTargetMgdl() >= normalTarget + 5) {
+        // w/ target 100, temp target 110 = .89, 120 = 0.8, 140 = 0.67, 160 = .57, and 200 = .44
+        // e.g.: Sensitivity ratio set to 0.8 based on temp target of 120; Adjusting basal from 1.65 to 1.35; ISF from 58.9 to 73.6
+        val c = halfBasalExerciseTarget - normalTarget
+        sensitivityRatio = c / (c + profile.getTargetMgdl() - normalTarget)
+    }
+    return sensitivityRatio
+}
+
+/**
+ * Split TBR running up to [time] into about 5 min long parts of net insulin (difference to profile basal)
+ *
+ * @param sensitivityRatio when not null, profile basal is adjusted by this ratio (see [basalSensitivityRatio])
+ * @param action receives middle of the interval and net insulin of each part
+ */
+inline fun TB.forEachNetInsulinPart(time: Long, profile: Profile, sensitivityRatio: Double?, action: (calcDate: Long, amount: Double) -> Unit) {
     val realDuration = getPassedDurationToTimeInMinutes(time)
-    var netBasalAmount = 0.0
-    if (realDuration > 0) {
-        var netBasalRate: Double
-        val insulinEndTime = profile.iCfg.insulinEndTime
-        val diaAgo = time - insulinEndTime
-        val aboutFiveMinIntervals = ceil(realDuration / 5.0).toInt()
-        val tempBolusSpacing = realDuration / aboutFiveMinIntervals.toDouble()
-        for (j in 0L until aboutFiveMinIntervals) {
-            // find middle of the interval
-            val calcDate = (timestamp + j * tempBolusSpacing * 60 * 1000 + 0.5 * tempBolusSpacing * 60 * 1000).toLong()
+    if (realDuration <= 0) return
+    val aboutFiveMinIntervals = ceil(realDuration / 5.0).toInt()
+    val tempBolusSpacing = realDuration / aboutFiveMinIntervals.toDouble()
+    for (j in 0L until aboutFiveMinIntervals) {
+        // find middle of the interval
+        val calcDate = (timestamp + j * tempBolusSpacing * 60 * 1000 + 0.5 * tempBolusSpacing * 60 * 1000).toLong()
+        val netBasalRate = if (sensitivityRatio == null) {
             val basalRate = profile.getBasal(calcDate)
-            netBasalRate = if (isAbsolute) {
-                rate - basalRate
-            } else {
-                (rate - 100) / 100.0 * basalRate
-            }
-            if (calcDate > diaAgo && calcDate <= time) {
-                val tempBolusSize = netBasalRate * tempBolusSpacing / 60.0
-                netBasalAmount += tempBolusSize
-                val tempBolusPart = BS(
-                    timestamp = calcDate,
-                    amount = tempBolusSize,
-                    type = BS.Type.NORMAL,
-                    iCfg = profile.iCfg
-                )
-                val aIOB = tempBolusPart.iobCalc(time)
-                result.basaliob += aIOB.iobContrib
-                result.activity += aIOB.activityContrib
-                result.netbasalinsulin += tempBolusPart.amount
-                if (tempBolusPart.amount > 0) {
-                    result.hightempinsulin += tempBolusPart.amount
-                }
-            }
+            if (isAbsolute) rate - basalRate
+            else (rate - 100) / 100.0 * basalRate
+        } else {
+            val profileBasal = profile.getBasal(calcDate)
+            val basalRate = profileBasal * sensitivityRatio
+            if (isAbsolute) rate - basalRate
+            else rate / 100.0 * profileBasal - basalRate
         }
+        action(calcDate, netBasalRate * tempBolusSpacing / 60.0)
     }
-    result.netInsulin = netBasalAmount
-    return result
 }
 
+fun TB.iobCalc(time: Long, profile: EffectiveProfile): IobTotal =
+    iobCalc(time, profile, null)
+
 fun TB.iobCalc(
     time: Long,
     profile: EffectiveProfile,
@@ -126,52 +134,23 @@ fun TB.iobCalc(
     exerciseMode: Boolean,
     halfBasalExerciseTarget: Int,
     isTempTarget: Boolean
-): IobTotal {
+): IobTotal =
+    iobCalc(time, profile, basalSensitivityRatio(profile, lastAutosensResult, exerciseMode, halfBasalExerciseTarget, isTempTarget))
+
+private fun TB.iobCalc(time: Long, profile: EffectiveProfile, sensitivityRatio: Double?): IobTotal {
     if (!isValid) return IobTotal(time)
     val result = IobTotal(time)
-    val realDuration = getPassedDurationToTimeInMinutes(time)
     var netBasalAmount = 0.0
-    var sensitivityRatio = lastAutosensResult.ratio
-    val normalTarget = Constants.NORMAL_TARGET_MGDL.toDouble()
-    if (exerciseMode && isTempTarget && profile.getTargetMgdl() >= normalTarget + 5) {
-        // w/ target 100, temp target 110 = .89, 120 = 0.8, 140 = 0.67, 160 = .57, and 200 = .44
-        // e.g.: Sensitivity ratio set to 0.8 based on temp target of 120; Adjusting basal from 1.65 to 1.35; ISF from 58.9 to 73.6
-        val c = halfBasalExerciseTarget - normalTarget
-        sensitivityRatio = c / (c + profile.getTargetMgdl() - normalTarget)
-    }
-    if (realDuration > 0) {
-        var netBasalRate: Double
-        val insulinEndTime = profile.iCfg.insulinEndTime
-        val diaAgo = time - insulinEndTime
-        val aboutFiveMinIntervals = ceil(realDuration / 5.0).toInt()
-        val tempBolusSpacing = realDuration / aboutFiveMinIntervals.toDouble()
-        for (j in 0L until aboutFiveMinIntervals) {
-            // find middle of the interval
-            val calcDate = (timestamp + j * tempBolusSpacing * 60 * 1000 + 0.5 * tempBolusSpacing * 60 * 1000).toLong()
-            var basalRate = profile.getBasal(calcDate)
-            basalRate *= sensitivityRatio
-            netBasalRate = if (isAbsolute) {
-                rate - basalRate
-            } else {
-                val abs: Double = rate / 100.0 * profile.getBasal(calcDate)
-                abs - basalRate
-            }
-            if (calcDate > diaAgo && calcDate <= time) {
-                val tempBolusSize = netBasalRate * tempBolusSpacing / 60.0
-                netBasalAmount += tempBolusSize
-                val tempBolusPart = BS(
-                    timestamp = calcDate,
-                    amount = tempBolusSize,
-                    type = BS.Type.NORMAL,
-                    iCfg = profile.iCfg
-                )
-                val aIOB = tempBolusPart.iobCalc(time)
-                result.basaliob += aIOB.iobContrib
-                result.activity += aIOB.activityContrib
-                result.netbasalinsulin += tempBolusPart.amount
-                if (tempBolusPart.amount > 0) {
-                    result.hightempinsulin += tempBolusPart.amount
-                }
+    val iCfg = profile.iCfg
+    val diaAgo = time - iCfg.insulinEndTime
+    forEachNetInsulinPart(time, profile, sensitivityRatio) { calcDate, tempBolusSize ->
+        if (calcDate > diaAgo && calcDate <= time) {
+            netBasalAmount += tempBolusSize
+            result.basaliob += iCfg.iobContrib(tempBolusSize, calcDate, time)
+            result.activity += iCfg.activityContrib(tempBolusSize, calcDate, time)
+            result.netbasalinsulin += tempBolusSize
+            if (tempBolusSize > 0) {
+                result.hightempinsulin += tempBolusSize
             }
         }
     }
@@ -0,0 +1,56 @@
+package app.aaps.core.objects.profile
+
+/**
+ * Profile values compiled to table of equal slots
+ *
+ * Slot length is the greatest common divisor of all block boundaries and timeshift,
+ * so value is constant within every slot and lookup is a single array access
+ * (24 slots for hourly profile). Multiplier (percentage) and timeshift are already applied.
+ * Profiles not aligned to whole minutes are not compiled and [valueAt] is used directly.
+ *
+ * @param durations block durations in milliseconds
+ * @param timeShiftHours timeshift [hours]
+ * @param valueAt slow calculation by seconds from midnight, used to fill the table
+ */
+internal class BlockTable(durations: List<Long>, timeShiftHours: Int, private val valueAt: (Int) -> Double) {
+
+    private val slotSeconds: Int
+    private val values: DoubleArray? by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        if (slotSeconds < MIN_SLOT_SECONDS) null
+        else DoubleArray(DAY_SECONDS / slotSeconds) { valueAt(it * slotSeconds) }
+    }
+
+    init {
+        var slot = gcd(DAY_SECONDS, Math.floorMod(timeShiftHours * 3600, DAY_SECONDS))
+        var elapsed = 0L
+        // boundaries are calculated the same way as in blockValueBySeconds
+        for (duration in durations) {
+            elapsed += duration / 1000
+            slot = gcd(slot, Math.floorMod(elapsed, DAY_SECONDS.toLong()).toInt())
+        }
+        slotSeconds = slot
+    }
+
+    operator fun get(secondsFromMidnight: Int): Double {
+        val table = values
+        if (table == null || secondsFromMidnight < 0 || secondsFromMidnight >= DAY_SECONDS) return valueAt(secondsFromMidnight)
+        return table[secondsFromMidnight / slotSeconds]
+    }
+
+    private fun gcd(a: Int, b: Int): Int {
+        var x = a
+        var y = b
+        while (y != 0) {
+            val t = x % y
+            x = y
+            y = t
+        }
+        return x
+    }
+
+    private companion object {
+
+        const val DAY_SECONDS = 24 * 60 * 60
+        const val MIN_SLOT_SECONDS = 60
+    }
+}
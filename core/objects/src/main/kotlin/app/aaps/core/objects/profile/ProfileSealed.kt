@@ -180,12 +180,14 @@ sealed class ProfileSealed(
             // Check for minimal basal value
             if (basalAmount < description.basalMinimumRate) {
                 basal.amount = description.basalMinimumRate
+                tables = null
                 if (sendNotifications) sendBelowMinimumNotification(from, notificationManager, rh)
                 validityCheck.isValid = false
                 validityCheck.reasons.add(rh.gs(R.string.minimalbasalvaluereplaced, from))
                 break
             } else if (basalAmount > description.basalMaximumRate) {
                 basal.amount = description.basalMaximumRate
+                tables = null
                 if (sendNotifications) sendAboveMaximumNotification(from, notificationManager, rh)
                 validityCheck.isValid = false
                 validityCheck.reasons.add(rh.gs(R.string.maximumbasalvaluereplaced, from))
@@ -256,6 +258,37 @@ sealed class ProfileSealed(
         notificationManager.post(NotificationId.MAXIMUM_BASAL_VALUE_REPLACED, R.string.maximumbasalvaluereplaced, from)
     }
 
+    /**
+     * Lookup tables compiled from current blocks, percentage and timeshift.
+     * Rebuilt when any of them is replaced
+     */
+    private class Tables(
+        val basalBlocks: List<Block>,
+        val isfBlocks: List<Block>,
+        val icBlocks: List<Block>,
+        val targetBlocks: List<TargetBlock>,
+        val percentage: Int,
+        val timeshift: Int
+    ) {
+
+        val basal = BlockTable(basalBlocks.map { it.duration }, timeshift) { basalBlocks.blockValueBySeconds(it, percentage / 100.0, timeshift) }
+        val isf = BlockTable(isfBlocks.map { it.duration }, timeshift) { isfBlocks.blockValueBySeconds(it, 100.0 / percentage, timeshift) }
+        val ic = BlockTable(icBlocks.map { it.duration }, timeshift) { icBlocks.blockValueBySeconds(it, 100.0 / percentage, timeshift) }
+        val target = BlockTable(targetBlocks.map { it.duration }, timeshift) { targetBlocks.targetBlockValueBySeconds(it, timeshift) }
+        val targetLow = BlockTable(targetBlocks.map { it.duration }, timeshift) { targetBlocks.lowTargetBlockValueBySeconds(it, timeshift) }
+        val targetHigh = BlockTable(targetBlocks.map { it.duration }, timeshift) { targetBlocks.highTargetBlockValueBySeconds(it, timeshift) }
+    }
+
+    @Volatile private var tables: Tables? = null
+
+    private fun tables(): Tables {
+        val current = tables
+        if (current != null && current.basalBlocks === basalBlocks && current.isfBlocks === isfBlocks && current.icBlocks === icBlocks &&
+            current.targetBlocks === targetBlocks && current.percentage == percentage && current.timeshift == timeshift
+        ) return current
+        return Tables(basalBlocks, isfBlocks, icBlocks, targetBlocks, percentage, timeshift).also { tables = it }
+    }
+
     override val units: GlucoseUnit
         get() = when (this) {
             is PS   -> value.glucoseUnit
@@ -286,48 +319,48 @@ sealed class ProfileSealed(
     override val percentage: Int
         get() = pct
 
-    override fun getBasal(): Double = basalBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(), percentage / 100.0, timeshift)
-    override fun getBasal(timestamp: Long): Double = basalBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), percentage / 100.0, timeshift)
+    override fun getBasal(): Double = tables().basal[MidnightUtils.secondsFromMidnight()]
+    override fun getBasal(timestamp: Long): Double = tables().basal[MidnightUtils.secondsFromMidnight(timestamp)]
     override fun getIc(): Double =
         if (aps?.supportsDynamicIc() ?: error("APS not defined"))
-            aps.getIc(this) ?: icBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(), 100.0 / percentage, timeshift)
-        else icBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(), 100.0 / percentage, timeshift)
+            aps.getIc(this) ?: tables().ic[MidnightUtils.secondsFromMidnight()]
+        else tables().ic[MidnightUtils.secondsFromMidnight()]
 
     override fun getIc(timestamp: Long): Double =
         if (aps?.supportsDynamicIc() ?: error("APS not defined"))
-            aps.getIc(timestamp, this) ?: icBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), 100.0 / percentage, timeshift)
-        else icBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), 100.0 / percentage, timeshift)
+            aps.getIc(timestamp, this) ?: tables().ic[MidnightUtils.secondsFromMidnight(timestamp)]
+        else tables().ic[MidnightUtils.secondsFromMidnight(timestamp)]
 
     override fun getProfileIsfMgdl(): Double =
-        toMgdl(isfBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(), 100.0 / percentage, timeshift), units)
+        toMgdl(tables().isf[MidnightUtils.secondsFromMidnight()], units)
 
     override fun getIsfMgdl(caller: String): Double =
         if (aps?.supportsDynamicIsf() ?: error("APS not defined"))
-            aps.getIsfMgdl(this, caller) ?: toMgdl(isfBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(), 100.0 / percentage, timeshift), units)
+            aps.getIsfMgdl(this, caller) ?: toMgdl(tables().isf[MidnightUtils.secondsFromMidnight()], units)
         else getProfileIsfMgdl()
 
     override fun getIsfMgdlForCarbs(timestamp: Long, caller: String, config: Config, processedDeviceStatusData: ProcessedDeviceStatusData): Double =
         if (config.AAPSCLIENT) {
-            processedDeviceStatusData.getAPSResult()?.isfMgdlForCarbs ?: toMgdl(isfBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), 100.0 / percentage, timeshift), units)
+            processedDeviceStatusData.getAPSResult()?.isfMgdlForCarbs ?: toMgdl(tables().isf[MidnightUtils.secondsFromMidnight(timestamp)], units)
         } else {
             if (aps?.supportsDynamicIsf() ?: error("APS not defined"))
-                aps.getAverageIsfMgdl(timestamp, caller) ?: toMgdl(isfBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), 100.0 / percentage, timeshift), units)
-            else toMgdl(isfBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), 100.0 / percentage, timeshift), units)
+                aps.getAverageIsfMgdl(timestamp, caller) ?: toMgdl(tables().isf[MidnightUtils.secondsFromMidnight(timestamp)], units)
+            else toMgdl(tables().isf[MidnightUtils.secondsFromMidnight(timestamp)], units)
         }
 
-    override fun getTargetMgdl(): Double = toMgdl(targetBlocks.targetBlockValueBySeconds(MidnightUtils.secondsFromMidnight(), timeshift), units)
-    override fun getTargetLowMgdl(): Double = toMgdl(targetBlocks.lowTargetBlockValueBySeconds(MidnightUtils.secondsFromMidnight(), timeshift), units)
-    override fun getTargetLowMgdl(timestamp: Long): Double = toMgdl(targetBlocks.lowTargetBlockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), timeshift), units)
-    override fun getTargetHighMgdl(): Double = toMgdl(targetBlocks.highTargetBlockValueBySeconds(MidnightUtils.secondsFromMidnight(), timeshift), units)
-    override fun getTargetHighMgdl(timestamp: Long): Double = toMgdl(targetBlocks.highTargetBlockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), timeshift), units)
-    override fun getBasalTimeFromMidnight(timeAsSeconds: Int): Double = basalBlocks.blockValueBySeconds(timeAsSeconds, percentage / 100.0, timeshift)
-    override fun getIcTimeFromMidnight(timeAsSeconds: Int): Double = icBlocks.blockValueBySeconds(timeAsSeconds, 100.0 / percentage, timeshift)
-    fun getIsfTimeFromMidnight(timeAsSeconds: Int): Double = isfBlocks.blockValueBySeconds(timeAsSeconds, 100.0 / percentage, timeshift)
-    override fun getIsfMgdlTimeFromMidnight(timeAsSeconds: Int): Double = toMgdl(isfBlocks.blockValueBySeconds(timeAsSeconds, 100.0 / percentage, timeshift), units)
-    override fun getTargetLowMgdlTimeFromMidnight(timeAsSeconds: Int): Double = toMgdl(targetBlocks.lowTargetBlockValueBySeconds(timeAsSeconds, timeshift), units)
-    private fun getTargetLowTimeFromMidnight(timeAsSeconds: Int): Double = targetBlocks.lowTargetBlockValueBySeconds(timeAsSeconds, timeshift)
-    private fun getTargetHighTimeFromMidnight(timeAsSeconds: Int): Double = targetBlocks.highTargetBlockValueBySeconds(timeAsSeconds, timeshift)
-    override fun getTargetHighMgdlTimeFromMidnight(timeAsSeconds: Int): Double = toMgdl(targetBlocks.highTargetBlockValueBySeconds(timeAsSeconds, timeshift), units)
+    override fun getTargetMgdl(): Double = toMgdl(tables().target[MidnightUtils.secondsFromMidnight()], units)
+    override fun getTargetLowMgdl(): Double = toMgdl(tables().targetLow[MidnightUtils.secondsFromMidnight()], units)
+    override fun getTargetLowMgdl(timestamp: Long): Double = toMgdl(tables().targetLow[MidnightUtils.secondsFromMidnight(timestamp)], units)
+    override fun getTargetHighMgdl(): Double = toMgdl(tables().targetHigh[MidnightUtils.secondsFromMidnight()], units)
+    override fun getTargetHighMgdl(timestamp: Long): Double = toMgdl(tables().targetHigh[MidnightUtils.secondsFromMidnight(timestamp)], units)
+    override fun getBasalTimeFromMidnight(timeAsSeconds: Int): Double = tables().basal[timeAsSeconds]
+    override fun getIcTimeFromMidnight(timeAsSeconds: Int): Double = tables().ic[timeAsSeconds]
+    fun getIsfTimeFromMidnight(timeAsSeconds: Int): Double = tables().isf[timeAsSeconds]
+    override fun getIsfMgdlTimeFromMidnight(timeAsSeconds: Int): Double = toMgdl(tables().isf[timeAsSeconds], units)
+    override fun getTargetLowMgdlTimeFromMidnight(timeAsSeconds: Int): Double = toMgdl(tables().targetLow[timeAsSeconds], units)
+    private fun getTargetLowTimeFromMidnight(timeAsSeconds: Int): Double = tables().targetLow[timeAsSeconds]
+    private fun getTargetHighTimeFromMidnight(timeAsSeconds: Int): Double = tables().targetHigh[timeAsSeconds]
+    override fun getTargetHighMgdlTimeFromMidnight(timeAsSeconds: Int): Double = toMgdl(tables().targetHigh[timeAsSeconds], units)
 
     override fun getIcList(rh: ResourceHelper, dateUtil: DateUtil): String =
         getValuesList(icBlocks, 100.0 / percentage, DecimalFormat("0.0"), rh.gs(R.string.profile_carbs_per_unit), dateUtil)
@@ -0,0 +1,37 @@
+package app.aaps.core.objects.profile
+
+import app.aaps.core.data.model.data.Block
+import app.aaps.core.data.model.data.TargetBlock
+import app.aaps.core.objects.extensions.blockValueBySeconds
+import app.aaps.core.objects.extensions.lowTargetBlockValueBySeconds
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+
+class BlockTableTest {
+
+    private val hourly = listOf(Block(3_600_000L * 6, 0.5), Block(3_600_000L * 10, 0.8), Block(3_600_000L * 8, 0.6))
+    private val halfHour = listOf(Block(1_800_000L, 1.0), Block(3_600_000L * 23, 2.0), Block(1_800_000L, 3.0))
+    private val notAligned = listOf(Block(3_600_000L + 90_500L, 1.0), Block(3_600_000L * 22, 2.0), Block(3_509_500L, 3.0))
+    private val short = listOf(Block(3_600_000L * 20, 1.0))
+
+    private fun verify(blocks: List<Block>, multiplier: Double, timeshift: Int) {
+        val table = BlockTable(blocks.map { it.duration }, timeshift) { blocks.blockValueBySeconds(it, multiplier, timeshift) }
+        for (seconds in (0 until 24 * 3600 step 7) + listOf(-1, 24 * 3600, 24 * 3600 + 5))
+            assertThat(table[seconds]).isEqualTo(blocks.blockValueBySeconds(seconds, multiplier, timeshift))
+    }
+
+    @Test
+    fun sameValuesAsBlockList() {
+        for (blocks in listOf(hourly, halfHour, notAligned, short))
+            for (timeshift in listOf(-5, 0, 1, 3, 23))
+                verify(blocks, 1.3, timeshift)
+    }
+
+    @Test
+    fun targetBlocks() {
+        val blocks = listOf(TargetBlock(3_600_000L * 2, 90.0, 100.0), TargetBlock(3_600_000L * 22, 100.0, 110.0))
+        val table = BlockTable(blocks.map { it.duration }, 2) { blocks.lowTargetBlockValueBySeconds(it, 2) }
+        for (seconds in 0 until 24 * 3600 step 60)
+            assertThat(table[seconds]).isEqualTo(blocks.lowTargetBlockValueBySeconds(seconds, 2))
+    }
+}
@@ -116,6 +116,15 @@ class ProfileSealedTest : TestBase() {
         assertThat(p.percentage).isEqualTo(100)
         assertThat(p.timeshift).isEqualTo(0)
 
+        // Changed percentage and timeshift are reflected
+        p.pct = 200
+        p.ts = 1
+        assertThat(p.getBasalTimeFromMidnight(2 * 60 * 60)).isWithin(0.01).of(0.2)
+        assertThat(p.getIsfMgdlTimeFromMidnight(2 * 60 * 60)).isWithin(0.01).of(54.0)
+        assertThat(p.getIsfMgdlTimeFromMidnight(3 * 60 * 60)).isWithin(0.01).of(55.8)
+        p.pct = 100
+        p.ts = 0
+
         //Test basal profile below limit
         p = ProfileSealed.Pure(pureProfileFromJson(JSONObject(belowLimitValidProfile), dateUtil)!!, activePlugin)
         p.isValid("Test", testPumpPlugin, config, rh, notificationManager, hardLimits, false)
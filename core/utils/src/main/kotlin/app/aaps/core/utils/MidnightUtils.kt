@@ -4,25 +4,29 @@ import java.time.Duration
 import java.time.Instant
 import java.time.ZoneId
 import java.time.ZonedDateTime
+import java.util.TimeZone
 
 /**
  * Midnight time conversion
  */
 object MidnightUtils {
 
+    /**
+     * Time range of whole days with constant UTC offset in one time zone.
+     * Inside the range seconds from midnight are simple modulo of local time.
+     */
+    private class ConstantOffsetDays(val timeZone: String, val from: Long, val to: Long, val offset: Long)
+
+    @Volatile private var constantOffsetDays: ConstantOffsetDays? = null
+    private const val DAY_MILLIS = 24 * 60 * 60 * 1000L
+
     /**
      * Actual passed seconds from midnight ignoring DST change
      * (thus always having 24 hours in a day, not 23 or 25 in days where DST changes)
      *
      * @return seconds
      */
-    fun secondsFromMidnight(): Int {
-        val nowZoned = ZonedDateTime.now()
-        val localTime = nowZoned.toLocalTime()
-        val midnight = nowZoned.toLocalDate().atStartOfDay(nowZoned.zone).toLocalTime()
-        val duration = Duration.between(midnight, localTime)
-        return duration.seconds.toInt()
-    }
+    fun secondsFromMidnight(): Int = secondsFromMidnight(System.currentTimeMillis())
 
     /**
      * Passed seconds from midnight for specified time ignoring DST change
@@ -31,14 +35,36 @@ object MidnightUtils {
      * @param timestamp time
      * @return seconds
      */
-   fun secondsFromMidnight(timestamp: Long): Int {
-        val timeZoned = ZonedDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault())
+    fun secondsFromMidnight(timestamp: Long): Int {
+        val timeZone = TimeZone.getDefault()
+        val days = constantOffsetDays
+        if (days != null && timestamp >= days.from && timestamp < days.to && days.timeZone == timeZone.id)
+            return (Math.floorMod(timestamp + days.offset, DAY_MILLIS) / 1000).toInt()
+        constantOffsetDays = constantOffsetDaysAround(timeZone, timestamp)
+        val timeZoned = ZonedDateTime.ofInstant(Instant.ofEpochMilli(timestamp), timeZone.toZoneId())
         val localTime = timeZoned.toLocalTime()
         val midnight = timeZoned.toLocalDate().atStartOfDay(timeZoned.zone).toLocalTime()
         val duration: Duration = Duration.between(midnight, localTime)
         return duration.seconds.toInt()
     }
 
+    /**
+     * Whole local days around [timestamp] without offset transition.
+     * Days containing transition are excluded and always calculated by calendar.
+     */
+    private fun constantOffsetDaysAround(timeZone: TimeZone, timestamp: Long): ConstantOffsetDays {
+        val rules = timeZone.toZoneId().rules
+        val instant = Instant.ofEpochMilli(timestamp)
+        val offset = rules.getOffset(instant)
+        val from = rules.previousTransition(instant)?.let { transition ->
+            transition.dateTimeAfter.toLocalDate().plusDays(1).atStartOfDay().toInstant(offset).toEpochMilli()
+        } ?: Long.MIN_VALUE
+        val to = rules.nextTransition(instant)?.let { transition ->
+            transition.dateTimeBefore.toLocalDate().atStartOfDay().toInstant(offset).toEpochMilli()
+        } ?: Long.MAX_VALUE
+        return ConstantOffsetDays(timeZone.id, from, to, offset.totalSeconds * 1000L)
+    }
+
     /**
      * Passed milliseconds from midnight for specified time ignoring DST change
      * (thus always having 24 hours in a day, not 23 or 25 in days where DST changes)
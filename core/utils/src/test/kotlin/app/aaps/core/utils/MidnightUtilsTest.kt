@@ -3,6 +3,7 @@ package app.aaps.core.utils
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import java.time.Duration
 import java.time.Instant
 import java.time.LocalDate
 import java.time.LocalDateTime
@@ -64,4 +65,20 @@ class MidnightUtilsTest {
         assertThat(MidnightUtils.secondsFromMidnight(dateTime)).isEqualTo(83101)
         assertThat(MidnightUtils.milliSecFromMidnight(dateTime)).isEqualTo(83101 * 1000L)
     }
-}
\ No newline at end of file
+
+    @Test fun fastPathMatchesCalendarCalculation() {
+        // zones with DST, DST at midnight, fractional and fixed offsets
+        for (zone in listOf("Europe/Amsterdam", "America/Santiago", "America/Havana", "Asia/Kolkata", "Australia/Lord_Howe", "UTC")) {
+            TimeZone.setDefault(TimeZone.getTimeZone(zone))
+            val zoneId = ZoneId.systemDefault()
+            var time = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, zoneId).toInstant().toEpochMilli()
+            val end = ZonedDateTime.of(2021, 1, 1, 0, 0, 0, 0, zoneId).toInstant().toEpochMilli()
+            while (time < end) {
+                val timeZoned = ZonedDateTime.ofInstant(Instant.ofEpochMilli(time), zoneId)
+                val expected = Duration.between(timeZoned.toLocalDate().atStartOfDay(zoneId).toLocalTime(), timeZoned.toLocalTime()).seconds.toInt()
+                assertThat(MidnightUtils.secondsFromMidnight(time)).isEqualTo(expected)
+                time += 7 * 60 * 1000L + 123
+            }
+        }
+    }
+}
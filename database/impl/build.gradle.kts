@@ -36,6 +36,7 @@ dependencies {
     api(libs.com.google.dagger.android.support)
     api(libs.com.google.dagger.hilt.android)
 
+    testImplementation(libs.org.xerial.sqlite.jdbc)
     androidTestImplementation(libs.androidx.room.testing)
 
     ksp(libs.com.google.dagger.compiler)
@@ -279,6 +279,9 @@ class AppRepository @Inject internal constructor(
     suspend fun getUserEntryFilteredDataFromTime(timestamp: Long): List<UserEntry> =
         database.userEntryDao.getUserEntryFilteredDataFromTime(UserEntry.Sources.Loop, timestamp)
 
+    suspend fun getUserEntryFilteredDataPage(timestamp: Long, beforeTimestamp: Long, beforeId: Long, limit: Int): List<UserEntry> =
+        database.userEntryDao.getUserEntryFilteredDataPage(UserEntry.Sources.Loop, timestamp, beforeTimestamp, beforeId, limit)
+
     suspend fun insert(word: UserEntry) {
         database.userEntryDao.insert(word)
         changeSubject.onNext(mutableListOf(word)) // Not TraceableDao
@@ -33,6 +33,15 @@ internal interface BolusDao : TraceableDao<Bolus> {
     @Query("SELECT * FROM $TABLE_BOLUSES WHERE (pumpId = :pumpId) AND (pumpType = :pumpType) AND (pumpSerial = :pumpSerial) AND (referenceId IS NULL)")
     suspend fun findByPumpIds(pumpId: Long, pumpType: InterfaceIDs.PumpType, pumpSerial: String): Bolus?
 
+    @Query("SELECT * FROM $TABLE_BOLUSES WHERE (nightscoutId IN (:nsIds)) AND (referenceId IS NULL) ORDER BY id ASC")
+    suspend fun getByNSIds(nsIds: List<String>): List<Bolus>
+
+    @Query("SELECT * FROM $TABLE_BOLUSES WHERE (pumpId IN (:pumpIds)) AND (referenceId IS NULL) ORDER BY id ASC")
+    suspend fun findByPumpIds(pumpIds: List<Long>): List<Bolus>
+
+    @Query("SELECT * FROM $TABLE_BOLUSES WHERE (timestamp BETWEEN :from AND :to) AND (referenceId IS NULL) ORDER BY id ASC")
+    suspend fun findByTimestampRange(from: Long, to: Long): List<Bolus>
+
     @Query("SELECT * FROM $TABLE_BOLUSES WHERE (temporaryId = :temporaryId) AND (pumpType = :pumpType) AND (pumpSerial = :pumpSerial) AND (referenceId IS NULL)")
     suspend fun findByPumpTempIds(temporaryId: Long, pumpType: InterfaceIDs.PumpType, pumpSerial: String): Bolus?
 
@@ -33,6 +33,15 @@ internal interface CarbsDao : TraceableDao<Carbs> {
     @Query("SELECT * FROM $TABLE_CARBS WHERE (pumpId = :pumpId) AND (pumpType = :pumpType) AND (pumpSerial = :pumpSerial) AND (referenceId IS NULL)")
     fun findByPumpIds(pumpId: Long, pumpType: InterfaceIDs.PumpType, pumpSerial: String): Carbs?
 
+    @Query("SELECT * FROM $TABLE_CARBS WHERE (nightscoutId IN (:nsIds)) AND (referenceId IS NULL) ORDER BY id ASC")
+    suspend fun getByNSIds(nsIds: List<String>): List<Carbs>
+
+    @Query("SELECT * FROM $TABLE_CARBS WHERE (pumpId IN (:pumpIds)) AND (referenceId IS NULL) ORDER BY id ASC")
+    suspend fun findByPumpIds(pumpIds: List<Long>): List<Carbs>
+
+    @Query("SELECT * FROM $TABLE_CARBS WHERE (timestamp BETWEEN :from AND :to) AND (referenceId IS NULL) ORDER BY id ASC")
+    suspend fun findByTimestampRange(from: Long, to: Long): List<Carbs>
+
     @Query("SELECT * FROM $TABLE_CARBS WHERE isValid = 1 AND referenceId IS NULL ORDER BY id DESC LIMIT 1")
     suspend fun getLastCarbsRecord(): Carbs?
 
@@ -32,6 +32,9 @@ internal interface GlucoseValueDao : TraceableDao<GlucoseValue> {
     @Query("SELECT * FROM $TABLE_GLUCOSE_VALUES WHERE (timestamp = :timestamp) AND (sourceSensor = :sourceSensor) AND (referenceId IS NULL)")
     suspend fun findByTimestampAndSensor(timestamp: Long, sourceSensor: GlucoseValue.SourceSensor): GlucoseValue?
 
+    @Query("SELECT * FROM $TABLE_GLUCOSE_VALUES WHERE (timestamp BETWEEN :from AND :to) AND (referenceId IS NULL) ORDER BY id ASC")
+    suspend fun findByTimestampRange(from: Long, to: Long): List<GlucoseValue>
+
     @Query("SELECT * FROM $TABLE_GLUCOSE_VALUES WHERE (timestamp >= :timestamp) AND (isValid = 1) AND (referenceId IS NULL) AND (value >= 39) ORDER BY timestamp ASC")
     suspend fun compatGetBgReadingsDataFromTime(timestamp: Long): List<GlucoseValue>
 
@@ -39,6 +39,12 @@ internal interface TemporaryBasalDao : TraceableDao<TemporaryBasal> {
     @Query("SELECT * FROM $TABLE_TEMPORARY_BASALS WHERE (nightscoutId = :nsId) AND (referenceId IS NULL)")
     suspend fun findByNSId(nsId: String): TemporaryBasal?
 
+    @Query("SELECT * FROM $TABLE_TEMPORARY_BASALS WHERE (nightscoutId IN (:nsIds)) AND (referenceId IS NULL) ORDER BY id ASC")
+    suspend fun findByNSIds(nsIds: List<String>): List<TemporaryBasal>
+
+    @Query("SELECT * FROM $TABLE_TEMPORARY_BASALS WHERE (pumpId IN (:pumpIds)) AND (referenceId IS NULL) ORDER BY id ASC")
+    suspend fun findByPumpIds(pumpIds: List<Long>): List<TemporaryBasal>
+
     @Query("SELECT * FROM $TABLE_TEMPORARY_BASALS WHERE (temporaryId = :temporaryId) AND (pumpType = :pumpType) AND (pumpSerial = :pumpSerial) AND (referenceId IS NULL)")
     suspend fun findByPumpTempIds(temporaryId: Long, pumpType: InterfaceIDs.PumpType, pumpSerial: String): TemporaryBasal?
 
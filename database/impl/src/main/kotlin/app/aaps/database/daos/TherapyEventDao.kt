@@ -32,6 +32,12 @@ internal interface TherapyEventDao : TraceableDao<TherapyEvent> {
     @Query("SELECT * FROM $TABLE_THERAPY_EVENTS WHERE (nightscoutId = :nsId) AND (referenceId IS NULL)")
     suspend fun findByNSId(nsId: String): TherapyEvent?
 
+    @Query("SELECT * FROM $TABLE_THERAPY_EVENTS WHERE (nightscoutId IN (:nsIds)) AND (referenceId IS NULL) ORDER BY id ASC")
+    suspend fun findByNSIds(nsIds: List<String>): List<TherapyEvent>
+
+    @Query("SELECT * FROM $TABLE_THERAPY_EVENTS WHERE (timestamp BETWEEN :from AND :to) AND (referenceId IS NULL) ORDER BY id ASC")
+    suspend fun findByTimestampRange(from: Long, to: Long): List<TherapyEvent>
+
     @Query("SELECT * FROM $TABLE_THERAPY_EVENTS WHERE (timestamp >= :timestamp) AND (isValid = 1) AND (referenceId IS NULL) ORDER BY timestamp ASC")
     suspend fun getTherapyEventDataFromTime(timestamp: Long): List<TherapyEvent>
 
@@ -19,6 +19,12 @@ internal interface TraceableDao<T : TraceableDBEntry> : TraceableDaoWorkaround<T
 
     @Update
     fun update(entry: T)
+
+    @Insert
+    fun insert(entries: List<T>): List<Long>
+
+    @Update
+    fun update(entries: List<T>)
 }
 
 /**
@@ -57,4 +63,50 @@ internal fun <T : TraceableDBEntry> TraceableDao<T>.updateExistingEntryImpl(entr
     current.referenceId = entry.id
     current.id = 0
     return insert(current)
-}
\ No newline at end of file
+}
+
+/**
+ * Inserts new entries in one statement
+ * @return The IDs of the newly generated entries
+ */
+//@Transaction
+internal fun <T : TraceableDBEntry> TraceableDao<T>.insertNewEntriesImpl(entries: List<T>): List<Long> {
+    val lastModified = System.currentTimeMillis()
+    for (entry in entries) {
+        if (entry.id != 0L) throw IllegalArgumentException("ID must be 0.")
+        if (entry.version != 0) throw IllegalArgumentException("Version must be 0.")
+        if (entry.referenceId != null) throw IllegalArgumentException("Reference ID must be null.")
+        if (!entry.foreignKeysValid) throw IllegalArgumentException("One or more foreign keys are invalid (e.g. 0 value).")
+        entry.dateCreated = lastModified
+    }
+    val ids = insert(entries)
+    entries.forEachIndexed { index, entry -> entry.id = ids[index] }
+    return ids
+}
+
+/**
+ * Updates existing entries and stores their previous versions in one statement each
+ *
+ * Unlike [updateExistingEntryImpl] the previous versions are not read back from database.
+ * [historic] must be copies of previous versions made by caller with referenceId pointing to updated entry
+ * and the version of [entries] must be already increased.
+ * @return The IDs of the newly generated HISTORIC entries
+ */
+//@Transaction
+internal fun <T : TraceableDBEntry> TraceableDao<T>.updateExistingEntriesImpl(entries: List<T>, historic: List<T>): List<Long> {
+    val lastModified = System.currentTimeMillis()
+    val ids = HashSet<Long>()
+    for (entry in entries) {
+        if (entry.id == 0L) throw IllegalArgumentException("ID must not be 0.")
+        if (entry.referenceId != null) throw IllegalArgumentException("Reference ID must be null.")
+        if (!entry.foreignKeysValid) throw IllegalArgumentException("One or more foreign keys are invalid (e.g. 0 value).")
+        entry.dateCreated = lastModified
+        ids.add(entry.id)
+    }
+    for (entry in historic) {
+        if (entry.id != 0L) throw IllegalArgumentException("ID of historic entry must be 0.")
+        if (entry.referenceId !in ids) throw IllegalArgumentException("Historic entry must reference updated entry.")
+    }
+    update(entries)
+    return insert(historic)
+}
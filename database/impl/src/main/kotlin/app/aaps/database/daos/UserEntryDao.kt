@@ -21,4 +21,7 @@ interface UserEntryDao {
 
     @Query("SELECT * FROM $TABLE_USER_ENTRY WHERE (timestamp >= :timestamp) AND (source != :excludeSource) ORDER BY timestamp DESC")
     suspend fun getUserEntryFilteredDataFromTime(excludeSource: Sources, timestamp: Long): List<UserEntry>
+
+    @Query("SELECT * FROM $TABLE_USER_ENTRY WHERE (timestamp >= :timestamp) AND (source != :excludeSource) AND (timestamp <= :beforeTimestamp) AND (timestamp < :beforeTimestamp OR id < :beforeId) ORDER BY timestamp DESC, id DESC LIMIT :limit")
+    suspend fun getUserEntryFilteredDataPage(excludeSource: Sources, timestamp: Long, beforeTimestamp: Long, beforeId: Long, limit: Int): List<UserEntry>
 }
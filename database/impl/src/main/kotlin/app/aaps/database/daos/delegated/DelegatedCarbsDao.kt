@@ -15,4 +15,14 @@ internal class DelegatedCarbsDao(changes: MutableList<DBEntry>, private val dao:
         changes.add(entry)
         return dao.updateExistingEntry(entry)
     }
+
+    override fun insertNewEntries(entries: List<Carbs>): List<Long> {
+        changes.addAll(entries)
+        return dao.insertNewEntries(entries)
+    }
+
+    override fun updateExistingEntries(entries: List<Carbs>, historic: List<Carbs>): List<Long> {
+        changes.addAll(entries)
+        return dao.updateExistingEntries(entries, historic)
+    }
 }
\ No newline at end of file
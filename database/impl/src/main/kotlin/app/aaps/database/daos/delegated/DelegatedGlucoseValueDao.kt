@@ -15,4 +15,14 @@ internal class DelegatedGlucoseValueDao(changes: MutableList<DBEntry>, private v
         changes.add(entry)
         return dao.updateExistingEntry(entry)
     }
+
+    override fun insertNewEntries(entries: List<GlucoseValue>): List<Long> {
+        changes.addAll(entries)
+        return dao.insertNewEntries(entries)
+    }
+
+    override fun updateExistingEntries(entries: List<GlucoseValue>, historic: List<GlucoseValue>): List<Long> {
+        changes.addAll(entries)
+        return dao.updateExistingEntries(entries, historic)
+    }
 }
\ No newline at end of file
@@ -15,4 +15,14 @@ internal class DelegatedTemporaryBasalDao(changes: MutableList<DBEntry>, private
         changes.add(entry)
         return dao.updateExistingEntry(entry)
     }
+
+    override fun insertNewEntries(entries: List<TemporaryBasal>): List<Long> {
+        changes.addAll(entries)
+        return dao.insertNewEntries(entries)
+    }
+
+    override fun updateExistingEntries(entries: List<TemporaryBasal>, historic: List<TemporaryBasal>): List<Long> {
+        changes.addAll(entries)
+        return dao.updateExistingEntries(entries, historic)
+    }
 }
\ No newline at end of file
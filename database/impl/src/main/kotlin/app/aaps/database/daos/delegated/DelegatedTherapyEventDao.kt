@@ -15,4 +15,14 @@ internal class DelegatedTherapyEventDao(changes: MutableList<DBEntry>, private v
         changes.add(entry)
         return dao.updateExistingEntry(entry)
     }
+
+    override fun insertNewEntries(entries: List<TherapyEvent>): List<Long> {
+        changes.addAll(entries)
+        return dao.insertNewEntries(entries)
+    }
+
+    override fun updateExistingEntries(entries: List<TherapyEvent>, historic: List<TherapyEvent>): List<Long> {
+        changes.addAll(entries)
+        return dao.updateExistingEntries(entries, historic)
+    }
 }
\ No newline at end of file
@@ -2,7 +2,9 @@ package app.aaps.database.daos.workaround
 
 import androidx.room.Transaction
 import app.aaps.database.daos.TraceableDao
+import app.aaps.database.daos.insertNewEntriesImpl
 import app.aaps.database.daos.insertNewEntryImpl
+import app.aaps.database.daos.updateExistingEntriesImpl
 import app.aaps.database.daos.updateExistingEntryImpl
 import app.aaps.database.entities.interfaces.TraceableDBEntry
 
@@ -25,4 +27,22 @@ interface TraceableDaoWorkaround<T : TraceableDBEntry> {
     @Transaction
     fun updateExistingEntry(entry: T): Long =
         (this as TraceableDao<T>).updateExistingEntryImpl(entry)
+
+    /**
+     * Inserts new entries
+     *
+     * @return The IDs of the newly generated entries
+     */
+    @Transaction
+    fun insertNewEntries(entries: List<T>): List<Long> =
+        (this as TraceableDao<T>).insertNewEntriesImpl(entries)
+
+    /**
+     * Updates existing entries, [historic] are their previous versions
+     *
+     * @return The IDs of the newly generated HISTORIC entries
+     */
+    @Transaction
+    fun updateExistingEntries(entries: List<T>, historic: List<T>): List<Long> =
+        (this as TraceableDao<T>).updateExistingEntriesImpl(entries, historic)
 }
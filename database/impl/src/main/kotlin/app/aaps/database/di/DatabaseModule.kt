@@ -9,7 +9,10 @@ import androidx.sqlite.db.SupportSQLiteDatabase
 import app.aaps.database.AppDatabase
 import app.aaps.database.entities.TABLE_APS_RESULTS
 import app.aaps.database.entities.TABLE_BOLUSES
+import app.aaps.database.entities.TABLE_CARBS
 import app.aaps.database.entities.TABLE_EFFECTIVE_PROFILE_SWITCHES
+import app.aaps.database.entities.TABLE_EXTENDED_BOLUSES
+import app.aaps.database.entities.TABLE_GLUCOSE_VALUES
 import app.aaps.database.entities.TABLE_HEART_RATE
 import app.aaps.database.entities.TABLE_TOTAL_DAILY_DOSES
 import app.aaps.database.entities.TABLE_PREFERENCE_CHANGES
@@ -52,12 +55,18 @@ open class DatabaseModule {
     @Qualifier
     annotation class DbFileName
 
+    /** Indexes on expressions not supported by room, created on every open */
+    @VisibleForTesting
+    internal val customIndexes = listOf(
+        "CREATE INDEX IF NOT EXISTS `index_temporaryBasals_end` ON `temporaryBasals` (`timestamp` + `duration`)",
+        "CREATE INDEX IF NOT EXISTS `index_extendedBoluses_end` ON `extendedBoluses` (`timestamp` + `duration`)",
+        "CREATE INDEX IF NOT EXISTS `index_temporaryTargets_end` ON `temporaryTargets` (`timestamp` + `duration`)",
+        "CREATE INDEX IF NOT EXISTS `index_carbs_end` ON `carbs` (`timestamp` + `duration`)",
+        "CREATE INDEX IF NOT EXISTS `index_runningModes_end` ON `runningModes` (`timestamp` + `duration`)"
+    )
+
     private fun createCustomIndexes(database: SupportSQLiteDatabase) {
-        database.execSQL("CREATE INDEX IF NOT EXISTS `index_temporaryBasals_end` ON `temporaryBasals` (`timestamp` + `duration`)")
-        database.execSQL("CREATE INDEX IF NOT EXISTS `index_extendedBoluses_end` ON `extendedBoluses` (`timestamp` + `duration`)")
-        database.execSQL("CREATE INDEX IF NOT EXISTS `index_temporaryTargets_end` ON `temporaryTargets` (`timestamp` + `duration`)")
-        database.execSQL("CREATE INDEX IF NOT EXISTS `index_carbs_end` ON `carbs` (`timestamp` + `duration`)")
-        database.execSQL("CREATE INDEX IF NOT EXISTS `index_runningModes_end` ON `runningModes` (`timestamp` + `duration`)")
+        customIndexes.forEach { database.execSQL(it) }
     }
 
     private fun dropCustomIndexes(database: SupportSQLiteDatabase) {
@@ -319,7 +328,31 @@ open class DatabaseModule {
         }
     }
 
+    internal val migration34to35 = object : Migration(34, 35) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            // Current rows of a time window are found by one index range instead of reading all current rows
+            db.execSQL("DROP INDEX IF EXISTS `index_glucoseValues_referenceId`")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_glucoseValues_referenceId_timestamp` ON `$TABLE_GLUCOSE_VALUES` (`referenceId`, `timestamp`)")
+            db.execSQL("DROP INDEX IF EXISTS `index_boluses_referenceId`")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_boluses_referenceId_timestamp` ON `$TABLE_BOLUSES` (`referenceId`, `timestamp`)")
+            db.execSQL("DROP INDEX IF EXISTS `index_carbs_referenceId`")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_carbs_referenceId_timestamp` ON `$TABLE_CARBS` (`referenceId`, `timestamp`)")
+            db.execSQL("DROP INDEX IF EXISTS `index_temporaryBasals_referenceId`")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_temporaryBasals_referenceId_timestamp` ON `$TABLE_TEMPORARY_BASALS` (`referenceId`, `timestamp`)")
+            db.execSQL("DROP INDEX IF EXISTS `index_extendedBoluses_referenceId`")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_extendedBoluses_referenceId_timestamp` ON `$TABLE_EXTENDED_BOLUSES` (`referenceId`, `timestamp`)")
+            db.execSQL("DROP INDEX IF EXISTS `index_effectiveProfileSwitches_referenceId`")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_effectiveProfileSwitches_referenceId_timestamp` ON `$TABLE_EFFECTIVE_PROFILE_SWITCHES` (`referenceId`, `timestamp`)")
+            db.execSQL("DROP INDEX IF EXISTS `index_therapyEvents_referenceId`")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_therapyEvents_referenceId_timestamp` ON `$TABLE_THERAPY_EVENTS` (`referenceId`, `timestamp`)")
+            // Lookup of readings by sensor sequence number
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_glucoseValues_sourceSensor_pumpId` ON `$TABLE_GLUCOSE_VALUES` (`sourceSensor`, `pumpId`)")
+            // Custom indexes must be dropped on migration to pass room schema checking after upgrade
+            dropCustomIndexes(db)
+        }
+    }
+
     /** List of all migrations for easy reply in tests. */
     @VisibleForTesting
-    internal val migrations = arrayOf(migration20to21, migration21to22, migration22to23, migration23to24, migration24to25, migration25to26, migration26to27, migration27to28, migration28to29, migration29to30, migration30to31, migration31to32, migration32to33, migration33to34)
+    internal val migrations = arrayOf(migration20to21, migration21to22, migration22to23, migration23to24, migration24to25, migration25to26, migration26to27, migration27to28, migration28to29, migration29to30, migration30to31, migration31to32, migration32to33, migration33to34, migration34to35)
 }
@@ -21,7 +21,7 @@ import java.util.TimeZone
         )],
     indices = [
         Index("pumpId"),
-        Index("referenceId"),
+        Index("referenceId", "timestamp"),
         Index("timestamp"),
         Index("nightscoutId")
     ]
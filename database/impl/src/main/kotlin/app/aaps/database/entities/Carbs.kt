@@ -19,7 +19,7 @@ import java.util.TimeZone
     )],
     indices = [
         Index("nightscoutId"),
-        Index("referenceId"),
+        Index("referenceId", "timestamp"),
         Index("timestamp")
     ]
 )
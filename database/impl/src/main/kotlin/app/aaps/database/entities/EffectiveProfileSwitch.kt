@@ -22,7 +22,7 @@ import java.util.TimeZone
         childColumns = ["referenceId"]
     )],
     indices = [
-        Index("referenceId"),
+        Index("referenceId", "timestamp"),
         Index("timestamp"),
         Index("nightscoutId")
     ]
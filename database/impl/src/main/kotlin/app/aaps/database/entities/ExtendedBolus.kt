@@ -20,7 +20,7 @@ import java.util.TimeZone
     indices = [
         Index("endId"),
         Index("pumpId"),
-        Index("referenceId"),
+        Index("referenceId", "timestamp"),
         Index("timestamp")
     ]
 )
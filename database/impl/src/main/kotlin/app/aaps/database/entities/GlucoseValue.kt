@@ -19,8 +19,9 @@ import java.util.TimeZone
     )],
     indices = [
         Index("nightscoutId"),
-        Index("referenceId"),
-        Index("timestamp")
+        Index("referenceId", "timestamp"),
+        Index("timestamp"),
+        Index("sourceSensor", "pumpId")
     ]
 )
 data class GlucoseValue(
@@ -22,7 +22,7 @@ import java.util.TimeZone
         Index("pumpId"),
         Index("endId"),
         Index("temporaryId"),
-        Index("referenceId"),
+        Index("referenceId", "timestamp"),
         Index("timestamp")
     ]
 )
@@ -21,7 +21,7 @@ import java.util.TimeZone
     indices = [
         Index("type"),
         Index("nightscoutId"),
-        Index("referenceId"),
+        Index("referenceId", "timestamp"),
         Index("timestamp")
     ]
 )
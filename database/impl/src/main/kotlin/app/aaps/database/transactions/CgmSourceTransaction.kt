@@ -15,8 +15,9 @@ class CgmSourceTransaction(
 
     override suspend fun run(): TransactionResult {
         val result = TransactionResult()
+        val batch = if (glucoseValues.size >= SyncBatch.MIN_PREFETCH_SIZE) prefetch() else SyncBatch.direct(database.glucoseValueDao)
         glucoseValues.forEach { glucoseValue ->
-            val current = database.glucoseValueDao.findByTimestampAndSensor(glucoseValue.timestamp, glucoseValue.sourceSensor)
+            val current = batch.byTimestamp(glucoseValue) { database.glucoseValueDao.findByTimestampAndSensor(glucoseValue.timestamp, glucoseValue.sourceSensor) }
             // if nsId is not provided in new record, copy from current if exists
             if (glucoseValue.interfaceIDs.nightscoutId == null)
                 current?.let { existing -> glucoseValue.interfaceIDs.nightscoutId = existing.interfaceIDs.nightscoutId }
@@ -25,23 +26,22 @@ class CgmSourceTransaction(
             when {
                 // new record, create new
                 current == null                                                                             -> {
-                    database.glucoseValueDao.insertNewEntry(glucoseValue)
+                    batch.insert(glucoseValue)
                     result.inserted.add(glucoseValue)
                 }
                 // different record, update
                 !current.contentEqualsTo(glucoseValue)                                                      -> {
-                    glucoseValue.id = current.id
-                    database.glucoseValueDao.updateExistingEntry(glucoseValue)
+                    batch.replace(current, glucoseValue)
                     result.updated.add(glucoseValue)
                 }
                 // update NS id if didn't exist and now provided
                 current.interfaceIDs.nightscoutId == null && glucoseValue.interfaceIDs.nightscoutId != null -> {
-                    current.interfaceIDs.nightscoutId = glucoseValue.interfaceIDs.nightscoutId
-                    database.glucoseValueDao.updateExistingEntry(current)
+                    batch.update(current) { interfaceIDs.nightscoutId = glucoseValue.interfaceIDs.nightscoutId }
                     result.updatedNsId.add(glucoseValue)
                 }
             }
         }
+        batch.write()
         calibrations.forEach {
             if (database.therapyEventDao.findByTimestamp(TherapyEvent.Type.FINGER_STICK_BG_VALUE, it.timestamp) == null) {
                 val therapyEvent = TherapyEvent(
@@ -70,6 +70,14 @@ class CgmSourceTransaction(
         return result
     }
 
+    private suspend fun prefetch(): SyncBatch<GlucoseValue> =
+        SyncBatch.prefetched(
+            database.glucoseValueDao,
+            database.glucoseValueDao.findByTimestampRange(glucoseValues.minOf { it.timestamp }, glucoseValues.maxOf { it.timestamp }),
+            copy = { it.copy(interfaceIDs_backing = it.interfaceIDs_backing?.copy()) },
+            timestampKey = { it.timestamp to it.sourceSensor }
+        )
+
     data class Calibration(
         val timestamp: Long,
         val value: Double,
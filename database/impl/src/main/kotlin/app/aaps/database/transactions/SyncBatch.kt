@@ -0,0 +1,168 @@
+package app.aaps.database.transactions
+
+import app.aaps.database.daos.TraceableDao
+import app.aaps.database.entities.embedments.InterfaceIDs
+import app.aaps.database.entities.interfaces.DBEntryWithTime
+import app.aaps.database.entities.interfaces.TraceableDBEntry
+
+/**
+ * Lookups and writes of one sync transaction
+ *
+ * Small batches are matched record by record with database lookups and written immediately.
+ * Large batches prefetch candidate rows by nsId set, pump ids and timestamp range and match them in memory.
+ * Rows inserted or changed by earlier records are indexed again so later records of the same batch
+ * find them like they would in database. Changes are written by [write] with batched DAO operations
+ * producing the same current and historic rows as [TraceableDao.updateExistingEntry] would.
+ */
+internal class SyncBatch<T> private constructor(
+    private val dao: TraceableDao<T>,
+    private val prefetched: Boolean,
+    private val copy: (T) -> T,
+    private val timestampKey: (T) -> Any
+) where T : TraceableDBEntry, T : DBEntryWithTime {
+
+    private val byNSId = HashMap<String, MutableList<T>>()
+    private val byPumpIds = HashMap<Triple<Long, InterfaceIDs.PumpType, String>, MutableList<T>>()
+    private val byTimestamp = HashMap<Any, MutableList<T>>()
+
+    private val inserted = mutableListOf<T>()
+    private val updated = LinkedHashMap<Long, T>()
+    private val historic = mutableListOf<T>()
+
+    suspend fun byNSId(nsId: String, query: suspend () -> T?): T? =
+        if (prefetched) byNSId.first(nsId) { it.interfaceIDs.nightscoutId } else query()
+
+    suspend fun byPumpIds(interfaceIDs: InterfaceIDs, query: suspend (Long, InterfaceIDs.PumpType, String) -> T?): T? {
+        val pumpId = interfaceIDs.pumpId ?: return null
+        val pumpType = interfaceIDs.pumpType ?: return null
+        val pumpSerial = interfaceIDs.pumpSerial ?: return null
+        return if (prefetched) byPumpIds.first(Triple(pumpId, pumpType, pumpSerial)) { pumpIds(it) } else query(pumpId, pumpType, pumpSerial)
+    }
+
+    /**
+     * @param entry incoming record, its [timestampKey] is looked up
+     */
+    suspend fun byTimestamp(entry: T, query: suspend () -> T?): T? =
+        if (prefetched) byTimestamp.first(timestampKey(entry), timestampKey) else query()
+
+    fun insert(entry: T) {
+        if (!prefetched) {
+            dao.insertNewEntry(entry)
+            return
+        }
+        inserted.add(entry)
+        index(entry)
+    }
+
+    /**
+     * Apply [change] to stored [entry] and keep previous version as historic row
+     */
+    fun update(entry: T, change: T.() -> Unit) {
+        if (!prefetched) {
+            entry.change()
+            dao.updateExistingEntry(entry)
+            return
+        }
+        // inserted in this batch, write it first to have an id for the historic row
+        if (entry.id == 0L) write()
+        historic.add(copy(entry).also {
+            it.id = 0
+            it.referenceId = entry.id
+        })
+        entry.change()
+        entry.version++
+        updated[entry.id] = entry
+        index(entry)
+    }
+
+    /**
+     * Replace stored [current] by [entry]
+     */
+    fun replace(current: T, entry: T) {
+        if (!prefetched) {
+            entry.id = current.id
+            dao.updateExistingEntry(entry)
+            return
+        }
+        if (current.id == 0L) write()
+        historic.add(copy(current).also {
+            it.id = 0
+            it.referenceId = current.id
+        })
+        entry.id = current.id
+        entry.version = current.version + 1
+        updated[entry.id] = entry
+        // current instance is not stored anymore
+        for (list in listOf(current.interfaceIDs.nightscoutId?.let { byNSId[it] }, pumpIds(current)?.let { byPumpIds[it] }, byTimestamp[timestampKey(current)]))
+            list?.removeAll { it === current }
+        index(entry)
+    }
+
+    /**
+     * Write pending inserts and updates. Does nothing for small batches, they are written immediately.
+     */
+    fun write() {
+        if (inserted.isNotEmpty()) {
+            dao.insertNewEntries(inserted.toList())
+            inserted.clear()
+        }
+        if (updated.isNotEmpty()) {
+            dao.updateExistingEntries(updated.values.toList(), historic.toList())
+            updated.clear()
+            historic.clear()
+        }
+    }
+
+    private fun index(entry: T) {
+        entry.interfaceIDs.nightscoutId?.let { byNSId.add(it, entry) }
+        pumpIds(entry)?.let { byPumpIds.add(it, entry) }
+        byTimestamp.add(timestampKey(entry), entry)
+    }
+
+    private fun pumpIds(entry: T): Triple<Long, InterfaceIDs.PumpType, String>? {
+        val pumpId = entry.interfaceIDs.pumpId ?: return null
+        val pumpType = entry.interfaceIDs.pumpType ?: return null
+        val pumpSerial = entry.interfaceIDs.pumpSerial ?: return null
+        return Triple(pumpId, pumpType, pumpSerial)
+    }
+
+    private fun <K> HashMap<K, MutableList<T>>.add(key: K, entry: T) {
+        val list = getOrPut(key) { mutableListOf() }
+        if (list.none { it === entry }) list.add(entry)
+    }
+
+    /**
+     * Single row queries return the row with lowest id, rows waiting for insert come last.
+     * Rows whose key has been changed in this batch are skipped.
+     */
+    private fun <K> HashMap<K, MutableList<T>>.first(key: K, keyOf: (T) -> Any?): T? =
+        this[key]?.filter { keyOf(it) == key }?.minWithOrNull(compareBy { if (it.id == 0L) Long.MAX_VALUE else it.id })
+
+    companion object {
+
+        /** Batches with fewer records are matched by per record lookups */
+        const val MIN_PREFETCH_SIZE = 20
+
+        /** Keep IN (...) below SQLite host parameter limit */
+        private const val MAX_QUERY_PARAMETERS = 500
+
+        fun <T> direct(dao: TraceableDao<T>): SyncBatch<T> where T : TraceableDBEntry, T : DBEntryWithTime =
+            SyncBatch(dao, prefetched = false, copy = { it }, timestampKey = { it.timestamp })
+
+        /**
+         * @param candidates rows possibly matching the batch, duplicates are merged by id
+         * @param copy deep copy of row used for historic version
+         * @param timestampKey key of timestamp lookup
+         */
+        fun <T> prefetched(dao: TraceableDao<T>, candidates: List<T>, copy: (T) -> T, timestampKey: (T) -> Any = { it.timestamp }): SyncBatch<T> where T : TraceableDBEntry, T : DBEntryWithTime =
+            SyncBatch(dao, prefetched = true, copy = copy, timestampKey = timestampKey).also { batch ->
+                candidates.distinctBy { it.id }.sortedBy { it.id }.forEach { batch.index(it) }
+            }
+
+        /**
+         * Run IN (...) query for [keys] in chunks
+         */
+        suspend fun <K, T> chunked(keys: Collection<K>, query: suspend (List<K>) -> List<T>): List<T> =
+            keys.toList().chunked(MAX_QUERY_PARAMETERS).flatMap { query(it) }
+    }
+}
@@ -9,23 +9,22 @@ class SyncNsBolusTransaction(private val boluses: List<Bolus>) : Transaction<Syn
 
     override suspend fun run(): TransactionResult {
         val result = TransactionResult()
+        val batch = if (boluses.size >= SyncBatch.MIN_PREFETCH_SIZE) prefetch() else SyncBatch.direct(database.bolusDao)
 
         for (bolus in boluses) {
             val current: Bolus? =
                 bolus.interfaceIDs.nightscoutId?.let {
-                    database.bolusDao.getByNSId(it)
+                    batch.byNSId(it) { database.bolusDao.getByNSId(it) }
                 }
 
             if (current != null) {
                 // nsId exists, allow only invalidation or amount update (for drivers setting full amount upfront)
                 if (current.isValid && !bolus.isValid) {
-                    current.isValid = false
-                    database.bolusDao.updateExistingEntry(current)
+                    batch.update(current) { isValid = false }
                     result.invalidated.add(current)
                 }
                 if (current.amount != bolus.amount) {
-                    current.amount = bolus.amount
-                    database.bolusDao.updateExistingEntry(current)
+                    batch.update(current) { amount = bolus.amount }
                     result.updated.add(current)
                 }
                 continue
@@ -33,19 +32,18 @@ class SyncNsBolusTransaction(private val boluses: List<Bolus>) : Transaction<Syn
 
             // not known nsId
             // Check by pumpId + pumpType + pumpSerial (primary deduplication - prevents NS duplicate _id records)
-            val existingByPumpId = if (bolus.interfaceIDs.pumpId != null && bolus.interfaceIDs.pumpType != null && bolus.interfaceIDs.pumpSerial != null) {
-                database.bolusDao.findByPumpIds(bolus.interfaceIDs.pumpId!!, bolus.interfaceIDs.pumpType!!, bolus.interfaceIDs.pumpSerial!!)
-            } else {
-                null
+            val existingByPumpId = batch.byPumpIds(bolus.interfaceIDs) { pumpId, pumpType, pumpSerial ->
+                database.bolusDao.findByPumpIds(pumpId, pumpType, pumpSerial)
             }
 
             if (existingByPumpId != null) {
                 // Same pump bolus exists, just update/add the new nsId
                 if (existingByPumpId.interfaceIDs.nightscoutId == null) {
-                    existingByPumpId.interfaceIDs.nightscoutId = bolus.interfaceIDs.nightscoutId
-                    existingByPumpId.isValid = bolus.isValid
-                    existingByPumpId.amount = bolus.amount
-                    database.bolusDao.updateExistingEntry(existingByPumpId)
+                    batch.update(existingByPumpId) {
+                        interfaceIDs.nightscoutId = bolus.interfaceIDs.nightscoutId
+                        isValid = bolus.isValid
+                        amount = bolus.amount
+                    }
                     result.updatedNsId.add(existingByPumpId)
                 }
                 // If existing already has a different nsId, this is a duplicate NS record - ignore it
@@ -53,22 +51,33 @@ class SyncNsBolusTransaction(private val boluses: List<Bolus>) : Transaction<Syn
             }
 
             // Fallback: check by timestamp (for manual boluses without pumpId)
-            val existing = database.bolusDao.findByTimestamp(bolus.timestamp)
+            val existing = batch.byTimestamp(bolus) { database.bolusDao.findByTimestamp(bolus.timestamp) }
             if (existing != null && existing.interfaceIDs.nightscoutId == null) {
                 // the same record, update nsId only and amount
-                existing.interfaceIDs.nightscoutId = bolus.interfaceIDs.nightscoutId
-                existing.isValid = bolus.isValid
-                existing.amount = bolus.amount
-                database.bolusDao.updateExistingEntry(existing)
+                batch.update(existing) {
+                    interfaceIDs.nightscoutId = bolus.interfaceIDs.nightscoutId
+                    isValid = bolus.isValid
+                    amount = bolus.amount
+                }
                 result.updatedNsId.add(existing)
             } else {
-                database.bolusDao.insertNewEntry(bolus)
+                batch.insert(bolus)
                 result.inserted.add(bolus)
             }
         }
+        batch.write()
         return result
     }
 
+    private suspend fun prefetch(): SyncBatch<Bolus> {
+        val nsIds = boluses.mapNotNullTo(HashSet()) { it.interfaceIDs.nightscoutId }
+        val pumpIds = boluses.mapNotNullTo(HashSet()) { it.interfaceIDs.pumpId }
+        val candidates = SyncBatch.chunked(nsIds) { database.bolusDao.getByNSIds(it) } +
+            SyncBatch.chunked(pumpIds) { database.bolusDao.findByPumpIds(it) } +
+            database.bolusDao.findByTimestampRange(boluses.minOf { it.timestamp }, boluses.maxOf { it.timestamp })
+        return SyncBatch.prefetched(database.bolusDao, candidates, copy = { it.copy(interfaceIDs_backing = it.interfaceIDs_backing?.copy()) })
+    }
+
     class TransactionResult {
 
         val updatedNsId = mutableListOf<Bolus>()
@@ -76,4 +85,4 @@ class SyncNsBolusTransaction(private val boluses: List<Bolus>) : Transaction<Syn
         val invalidated = mutableListOf<Bolus>()
         val updated = mutableListOf<Bolus>()
     }
-}
\ No newline at end of file
+}
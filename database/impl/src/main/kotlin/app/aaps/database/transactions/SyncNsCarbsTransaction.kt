@@ -10,25 +10,26 @@ class SyncNsCarbsTransaction(private val carbs: List<Carbs>, private val nsClien
 
     override suspend fun run(): TransactionResult {
         val result = TransactionResult()
+        val batch = if (carbs.size >= SyncBatch.MIN_PREFETCH_SIZE) prefetch() else SyncBatch.direct(database.carbsDao)
 
         for (carb in carbs) {
             val current: Carbs? =
                 carb.interfaceIDs.nightscoutId?.let {
-                    database.carbsDao.getByNSId(it)
+                    batch.byNSId(it) { database.carbsDao.getByNSId(it) }
                 }
 
             if (current != null) {
                 // nsId exists, allow only invalidation
                 if (current.isValid && !carb.isValid) {
-                    current.isValid = false
-                    database.carbsDao.updateExistingEntry(current)
+                    batch.update(current) { isValid = false }
                     result.invalidated.add(current)
                 }
                 // and change duration to shorter only
                 if (current.duration != carb.duration && nsClientMode && carb.duration < current.duration) {
-                    current.amount = carb.amount
-                    current.duration = carb.duration
-                    database.carbsDao.updateExistingEntry(current)
+                    batch.update(current) {
+                        amount = carb.amount
+                        duration = carb.duration
+                    }
                     result.updated.add(current)
                 }
                 continue
@@ -36,18 +37,17 @@ class SyncNsCarbsTransaction(private val carbs: List<Carbs>, private val nsClien
 
             // not known nsId
             // Check by pumpId + pumpType + pumpSerial (primary deduplication - prevents NS duplicate _id records)
-            val existingByPumpId = if (carb.interfaceIDs.pumpId != null && carb.interfaceIDs.pumpType != null && carb.interfaceIDs.pumpSerial != null) {
-                database.carbsDao.findByPumpIds(carb.interfaceIDs.pumpId!!, carb.interfaceIDs.pumpType!!, carb.interfaceIDs.pumpSerial!!)
-            } else {
-                null
+            val existingByPumpId = batch.byPumpIds(carb.interfaceIDs) { pumpId, pumpType, pumpSerial ->
+                database.carbsDao.findByPumpIds(pumpId, pumpType, pumpSerial)
             }
 
             if (existingByPumpId != null) {
                 // Same pump carb exists, just update/add the new nsId
                 if (existingByPumpId.interfaceIDs.nightscoutId == null) {
-                    existingByPumpId.interfaceIDs.nightscoutId = carb.interfaceIDs.nightscoutId
-                    existingByPumpId.isValid = carb.isValid
-                    database.carbsDao.updateExistingEntry(existingByPumpId)
+                    batch.update(existingByPumpId) {
+                        interfaceIDs.nightscoutId = carb.interfaceIDs.nightscoutId
+                        isValid = carb.isValid
+                    }
                     result.updatedNsId.add(existingByPumpId)
                 }
                 // If existing already has a different nsId, this is a duplicate NS record - ignore it
@@ -55,21 +55,32 @@ class SyncNsCarbsTransaction(private val carbs: List<Carbs>, private val nsClien
             }
 
             // Fallback: check by timestamp (for manual carbs without pumpId)
-            val existing = database.carbsDao.findByTimestamp(carb.timestamp)
+            val existing = batch.byTimestamp(carb) { database.carbsDao.findByTimestamp(carb.timestamp) }
             if (existing != null && existing.interfaceIDs.nightscoutId == null) {
                 // the same record, update nsId only
-                existing.interfaceIDs.nightscoutId = carb.interfaceIDs.nightscoutId
-                existing.isValid = carb.isValid
-                database.carbsDao.updateExistingEntry(existing)
+                batch.update(existing) {
+                    interfaceIDs.nightscoutId = carb.interfaceIDs.nightscoutId
+                    isValid = carb.isValid
+                }
                 result.updatedNsId.add(existing)
             } else {
-                database.carbsDao.insertNewEntry(carb)
+                batch.insert(carb)
                 result.inserted.add(carb)
             }
         }
+        batch.write()
         return result
     }
 
+    private suspend fun prefetch(): SyncBatch<Carbs> {
+        val nsIds = carbs.mapNotNullTo(HashSet()) { it.interfaceIDs.nightscoutId }
+        val pumpIds = carbs.mapNotNullTo(HashSet()) { it.interfaceIDs.pumpId }
+        val candidates = SyncBatch.chunked(nsIds) { database.carbsDao.getByNSIds(it) } +
+            SyncBatch.chunked(pumpIds) { database.carbsDao.findByPumpIds(it) } +
+            database.carbsDao.findByTimestampRange(carbs.minOf { it.timestamp }, carbs.maxOf { it.timestamp })
+        return SyncBatch.prefetched(database.carbsDao, candidates, copy = { it.copy(interfaceIDs_backing = it.interfaceIDs_backing?.copy()) })
+    }
+
     class TransactionResult {
 
         val updated = mutableListOf<Carbs>()
@@ -77,4 +88,4 @@ class SyncNsCarbsTransaction(private val carbs: List<Carbs>, private val nsClien
         val inserted = mutableListOf<Carbs>()
         val invalidated = mutableListOf<Carbs>()
     }
-}
\ No newline at end of file
+}
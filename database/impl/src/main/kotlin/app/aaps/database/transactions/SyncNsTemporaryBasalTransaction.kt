@@ -9,28 +9,31 @@ import kotlin.math.abs
  */
 class SyncNsTemporaryBasalTransaction(private val temporaryBasals: List<TemporaryBasal>, private val nsClientMode: Boolean) : Transaction<SyncNsTemporaryBasalTransaction.TransactionResult>() {
 
+    /** Temporary basals running during prefetched batch sorted by timestamp, null for small batches */
+    private var running: MutableList<TemporaryBasal>? = null
+    private var maxDuration = 0L
+
     override suspend fun run(): TransactionResult {
         val result = TransactionResult()
+        val batch = if (temporaryBasals.size >= SyncBatch.MIN_PREFETCH_SIZE) prefetch() else SyncBatch.direct(database.temporaryBasalDao)
 
         for (temporaryBasal in temporaryBasals) {
             if (temporaryBasal.duration != 0L) {
                 // not ending event
                 val current: TemporaryBasal? =
                     temporaryBasal.interfaceIDs.nightscoutId?.let {
-                        database.temporaryBasalDao.findByNSId(it)
+                        batch.byNSId(it) { database.temporaryBasalDao.findByNSId(it) }
                     }
 
                 if (current != null) {
                     // nsId exists, allow only invalidation
                     if (current.isValid && !temporaryBasal.isValid) {
-                        current.isValid = false
-                        database.temporaryBasalDao.updateExistingEntry(current)
+                        batch.update(current) { isValid = false }
                         result.invalidated.add(current)
                     }
                     // Allow update duration to shorter only
                     if (current.duration != temporaryBasal.duration && nsClientMode && temporaryBasal.duration < current.duration) {
-                        current.duration = temporaryBasal.duration
-                        database.temporaryBasalDao.updateExistingEntry(current)
+                        batch.update(current) { duration = temporaryBasal.duration }
                         result.updatedDuration.add(current)
                     }
                     continue
@@ -38,18 +41,17 @@ class SyncNsTemporaryBasalTransaction(private val temporaryBasals: List<Temporar
 
                 // not known nsId
                 // Check by pumpId + pumpType + pumpSerial (primary deduplication - prevents NS duplicate _id records)
-                val existingByPumpId = if (temporaryBasal.interfaceIDs.pumpId != null && temporaryBasal.interfaceIDs.pumpType != null && temporaryBasal.interfaceIDs.pumpSerial != null) {
-                    database.temporaryBasalDao.findByPumpIds(temporaryBasal.interfaceIDs.pumpId!!, temporaryBasal.interfaceIDs.pumpType!!, temporaryBasal.interfaceIDs.pumpSerial!!)
-                } else {
-                    null
+                val existingByPumpId = batch.byPumpIds(temporaryBasal.interfaceIDs) { pumpId, pumpType, pumpSerial ->
+                    database.temporaryBasalDao.findByPumpIds(pumpId, pumpType, pumpSerial)
                 }
 
                 if (existingByPumpId != null) {
                     // Same pump TBR exists, just update/add the new nsId
                     if (existingByPumpId.interfaceIDs.nightscoutId == null) {
-                        existingByPumpId.interfaceIDs.nightscoutId = temporaryBasal.interfaceIDs.nightscoutId
-                        existingByPumpId.isValid = temporaryBasal.isValid
-                        database.temporaryBasalDao.updateExistingEntry(existingByPumpId)
+                        batch.update(existingByPumpId) {
+                            interfaceIDs.nightscoutId = temporaryBasal.interfaceIDs.nightscoutId
+                            isValid = temporaryBasal.isValid
+                        }
                         result.updatedNsId.add(existingByPumpId)
                     }
                     // If existing already has a different nsId, this is a duplicate NS record - ignore it
@@ -57,28 +59,67 @@ class SyncNsTemporaryBasalTransaction(private val temporaryBasals: List<Temporar
                 }
 
                 // Fallback: check by active TBR at timestamp
-                val running = database.temporaryBasalDao.getTemporaryBasalActiveAt(temporaryBasal.timestamp)
+                val running = activeAt(temporaryBasal.timestamp)
                 if (running != null && abs(running.timestamp - temporaryBasal.timestamp) < 1000) { // allow missing milliseconds
                     // the same record, update nsId only
-                    running.interfaceIDs.nightscoutId = temporaryBasal.interfaceIDs.nightscoutId
-                    database.temporaryBasalDao.updateExistingEntry(running)
+                    batch.update(running) { interfaceIDs.nightscoutId = temporaryBasal.interfaceIDs.nightscoutId }
                     result.updatedNsId.add(running)
                 } else if (running != null) {
                     // another running record. end current and insert new
-                    running.end = temporaryBasal.timestamp
-                    database.temporaryBasalDao.updateExistingEntry(running)
-                    database.temporaryBasalDao.insertNewEntry(temporaryBasal)
+                    batch.update(running) { end = temporaryBasal.timestamp }
+                    insert(batch, temporaryBasal)
                     result.ended.add(running)
                     result.inserted.add(temporaryBasal)
                 } else {
-                    database.temporaryBasalDao.insertNewEntry(temporaryBasal)
+                    insert(batch, temporaryBasal)
                     result.inserted.add(temporaryBasal)
                 }
             }
         }
+        batch.write()
         return result
     }
 
+    private suspend fun prefetch(): SyncBatch<TemporaryBasal> {
+        val nsIds = temporaryBasals.mapNotNullTo(HashSet()) { it.interfaceIDs.nightscoutId }
+        val pumpIds = temporaryBasals.mapNotNullTo(HashSet()) { it.interfaceIDs.pumpId }
+        val from = temporaryBasals.minOf { it.timestamp }
+        val to = temporaryBasals.maxOf { it.timestamp }
+        val candidates = (SyncBatch.chunked(nsIds) { database.temporaryBasalDao.findByNSIds(it) } +
+            SyncBatch.chunked(pumpIds) { database.temporaryBasalDao.findByPumpIds(it) } +
+            database.temporaryBasalDao.getTemporaryBasalActiveBetweenTimeAndTime(from, to)).distinctBy { it.id }
+        // invalid rows are kept too, they may be validated by pump id match
+        running = candidates.filter { it.timestamp <= to && it.end > from }.sortedWith(compareBy({ it.timestamp }, { it.id })).toMutableList()
+        maxDuration = running?.maxOfOrNull { it.duration } ?: 0L
+        return SyncBatch.prefetched(database.temporaryBasalDao, candidates, copy = { it.copy(interfaceIDs_backing = it.interfaceIDs_backing?.copy()) })
+    }
+
+    /**
+     * Same as [app.aaps.database.daos.TemporaryBasalDao.getTemporaryBasalActiveAt] for prefetched batch
+     */
+    private suspend fun activeAt(timestamp: Long): TemporaryBasal? {
+        val running = running ?: return database.temporaryBasalDao.getTemporaryBasalActiveAt(timestamp)
+        var index = insertionPoint(running, timestamp) - 1
+        while (index >= 0 && timestamp - running[index].timestamp < maxDuration) {
+            val temporaryBasal = running[index]
+            if (temporaryBasal.isValid && temporaryBasal.end > timestamp) return temporaryBasal
+            index--
+        }
+        return null
+    }
+
+    private fun insert(batch: SyncBatch<TemporaryBasal>, temporaryBasal: TemporaryBasal) {
+        batch.insert(temporaryBasal)
+        running?.let {
+            it.add(insertionPoint(it, temporaryBasal.timestamp), temporaryBasal)
+            maxDuration = maxOf(maxDuration, temporaryBasal.duration)
+        }
+    }
+
+    /** Index after last record starting at or before [timestamp] */
+    private fun insertionPoint(running: List<TemporaryBasal>, timestamp: Long): Int =
+        -(running.binarySearch { if (it.timestamp <= timestamp) -1 else 1 } + 1)
+
     class TransactionResult {
 
         val updatedNsId = mutableListOf<TemporaryBasal>()
@@ -87,4 +128,4 @@ class SyncNsTemporaryBasalTransaction(private val temporaryBasals: List<Temporar
         val invalidated = mutableListOf<TemporaryBasal>()
         val ended = mutableListOf<TemporaryBasal>()
     }
-}
\ No newline at end of file
+}
@@ -10,53 +10,66 @@ class SyncNsTherapyEventTransaction(private val therapyEvents: List<TherapyEvent
 
     override suspend fun run(): TransactionResult {
         val result = TransactionResult()
+        val batch = if (therapyEvents.size >= SyncBatch.MIN_PREFETCH_SIZE) prefetch() else SyncBatch.direct(database.therapyEventDao)
 
         for (therapyEvent in therapyEvents) {
             val current: TherapyEvent? =
                 therapyEvent.interfaceIDs.nightscoutId?.let {
-                    database.therapyEventDao.findByNSId(it)
+                    batch.byNSId(it) { database.therapyEventDao.findByNSId(it) }
                 }
 
             if (current != null) {
                 // nsId exists, allow only invalidation
                 if (current.isValid && !therapyEvent.isValid) {
-                    current.isValid = false
-                    database.therapyEventDao.updateExistingEntry(current)
+                    batch.update(current) { isValid = false }
                     result.invalidated.add(current)
                 }
                 // Allow update duration to shorter only
                 if (current.duration != therapyEvent.duration && nsClientMode && therapyEvent.duration < current.duration) {
-                    current.duration = therapyEvent.duration
-                    database.therapyEventDao.updateExistingEntry(current)
+                    batch.update(current) { duration = therapyEvent.duration }
                     result.updatedDuration.add(current)
                 }
                 // allow SiteRotation Update
                 if (current.location != therapyEvent.location || current.arrow != therapyEvent.arrow || current.note != therapyEvent.note) {
-                    current.location = therapyEvent.location
-                    current.arrow = therapyEvent.arrow
-                    current.note = therapyEvent.note
-                    database.therapyEventDao.updateExistingEntry(current)
+                    batch.update(current) {
+                        location = therapyEvent.location
+                        arrow = therapyEvent.arrow
+                        note = therapyEvent.note
+                    }
                     result.updatedSite.add(current)
                 }
                 continue
             }
 
             // not known nsId
-            val existing = database.therapyEventDao.findByTimestamp(therapyEvent.type, therapyEvent.timestamp)
+            val existing = batch.byTimestamp(therapyEvent) { database.therapyEventDao.findByTimestamp(therapyEvent.type, therapyEvent.timestamp) }
             if (existing != null && existing.interfaceIDs.nightscoutId == null) {
                 // the same record, update nsId only
-                existing.interfaceIDs.nightscoutId = therapyEvent.interfaceIDs.nightscoutId
-                existing.isValid = therapyEvent.isValid
-                database.therapyEventDao.updateExistingEntry(existing)
+                batch.update(existing) {
+                    interfaceIDs.nightscoutId = therapyEvent.interfaceIDs.nightscoutId
+                    isValid = therapyEvent.isValid
+                }
                 result.updatedNsId.add(existing)
             } else {
-                database.therapyEventDao.insertNewEntry(therapyEvent)
+                batch.insert(therapyEvent)
                 result.inserted.add(therapyEvent)
             }
         }
+        batch.write()
         return result
     }
 
+    private suspend fun prefetch(): SyncBatch<TherapyEvent> {
+        val nsIds = therapyEvents.mapNotNullTo(HashSet()) { it.interfaceIDs.nightscoutId }
+        val candidates = SyncBatch.chunked(nsIds) { database.therapyEventDao.findByNSIds(it) } +
+            database.therapyEventDao.findByTimestampRange(therapyEvents.minOf { it.timestamp }, therapyEvents.maxOf { it.timestamp })
+        return SyncBatch.prefetched(
+            database.therapyEventDao, candidates,
+            copy = { it.copy(interfaceIDs_backing = it.interfaceIDs_backing?.copy()) },
+            timestampKey = { it.type to it.timestamp }
+        )
+    }
+
     class TransactionResult {
 
         val updatedNsId = mutableListOf<TherapyEvent>()
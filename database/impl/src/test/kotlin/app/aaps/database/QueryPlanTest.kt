@@ -0,0 +1,145 @@
+package app.aaps.database
+
+import app.aaps.database.di.DatabaseModule
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.JsonParser
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.sql.Connection
+import java.sql.DriverManager
+
+/**
+ * Query plans of all DAO queries against exported schema of [DATABASE_VERSION]
+ *
+ * @Query is not retained at runtime so queries are read from DAO sources.
+ * Plans are made by SQLite of sqlite-jdbc which may be newer than SQLite of device.
+ */
+class QueryPlanTest {
+
+    private data class DaoQuery(val name: String, val sql: String)
+
+    private lateinit var connection: Connection
+
+    // Unit tests run in module directory
+    private val daoSources = File("src/main/kotlin/app/aaps/database/daos").listFiles { file -> file.extension == "kt" }!!.sortedBy { it.name }
+    private val tableNames = Regex("""const val (TABLE_\w+)\s*=\s*"(\w+)"""")
+        .findAll(File("src/main/kotlin/app/aaps/database/entities/TableNames.kt").readText())
+        .associate { it.groupValues[1] to it.groupValues[2] }
+
+    /** Queries allowed to read whole table */
+    private val allowedScans = mapOf(
+        "getLastId" to "ORDER BY id DESC LIMIT 1 reads only last row of rowid tree",
+        "getMostRecentVersionChange" to "ORDER BY id DESC LIMIT 1 reads only last row of rowid tree",
+        "getNewEntriesSince" to "paged export of all tables for Open Humans",
+        "deleteOlderThan" to "maintenance",
+        "deleteTrackedChanges" to "maintenance"
+    )
+
+    /** Tables where current rows of time window must be found by (referenceId, timestamp) index */
+    private val timeWindowTables = listOf("glucoseValues", "boluses", "carbs", "temporaryBasals", "extendedBoluses", "effectiveProfileSwitches", "therapyEvents")
+
+    @BeforeEach
+    fun setup() {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:")
+        val schema = File("schemas/app.aaps.database.AppDatabase/$DATABASE_VERSION.json").reader().use { JsonParser.parseReader(it) }
+            .asJsonObject.getAsJsonObject("database")
+        connection.createStatement().use { statement ->
+            schema.getAsJsonArray("entities").map { it.asJsonObject }.forEach { entity ->
+                val tableName = entity.get("tableName").asString
+                statement.execute(entity.get("createSql").asString.replace("\${TABLE_NAME}", tableName))
+                entity.getAsJsonArray("indices")?.forEach { index ->
+                    statement.execute(index.asJsonObject.get("createSql").asString.replace("\${TABLE_NAME}", tableName))
+                }
+            }
+            DatabaseModule().customIndexes.forEach { statement.execute(it) }
+        }
+    }
+
+    @AfterEach
+    fun tearDown() {
+        connection.close()
+    }
+
+    private fun queries(): List<DaoQuery> =
+        daoSources.flatMap { file ->
+            Regex("""@Query\(\s*"((?:[^"\\]|\\.)*)"\s*\)(?:\s*@\w+(?:\([^)]*\))?)*\s*(?:override\s+)?(?:suspend\s+)?fun\s+(\w+)""")
+                .findAll(file.readText())
+                .map { match ->
+                    val sql = match.groupValues[1]
+                        .replace("\\\"", "\"")
+                        .replace(Regex("""\$\{?(TABLE_\w+)}?""")) { tableNames.getValue(it.groupValues[1]) }
+                        .replace(Regex(""":\w+"""), "?")
+                    DaoQuery("${file.nameWithoutExtension}.${match.groupValues[2]}", sql)
+                }
+                .toList()
+        }
+
+    private fun plan(sql: String): List<String> =
+        connection.prepareStatement("EXPLAIN QUERY PLAN $sql").use { statement ->
+            statement.executeQuery().use { result ->
+                buildList { while (result.next()) add(result.getString("detail")) }
+            }
+        }
+
+    /**
+     * Plan rows reading whole table: `SCAN t`, `SCAN t USING INDEX i`, `SCAN t USING COVERING INDEX i` (alias is shown instead of table name)
+     * and sorting in temp b-tree when no table of the query is searched by index.
+     * `SCAN (subquery-n)` and `SCAN CONSTANT ROW` read intermediate results only.
+     */
+    private fun fullReads(plan: List<String>): List<String> {
+        val scans = plan.filter { it.startsWith("SCAN ") && !it.startsWith("SCAN (") && it != "SCAN CONSTANT ROW" }
+        val sorts = plan.filter { it.startsWith("USE TEMP B-TREE ") }.takeIf { plan.none { row -> row.startsWith("SEARCH ") } }.orEmpty()
+        return scans + sorts
+    }
+
+    @Test
+    fun allQueriesAreChecked() {
+        val declared = daoSources.sumOf { file -> Regex("""@Query\(""").findAll(file.readText()).count() }
+        assertThat(queries()).hasSize(declared)
+    }
+
+    @Test
+    fun fullReadsAreDetected() {
+        assertThat(fullReads(plan("SELECT * FROM boluses WHERE amount > 1"))).containsExactly("SCAN boluses")
+        assertThat(fullReads(plan("SELECT * FROM boluses b WHERE b.amount > 1"))).containsExactly("SCAN b")
+        assertThat(fullReads(plan("SELECT timestamp FROM boluses ORDER BY timestamp"))).containsExactly("SCAN boluses USING COVERING INDEX index_boluses_timestamp")
+        assertThat(fullReads(plan("SELECT * FROM boluses WHERE isValid = 1 ORDER BY timestamp"))).containsExactly("SCAN boluses USING INDEX index_boluses_timestamp")
+        assertThat(fullReads(plan("SELECT DISTINCT amount FROM boluses"))).containsExactly("SCAN boluses", "USE TEMP B-TREE FOR DISTINCT")
+        // sorting of rows found by index is bounded by the search
+        assertThat(fullReads(plan("SELECT * FROM boluses WHERE timestamp > ? ORDER BY amount"))).isEmpty()
+    }
+
+    @Test
+    fun noQueryReadsWholeTable() {
+        val scans = queries()
+            .filter { it.name.substringAfter('.') !in allowedScans }
+            .flatMap { query -> fullReads(plan(query.sql)).map { "${query.name}: $it" } }
+        assertThat(scans).isEmpty()
+    }
+
+    @Test
+    fun pagesAreReadInIndexOrder() {
+        // sorting rows before the cursor again for every page makes paged reading quadratic
+        val pages = queries().filter { it.name.endsWith("Page") }
+        assertThat(pages).isNotEmpty()
+        val sorted = pages
+            .filter { query -> plan(query.sql).any { it.startsWith("MULTI-INDEX OR") || it.startsWith("USE TEMP B-TREE") } }
+            .map { it.name }
+        assertThat(sorted).isEmpty()
+    }
+
+    @Test
+    fun currentRowsOfTimeWindowAreSearchedByIndexRange() {
+        val lowerBound = Regex("""\(timestamp (>=|>|BETWEEN) """)
+        val windows = queries().filter { query ->
+            timeWindowTables.any { query.sql.contains("FROM $it ") } && query.sql.contains("referenceId IS NULL") && lowerBound.containsMatchIn(query.sql)
+        }
+        assertThat(windows).isNotEmpty()
+        val notSearched = windows
+            .filter { query -> plan(query.sql).none { it.contains(Regex("""USING INDEX index_\w+_referenceId_timestamp \(referenceId=\? AND timestamp>""")) } }
+            .map { it.name }
+        assertThat(notSearched).isEmpty()
+    }
+}
@@ -11,7 +11,11 @@ import com.google.common.truth.Truth.assertThat
 import kotlinx.coroutines.test.runTest
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.mockito.Mockito.never
 import org.mockito.Mockito.verify
+import org.mockito.kotlin.any
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.eq
 import org.mockito.kotlin.mock
 import org.mockito.kotlin.whenever
 
@@ -192,6 +196,36 @@ class CgmSourceTransactionTest {
         assertThat(result.all()).hasSize(2)
     }
 
+    @Test
+    fun `large batch is matched in memory and written in bulk`() = runTest {
+        val existing = createGlucoseValue(timestamp = 1000L, value = 100.0, nsId = "ns-1", isValid = false).also {
+            it.id = 7
+            it.version = 2
+        }
+        val incoming = List(SyncBatch.MIN_PREFETCH_SIZE + 5) { index -> createGlucoseValue(timestamp = 1000L + index * 300_000L, value = 120.0) }
+
+        whenever(glucoseValueDao.findByTimestampRange(1000L, 1000L + (incoming.size - 1) * 300_000L)).thenReturn(listOf(existing))
+
+        val transaction = CgmSourceTransaction(incoming, emptyList(), null)
+        transaction.database = database
+        val result = transaction.run()
+
+        assertThat(result.updated).containsExactly(incoming[0])
+        assertThat(result.inserted).containsExactlyElementsIn(incoming.drop(1)).inOrder()
+        assertThat(incoming[0].id).isEqualTo(7)
+        assertThat(incoming[0].version).isEqualTo(3)
+        assertThat(incoming[0].interfaceIDs.nightscoutId).isEqualTo("ns-1")
+        assertThat(incoming[0].isValid).isFalse()
+
+        val historic = argumentCaptor<List<GlucoseValue>>()
+        verify(glucoseValueDao).insertNewEntries(incoming.drop(1))
+        verify(glucoseValueDao).updateExistingEntries(eq(listOf(incoming[0])), historic.capture())
+        assertThat(historic.firstValue).hasSize(1)
+        assertThat(historic.firstValue[0].referenceId).isEqualTo(7)
+        assertThat(historic.firstValue[0].value).isEqualTo(100.0)
+        verify(glucoseValueDao, never()).findByTimestampAndSensor(any(), any())
+    }
+
     private fun createGlucoseValue(
         timestamp: Long,
         value: Double,
@@ -13,6 +13,8 @@ import org.mockito.Mockito.never
 import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
 import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.argumentCaptor
 import org.mockito.kotlin.mock
 import org.mockito.kotlin.whenever
 
@@ -411,6 +413,66 @@ class SyncNsBolusTransactionTest {
         verify(bolusDao).updateExistingEntry(existing)
     }
 
+    @Test
+    fun `large batch is matched in memory and written in bulk`() = runTest {
+        val byNsId = createBolus(id = 1, nsId = "ns-0", amount = 5.0, timestamp = 1000L)
+        val byPumpId = createBolus(id = 2, nsId = null, amount = 1.0, timestamp = 2000L, pumpId = 100L, pumpType = InterfaceIDs.PumpType.DANA_I, pumpSerial = "ABC")
+        val byTimestamp = createBolus(id = 3, nsId = null, amount = 2.0, timestamp = 3000L)
+        val incoming = List(SyncBatch.MIN_PREFETCH_SIZE + 5) { index -> createBolus(id = 0, nsId = "ns-$index", amount = 7.0, timestamp = 1000L + index * 1000L) }
+        incoming[1].interfaceIDs.pumpId = 100L
+        incoming[1].interfaceIDs.pumpType = InterfaceIDs.PumpType.DANA_I
+        incoming[1].interfaceIDs.pumpSerial = "ABC"
+
+        whenever(bolusDao.getByNSIds(any())).thenReturn(listOf(byNsId))
+        whenever(bolusDao.findByPumpIds(listOf(100L))).thenReturn(listOf(byPumpId))
+        whenever(bolusDao.findByTimestampRange(1000L, 1000L + (incoming.size - 1) * 1000L)).thenReturn(listOf(byNsId, byPumpId, byTimestamp))
+
+        val transaction = SyncNsBolusTransaction(incoming)
+        transaction.database = database
+        val result = transaction.run()
+
+        assertThat(result.updated).containsExactly(byNsId)
+        assertThat(result.updatedNsId).containsExactly(byPumpId, byTimestamp).inOrder()
+        assertThat(result.inserted).containsExactlyElementsIn(incoming.drop(3)).inOrder()
+        assertThat(byPumpId.interfaceIDs.nightscoutId).isEqualTo("ns-1")
+        assertThat(byTimestamp.interfaceIDs.nightscoutId).isEqualTo("ns-2")
+
+        val entries = argumentCaptor<List<Bolus>>()
+        val historic = argumentCaptor<List<Bolus>>()
+        verify(bolusDao).insertNewEntries(incoming.drop(3))
+        verify(bolusDao).updateExistingEntries(entries.capture(), historic.capture())
+        assertThat(entries.firstValue).containsExactly(byNsId, byPumpId, byTimestamp).inOrder()
+        assertThat(entries.firstValue.map { it.version }).containsExactly(1, 1, 1)
+        assertThat(historic.firstValue.map { it.referenceId }).containsExactly(1L, 2L, 3L).inOrder()
+        assertThat(historic.firstValue.map { it.amount }).containsExactly(5.0, 1.0, 2.0).inOrder()
+        assertThat(historic.firstValue.map { it.interfaceIDs.nightscoutId }).containsExactly("ns-0", null, null).inOrder()
+        verify(bolusDao, never()).getByNSId(any())
+        verify(bolusDao, never()).findByTimestamp(any())
+        verify(bolusDao, never()).insertNewEntry(any())
+        verify(bolusDao, never()).updateExistingEntry(any())
+    }
+
+    @Test
+    fun `large batch sees records inserted by earlier records`() = runTest {
+        val incoming = List(SyncBatch.MIN_PREFETCH_SIZE + 5) { index ->
+            createBolus(id = 0, nsId = "ns-$index", amount = 1.0, timestamp = 1000L + index * 1000L, pumpId = index.toLong(), pumpType = InterfaceIDs.PumpType.DANA_I, pumpSerial = "ABC")
+        }
+        // NS duplicate of the first record with another _id
+        val duplicate = createBolus(id = 0, nsId = "ns-duplicate", amount = 1.0, timestamp = 1000L, pumpId = 0L, pumpType = InterfaceIDs.PumpType.DANA_I, pumpSerial = "ABC")
+
+        whenever(bolusDao.getByNSIds(any())).thenReturn(emptyList())
+        whenever(bolusDao.findByPumpIds(any<List<Long>>())).thenReturn(emptyList())
+        whenever(bolusDao.findByTimestampRange(any(), any())).thenReturn(emptyList())
+
+        val transaction = SyncNsBolusTransaction(incoming + duplicate)
+        transaction.database = database
+        val result = transaction.run()
+
+        assertThat(result.inserted).containsExactlyElementsIn(incoming).inOrder()
+        verify(bolusDao).insertNewEntries(incoming)
+        verify(bolusDao, never()).updateExistingEntries(anyOrNull(), anyOrNull())
+    }
+
     private fun createBolus(
         id: Long,
         nsId: String?,
@@ -12,6 +12,7 @@ import org.mockito.Mockito.never
 import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
 import org.mockito.kotlin.any
+import org.mockito.kotlin.argumentCaptor
 import org.mockito.kotlin.mock
 import org.mockito.kotlin.whenever
 
@@ -435,6 +436,64 @@ class SyncNsCarbsTransactionTest {
         verify(carbsDao).updateExistingEntry(existing)
     }
 
+    @Test
+    fun `large batch is matched in memory and written in bulk`() = runTest {
+        val byNsId = createCarbs(id = 1, nsId = "ns-0", amount = 50.0, timestamp = 1000L, duration = 60_000L)
+        val byPumpId = createCarbs(id = 2, nsId = null, amount = 20.0, timestamp = 2000L, pumpId = 100L, pumpType = InterfaceIDs.PumpType.DANA_I, pumpSerial = "ABC")
+        val byTimestamp = createCarbs(id = 3, nsId = null, amount = 30.0, timestamp = 3000L)
+        val incoming = List(SyncBatch.MIN_PREFETCH_SIZE + 5) { index -> createCarbs(id = 0, nsId = "ns-$index", amount = 10.0, timestamp = 1000L + index * 1000L) }
+        incoming[0].duration = 30_000L
+        incoming[1].interfaceIDs.pumpId = 100L
+        incoming[1].interfaceIDs.pumpType = InterfaceIDs.PumpType.DANA_I
+        incoming[1].interfaceIDs.pumpSerial = "ABC"
+
+        whenever(carbsDao.getByNSIds(any())).thenReturn(listOf(byNsId))
+        whenever(carbsDao.findByPumpIds(listOf(100L))).thenReturn(listOf(byPumpId))
+        whenever(carbsDao.findByTimestampRange(1000L, 1000L + (incoming.size - 1) * 1000L)).thenReturn(listOf(byNsId, byPumpId, byTimestamp))
+        callRealBulkWrites()
+
+        val transaction = SyncNsCarbsTransaction(incoming, nsClientMode = true)
+        transaction.database = database
+        val result = transaction.run()
+
+        assertThat(result.updated).containsExactly(byNsId)
+        assertThat(result.updatedNsId).containsExactly(byPumpId, byTimestamp).inOrder()
+        assertThat(result.inserted).containsExactlyElementsIn(incoming.drop(3)).inOrder()
+        assertThat(byNsId.duration).isEqualTo(30_000L)
+        assertThat(byNsId.amount).isEqualTo(10.0)
+        assertThat(byPumpId.interfaceIDs.nightscoutId).isEqualTo("ns-1")
+        assertThat(byTimestamp.interfaceIDs.nightscoutId).isEqualTo("ns-2")
+        assertThat(incoming.drop(3).map { it.id }).doesNotContain(0L)
+
+        val updated = argumentCaptor<List<Carbs>>()
+        val inserted = argumentCaptor<List<Carbs>>()
+        verify(carbsDao).update(updated.capture())
+        verify(carbsDao, times(2)).insert(inserted.capture())
+        assertThat(updated.firstValue).containsExactly(byNsId, byPumpId, byTimestamp).inOrder()
+        assertThat(updated.firstValue.map { it.version }).containsExactly(1, 1, 1)
+        assertThat(inserted.firstValue).containsExactlyElementsIn(incoming.drop(3)).inOrder()
+        // previous versions as historic rows
+        val historic = inserted.secondValue
+        assertThat(historic.map { it.id }).containsExactly(0L, 0L, 0L)
+        assertThat(historic.map { it.referenceId }).containsExactly(1L, 2L, 3L).inOrder()
+        assertThat(historic.map { it.version }).containsExactly(0, 0, 0)
+        assertThat(historic.map { it.amount }).containsExactly(50.0, 20.0, 30.0).inOrder()
+        assertThat(historic.map { it.duration }).containsExactly(60_000L, 0L, 0L).inOrder()
+        assertThat(historic.map { it.interfaceIDs.nightscoutId }).containsExactly("ns-0", null, null).inOrder()
+        verify(carbsDao, never()).getByNSId(any())
+        verify(carbsDao, never()).findByTimestamp(any())
+        verify(carbsDao, never()).insertNewEntry(any())
+        verify(carbsDao, never()).updateExistingEntry(any())
+    }
+
+    /** Bulk writes run through [app.aaps.database.daos.updateExistingEntriesImpl] and [app.aaps.database.daos.insertNewEntriesImpl] */
+    private fun callRealBulkWrites() {
+        var nextId = 100L
+        whenever(carbsDao.insertNewEntries(any())).thenCallRealMethod()
+        whenever(carbsDao.updateExistingEntries(any(), any())).thenCallRealMethod()
+        whenever(carbsDao.insert(any<List<Carbs>>())).thenAnswer { invocation -> invocation.getArgument<List<Carbs>>(0).map { nextId++ } }
+    }
+
     private fun createCarbs(
         id: Long,
         nsId: String?,
@@ -11,8 +11,10 @@ import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.mockito.Mockito.verify
 import org.mockito.kotlin.any
+import org.mockito.kotlin.argumentCaptor
 import org.mockito.kotlin.mock
 import org.mockito.kotlin.never
+import org.mockito.kotlin.times
 import org.mockito.kotlin.whenever
 
 class SyncNsTemporaryBasalTransactionTest {
@@ -319,6 +321,68 @@ class SyncNsTemporaryBasalTransactionTest {
         verify(temporaryBasalDao).updateExistingEntry(existing)
     }
 
+    @Test
+    fun `large batch is matched in memory and written in bulk`() = runTest {
+        val byNsId = createTemporaryBasal(id = 1, nsId = "ns-0", timestamp = 1000L, duration = 60_000L)
+        val byPumpId = createTemporaryBasal(id = 2, nsId = null, timestamp = 61_000L, duration = 30_000L, pumpId = 100L, pumpType = InterfaceIDs.PumpType.DANA_I, pumpSerial = "ABC")
+        val runningSame = createTemporaryBasal(id = 3, nsId = null, timestamp = 120_500L, duration = 30_000L)
+        val runningOther = createTemporaryBasal(id = 4, nsId = null, timestamp = 180_000L, duration = 600_000L)
+        val incoming = List(SyncBatch.MIN_PREFETCH_SIZE + 5) { index -> createTemporaryBasal(id = 0, nsId = "ns-$index", timestamp = 1000L + index * 60_000L, duration = 30_000L) }
+        incoming[1].interfaceIDs.pumpId = 100L
+        incoming[1].interfaceIDs.pumpType = InterfaceIDs.PumpType.DANA_I
+        incoming[1].interfaceIDs.pumpSerial = "ABC"
+        // starts while TBR inserted by this batch is running
+        val late = createTemporaryBasal(id = 0, nsId = "ns-late", timestamp = incoming[5].timestamp + 10_000L, duration = 30_000L)
+
+        whenever(temporaryBasalDao.findByNSIds(any())).thenReturn(listOf(byNsId))
+        whenever(temporaryBasalDao.findByPumpIds(listOf(100L))).thenReturn(listOf(byPumpId))
+        whenever(temporaryBasalDao.getTemporaryBasalActiveBetweenTimeAndTime(1000L, incoming.last().timestamp)).thenReturn(listOf(byNsId, byPumpId, runningSame, runningOther))
+        callRealBulkWrites()
+
+        val transaction = SyncNsTemporaryBasalTransaction(incoming + late, nsClientMode = true)
+        transaction.database = database
+        val result = transaction.run()
+
+        assertThat(result.updatedDuration).containsExactly(byNsId)
+        assertThat(result.updatedNsId).containsExactly(byPumpId, runningSame).inOrder()
+        assertThat(result.ended).containsExactly(runningOther, incoming[5]).inOrder()
+        assertThat(result.inserted).containsExactlyElementsIn(incoming.drop(3) + late).inOrder()
+        assertThat(byNsId.duration).isEqualTo(30_000L)
+        assertThat(runningSame.interfaceIDs.nightscoutId).isEqualTo("ns-2")
+        assertThat(runningOther.end).isEqualTo(incoming[3].timestamp)
+        assertThat(incoming[5].end).isEqualTo(late.timestamp)
+
+        val updated = argumentCaptor<List<TemporaryBasal>>()
+        val inserted = argumentCaptor<List<TemporaryBasal>>()
+        verify(temporaryBasalDao, times(2)).update(updated.capture())
+        verify(temporaryBasalDao, times(4)).insert(inserted.capture())
+        // pending inserts are written before the update of one of them
+        assertThat(inserted.allValues[0]).containsExactlyElementsIn(incoming.drop(3)).inOrder()
+        assertThat(updated.allValues[0]).containsExactly(byNsId, byPumpId, runningSame, runningOther).inOrder()
+        assertThat(inserted.allValues[1].map { it.referenceId }).containsExactly(1L, 2L, 3L, 4L).inOrder()
+        assertThat(inserted.allValues[1].map { it.duration }).containsExactly(60_000L, 30_000L, 30_000L, 600_000L).inOrder()
+        assertThat(inserted.allValues[2]).containsExactly(late)
+        assertThat(updated.allValues[1]).containsExactly(incoming[5])
+        assertThat(incoming[5].version).isEqualTo(1)
+        val historic = inserted.allValues[3].single()
+        assertThat(historic.id).isEqualTo(0L)
+        assertThat(historic.referenceId).isEqualTo(incoming[5].id)
+        assertThat(historic.version).isEqualTo(0)
+        assertThat(historic.duration).isEqualTo(30_000L)
+        verify(temporaryBasalDao, never()).findByNSId(any())
+        verify(temporaryBasalDao, never()).getTemporaryBasalActiveAt(any())
+        verify(temporaryBasalDao, never()).insertNewEntry(any())
+        verify(temporaryBasalDao, never()).updateExistingEntry(any())
+    }
+
+    /** Bulk writes run through [app.aaps.database.daos.updateExistingEntriesImpl] and [app.aaps.database.daos.insertNewEntriesImpl] */
+    private fun callRealBulkWrites() {
+        var nextId = 100L
+        whenever(temporaryBasalDao.insertNewEntries(any())).thenCallRealMethod()
+        whenever(temporaryBasalDao.updateExistingEntries(any(), any())).thenCallRealMethod()
+        whenever(temporaryBasalDao.insert(any<List<TemporaryBasal>>())).thenAnswer { invocation -> invocation.getArgument<List<TemporaryBasal>>(0).map { nextId++ } }
+    }
+
     private fun createTemporaryBasal(
         id: Long,
         nsId: String?,
@@ -11,7 +11,9 @@ import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.mockito.Mockito.never
 import org.mockito.Mockito.verify
+import org.mockito.Mockito.times
 import org.mockito.kotlin.any
+import org.mockito.kotlin.argumentCaptor
 import org.mockito.kotlin.mock
 import org.mockito.kotlin.whenever
 
@@ -220,15 +222,71 @@ class SyncNsTherapyEventTransactionTest {
         assertThat(existing.isValid).isFalse()
     }
 
+    @Test
+    fun `large batch is matched in memory and written in bulk`() = runTest {
+        val byNsId = createTherapyEvent(id = 1, nsId = "ns-0", timestamp = 1000L)
+        val byTimestamp = createTherapyEvent(id = 2, nsId = null, timestamp = 2000L)
+        val otherType = createTherapyEvent(id = 3, nsId = null, timestamp = 3000L, type = TherapyEvent.Type.ANNOUNCEMENT)
+        val incoming = List(SyncBatch.MIN_PREFETCH_SIZE + 5) { index -> createTherapyEvent(id = 0, nsId = "ns-$index", timestamp = 1000L + index * 1000L) }
+        incoming[0].isValid = false
+        incoming[0].note = "Changed"
+
+        whenever(therapyEventDao.findByNSIds(any())).thenReturn(listOf(byNsId))
+        whenever(therapyEventDao.findByTimestampRange(1000L, 1000L + (incoming.size - 1) * 1000L)).thenReturn(listOf(byNsId, byTimestamp, otherType))
+        callRealBulkWrites()
+
+        val transaction = SyncNsTherapyEventTransaction(incoming, nsClientMode = false)
+        transaction.database = database
+        val result = transaction.run()
+
+        assertThat(result.invalidated).containsExactly(byNsId)
+        assertThat(result.updatedSite).containsExactly(byNsId)
+        assertThat(result.updatedNsId).containsExactly(byTimestamp)
+        // event of another type at the same time is not the same record
+        assertThat(result.inserted).containsExactlyElementsIn(incoming.drop(2)).inOrder()
+        assertThat(byNsId.isValid).isFalse()
+        assertThat(byNsId.note).isEqualTo("Changed")
+        assertThat(byTimestamp.interfaceIDs.nightscoutId).isEqualTo("ns-1")
+        assertThat(otherType.interfaceIDs.nightscoutId).isNull()
+
+        val updated = argumentCaptor<List<TherapyEvent>>()
+        val inserted = argumentCaptor<List<TherapyEvent>>()
+        verify(therapyEventDao).update(updated.capture())
+        verify(therapyEventDao, times(2)).insert(inserted.capture())
+        assertThat(updated.firstValue).containsExactly(byNsId, byTimestamp).inOrder()
+        assertThat(updated.firstValue.map { it.version }).containsExactly(2, 1).inOrder()
+        assertThat(inserted.firstValue).containsExactlyElementsIn(incoming.drop(2)).inOrder()
+        // every update of the batch keeps its previous version
+        val historic = inserted.secondValue
+        assertThat(historic.map { it.referenceId }).containsExactly(1L, 1L, 2L).inOrder()
+        assertThat(historic.map { it.version }).containsExactly(0, 1, 0).inOrder()
+        assertThat(historic.map { it.isValid }).containsExactly(true, false, true).inOrder()
+        assertThat(historic.map { it.note }).containsExactly("Test", "Test", "Test")
+        assertThat(historic.map { it.interfaceIDs.nightscoutId }).containsExactly("ns-0", "ns-0", null).inOrder()
+        verify(therapyEventDao, never()).findByNSId(any())
+        verify(therapyEventDao, never()).findByTimestamp(any(), any())
+        verify(therapyEventDao, never()).insertNewEntry(any())
+        verify(therapyEventDao, never()).updateExistingEntry(any())
+    }
+
+    /** Bulk writes run through [app.aaps.database.daos.updateExistingEntriesImpl] and [app.aaps.database.daos.insertNewEntriesImpl] */
+    private fun callRealBulkWrites() {
+        var nextId = 100L
+        whenever(therapyEventDao.insertNewEntries(any())).thenCallRealMethod()
+        whenever(therapyEventDao.updateExistingEntries(any(), any())).thenCallRealMethod()
+        whenever(therapyEventDao.insert(any<List<TherapyEvent>>())).thenAnswer { invocation -> invocation.getArgument<List<TherapyEvent>>(0).map { nextId++ } }
+    }
+
     private fun createTherapyEvent(
         id: Long,
         nsId: String?,
         timestamp: Long = System.currentTimeMillis(),
         isValid: Boolean = true,
-        duration: Long = 0L
+        duration: Long = 0L,
+        type: TherapyEvent.Type = TherapyEvent.Type.NOTE
     ): TherapyEvent = TherapyEvent(
         timestamp = timestamp,
-        type = TherapyEvent.Type.NOTE,
+        type = type,
         note = "Test",
         isValid = isValid,
         duration = duration,
@@ -2344,6 +2344,10 @@ class PersistenceLayerImpl @Inject constructor(
         repository.getUserEntryFilteredDataFromTime(timestamp).map { it.fromDb() }.toList()
     }
 
+    override suspend fun getUserEntryFilteredDataPage(timestamp: Long, after: UE?, limit: Int): List<UE> = withContext(Dispatchers.IO) {
+        repository.getUserEntryFilteredDataPage(timestamp, after?.timestamp ?: Long.MAX_VALUE, after?.id ?: Long.MAX_VALUE, limit).map { it.fromDb() }.toList()
+    }
+
     // TDD
     override suspend fun clearCachedTddData(timestamp: Long) = withContext(Dispatchers.IO) { repository.clearCachedTddData(timestamp) }
 
@@ -0,0 +1,125 @@
+package app.aaps.implementation.aps
+
+/**
+ * Values ordered by timestamp in ring buffer with running sums for averages of time ranges in O(log n)
+ *
+ * Value is identified by timestamp and glucose. When capacity is reached the oldest value is evicted.
+ * Not thread safe
+ */
+internal class SensitivityRing(private val capacity: Int) {
+
+    private val timestamps = LongArray(capacity)
+    private val glucose = LongArray(capacity)
+    private val values = DoubleArray(capacity)
+
+    // sum of values from the oldest one up to the index (inclusive)
+    private val sums = DoubleArray(capacity)
+    private var head = 0
+
+    var size = 0
+        private set
+
+    /** Timestamp of the newest evicted value. Range up to this timestamp is not complete */
+    var evictedUntil = Long.MIN_VALUE
+        private set
+
+    private fun physical(index: Int) = (head + index) % capacity
+
+    fun timestamp(index: Int) = timestamps[physical(index)]
+    fun glucose(index: Int) = glucose[physical(index)]
+    fun value(index: Int) = values[physical(index)]
+
+    /** @return index of the first value with timestamp >= [timestamp] */
+    fun lowerBound(timestamp: Long): Int {
+        var low = 0
+        var high = size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (timestamp(mid) < timestamp) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    /** @return index of the first value with timestamp > [timestamp] */
+    fun upperBound(timestamp: Long): Int {
+        var low = 0
+        var high = size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (timestamp(mid) <= timestamp) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    fun indexOf(timestamp: Long, glucose: Long): Int {
+        var index = lowerBound(timestamp)
+        while (index < size && timestamp(index) == timestamp) {
+            if (glucose(index) == glucose) return index
+            index++
+        }
+        return -1
+    }
+
+    /**
+     * Insert value or replace value with the same timestamp and glucose
+     */
+    fun put(timestamp: Long, glucose: Long, value: Double) {
+        val existing = indexOf(timestamp, glucose)
+        if (existing >= 0) {
+            values[physical(existing)] = value
+            updateSums(existing)
+            return
+        }
+        var index = upperBound(timestamp)
+        if (size == capacity) {
+            // older than everything kept
+            if (index == 0) {
+                evictedUntil = maxOf(evictedUntil, timestamp)
+                return
+            }
+            evictedUntil = maxOf(evictedUntil, timestamp(0))
+            head = physical(1)
+            size--
+            index--
+        }
+        // appending is the common case, otherwise shift newer values
+        for (i in size downTo index + 1) {
+            val to = physical(i)
+            val from = physical(i - 1)
+            timestamps[to] = timestamps[from]
+            this.glucose[to] = this.glucose[from]
+            values[to] = values[from]
+        }
+        val position = physical(index)
+        timestamps[position] = timestamp
+        this.glucose[position] = glucose
+        values[position] = value
+        size++
+        updateSums(index)
+    }
+
+    /**
+     * @return average of values with timestamp in <from, to> or null if there is no value
+     */
+    fun average(from: Long, to: Long): Double? {
+        val first = lowerBound(from)
+        val last = upperBound(to) - 1
+        if (first > last) return null
+        val sum = sums[physical(last)] - sums[physical(first)] + value(first)
+        return sum / (last - first + 1)
+    }
+
+    fun clear() {
+        head = 0
+        size = 0
+        evictedUntil = Long.MIN_VALUE
+    }
+
+    private fun updateSums(from: Int) {
+        var sum = if (from == 0) 0.0 else sums[physical(from - 1)]
+        for (i in from until size) {
+            sum += value(i)
+            sums[physical(i)] = sum
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package app.aaps.implementation.aps
+
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.APSResult
+import app.aaps.core.interfaces.aps.VariableSensitivityCache
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
+import app.aaps.core.interfaces.utils.DateUtil
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.util.EnumMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+@Singleton
+class VariableSensitivityCacheImpl @Inject constructor(
+    private val aapsLogger: AAPSLogger,
+    private val persistenceLayer: PersistenceLayer,
+    private val dateUtil: DateUtil
+) : VariableSensitivityCache {
+
+    /** Values of algorithm keyed by start of time slot and glucose */
+    private class Calculated(val slot: Long) {
+
+        val ring = SensitivityRing(CALCULATED_CAPACITY)
+    }
+
+    // APS results (timestamp, glucose, variable sensitivity or NaN)
+    private val apsResults = SensitivityRing(APS_RESULTS_CAPACITY)
+    private val calculated = EnumMap<APSResult.Algorithm, Calculated>(APSResult.Algorithm::class.java)
+
+    private val loadMutex = Mutex()
+    private val calculationMutex = Mutex()
+
+    // start of interval loaded from database, Long.MAX_VALUE if not loaded yet
+    private var loadedFrom = Long.MAX_VALUE
+
+    override suspend fun load() = loadMutex.withLock {
+        if (synchronized(this) { loadedFrom } != Long.MAX_VALUE) return@withLock
+        val now = dateUtil.now()
+        val from = now - T.days(1).msecs()
+        val results = persistenceLayer.getApsResults(from, now)
+        synchronized(this) {
+            results.forEach { storeApsResult(it) }
+            loadedFrom = from
+            calculated.values.forEach { seed(it) }
+        }
+        aapsLogger.debug(LTag.APS, "Loaded ${results.size} APS results from database")
+    }
+
+    override fun get(algorithm: APSResult.Algorithm, timestamp: Long, slot: Long, glucose: Double): Double? = synchronized(this) {
+        val ring = calculated(algorithm, slot).ring
+        val index = ring.indexOf(slotStart(timestamp, slot), glucose.toLong())
+        if (index >= 0) ring.value(index) else null
+    }
+
+    override suspend fun getOrCalculate(algorithm: APSResult.Algorithm, timestamp: Long, slot: Long, glucose: Double, calculate: suspend () -> Double?): Double? {
+        get(algorithm, timestamp, slot, glucose)?.let { return it }
+        load()
+        return calculationMutex.withLock {
+            // value may be calculated by concurrent call meanwhile
+            get(algorithm, timestamp, slot, glucose)
+                ?: calculate()?.also { value ->
+                    synchronized(this) { calculated(algorithm, slot).ring.put(slotStart(timestamp, slot), glucose.toLong(), value) }
+                }
+        }
+    }
+
+    override fun getAverage(algorithm: APSResult.Algorithm, from: Long, to: Long): Double? = synchronized(this) {
+        calculated[algorithm]?.ring?.average(from, to)
+    }
+
+    override fun addApsResult(apsResult: APSResult) {
+        synchronized(this) { storeApsResult(apsResult) }
+    }
+
+    override fun getLastApsResultSensitivity(timestamp: Long, maxAge: Long): Double? = synchronized(this) {
+        val index = apsResults.upperBound(timestamp) - 1
+        if (index < 0 || apsResults.timestamp(index) <= timestamp - maxAge) return null
+        apsResults.value(index).takeIf { !it.isNaN() && it != 0.0 }
+    }
+
+    override suspend fun getApsResultSensitivities(from: Long, to: Long): List<Pair<Long, Double>> {
+        load()
+        synchronized(this) {
+            if (from > maxOf(loadedFrom, apsResults.evictedUntil)) {
+                val list = ArrayList<Pair<Long, Double>>()
+                for (i in apsResults.lowerBound(from) until apsResults.upperBound(to))
+                    if (!apsResults.value(i).isNaN()) list.add(Pair(apsResults.timestamp(i), apsResults.value(i)))
+                return list
+            }
+        }
+        return persistenceLayer.getApsResults(from, to).mapNotNull { result -> result.variableSens?.let { Pair(result.date, it) } }
+    }
+
+    private fun storeApsResult(apsResult: APSResult) {
+        val glucose = apsResult.glucoseStatus?.glucose?.toLong() ?: NO_GLUCOSE
+        val variableSens = apsResult.variableSens ?: Double.NaN
+        apsResults.put(apsResult.date, glucose, variableSens)
+    }
+
+    /** Values of algorithm, built again when slot length changes (ie. by preference) */
+    private fun calculated(algorithm: APSResult.Algorithm, slot: Long): Calculated =
+        calculated[algorithm]?.takeIf { it.slot == slot }
+            ?: Calculated(slot).also {
+                if (loadedFrom != Long.MAX_VALUE) seed(it)
+                calculated[algorithm] = it
+            }
+
+    /** Fill values from known APS results */
+    private fun seed(calculated: Calculated) {
+        for (i in 0 until apsResults.size) {
+            val timestamp = apsResults.timestamp(i)
+            val glucose = apsResults.glucose(i)
+            val value = apsResults.value(i)
+            if (glucose == NO_GLUCOSE || value.isNaN() || value <= 0.0) continue
+            calculated.ring.put(slotStart(timestamp, calculated.slot), glucose, value)
+        }
+    }
+
+    private fun slotStart(timestamp: Long, slot: Long) = timestamp - timestamp % slot
+
+    companion object {
+
+        private const val CALCULATED_CAPACITY = 1000
+        private const val APS_RESULTS_CAPACITY = 2000
+        private const val NO_GLUCOSE = Long.MIN_VALUE
+    }
+}
@@ -3,6 +3,7 @@ package app.aaps.implementation.di
 import app.aaps.core.interfaces.alerts.LocalAlertUtils
 import app.aaps.core.interfaces.aps.APSResult
 import app.aaps.core.interfaces.aps.AutosensData
+import app.aaps.core.interfaces.aps.VariableSensitivityCache
 import app.aaps.core.interfaces.db.ProcessedTbrEbData
 import app.aaps.core.interfaces.insulin.ConcentrationHelper
 import app.aaps.core.interfaces.insulin.Insulin
@@ -50,6 +51,7 @@ import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.implementation.alerts.LocalAlertUtilsImpl
 import app.aaps.implementation.androidNotification.NotificationHolderImpl
 import app.aaps.implementation.aps.DetermineBasalResult
+import app.aaps.implementation.aps.VariableSensitivityCacheImpl
 import app.aaps.implementation.db.ProcessedTbrEbDataImpl
 import app.aaps.implementation.insulin.ConcentrationHelperImpl
 import app.aaps.implementation.insulin.InsulinImpl
@@ -164,6 +166,7 @@ class ImplementationModule {
         @Binds fun bindsProfileStore(profileStoreObject: ProfileStoreObject): ProfileStore
         @Binds fun bindsAutosensData(autosensDataObject: AutosensDataObject): AutosensData
         @Binds fun bindsAPSResult(determineBasalResult: DetermineBasalResult): APSResult
+        @Binds fun bindsVariableSensitivityCache(variableSensitivityCacheImpl: VariableSensitivityCacheImpl): VariableSensitivityCache
         @Binds fun bindsPumpEnactResult(pumpEnactResultObject: PumpEnactResultObject): PumpEnactResult
     }
 }
\ No newline at end of file
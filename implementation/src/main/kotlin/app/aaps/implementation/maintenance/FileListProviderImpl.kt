@@ -184,6 +184,12 @@ class FileListProviderImpl @Inject constructor(
         return dir?.createFile("application/csv", timeLocal + "_UserEntry.csv")
     }
 
+    override fun newTraceFile(): DocumentFile? {
+        val timeLocal = LocalDateTime.now().toString(DateTimeFormat.forPattern("yyyy-MM-dd'_'HHmmss"))
+        val dir = ensureExportDirExists()
+        return dir?.createFile("application/octet-stream", timeLocal + "_LoopTrace.bin")
+    }
+
     override fun newCwfFile(filename: String, withDate: Boolean): DocumentFile? {
         val timeLocal = LocalDateTime.now().toString(DateTimeFormat.forPattern("yyyy-MM-dd'_'HHmmss"))
         val dir = ensureExportDirExists()
@@ -14,7 +14,6 @@ import androidx.work.WorkManager
 import androidx.work.WorkerParameters
 import androidx.work.workDataOf
 import app.aaps.core.data.model.TE
-import app.aaps.core.data.model.UE
 import app.aaps.core.data.time.T
 import app.aaps.core.data.ue.Action
 import app.aaps.core.data.ue.Sources
@@ -23,6 +22,7 @@ import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.di.ApplicationScope
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
+import app.aaps.core.interfaces.maintenance.CloudUploadSource
 import app.aaps.core.interfaces.maintenance.ExportConfig
 import app.aaps.core.interfaces.maintenance.ExportDestination
 import app.aaps.core.interfaces.maintenance.ExportPreparation
@@ -47,7 +47,6 @@ import app.aaps.core.interfaces.rx.weardata.CwfMetadataKey
 import app.aaps.core.interfaces.sharedPreferences.SP
 import app.aaps.core.interfaces.storage.Storage
 import app.aaps.core.interfaces.ui.UiInteraction
-import app.aaps.core.interfaces.userEntry.UserEntryPresentationHelper
 import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.core.interfaces.utils.MidnightTime
 import app.aaps.core.keys.BooleanNonKey
@@ -71,7 +70,9 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import org.json.JSONObject
+import java.io.File
 import java.io.FileNotFoundException
+import java.io.FileOutputStream
 import java.io.IOException
 import java.time.LocalDateTime
 import java.time.format.DateTimeFormatter
@@ -104,8 +105,7 @@ class ImportExportPrefsImpl @Inject constructor(
     private val activePlugin: ActivePlugin,
     @ApplicationScope private val appScope: CoroutineScope,
     private val cloudStorageManager: CloudStorageManager,
-    private val userEntryPresentationHelper: UserEntryPresentationHelper,
-    private val storage: Storage
+    private val userEntryCsvExporter: UserEntryCsvExporter
 ) : ImportExportPrefs {
 
     private var pendingExportFile: DocumentFile? = null
@@ -926,9 +926,7 @@ class ImportExportPrefsImpl @Inject constructor(
     override suspend fun executeCsvExport(): ExportResult {
         aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT executeCsvExport started")
 
-        val entries = persistenceLayer.getUserEntryFilteredDataFromTime(MidnightTime.calc() - T.days(90).msecs())
-        aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT entries count=${entries.size}")
-
+        val from = MidnightTime.calc() - T.days(90).msecs()
         val csvLocal = preferences.get(BooleanNonKey.ExportCsvLocalEnabled)
         val csvCloud = preferences.get(BooleanNonKey.ExportCsvCloudEnabled)
         val isCloudActive = cloudStorageManager.isCloudStorageActive()
@@ -943,46 +941,55 @@ class ImportExportPrefsImpl @Inject constructor(
 
         var localSuccess: Boolean? = null
         var cloudSuccess: Boolean? = null
+        var localFile: DocumentFile? = null
 
         if (destination == ExportDestination.LOCAL || destination == ExportDestination.BOTH) {
-            localSuccess = performLocalCsvExport(entries)
+            localFile = performLocalCsvExport(from)
+            localSuccess = localFile != null
         }
 
         if (destination == ExportDestination.CLOUD || destination == ExportDestination.BOTH) {
-            cloudSuccess = performCloudCsvExport(entries)
+            cloudSuccess = performCloudCsvExport(from, localFile)
         }
 
         return ExportResult(localSuccess = localSuccess, cloudSuccess = cloudSuccess)
     }
 
-    private fun performLocalCsvExport(userEntries: List<UE>): Boolean {
+    /** @return written file or null if failed */
+    private suspend fun performLocalCsvExport(from: Long): DocumentFile? {
         return try {
             prefFileList.ensureExportDirExists()
-            val newFile = prefFileList.newExportCsvFile() ?: return false
-            val contents = userEntryPresentationHelper.userEntriesToCsv(userEntries)
-            storage.putFileContents(context.contentResolver, newFile, contents)
-            true
+            val newFile = prefFileList.newExportCsvFile() ?: return null
+            val output = context.contentResolver.openOutputStream(newFile.uri) ?: return null
+            val count = output.use { userEntryCsvExporter.write(from, it) }
+            aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT entries count=$count")
+            newFile
         } catch (e: Exception) {
             aapsLogger.error(LTag.CORE, "CSV local export failed", e)
-            false
+            null
         }
     }
 
-    private suspend fun performCloudCsvExport(userEntries: List<UE>): Boolean {
+    /** Uploads already exported [localFile] or CSV written to temporary file */
+    private suspend fun performCloudCsvExport(from: Long, localFile: DocumentFile?): Boolean {
+        var tempFile: File? = null
         return try {
             val provider = cloudStorageManager.getActiveProvider() ?: return false
-            val contents = userEntryPresentationHelper.userEntriesToCsv(userEntries)
             val fileName = "UserEntries_${filenameTimestamp()}.csv"
+            val content = localFile?.let { CloudUploadSource.of(context.contentResolver, it) }
+                ?: File.createTempFile("UserEntries", ".csv", context.cacheDir).let { file ->
+                    tempFile = file
+                    FileOutputStream(file).use { userEntryCsvExporter.write(from, it) }
+                    CloudUploadSource.of(file)
+                }
             val folderId = provider.getOrCreateFolderPath(CloudConstants.CLOUD_PATH_USER_ENTRIES)
             folderId?.let { provider.setSelectedFolderId(it) }
-            var uploadedFileId = provider.uploadFileToPath(fileName, contents.toByteArray(Charsets.UTF_8), "text/csv", CloudConstants.CLOUD_PATH_USER_ENTRIES)
-            if (uploadedFileId == null) {
-                uploadedFileId = provider.uploadFile(fileName, contents.toByteArray(Charsets.UTF_8), "text/csv")
-            }
-            uploadedFileId != null
+            provider.uploadFileToPath(fileName, content, "text/csv", CloudConstants.CLOUD_PATH_USER_ENTRIES) != null
         } catch (e: Exception) {
             aapsLogger.error(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV cloud export failed", e)
             false
+        } finally {
+            tempFile?.delete()
         }
     }
 
@@ -993,9 +1000,7 @@ class ImportExportPrefsImpl @Inject constructor(
 
         @Inject lateinit var rh: ResourceHelper
         @Inject lateinit var prefFileList: FileListProvider
-        @Inject lateinit var userEntryPresentationHelper: UserEntryPresentationHelper
-        @Inject lateinit var storage: Storage
-        @Inject lateinit var persistenceLayer: PersistenceLayer
+        @Inject lateinit var userEntryCsvExporter: UserEntryCsvExporter
         @Inject lateinit var cloudStorageManager: CloudStorageManager
         @Inject lateinit var preferences: Preferences
         @Inject lateinit var rxBus: RxBus
@@ -1003,10 +1008,7 @@ class ImportExportPrefsImpl @Inject constructor(
         override suspend fun doWorkAndLog(): Result {
             aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT doWorkAndLog started")
 
-            val entries = persistenceLayer.getUserEntryFilteredDataFromTime(MidnightTime.calc() - T.days(90).msecs())
-
-            aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT entries count=${entries.size}")
-
+            val from = MidnightTime.calc() - T.days(90).msecs()
             val csvLocal = preferences.get(BooleanNonKey.ExportCsvLocalEnabled)
             val csvCloud = preferences.get(BooleanNonKey.ExportCsvCloudEnabled)
             val isCloudActive = cloudStorageManager.isCloudStorageActive()
@@ -1020,41 +1022,44 @@ class ImportExportPrefsImpl @Inject constructor(
             aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT csvLocal=$csvLocal, csvCloud=$csvCloud, isCloudActive=$isCloudActive, destination=$destination")
 
             var failed = false
+            var localFile: DocumentFile? = null
 
             if (destination == ExportDestination.LOCAL || destination == ExportDestination.BOTH) {
                 aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT calling exportToLocal")
-                if (exportToLocal(entries) != Result.success()) failed = true
+                localFile = exportToLocal(from)
+                if (localFile == null) failed = true
             }
 
             if (destination == ExportDestination.CLOUD || destination == ExportDestination.BOTH) {
                 aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT calling exportToCloud")
-                if (exportToCloud(entries) != Result.success()) failed = true
+                if (exportToCloud(from, localFile) != Result.success()) failed = true
             }
 
             return if (failed) Result.failure() else Result.success()
         }
 
-        private fun exportToLocal(userEntries: List<UE>): Result {
+        /** @return written file or null if failed */
+        private suspend fun exportToLocal(from: Long): DocumentFile? {
             prefFileList.ensureExportDirExists()
-            val newFile = prefFileList.newExportCsvFile() ?: return Result.failure()
-            var ret = Result.success()
+            val newFile = prefFileList.newExportCsvFile() ?: return null
             try {
-                saveCsv(newFile, userEntries)
+                saveCsv(newFile, from)
                 rxBus.send(EventShowSnackbar(rh.gs(R.string.ue_exported), EventShowSnackbar.Type.Success))
+                return newFile
             } catch (e: FileNotFoundException) {
                 rxBus.send(EventShowSnackbar(rh.gs(R.string.filenotfound) + " " + newFile, EventShowSnackbar.Type.Error))
                 aapsLogger.error(LTag.CORE, "Unhandled exception", e)
-                ret = Result.failure(workDataOf("Error" to "Error FileNotFoundException"))
             } catch (e: IOException) {
                 rxBus.send(EventShowSnackbar(e.message ?: "Unknown error", EventShowSnackbar.Type.Error))
                 aapsLogger.error(LTag.CORE, "Unhandled exception", e)
-                ret = Result.failure(workDataOf("Error" to "Error IOException"))
             }
-            return ret
+            return null
         }
 
-        private suspend fun exportToCloud(userEntries: List<UE>): Result {
-            aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT_CLOUD started with ${userEntries.size} entries")
+        /** Uploads already exported [localFile] or CSV written to temporary file */
+        private suspend fun exportToCloud(from: Long, localFile: DocumentFile?): Result {
+            aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT_CLOUD started localFile=${localFile?.name}")
+            var tempFile: File? = null
             try {
                 val provider = cloudStorageManager.getActiveProvider()
                 if (provider == null) {
@@ -1063,9 +1068,15 @@ class ImportExportPrefsImpl @Inject constructor(
                     return Result.failure(workDataOf("Error" to "No active cloud provider"))
                 }
 
-                val contents = userEntryPresentationHelper.userEntriesToCsv(userEntries)
                 val fileName = "UserEntries_${filenameTimestamp()}.csv"
-                aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT_CLOUD fileName=$fileName, contents length=${contents.length}")
+                val content = localFile?.let { CloudUploadSource.of(context.contentResolver, it) }
+                    ?: File.createTempFile("UserEntries", ".csv", context.cacheDir).let { file ->
+                        tempFile = file
+                        val count = FileOutputStream(file).use { userEntryCsvExporter.write(from, it) }
+                        aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT_CLOUD entries count=$count")
+                        CloudUploadSource.of(file)
+                    }
+                aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT_CLOUD fileName=$fileName, contents length=${content.length}")
 
                 // First locate selected folder to fixed path
                 val folderId = provider.getOrCreateFolderPath(CloudConstants.CLOUD_PATH_USER_ENTRIES)
@@ -1075,20 +1086,14 @@ class ImportExportPrefsImpl @Inject constructor(
                 rxBus.send(EventShowSnackbar(rh.gs(R.string.uploading_to_cloud), EventShowSnackbar.Type.Info))
                 aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT_CLOUD uploading...")
 
-                var uploadedFileId = provider.uploadFileToPath(
+                val uploadedFileId = provider.uploadFileToPath(
                     fileName,
-                    contents.toByteArray(Charsets.UTF_8),
+                    content,
                     "text/csv",
                     CloudConstants.CLOUD_PATH_USER_ENTRIES
                 )
                 aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT_CLOUD uploadFileToPath result=$uploadedFileId")
 
-                if (uploadedFileId == null) {
-                    aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT_CLOUD trying fallback uploadFile")
-                    uploadedFileId = provider.uploadFile(fileName, contents.toByteArray(Charsets.UTF_8), "text/csv")
-                    aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT_CLOUD fallback uploadFile result=$uploadedFileId")
-                }
-
                 if (uploadedFileId != null) {
                     aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT_CLOUD SUCCESS")
                     rxBus.send(EventShowSnackbar(rh.gs(R.string.csv_uploaded_to_cloud) + "\n" + rh.gs(R.string.cloud_directory_path, CloudConstants.CLOUD_PATH_USER_ENTRIES), EventShowSnackbar.Type.Success))
@@ -1102,13 +1107,16 @@ class ImportExportPrefsImpl @Inject constructor(
                 aapsLogger.error(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT_CLOUD EXCEPTION", e)
                 rxBus.send(EventShowSnackbar(rh.gs(R.string.csv_upload_error), EventShowSnackbar.Type.Error))
                 return Result.failure(workDataOf("Error" to "Exception: ${e.message}"))
+            } finally {
+                tempFile?.delete()
             }
         }
 
-        private fun saveCsv(file: DocumentFile, userEntries: List<UE>) {
+        private suspend fun saveCsv(file: DocumentFile, from: Long) {
             try {
-                val contents = userEntryPresentationHelper.userEntriesToCsv(userEntries)
-                storage.putFileContents(context.contentResolver, file, contents)
+                val output = context.contentResolver.openOutputStream(file.uri) ?: throw FileNotFoundException(file.uri.toString())
+                val count = output.use { userEntryCsvExporter.write(from, it) }
+                aapsLogger.info(LTag.CORE, "${CloudConstants.LOG_PREFIX} CSV_EXPORT entries count=$count")
             } catch (_: FileNotFoundException) {
                 throw PrefFileNotFoundError(file.name ?: "UNKNOWN")
             } catch (_: IOException) {
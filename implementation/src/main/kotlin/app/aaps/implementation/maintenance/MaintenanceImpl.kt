@@ -7,6 +7,7 @@ import androidx.documentfile.provider.DocumentFile
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LoggerUtils
+import app.aaps.core.interfaces.maintenance.CloudUploadSource
 import app.aaps.core.interfaces.maintenance.ExportResult
 import app.aaps.core.interfaces.maintenance.FileListProvider
 import app.aaps.core.interfaces.maintenance.Maintenance
@@ -114,13 +115,10 @@ class MaintenanceImpl @Inject constructor(
     private suspend fun performCloudLogUpload(zipFile: DocumentFile): Boolean {
         return try {
             val provider = cloudStorageManager.getActiveProvider() ?: return false
-            val bytes = context.contentResolver.openInputStream(zipFile.uri)?.use { it.readBytes() } ?: return false
             provider.getOrCreateFolderPath(CloudConstants.CLOUD_PATH_LOGS)?.let { provider.setSelectedFolderId(it) }
-            var uploadedFileId = provider.uploadFileToPath(zipFile.name ?: "logs.zip", bytes, "application/zip", CloudConstants.CLOUD_PATH_LOGS)
-            if (uploadedFileId == null) {
-                uploadedFileId = provider.uploadFile(zipFile.name ?: "logs.zip", bytes, "application/zip")
-            }
-            uploadedFileId != null
+            // streamed from the zip file, upload is resumed after connection loss
+            val content = CloudUploadSource.of(context.contentResolver, zipFile)
+            provider.uploadFileToPath(zipFile.name ?: "logs.zip", content, "application/zip", CloudConstants.CLOUD_PATH_LOGS) != null
         } catch (e: Exception) {
             aapsLogger.error("Cloud log upload failed", e)
             false
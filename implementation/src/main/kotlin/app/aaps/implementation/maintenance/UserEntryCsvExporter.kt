@@ -0,0 +1,50 @@
+package app.aaps.implementation.maintenance
+
+import app.aaps.core.data.model.UE
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.userEntry.UserEntryPresentationHelper
+import dagger.Reusable
+import java.io.BufferedWriter
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import javax.inject.Inject
+
+/**
+ * Writes user entries as CSV page by page
+ *
+ * Only one page of entries is held in memory, output is the same as
+ * [UserEntryPresentationHelper.userEntriesToCsv] of all entries.
+ */
+@Reusable
+class UserEntryCsvExporter @Inject constructor(
+    private val persistenceLayer: PersistenceLayer,
+    private val userEntryPresentationHelper: UserEntryPresentationHelper
+) {
+
+    /**
+     * Write entries newer than [from] to [output]. Output is flushed but not closed.
+     * @return number of written entries
+     */
+    suspend fun write(from: Long, output: OutputStream, pageSize: Int = PAGE_SIZE): Int {
+        val writer = BufferedWriter(OutputStreamWriter(output, Charsets.UTF_8), BUFFER_SIZE)
+        writer.write(userEntryPresentationHelper.csvHeader())
+        var count = 0
+        var last: UE? = null
+        do {
+            val page = persistenceLayer.getUserEntryFilteredDataPage(from, last, pageSize)
+            for (entry in page) {
+                if (count++ > 0) writer.write("\n")
+                writer.write(userEntryPresentationHelper.csvEntry(entry))
+            }
+            last = page.lastOrNull()
+        } while (page.size == pageSize)
+        writer.flush()
+        return count
+    }
+
+    companion object {
+
+        const val PAGE_SIZE = 1000
+        private const val BUFFER_SIZE = 64 * 1024
+    }
+}
@@ -0,0 +1,185 @@
+package app.aaps.implementation.maintenance.cloud.providers.googledrive
+
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
+import app.aaps.core.interfaces.maintenance.CloudUploadSource
+import app.aaps.implementation.maintenance.cloud.CloudConstants
+import kotlinx.coroutines.delay
+import okhttp3.MediaType
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody
+import okhttp3.RequestBody.Companion.toRequestBody
+import okio.BufferedSink
+import okio.source
+import java.io.IOException
+
+/**
+ * Google Drive resumable upload (uploadType=resumable)
+ *
+ * Content is streamed from [CloudUploadSource] in chunks of [chunkSize] bytes. After network error
+ * or server error the committed offset is read from the session and upload continues from there.
+ * Expired session is started again from the beginning, restarts are counted against [maxRetries].
+ * Rejected access token is refreshed once.
+ *
+ * Blocking, call from IO dispatcher.
+ */
+internal class DriveResumableUpload(
+    client: OkHttpClient,
+    private val aapsLogger: AAPSLogger,
+    private val uploadUrl: String,
+    private val chunkSize: Long = DEFAULT_CHUNK_SIZE,
+    private val maxRetries: Int = 5,
+    private val retryDelayMs: Long = 1000
+) {
+
+    /** Response which is not going to succeed by retrying */
+    class UploadException(val code: Int, val body: String) : IOException("Upload failed: $code $body")
+
+    private sealed class Status {
+        class Done(val body: String) : Status()
+        class Incomplete(val committed: Long) : Status()
+    }
+
+    // failed chunk is not repeated by OkHttp, upload continues from committed offset
+    private val client = client.newBuilder().retryOnConnectionFailure(false).build()
+
+    init {
+        require(chunkSize > 0 && chunkSize % CHUNK_GRANULARITY == 0L) { "Chunk size must be multiple of $CHUNK_GRANULARITY" }
+    }
+
+    /**
+     * Upload content
+     * @param refreshToken provides new access token after 401 response, null if not available
+     * @return response body of completed upload (requested file fields)
+     * @throws IOException when retries are exhausted or upload is rejected ([UploadException])
+     */
+    suspend fun upload(accessToken: String, metadataJson: String, mimeType: String, source: CloudUploadSource, refreshToken: suspend () -> String? = { null }): String {
+        val total = source.length
+        val mediaType = mimeType.toMediaType()
+        var token = accessToken
+        var tokenRefreshed = false
+        var session: String? = null
+        var offset = 0L
+        var failures = 0
+        var restarts = 0
+        var interrupted = false
+        while (true) {
+            val status = try {
+                val url = session ?: startSession(token, metadataJson, mimeType, total).also { session = it }
+                // after failure ask server what was stored before sending anything
+                if (interrupted) queryStatus(url, token, total)
+                else putChunk(url, token, source, mediaType, offset, total)
+            } catch (e: UploadException) {
+                if (e.code == 401 && !tokenRefreshed) {
+                    tokenRefreshed = true
+                    token = refreshToken() ?: throw e
+                    aapsLogger.warn(LTag.CORE, "${CloudConstants.LOG_PREFIX} RESUMABLE_TOKEN_REFRESHED offset=$offset")
+                    interrupted = session != null
+                    continue
+                }
+                if (session == null || (e.code != 404 && e.code != 410)) throw e
+                if (++restarts > maxRetries) throw e
+                aapsLogger.warn(LTag.CORE, "${CloudConstants.LOG_PREFIX} RESUMABLE_SESSION_EXPIRED $restarts/$maxRetries offset=$offset")
+                session = null
+                interrupted = false
+                offset = 0
+                continue
+            } catch (e: IOException) {
+                if (++failures > maxRetries) throw e
+                aapsLogger.warn(LTag.CORE, "${CloudConstants.LOG_PREFIX} RESUMABLE_RETRY $failures/$maxRetries offset=$offset error=${e.message}")
+                interrupted = session != null
+                delay(retryDelayMs shl (failures - 1))
+                continue
+            }
+            when (status) {
+                is Status.Done       -> return status.body
+
+                is Status.Incomplete -> {
+                    if (status.committed > offset) failures = 0
+                    else if (!interrupted && ++failures > maxRetries) throw IOException("Upload does not progress at $offset")
+                    offset = status.committed
+                    interrupted = false
+                }
+            }
+        }
+    }
+
+    private fun startSession(accessToken: String, metadataJson: String, mimeType: String, total: Long): String {
+        val request = Request.Builder()
+            .url("$uploadUrl/files?uploadType=resumable&fields=id&supportsAllDrives=true")
+            .header("Authorization", "Bearer $accessToken")
+            .header("X-Upload-Content-Type", mimeType)
+            .header("X-Upload-Content-Length", total.toString())
+            .post(metadataJson.toRequestBody("application/json; charset=UTF-8".toMediaType()))
+            .build()
+        client.newCall(request).execute().use { response ->
+            if (response.code in RETRYABLE_CODES) throw IOException("Server error ${response.code}")
+            if (!response.isSuccessful) throw UploadException(response.code, response.body.string().take(300))
+            return response.header("Location") ?: throw IOException("Missing upload session location")
+        }
+    }
+
+    private fun putChunk(session: String, accessToken: String, source: CloudUploadSource, mediaType: MediaType, offset: Long, total: Long): Status {
+        val length = minOf(chunkSize, total - offset)
+        val range = if (length > 0) "bytes $offset-${offset + length - 1}/$total" else "bytes */$total"
+        val request = Request.Builder()
+            .url(session)
+            .header("Authorization", "Bearer $accessToken")
+            .header("Content-Range", range)
+            .put(ChunkBody(source, mediaType, offset, length))
+            .build()
+        return execute(request)
+    }
+
+    private fun queryStatus(session: String, accessToken: String, total: Long): Status {
+        val request = Request.Builder()
+            .url(session)
+            .header("Authorization", "Bearer $accessToken")
+            .header("Content-Range", "bytes */$total")
+            .put(ByteArray(0).toRequestBody())
+            .build()
+        return execute(request)
+    }
+
+    private fun execute(request: Request): Status =
+        client.newCall(request).execute().use { response ->
+            when {
+                response.isSuccessful                 -> Status.Done(response.body.string())
+                response.code == RESUME_INCOMPLETE    -> Status.Incomplete(committed(response.header("Range")))
+                response.code in RETRYABLE_CODES      -> throw IOException("Server error ${response.code}")
+                else                                  -> throw UploadException(response.code, response.body.string().take(300))
+            }
+        }
+
+    /** Range header "bytes=0-N" contains last stored byte, missing header means nothing is stored */
+    private fun committed(range: String?): Long =
+        range?.substringAfterLast('-')?.toLongOrNull()?.plus(1) ?: 0L
+
+    /** Part of source sent without loading it to memory. Reopened when OkHttp repeats the request */
+    private class ChunkBody(
+        private val source: CloudUploadSource,
+        private val mediaType: MediaType,
+        private val offset: Long,
+        private val length: Long
+    ) : RequestBody() {
+
+        override fun contentType(): MediaType = mediaType
+        override fun contentLength(): Long = length
+        override fun writeTo(sink: BufferedSink) {
+            if (length == 0L) return
+            source.open(offset).source().use { sink.write(it, length) }
+        }
+    }
+
+    companion object {
+
+        /** Drive requires chunks in multiples of 256 KiB (except the last one) */
+        const val CHUNK_GRANULARITY = 256L * 1024
+        const val DEFAULT_CHUNK_SIZE = 32 * CHUNK_GRANULARITY
+
+        private const val RESUME_INCOMPLETE = 308
+        private val RETRYABLE_CODES = setOf(408, 429, 500, 502, 503, 504)
+    }
+}
@@ -4,6 +4,7 @@ import android.net.Uri
 import androidx.core.net.toUri
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
+import app.aaps.core.interfaces.maintenance.CloudUploadSource
 import app.aaps.core.interfaces.notifications.NotificationId
 import app.aaps.core.interfaces.notifications.NotificationManager
 import app.aaps.core.interfaces.resources.ResourceHelper
@@ -19,7 +20,6 @@ import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import okhttp3.FormBody
 import okhttp3.MediaType.Companion.toMediaType
-import okhttp3.MultipartBody
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.RequestBody.Companion.toRequestBody
@@ -74,6 +74,7 @@ class GoogleDriveManager @Inject constructor(
     }
 
     private val client = OkHttpClient()
+    private val resumableUpload = DriveResumableUpload(client, aapsLogger, UPLOAD_URL)
     private val pathCache = mutableMapOf<String, String>() // cache for resolved folder paths
 
     // Error state tracking
@@ -187,14 +188,15 @@ class GoogleDriveManager @Inject constructor(
 
     /**
      * Get a valid access token
+     * @param forceRefresh ignore cached token, used when cached token was rejected
      */
-    suspend fun getValidAccessToken(): String? = withContext(Dispatchers.IO) {
+    suspend fun getValidAccessToken(forceRefresh: Boolean = false): String? = withContext(Dispatchers.IO) {
         try {
             val cachedToken = sp.getString(PREF_GOOGLE_DRIVE_ACCESS_TOKEN, "")
             val expiry = sp.getLong(PREF_GOOGLE_DRIVE_TOKEN_EXPIRY, 0)
 
             // If token still has more than 5 minutes of validity, use directly
-            if (cachedToken.isNotEmpty() && System.currentTimeMillis() < expiry - 300_000) {
+            if (!forceRefresh && cachedToken.isNotEmpty() && System.currentTimeMillis() < expiry - 300_000) {
                 return@withContext cachedToken
             }
 
@@ -359,7 +361,7 @@ class GoogleDriveManager @Inject constructor(
     }
 
     /**
-     * Upload file to Google Drive (multipart/related)
+     * Upload file to Google Drive (folder is inferred from file type)
      */
     suspend fun uploadFile(fileName: String, fileContent: ByteArray, mimeType: String = "application/octet-stream"): String? {
         return withContext(Dispatchers.IO) {
@@ -375,64 +377,7 @@ class GoogleDriveManager @Inject constructor(
                 } else {
                     aapsLogger.info(LTag.CORE, "$LOG_PREFIX UPLOAD_START noPathHint usingFolderId=$folderId file=$fileName size=${fileContent.size} mimeHint=$mimeType")
                 }
-
-                // Metadata JSON body with its own Content-Type
-                val metadataJson = JSONObject().apply {
-                    put("name", fileName)
-                    put("parents", JSONArray().put(folderId))
-                }.toString()
-                val metadataBody = metadataJson.toRequestBody("application/json; charset=UTF-8".toMediaType())
-
-                // File body with its own Content-Type (guess when needed)
-                val effectiveMime = guessMimeType(fileName, mimeType)
-                if (effectiveMime != mimeType) aapsLogger.info(LTag.CORE, "$LOG_PREFIX MIME_ADJUST original=$mimeType effective=$effectiveMime file=$fileName")
-                val mediaBody = fileContent.toRequestBody(effectiveMime.toMediaType())
-
-                val multipart = MultipartBody.Builder()
-                    .setType("multipart/related".toMediaType())
-                    // OkHttp automatically generates Content-Type header for each part based on RequestBody.contentType();
-                    // Manually adding Content-Type will trigger IllegalArgumentException: Unexpected header: Content-Type.
-                    .addPart(metadataBody)
-                    .addPart(mediaBody)
-                    .build()
-
-                val request = Request.Builder()
-                    .url("$UPLOAD_URL/files?uploadType=multipart&fields=id&supportsAllDrives=true")
-                    .header("Authorization", "Bearer $accessToken")
-                    .post(multipart)
-                    .build()
-
-                val response = client.newCall(request).execute()
-                val responseBodyStr = response.body.string()
-                aapsLogger.info(LTag.CORE, "$LOG_PREFIX UPLOAD_RESPONSE code=${response.code} message='${response.message}' hasBody=${responseBodyStr.isNotEmpty()} folderId=$folderId file=$fileName")
-                if (responseBodyStr.isNotEmpty()) aapsLogger.info(LTag.CORE, "$LOG_PREFIX UPLOAD_RESPONSE_BODY ${responseBodyStr.take(500)}")
-
-                if (response.isSuccessful) {
-                    val jsonResponse = JSONObject(responseBodyStr.ifEmpty { "{}" })
-                    val id = jsonResponse.optString("id").takeIf { it.isNotEmpty() }
-                    if (id == null) {
-                        aapsLogger.error(LTag.CORE, "$LOG_PREFIX UPLOAD_NO_ID folderId=$folderId file=$fileName rawBody='${responseBodyStr.take(200)}'")
-                        showConnectionError(rh.gs(R.string.google_drive_upload_no_id))
-                        return@withContext null
-                    }
-                    // Post-upload verification
-                    val verified = verifyFileExists(id, accessToken)
-                    return@withContext if (verified) {
-                        clearConnectionError()
-                        aapsLogger.info(LTag.CORE, "$LOG_PREFIX UPLOAD_OK id=$id file=$fileName folderId=$folderId")
-                        logFilePathChain(id, accessToken, "UPLOAD_OK_CHAIN")
-                        debugListFolderSnapshot(folderId, accessToken, label = "AFTER_UPLOAD")
-                        id
-                    } else {
-                        aapsLogger.error(LTag.CORE, "$LOG_PREFIX UPLOAD_VERIFY_FAIL id=$id file=$fileName folderId=$folderId")
-                        showConnectionError(rh.gs(R.string.google_drive_upload_verify_failed))
-                        null
-                    }
-                } else {
-                    aapsLogger.error(LTag.CORE, "$LOG_PREFIX UPLOAD_FAIL code=${response.code} message='${response.message}' folderId=$folderId body=${responseBodyStr.take(300)}")
-                    showConnectionError(rh.gs(R.string.google_drive_upload_failed, response.code.toString()))
-                    null
-                }
+                uploadToFolder(fileName, CloudUploadSource.of(fileContent), mimeType, folderId, accessToken, "UPLOAD")
             } catch (e: Exception) {
                 aapsLogger.error(LTag.CORE, "$LOG_PREFIX EXCEPTION uploadFile file=$fileName", e)
                 showConnectionError(rh.gs(R.string.google_drive_upload_error, e.message ?: ""))
@@ -441,6 +386,51 @@ class GoogleDriveManager @Inject constructor(
         }
     }
 
+    /**
+     * Resumable upload of content to folder, verified after upload
+     * @return file id or null if failed (error is shown)
+     */
+    private suspend fun uploadToFolder(fileName: String, content: CloudUploadSource, mimeType: String, folderId: String, accessToken: String, label: String): String? {
+        val metadataJson = JSONObject().apply {
+            put("name", fileName)
+            put("parents", JSONArray().put(folderId))
+        }.toString()
+        val effectiveMime = guessMimeType(fileName, mimeType)
+        if (effectiveMime != mimeType) aapsLogger.info(LTag.CORE, "$LOG_PREFIX MIME_ADJUST original=$mimeType effective=$effectiveMime file=$fileName")
+
+        // token refreshed during upload is used for verification too
+        var token = accessToken
+        val responseBodyStr = try {
+            resumableUpload.upload(accessToken, metadataJson, effectiveMime, content) {
+                getValidAccessToken(forceRefresh = true)?.also { token = it }
+            }
+        } catch (e: DriveResumableUpload.UploadException) {
+            aapsLogger.error(LTag.CORE, "$LOG_PREFIX ${label}_FAIL code=${e.code} folderId=$folderId file=$fileName body=${e.body}")
+            handleApiError(e.code, e.body, rh.gs(R.string.google_drive_upload_failed, e.code.toString()))
+            return null
+        }
+        aapsLogger.info(LTag.CORE, "$LOG_PREFIX ${label}_RESPONSE folderId=$folderId file=$fileName size=${content.length} body=${responseBodyStr.take(500)}")
+
+        val id = JSONObject(responseBodyStr.ifEmpty { "{}" }).optString("id").takeIf { it.isNotEmpty() }
+        if (id == null) {
+            aapsLogger.error(LTag.CORE, "$LOG_PREFIX ${label}_NO_ID folderId=$folderId file=$fileName rawBody='${responseBodyStr.take(200)}'")
+            showConnectionError(rh.gs(R.string.google_drive_upload_no_id))
+            return null
+        }
+        // Post-upload verification
+        return if (verifyFileExists(id, token)) {
+            clearConnectionError()
+            aapsLogger.info(LTag.CORE, "$LOG_PREFIX ${label}_OK id=$id file=$fileName folderId=$folderId")
+            logFilePathChain(id, token, "${label}_OK_CHAIN")
+            debugListFolderSnapshot(folderId, token, label = "AFTER_$label")
+            id
+        } else {
+            aapsLogger.error(LTag.CORE, "$LOG_PREFIX ${label}_VERIFY_FAIL id=$id file=$fileName folderId=$folderId")
+            showConnectionError(rh.gs(R.string.google_drive_upload_verify_failed))
+            null
+        }
+    }
+
     /**
      * Infer default cloud path based on filename (used when no folder is selected).
      */
@@ -1114,10 +1104,16 @@ class GoogleDriveManager @Inject constructor(
     /**
      * Upload file to specified cloud path (automatically creates folders).
      */
-    suspend fun uploadFileToPath(fileName: String, fileContent: ByteArray, mimeType: String, path: String): String? {
+    suspend fun uploadFileToPath(fileName: String, fileContent: ByteArray, mimeType: String, path: String): String? =
+        uploadFileToPath(fileName, CloudUploadSource.of(fileContent), mimeType, path)
+
+    /**
+     * Upload file to specified cloud path (automatically creates folders), content is streamed.
+     */
+    suspend fun uploadFileToPath(fileName: String, content: CloudUploadSource, mimeType: String, path: String): String? {
         return withContext(Dispatchers.IO) {
             try {
-                aapsLogger.info(LTag.CORE, "$LOG_PREFIX UPLOAD_PATH_REQUESTED path='$path' file=$fileName size=${fileContent.size}")
+                aapsLogger.info(LTag.CORE, "$LOG_PREFIX UPLOAD_PATH_REQUESTED path='$path' file=$fileName size=${content.length}")
                 val folderId = resolveFolderIdForUpload(path) ?: run {
                     aapsLogger.error(LTag.CORE, "$LOG_PREFIX Cannot resolve target path '$path'")
                     showConnectionError("Cannot create destination path")
@@ -1129,59 +1125,8 @@ class GoogleDriveManager @Inject constructor(
                 } catch (e: Exception) {
                     aapsLogger.error(LTag.CORE, "$LOG_PREFIX DEBUG_USER_FAILED (non-critical)", e)
                 }
-                aapsLogger.info(LTag.CORE, "$LOG_PREFIX UPLOAD_PATH_START pathHint='$path' folderId=$folderId file=$fileName size=${fileContent.size} mimeHint=$mimeType")
-
-                val metadataJson = JSONObject().apply {
-                    put("name", fileName)
-                    put("parents", JSONArray().put(folderId))
-                }.toString()
-                val metadataBody = metadataJson.toRequestBody("application/json; charset=UTF-8".toMediaType())
-                val effectiveMime = guessMimeType(fileName, mimeType)
-                if (effectiveMime != mimeType) aapsLogger.info(LTag.CORE, "$LOG_PREFIX MIME_ADJUST original=$mimeType effective=$effectiveMime file=$fileName")
-                val mediaBody = fileContent.toRequestBody(effectiveMime.toMediaType())
-
-                val multipart = MultipartBody.Builder()
-                    .setType("multipart/related".toMediaType())
-                    // Same as above, remove custom Content-Type header, let OkHttp automatically add based on body.
-                    .addPart(metadataBody)
-                    .addPart(mediaBody)
-                    .build()
-
-                val request = Request.Builder()
-                    .url("$UPLOAD_URL/files?uploadType=multipart&fields=id&supportsAllDrives=true")
-                    .header("Authorization", "Bearer $accessToken")
-                    .post(multipart)
-                    .build()
-
-                val response = client.newCall(request).execute()
-                val responseBodyStr = response.body.string()
-                aapsLogger.info(LTag.CORE, "$LOG_PREFIX UPLOAD_PATH_RESPONSE code=${response.code} message='${response.message}' hasBody=${responseBodyStr.isNotEmpty()} path='$path' file=$fileName")
-                if (responseBodyStr.isNotEmpty()) aapsLogger.info(LTag.CORE, "$LOG_PREFIX UPLOAD_PATH_RESPONSE_BODY ${responseBodyStr.take(500)}")
-                if (response.isSuccessful) {
-                    val jsonResponse = JSONObject(responseBodyStr.ifEmpty { "{}" })
-                    val id = jsonResponse.optString("id").takeIf { it.isNotEmpty() }
-                    if (id == null) {
-                        aapsLogger.error(LTag.CORE, "$LOG_PREFIX UPLOAD_PATH_NO_ID path='$path' file=$fileName rawBody='${responseBodyStr.take(200)}'")
-                        showConnectionError("Upload succeeded but no id returned")
-                        return@withContext null
-                    }
-                    val verified = verifyFileExists(id, accessToken)
-                    return@withContext if (verified) {
-                        clearConnectionError()
-                        aapsLogger.info(LTag.CORE, "$LOG_PREFIX UPLOAD_PATH_OK id=$id path='$path' file=$fileName")
-                        logFilePathChain(id, accessToken, "UPLOAD_PATH_OK_CHAIN")
-                        debugListFolderSnapshot(folderId, accessToken, label = "AFTER_UPLOAD_PATH")
-                        id
-                    } else {
-                        aapsLogger.error(LTag.CORE, "$LOG_PREFIX UPLOAD_PATH_VERIFY_FAIL id=$id path='$path' file=$fileName")
-                        showConnectionError("Upload verification failed")
-                        null
-                    }
-                } else {
-                    aapsLogger.error(LTag.CORE, "$LOG_PREFIX UPLOAD_PATH_FAIL path='$path' code=${response.code} message='${response.message}' body=${responseBodyStr.take(300)}")
-                    showConnectionError("Upload failed: ${response.code}")
-                    null
-                }
+                aapsLogger.info(LTag.CORE, "$LOG_PREFIX UPLOAD_PATH_START pathHint='$path' folderId=$folderId file=$fileName size=${content.length} mimeHint=$mimeType")
+                uploadToFolder(fileName, content, mimeType, folderId, accessToken, "UPLOAD_PATH")
             } catch (e: Exception) {
                 aapsLogger.error(LTag.CORE, "$LOG_PREFIX EXCEPTION uploadFileToPath path='$path' file=$fileName", e)
                 showConnectionError("Error uploading file: ${e.message}")
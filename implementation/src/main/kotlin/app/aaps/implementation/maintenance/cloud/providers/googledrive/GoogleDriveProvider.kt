@@ -6,6 +6,7 @@ import app.aaps.core.interfaces.maintenance.CloudFile
 import app.aaps.core.interfaces.maintenance.CloudFileListResult
 import app.aaps.core.interfaces.maintenance.CloudFolder
 import app.aaps.core.interfaces.maintenance.CloudStorageProvider
+import app.aaps.core.interfaces.maintenance.CloudUploadSource
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.ui.compose.icons.IcGoogleDrive
 import androidx.compose.ui.graphics.vector.ImageVector
@@ -123,6 +124,16 @@ class GoogleDriveProvider @Inject constructor(
         return googleDriveManager.uploadFileToPath(fileName, content, mimeType, path)
     }
 
+    override suspend fun uploadFileToPath(
+        fileName: String,
+        content: CloudUploadSource,
+        mimeType: String,
+        path: String
+    ): String? {
+        gLog("uploadFileToPath: $fileName (${content.length} bytes) to $path")
+        return googleDriveManager.uploadFileToPath(fileName, content, mimeType, path)
+    }
+
     override suspend fun uploadFile(
         fileName: String,
         content: ByteArray,
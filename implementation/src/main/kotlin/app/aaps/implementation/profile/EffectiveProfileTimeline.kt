@@ -0,0 +1,107 @@
+package app.aaps.implementation.profile
+
+import app.aaps.core.data.model.EPS
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.objects.profile.ProfileSealed
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * Interval timeline of valid EffectiveProfileSwitches
+ *
+ * EPS is active from its timestamp until timestamp of next EPS.
+ * All records are loaded once and kept current by feeding changed records from
+ * [PersistenceLayer.observeChanges] to [update].
+ * Every EPS is sealed once and the same [ProfileSealed.EPS] instance is returned for whole interval.
+ * Sealed profile holds active APS, so it is sealed again after APS plugin is switched.
+ *
+ * Lookups are lock free binary searches over immutable snapshot.
+ */
+class EffectiveProfileTimeline(
+    private val persistenceLayer: PersistenceLayer,
+    private val activePlugin: ActivePlugin
+) {
+
+    private class Snapshot(val timestamps: LongArray, val switches: List<EPS>) {
+
+        // sealed lazily, benign race: instance may be created twice but never differs
+        val sealed = arrayOfNulls<ProfileSealed.EPS>(switches.size)
+    }
+
+    private val lock = Any()
+    private val loadMutex = Mutex()
+
+    @Volatile private var snapshot: Snapshot? = null
+
+    // Incremented on every change to detect updates racing with load
+    private var generation = 0L
+
+    /**
+     * @return sealed EPS active at [time] or null if there is no EPS before [time]
+     */
+    suspend fun getProfileAt(time: Long): ProfileSealed.EPS? {
+        val current = snapshot ?: load()
+        val index = lastIndexAtOrBefore(current.timestamps, time)
+        if (index < 0) return null
+        val aps = activePlugin.activeAPS
+        current.sealed[index]?.let { if (it.aps === aps) return it }
+        return ProfileSealed.EPS(current.switches[index], activePlugin).also { current.sealed[index] = it }
+    }
+
+    /**
+     * Apply changed records. Unchanged intervals keep their sealed profile
+     */
+    fun update(changes: List<EPS>) {
+        synchronized(lock) {
+            generation++
+            val current = snapshot ?: return
+            val changedIds = changes.filter { it.referenceId == null }.map { it.id }.toHashSet()
+            if (changedIds.isEmpty()) return
+            val sealedById = HashMap<Long, ProfileSealed.EPS>()
+            current.switches.forEachIndexed { index, eps -> current.sealed[index]?.let { if (eps.id !in changedIds) sealedById[eps.id] = it } }
+            val switches = current.switches.filter { it.id !in changedIds } + changes.filter { it.referenceId == null && it.isValid }
+            snapshot = build(switches).also { snapshot -> snapshot.switches.forEachIndexed { index, eps -> snapshot.sealed[index] = sealedById[eps.id] } }
+        }
+    }
+
+    /**
+     * Drop all data. Next lookup loads it again from database
+     */
+    fun reset() {
+        synchronized(lock) {
+            generation++
+            snapshot = null
+        }
+    }
+
+    private suspend fun load(): Snapshot {
+        loadMutex.withLock {
+            snapshot?.let { return it }
+            while (true) {
+                val startGeneration = synchronized(lock) { generation }
+                val switches = persistenceLayer.getEffectiveProfileSwitches()
+                synchronized(lock) {
+                    // if something has changed during load, data may be stale. Repeat
+                    if (startGeneration == generation) return build(switches).also { snapshot = it }
+                }
+            }
+        }
+    }
+
+    private fun build(switches: List<EPS>): Snapshot {
+        val sorted = switches.sortedBy { it.timestamp }
+        return Snapshot(LongArray(sorted.size) { sorted[it].timestamp }, sorted)
+    }
+
+    // last index with timestamp <= time, -1 if none
+    private fun lastIndexAtOrBefore(timestamps: LongArray, time: Long): Int {
+        var low = 0
+        var high = timestamps.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (timestamps[mid] <= time) low = mid + 1 else high = mid
+        }
+        return low - 1
+    }
+}
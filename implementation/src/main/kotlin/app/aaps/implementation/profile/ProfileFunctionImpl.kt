@@ -1,6 +1,5 @@
 package app.aaps.implementation.profile
 
-import androidx.annotation.VisibleForTesting
 import app.aaps.core.data.model.EPS
 import app.aaps.core.data.model.GlucoseUnit
 import app.aaps.core.data.model.ICfg
@@ -28,7 +27,6 @@ import app.aaps.core.objects.profile.ProfileSealed
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.onEach
-import java.util.concurrent.ConcurrentHashMap
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -47,18 +45,19 @@ class ProfileFunctionImpl @Inject constructor(
     @ApplicationScope private val appScope: CoroutineScope
 ) : ProfileFunction {
 
-    @VisibleForTesting
-    val cache = ConcurrentHashMap<Long, EffectiveProfile>()
+    private val timeline = EffectiveProfileTimeline(persistenceLayer, activePlugin)
 
     init {
         persistenceLayer.observeChanges(EPS::class.java)
-            .onEach { epsList ->
-                epsList.minOfOrNull { it.timestamp }?.let { timestamp ->
-                    synchronized(cache) { cache.keys.removeIf { key -> key > timestamp } }
-                }
-            }.launchIn(appScope)
+            .onEach { epsList -> timeline.update(epsList) }
+            .launchIn(appScope)
     }
 
+    /**
+     * Drop cached profiles. Used by tests modifying database directly
+     */
+    fun clearCache() = timeline.reset()
+
     override suspend fun getProfileName(): String =
         getProfileName(System.currentTimeMillis(), customized = true, showRemainingTime = false)
 
@@ -87,25 +86,7 @@ class ProfileFunctionImpl @Inject constructor(
         getProfile(dateUtil.now())
 
     override suspend fun getProfile(time: Long): EffectiveProfile? {
-        val rounded = time - time % 1000
-        // Clear cache after longer use
-        synchronized(cache) {
-            if (cache.keys.size > 30000) {
-                cache.clear()
-                aapsLogger.debug("Profile cache cleared")
-            }
-            if (cache.containsKey(rounded)) {
-                return cache[rounded]
-            }
-        }
-        val ps = persistenceLayer.getEffectiveProfileSwitchActiveAt(time)
-        if (ps != null) {
-            val sealed = ProfileSealed.EPS(ps, activePlugin)
-            synchronized(cache) {
-                cache.put(rounded, sealed)
-            }
-            return sealed
-        }
+        timeline.getProfileAt(time)?.let { return it }
         /*
         // Commented out because it's not possible to simply take Pure profile
         // because we don't know Insulin configuration for it
@@ -117,19 +98,12 @@ class ProfileFunctionImpl @Inject constructor(
         if (config.AAPSCLIENT) {
             processedDeviceStatusData.pumpData?.activeProfileName?.let { activeProfile ->
                 profileRepository.profile.value?.getSpecificProfile(activeProfile)?.let { ap ->
-                    val sealed = ProfileSealed.Pure(ap, activePlugin)
-                    synchronized(cache) {
-                        cache.put(rounded, sealed)
-                    }
-                    return sealed
+                    return ProfileSealed.Pure(ap, activePlugin)
                 }
 
             }
         }
         */
-        synchronized(cache) {
-            cache.remove(rounded)
-        }
         return null
     }
 
@@ -0,0 +1,60 @@
+package app.aaps.implementation.profiling
+
+import java.util.concurrent.atomic.AtomicLongArray
+import kotlin.math.ceil
+
+/**
+ * Lock-free histogram of latencies in microseconds with fixed buckets
+ *
+ * Every power of two is split to 4 buckets, relative error is below 25 %.
+ * Largest bucket ends at 2^41 µs (~25 days)
+ */
+internal class LatencyHistogram {
+
+    private val buckets = AtomicLongArray(BUCKETS)
+
+    fun add(micros: Long) {
+        buckets.incrementAndGet(index(micros))
+    }
+
+    fun snapshot(): LongArray = LongArray(BUCKETS) { buckets.get(it) }
+
+    fun reset() {
+        for (i in 0 until BUCKETS) buckets.set(i, 0)
+    }
+
+    companion object {
+
+        const val BUCKETS = 160
+
+        fun index(micros: Long): Int {
+            if (micros < 4) return micros.coerceAtLeast(0).toInt()
+            val exponent = 63 - java.lang.Long.numberOfLeadingZeros(micros)
+            val sub = (micros ushr (exponent - 2)).toInt() and 3
+            return (4 * (exponent - 1) + sub).coerceAtMost(BUCKETS - 1)
+        }
+
+        /** Exclusive upper bound of bucket in microseconds */
+        fun upperBound(index: Int): Long {
+            if (index < 4) return index + 1L
+            val exponent = index / 4 + 1
+            return (5L + index % 4) shl (exponent - 2)
+        }
+
+        /**
+         * @param percentile 0.0 - 1.0
+         * @return upper bound of bucket containing percentile or 0 if empty
+         */
+        fun percentile(counts: LongArray, percentile: Double): Long {
+            val total = counts.sum()
+            if (total == 0L) return 0
+            val rank = ceil(total * percentile).toLong().coerceAtLeast(1)
+            var cumulative = 0L
+            for (i in counts.indices) {
+                cumulative += counts[i]
+                if (cumulative >= rank) return upperBound(i)
+            }
+            return upperBound(counts.size - 1)
+        }
+    }
+}
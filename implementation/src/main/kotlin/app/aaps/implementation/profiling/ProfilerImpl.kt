@@ -3,14 +3,86 @@ package app.aaps.implementation.profiling
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.profiling.Profiler
-import dagger.Reusable
+import app.aaps.core.interfaces.profiling.TraceStage
+import app.aaps.core.interfaces.profiling.TraceStageStats
+import app.aaps.core.keys.BooleanNonKey
+import app.aaps.core.keys.interfaces.Preferences
+import java.io.OutputStream
 import javax.inject.Inject
+import javax.inject.Singleton
 
-@Reusable
-class ProfilerImpl @Inject constructor(val aapsLogger: AAPSLogger) : Profiler {
+@Singleton
+class ProfilerImpl @Inject constructor(
+    val aapsLogger: AAPSLogger,
+    private val preferences: Preferences
+) : Profiler {
+
+    private val histograms = Array(TraceStage.entries.size) { LatencyHistogram() }
+    private val spans = SpanRing(SPAN_CAPACITY)
+
+    // spans are measured by nanoTime and stored in wall clock time
+    private val originNanos = System.nanoTime()
+    private val originMicros = System.currentTimeMillis() * 1000
+
+    @Volatile private var enabled = preferences.get(BooleanNonKey.LoopTracingEnabled)
+
+    override var tracingEnabled: Boolean
+        get() = enabled
+        set(value) {
+            enabled = value
+            preferences.put(BooleanNonKey.LoopTracingEnabled, value)
+        }
 
     override fun log(lTag: LTag, function: String, start: Long) {
         val milliseconds = System.currentTimeMillis() - start
         aapsLogger.debug(lTag, ">>> $function <<< executed in $milliseconds milliseconds")
     }
-}
\ No newline at end of file
+
+    override fun begin(): Long = if (enabled) System.nanoTime() else 0L
+
+    override fun end(stage: TraceStage, start: Long) {
+        if (start == 0L) return
+        add(stage, originMicros + (start - originNanos) / 1000, (System.nanoTime() - start) / 1000)
+    }
+
+    override fun record(stage: TraceStage, from: Long) {
+        if (!enabled) return
+        add(stage, from * 1000, (System.currentTimeMillis() - from) * 1000)
+    }
+
+    private fun add(stage: TraceStage, start: Long, duration: Long) {
+        histograms[stage.ordinal].add(duration)
+        spans.add(stage.ordinal, start, duration)
+    }
+
+    override fun stageStats(): List<TraceStageStats> =
+        TraceStage.entries.map { stage ->
+            val counts = histograms[stage.ordinal].snapshot()
+            TraceStageStats(
+                stage = stage,
+                count = counts.sum(),
+                p50 = LatencyHistogram.percentile(counts, 0.50),
+                p95 = LatencyHistogram.percentile(counts, 0.95),
+                p99 = LatencyHistogram.percentile(counts, 0.99)
+            )
+        }
+
+    override fun resetTraces() {
+        histograms.forEach { it.reset() }
+        spans.clear()
+    }
+
+    override fun exportTraces(output: OutputStream) {
+        TraceFile(
+            created = System.currentTimeMillis(),
+            stages = TraceStage.entries.map { it.name },
+            histograms = histograms.map { it.snapshot() },
+            spans = spans.snapshot()
+        ).write(output)
+    }
+
+    companion object {
+
+        private const val SPAN_CAPACITY = 4096
+    }
+}
@@ -0,0 +1,48 @@
+package app.aaps.implementation.profiling
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock-free ring of last spans. The oldest spans are overwritten.
+ *
+ * Slot is marked empty while written, readers skip slots changed during reading
+ */
+internal class SpanRing(private val capacity: Int) {
+
+    private val next = AtomicLong()
+    private val starts = AtomicLongArray(capacity)
+
+    // stage ordinal + 1 in the highest byte, duration in microseconds in the rest, 0 if empty
+    private val packed = AtomicLongArray(capacity)
+
+    fun add(stage: Int, start: Long, duration: Long) {
+        val slot = (next.getAndIncrement() % capacity).toInt()
+        packed.set(slot, 0)
+        starts.set(slot, start)
+        packed.set(slot, ((stage + 1).toLong() shl 56) or duration.coerceIn(0, DURATION_MASK))
+    }
+
+    /** @return spans ordered by start */
+    fun snapshot(): List<TraceFile.Span> {
+        val spans = ArrayList<TraceFile.Span>(capacity)
+        for (slot in 0 until capacity) {
+            val value = packed.get(slot)
+            if (value == 0L) continue
+            val start = starts.get(slot)
+            if (packed.get(slot) != value) continue
+            spans.add(TraceFile.Span((value ushr 56).toInt() - 1, start, value and DURATION_MASK))
+        }
+        spans.sortWith(TraceFile.Span.ORDER)
+        return spans
+    }
+
+    fun clear() {
+        for (slot in 0 until capacity) packed.set(slot, 0)
+    }
+
+    companion object {
+
+        private const val DURATION_MASK = (1L shl 56) - 1
+    }
+}
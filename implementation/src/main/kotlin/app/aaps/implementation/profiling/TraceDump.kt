@@ -0,0 +1,48 @@
+package app.aaps.implementation.profiling
+
+import java.io.File
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+
+/**
+ * Command line reader of exported loop traces. Runs on plain JVM
+ *
+ * Usage: TraceDump <file> [number of last spans]
+ */
+object TraceDump {
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        if (args.isEmpty()) {
+            System.err.println("Usage: TraceDump <file> [number of last spans]")
+            return
+        }
+        val trace = File(args[0]).inputStream().use { TraceFile.read(it) }
+        print(format(trace, args.getOrNull(1)?.toInt() ?: 200))
+    }
+
+    fun format(trace: TraceFile, lastSpans: Int): String = buildString {
+        val time = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US)
+        appendLine("Exported ${time.format(Date(trace.created))}")
+        appendLine(String.format(Locale.US, "%-16s %8s %10s %10s %10s", "stage", "count", "p50 ms", "p95 ms", "p99 ms"))
+        trace.stages.forEachIndexed { stage, name ->
+            val count = trace.count(stage)
+            if (count == 0L) return@forEachIndexed
+            appendLine(
+                String.format(
+                    Locale.US, "%-16s %8d %10.1f %10.1f %10.1f", name, count,
+                    trace.percentile(stage, 0.50) / 1000.0, trace.percentile(stage, 0.95) / 1000.0, trace.percentile(stage, 0.99) / 1000.0
+                )
+            )
+        }
+        appendLine()
+        val depths = trace.depths()
+        val first = (trace.spans.size - lastSpans).coerceAtLeast(0)
+        for (i in first until trace.spans.size) {
+            val span = trace.spans[i]
+            val name = trace.stages.getOrElse(span.stage) { "#${span.stage}" }
+            appendLine(String.format(Locale.US, "%s %s%s %.1f ms", time.format(Date(span.start / 1000)), "  ".repeat(depths[i]), name, span.duration / 1000.0))
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package app.aaps.implementation.profiling
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * Exported loop traces
+ *
+ * Binary format (big endian):
+ * ```
+ * int magic, byte version, long created (ms)
+ * short stages, stage names (modified UTF-8)
+ * per stage: short non empty buckets, (short bucket, varint count)...
+ * varint spans, long base start (µs since epoch, start of the first span or 0)
+ * per span: byte stage, varint start delta to previous span or base start (µs), varint duration (µs)
+ * ```
+ * Varints are unsigned LEB128 (7 bits per byte, low bits first, high bit set when more bytes follow).
+ * Spans are ordered by start, nesting is given by time
+ *
+ * @param histograms bucket counts of [LatencyHistogram] per stage
+ */
+class TraceFile(
+    val created: Long,
+    val stages: List<String>,
+    val histograms: List<LongArray>,
+    val spans: List<Span>
+) {
+
+    /**
+     * @param start microseconds since epoch
+     * @param duration microseconds
+     */
+    data class Span(val stage: Int, val start: Long, val duration: Long) {
+
+        val end get() = start + duration
+
+        companion object {
+
+            /** By start, enclosing span before nested ones */
+            val ORDER: Comparator<Span> = compareBy<Span> { it.start }.thenByDescending { it.duration }
+        }
+    }
+
+    fun percentile(stage: Int, percentile: Double): Long = LatencyHistogram.percentile(histograms[stage], percentile)
+
+    fun count(stage: Int): Long = histograms[stage].sum()
+
+    /**
+     * Nesting depth of [spans]
+     */
+    fun depths(): IntArray {
+        val depths = IntArray(spans.size)
+        val open = ArrayDeque<Long>()
+        spans.forEachIndexed { index, span ->
+            while (open.isNotEmpty() && open.last() <= span.start) open.removeLast()
+            depths[index] = open.size
+            open.addLast(span.end)
+        }
+        return depths
+    }
+
+    fun write(output: OutputStream) {
+        val data = DataOutputStream(output.buffered())
+        data.writeInt(MAGIC)
+        data.writeByte(VERSION)
+        data.writeLong(created)
+        data.writeShort(stages.size)
+        stages.forEach { data.writeUTF(it) }
+        histograms.forEach { counts ->
+            data.writeShort(counts.count { it != 0L })
+            counts.forEachIndexed { bucket, count ->
+                if (count != 0L) {
+                    data.writeShort(bucket)
+                    data.writeVarLong(count)
+                }
+            }
+        }
+        data.writeVarLong(spans.size.toLong())
+        var previous = spans.firstOrNull()?.start ?: 0L
+        data.writeLong(previous)
+        spans.forEach { span ->
+            data.writeByte(span.stage)
+            data.writeVarLong(span.start - previous)
+            data.writeVarLong(span.duration)
+            previous = span.start
+        }
+        data.flush()
+    }
+
+    companion object {
+
+        private const val MAGIC = 0x41505354 // APST
+        private const val VERSION = 1
+
+        fun read(input: InputStream): TraceFile {
+            val data = DataInputStream(input.buffered())
+            if (data.readInt() != MAGIC) throw IOException("Not a trace file")
+            val version = data.readByte().toInt()
+            if (version != VERSION) throw IOException("Unsupported version $version")
+            val created = data.readLong()
+            val stages = List(data.readUnsignedShort()) { data.readUTF() }
+            val histograms = List(stages.size) {
+                LongArray(LatencyHistogram.BUCKETS).also { counts ->
+                    repeat(data.readUnsignedShort()) { counts[data.readUnsignedShort()] = data.readVarLong() }
+                }
+            }
+            val count = data.readVarLong().toInt()
+            var start = data.readLong()
+            val spans = List(count) {
+                val stage = data.readUnsignedByte()
+                start += data.readVarLong()
+                Span(stage, start, data.readVarLong())
+            }
+            return TraceFile(created, stages, histograms, spans)
+        }
+
+        private fun DataOutputStream.writeVarLong(value: Long) {
+            var rest = value
+            while (rest and 0x7FL.inv() != 0L) {
+                writeByte(((rest and 0x7F) or 0x80).toInt())
+                rest = rest ushr 7
+            }
+            writeByte(rest.toInt())
+        }
+
+        private fun DataInputStream.readVarLong(): Long {
+            var result = 0L
+            var shift = 0
+            while (true) {
+                val byte = readUnsignedByte()
+                result = result or ((byte and 0x7F).toLong() shl shift)
+                if (byte and 0x80 == 0) return result
+                shift += 7
+            }
+        }
+    }
+}
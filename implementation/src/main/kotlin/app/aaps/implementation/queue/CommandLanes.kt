@@ -0,0 +1,83 @@
+package app.aaps.implementation.queue
+
+import app.aaps.core.interfaces.queue.Command
+import app.aaps.core.interfaces.queue.Command.CommandType
+
+/**
+ * Queued commands split to priority lanes
+ *
+ * Commands are picked up from the most important non-empty lane, in order of adding within the lane.
+ * Not thread safe, access is synchronized by [CommandQueueImplementation]
+ */
+internal class CommandLanes {
+
+    enum class Lane {
+        DELIVERY,   // bolus, stop/start, alarms
+        BASAL,      // temporary basal, extended bolus
+        PROFILE,    // profile and pump settings
+        STATUS      // status and history reading
+    }
+
+    private val lanes = Array(Lane.entries.size) { ArrayDeque<Command>() }
+
+    val size: Int get() = lanes.sumOf { it.size }
+
+    fun isEmpty(): Boolean = lanes.all { it.isEmpty() }
+
+    fun add(command: Command) {
+        lanes[laneOf(command.commandType).ordinal].addLast(command)
+    }
+
+    /** @return the next command to execute or null if empty */
+    fun poll(): Command? = lanes.firstOrNull { it.isNotEmpty() }?.removeFirst()
+
+    /** Remove commands matching [predicate] */
+    fun removeIf(predicate: (Command) -> Boolean): List<Command> {
+        val removed = ArrayList<Command>()
+        for (lane in lanes) {
+            val iterator = lane.iterator()
+            while (iterator.hasNext()) {
+                val command = iterator.next()
+                if (predicate(command)) {
+                    iterator.remove()
+                    removed.add(command)
+                }
+            }
+        }
+        return removed
+    }
+
+    fun any(predicate: (Command) -> Boolean): Boolean = lanes.any { lane -> lane.any(predicate) }
+
+    /** @return all commands in order of execution */
+    fun toList(): List<Command> = lanes.flatMap { it }
+
+    fun clear(): List<Command> = toList().also { lanes.forEach { it.clear() } }
+
+    companion object {
+
+        fun laneOf(type: CommandType): Lane = when (type) {
+            CommandType.BOLUS,
+            CommandType.SMB_BOLUS,
+            CommandType.CARBS_ONLY_TREATMENT,
+            CommandType.START_PUMP,
+            CommandType.STOP_PUMP,
+            CommandType.CLEAR_ALARMS,
+            CommandType.DEACTIVATE                 -> Lane.DELIVERY
+
+            CommandType.TEMPBASAL,
+            CommandType.EXTENDEDBOLUS              -> Lane.BASAL
+
+            CommandType.BASAL_PROFILE,
+            CommandType.SET_USER_SETTINGS,
+            CommandType.UPDATE_TIME,
+            CommandType.INSIGHT_SET_TBR_OVER_ALARM,
+            CommandType.CUSTOM_COMMAND             -> Lane.PROFILE
+
+            CommandType.READSTATUS,
+            CommandType.LOAD_HISTORY,
+            CommandType.LOAD_EVENTS,
+            CommandType.LOAD_TDD                   -> Lane.STATUS
+        }
+    }
+}
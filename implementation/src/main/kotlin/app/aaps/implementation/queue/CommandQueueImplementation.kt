@@ -2,7 +2,6 @@ package app.aaps.implementation.queue
 
 import android.os.Handler
 import android.os.HandlerThread
-import android.os.SystemClock
 import android.text.Spanned
 import androidx.work.ExistingWorkPolicy
 import androidx.work.OneTimeWorkRequest
@@ -12,6 +11,7 @@ import app.aaps.annotations.OpenForTesting
 import app.aaps.core.data.model.BS
 import app.aaps.core.data.model.EPS
 import app.aaps.core.data.model.PS
+import app.aaps.core.data.time.T
 import app.aaps.core.data.ue.Action
 import app.aaps.core.data.ue.Sources
 import app.aaps.core.interfaces.alerts.LocalAlertUtils
@@ -40,6 +40,7 @@ import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventMobileToWear
 import app.aaps.core.interfaces.rx.events.EventProfileChangeRequested
+import app.aaps.core.interfaces.rx.events.EventPumpStatusChanged
 import app.aaps.core.interfaces.rx.weardata.EventData
 import app.aaps.core.interfaces.smsCommunicator.SmsCommunicator
 import app.aaps.core.interfaces.ui.UiInteraction
@@ -75,10 +76,14 @@ import app.aaps.implementation.queue.commands.CommandTempBasalPercent
 import app.aaps.implementation.queue.commands.CommandUpdateTime
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.filter
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.merge
 import kotlinx.coroutines.flow.onEach
-import java.util.LinkedList
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeoutOrNull
 import javax.inject.Inject
 import javax.inject.Provider
 import javax.inject.Singleton
@@ -112,9 +117,18 @@ class CommandQueueImplementation @Inject constructor(
 
     internal var handler = Handler(HandlerThread(this::class.simpleName + "Handler").also { it.start() }.looper)
 
-    private val queue = LinkedList<Command>()
+    private val queue = CommandLanes()
     override var waitingForDisconnect = false
 
+    // wakes up QueueWorker, pending signals are merged to one
+    private val changes = Channel<Unit>(Channel.CONFLATED)
+
+    // result of READSTATUS waiting in queue, shared by coalesced requests
+    private var queuedReadStatus: CompletableDeferred<PumpEnactResult>? = null
+
+    // work cancelled by watchdog may still be running, new one must wait for finish
+    @Volatile private var workCancelled = false
+
     @Volatile var performing: Command? = null
 
     init {
@@ -124,6 +138,10 @@ class CommandQueueImplementation @Inject constructor(
         )
             .onEach { onProfileChanged() }
             .launchIn(appScope)
+        rxBus.toFlow(EventPumpStatusChanged::class.java)
+            .filter { it.status == EventPumpStatusChanged.Status.CONNECTED || it.status == EventPumpStatusChanged.Status.DISCONNECTED }
+            .onEach { changes.trySend(Unit) }
+            .launchIn(appScope)
         /*
          * Clear old WorkManager jobs, because they survive restart
          */
@@ -207,14 +225,8 @@ class CommandQueueImplementation @Inject constructor(
 
     @Synchronized
     private fun removeAll(type: CommandType) {
-        synchronized(queue) {
-            for (i in queue.indices.reversed()) {
-                if (queue[i].commandType == type) {
-                    queue[i].cancel(app.aaps.core.ui.R.string.command_replaced)
-                    queue.removeAt(i)
-                }
-            }
-        }
+        synchronized(queue) { queue.removeIf { it.commandType == type } }
+            .forEach { it.cancel(app.aaps.core.ui.R.string.command_replaced) }
     }
 
     /**
@@ -233,12 +245,12 @@ class CommandQueueImplementation @Inject constructor(
             if (dateUtil.isOlderThan(it, minutes = 15)) {
                 workManager.cancelUniqueWork(jobName.name)
                 fabricPrivacy.logCustom("QueueWorkerStuck")
-                Thread.sleep(5000)
+                workCancelled = true
             }
         }
 
         synchronized(queue) {
-            if (queue.isNotEmpty() && queue[queue.size - 1].commandType == CommandType.READSTATUS) {
+            if (queue.any { it.commandType == CommandType.READSTATUS }) {
                 readScheduledDetected = dateUtil.now()
                 return true
             }
@@ -251,6 +263,7 @@ class CommandQueueImplementation @Inject constructor(
     private fun add(command: Command) {
         aapsLogger.debug(LTag.PUMPQUEUE, "Adding: " + command.javaClass.simpleName + " - " + command.log())
         synchronized(queue) { queue.add(command) }
+        changes.trySend(Unit)
     }
 
     @Synchronized
@@ -261,28 +274,21 @@ class CommandQueueImplementation @Inject constructor(
     @Synchronized
     override fun clear() {
         performing = null
-        synchronized(queue) {
-            for (i in queue.indices) {
-                queue[i].cancel(app.aaps.core.ui.R.string.connectiontimedout)
-            }
-            queue.clear()
-        }
+        synchronized(queue) { queue.clear() }
+            .forEach { it.cancel(app.aaps.core.ui.R.string.connectiontimedout) }
     }
 
     @Synchronized
     override fun completeAllAsNoOp(commentResId: Int) {
         performing = null
-        synchronized(queue) {
-            for (i in queue.indices) {
-                queue[i].callback?.result(
-                    pumpEnactResultProvider.get().success(true).enacted(false).comment(commentResId)
-                )?.run()
-            }
-            queue.clear()
+        synchronized(queue) { queue.clear() }.forEach {
+            it.callback?.result(
+                pumpEnactResultProvider.get().success(true).enacted(false).comment(commentResId)
+            )?.run()
         }
     }
 
-    override fun size(): Int = queue.size
+    override fun size(): Int = synchronized(queue) { queue.size }
 
     override fun performing(): Command? = performing
 
@@ -290,6 +296,10 @@ class CommandQueueImplementation @Inject constructor(
         performing = null
     }
 
+    override suspend fun awaitChange(timeoutMillis: Long) {
+        withTimeoutOrNull(timeoutMillis) { changes.receive() }
+    }
+
     private fun workIsRunning(): Boolean {
         for (workInfo in workManager.getWorkInfosForUniqueWork(jobName.name).get())
             if (workInfo.state == WorkInfo.State.BLOCKED || workInfo.state == WorkInfo.State.ENQUEUED || workInfo.state == WorkInfo.State.RUNNING)
@@ -299,9 +309,11 @@ class CommandQueueImplementation @Inject constructor(
 
     // After new command added to the queue
     // start thread again if not already running
+    // Runs on queue's own handler thread, blocking it serializes starts of new work
     @Synchronized fun notifyAboutNewCommand() = handler.post {
-        waitForFinishedThread()
-        if (!workIsRunning()) {
+        runBlocking { waitForFinishedThread() }
+        if (!workIsRunning() || workCancelled) {
+            workCancelled = false
             workManager.enqueueUniqueWork(
                 jobName.name, ExistingWorkPolicy.APPEND_OR_REPLACE,
                 OneTimeWorkRequest.Builder(QueueWorker::class.java)
@@ -313,10 +325,15 @@ class CommandQueueImplementation @Inject constructor(
         }
     }
 
-    fun waitForFinishedThread() {
-        while (workIsRunning() && waitingForDisconnect) {
-            aapsLogger.debug(LTag.PUMPQUEUE, "Waiting for previous work finish")
-            SystemClock.sleep(500)
+    /**
+     * Worker waiting for disconnect or cancelled by watchdog finishes soon, wait for state change instead of polling.
+     * Suspends up to 1 minute. [workIsRunning] blocks on WorkManager, do not call from main thread.
+     */
+    suspend fun waitForFinishedThread() {
+        if (!(waitingForDisconnect || workCancelled) || !workIsRunning()) return
+        aapsLogger.debug(LTag.PUMPQUEUE, "Waiting for previous work finish")
+        withTimeoutOrNull(T.mins(1).msecs()) {
+            workManager.getWorkInfosForUniqueWorkFlow(jobName.name).first { works -> works.all { it.state.isFinished } }
         }
     }
 
@@ -324,13 +341,7 @@ class CommandQueueImplementation @Inject constructor(
     override fun bolusInQueue(): Boolean {
         if (isRunning(CommandType.BOLUS)) return true
         if (isRunning(CommandType.SMB_BOLUS)) return true
-        synchronized(queue) {
-            for (i in queue.indices) {
-                if (queue[i].commandType == CommandType.BOLUS) return true
-                if (queue[i].commandType == CommandType.SMB_BOLUS) return true
-            }
-        }
-        return false
+        return synchronized(queue) { queue.any { it.commandType == CommandType.BOLUS || it.commandType == CommandType.SMB_BOLUS } }
     }
 
     override suspend fun bolus(detailedBolusInfo: DetailedBolusInfo): PumpEnactResult {
@@ -559,16 +570,19 @@ class CommandQueueImplementation @Inject constructor(
     }
 
     override suspend fun readStatus(reason: String): PumpEnactResult {
-        if (isReadStatusScheduled()) {
-            aapsLogger.debug(LTag.PUMPQUEUE, "READSTATUS $reason ignored as duplicated")
-            return executingNowError()
-        }
-        val deferred = CompletableDeferred<PumpEnactResult>()
-        add(CommandReadStatus(aapsLogger, rh, activePlugin, localAlertUtils.get(), pumpEnactResultProvider, reason, object : Callback() {
-            override fun run() {
-                deferred.complete(result)
+        // Queued READSTATUS reads the same status. Wait for its result instead of adding another one
+        val deferred = synchronized(this) {
+            queuedReadStatus?.takeIf { isReadStatusScheduled() }?.also {
+                aapsLogger.debug(LTag.PUMPQUEUE, "READSTATUS $reason coalesced with queued one")
+            } ?: CompletableDeferred<PumpEnactResult>().also { queued ->
+                queuedReadStatus = queued
+                add(CommandReadStatus(aapsLogger, rh, activePlugin, localAlertUtils.get(), pumpEnactResultProvider, reason, object : Callback() {
+                    override fun run() {
+                        queued.complete(result)
+                    }
+                }))
             }
-        }))
+        }
         notifyAboutNewCommand()
         return deferred.await()
     }
@@ -576,14 +590,7 @@ class CommandQueueImplementation @Inject constructor(
     @Synchronized
     override fun statusInQueue(): Boolean {
         if (isRunning(CommandType.READSTATUS)) return true
-        synchronized(queue) {
-            for (i in queue.indices) {
-                if (queue[i].commandType == CommandType.READSTATUS) {
-                    return true
-                }
-            }
-        }
-        return false
+        return synchronized(queue) { queue.any { it.commandType == CommandType.READSTATUS } }
     }
 
     override suspend fun loadHistory(type: Byte): PumpEnactResult {
@@ -695,15 +702,9 @@ class CommandQueueImplementation @Inject constructor(
         if (isCustomCommandRunning(customCommandType)) {
             return true
         }
-        synchronized(queue) {
-            for (i in queue.indices) {
-                val command = queue[i]
-                if (command is CommandCustomCommand && customCommandType.isInstance(command.customCommand)) {
-                    return true
-                }
-            }
+        return synchronized(queue) {
+            queue.any { command -> command is CommandCustomCommand && customCommandType.isInstance(command.customCommand) }
         }
-        return false
     }
 
     override fun isCustomCommandRunning(customCommandType: Class<out CustomCommand>): Boolean {
@@ -713,14 +714,7 @@ class CommandQueueImplementation @Inject constructor(
 
     @Synchronized
     private fun removeAllCustomCommands(targetType: Class<out CustomCommand>) {
-        synchronized(queue) {
-            for (i in queue.indices.reversed()) {
-                val command = queue[i]
-                if (command is CustomCommand && targetType.isInstance(command.commandType)) {
-                    queue.removeAt(i)
-                }
-            }
-        }
+        synchronized(queue) { queue.removeIf { command -> command is CustomCommand && targetType.isInstance(command.commandType) } }
     }
 
     override fun spannedStatus(): Spanned {
@@ -732,9 +726,9 @@ class CommandQueueImplementation @Inject constructor(
             line++
         }
         synchronized(queue) {
-            for (i in queue.indices) {
+            for (command in queue.toList()) {
                 if (line != 0) s += "<br>"
-                s += queue[i].status()
+                s += command.status()
                 line++
             }
         }
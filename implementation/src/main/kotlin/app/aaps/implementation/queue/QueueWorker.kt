@@ -12,6 +12,9 @@ import app.aaps.core.data.time.T
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.profiling.TraceStage
+import app.aaps.core.interfaces.profiling.trace
 import app.aaps.core.interfaces.pump.BolusProgressData
 import app.aaps.core.interfaces.pump.VirtualPump
 import app.aaps.core.interfaces.queue.CommandQueue
@@ -44,6 +47,7 @@ class QueueWorker internal constructor(
     @Inject lateinit var preferences: Preferences
     @Inject lateinit var config: Config
     @Inject lateinit var bolusProgressData: BolusProgressData
+    @Inject lateinit var profiler: Profiler
 
     private var connectLogged = false
 
@@ -122,26 +126,28 @@ class QueueWorker internal constructor(
                 if (pump.isHandshakeInProgress()) {
                     aapsLogger.debug(LTag.PUMPQUEUE, "handshaking $secondsElapsed")
                     rxBus.send(EventPumpStatusChanged(EventPumpStatusChanged.Status.HANDSHAKING, secondsElapsed.toInt()))
-                    delay(100)
+                    // handshake ends by CONNECTED or DISCONNECTED, short timeout keeps progress updates for drivers not reporting it
+                    queue.awaitChange(100)
                     continue
                 }
                 if (pump.isConnecting()) {
                     aapsLogger.debug(LTag.PUMPQUEUE, "connecting $secondsElapsed")
                     rxBus.send(EventPumpStatusChanged(EventPumpStatusChanged.Status.CONNECTING, secondsElapsed.toInt()))
-                    delay(1000)
+                    queue.awaitChange(1000)
                     continue
                 }
                 if (!pump.isConnected()) {
                     aapsLogger.debug(LTag.PUMPQUEUE, "connect")
                     rxBus.send(EventPumpStatusChanged(EventPumpStatusChanged.Status.CONNECTING, secondsElapsed.toInt()))
                     pump.connect("Connection needed")
-                    delay(1000)
+                    // Pumps connecting synchronously don't need to wait
+                    if (!pump.isConnected()) queue.awaitChange(1000)
                     continue
                 }
                 if (pump.isBusy()) {
                     aapsLogger.debug(LTag.PUMPQUEUE, "busy")
                     rxBus.send(EventPumpStatusChanged(EventPumpStatusChanged.Status.CONNECTING, secondsElapsed.toInt()))
-                    delay(1000)
+                    queue.awaitChange(1000)
                     continue
                 }
                 if (queue.performing() == null) {
@@ -156,10 +162,11 @@ class QueueWorker internal constructor(
                             aapsLogger.debug(LTag.PUMPQUEUE, "performing " + it.log())
                             rxBus.send(EventQueueChanged())
                             rxBus.send(EventPumpStatusChanged(it.status()))
-                            it.executeWithCallback()
+                            profiler.trace(TraceStage.PUMP) { it.executeWithCallback() }
                             queue.resetPerforming()
                             rxBus.send(EventQueueChanged())
                             lastCommandTime = System.currentTimeMillis()
+                            // pause between commands sent to the pump, not waiting for any state
                             delay(100)
                             true
                         } == true
@@ -181,13 +188,14 @@ class QueueWorker internal constructor(
                     } else {
                         rxBus.send(EventPumpStatusChanged(EventPumpStatusChanged.Status.WAITING_FOR_DISCONNECTION))
                         aapsLogger.debug(LTag.PUMPQUEUE, "waiting for disconnect")
-                        delay(1000)
+                        // New command is executed immediately on the open connection
+                        queue.awaitChange(1000)
                     }
                 } else {
                     // Catch-all: no branch above matched (e.g. performing != null and queue non-empty,
                     // which can happen if a previous worker was cancelled mid-execute). Without a yield
                     // here the loop spins CPU and the isStopped check never gets to fire.
-                    delay(100)
+                    queue.awaitChange(100)
                 }
             }
         } finally {
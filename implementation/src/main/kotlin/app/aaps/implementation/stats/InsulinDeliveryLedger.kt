@@ -0,0 +1,141 @@
+package app.aaps.implementation.stats
+
+import app.aaps.core.data.time.T
+
+/**
+ * Rolling ledger of basal and extended bolus insulin delivered in 5 min slots
+ *
+ * Holds one contiguous run of slots as prefix sums, so delivery over any part of the run
+ * is a subtraction of two prefix values.
+ * Slots are appended by [TddCalculatorImpl] and dropped from the timestamp of a changed
+ * treatment onward by [invalidateFrom].
+ *
+ * Slot n covers [n * 5min, (n + 1) * 5min) and is sampled at its start like the original 5 min walk.
+ */
+class InsulinDeliveryLedger(private val maxSlots: Int = DEFAULT_MAX_SLOTS) {
+
+    companion object {
+
+        val SLOT_MSECS = T.mins(5).msecs()
+
+        // 7 days for averages + today
+        const val DEFAULT_MAX_SLOTS = 8 * 24 * 12
+    }
+
+    /**
+     * Calculated slots ready to be appended
+     */
+    class Slots(val size: Int) {
+
+        val basal = DoubleArray(size)
+        val extended = DoubleArray(size)
+        val tbrRunning = BooleanArray(size)
+        val profileMissing = BooleanArray(size)
+
+        fun totals(): Totals = Totals(basal.sum(), extended.sum(), tbrRunning.any { it }, profileMissing.any { it })
+    }
+
+    data class Totals(val basal: Double, val extended: Double, val tbrRunning: Boolean, val profileMissing: Boolean) {
+
+        operator fun plus(other: Totals) =
+            Totals(basal + other.basal, extended + other.extended, tbrRunning || other.tbrRunning, profileMissing || other.profileMissing)
+    }
+
+    private val lock = Any()
+
+    private var firstSlot = 0L
+    private var count = 0
+
+    // prefix[i] = sum of slots firstSlot until firstSlot + i
+    private val basalPrefix = DoubleArray(maxSlots + 1)
+    private val extendedPrefix = DoubleArray(maxSlots + 1)
+    private val tbrPrefix = IntArray(maxSlots + 1)
+    private val missingPrefix = IntArray(maxSlots + 1)
+
+    // Incremented on every invalidation to detect changes racing with slot calculation
+    private var generation = 0L
+
+    /**
+     * Where slots should be calculated from to make the run reach [startSlot] and beyond
+     *
+     * @return current generation and first slot to calculate
+     */
+    fun fillPosition(startSlot: Long): Pair<Long, Long> =
+        synchronized(lock) {
+            val endSlot = firstSlot + count
+            generation to if (count > 0 && startSlot in firstSlot..endSlot) endSlot else startSlot
+        }
+
+    /**
+     * Append [slots] starting at [fromSlot]
+     *
+     * Ignored if ledger was invalidated since [fillPosition] returned [generation].
+     * Non contiguous data replaces the run.
+     */
+    fun append(generation: Long, fromSlot: Long, slots: Slots) {
+        synchronized(lock) {
+            if (generation != this.generation) return
+            if (count == 0 || fromSlot != firstSlot + count) {
+                firstSlot = fromSlot
+                count = 0
+            }
+            for (i in 0 until slots.size) {
+                if (count == maxSlots) dropOldest(maxSlots / 4)
+                basalPrefix[count + 1] = basalPrefix[count] + slots.basal[i]
+                extendedPrefix[count + 1] = extendedPrefix[count] + slots.extended[i]
+                tbrPrefix[count + 1] = tbrPrefix[count] + if (slots.tbrRunning[i]) 1 else 0
+                missingPrefix[count + 1] = missingPrefix[count] + if (slots.profileMissing[i]) 1 else 0
+                count++
+            }
+        }
+    }
+
+    /**
+     * @return delivery in [startSlot, endSlot) or null if the range is not fully covered
+     */
+    fun totals(startSlot: Long, endSlot: Long): Totals? =
+        synchronized(lock) {
+            if (startSlot < firstSlot || endSlot > firstSlot + count || startSlot > endSlot) return null
+            val from = (startSlot - firstSlot).toInt()
+            val to = (endSlot - firstSlot).toInt()
+            Totals(
+                basal = basalPrefix[to] - basalPrefix[from],
+                extended = extendedPrefix[to] - extendedPrefix[from],
+                tbrRunning = tbrPrefix[to] > tbrPrefix[from],
+                profileMissing = missingPrefix[to] > missingPrefix[from]
+            )
+        }
+
+    /**
+     * Drop all slots which may be affected by a treatment change at [time]
+     */
+    fun invalidateFrom(time: Long) {
+        synchronized(lock) {
+            generation++
+            val slot = time / SLOT_MSECS
+            if (slot < firstSlot + count) count = (slot - firstSlot).coerceAtLeast(0).toInt()
+        }
+    }
+
+    fun reset() {
+        synchronized(lock) {
+            generation++
+            count = 0
+        }
+    }
+
+    private fun dropOldest(slots: Int) {
+        val basalBase = basalPrefix[slots]
+        val extendedBase = extendedPrefix[slots]
+        val tbrBase = tbrPrefix[slots]
+        val missingBase = missingPrefix[slots]
+        for (i in 0..count - slots) {
+            basalPrefix[i] = basalPrefix[i + slots] - basalBase
+            extendedPrefix[i] = extendedPrefix[i + slots] - extendedBase
+            tbrPrefix[i] = tbrPrefix[i + slots] - tbrBase
+            missingPrefix[i] = missingPrefix[i + slots] - missingBase
+        }
+        firstSlot += slots
+        count -= slots
+    }
+}
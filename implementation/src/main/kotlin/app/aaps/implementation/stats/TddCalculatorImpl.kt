@@ -3,22 +3,34 @@ package app.aaps.implementation.stats
 import androidx.collection.LongSparseArray
 import app.aaps.core.data.aps.AverageTDD
 import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.EPS
+import app.aaps.core.data.model.TB
 import app.aaps.core.data.model.TDD
 import app.aaps.core.data.pump.defs.PumpType
 import app.aaps.core.data.time.T
 import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.di.ApplicationScope
 import app.aaps.core.interfaces.iob.IobCobCalculator
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.plugin.ActivePlugin
 import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.rx.events.EventConfigBuilderChange
 import app.aaps.core.interfaces.stats.TddCalculator
 import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.core.interfaces.utils.MidnightTime
-import dagger.Reusable
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.merge
+import kotlinx.coroutines.flow.onEach
 import java.time.Instant
 import java.time.ZoneId
 import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.math.min
 
 /**
  * Implementation of Total Daily Dose (TDD) calculator for insulin usage statistics.
@@ -38,11 +50,16 @@ import javax.inject.Inject
  * The calculator operates in 5-minute intervals to accurately capture basal rates
  * and temporary basal adjustments. It retrieves boluses and carbs directly from
  * the database, while calculating actual basal delivery from profiles and TBR data.
+ * Calculated 5-minute slots are kept in [InsulinDeliveryLedger] and invalidated
+ * on TBR, extended bolus and profile switch changes, so repeated intervals
+ * (DynISF asks for 24h, 4h and 8-4h every loop) cost two prefix lookups.
+ * Ledger is cleared when active plugins change or pump starts or stops emulating
+ * temporary basals by extended boluses, because basal of all slots depends on it.
  *
  * Calculation methodology:
  * 1. Retrieve cached TDD values for requested days
  * 2. Calculate missing days using 5-minute interval sampling
- * 3. For each interval: get active profile, TBR, and extended bolus
+ * 3. For each interval not in ledger: get active profile, TBR, and extended bolus
  * 4. Sum all insulin delivery and carbs
  * 5. Cache results marked as PumpType.CACHE
  *
@@ -57,21 +74,45 @@ import javax.inject.Inject
  * @property dateUtil Date/time utilities
  * @property iobCobCalculator Calculator for basal data including TBR
  * @property persistenceLayer Database access for boluses, carbs, and cached TDD
+ * @property rxBus Event bus for plugin changes
  *
  * @see TddCalculator
  * @see app.aaps.core.data.model.TDD
  * @see app.aaps.core.data.aps.AverageTDD
  */
-@Reusable
+@Singleton
 class TddCalculatorImpl @Inject constructor(
     private val aapsLogger: AAPSLogger,
     private val activePlugin: ActivePlugin,
     private val profileFunction: ProfileFunction,
     private val dateUtil: DateUtil,
     private val iobCobCalculator: IobCobCalculator,
-    private val persistenceLayer: PersistenceLayer
+    private val persistenceLayer: PersistenceLayer,
+    private val rxBus: RxBus,
+    @ApplicationScope private val appScope: CoroutineScope
 ) : TddCalculator {
 
+    private val ledger = InsulinDeliveryLedger()
+
+    // extended bolus emulation the ledger slots were calculated with, null if not known yet
+    @Volatile private var ledgerFakesExtended: Boolean? = null
+
+    init {
+        merge(
+            persistenceLayer.observeChanges(TB::class.java).map { list -> list.minOfOrNull { it.timestamp } },
+            persistenceLayer.observeChanges(EB::class.java).map { list -> list.minOfOrNull { it.timestamp } },
+            persistenceLayer.observeChanges(EPS::class.java).map { list -> list.minOfOrNull { it.timestamp } }
+        )
+            .onEach { changedFrom -> changedFrom?.let { ledger.invalidateFrom(it) } }
+            .launchIn(appScope)
+        persistenceLayer.databaseClearedFlow
+            .onEach { ledger.reset() }
+            .launchIn(appScope)
+        rxBus.toFlow(EventConfigBuilderChange::class.java)
+            .onEach { ledger.reset() }
+            .launchIn(appScope)
+    }
+
     override suspend fun calculate(days: Long, allowMissingDays: Boolean): LongSparseArray<TDD>? =
         calculate(dateUtil.now(), days, allowMissingDays)
 
@@ -137,7 +178,6 @@ class TddCalculatorImpl @Inject constructor(
         val startTimeAligned = startTime - startTime % (5 * 60 * 1000)
         val endTimeAligned = endTime - endTime % (5 * 60 * 1000)
         val tdd = TDD(timestamp = startTimeAligned)
-        var tbrFound = false
         persistenceLayer.getBolusesFromTimeToTime(startTime, endTime, true)
             .filter { it.type != BS.Type.PRIMING }
             .forEach { t ->
@@ -151,27 +191,65 @@ class TddCalculatorImpl @Inject constructor(
                 if (ic > 0) tdd.carbInsulin += t.amount / ic
             }
         }
-        val calculationStep = T.mins(5).msecs()
-        for (t in startTimeAligned until endTimeAligned step calculationStep) {
-
-            val profile = profileFunction.getProfile(t) ?: if (allowMissingData) continue else return null
-            val tbr = iobCobCalculator.getBasalData(profile, t)
-            if (tbr.isTempBasalRunning) tbrFound = true
-            val absoluteRate = tbr.tempBasalAbsolute
-            tdd.basalAmount += absoluteRate / 60.0 * 5.0
-
-            if (!activePlugin.activePump.isFakingTempsByExtendedBoluses) {
-                val eb = persistenceLayer.getExtendedBolusActiveAt(t)
-                val absoluteEbRate = eb?.rate ?: 0.0
-                tdd.bolusAmount += absoluteEbRate / 60.0 * 5.0
-            }
+        val fakesExtended = activePlugin.activePump.isFakingTempsByExtendedBoluses
+        // emulation is switched by pump preferences, slots calculated with the other mode are not valid
+        if (ledgerFakesExtended != fakesExtended) {
+            ledger.reset()
+            ledgerFakesExtended = fakesExtended
         }
+        val delivered = deliveredInsulin(startTimeAligned / InsulinDeliveryLedger.SLOT_MSECS, endTimeAligned / InsulinDeliveryLedger.SLOT_MSECS)
+        if (delivered.profileMissing && !allowMissingData) return null
+        tdd.basalAmount += delivered.basal
+        if (!fakesExtended) tdd.bolusAmount += delivered.extended
         tdd.totalAmount = tdd.bolusAmount + tdd.basalAmount
         //aapsLogger.debug(LTag.CORE, tdd.toString())
-        if (tdd.bolusAmount > 0 || tdd.basalAmount > 0 || tbrFound) return tdd
+        if (tdd.bolusAmount > 0 || tdd.basalAmount > 0 || delivered.tbrRunning) return tdd
         return null
     }
 
+    /**
+     * Basal and extended bolus insulin in slots [startSlot, endSlot)
+     * Only slots in the past are stored in ledger, the rest is calculated on every call
+     */
+    private suspend fun deliveredInsulin(startSlot: Long, endSlot: Long): InsulinDeliveryLedger.Totals {
+        val storableEnd = min(endSlot, dateUtil.now() / InsulinDeliveryLedger.SLOT_MSECS)
+        if (startSlot < storableEnd) {
+            val (generation, fillFrom) = ledger.fillPosition(startSlot)
+            if (fillFrom < storableEnd) ledger.append(generation, fillFrom, calculateSlots(fillFrom, storableEnd))
+        }
+        val stored = ledger.totals(startSlot, storableEnd) ?: return calculateSlots(startSlot, endSlot).totals()
+        return if (storableEnd < endSlot) stored + calculateSlots(storableEnd, endSlot).totals() else stored
+    }
+
+    private suspend fun calculateSlots(startSlot: Long, endSlot: Long): InsulinDeliveryLedger.Slots {
+        val slots = InsulinDeliveryLedger.Slots((endSlot - startSlot).coerceAtLeast(0).toInt())
+        if (slots.size == 0) return slots
+        val startTime = startSlot * InsulinDeliveryLedger.SLOT_MSECS
+        val endTime = endSlot * InsulinDeliveryLedger.SLOT_MSECS
+        // one query for the whole range instead of getExtendedBolusActiveAt per slot
+        val extendedBoluses = (listOfNotNull(persistenceLayer.getExtendedBolusActiveAt(startTime)) +
+            persistenceLayer.getExtendedBolusesStartingFromTimeToTime(startTime, endTime, true)).distinctBy { it.id }
+        var lastStarted = -1 // last extended bolus started at or before t
+        for (i in 0 until slots.size) {
+            val t = startTime + i * InsulinDeliveryLedger.SLOT_MSECS
+            val profile = profileFunction.getProfile(t)
+            if (profile == null) {
+                slots.profileMissing[i] = true
+                continue
+            }
+            val tbr = iobCobCalculator.getBasalData(profile, t)
+            slots.tbrRunning[i] = tbr.isTempBasalRunning
+            slots.basal[i] = tbr.tempBasalAbsolute / 60.0 * 5.0
+
+            while (lastStarted + 1 < extendedBoluses.size && extendedBoluses[lastStarted + 1].timestamp <= t) lastStarted++
+            // same as getExtendedBolusActiveAt(t): latest started which has not finished yet
+            var active = lastStarted
+            while (active >= 0 && extendedBoluses[active].end <= t) active--
+            slots.extended[i] = if (active >= 0) extendedBoluses[active].rate / 60.0 * 5.0 else 0.0
+        }
+        return slots
+    }
+
     override fun averageTDD(tdds: LongSparseArray<TDD>?): AverageTDD? {
         val totalTdd = TDD(timestamp = dateUtil.now())
         tdds ?: return null
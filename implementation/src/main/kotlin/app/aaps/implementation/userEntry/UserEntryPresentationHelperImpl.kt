@@ -299,10 +299,10 @@ class UserEntryPresentationHelperImpl @Inject constructor(
     }
 
     override fun userEntriesToCsv(userEntries: List<UE>): String {
-        return getCsvHeader() + userEntries.joinToString("\n") { entry -> getCsvEntry(entry) }
+        return csvHeader() + userEntries.joinToString("\n") { entry -> csvEntry(entry) }
     }
 
-    private fun getCsvHeader() = rh.gs(
+    override fun csvHeader() = rh.gs(
         R.string.ue_csv_header,
         csvString(R.string.ue_timestamp),
         csvString(R.string.date),
@@ -323,7 +323,7 @@ class UserEntryPresentationHelperImpl @Inject constructor(
         csvString(R.string.ue_none)
     ) + "\n"
 
-    private fun getCsvEntry(entry: UE): String {
+    override fun csvEntry(entry: UE): String {
         val fullValueWithUnitList = ArrayList(entry.values)
         val timestampRec = entry.timestamp.toString()
         val dateTimestampRev = dateUtil.dateAndTimeAndSecondsString(entry.timestamp)
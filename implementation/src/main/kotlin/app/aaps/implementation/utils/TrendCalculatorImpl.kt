@@ -14,7 +14,7 @@ class TrendCalculatorImpl @Inject constructor(
 ) : TrendCalculator {
 
     override fun getTrendArrow(autosensDataStore: AutosensDataStore): TrendArrow? {
-        val data = autosensDataStore.getBucketedDataTableCopy() ?: return null
+        val data = autosensDataStore.getBucketedDataTable() ?: return null
         if (data.isEmpty()) return null
         /* Change 4.0.0 - always calculate from bucketed data
         val glucoseValue = data[0]
@@ -41,7 +41,7 @@ class TrendCalculatorImpl @Inject constructor(
         }
     }
 
-    private fun calculateDirection(readings: MutableList<InMemoryGlucoseValue>): TrendArrow {
+    private fun calculateDirection(readings: List<InMemoryGlucoseValue>): TrendArrow {
 
         if (readings.size < 2)
             return TrendArrow.NONE
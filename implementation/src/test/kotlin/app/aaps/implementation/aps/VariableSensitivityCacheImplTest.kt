@@ -0,0 +1,146 @@
+package app.aaps.implementation.aps
+
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.APSResult
+import app.aaps.core.interfaces.aps.GlucoseStatus
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import java.util.Random
+
+class VariableSensitivityCacheImplTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private lateinit var sut: VariableSensitivityCacheImpl
+    private val slot = T.mins(30).msecs()
+
+    private fun apsResult(timestamp: Long, glucose: Double, sensitivity: Double?): APSResult =
+        apsResultProvider.get().also {
+            it.date = timestamp
+            it.glucoseStatus = mock<GlucoseStatus> { on { this.glucose } doReturn glucose }
+            it.variableSens = sensitivity
+        }
+
+    @BeforeEach
+    fun setup() {
+        sut = VariableSensitivityCacheImpl(aapsLogger, persistenceLayer, dateUtil)
+    }
+
+    @Test
+    fun calculationIsCachedPerSlotAndGlucose() = runTest {
+        whenever(persistenceLayer.getApsResults(any(), any())).thenReturn(emptyList())
+        var calculations = 0
+        val calculate: suspend () -> Double? = { (++calculations * 10.0) }
+
+        assertThat(sut.get(APSResult.Algorithm.SMB, now, slot, 120.0)).isNull()
+        assertThat(sut.getOrCalculate(APSResult.Algorithm.SMB, now, slot, 120.0, calculate)).isEqualTo(10.0)
+        assertThat(sut.getOrCalculate(APSResult.Algorithm.SMB, now + 1, slot, 120.4, calculate)).isEqualTo(10.0)
+        assertThat(sut.get(APSResult.Algorithm.SMB, now, slot, 120.0)).isEqualTo(10.0)
+        assertThat(calculations).isEqualTo(1)
+        // other BG, slot or algorithm is calculated again
+        assertThat(sut.getOrCalculate(APSResult.Algorithm.SMB, now, slot, 121.0, calculate)).isEqualTo(20.0)
+        assertThat(sut.getOrCalculate(APSResult.Algorithm.SMB, now + slot, slot, 120.0, calculate)).isEqualTo(30.0)
+        assertThat(sut.getOrCalculate(APSResult.Algorithm.AUTO_ISF, now, slot, 120.0, calculate)).isEqualTo(40.0)
+        // failed calculation is not cached
+        assertThat(sut.getOrCalculate(APSResult.Algorithm.SMB, now + 2 * slot, slot, 120.0) { null }).isNull()
+        assertThat(sut.getOrCalculate(APSResult.Algorithm.SMB, now + 2 * slot, slot, 120.0, calculate)).isEqualTo(50.0)
+        verify(persistenceLayer, times(1)).getApsResults(any(), any())
+    }
+
+    @Test
+    fun changedSlotLengthIsApplied() = runTest {
+        whenever(persistenceLayer.getApsResults(any(), any())).thenReturn(emptyList())
+        val shortSlot = T.mins(6).msecs()
+        val start = now - now % slot
+        var calculations = 0
+        val calculate: suspend () -> Double? = { (++calculations * 10.0) }
+
+        assertThat(sut.getOrCalculate(APSResult.Algorithm.AUTO_ISF, start, slot, 120.0, calculate)).isEqualTo(10.0)
+        assertThat(sut.getOrCalculate(APSResult.Algorithm.AUTO_ISF, start + shortSlot, slot, 120.0, calculate)).isEqualTo(10.0)
+        // slot changed by preference, values are not shared across 6 min slots any more
+        assertThat(sut.getOrCalculate(APSResult.Algorithm.AUTO_ISF, start, shortSlot, 120.0, calculate)).isEqualTo(20.0)
+        assertThat(sut.getOrCalculate(APSResult.Algorithm.AUTO_ISF, start + shortSlot, shortSlot, 120.0, calculate)).isEqualTo(30.0)
+        assertThat(sut.get(APSResult.Algorithm.AUTO_ISF, start + 1, shortSlot, 120.0)).isEqualTo(20.0)
+        assertThat(calculations).isEqualTo(3)
+    }
+
+    @Test
+    fun averageMatchesKeptValues() = runTest {
+        whenever(persistenceLayer.getApsResults(any(), any())).thenReturn(emptyList())
+        val random = Random(1)
+        val minute = T.mins(1).msecs()
+        // unique slots in random order, more than capacity
+        val slots = (0 until 1500).map { now - now % minute - it * minute }.shuffled(random)
+        val kept = sortedMapOf<Long, Double>()
+        for (timestamp in slots) {
+            val value = 20.0 + random.nextDouble() * 100.0
+            sut.getOrCalculate(APSResult.Algorithm.SMB, timestamp, minute, 100.0) { value }
+            // the oldest value is evicted, older values than all kept are dropped
+            if (kept.size == 1000 && timestamp < kept.firstKey()) continue
+            kept[timestamp] = value
+            if (kept.size > 1000) kept.remove(kept.firstKey())
+        }
+        repeat(200) {
+            val from = now - random.nextInt(1600) * minute
+            val to = from + random.nextInt(600) * minute
+            val values = kept.subMap(from, to + 1).values
+            val average = sut.getAverage(APSResult.Algorithm.SMB, from, to)
+            if (values.isEmpty()) assertThat(average).isNull()
+            else assertThat(average!!).isWithin(1e-6).of(values.average())
+        }
+        assertThat(sut.getAverage(APSResult.Algorithm.AUTO_ISF, now - T.hours(24).msecs(), now)).isNull()
+    }
+
+    @Test
+    fun apsResultsAreLoadedAndUsed() = runTest {
+        whenever(persistenceLayer.getApsResults(any(), any())).thenReturn(
+            listOf(
+                apsResult(now - T.mins(20).msecs(), 150.0, 45.0),
+                apsResult(now - T.mins(10).msecs(), 140.0, 50.0)
+            )
+        )
+        sut.load()
+        sut.load()
+        verify(persistenceLayer, times(1)).getApsResults(any(), any())
+
+        // loaded values are used as calculated
+        assertThat(sut.get(APSResult.Algorithm.SMB, now - T.mins(10).msecs(), slot, 140.0)).isEqualTo(50.0)
+        assertThat(sut.getAverage(APSResult.Algorithm.SMB, now - T.hours(24).msecs(), now)).isWithin(1e-6).of(47.5)
+
+        assertThat(sut.getLastApsResultSensitivity(now, T.mins(5).msecs())).isNull()
+        sut.addApsResult(apsResult(now - T.mins(1).msecs(), 130.0, 55.0))
+        assertThat(sut.getLastApsResultSensitivity(now, T.mins(5).msecs())).isEqualTo(55.0)
+        // last result without sensitivity
+        sut.addApsResult(apsResult(now, 130.0, null))
+        assertThat(sut.getLastApsResultSensitivity(now, T.mins(5).msecs())).isNull()
+    }
+
+    @Test
+    fun graphValuesAreReadFromMemoryWhenLoaded() = runTest {
+        val old = apsResult(now - T.hours(30).msecs(), 100.0, 40.0)
+        whenever(persistenceLayer.getApsResults(any(), any())).thenReturn(
+            listOf(apsResult(now - T.mins(20).msecs(), 150.0, 45.0), apsResult(now - T.mins(15).msecs(), 150.0, null))
+        )
+        sut.addApsResult(apsResult(now - T.mins(5).msecs(), 140.0, 50.0))
+
+        assertThat(sut.getApsResultSensitivities(now - T.hours(1).msecs(), now))
+            .containsExactly(Pair(now - T.mins(20).msecs(), 45.0), Pair(now - T.mins(5).msecs(), 50.0)).inOrder()
+        verify(persistenceLayer, times(1)).getApsResults(any(), any())
+
+        // older than loaded interval
+        whenever(persistenceLayer.getApsResults(any(), any())).thenReturn(listOf(old))
+        assertThat(sut.getApsResultSensitivities(now - T.hours(36).msecs(), now)).containsExactly(Pair(old.date, 40.0))
+        verify(persistenceLayer, times(2)).getApsResults(any(), any())
+    }
+}
@@ -0,0 +1,103 @@
+package app.aaps.implementation.maintenance
+
+import app.aaps.core.data.model.UE
+import app.aaps.core.data.ue.Action
+import app.aaps.core.data.ue.Sources
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.maintenance.CloudUploadSource
+import app.aaps.core.interfaces.userEntry.UserEntryPresentationHelper
+import app.aaps.implementation.maintenance.cloud.providers.googledrive.DriveResumableUpload
+import app.aaps.implementation.maintenance.cloud.providers.googledrive.MockDriveUploadServer
+import app.aaps.implementation.maintenance.cloud.providers.googledrive.MockDriveUploadServer.Fault
+import app.aaps.shared.tests.TestBase
+import app.aaps.shared.tests.benchmark.Benchmark
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.runBlocking
+import okhttp3.OkHttpClient
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.whenever
+import java.io.File
+import java.io.FileOutputStream
+import java.io.OutputStream
+import java.util.zip.CRC32
+import java.util.zip.CheckedInputStream
+
+/**
+ * CSV export of large user entry history to file and its upload over unreliable connection
+ *
+ * Entries are generated page by page, so heap growth shows memory held by export itself.
+ */
+@EnabledIfSystemProperty(named = Benchmark.PROPERTY, matches = "true")
+class StreamingExportBenchmark : TestBase() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var userEntryPresentationHelper: UserEntryPresentationHelper
+
+    private val entryCount = 2_000_000L
+    private val note = "x".repeat(100)
+    private lateinit var file: File
+    private lateinit var server: MockDriveUploadServer
+
+    @BeforeEach
+    fun setup() = runBlocking {
+        file = File.createTempFile("UserEntries", ".csv")
+        server = MockDriveUploadServer()
+        whenever(userEntryPresentationHelper.csvHeader()).thenReturn("timestamp;action;source;note\n")
+        whenever(userEntryPresentationHelper.csvEntry(any())).thenAnswer { invocation ->
+            val entry = invocation.getArgument<UE>(0)
+            "${entry.timestamp};${entry.action.name};${entry.source.name};${entry.note}"
+        }
+        whenever(persistenceLayer.getUserEntryFilteredDataPage(any(), anyOrNull(), any())).thenAnswer { invocation ->
+            val after = invocation.getArgument<UE?>(1)?.id ?: (entryCount + 1)
+            val limit = invocation.getArgument<Int>(2)
+            (after - 1 downTo maxOf(1, after - limit)).map { UE(id = it, timestamp = it * 1000, utcOffset = 0, action = Action.BOLUS, source = Sources.Insulin, note = note, values = emptyList()) }
+        }
+        Unit
+    }
+
+    @AfterEach
+    fun tearDown() {
+        server.close()
+        file.delete()
+    }
+
+    private fun usedHeap(): Long {
+        System.gc()
+        return Runtime.getRuntime().let { it.totalMemory() - it.freeMemory() }
+    }
+
+    @Test
+    fun exportAndUpload() {
+        val exporter = UserEntryCsvExporter(persistenceLayer, userEntryPresentationHelper)
+        val heapBefore = usedHeap()
+        Benchmark.measure("CSV export of $entryCount entries", warmupIterations = 0, iterations = 1) {
+            runBlocking { FileOutputStream(file).use { exporter.write(0, it) } }
+        }
+        val heapAfter = usedHeap()
+        val megabytes = file.length() / (1024 * 1024)
+        println("CSV size $megabytes MB, heap growth ${(heapAfter - heapBefore) / 1024} kB")
+
+        val expectedCrc = CheckedInputStream(file.inputStream(), CRC32()).use { input ->
+            input.copyTo(OutputStream.nullOutputStream())
+            input.checksum.value
+        }
+        // connection drops every ~50 MB, backend is once unavailable and session expires once
+        repeat(8) { i ->
+            repeat(5) { server.faults.add(Fault.NONE) }
+            server.faults.add(if (i == 1) Fault.UNAVAILABLE else if (i == 2) Fault.EXPIRED else Fault.DROP)
+        }
+        val upload = DriveResumableUpload(OkHttpClient(), aapsLogger, server.uploadUrl, retryDelayMs = 1)
+        val result = Benchmark.measure("Resumable upload of $megabytes MB with faults", warmupIterations = 0, iterations = 1) {
+            runBlocking { upload.upload("token", """{"name":"${file.name}"}""", "text/csv", CloudUploadSource.of(file)) }
+        }
+        println("Upload ${"%.1f".format(megabytes * result.opsPerSecond)} MB/s, chunks ${server.chunkRequests.get()}, sessions ${server.startedSessions.get()}")
+        assertThat(server.files.single().size).isEqualTo(file.length())
+        assertThat(server.files.single().crc).isEqualTo(expectedCrc)
+    }
+}
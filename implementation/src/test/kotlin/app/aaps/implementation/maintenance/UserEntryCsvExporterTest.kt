@@ -0,0 +1,84 @@
+package app.aaps.implementation.maintenance
+
+import app.aaps.core.data.model.UE
+import app.aaps.core.data.ue.Action
+import app.aaps.core.data.ue.Sources
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.userEntry.UserEntryPresentationHelper
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import java.io.ByteArrayOutputStream
+
+class UserEntryCsvExporterTest : TestBase() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var userEntryPresentationHelper: UserEntryPresentationHelper
+
+    private lateinit var sut: UserEntryCsvExporter
+
+    @BeforeEach
+    fun setup() {
+        sut = UserEntryCsvExporter(persistenceLayer, userEntryPresentationHelper)
+        whenever(userEntryPresentationHelper.csvHeader()).thenReturn("id;timestamp;note\n")
+        whenever(userEntryPresentationHelper.csvEntry(any())).thenAnswer { invocation ->
+            val entry = invocation.getArgument<UE>(0)
+            "${entry.id};${entry.timestamp};${entry.note}"
+        }
+    }
+
+    /** Entries ordered from newest, some of them with the same timestamp */
+    private suspend fun database(count: Int): List<UE> {
+        val entries = List(count) { UE(id = (count - it).toLong(), timestamp = 1000L * ((count - it) / 3), action = Action.BOLUS, source = Sources.Insulin, note = "ü$it", values = emptyList()) }
+        whenever(persistenceLayer.getUserEntryFilteredDataPage(eq(FROM), anyOrNull(), any())).thenAnswer { invocation ->
+            val after = invocation.getArgument<UE?>(1)
+            val limit = invocation.getArgument<Int>(2)
+            val start = if (after == null) 0 else entries.indexOfFirst { it.timestamp < after.timestamp || it.timestamp == after.timestamp && it.id < after.id }.let { if (it < 0) entries.size else it }
+            entries.subList(start, minOf(start + limit, entries.size)).toList()
+        }
+        return entries
+    }
+
+    private fun expected(entries: List<UE>): String =
+        "id;timestamp;note\n" + entries.joinToString("\n") { "${it.id};${it.timestamp};${it.note}" }
+
+    @Test
+    fun writesAllPages() = runTest {
+        val entries = database(2500)
+        val output = ByteArrayOutputStream()
+        assertThat(sut.write(FROM, output, pageSize = 1000)).isEqualTo(2500)
+        assertThat(output.toString(Charsets.UTF_8.name())).isEqualTo(expected(entries))
+        verify(persistenceLayer, times(3)).getUserEntryFilteredDataPage(eq(FROM), anyOrNull(), eq(1000))
+    }
+
+    @Test
+    fun exactMultipleOfPageSize() = runTest {
+        val entries = database(2000)
+        val output = ByteArrayOutputStream()
+        assertThat(sut.write(FROM, output, pageSize = 1000)).isEqualTo(2000)
+        assertThat(output.toString(Charsets.UTF_8.name())).isEqualTo(expected(entries))
+        verify(persistenceLayer, times(3)).getUserEntryFilteredDataPage(eq(FROM), anyOrNull(), eq(1000))
+    }
+
+    @Test
+    fun noEntries() = runTest {
+        database(0)
+        val output = ByteArrayOutputStream()
+        assertThat(sut.write(FROM, output)).isEqualTo(0)
+        assertThat(output.toString(Charsets.UTF_8.name())).isEqualTo("id;timestamp;note\n")
+    }
+
+    companion object {
+
+        private const val FROM = 1234L
+    }
+}
@@ -0,0 +1,153 @@
+package app.aaps.implementation.maintenance.cloud.providers.googledrive
+
+import app.aaps.core.interfaces.maintenance.CloudUploadSource
+import app.aaps.implementation.maintenance.cloud.providers.googledrive.MockDriveUploadServer.Fault
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.test.runTest
+import okhttp3.OkHttpClient
+import org.json.JSONObject
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.io.IOException
+import java.util.zip.CRC32
+import kotlin.random.Random
+
+class DriveResumableUploadTest : TestBase() {
+
+    private val chunkSize = 4 * DriveResumableUpload.CHUNK_GRANULARITY
+    private val content = Random(1).nextBytes((10 * chunkSize + 12345).toInt())
+    private val crc = CRC32().apply { update(content) }.value
+
+    private lateinit var server: MockDriveUploadServer
+    private lateinit var sut: DriveResumableUpload
+
+    @BeforeEach
+    fun setup() {
+        server = MockDriveUploadServer()
+        sut = DriveResumableUpload(OkHttpClient(), aapsLogger, server.uploadUrl, chunkSize = chunkSize, maxRetries = 3, retryDelayMs = 1)
+    }
+
+    @AfterEach
+    fun tearDown() {
+        server.close()
+    }
+
+    private suspend fun upload(source: CloudUploadSource = CloudUploadSource.of(content), refreshToken: suspend () -> String? = { null }): String =
+        JSONObject(sut.upload("token", """{"name":"test.bin"}""", "application/octet-stream", source, refreshToken)).getString("id")
+
+    @Test
+    fun uploadsInChunks() = runTest {
+        val id = upload()
+        val file = server.files.single()
+        assertThat(file.id).isEqualTo(id)
+        assertThat(file.size).isEqualTo(content.size.toLong())
+        assertThat(file.crc).isEqualTo(crc)
+        assertThat(server.chunkRequests.get()).isEqualTo(11)
+        assertThat(server.startedSessions.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun emptyContent() = runTest {
+        upload(CloudUploadSource.of(ByteArray(0)))
+        assertThat(server.files.single().size).isEqualTo(0)
+    }
+
+    @Test
+    fun uploadsFromFile() = runTest {
+        val file = File.createTempFile("upload", ".bin")
+        try {
+            file.writeBytes(content)
+            server.faults.addAll(listOf(Fault.DROP, Fault.DROP))
+            upload(CloudUploadSource.of(file))
+            assertThat(server.files.single().crc).isEqualTo(crc)
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    fun resumesAfterDroppedConnection() = runTest {
+        server.faults.addAll(listOf(Fault.DROP, Fault.DROP))
+        upload()
+        assertThat(server.files.single().crc).isEqualTo(crc)
+        assertThat(server.startedSessions.get()).isEqualTo(1)
+        assertThat(server.statusRequests.get()).isEqualTo(2)
+        // each drop stores half of the chunk, so only the other half is sent again
+        assertThat(server.chunkRequests.get()).isEqualTo(12)
+    }
+
+    @Test
+    fun retriesServerError() = runTest {
+        server.faults.addAll(listOf(Fault.UNAVAILABLE, Fault.UNAVAILABLE, Fault.UNAVAILABLE))
+        upload()
+        assertThat(server.files.single().crc).isEqualTo(crc)
+        assertThat(server.startedSessions.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun restartsExpiredSession() = runTest {
+        server.faults.addAll(listOf(Fault.NONE, Fault.NONE, Fault.EXPIRED))
+        upload()
+        assertThat(server.files.single().crc).isEqualTo(crc)
+        assertThat(server.startedSessions.get()).isEqualTo(2)
+    }
+
+    @Test
+    fun failsWhenSessionKeepsExpiring() = runTest {
+        repeat(10) { server.faults.add(Fault.EXPIRED) }
+        val e = runCatching { upload() }.exceptionOrNull()
+        assertThat((e as DriveResumableUpload.UploadException).code).isEqualTo(404)
+        // first session and 3 restarts
+        assertThat(server.startedSessions.get()).isEqualTo(4)
+        assertThat(server.files).isEmpty()
+    }
+
+    @Test
+    fun refreshesRejectedToken() = runTest {
+        var refreshes = 0
+        server.faults.addAll(listOf(Fault.NONE, Fault.NONE))
+        // token expires in the middle of upload
+        server.faults.add(Fault.UNAUTHORIZED)
+        upload { refreshes++; "token" }
+        assertThat(server.files.single().crc).isEqualTo(crc)
+        assertThat(server.startedSessions.get()).isEqualTo(1)
+        assertThat(refreshes).isEqualTo(1)
+    }
+
+    @Test
+    fun startsSessionWithRefreshedToken() = runTest {
+        server.validToken = "fresh"
+        upload { "fresh" }
+        assertThat(server.files.single().crc).isEqualTo(crc)
+        assertThat(server.startedSessions.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun refreshesTokenOnlyOnce() = runTest {
+        var refreshes = 0
+        server.validToken = "fresh"
+        val e = runCatching { upload { refreshes++; "stale" } }.exceptionOrNull()
+        assertThat((e as DriveResumableUpload.UploadException).code).isEqualTo(401)
+        assertThat(refreshes).isEqualTo(1)
+        assertThat(server.startedSessions.get()).isEqualTo(0)
+    }
+
+    @Test
+    fun failsOnRejectedRequest() = runTest {
+        server.faults.add(Fault.UNAUTHORIZED)
+        val e = runCatching { upload() }.exceptionOrNull()
+        assertThat(e).isInstanceOf(DriveResumableUpload.UploadException::class.java)
+        assertThat((e as DriveResumableUpload.UploadException).code).isEqualTo(401)
+        assertThat(server.files).isEmpty()
+    }
+
+    @Test
+    fun failsWhenRetriesAreExhausted() = runTest {
+        repeat(10) { server.faults.add(Fault.UNAVAILABLE) }
+        assertThat(runCatching { upload() }.exceptionOrNull()).isInstanceOf(IOException::class.java)
+        assertThat(server.files).isEmpty()
+    }
+}
@@ -0,0 +1,178 @@
+package app.aaps.implementation.maintenance.cloud.providers.googledrive
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.zip.CRC32
+
+/**
+ * Local server implementing Google Drive resumable upload protocol
+ *
+ * Received content is not stored, only its size and CRC32 are kept, so files of any size can be uploaded.
+ * Chunk requests fail according to queued [faults].
+ */
+class MockDriveUploadServer : AutoCloseable {
+
+    enum class Fault {
+        NONE,           // chunk is stored
+        DROP,           // connection is closed after half of the chunk is stored
+        UNAVAILABLE,    // 503, nothing stored
+        EXPIRED,        // 404, session is discarded
+        UNAUTHORIZED    // 401
+    }
+
+    private class Session(val total: Long) {
+
+        val crc = CRC32()
+        var committed = 0L
+        var fileId: String? = null
+    }
+
+    class UploadedFile(val id: String, val size: Long, val crc: Long)
+
+    private val executor = Executors.newCachedThreadPool()
+    private val server = HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0).also {
+        it.executor = executor
+        it.createContext("/upload/drive/v3/files") { exchange -> startSession(exchange) }
+        it.createContext("/upload/session/") { exchange -> putContent(exchange) }
+        it.start()
+    }
+    private val sessions = ConcurrentHashMap<String, Session>()
+
+    val uploadUrl: String get() = "http://${server.address.hostString}:${server.address.port}/upload/drive/v3"
+
+    /** Faults applied to following chunk requests, one per request */
+    val faults = ConcurrentLinkedQueue<Fault>()
+
+    /** Only this access token is accepted when set */
+    @Volatile var validToken: String? = null
+
+    /** Completed uploads */
+    val files = ConcurrentLinkedQueue<UploadedFile>()
+
+    val startedSessions = AtomicInteger(0)
+    val chunkRequests = AtomicInteger(0)
+    val statusRequests = AtomicInteger(0)
+
+    private fun authorized(exchange: HttpExchange): Boolean {
+        val token = validToken ?: return true
+        if (exchange.requestHeaders.getFirst("Authorization") == "Bearer $token") return true
+        exchange.requestBody.use { it.readBytes() }
+        respond(exchange, 401, """{"error":"invalid credentials"}""")
+        return false
+    }
+
+    private fun startSession(exchange: HttpExchange) {
+        if (!authorized(exchange)) return
+        exchange.requestBody.use { it.readBytes() }
+        val total = exchange.requestHeaders.getFirst("X-Upload-Content-Length")?.toLongOrNull()
+        if (exchange.requestMethod != "POST" || exchange.requestURI.query?.contains("uploadType=resumable") != true || total == null) {
+            respond(exchange, 400, """{"error":"bad request"}""")
+            return
+        }
+        val id = UUID.randomUUID().toString()
+        sessions[id] = Session(total)
+        startedSessions.incrementAndGet()
+        exchange.responseHeaders.add("Location", "http://${server.address.hostString}:${server.address.port}/upload/session/$id")
+        respond(exchange, 200, "")
+    }
+
+    private fun putContent(exchange: HttpExchange) {
+        if (!authorized(exchange)) return
+        val id = exchange.requestURI.path.substringAfterLast('/')
+        val session = sessions[id]
+        val range = exchange.requestHeaders.getFirst("Content-Range") ?: ""
+        val input = exchange.requestBody
+        if (session == null) {
+            input.use { it.readBytes() }
+            respond(exchange, 404, """{"error":"session not found"}""")
+            return
+        }
+        // "bytes */total" asks for status, "bytes first-last/total" carries content
+        val status = range.startsWith("bytes */")
+        val first = if (status) session.committed else range.removePrefix("bytes ").substringBefore('-').toLong()
+        val length = if (status) 0L else range.substringAfter('-').substringBefore('/').toLong() - first + 1
+        if (status) statusRequests.incrementAndGet() else chunkRequests.incrementAndGet()
+        val fault = if (status) null else faults.poll()
+
+        synchronized(session) {
+            when (fault) {
+                Fault.EXPIRED      -> {
+                    sessions.remove(id)
+                    input.use { it.readBytes() }
+                    respond(exchange, 404, """{"error":"session expired"}""")
+                    return
+                }
+
+                Fault.UNAUTHORIZED -> {
+                    input.use { it.readBytes() }
+                    respond(exchange, 401, """{"error":"invalid credentials"}""")
+                    return
+                }
+
+                Fault.UNAVAILABLE  -> {
+                    input.use { it.readBytes() }
+                    respond(exchange, 503, """{"error":"backend error"}""")
+                    return
+                }
+
+                else               -> Unit
+            }
+            if (first != session.committed) {
+                // stale chunk, report what is stored
+                input.use { it.readBytes() }
+                respondProgress(exchange, session)
+                return
+            }
+            // on drop only part of the chunk is stored, aligned like Drive does
+            val keep = if (fault == Fault.DROP) length / 2 / DriveResumableUpload.CHUNK_GRANULARITY * DriveResumableUpload.CHUNK_GRANULARITY else length
+            val buffer = ByteArray(64 * 1024)
+            var remaining = keep
+            while (remaining > 0) {
+                val read = input.read(buffer, 0, minOf(buffer.size.toLong(), remaining).toInt())
+                if (read < 0) break
+                session.crc.update(buffer, 0, read)
+                session.committed += read
+                remaining -= read
+            }
+            if (fault == Fault.DROP) {
+                // closing before response headers closes the connection
+                exchange.close()
+                return
+            }
+            input.use { it.readBytes() }
+            respondProgress(exchange, session)
+        }
+    }
+
+    private fun respondProgress(exchange: HttpExchange, session: Session) {
+        if (session.committed == session.total) {
+            val fileId = session.fileId ?: UUID.randomUUID().toString().also {
+                session.fileId = it
+                files.add(UploadedFile(it, session.committed, session.crc.value))
+            }
+            respond(exchange, 200, """{"id":"$fileId"}""")
+            return
+        }
+        if (session.committed > 0) exchange.responseHeaders.add("Range", "bytes=0-${session.committed - 1}")
+        respond(exchange, 308, "")
+    }
+
+    private fun respond(exchange: HttpExchange, code: Int, body: String) {
+        val bytes = body.toByteArray()
+        exchange.responseHeaders.add("Content-Type", "application/json")
+        exchange.sendResponseHeaders(code, if (bytes.isEmpty()) -1 else bytes.size.toLong())
+        exchange.responseBody.use { if (bytes.isNotEmpty()) it.write(bytes) }
+    }
+
+    override fun close() {
+        server.stop(0)
+        executor.shutdownNow()
+    }
+}
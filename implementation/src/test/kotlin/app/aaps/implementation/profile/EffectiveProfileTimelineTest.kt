@@ -0,0 +1,87 @@
+package app.aaps.implementation.profile
+
+import app.aaps.core.data.model.EPS
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.APS
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class EffectiveProfileTimelineTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private lateinit var sut: EffectiveProfileTimeline
+
+    private fun eps(id: Long, timestamp: Long, percentage: Int = 100) =
+        effectiveProfileSwitch.copy(id = id, timestamp = timestamp, originalPercentage = percentage)
+
+    @BeforeEach
+    fun setup() {
+        sut = EffectiveProfileTimeline(persistenceLayer, activePlugin)
+        runTest {
+            whenever(persistenceLayer.getEffectiveProfileSwitches()).thenReturn(
+                listOf(eps(1, now - T.hours(5).msecs()), eps(2, now - T.hours(2).msecs()))
+            )
+        }
+    }
+
+    @Test
+    fun lookupUsesIntervals() = runTest {
+        assertThat(sut.getProfileAt(now - T.hours(6).msecs())).isNull()
+        assertThat(sut.getProfileAt(now - T.hours(5).msecs())?.value?.id).isEqualTo(1L)
+        assertThat(sut.getProfileAt(now - T.hours(2).msecs() - 1)?.value?.id).isEqualTo(1L)
+        assertThat(sut.getProfileAt(now - T.hours(2).msecs())?.value?.id).isEqualTo(2L)
+        assertThat(sut.getProfileAt(now + T.hours(10).msecs())?.value?.id).isEqualTo(2L)
+        // whole interval shares one sealed profile
+        assertThat(sut.getProfileAt(now - T.hours(4).msecs())).isSameInstanceAs(sut.getProfileAt(now - T.hours(3).msecs()))
+        verify(persistenceLayer, times(1)).getEffectiveProfileSwitches()
+    }
+
+    @Test
+    fun incrementalUpdates() = runTest {
+        val first = sut.getProfileAt(now - T.hours(4).msecs())
+        // new EPS splits interval
+        sut.update(listOf(eps(3, now - T.hours(3).msecs(), percentage = 110)))
+        assertThat(sut.getProfileAt(now - T.hours(4).msecs())).isSameInstanceAs(first)
+        assertThat(sut.getProfileAt(now - T.hours(3).msecs())?.value?.originalPercentage).isEqualTo(110)
+        // modified EPS replaces old one
+        sut.update(listOf(eps(3, now - T.hours(3).msecs(), percentage = 120)))
+        assertThat(sut.getProfileAt(now - T.hours(3).msecs())?.value?.originalPercentage).isEqualTo(120)
+        // historic copies are ignored
+        sut.update(listOf(eps(4, now - T.hours(3).msecs(), percentage = 130).copy(referenceId = 3)))
+        assertThat(sut.getProfileAt(now - T.hours(3).msecs())?.value?.originalPercentage).isEqualTo(120)
+        // invalidated EPS is removed
+        sut.update(listOf(eps(3, now - T.hours(3).msecs()).copy(isValid = false)))
+        assertThat(sut.getProfileAt(now - T.hours(3).msecs())).isSameInstanceAs(first)
+        verify(persistenceLayer, times(1)).getEffectiveProfileSwitches()
+
+        sut.reset()
+        assertThat(sut.getProfileAt(now - T.hours(3).msecs())?.value?.id).isEqualTo(1L)
+        verify(persistenceLayer, times(2)).getEffectiveProfileSwitches()
+    }
+
+    @Test
+    fun apsSwitchSealsAgain() = runTest {
+        val oldAps = mock<APS>()
+        val newAps = mock<APS>()
+        whenever(activePlugin.activeAPS).thenReturn(oldAps)
+        val first = sut.getProfileAt(now - T.hours(4).msecs())
+        assertThat(first?.aps).isSameInstanceAs(oldAps)
+        assertThat(sut.getProfileAt(now - T.hours(3).msecs())).isSameInstanceAs(first)
+
+        whenever(activePlugin.activeAPS).thenReturn(newAps)
+        val second = sut.getProfileAt(now - T.hours(4).msecs())
+        assertThat(second?.aps).isSameInstanceAs(newAps)
+        assertThat(sut.getProfileAt(now - T.hours(3).msecs())).isSameInstanceAs(second)
+        verify(persistenceLayer, times(1)).getEffectiveProfileSwitches()
+    }
+}
@@ -0,0 +1,75 @@
+package app.aaps.implementation.profiling
+
+import app.aaps.core.interfaces.profiling.TraceStage
+import app.aaps.core.interfaces.profiling.trace
+import app.aaps.core.keys.BooleanNonKey
+import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+class ProfilerImplTest : TestBase() {
+
+    @Mock lateinit var preferences: Preferences
+
+    private fun profiler(enabled: Boolean): ProfilerImpl {
+        whenever(preferences.get(BooleanNonKey.LoopTracingEnabled)).thenReturn(enabled)
+        return ProfilerImpl(aapsLogger, preferences)
+    }
+
+    @Test
+    fun nothingIsRecordedWhenDisabled() {
+        val sut = profiler(false)
+        assertThat(sut.begin()).isEqualTo(0L)
+        sut.trace(TraceStage.LOOP) { }
+        sut.record(TraceStage.BG_ARRIVAL, System.currentTimeMillis() - 1000)
+        assertThat(sut.stageStats().sumOf { it.count }).isEqualTo(0L)
+
+        sut.tracingEnabled = true
+        verify(preferences).put(BooleanNonKey.LoopTracingEnabled, true)
+        sut.trace(TraceStage.LOOP) { }
+        assertThat(sut.stageStats().first { it.stage == TraceStage.LOOP }.count).isEqualTo(1L)
+    }
+
+    @Test
+    fun percentilesAreReported() {
+        val sut = profiler(true)
+        repeat(99) { sut.record(TraceStage.BG_ARRIVAL, System.currentTimeMillis() - 100) }
+        sut.record(TraceStage.BG_ARRIVAL, System.currentTimeMillis() - 60_000)
+        val stats = sut.stageStats().first { it.stage == TraceStage.BG_ARRIVAL }
+        assertThat(stats.count).isEqualTo(100L)
+        // bucket upper bound is at most 25 % above value
+        assertThat(stats.p50).isAtLeast(100_000L)
+        assertThat(stats.p50).isAtMost(150_000L)
+        assertThat(stats.p99).isAtMost(150_000L)
+
+        sut.resetTraces()
+        assertThat(sut.stageStats().sumOf { it.count }).isEqualTo(0L)
+    }
+
+    @Test
+    fun exportedTraceKeepsNesting() {
+        val sut = profiler(true)
+        repeat(3) {
+            sut.trace(TraceStage.LOOP) {
+                sut.trace(TraceStage.CONSTRAINTS) { Thread.sleep(1) }
+                sut.trace(TraceStage.COMMAND_QUEUE) { Thread.sleep(1) }
+            }
+        }
+        val output = ByteArrayOutputStream()
+        sut.exportTraces(output)
+        val trace = TraceFile.read(ByteArrayInputStream(output.toByteArray()))
+
+        assertThat(trace.stages).isEqualTo(TraceStage.entries.map { it.name })
+        assertThat(trace.count(TraceStage.LOOP.ordinal)).isEqualTo(3L)
+        assertThat(trace.spans.map { it.stage }).containsExactlyElementsIn(
+            List(3) { listOf(TraceStage.LOOP.ordinal, TraceStage.CONSTRAINTS.ordinal, TraceStage.COMMAND_QUEUE.ordinal) }.flatten()
+        ).inOrder()
+        assertThat(trace.depths().toList()).isEqualTo(List(3) { listOf(0, 1, 1) }.flatten())
+    }
+}
@@ -16,6 +16,7 @@ import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.notifications.NotificationManager
 import app.aaps.core.interfaces.plugin.ActivePlugin
 import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.core.interfaces.profiling.Profiler
 import app.aaps.core.interfaces.pump.BolusProgressData
 import app.aaps.core.interfaces.pump.DetailedBolusInfo
 import app.aaps.core.interfaces.pump.PumpEnactResult
@@ -36,6 +37,7 @@ import com.google.common.truth.Truth.assertThat
 import com.google.common.util.concurrent.ListenableFuture
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
 import kotlinx.coroutines.flow.emptyFlow
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.test.runTest
@@ -67,6 +69,7 @@ class CommandQueueImplementationTest : TestBaseWithProfile() {
     private val smsCommunicatorProvider: Provider<SmsCommunicator> by lazy { Provider { smsCommunicator } }
     @Mock lateinit var jobName: CommandQueueName
     @Mock lateinit var workManager: WorkManager
+    @Mock lateinit var profiler: Profiler
     @Mock lateinit var infos: ListenableFuture<List<WorkInfo>>
 
     private val testScope = CoroutineScope(Dispatchers.Unconfined)
@@ -117,6 +120,7 @@ class CommandQueueImplementationTest : TestBaseWithProfile() {
                 it.preferences = preferences
                 it.config = config
                 it.bolusProgressData = bolusProgressData
+                it.profiler = profiler
             }
         }
     }
@@ -646,6 +650,38 @@ class CommandQueueImplementationTest : TestBaseWithProfile() {
         assertThat(commandQueue.statusInQueue()).isTrue()
     }
 
+    @Test
+    fun readStatusRequestsShareResult() = runTest {
+        val first = backgroundScope.async { commandQueue.readStatus("1") }
+        yield()
+        val second = backgroundScope.async { commandQueue.readStatus("2") }
+        yield()
+        assertThat(commandQueue.size()).isEqualTo(1)
+
+        commandQueue.clear()
+        assertThat(second.await()).isSameInstanceAs(first.await())
+    }
+
+    @Test
+    fun commandsArePickedUpByPriority() = runTest {
+        backgroundScope.launch { commandQueue.readStatus("anyString") }
+        yield()
+        backgroundScope.launch { commandQueue.tempBasalAbsolute(0.0, 30, true, validProfile, PumpSync.TemporaryBasalType.NORMAL) }
+        yield()
+        backgroundScope.launch { commandQueue.bolus(DetailedBolusInfo()) }
+        yield()
+        assertThat(commandQueue.size()).isEqualTo(3)
+
+        val picked = mutableListOf<Command.CommandType?>()
+        repeat(3) {
+            commandQueue.pickup()
+            picked.add(commandQueue.performing?.commandType)
+            commandQueue.resetPerforming()
+        }
+        assertThat(picked).containsExactly(Command.CommandType.BOLUS, Command.CommandType.TEMPBASAL, Command.CommandType.READSTATUS).inOrder()
+        assertThat(commandQueue.size()).isEqualTo(0)
+    }
+
     private class CustomCommand1 : CustomCommand {
 
         override val statusDescription: String
@@ -9,6 +9,7 @@ import app.aaps.core.data.pump.defs.PumpDescription
 import app.aaps.core.interfaces.alerts.LocalAlertUtils
 import app.aaps.core.interfaces.constraints.ConstraintsChecker
 import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.profiling.Profiler
 import app.aaps.core.interfaces.pump.BolusProgressData
 import app.aaps.core.interfaces.pump.PumpSync
 import app.aaps.core.interfaces.smsCommunicator.SmsCommunicator
@@ -18,9 +19,11 @@ import app.aaps.shared.tests.TestBaseWithProfile
 import com.google.common.truth.Truth.assertThat
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.emptyFlow
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.test.currentTime
 import kotlinx.coroutines.test.runTest
 import kotlinx.coroutines.yield
 import org.junit.jupiter.api.BeforeEach
@@ -46,6 +49,7 @@ class QueueWorkerTest : TestBaseWithProfile() {
     private val smsCommunicatorProvider: Provider<SmsCommunicator> by lazy { Provider { smsCommunicator } }
     @Mock lateinit var jobName: CommandQueueName
     @Mock lateinit var workManager: WorkManager
+    @Mock lateinit var profiler: Profiler
 
     private val testScope = CoroutineScope(Dispatchers.Unconfined)
     private val bolusProgressData by lazy { BolusProgressData(ch, rh, testScope) }
@@ -62,6 +66,7 @@ class QueueWorkerTest : TestBaseWithProfile() {
                 it.preferences = preferences
                 it.config = config
                 it.bolusProgressData = bolusProgressData
+                it.profiler = profiler
             }
         }
     }
@@ -108,4 +113,19 @@ class QueueWorkerTest : TestBaseWithProfile() {
         assertIs<ListenableWorker.Result.Success>(result)
         assertThat(commandQueue.size()).isEqualTo(0)
     }
+
+    @Test
+    fun commandsOnOpenConnectionAreExecutedWithoutPolling() = runTest(timeout = 30.seconds) {
+        // pump keeps connection open, worker waits in awaitChange() between commands
+        testPumpPlugin.waitForDisconnection = 3600
+        backgroundScope.launch { sut.doWorkAndLog() }
+        repeat(5) {
+            delay(200)
+            // virtual time: polling would return only after 1 s awaitChange timeout
+            val start = currentTime
+            commandQueue.tempBasalAbsolute(2.0, 60, true, validProfile, PumpSync.TemporaryBasalType.NORMAL)
+            assertThat(currentTime - start).isLessThan(1000L)
+        }
+        assertThat(commandQueue.size()).isEqualTo(0)
+    }
 }
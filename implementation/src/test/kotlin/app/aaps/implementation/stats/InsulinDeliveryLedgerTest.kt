@@ -0,0 +1,94 @@
+package app.aaps.implementation.stats
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+
+class InsulinDeliveryLedgerTest {
+
+    private fun slots(vararg basal: Double) = InsulinDeliveryLedger.Slots(basal.size).also { basal.copyInto(it.basal) }
+
+    @Test
+    fun `totals are difference of prefix sums`() {
+        val ledger = InsulinDeliveryLedger()
+        val (generation, from) = ledger.fillPosition(100)
+        assertThat(from).isEqualTo(100L)
+        ledger.append(generation, from, slots(0.1, 0.2, 0.3, 0.4))
+
+        assertThat(ledger.totals(100, 104)!!.basal).isWithin(1e-9).of(1.0)
+        assertThat(ledger.totals(101, 103)!!.basal).isWithin(1e-9).of(0.5)
+        assertThat(ledger.totals(102, 102)!!.basal).isEqualTo(0.0)
+        assertThat(ledger.totals(99, 103)).isNull()
+        assertThat(ledger.totals(101, 105)).isNull()
+    }
+
+    @Test
+    fun `fillPosition continues covered run`() {
+        val ledger = InsulinDeliveryLedger()
+        ledger.append(ledger.fillPosition(100).first, 100, slots(0.1, 0.1))
+
+        assertThat(ledger.fillPosition(101).second).isEqualTo(102L)
+        assertThat(ledger.fillPosition(102).second).isEqualTo(102L)
+        // gap or older than run starts new run
+        assertThat(ledger.fillPosition(103).second).isEqualTo(103L)
+        assertThat(ledger.fillPosition(99).second).isEqualTo(99L)
+    }
+
+    @Test
+    fun `flags are tracked per range`() {
+        val ledger = InsulinDeliveryLedger()
+        val slots = slots(0.1, 0.1, 0.1).also {
+            it.tbrRunning[1] = true
+            it.profileMissing[2] = true
+            it.extended[1] = 0.5
+        }
+        ledger.append(ledger.fillPosition(0).first, 0, slots)
+
+        assertThat(ledger.totals(0, 1)).isEqualTo(InsulinDeliveryLedger.Totals(0.1, 0.0, tbrRunning = false, profileMissing = false))
+        assertThat(ledger.totals(0, 2)!!.tbrRunning).isTrue()
+        assertThat(ledger.totals(0, 2)!!.extended).isWithin(1e-9).of(0.5)
+        assertThat(ledger.totals(0, 2)!!.profileMissing).isFalse()
+        assertThat(ledger.totals(2, 3)!!.profileMissing).isTrue()
+    }
+
+    @Test
+    fun `invalidateFrom drops affected slots`() {
+        val ledger = InsulinDeliveryLedger()
+        ledger.append(ledger.fillPosition(100).first, 100, slots(0.1, 0.1, 0.1, 0.1))
+
+        ledger.invalidateFrom(102 * InsulinDeliveryLedger.SLOT_MSECS + 1000)
+
+        assertThat(ledger.totals(100, 102)).isNotNull()
+        assertThat(ledger.totals(100, 103)).isNull()
+        assertThat(ledger.fillPosition(100).second).isEqualTo(102L)
+    }
+
+    @Test
+    fun `append is ignored after invalidation`() {
+        val ledger = InsulinDeliveryLedger()
+        val (generation, from) = ledger.fillPosition(100)
+        ledger.invalidateFrom(0)
+        ledger.append(generation, from, slots(0.1))
+
+        assertThat(ledger.totals(100, 101)).isNull()
+    }
+
+    @Test
+    fun `reset drops everything`() {
+        val ledger = InsulinDeliveryLedger()
+        ledger.append(ledger.fillPosition(100).first, 100, slots(0.1))
+        ledger.reset()
+
+        assertThat(ledger.totals(100, 101)).isNull()
+    }
+
+    @Test
+    fun `oldest slots are dropped when full`() {
+        val ledger = InsulinDeliveryLedger(maxSlots = 8)
+        ledger.append(ledger.fillPosition(0).first, 0, slots(*DoubleArray(10) { it.toDouble() }))
+
+        assertThat(ledger.totals(0, 2)).isNull()
+        // 2 slots dropped when 9th was added, kept 2..9
+        assertThat(ledger.totals(2, 10)!!.basal).isWithin(1e-9).of((2..9).sum().toDouble())
+        assertThat(ledger.totals(5, 7)!!.basal).isWithin(1e-9).of(11.0)
+    }
+}
@@ -2,22 +2,31 @@ package app.aaps.implementation.stats
 
 import androidx.collection.LongSparseArray
 import app.aaps.core.data.aps.AverageTDD
+import app.aaps.core.data.aps.BasalData
 import app.aaps.core.data.model.TDD
 import app.aaps.core.data.time.T
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.iob.IobCobCalculator
 import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.interfaces.profile.EffectiveProfile
 import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.core.interfaces.pump.Pump
 import app.aaps.core.interfaces.resources.ResourceHelper
+import app.aaps.core.interfaces.rx.events.EventConfigBuilderChange
 import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.core.interfaces.utils.MidnightTime
 import app.aaps.shared.tests.TestBase
 import com.google.common.truth.Truth.assertThat
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.emptyFlow
+import kotlinx.coroutines.test.runTest
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
 import org.mockito.kotlin.whenever
 
 class TddCalculatorImplTest : TestBase() {
@@ -28,6 +37,8 @@ class TddCalculatorImplTest : TestBase() {
     @Mock lateinit var dateUtil: DateUtil
     @Mock lateinit var iobCobCalculator: IobCobCalculator
     @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var profile: EffectiveProfile
+    @Mock lateinit var pump: Pump
 
     private lateinit var tddCalculator: TddCalculatorImpl
 
@@ -36,10 +47,82 @@ class TddCalculatorImplTest : TestBase() {
 
     @BeforeEach
     fun setup() {
-        tddCalculator = TddCalculatorImpl(aapsLogger, activePlugin, profileFunction, dateUtil, iobCobCalculator, persistenceLayer)
+        whenever(persistenceLayer.observeChanges(any<Class<*>>())).thenReturn(emptyFlow())
+        whenever(persistenceLayer.databaseClearedFlow).thenReturn(emptyFlow())
+        tddCalculator = TddCalculatorImpl(aapsLogger, activePlugin, profileFunction, dateUtil, iobCobCalculator, persistenceLayer, rxBus, CoroutineScope(Dispatchers.Unconfined))
         whenever(dateUtil.now()).thenReturn(now)
     }
 
+    private suspend fun stubBasal(rate: Double) {
+        whenever(activePlugin.activePump).thenReturn(pump)
+        whenever(pump.isFakingTempsByExtendedBoluses).thenReturn(false)
+        whenever(profileFunction.getProfile(any())).thenReturn(profile)
+        whenever(iobCobCalculator.getBasalData(any(), any())).thenReturn(BasalData().apply { tempBasalAbsolute = rate })
+        whenever(persistenceLayer.getBolusesFromTimeToTime(any(), any(), any())).thenReturn(emptyList())
+        whenever(persistenceLayer.getCarbsFromTimeToTimeExpanded(any(), any(), any())).thenReturn(emptyList())
+        whenever(persistenceLayer.getExtendedBolusActiveAt(any())).thenReturn(null)
+        whenever(persistenceLayer.getExtendedBolusesStartingFromTimeToTime(any(), any(), any())).thenReturn(emptyList())
+    }
+
+    @Test
+    fun `calculateInterval sums basal in 5 min steps`() = runTest {
+        stubBasal(1.2)
+        val end = now - now % T.mins(5).msecs()
+
+        val tdd = tddCalculator.calculateInterval(end - T.hours(4).msecs(), end, allowMissingData = false)
+
+        assertThat(tdd?.basalAmount).isWithin(0.0001).of(4.8)
+        assertThat(tdd?.totalAmount).isWithin(0.0001).of(4.8)
+    }
+
+    @Test
+    fun `calculateInterval serves overlapping intervals from ledger`() = runTest {
+        stubBasal(1.2)
+        val end = now - now % T.mins(5).msecs()
+
+        tddCalculator.calculateInterval(end - T.hours(4).msecs(), end, allowMissingData = false)
+        val tdd = tddCalculator.calculateInterval(end - T.hours(3).msecs(), end - T.hours(1).msecs(), allowMissingData = false)
+
+        assertThat(tdd?.basalAmount).isWithin(0.0001).of(2.4)
+        // 48 slots of the first call only
+        verify(iobCobCalculator, times(48)).getBasalData(any(), any())
+    }
+
+    @Test
+    fun `calculateInterval clears ledger on config builder change`() = runTest {
+        stubBasal(1.2)
+        val end = now - now % T.mins(5).msecs()
+
+        tddCalculator.calculateInterval(end - T.hours(1).msecs(), end, allowMissingData = false)
+        rxBus.send(EventConfigBuilderChange())
+        tddCalculator.calculateInterval(end - T.hours(1).msecs(), end, allowMissingData = false)
+
+        verify(iobCobCalculator, times(24)).getBasalData(any(), any())
+    }
+
+    @Test
+    fun `calculateInterval clears ledger when extended bolus emulation changes`() = runTest {
+        stubBasal(1.2)
+        val end = now - now % T.mins(5).msecs()
+
+        tddCalculator.calculateInterval(end - T.hours(1).msecs(), end, allowMissingData = false)
+        whenever(pump.isFakingTempsByExtendedBoluses).thenReturn(true)
+        tddCalculator.calculateInterval(end - T.hours(1).msecs(), end, allowMissingData = false)
+        tddCalculator.calculateInterval(end - T.hours(1).msecs(), end, allowMissingData = false)
+
+        // calculated again after switch only
+        verify(iobCobCalculator, times(24)).getBasalData(any(), any())
+    }
+
+    @Test
+    fun `calculateInterval returns null on missing profile`() = runTest {
+        stubBasal(1.2)
+        whenever(profileFunction.getProfile(any())).thenReturn(null)
+        val end = now - now % T.mins(5).msecs()
+
+        assertThat(tddCalculator.calculateInterval(end - T.hours(1).msecs(), end, allowMissingData = false)).isNull()
+    }
+
     @Test
     fun `averageTDD returns null when input is null`() {
         val result = tddCalculator.averageTDD(null)
@@ -34,13 +34,13 @@ class TrendCalculatorImplTest : TestBase() {
 
     @Test
     fun `getTrendArrow returns null when data is null`() {
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(null)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(null)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isNull()
     }
 
     @Test
     fun `getTrendArrow returns null when data is empty`() {
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(mutableListOf())
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(mutableListOf())
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isNull()
     }
 
@@ -49,7 +49,7 @@ class TrendCalculatorImplTest : TestBase() {
         val data = mutableListOf(
             createGlucoseValue(100.0, 1000L)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.NONE)
     }
 
@@ -62,7 +62,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 80.0),  // 20 mg/dL drop over 5 min = -4 per minute
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.DOUBLE_DOWN)
     }
 
@@ -74,7 +74,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 87.5),  // 12.5 mg/dL drop over 5 min = -2.5 per minute
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.SINGLE_DOWN)
     }
 
@@ -86,7 +86,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 92.5),  // 7.5 mg/dL drop over 5 min = -1.5 per minute
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.FORTY_FIVE_DOWN)
     }
 
@@ -96,7 +96,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 100.0),
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.FLAT)
     }
 
@@ -108,7 +108,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 107.5),  // 7.5 mg/dL rise over 5 min = 1.5 per minute
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.FORTY_FIVE_UP)
     }
 
@@ -120,7 +120,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 112.5),  // 12.5 mg/dL rise over 5 min = 2.5 per minute
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.SINGLE_UP)
     }
 
@@ -132,7 +132,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 120.0),  // 20 mg/dL rise over 5 min = 4 per minute
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.DOUBLE_UP)
     }
 
@@ -143,7 +143,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 350.0),  // 250 mg/dL rise over 5 min = 50 per minute
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.NONE)
     }
 
@@ -153,7 +153,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 110.0),
             createGlucoseValue(100.0, 300000L, recalculated = 100.0)  // Same timestamp
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.FLAT)
     }
 
@@ -163,7 +163,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 112.5, trendArrow = TrendArrow.FLAT),  // Smoothed value differs
             createGlucoseValue(95.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         // Should recalculate and get SINGLE_UP (12.5 mg/dL rise over 5 min = 2.5 per minute)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.SINGLE_UP)
     }
@@ -174,7 +174,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 80.0),
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendDescription(autosensDataStore)).isEqualTo("Double Down")
     }
 
@@ -184,7 +184,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 87.5),
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendDescription(autosensDataStore)).isEqualTo("Single Down")
     }
 
@@ -194,7 +194,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 92.5),
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendDescription(autosensDataStore)).isEqualTo("Forty Five Down")
     }
 
@@ -204,7 +204,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 100.0),
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendDescription(autosensDataStore)).isEqualTo("Flat")
     }
 
@@ -214,7 +214,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 107.5),
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendDescription(autosensDataStore)).isEqualTo("Forty Five Up")
     }
 
@@ -224,7 +224,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 112.5),
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendDescription(autosensDataStore)).isEqualTo("Single Up")
     }
 
@@ -234,7 +234,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 120.0),
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendDescription(autosensDataStore)).isEqualTo("Double Up")
     }
 
@@ -243,13 +243,13 @@ class TrendCalculatorImplTest : TestBase() {
         val data = mutableListOf(
             createGlucoseValue(100.0, 1000L)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendDescription(autosensDataStore)).isEqualTo("None")
     }
 
     @Test
     fun `getTrendDescription handles null data`() {
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(null)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(null)
         assertThat(trendCalculator.getTrendDescription(autosensDataStore)).isEqualTo("Unknown")
     }
 
@@ -260,7 +260,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 82.5),  // -17.5 mg/dL over 5 min
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.DOUBLE_DOWN)
     }
 
@@ -271,7 +271,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 90.0),  // -10 mg/dL over 5 min
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.SINGLE_DOWN)
     }
 
@@ -282,7 +282,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 95.0),  // -5 mg/dL over 5 min
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.FORTY_FIVE_DOWN)
     }
 
@@ -293,7 +293,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 105.0),  // 5 mg/dL over 5 min
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.FLAT)
     }
 
@@ -304,7 +304,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 110.0),  // 10 mg/dL over 5 min
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.FORTY_FIVE_UP)
     }
 
@@ -315,7 +315,7 @@ class TrendCalculatorImplTest : TestBase() {
             createGlucoseValue(100.0, 300000L, recalculated = 117.5),  // 17.5 mg/dL over 5 min
             createGlucoseValue(100.0, 0L, recalculated = 100.0)
         )
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(data)
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(data)
         assertThat(trendCalculator.getTrendArrow(autosensDataStore)).isEqualTo(TrendArrow.SINGLE_UP)
     }
 
@@ -0,0 +1,51 @@
+package app.aaps.plugins.aps.autotune
+
+import app.aaps.core.data.time.T
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.cancel
+
+/**
+ * Loads database records of upcoming Autotune days in parallel while current day is tuned
+ *
+ * Tuning itself stays sequential (each day starts from the profile tuned by the previous day),
+ * only loading runs ahead, at most [lookAhead] days to keep memory bounded.
+ *
+ * @param days start of days (4 AM) in processing order
+ */
+class AutotuneDayLoader(
+    private val autotuneIob: AutotuneIob,
+    private val days: List<Long>,
+    private val dia: Double,
+    private val lookAhead: Int = LOOK_AHEAD_DAYS
+) {
+
+    companion object {
+
+        const val LOOK_AHEAD_DAYS = 4
+    }
+
+    private val scope = CoroutineScope(Dispatchers.IO.limitedParallelism(lookAhead) + Job())
+    private val loading = HashMap<Long, Deferred<AutotuneIob.DayData>>()
+    private var next = 0
+
+    suspend fun await(from: Long): AutotuneIob.DayData {
+        val requested = loading.remove(from) ?: load(from)
+        while (next < days.size && loading.size < lookAhead) {
+            val day = days[next++]
+            if (day != from && !loading.containsKey(day)) loading[day] = load(day)
+        }
+        return requested.await()
+    }
+
+    fun close() {
+        scope.cancel()
+        loading.clear()
+    }
+
+    private fun load(from: Long): Deferred<AutotuneIob.DayData> =
+        scope.async { autotuneIob.loadDayData(from, from + T.days(1).msecs(), dia) }
+}
@@ -53,9 +53,46 @@ open class AutotuneIob @Inject constructor(
     private lateinit var tempBasals: ArrayList<TB>
     var startBG: Long = 0
     private var endBG: Long = 0
-    private fun range(): Long = (60 * 60 * 1000L * dia + T.hours(2).msecs()).toLong()
+    private fun range(dia: Double = this.dia): Long = (60 * 60 * 1000L * dia + T.hours(2).msecs()).toLong()
+
+    // timestamps of sorted boluses (newest first) for binary search in getIOB, null if boluses are not sorted
+    private var indexedBoluses: List<BS>? = null
+    private var indexedBolusesSize = 0
+    private var bolusTimestamps: LongArray? = null
+
+    /**
+     * Database records needed to prepare one day (from 4 AM to 4 AM next day)
+     * Loaded independently of tuned profile so days can be loaded ahead in parallel
+     */
+    class DayData(
+        val from: Long,
+        val to: Long,
+        val dia: Double,
+        val glucose: List<GV>,
+        val carbs: List<CA>,
+        val boluses: List<BS>,
+        val tempBasals: List<TB>,
+        val extendedBoluses: List<EB>
+    )
+
+    suspend fun loadDayData(from: Long, to: Long, dia: Double): DayData {
+        val start = from - range(dia)
+        return DayData(
+            from = from,
+            to = to,
+            dia = dia,
+            glucose = persistenceLayer.getBgReadingsDataFromTimeToTime(from, to, false),
+            carbs = persistenceLayer.getCarbsFromTimeToTimeExpanded(start, to, false),
+            boluses = persistenceLayer.getBolusesFromTimeToTime(start, to, false),
+            tempBasals = persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(start, to, false),
+            extendedBoluses = persistenceLayer.getExtendedBolusesStartingFromTimeToTime(start, to, false)
+        )
+    }
 
-    suspend fun initializeData(from: Long, to: Long, tunedProfile: ATProfile) {
+    /**
+     * @param prefetched data loaded by [loadDayData], used if it matches requested day and DIA
+     */
+    suspend fun initializeData(from: Long, to: Long, tunedProfile: ATProfile, prefetched: DayData? = null) {
         dia = tunedProfile.dia
         startBG = from
         endBG = to
@@ -65,10 +102,11 @@ open class AutotuneIob @Inject constructor(
         tempBasals = ArrayList()
         if (profileFunction.getProfile(from - range()) == null)
             return
-        initializeBgReadings(from, to)
-        initializeTreatmentData(from - range(), to)
-        initializeTempBasalData(from - range(), to, tunedProfile)
-        initializeExtendedBolusData(from - range(), to, tunedProfile)
+        val data = prefetched?.takeIf { it.from == from && it.to == to && it.dia == dia } ?: loadDayData(from, to, dia)
+        glucose = data.glucose
+        initializeTreatmentData(from - range(), to, data.carbs, data.boluses)
+        initializeTempBasalData(data.tempBasals, tunedProfile)
+        initializeExtendedBolusData(data.extendedBoluses, tunedProfile)
         sortTempBasal()
         addNeutralTempBasal(from - range(), to, tunedProfile)        // Without Neutral TBR, Autotune Web will ignore iob for periods without TBR running
         sortNsTreatments()
@@ -91,18 +129,13 @@ open class AutotuneIob @Inject constructor(
         boluses = ArrayList(boluses.toList().sortedWith { o1: BS, o2: BS -> if (o2.timestamp > o1.timestamp) 1 else -1 })
     }
 
-    private suspend fun initializeBgReadings(from: Long, to: Long) {
-        glucose = persistenceLayer.getBgReadingsDataFromTimeToTime(from, to, false)
-    }
-
     //nsTreatment is used only for export data, meals is used in AutotunePrep
-    private fun initializeTreatmentData(from: Long, to: Long) {
+    private fun initializeTreatmentData(from: Long, to: Long, tmpCarbs: List<CA>, tmpBolus: List<BS>) {
         val oldestBgDate = if (glucose.isNotEmpty()) glucose[glucose.size - 1].timestamp else from
         aapsLogger.debug(
             LTag.AUTOTUNE,
             "Check BG date: BG Size: " + glucose.size + " OldestBG: " + dateUtil.dateAndTimeAndSecondsString(oldestBgDate) + " to: " + dateUtil.dateAndTimeAndSecondsString(to)
         )
-        val tmpCarbs = runBlocking { persistenceLayer.getCarbsFromTimeToTimeExpanded(from, to, false) }
         aapsLogger.debug(LTag.AUTOTUNE, "Nb treatments after query: " + tmpCarbs.size)
         var nbCarbs = 0
         for (i in tmpCarbs.indices) {
@@ -115,7 +148,6 @@ open class AutotuneIob @Inject constructor(
                     nbCarbs++
             }
         }
-        val tmpBolus = runBlocking { persistenceLayer.getBolusesFromTimeToTime(from, to, false) }
         var nbSMB = 0
         var nbBolus = 0
         for (i in tmpBolus.indices) {
@@ -136,8 +168,7 @@ open class AutotuneIob @Inject constructor(
     }
 
     //nsTreatment is used only for export data
-    private suspend fun initializeTempBasalData(from: Long, to: Long, tunedProfile: ATProfile) {
-        val tBRs = persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(from, to, false)
+    private suspend fun initializeTempBasalData(tBRs: List<TB>, tunedProfile: ATProfile) {
         //log.debug("D/AutotunePlugin tempBasal size before cleaning:" + tBRs.size);
         for (i in tBRs.indices) {
             if (tBRs[i].isValid)
@@ -147,8 +178,7 @@ open class AutotuneIob @Inject constructor(
     }
 
     //nsTreatment is used only for export data
-    private suspend fun initializeExtendedBolusData(from: Long, to: Long, tunedProfile: ATProfile) {
-        val extendedBoluses = persistenceLayer.getExtendedBolusesStartingFromTimeToTime(from, to, false)
+    private suspend fun initializeExtendedBolusData(extendedBoluses: List<EB>, tunedProfile: ATProfile) {
         for (i in extendedBoluses.indices) {
             val eb = extendedBoluses[i]
             if (eb.isValid)
@@ -256,7 +286,10 @@ open class AutotuneIob @Inject constructor(
     private fun getCalculationToTimeTreatments(time: Long, iCfg: ICfg): IobTotal {
         val total = IobTotal(time)
         val detailedLog = preferences.get(BooleanKey.AutotuneAdditionalLog)
-        for (pos in boluses.indices) {
+        // only boluses within [time - insulinEndTime, time] contribute
+        val timestamps = bolusTimestamps()
+        val window = if (timestamps != null) firstAtOrBefore(timestamps, time) until firstBefore(timestamps, time - iCfg.insulinEndTime) else boluses.indices
+        for (pos in window) {
             val t = boluses[pos]
             if (!t.isValid) continue
             if (t.timestamp > time || t.timestamp < time - iCfg.insulinEndTime) continue
@@ -273,6 +306,32 @@ open class AutotuneIob @Inject constructor(
         return total
     }
 
+    // sorted timestamps of current boluses, rebuilt when boluses are replaced
+    private fun bolusTimestamps(): LongArray? {
+        if (indexedBoluses !== boluses || indexedBolusesSize != boluses.size) {
+            val timestamps = LongArray(boluses.size) { boluses[it].timestamp }
+            val sorted = (1 until timestamps.size).all { timestamps[it - 1] >= timestamps[it] }
+            bolusTimestamps = if (sorted) timestamps else null
+            indexedBoluses = boluses
+            indexedBolusesSize = boluses.size
+        }
+        return bolusTimestamps
+    }
+
+    // first index of descending timestamps with timestamp <= time
+    private fun firstAtOrBefore(timestamps: LongArray, time: Long): Int {
+        var low = 0
+        var high = timestamps.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (timestamps[mid] > time) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    // first index of descending timestamps with timestamp < time
+    private fun firstBefore(timestamps: LongArray, time: Long): Int = firstAtOrBefore(timestamps, time - 1)
+
     private fun convertToBoluses(eb: EB): MutableList<BS> {
         val result: MutableList<BS> = ArrayList()
         val aboutFiveMinIntervals = eb.duration / T.mins(5).msecs() + 1
@@ -197,56 +197,66 @@ class AutotunePlugin @Inject constructor(
             return
         }
         var currentCalcDay = 0
-        for (i in 0 until daysBack) {
-            val from = startTime + i * 24 * 60 * 60 * 1000L         // get 24 hours BG values from 4 AM to 4 AM next day
-            val to = from + 24 * 60 * 60 * 1000L
-            if (days.isSet(from)) {
-                currentCalcDay++
+        val dayLoader = AutotuneDayLoader(
+            autotuneIob,
+            days = (0 until daysBack).map { startTime + it * 24 * 60 * 60 * 1000L }.filter { days.isSet(it) },
+            dia = iCfg.dia
+        )
+        try {
+            for (i in 0 until daysBack) {
+                val from = startTime + i * 24 * 60 * 60 * 1000L         // get 24 hours BG values from 4 AM to 4 AM next day
+                val to = from + 24 * 60 * 60 * 1000L
+                if (days.isSet(from)) {
+                    currentCalcDay++
 
-                log("Tune day " + (i + 1) + " of " + daysBack + " (" + currentCalcDay + " of " + calcDays + ")")
-                tunedProfile?.let {
-                    autotuneIob.initializeData(from, to, it)  //autotuneIob contains BG and Treatments data from history (<=> query for ns-treatments and ns-entries)
-                    if (autotuneIob.boluses.isEmpty()) {
+                    log("Tune day " + (i + 1) + " of " + daysBack + " (" + currentCalcDay + " of " + calcDays + ")")
+                    tunedProfile?.let {
+                        //autotuneIob contains BG and Treatments data from history (<=> query for ns-treatments and ns-entries)
+                        autotuneIob.initializeData(from, to, it, dayLoader.await(from))
+                        if (autotuneIob.boluses.isEmpty()) {
+                            result = rh.gs(R.string.autotune_error)
+                            log("No basal data on day ${i + 1}")
+                            autotuneFS.exportResult(result)
+                            autotuneFS.exportLogAndZip(lastRun)
+                            rxBus.send(EventAutotuneUpdateGui())
+                            calculationRunning = false
+                            return
+                        }
+                        autotuneFS.exportEntries(autotuneIob)               //<=> ns-entries.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine
+                        autotuneFS.exportTreatments(autotuneIob)            //<=> ns-treatments.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine (include treatments ,tempBasal and extended
+                        preppedGlucose = autotunePrep.categorize(it) //<=> autotune.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine
+                        preppedGlucose?.let { preppedGlucose ->         //preppedGlucose and tunedProfile should never be null here
+                            autotuneFS.exportPreppedGlucose(preppedGlucose)
+                            tunedProfile = autotuneCore.tuneAllTheThings(preppedGlucose, it, pumpProfile).also { tunedProfile ->
+                                autotuneFS.exportTunedProfile(tunedProfile)   //<=> newprofile.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine
+                                if (currentCalcDay < calcDays) {
+                                    log("Partial result for day ${i + 1}".trimIndent())
+                                    result = rh.gs(R.string.autotune_partial_result, currentCalcDay, calcDays)
+                                    rxBus.send(EventAutotuneUpdateGui())
+                                }
+                                logResult = showResults(tunedProfile, pumpProfile)
+                                if (detailedLog)
+                                    autotuneFS.exportLog(lastRun, i + 1)
+                            }
+                        }
+                            ?: {
+                                log("preppedGlucose is null on day ${i + 1}")
+                                tunedProfile = null
+                            }
+                    }
+                    if (tunedProfile == null) {
                         result = rh.gs(R.string.autotune_error)
-                        log("No basal data on day ${i + 1}")
+                        log("TunedProfile is null on day ${i + 1}")
                         autotuneFS.exportResult(result)
                         autotuneFS.exportLogAndZip(lastRun)
                         rxBus.send(EventAutotuneUpdateGui())
                         calculationRunning = false
                         return
                     }
-                    autotuneFS.exportEntries(autotuneIob)               //<=> ns-entries.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine
-                    autotuneFS.exportTreatments(autotuneIob)            //<=> ns-treatments.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine (include treatments ,tempBasal and extended
-                    preppedGlucose = autotunePrep.categorize(it) //<=> autotune.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine
-                    preppedGlucose?.let { preppedGlucose ->         //preppedGlucose and tunedProfile should never be null here
-                        autotuneFS.exportPreppedGlucose(preppedGlucose)
-                        tunedProfile = autotuneCore.tuneAllTheThings(preppedGlucose, it, pumpProfile).also { tunedProfile ->
-                            autotuneFS.exportTunedProfile(tunedProfile)   //<=> newprofile.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine
-                            if (currentCalcDay < calcDays) {
-                                log("Partial result for day ${i + 1}".trimIndent())
-                                result = rh.gs(R.string.autotune_partial_result, currentCalcDay, calcDays)
-                                rxBus.send(EventAutotuneUpdateGui())
-                            }
-                            logResult = showResults(tunedProfile, pumpProfile)
-                            if (detailedLog)
-                                autotuneFS.exportLog(lastRun, i + 1)
-                        }
-                    }
-                        ?: {
-                            log("preppedGlucose is null on day ${i + 1}")
-                            tunedProfile = null
-                        }
-                }
-                if (tunedProfile == null) {
-                    result = rh.gs(R.string.autotune_error)
-                    log("TunedProfile is null on day ${i + 1}")
-                    autotuneFS.exportResult(result)
-                    autotuneFS.exportLogAndZip(lastRun)
-                    rxBus.send(EventAutotuneUpdateGui())
-                    calculationRunning = false
-                    return
                 }
             }
+        } finally {
+            dayLoader.close()
         }
         result = rh.gs(R.string.autotune_result, dateUtil.dateAndTimeString(lastRun))
         if (!detailedLog)
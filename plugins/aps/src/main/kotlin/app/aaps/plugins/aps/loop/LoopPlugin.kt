@@ -26,6 +26,7 @@ import app.aaps.core.data.ue.ValueWithUnit
 import app.aaps.core.interfaces.aps.APSResult
 import app.aaps.core.interfaces.aps.Loop
 import app.aaps.core.interfaces.aps.Loop.LastRun
+import app.aaps.core.interfaces.aps.VariableSensitivityCache
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.constraints.Constraint
 import app.aaps.core.interfaces.constraints.ConstraintsChecker
@@ -45,6 +46,9 @@ import app.aaps.core.interfaces.plugin.PluginBase
 import app.aaps.core.interfaces.plugin.PluginDescription
 import app.aaps.core.interfaces.profile.Profile
 import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.profiling.TraceStage
+import app.aaps.core.interfaces.profiling.trace
 import app.aaps.core.interfaces.pump.DetailedBolusInfo
 import app.aaps.core.interfaces.pump.PumpEnactResult
 import app.aaps.core.interfaces.pump.PumpStatusProvider
@@ -124,6 +128,8 @@ class LoopPlugin @Inject constructor(
     private val pumpStatusProvider: PumpStatusProvider,
     private val decimalFormatter: DecimalFormatter,
     private val ch: ConcentrationHelper,
+    private val variableSensitivityCache: VariableSensitivityCache,
+    private val profiler: Profiler,
     @ApplicationScope private val appScope: CoroutineScope
 ) : PluginBase(
     PluginDescription()
@@ -484,6 +490,7 @@ class LoopPlugin @Inject constructor(
 
             // Store calculations to DB
             persistenceLayer.insertOrUpdateApsResult(apsResult)
+            variableSensitivityCache.addApsResult(apsResult)
 
             // Prepare for pumps using % basals
             if (pump.pumpDescription.tempBasalStyle == PumpDescription.PERCENT && allowPercentage()) {
@@ -492,6 +499,7 @@ class LoopPlugin @Inject constructor(
             apsResult.percent = (apsResult.rate / profile.getBasal() * 100).toInt()
 
             // check rate for constraints
+            val constraintsStart = profiler.begin()
             val resultAfterConstraints = apsResult.newAndClone()
             resultAfterConstraints.rateConstraint = ConstraintObject(resultAfterConstraints.rate, aapsLogger)
             resultAfterConstraints.rate = constraintChecker.applyBasalConstraints(resultAfterConstraints.rateConstraint!!, profile).value()
@@ -499,6 +507,7 @@ class LoopPlugin @Inject constructor(
             resultAfterConstraints.percent = constraintChecker.applyBasalPercentConstraints(resultAfterConstraints.percentConstraint!!, profile).value()
             resultAfterConstraints.smbConstraint = ConstraintObject(resultAfterConstraints.smb, aapsLogger)
             resultAfterConstraints.smb = constraintChecker.applyBolusConstraints(resultAfterConstraints.smbConstraint!!).value()
+            profiler.end(TraceStage.CONSTRAINTS, constraintsStart)
 
             // safety check for multiple SMBs
             val lastBolusTime = persistenceLayer.getNewestBolus()?.timestamp ?: 0L
@@ -613,7 +622,7 @@ class LoopPlugin @Inject constructor(
                         fabricPrivacy.logCustom("APSRequest")
                         // TBR request must be applied first to prevent situation where
                         // SMB was executed and zero TBR afterward failed
-                        val tbrResult = applyTBRRequest(resultAfterConstraints, profile)
+                        val tbrResult = profiler.trace(TraceStage.COMMAND_QUEUE) { applyTBRRequest(resultAfterConstraints, profile) }
                         lastRun.tbrSetByPump = tbrResult
                         lastRun.lastTBRRequest = lastRun.lastAPSRun
                         if (tbrResult.enacted || tbrResult.success) {
@@ -623,7 +632,7 @@ class LoopPlugin @Inject constructor(
                             resultAfterConstraints.deliverAt = lastRun.lastTBREnact
                             rxBus.send(EventLoopUpdateGui())
                             if (resultAfterConstraints.isBolusRequested) {
-                                val smbResult = applySMBRequest(resultAfterConstraints)
+                                val smbResult = profiler.trace(TraceStage.COMMAND_QUEUE) { applySMBRequest(resultAfterConstraints) }
                                 if (smbResult.enacted || smbResult.success) {
                                     lastRun.smbSetByPump = smbResult
                                     lastRun.lastSMBRequest = lastRun.lastAPSRun
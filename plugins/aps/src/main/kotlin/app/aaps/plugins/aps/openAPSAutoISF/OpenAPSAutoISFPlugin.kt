@@ -1,7 +1,5 @@
 package app.aaps.plugins.aps.openAPSAutoISF
 
-import androidx.collection.LongSparseArray
-import androidx.collection.forEach
 import app.aaps.core.data.aps.SMBDefaults
 import app.aaps.core.data.configuration.Constants
 import app.aaps.core.data.model.GlucoseUnit
@@ -13,6 +11,7 @@ import app.aaps.core.interfaces.aps.AutosensResult
 import app.aaps.core.interfaces.aps.CurrentTemp
 import app.aaps.core.interfaces.aps.GlucoseStatus
 import app.aaps.core.interfaces.aps.OapsProfileAutoIsf
+import app.aaps.core.interfaces.aps.VariableSensitivityCache
 import app.aaps.core.interfaces.bgQualityCheck.BgQualityCheck
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.constraints.Constraint
@@ -35,6 +34,7 @@ import app.aaps.core.interfaces.profile.Profile
 import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.profiling.TraceStage
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventAPSCalculationFinished
@@ -97,7 +97,8 @@ open class OpenAPSAutoISFPlugin @Inject constructor(
     private val profiler: Profiler,
     private val glucoseStatusCalculatorAutoIsf: GlucoseStatusCalculatorAutoIsf,
     private val apsResultProvider: Provider<APSResult>,
-    private val ch: ConcentrationHelper
+    private val ch: ConcentrationHelper,
+    private val variableSensitivityCache: VariableSensitivityCache
 ) : PluginBaseWithPreferences(
     PluginDescription()
         .mainType(PluginType.APS)
@@ -150,17 +151,7 @@ open class OpenAPSAutoISFPlugin @Inject constructor(
 
     override suspend fun onStart() {
         super.onStart()
-        var count = 0
-        val apsResults = runBlocking { persistenceLayer.getApsResults(dateUtil.now() - T.days(1).msecs(), dateUtil.now()) }
-        apsResults.forEach {
-            val glucose = it.glucoseStatus?.glucose ?: return@forEach
-            val variableSens = it.variableSens ?: return@forEach
-            val timestamp = it.date
-            val key = timestamp - timestamp % T.mins(minutesClass).msecs() + glucose.toLong()
-            if (variableSens > 0) synchronized(autoIsfCache) { autoIsfCache.put(key, variableSens) }
-            count++
-        }
-        aapsLogger.debug(LTag.APS, "Loaded $count variable sensitivity values from database")
+        variableSensitivityCache.load()
     }
 
     override fun supportsDynamicIsf() = true //: Boolean = preferences.get(BooleanKey.ApsUseAutoIsf)
@@ -168,7 +159,11 @@ open class OpenAPSAutoISFPlugin @Inject constructor(
     override fun getIsfMgdl(profile: Profile, caller: String): Double? {
         val start = dateUtil.now()
         val multiplier = (profile as ProfileSealed.EPS).value.originalPercentage / 100.0
-        val sensitivity = runBlocking { calculateVariableIsf(start) }
+        val glucose = glucoseStatusProvider.glucoseStatusData?.glucose
+        // value is calculated only for average, once per time slot and BG
+        val sensitivity =
+            if (glucose != null && variableSensitivityCache.get(algorithm, start, T.mins(minutesClass).msecs(), glucose) != null) Pair("OFF", null)
+            else runBlocking { calculateVariableIsf(start) }
         if (sensitivity.second == null && caller == "OpenAPSSMBPlugin")
             notificationManager.post(
                 NotificationId.DYN_ISF_FALLBACK,
@@ -181,19 +176,8 @@ open class OpenAPSAutoISFPlugin @Inject constructor(
     }
 
     override fun getAverageIsfMgdl(timestamp: Long, caller: String): Double? {
-        var count = 0
-        var sum = 0.0
-        val start = timestamp - T.hours(24).msecs()
-        synchronized(autoIsfCache) {
-            autoIsfCache.forEach { key, value ->
-                if (key in start..timestamp) {
-                    count++
-                    sum += value
-                }
-            }
-        }
-        val sensitivity = if (count == 0) null else sum / count
-        aapsLogger.debug(LTag.APS, "getAverageIsfMgdl() $sensitivity from $count values ${dateUtil.dateAndTimeAndSecondsString(timestamp)} $caller")
+        val sensitivity = variableSensitivityCache.getAverage(algorithm, timestamp - T.hours(24).msecs(), timestamp)
+        aapsLogger.debug(LTag.APS, "getAverageIsfMgdl() $sensitivity ${dateUtil.dateAndTimeAndSecondsString(timestamp)} $caller")
         return sensitivity
     }
 
@@ -218,23 +202,16 @@ open class OpenAPSAutoISFPlugin @Inject constructor(
         }
     }
 
-    private val autoIsfCache = LongSparseArray<Double>()
-
     private suspend fun calculateVariableIsf(timestamp: Long): Pair<String, Double?> {
         val profile = profileFunction.getProfile(timestamp)
         if (profile == null) return Pair("OFF", null)
         val glucose = glucoseStatusProvider.glucoseStatusData?.glucose ?: return Pair("GLUC", null)
-        // Round down to minutesClass min and use it as a key for caching
-        // Add BG to key as it affects calculation
-        val key = timestamp - timestamp % T.mins(minutesClass).msecs() + glucose.toLong()
-        val sensitivity = autoISF(profile)
-        if (sensitivity > 0) {
+        // Cached per minutesClass min and BG as it affects calculation
+        variableSensitivityCache.getOrCalculate(algorithm, timestamp, T.mins(minutesClass).msecs(), glucose) {
+            val sensitivity = autoISF(profile)
             // can default to 0, e.g. for the first 2-3 loops in a virgin setup
-            aapsLogger.debug("calculateVariableIsf CALC ${dateUtil.dateAndTimeAndSecondsString(timestamp)} $sensitivity")
-            synchronized(autoIsfCache) {
-                autoIsfCache.put(key, sensitivity)
-                if (autoIsfCache.size() > 1000) autoIsfCache.clear()
-            }
+            if (sensitivity > 0) aapsLogger.debug("calculateVariableIsf CALC ${dateUtil.dateAndTimeAndSecondsString(timestamp)} $sensitivity")
+            sensitivity.takeIf { it > 0 }
         }
         // this return is mandatory, otherwise it messed up the AutoISF algo.
         return Pair("OFF", null)
@@ -427,6 +404,7 @@ open class OpenAPSAutoISFPlugin @Inject constructor(
         aapsLogger.debug(LTag.APS, "AutoIsfMode:        $autoIsfMode")
         //aapsLogger.debug(LTag.APS, "AutoISF extras:     ${Json.encodeToString(OapsProfile.serializer(), oapsProfile)}")
 
+        val determineBasalStart = profiler.begin()
         determineBasalAutoISF.determine_basal(
             glucose_status = glucoseStatus,
             currenttemp = currentTemp,
@@ -446,6 +424,7 @@ open class OpenAPSAutoISFPlugin @Inject constructor(
             auto_isf_consoleError = consoleError,
             auto_isf_consoleLog = consoleLog
         ).also {
+            profiler.end(TraceStage.DETERMINE_BASAL, determineBasalStart)
             val determineBasalResult = apsResultProvider.get().with(it)
             // Preserve input data
             determineBasalResult.inputConstraints = inputConstraints
@@ -1,7 +1,5 @@
 package app.aaps.plugins.aps.openAPSSMB
 
-import androidx.collection.LongSparseArray
-import androidx.collection.forEach
 import app.aaps.core.data.aps.SMBDefaults
 import app.aaps.core.data.model.GlucoseUnit
 import app.aaps.core.data.plugin.PluginType
@@ -12,6 +10,7 @@ import app.aaps.core.interfaces.aps.AutosensResult
 import app.aaps.core.interfaces.aps.CurrentTemp
 import app.aaps.core.interfaces.aps.GlucoseStatus
 import app.aaps.core.interfaces.aps.OapsProfile
+import app.aaps.core.interfaces.aps.VariableSensitivityCache
 import app.aaps.core.interfaces.bgQualityCheck.BgQualityCheck
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.constraints.Constraint
@@ -35,6 +34,7 @@ import app.aaps.core.interfaces.profile.Profile
 import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.profiling.TraceStage
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventAPSCalculationFinished
@@ -100,7 +100,8 @@ open class OpenAPSSMBPlugin @Inject constructor(
     private val glucoseStatusCalculatorSMB: GlucoseStatusCalculatorSMB,
     private val apsResultProvider: Provider<APSResult>,
     private val ch: ConcentrationHelper,
-    private val fabricPrivacy: FabricPrivacy
+    private val fabricPrivacy: FabricPrivacy,
+    private val variableSensitivityCache: VariableSensitivityCache
 ) : PluginBaseWithPreferences(
     PluginDescription()
         .mainType(PluginType.APS)
@@ -125,17 +126,7 @@ open class OpenAPSSMBPlugin @Inject constructor(
 
     override suspend fun onStart() {
         super.onStart()
-        var count = 0
-        val apsResults = runBlocking { persistenceLayer.getApsResults(dateUtil.now() - T.days(1).msecs(), dateUtil.now()) }
-        apsResults.forEach {
-            val glucose = it.glucoseStatus?.glucose ?: return@forEach
-            val variableSens = it.variableSens ?: return@forEach
-            val timestamp = it.date
-            val key = timestamp - timestamp % T.mins(30).msecs() + glucose.toLong()
-            if (variableSens > 0) synchronized(dynIsfCache) { dynIsfCache.put(key, variableSens) }
-            count++
-        }
-        aapsLogger.debug(LTag.APS, "Loaded $count variable sensitivity values from database")
+        variableSensitivityCache.load()
     }
 
     // last values
@@ -147,7 +138,7 @@ open class OpenAPSSMBPlugin @Inject constructor(
     override fun getIsfMgdl(profile: Profile, caller: String): Double? {
         val start = dateUtil.now()
         val multiplier = (profile as ProfileSealed.EPS).value.originalPercentage / 100.0
-        val sensitivity = runBlocking { calculateVariableIsf(start, multiplier) }
+        val sensitivity = cachedVariableIsf(start) ?: runBlocking { calculateVariableIsf(start, multiplier) }
         if (sensitivity.second == null)
             notificationManager.post(
                 NotificationId.DYN_ISF_FALLBACK,
@@ -160,19 +151,8 @@ open class OpenAPSSMBPlugin @Inject constructor(
     }
 
     override fun getAverageIsfMgdl(timestamp: Long, caller: String): Double? {
-        var count = 0
-        var sum = 0.0
-        val start = timestamp - T.hours(24).msecs()
-        synchronized(dynIsfCache) {
-            dynIsfCache.forEach { key, value ->
-                if (key in start..timestamp) {
-                    count++
-                    sum += value
-                }
-            }
-        }
-        val sensitivity = if (count == 0) null else sum / count
-        aapsLogger.debug(LTag.APS, "getAverageIsfMgdl() $sensitivity from $count values ${dateUtil.dateAndTimeAndSecondsString(timestamp)} $caller")
+        val sensitivity = variableSensitivityCache.getAverage(algorithm, timestamp - T.hours(24).msecs(), timestamp)
+        aapsLogger.debug(LTag.APS, "getAverageIsfMgdl() $sensitivity ${dateUtil.dateAndTimeAndSecondsString(timestamp)} $caller")
         return sensitivity
     }
 
@@ -194,36 +174,33 @@ open class OpenAPSSMBPlugin @Inject constructor(
         }
     }
 
-    private val dynIsfCache = LongSparseArray<Double>()
-
-    private suspend fun calculateVariableIsf(timestamp: Long, multiplier: Double): Pair<String, Double?> {
+    /**
+     * Variable ISF known without TDD calculation
+     * @return reason and value or null if calculation is needed
+     */
+    private fun cachedVariableIsf(timestamp: Long): Pair<String, Double?>? {
         if (!preferences.get(BooleanKey.ApsUseDynamicSensitivity)) return Pair("OFF", null)
 
-        val result = persistenceLayer.getApsResultCloseTo(timestamp)
-        if (result?.variableSens != null && result.variableSens != 0.0) {
-            //aapsLogger.debug("calculateVariableIsf $caller DB  ${dateUtil.dateAndTimeAndSecondsString(timestamp)} ${result.variableSens}")
-            return Pair("DB", result.variableSens)
-        }
+        variableSensitivityCache.getLastApsResultSensitivity(timestamp, T.mins(5).msecs())?.let { return Pair("APS", it) }
 
         val glucose = glucoseStatusProvider.glucoseStatusData?.glucose ?: return Pair("GLUC", null)
-        // Round down to 30 min and use it as a key for caching
-        // Add BG to key as it affects calculation
-        val key = timestamp - timestamp % T.mins(30).msecs() + glucose.toLong()
-        val cached = synchronized(dynIsfCache) { dynIsfCache[key] }
-        if (cached != null && timestamp < dateUtil.now()) {
-            //aapsLogger.debug("calculateVariableIsf $caller HIT ${dateUtil.dateAndTimeAndSecondsString(timestamp)} $cached")
-            return Pair("HIT", cached)
-        }
+        // Values are cached per 30 min and BG as it affects calculation
+        return variableSensitivityCache.get(algorithm, timestamp, T.mins(30).msecs(), glucose)?.let { Pair("HIT", it) }
+    }
 
-        val dynIsfResult = calculateRawDynIsf(multiplier)
-        if (!dynIsfResult.tddPartsCalculated()) return Pair("TDD miss", null)
-        // no cached result found, let's calculate the value
-        //aapsLogger.debug("calculateVariableIsf $caller CAL ${dateUtil.dateAndTimeAndSecondsString(timestamp)} $sensitivity")
-        synchronized(dynIsfCache) {
-            dynIsfResult.variableSensitivity?.let { dynIsfCache.put(key, it) }
-            if (dynIsfCache.size() > 1000) dynIsfCache.clear()
+    private suspend fun calculateVariableIsf(timestamp: Long, multiplier: Double): Pair<String, Double?> {
+        variableSensitivityCache.load()
+        cachedVariableIsf(timestamp)?.let { return it }
+
+        val glucose = glucoseStatusProvider.glucoseStatusData?.glucose ?: return Pair("GLUC", null)
+        var reason = "HIT"
+        // concurrent callers wait for single calculation
+        val sensitivity = variableSensitivityCache.getOrCalculate(algorithm, timestamp, T.mins(30).msecs(), glucose) {
+            val dynIsfResult = calculateRawDynIsf(multiplier)
+            reason = if (dynIsfResult.tddPartsCalculated()) "CALC" else "TDD miss"
+            dynIsfResult.variableSensitivity.takeIf { dynIsfResult.tddPartsCalculated() }
         }
-        return Pair("CALC", dynIsfResult.variableSensitivity)
+        return Pair(reason, sensitivity)
     }
 
     internal class DynIsfResult {
@@ -480,6 +457,7 @@ open class OpenAPSSMBPlugin @Inject constructor(
         aapsLogger.debug(LTag.APS, "flatBGsDetected:    $flatBGsDetected")
         aapsLogger.debug(LTag.APS, "DynIsfMode:         $dynIsfMode")
 
+        val determineBasalStart = profiler.begin()
         determineBasalSMB.determine_basal(
             glucose_status = glucoseStatus,
             currenttemp = currentTemp,
@@ -492,6 +470,7 @@ open class OpenAPSSMBPlugin @Inject constructor(
             flatBGsDetected = flatBGsDetected,
             dynIsfMode = effectiveDynIsfMode
         ).also {
+            profiler.end(TraceStage.DETERMINE_BASAL, determineBasalStart)
             val determineBasalResult = apsResultProvider.get().with(it)
             // Preserve input data
             determineBasalResult.inputConstraints = inputConstraints
@@ -0,0 +1,88 @@
+package app.aaps.plugins.aps
+
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.aps.CurrentTemp
+import app.aaps.core.interfaces.aps.GlucoseStatusAutoIsf
+import app.aaps.core.interfaces.aps.GlucoseStatusSMB
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.aps.MealData
+import app.aaps.core.interfaces.aps.OapsProfile
+import app.aaps.core.interfaces.aps.OapsProfileAutoIsf
+import app.aaps.plugins.aps.openAPSAutoISF.DetermineBasalAutoISF
+import app.aaps.plugins.aps.openAPSSMB.DetermineBasalSMB
+import app.aaps.shared.tests.TestBaseWithProfile
+import app.aaps.shared.tests.benchmark.Benchmark
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty
+import kotlin.math.exp
+
+@EnabledIfSystemProperty(named = Benchmark.PROPERTY, matches = "true")
+class DetermineBasalBenchmark : TestBaseWithProfile() {
+
+    // rising after meal, IOB decaying
+    private val currentTemp = CurrentTemp(duration = 20, rate = 1.2, minutesrunning = 10)
+    private val autosensResult = AutosensResult(ratio = 0.95)
+    private val mealData = MealData(
+        carbs = 45.0, mealCOB = 25.0, slopeFromMaxDeviation = -0.5, slopeFromMinDeviation = 1.2,
+        lastBolusTime = now - T.mins(40).msecs(), lastCarbTime = now - T.mins(45).msecs()
+    )
+    private val iobArray = Array(48) { i ->
+        val time = now + T.mins(5L * i).msecs()
+        val decay = exp(-i / 24.0)
+        IobTotal(
+            time = time, iob = 3.2 * decay, activity = 0.03 * decay, basaliob = 0.4 * decay, lastBolusTime = now - T.mins(40).msecs(),
+            iobWithZeroTemp = IobTotal(time = time, iob = 3.2 * decay - 0.05 * i, activity = 0.03 * decay, basaliob = 0.4 * decay - 0.05 * i)
+        )
+    }
+
+    @Test
+    fun determineBasalSMB() {
+        val determineBasal = DetermineBasalSMB(profileUtil, fabricPrivacy)
+        val glucoseStatus = GlucoseStatusSMB(glucose = 168.0, delta = 6.0, shortAvgDelta = 5.5, longAvgDelta = 4.0, date = now)
+        val profile = OapsProfile(
+            dia = 0.0, min_5m_carbimpact = 0.0, max_iob = 8.0, max_daily_basal = 1.2, max_basal = 3.0, min_bg = 100.0, max_bg = 100.0, target_bg = 100.0,
+            carb_ratio = 10.0, sens = 50.0, autosens_adjust_targets = false, max_daily_safety_multiplier = 3.0, current_basal_safety_multiplier = 4.0,
+            high_temptarget_raises_sensitivity = false, low_temptarget_lowers_sensitivity = false, sensitivity_raises_target = true, resistance_lowers_target = false,
+            adv_target_adjustments = false, exercise_mode = false, half_basal_exercise_target = 160, maxCOB = 120, skip_neutral_temps = false, remainingCarbsCap = 90,
+            enableUAM = true, A52_risk_enable = false, SMBInterval = 3, enableSMB_with_COB = true, enableSMB_with_temptarget = false, allowSMB_with_high_temptarget = false,
+            enableSMB_always = true, enableSMB_after_carbs = true, maxSMBBasalMinutes = 30, maxUAMSMBBasalMinutes = 30, bolus_increment = 0.1, carbsReqThreshold = 1,
+            current_basal = 1.0, temptargetSet = false, autosens_max = 1.2, out_units = "mg/dl", lgsThreshold = 65, variable_sens = 0.0, insulinDivisor = 0, TDD = 0.0
+        )
+        Benchmark.measure("DetermineBasalSMB.determine_basal") {
+            determineBasal.determine_basal(
+                glucose_status = glucoseStatus, currenttemp = currentTemp, iob_data_array = iobArray, profile = profile, autosens_data = autosensResult, meal_data = mealData,
+                microBolusAllowed = true, currentTime = now, flatBGsDetected = false, dynIsfMode = false
+            )
+        }
+    }
+
+    @Test
+    fun determineBasalAutoISF() {
+        val determineBasal = DetermineBasalAutoISF(profileUtil)
+        val glucoseStatus = GlucoseStatusAutoIsf(
+            glucose = 168.0, delta = 6.0, shortAvgDelta = 5.5, longAvgDelta = 4.0, date = now, duraISFminutes = 15.0, duraISFaverage = 160.0,
+            parabolaMinutes = 25.0, deltaPl = 5.0, deltaPn = 6.5, bgAcceleration = 1.5, a0 = 168.0, a1 = 5.8, a2 = 0.7, corrSqu = 0.95
+        )
+        val profile = OapsProfileAutoIsf(
+            dia = 0.0, min_5m_carbimpact = 0.0, max_iob = 8.0, max_daily_basal = 1.2, max_basal = 3.0, min_bg = 100.0, max_bg = 100.0, target_bg = 100.0,
+            carb_ratio = 10.0, sens = 50.0, autosens_adjust_targets = false, max_daily_safety_multiplier = 3.0, current_basal_safety_multiplier = 4.0,
+            high_temptarget_raises_sensitivity = false, low_temptarget_lowers_sensitivity = false, sensitivity_raises_target = true, resistance_lowers_target = false,
+            adv_target_adjustments = false, exercise_mode = false, half_basal_exercise_target = 160, maxCOB = 120, skip_neutral_temps = false, remainingCarbsCap = 90,
+            enableUAM = true, A52_risk_enable = false, SMBInterval = 3, enableSMB_with_COB = true, enableSMB_with_temptarget = false, allowSMB_with_high_temptarget = false,
+            enableSMB_always = true, enableSMB_after_carbs = true, maxSMBBasalMinutes = 30, maxUAMSMBBasalMinutes = 30, bolus_increment = 0.1, carbsReqThreshold = 1,
+            current_basal = 1.0, temptargetSet = false, autosens_max = 1.2, out_units = "mg/dl", lgsThreshold = 65, variable_sens = 50.0, autoISF_version = "3.0",
+            enable_autoISF = true, autoISF_max = 1.5, autoISF_min = 0.7, bgAccel_ISF_weight = 0.1, bgBrake_ISF_weight = 0.1, pp_ISF_weight = 0.1,
+            lower_ISFrange_weight = 0.1, higher_ISFrange_weight = 0.2, dura_ISF_weight = 0.1, smb_delivery_ratio = 0.5, smb_delivery_ratio_min = 0.6,
+            smb_delivery_ratio_max = 1.0, smb_delivery_ratio_bg_range = 0.0, smb_max_range_extension = 1.0, enableSMB_EvenOn_OddOff_always = true,
+            iob_threshold_percent = 100, profile_percentage = 100
+        )
+        Benchmark.measure("DetermineBasalAutoISF.determine_basal") {
+            determineBasal.determine_basal(
+                glucose_status = glucoseStatus, currenttemp = currentTemp, iob_data_array = iobArray, profile = profile, autosens_data = autosensResult, meal_data = mealData,
+                microBolusAllowed = true, currentTime = now, flatBGsDetected = false, autoIsfMode = true, loop_wanted_smb = "AAPS", profile_percentage = 100,
+                smb_ratio = 0.5, smb_max_range_extension = 1.0, iob_threshold_percent = 100, auto_isf_consoleError = mutableListOf(), auto_isf_consoleLog = mutableListOf()
+            )
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package app.aaps.plugins.aps.autotune
+
+import app.aaps.core.data.model.GlucoseUnit
+import app.aaps.core.data.model.ICfg
+import app.aaps.core.data.model.data.Block
+import app.aaps.core.data.model.data.TargetBlock
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.profile.PureProfile
+import app.aaps.core.keys.DoubleKey
+import app.aaps.core.objects.profile.ProfileSealed
+import app.aaps.plugins.aps.autotune.data.ATProfile
+import app.aaps.plugins.aps.autotune.data.PreppedGlucose
+import app.aaps.shared.tests.TestBaseWithProfile
+import app.aaps.shared.tests.benchmark.Benchmark
+import org.json.JSONObject
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty
+import org.mockito.Mock
+import org.mockito.kotlin.whenever
+import java.io.File
+import java.util.TimeZone
+
+@EnabledIfSystemProperty(named = Benchmark.PROPERTY, matches = "true")
+class AutotuneCoreBenchmark : TestBaseWithProfile() {
+
+    @Mock lateinit var autotuneFS: AutotuneFS
+
+    @Test
+    fun tuneAllTheThings() {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT+2"))
+        // one day of categorized data from AutotuneCoreTest
+        val prep = PreppedGlucose(JSONObject(File("src/test/res/autotune/test1/autotune.2022-05-21.json").readText()), dateUtil)
+        val profileJson = JSONObject(File("src/test/res/autotune/test1/profile.pump.json").readText())
+        val profile = atProfile(profileJson)
+        whenever(preferences.get(DoubleKey.AutosensMax)).thenReturn(profileJson.getDouble("autosens_max"))
+        whenever(preferences.get(DoubleKey.AutosensMin)).thenReturn(profileJson.getDouble("autosens_min"))
+        whenever(preferences.get(DoubleKey.ApsSmbMin5MinCarbsImpact)).thenReturn(profileJson.getDouble("min_5m_carbimpact"))
+        val autotuneCore = AutotuneCore(preferences, autotuneFS)
+        Benchmark.measure("AutotuneCore.tuneAllTheThings (${prep.csfGlucoseData.size + prep.isfGlucoseData.size + prep.basalGlucoseData.size} BG)") {
+            autotuneCore.tuneAllTheThings(prep, profile, profile)
+        }
+    }
+
+    private fun atProfile(json: JSONObject): ATProfile {
+        val basalJson = json.getJSONArray("basalprofile")
+        val basalBlocks = List(basalJson.length()) { i ->
+            val start = basalJson.getJSONObject(i).getInt("minutes")
+            val end = if (i + 1 < basalJson.length()) basalJson.getJSONObject(i + 1).getInt("minutes") else 24 * 60
+            Block(T.mins((end - start).toLong()).msecs(), basalJson.getJSONObject(i).getDouble("rate"))
+        }
+        val iCfg = ICfg("insulin", json.getInt("insulinPeakTime"), json.getDouble("dia"), 1.0)
+        val isf = json.getJSONObject("isfProfile").getJSONArray("sensitivities").getJSONObject(0).getDouble("sensitivity")
+        val pure = PureProfile(
+            jsonObject = json,
+            basalBlocks = basalBlocks,
+            isfBlocks = listOf(Block(T.hours(24).msecs(), isf)),
+            icBlocks = listOf(Block(T.hours(24).msecs(), json.getDouble("carb_ratio"))),
+            targetBlocks = listOf(TargetBlock(T.hours(24).msecs(), 100.0, 100.0)),
+            glucoseUnit = GlucoseUnit.fromText(json.optString("units", "mg/dl")),
+            iCfg = iCfg,
+            timeZone = TimeZone.getTimeZone(json.optString("timezone", "UTC"))
+        )
+        return ATProfile(preferences, profileUtil, dateUtil, rh, profileStoreProvider, aapsLogger).with(ProfileSealed.Pure(pure, activePlugin), iCfg)
+    }
+}
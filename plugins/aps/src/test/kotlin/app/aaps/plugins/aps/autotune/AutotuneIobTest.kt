@@ -0,0 +1,63 @@
+package app.aaps.plugins.aps.autotune
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.ICfg
+import app.aaps.core.data.model.IDs
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import kotlin.random.Random
+
+class AutotuneIobTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var autotuneFS: AutotuneFS
+
+    private val iCfg = ICfg("insulin", 75, 5.0, 1.0)
+
+    private fun autotuneIob() = AutotuneIob(aapsLogger, persistenceLayer, profileFunction, preferences, dateUtil, autotuneFS)
+
+    private fun boluses(): List<BS> {
+        val random = Random(1)
+        return List(300) { index ->
+            BS(
+                ids = IDs(nightscoutId = "b$index"),
+                timestamp = now - T.hours(24).msecs() + random.nextLong(T.hours(24).msecs()),
+                amount = random.nextDouble(0.05, 3.0),
+                type = BS.Type.NORMAL,
+                isValid = index % 17 != 0,
+                iCfg = iCfg
+            )
+        }
+    }
+
+    @Test
+    fun `iob from sorted boluses matches full scan`() {
+        val boluses = boluses()
+        // newest first as prepared by initializeData, searched by time window
+        val sorted = autotuneIob().also { it.boluses = ArrayList(boluses.sortedByDescending { bolus -> bolus.timestamp }) }
+        // not sorted, scans all boluses
+        val unsorted = autotuneIob().also { it.boluses = ArrayList(boluses) }
+
+        for (time in now - T.hours(24).msecs()..now step T.mins(5).msecs()) {
+            val expected = unsorted.getIOB(time, iCfg)
+            val actual = sorted.getIOB(time, iCfg)
+            assertThat(actual.iob).isWithin(0.001).of(expected.iob)
+            assertThat(actual.activity).isWithin(0.0001).of(expected.activity)
+        }
+    }
+
+    @Test
+    fun `iob is updated when boluses change`() {
+        val autotuneIob = autotuneIob()
+        autotuneIob.boluses = ArrayList(boluses().sortedByDescending { it.timestamp })
+        val before = autotuneIob.getIOB(now, iCfg).iob
+
+        autotuneIob.boluses.add(0, BS(timestamp = now - T.mins(30).msecs(), amount = 5.0, type = BS.Type.NORMAL, iCfg = iCfg))
+
+        assertThat(autotuneIob.getIOB(now, iCfg).iob).isGreaterThan(before)
+    }
+}
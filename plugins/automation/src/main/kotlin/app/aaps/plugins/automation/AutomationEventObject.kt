@@ -11,6 +11,8 @@ import app.aaps.plugins.automation.actions.ActionDummy
 import app.aaps.plugins.automation.actions.ActionStopProcessing
 import app.aaps.plugins.automation.triggers.TriggerConnector
 import app.aaps.plugins.automation.triggers.TriggerDummy
+import app.aaps.plugins.automation.triggers.TriggerInput
+import app.aaps.plugins.automation.triggers.TriggerSnapshot
 import dagger.android.HasAndroidInjector
 import org.json.JSONArray
 import org.json.JSONObject
@@ -41,6 +43,13 @@ class AutomationEventObject(private val injector: HasAndroidInjector) : Automati
 
     override suspend fun canRun(): Boolean = trigger.shouldRun()
     override suspend fun preconditionCanRun(): Boolean = getPreconditions().shouldRun()
+    suspend fun canRun(snapshot: TriggerSnapshot): Boolean = trigger.shouldRun(snapshot)
+    suspend fun preconditionCanRun(snapshot: TriggerSnapshot): Boolean = getPreconditions().shouldRun(snapshot)
+
+    /** Inputs of trigger and action preconditions */
+    val inputs: Set<TriggerInput>
+        get() = trigger.inputs + actions.mapNotNull { it.precondition }.flatMap { it.inputs }
+
     override fun firstActionIcon(): AutomationIconData? =
         actions.firstOrNull()?.let { action ->
             action.composeIcon()?.let { AutomationIconData(it, action.composeIconTint()) }
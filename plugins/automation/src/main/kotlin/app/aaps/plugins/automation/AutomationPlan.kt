@@ -0,0 +1,42 @@
+package app.aaps.plugins.automation
+
+import app.aaps.plugins.automation.triggers.TriggerInput
+import java.util.EnumMap
+
+/**
+ * Immutable list of automation events prepared for evaluation
+ *
+ * Events are indexed by [TriggerInput] of their triggers and preconditions, so a change of one input
+ * (new location, BT or wifi change) evaluates only events depending on it instead of all of them.
+ * Events with [app.aaps.plugins.automation.actions.ActionStopProcessing] are always selected,
+ * because they guard processing of all events behind them.
+ * Plan is built from copy of events and replaced whenever the list of events is modified.
+ */
+class AutomationPlan(events: List<AutomationEventObject>, val revision: Int) {
+
+    val events: List<AutomationEventObject> = events.toList()
+    private val byInput = EnumMap<TriggerInput, IntArray>(TriggerInput::class.java)
+    private val stopProcessing: IntArray
+
+    init {
+        val positions = EnumMap<TriggerInput, MutableList<Int>>(TriggerInput::class.java)
+        this.events.forEachIndexed { index, event ->
+            for (input in event.inputs) positions.getOrPut(input) { ArrayList() }.add(index)
+        }
+        for ((input, list) in positions) byInput[input] = list.toIntArray()
+        stopProcessing = this.events.indices.filter { this.events[it].hasStopProcessing() }.toIntArray()
+    }
+
+    /**
+     * Events to evaluate, in original order
+     *
+     * @param changed changed inputs, null for all events
+     */
+    fun select(changed: Set<TriggerInput>?): List<AutomationEventObject> {
+        if (changed == null) return events
+        val selected = BooleanArray(events.size)
+        for (input in changed) byInput[input]?.forEach { selected[it] = true }
+        stopProcessing.forEach { selected[it] = true }
+        return events.filterIndexed { index, _ -> selected[index] }
+    }
+}
@@ -66,7 +66,9 @@ import app.aaps.plugins.automation.triggers.TriggerCOB
 import app.aaps.plugins.automation.triggers.TriggerCannulaAge
 import app.aaps.plugins.automation.triggers.TriggerConnector
 import app.aaps.plugins.automation.triggers.TriggerDelta
+import app.aaps.plugins.automation.triggers.TriggerDummy
 import app.aaps.plugins.automation.triggers.TriggerHeartRate
+import app.aaps.plugins.automation.triggers.TriggerInput
 import app.aaps.plugins.automation.triggers.TriggerInsulinAge
 import app.aaps.plugins.automation.triggers.TriggerIob
 import app.aaps.plugins.automation.triggers.TriggerLocation
@@ -78,6 +80,7 @@ import app.aaps.plugins.automation.triggers.TriggerPumpLastConnection
 import app.aaps.plugins.automation.triggers.TriggerRecurringTime
 import app.aaps.plugins.automation.triggers.TriggerReservoirLevel
 import app.aaps.plugins.automation.triggers.TriggerSensorAge
+import app.aaps.plugins.automation.triggers.TriggerSnapshot
 import app.aaps.plugins.automation.triggers.TriggerStepsCount
 import app.aaps.plugins.automation.triggers.TriggerTempTarget
 import app.aaps.plugins.automation.triggers.TriggerTempTargetValue
@@ -156,6 +159,10 @@ class AutomationPlugin @Inject constructor(
     private val deferredStart = DeferredForegroundStart()
 
     private val automationEvents = ArrayList<AutomationEventObject>()
+    @Volatile private var revision = 0 // incremented on every change of automationEvents
+    private var compiledPlan: AutomationPlan? = null
+    private var storedEvents: String? = null
+    private val snapshotSource by lazy { TriggerDummy(injector) }
     var executionLog: MutableList<String> = ArrayList()
     var btConnects: MutableList<EventBTChange> = ArrayList()
 
@@ -197,13 +204,9 @@ class AutomationPlugin @Inject constructor(
             }
         }
 
-        receiverStatusStore.chargingStatusFlow
-            .filterNotNull()
-            .onEach { processActions() }
-            .launchIn(newScope)
         receiverStatusStore.networkStatusFlow
             .filterNotNull()
-            .onEach { processActions() }
+            .onEach { processActions(setOf(TriggerInput.WIFI)) }
             .launchIn(newScope)
 
         preferences.observe(StringKey.AutomationLocation).drop(1).onEach {
@@ -213,13 +216,16 @@ class AutomationPlugin @Inject constructor(
         disposable += rxBus
             .toObservable(EventAutomationDataChanged::class.java)
             .observeOn(aapsSchedulers.io)
-            .subscribe({ storeToSP() }, fabricPrivacy::logException)
+            .subscribe({
+                           synchronized(this) { revision++ }
+                           storeToSP()
+                       }, fabricPrivacy::logException)
         disposable += rxBus
             .toObservable(EventLocationChange::class.java)
             .observeOn(aapsSchedulers.io)
             .subscribe({
                            aapsLogger.debug(LTag.AUTOMATION, "Grabbed location: ${it.location.latitude} ${it.location.longitude} Provider: ${it.location.provider}")
-                           scope?.launch { processActions() }
+                           scope?.launch { processActions(setOf(TriggerInput.LOCATION)) }
                        }, fabricPrivacy::logException)
         disposable += rxBus
             .toObservable(EventBTChange::class.java)
@@ -227,7 +233,7 @@ class AutomationPlugin @Inject constructor(
             .subscribe({
                            aapsLogger.debug(LTag.AUTOMATION, "Grabbed new BT event: $it")
                            btConnects.add(it)
-                           scope?.launch { processActions() }
+                           scope?.launch { processActions(setOf(TriggerInput.BLUETOOTH)) }
                        }, fabricPrivacy::logException)
     }
 
@@ -240,6 +246,7 @@ class AutomationPlugin @Inject constructor(
         super.onStop()
     }
 
+    @Synchronized
     private fun storeToSP() {
         val array = JSONArray()
         val iterator = synchronized(this) { automationEvents.toMutableList().iterator() }
@@ -252,13 +259,18 @@ class AutomationPlugin @Inject constructor(
             e.printStackTrace()
         }
 
-        preferences.put(AutomationStringKey.AutomationEvents, array.toString())
+        val json = array.toString()
+        if (json == storedEvents) return
+        preferences.put(AutomationStringKey.AutomationEvents, json)
+        storedEvents = json
     }
 
     @Synchronized
     private fun loadFromSP() {
         automationEvents.clear()
+        revision++
         val data = preferences.get(AutomationStringKey.AutomationEvents)
+        storedEvents = data
         var needsResave = false
         if (data != "")
             try {
@@ -279,7 +291,12 @@ class AutomationPlugin @Inject constructor(
         if (needsResave) storeToSP()
     }
 
-    internal suspend fun processActions() {
+    /**
+     * Evaluate automation events and run actions of those ready
+     *
+     * @param changed inputs changed since last run, only events depending on them are evaluated. Null evaluates all events.
+     */
+    internal suspend fun processActions(changed: Set<TriggerInput>? = null) {
         if (!config.appInitialized) return
         /**
          * Changed to false if some condition prevents automation from running.
@@ -317,12 +334,13 @@ class AutomationPlugin @Inject constructor(
         }
 
         aapsLogger.debug(LTag.AUTOMATION, "processActions")
-        val iterator = synchronized(this) { automationEvents.toMutableList().iterator() }
-        while (iterator.hasNext()) {
-            val event = iterator.next()
+        val plan = plan()
+        // all events of this run see the same data
+        val snapshot = snapshotSource.newSnapshot()
+        for (event in plan.select(changed)) {
             if (event.isEnabled && !event.userAction && event.shouldRun())
                 if (event.systemAction || commonEventsEnabled) {
-                    processEvent(event)
+                    processEvent(event, snapshot)
                     if (event.hasStopProcessing()) break
                 }
         }
@@ -333,14 +351,21 @@ class AutomationPlugin @Inject constructor(
          * TriggerBTDevice can pick up and process these events
          * after processing clear events to prevent repeated actions
          */
-        btConnects.clear()
+        if (changed == null || TriggerInput.BLUETOOTH in changed) btConnects.clear()
 
-        storeToSP() // save last run time
+        // last run time is not stored, only auto-removed events need saving
+        if (plan.revision != revision) storeToSP()
     }
 
-    override suspend fun processEvent(someEvent: AutomationEvent) {
-        val event = someEvent as AutomationEventObject
-        if (event.canRun() && event.preconditionCanRun()) {
+    @Synchronized
+    private fun plan(): AutomationPlan =
+        compiledPlan?.takeIf { it.revision == revision } ?: AutomationPlan(automationEvents, revision).also { compiledPlan = it }
+
+    override suspend fun processEvent(someEvent: AutomationEvent) =
+        processEvent(someEvent as AutomationEventObject, snapshotSource.newSnapshot())
+
+    private suspend fun processEvent(event: AutomationEventObject, snapshot: TriggerSnapshot) {
+        if (event.canRun(snapshot) && event.preconditionCanRun(snapshot)) {
             val actions = event.actions
             for (action in actions) {
                 action.title = event.title
@@ -373,6 +398,7 @@ class AutomationPlugin @Inject constructor(
     @Synchronized
     fun add(event: AutomationEventObject) {
         automationEvents.add(event)
+        revision++
         rxBus.send(EventAutomationDataChanged())
     }
 
@@ -382,6 +408,7 @@ class AutomationPlugin @Inject constructor(
             if (event.title == e.title) return
         }
         automationEvents.add(event)
+        revision++
         rxBus.send(EventAutomationDataChanged())
     }
 
@@ -390,6 +417,7 @@ class AutomationPlugin @Inject constructor(
         for (e in automationEvents.reversed()) {
             if (event.title == e.title) {
                 automationEvents.remove(e)
+                revision++
                 rxBus.send(EventAutomationDataChanged())
             }
         }
@@ -398,12 +426,13 @@ class AutomationPlugin @Inject constructor(
     @Synchronized
     fun set(event: AutomationEventObject, index: Int) {
         automationEvents[index] = event
+        revision++
         rxBus.send(EventAutomationDataChanged())
     }
 
     @Synchronized
     fun remove(event: AutomationEvent) {
-        automationEvents.remove(event)
+        if (automationEvents.remove(event)) revision++
     }
 
     fun at(index: Int) = automationEvents[index]
@@ -413,6 +442,7 @@ class AutomationPlugin @Inject constructor(
     @Synchronized
     fun swap(fromPosition: Int, toPosition: Int) {
         Collections.swap(automationEvents, fromPosition, toPosition)
+        revision++
     }
 
     override fun userEvents(): List<AutomationEvent> {
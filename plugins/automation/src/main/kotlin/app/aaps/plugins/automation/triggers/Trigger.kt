@@ -10,6 +10,7 @@ import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.plugin.ActivePlugin
 import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profile.ProfileUtil
+import app.aaps.core.interfaces.receivers.ReceiverStatusStore
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.utils.DateUtil
@@ -33,6 +34,7 @@ abstract class Trigger(val injector: HasAndroidInjector) {
     @Inject lateinit var iobCobCalculator: IobCobCalculator
     @Inject lateinit var glucoseStatusProvider: GlucoseStatusProvider
     @Inject lateinit var dateUtil: DateUtil
+    @Inject lateinit var receiverStatusStore: ReceiverStatusStore
 
     init {
         @Suppress("LeakingThis")
@@ -40,6 +42,19 @@ abstract class Trigger(val injector: HasAndroidInjector) {
     }
 
     abstract suspend fun shouldRun(): Boolean
+
+    /**
+     * Evaluate with inputs shared by all triggers of one automation run.
+     * Triggers reading data available in [TriggerSnapshot] override this and evaluate [shouldRun] with [newSnapshot].
+     */
+    open suspend fun shouldRun(snapshot: TriggerSnapshot): Boolean = shouldRun()
+
+    /** Inputs the result depends on */
+    abstract val inputs: Set<TriggerInput>
+
+    fun newSnapshot(): TriggerSnapshot =
+        TriggerSnapshot(dateUtil.now(), glucoseStatusProvider, iobCobCalculator, profileFunction, persistenceLayer, locationDataContainer, receiverStatusStore)
+
     abstract fun dataJSON(): JSONObject
     abstract fun fromJSON(data: String): Trigger
 
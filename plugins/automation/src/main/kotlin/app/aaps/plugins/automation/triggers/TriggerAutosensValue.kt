@@ -28,6 +28,8 @@ class TriggerAutosensValue(injector: HasAndroidInjector) : Trigger(injector) {
         comparator = Comparator(rh, triggerAutosensValue.comparator.value)
     }
 
+    override val inputs = setOf(TriggerInput.AUTOSENS)
+
     override suspend fun shouldRun(): Boolean {
         val autosensData = iobCobCalculator.ads.getLastAutosensData("Automation trigger", aapsLogger, dateUtil)
             ?: return if (comparator.value == Comparator.Compare.IS_NOT_AVAILABLE) {
@@ -33,6 +33,8 @@ class TriggerBTDevice(injector: HasAndroidInjector) : Trigger(injector) {
         btDevice.value = triggerBTDevice.btDevice.value
     }
 
+    override val inputs = setOf(TriggerInput.BLUETOOTH)
+
     override suspend fun shouldRun(): Boolean {
         if (eventExists()) {
             aapsLogger.debug(LTag.AUTOMATION, "Ready for execution: " + friendlyDescription())
@@ -42,8 +42,12 @@ class TriggerBg(injector: HasAndroidInjector) : Trigger(injector) {
         return this
     }
 
-    override suspend fun shouldRun(): Boolean {
-        val glucoseStatus = glucoseStatusProvider.glucoseStatusData
+    override val inputs = setOf(TriggerInput.GLUCOSE)
+
+    override suspend fun shouldRun(): Boolean = shouldRun(newSnapshot())
+
+    override suspend fun shouldRun(snapshot: TriggerSnapshot): Boolean {
+        val glucoseStatus = snapshot.glucoseStatus
         if (glucoseStatus == null && comparator.value == Comparator.Compare.IS_NOT_AVAILABLE) {
             aapsLogger.debug(LTag.AUTOMATION, "Ready for execution: " + friendlyDescription())
             return true
@@ -32,6 +32,8 @@ class TriggerBolusAgo(injector: HasAndroidInjector) : Trigger(injector) {
         return this
     }
 
+    override val inputs = setOf(TriggerInput.TREATMENTS, TriggerInput.TIME)
+
     override suspend fun shouldRun(): Boolean {
         val lastBolus = persistenceLayer.getNewestBolusOfType(BS.Type.NORMAL)
         val lastBolusTime = lastBolus?.timestamp ?: 0L
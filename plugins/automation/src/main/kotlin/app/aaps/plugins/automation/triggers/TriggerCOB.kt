@@ -35,8 +35,12 @@ class TriggerCOB(injector: HasAndroidInjector) : Trigger(injector) {
         return this
     }
 
-    override suspend fun shouldRun(): Boolean {
-        val cobInfo = iobCobCalculator.getCobInfo("AutomationTriggerCOB")
+    override val inputs = setOf(TriggerInput.COB)
+
+    override suspend fun shouldRun(): Boolean = shouldRun(newSnapshot())
+
+    override suspend fun shouldRun(snapshot: TriggerSnapshot): Boolean {
+        val cobInfo = snapshot.cobInfo()
         if (cobInfo.displayCob == null) {
             return if (comparator.value === Comparator.Compare.IS_NOT_AVAILABLE) {
                 aapsLogger.debug(LTag.AUTOMATION, "Ready for execution: " + friendlyDescription())
@@ -33,6 +33,8 @@ class TriggerCannulaAge(injector: HasAndroidInjector) : Trigger(injector) {
         return this
     }
 
+    override val inputs = setOf(TriggerInput.TREATMENTS, TriggerInput.TIME)
+
     override suspend fun shouldRun(): Boolean {
         val therapyEvent = persistenceLayer.getLastTherapyRecordUpToNow(TE.Type.CANNULA_CHANGE)
         val currentAgeHours = therapyEvent?.timestamp?.let { timestamp ->
@@ -53,13 +53,18 @@ class TriggerConnector(injector: HasAndroidInjector) : Trigger(injector) {
 
     fun size(): Int = list.size
 
-    override suspend fun shouldRun(): Boolean {
+    override val inputs: Set<TriggerInput>
+        get() = list.flatMapTo(HashSet()) { it.inputs }
+
+    override suspend fun shouldRun(): Boolean = shouldRun(newSnapshot())
+
+    override suspend fun shouldRun(snapshot: TriggerSnapshot): Boolean {
         var result = true
         // check first trigger
-        if (list.isNotEmpty()) result = list[0].shouldRun()
+        if (list.isNotEmpty()) result = list[0].shouldRun(snapshot)
         // check all others
         for (i in 1 until list.size) {
-            result = connectorType.apply(result, list[i].shouldRun())
+            result = connectorType.apply(result, list[i].shouldRun(snapshot))
         }
         if (result) aapsLogger.debug(LTag.AUTOMATION, "Ready for execution: " + friendlyDescription().replace("\n", " "))
         return result
@@ -6,6 +6,8 @@ import org.json.JSONObject
 // Used for instantiation of other triggers only
 class TriggerDummy(injector: HasAndroidInjector, val shouldRun: Boolean = false) : Trigger(injector) {
 
+    override val inputs = emptySet<TriggerInput>()
+
     override suspend fun shouldRun(): Boolean {
         return shouldRun
     }
@@ -23,13 +23,16 @@ class TriggerHeartRate(injector: HasAndroidInjector) : Trigger(injector) {
         value = Comparator.Compare.IS_EQUAL_OR_GREATER
     }
 
-    override suspend fun shouldRun(): Boolean {
+    override val inputs = setOf(TriggerInput.HEART_RATE)
+
+    override suspend fun shouldRun(): Boolean = shouldRun(newSnapshot())
+
+    override suspend fun shouldRun(snapshot: TriggerSnapshot): Boolean {
         if (comparator.value == Comparator.Compare.IS_NOT_AVAILABLE) {
             aapsLogger.info(LTag.AUTOMATION, "HR ready, no limit set ${friendlyDescription()}")
             return true
         }
-        val start = dateUtil.now() - averageHeartRateDurationMillis
-        val hrs = persistenceLayer.getHeartRatesFromTime(start)
+        val hrs = snapshot.heartRates(averageHeartRateDurationMillis)
         val duration = hrs.takeUnless { it.isEmpty() }?.sumOf { hr -> hr.duration } ?: 0L
         if (duration == 0L) {
             aapsLogger.info(LTag.AUTOMATION, "HR not ready, no heart rate measured for ${friendlyDescription()}")
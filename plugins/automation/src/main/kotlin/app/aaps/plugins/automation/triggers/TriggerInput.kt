@@ -0,0 +1,26 @@
+package app.aaps.plugins.automation.triggers
+
+/**
+ * Data a trigger result depends on
+ *
+ * Rules are indexed by inputs of their triggers, so an event changing some inputs
+ * (location update, BT connection, network change) evaluates only the affected rules.
+ */
+enum class TriggerInput {
+
+    TIME,
+    GLUCOSE,
+    IOB,
+    COB,
+    AUTOSENS,
+    PROFILE,
+    TEMP_TARGET,
+    TREATMENTS,     // boluses and therapy events
+    PUMP,
+    LOCATION,
+    WIFI,
+    BLUETOOTH,
+    STEPS,
+    HEART_RATE,
+    SCENE
+}
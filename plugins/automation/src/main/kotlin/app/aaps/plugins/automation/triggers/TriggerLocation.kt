@@ -34,8 +34,12 @@ class TriggerLocation(injector: HasAndroidInjector) : Trigger(injector) {
         name = triggerLocation.name
     }
 
-    override suspend fun shouldRun(): Boolean {
-        val location: Location = locationDataContainer.lastLocation ?: return false
+    override val inputs = setOf(TriggerInput.LOCATION)
+
+    override suspend fun shouldRun(): Boolean = shouldRun(newSnapshot())
+
+    override suspend fun shouldRun(snapshot: TriggerSnapshot): Boolean {
+        val location: Location = snapshot.lastLocation ?: return false
         val a = Location("Trigger")
         a.latitude = latitude.value
         a.longitude = longitude.value
@@ -11,6 +11,8 @@ import org.json.JSONObject
 
 class TriggerPodChange(injector: HasAndroidInjector) : Trigger(injector) {
 
+    override val inputs = setOf(TriggerInput.TREATMENTS)
+
     override suspend fun shouldRun(): Boolean {
         val eventLastSettingsExport = persistenceLayer.getLastTherapyRecordUpToNow(TE.Type.SETTINGS_EXPORT)
         val eventLastPodChange = persistenceLayer.getLastTherapyRecordUpToNow(TE.Type.CANNULA_CHANGE)
@@ -37,6 +37,8 @@ class TriggerProfilePercent(injector: HasAndroidInjector) : Trigger(injector) {
         return this
     }
 
+    override val inputs = setOf(TriggerInput.PROFILE)
+
     override suspend fun shouldRun(): Boolean {
         val profile = profileFunction.getProfile()
         if (profileFunction.isProfileChangePending()) {
@@ -33,6 +33,8 @@ class TriggerPumpBatteryLevel(injector: HasAndroidInjector) : Trigger(injector)
         return this
     }
 
+    override val inputs = setOf(TriggerInput.PUMP)
+
     override suspend fun shouldRun(): Boolean {
         val pump = activePlugin.activePump
         val erosBatteryLinkAvailable = pump.model() == PumpType.OMNIPOD_EROS && pump.isUseRileyLinkBatteryLevel()
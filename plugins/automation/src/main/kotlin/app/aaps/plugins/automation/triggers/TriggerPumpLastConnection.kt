@@ -38,6 +38,8 @@ class TriggerPumpLastConnection(injector: HasAndroidInjector) : Trigger(injector
         return this
     }
 
+    override val inputs = setOf(TriggerInput.PUMP, TriggerInput.TIME)
+
     override suspend fun shouldRun(): Boolean {
         val lastConnection = activePlugin.activePump.lastDataTime.value
         if (lastConnection == 0L && comparator.value === Comparator.Compare.IS_NOT_AVAILABLE) {
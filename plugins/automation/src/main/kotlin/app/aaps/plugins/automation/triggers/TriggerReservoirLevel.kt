@@ -36,6 +36,8 @@ class TriggerReservoirLevel(injector: HasAndroidInjector) : Trigger(injector) {
         return this
     }
 
+    override val inputs = setOf(TriggerInput.PUMP)
+
     override suspend fun shouldRun(): Boolean {
         val iCfg = insulin.iCfg
         val actualReservoirLevel = activePlugin.activePump.reservoirLevel.value.iU(iCfg.concentration)
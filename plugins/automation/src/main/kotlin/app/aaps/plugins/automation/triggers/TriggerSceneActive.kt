@@ -31,6 +31,8 @@ class TriggerSceneActive(injector: HasAndroidInjector) : Trigger(injector) {
         comparator = ComparatorExists(rh, other.comparator.value)
     }
 
+    override val inputs = setOf(TriggerInput.SCENE)
+
     override suspend fun shouldRun(): Boolean {
         val active = sceneApi.isAnySceneActive()
         val ready = (active && comparator.value == ComparatorExists.Compare.EXISTS) ||
@@ -34,6 +34,8 @@ class TriggerSensorAge(injector: HasAndroidInjector) : Trigger(injector) {
         return this
     }
 
+    override val inputs = setOf(TriggerInput.TREATMENTS, TriggerInput.TIME)
+
     override suspend fun shouldRun(): Boolean {
         val therapyEvent = persistenceLayer.getLastTherapyRecordUpToNow(TE.Type.SENSOR_CHANGE)
         val currentAgeHours = therapyEvent?.timestamp?.let { timestamp ->
@@ -0,0 +1,78 @@
+package app.aaps.plugins.automation.triggers
+
+import android.location.Location
+import app.aaps.core.data.iob.CobInfo
+import app.aaps.core.data.model.HR
+import app.aaps.core.data.model.SC
+import app.aaps.core.interfaces.aps.GlucoseStatus
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.iob.GlucoseStatusProvider
+import app.aaps.core.interfaces.iob.IobCobCalculator
+import app.aaps.core.interfaces.profile.EffectiveProfile
+import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.core.interfaces.receivers.ReceiverStatusStore
+import app.aaps.plugins.automation.services.LastLocationDataContainer
+
+/**
+ * Inputs of triggers for one evaluation of automation rules
+ *
+ * All triggers evaluated in the same run see the same values. Each value is loaded
+ * on first use and reused by following triggers, so rules not using IOB don't pay for IOB calculation
+ * and hundreds of BG rules read glucose status once. Not thread safe, used by single run.
+ */
+class TriggerSnapshot(
+    val now: Long,
+    private val glucoseStatusProvider: GlucoseStatusProvider,
+    private val iobCobCalculator: IobCobCalculator,
+    private val profileFunction: ProfileFunction,
+    private val persistenceLayer: PersistenceLayer,
+    private val locationDataContainer: LastLocationDataContainer,
+    private val receiverStatusStore: ReceiverStatusStore
+) {
+
+    private var profileLoaded = false
+    private var profile: EffectiveProfile? = null
+    private var iobLoaded = false
+    private var iob: IobTotal? = null
+    private var cobInfo: CobInfo? = null
+    private var stepsCount: List<SC>? = null
+    private val heartRates = HashMap<Long, List<HR>>()
+
+    val glucoseStatus: GlucoseStatus? by lazy(LazyThreadSafetyMode.NONE) { glucoseStatusProvider.glucoseStatusData }
+    val lastLocation: Location? by lazy(LazyThreadSafetyMode.NONE) { locationDataContainer.lastLocation }
+    val networkStatus: ReceiverStatusStore.NetworkStatus? by lazy(LazyThreadSafetyMode.NONE) { receiverStatusStore.networkStatusFlow.value }
+
+    suspend fun profile(): EffectiveProfile? {
+        if (!profileLoaded) {
+            profile = profileFunction.getProfile()
+            profileLoaded = true
+        }
+        return profile
+    }
+
+    /** @return IOB at [now] or null without profile */
+    suspend fun iob(): IobTotal? {
+        if (!iobLoaded) {
+            iob = profile()?.let { iobCobCalculator.calculateFromTreatmentsAndTemps(now, it) }
+            iobLoaded = true
+        }
+        return iob
+    }
+
+    suspend fun cobInfo(): CobInfo =
+        cobInfo ?: iobCobCalculator.getCobInfo("AutomationTriggerCOB").also { cobInfo = it }
+
+    /** Steps count records of last 5 minutes */
+    suspend fun stepsCount(): List<SC> =
+        stepsCount ?: persistenceLayer.getStepsCountFromTime(now - STEPS_COUNT_WINDOW).also { stepsCount = it }
+
+    /** Heart rates measured during [durationMillis] before [now] */
+    suspend fun heartRates(durationMillis: Long): List<HR> =
+        heartRates[durationMillis] ?: persistenceLayer.getHeartRatesFromTime(now - durationMillis).also { heartRates[durationMillis] = it }
+
+    companion object {
+
+        const val STEPS_COUNT_WINDOW = 5 * 60 * 1000L
+    }
+}
@@ -20,7 +20,11 @@ class TriggerStepsCount(injector: HasAndroidInjector) : Trigger(injector) {
         value = Comparator.Compare.IS_EQUAL_OR_GREATER
     }
 
-    override suspend fun shouldRun(): Boolean {
+    override val inputs = setOf(TriggerInput.STEPS)
+
+    override suspend fun shouldRun(): Boolean = shouldRun(newSnapshot())
+
+    override suspend fun shouldRun(snapshot: TriggerSnapshot): Boolean {
         if (comparator.value == Comparator.Compare.IS_NOT_AVAILABLE) {
             aapsLogger.info(LTag.AUTOMATION, "Steps count ready, no limit set ${friendlyDescription()}")
             return true
@@ -28,8 +32,7 @@ class TriggerStepsCount(injector: HasAndroidInjector) : Trigger(injector) {
 
         // Steps count entries update every 1-1.5 minutes on my watch,
         // so we must get some entries from the last 5 minutes.
-        val start = dateUtil.now() - 5 * 60 * 1000L
-        val measurements = persistenceLayer.getStepsCountFromTime(start)
+        val measurements = snapshot.stepsCount()
         val lastSC = measurements.lastOrNull { it.duration == measurementDuration.value.toInt() * 60 * 1000L }
         if (lastSC == null) {
             aapsLogger.info(LTag.AUTOMATION, "No steps count measurements available - ${friendlyDescription()}")
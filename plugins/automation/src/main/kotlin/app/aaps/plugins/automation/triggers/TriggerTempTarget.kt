@@ -26,6 +26,8 @@ class TriggerTempTarget(injector: HasAndroidInjector) : Trigger(injector) {
         return this
     }
 
+    override val inputs = setOf(TriggerInput.TEMP_TARGET)
+
     override suspend fun shouldRun(): Boolean {
         val tt = persistenceLayer.getTemporaryTargetActiveAt(dateUtil.now())
         if (tt == null && comparator.value == ComparatorExists.Compare.NOT_EXISTS) {
@@ -42,6 +42,8 @@ class TriggerTempTargetValue(injector: HasAndroidInjector) : Trigger(injector) {
         return this
     }
 
+    override val inputs = setOf(TriggerInput.TEMP_TARGET)
+
     override suspend fun shouldRun(): Boolean {
         val tt = persistenceLayer.getTemporaryTargetActiveAt(dateUtil.now())
         if (tt == null && comparator.value == Comparator.Compare.IS_NOT_AVAILABLE) {
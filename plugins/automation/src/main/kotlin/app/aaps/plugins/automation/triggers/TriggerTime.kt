@@ -29,6 +29,8 @@ class TriggerTime(injector: HasAndroidInjector) : Trigger(injector) {
         return this
     }
 
+    override val inputs = setOf(TriggerInput.TIME)
+
     override suspend fun shouldRun(): Boolean {
         val now = dateUtil.now()
         if (now >= time.value && now - time.value < T.mins(5).msecs()) {
@@ -3,7 +3,6 @@ package app.aaps.plugins.automation.triggers
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.filled.Wifi
 import app.aaps.core.interfaces.logging.LTag
-import app.aaps.core.interfaces.receivers.ReceiverStatusStore
 import app.aaps.core.utils.JsonHelper
 import app.aaps.plugins.automation.R
 import app.aaps.plugins.automation.compose.IconTint
@@ -11,12 +10,9 @@ import app.aaps.plugins.automation.elements.Comparator
 import app.aaps.plugins.automation.elements.InputString
 import dagger.android.HasAndroidInjector
 import org.json.JSONObject
-import javax.inject.Inject
 
 class TriggerWifiSsid(injector: HasAndroidInjector) : Trigger(injector) {
 
-    @Inject lateinit var receiverStatusStore: ReceiverStatusStore
-
     var ssid = InputString()
     var comparator = Comparator(rh)
 
@@ -41,8 +37,12 @@ class TriggerWifiSsid(injector: HasAndroidInjector) : Trigger(injector) {
         return this
     }
 
-    override suspend fun shouldRun(): Boolean {
-        val eventNetworkChange = receiverStatusStore.networkStatusFlow.value ?: return false
+    override val inputs = setOf(TriggerInput.WIFI)
+
+    override suspend fun shouldRun(): Boolean = shouldRun(newSnapshot())
+
+    override suspend fun shouldRun(snapshot: TriggerSnapshot): Boolean {
+        val eventNetworkChange = snapshot.networkStatus ?: return false
         if (!eventNetworkChange.wifiConnected && comparator.value == Comparator.Compare.IS_NOT_AVAILABLE) {
             aapsLogger.debug(LTag.AUTOMATION, "Ready for execution: " + friendlyDescription())
             return true
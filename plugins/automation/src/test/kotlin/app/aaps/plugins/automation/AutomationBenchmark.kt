@@ -0,0 +1,132 @@
+package app.aaps.plugins.automation
+
+import app.aaps.core.data.iob.CobInfo
+import app.aaps.core.data.iob.InMemoryGlucoseValue
+import app.aaps.core.data.model.GlucoseUnit
+import app.aaps.core.data.model.HR
+import app.aaps.core.data.model.SC
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.receivers.ReceiverStatusStore
+import app.aaps.plugins.automation.elements.Comparator
+import app.aaps.plugins.automation.elements.InputDelta
+import app.aaps.plugins.automation.triggers.Trigger
+import app.aaps.plugins.automation.triggers.TriggerBg
+import app.aaps.plugins.automation.triggers.TriggerCOB
+import app.aaps.plugins.automation.triggers.TriggerConnector
+import app.aaps.plugins.automation.triggers.TriggerDelta
+import app.aaps.plugins.automation.triggers.TriggerDummy
+import app.aaps.plugins.automation.triggers.TriggerHeartRate
+import app.aaps.plugins.automation.triggers.TriggerInput
+import app.aaps.plugins.automation.triggers.TriggerIob
+import app.aaps.plugins.automation.triggers.TriggerStepsCount
+import app.aaps.plugins.automation.triggers.TriggerTestBase
+import app.aaps.plugins.automation.triggers.TriggerWifiSsid
+import app.aaps.shared.tests.benchmark.AAPSLoggerSilent
+import app.aaps.shared.tests.benchmark.Benchmark
+import app.aaps.shared.tests.benchmark.LoopFixture
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.runBlocking
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty
+import org.mockito.ArgumentMatchers.anyLong
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.whenever
+import java.text.DecimalFormat
+import kotlin.random.Random
+
+/**
+ * Evaluation of hundreds of synthetic automation rules
+ *
+ * Compares loading of trigger inputs by every trigger with one [app.aaps.plugins.automation.triggers.TriggerSnapshot]
+ * shared by the run, and evaluation of rules affected by network change only.
+ */
+@EnabledIfSystemProperty(named = Benchmark.PROPERTY, matches = "true")
+class AutomationBenchmark : TriggerTestBase() {
+
+    private val silentLogger = AAPSLoggerSilent()
+    private val ruleCount = 500
+
+    init {
+        addInjector {
+            if (it is Trigger) it.aapsLogger = silentLogger
+            if (it is AutomationEventObject) {
+                it.aapsLogger = silentLogger
+                it.dateUtil = dateUtil
+            }
+        }
+    }
+
+    private lateinit var events: List<AutomationEventObject>
+
+    @BeforeEach
+    fun prepare() = runBlocking {
+        val glucose = LoopFixture(now, iCfg = someICfg).glucoseValues.map { InMemoryGlucoseValue.fromGv(it) }
+        whenever(autosensDataStore.getBucketedDataTable()).thenReturn(glucose.toMutableList())
+        whenever(profileFunction.getProfile()).thenReturn(effectiveProfile)
+        whenever(profileFunction.getUnits()).thenReturn(GlucoseUnit.MGDL)
+        whenever(iobCobCalculator.calculateFromTreatmentsAndTemps(anyLong(), anyOrNull())).thenReturn(IobTotal(now).also { it.iob = 1.5 })
+        whenever(iobCobCalculator.getCobInfo("AutomationTriggerCOB")).thenReturn(CobInfo(now, 20.0, 0.0))
+        whenever(persistenceLayer.getHeartRatesFromTime(anyLong())).thenReturn(listOf(HR(duration = 300_000, timestamp = now, beatsPerMinute = 80.0, device = "test")))
+        whenever(persistenceLayer.getStepsCountFromTime(anyLong()))
+            .thenReturn(listOf(SC(duration = 300_000, timestamp = now, steps5min = 80, steps10min = 110, steps15min = 0, steps30min = 0, steps60min = 0, steps180min = 0, device = "test")))
+        whenever(receiverStatusStore.networkStatusFlow).thenReturn(MutableStateFlow(ReceiverStatusStore.NetworkStatus(wifiConnected = true, ssid = "home")))
+
+        val random = Random(1)
+        events = List(ruleCount) { i ->
+            AutomationEventObject(injector).apply {
+                title = "Rule $i"
+                trigger = TriggerConnector(injector, TriggerConnector.Type.AND).apply {
+                    repeat(2) { list.add(randomTrigger(random)) }
+                }
+            }
+        }
+        Unit
+    }
+
+    private fun randomTrigger(random: Random): Trigger {
+        val compare = Comparator.Compare.entries[random.nextInt(Comparator.Compare.entries.size)]
+        return when (random.nextInt(7)) {
+            0    -> TriggerBg(injector, random.nextInt(60, 250).toDouble(), GlucoseUnit.MGDL, compare)
+            1    -> TriggerDelta(injector, InputDelta(rh, random.nextInt(-15, 15).toDouble(), -360.0, 360.0, 1.0, DecimalFormat("0"), InputDelta.DeltaType.DELTA), GlucoseUnit.MGDL, compare)
+            2    -> TriggerIob(injector).setValue(random.nextInt(0, 5).toDouble()).comparator(compare)
+            3    -> TriggerCOB(injector).setValue(random.nextInt(0, 60).toDouble()).comparator(compare)
+            4    -> TriggerHeartRate(injector).apply { heartRate.value = random.nextInt(50, 150).toDouble(); comparator.value = compare }
+            5    -> TriggerStepsCount(injector).apply { stepsCount.value = random.nextInt(0, 200).toDouble(); comparator.value = compare }
+            else -> TriggerWifiSsid(injector, "home", compare)
+        }
+    }
+
+    @Test
+    fun inputsPerTrigger() {
+        Benchmark.measure("$ruleCount rules, inputs loaded by every trigger") {
+            runBlocking { events.count { event -> event.trigger.list.count { it.shouldRun() } == event.trigger.list.size } }
+        }
+    }
+
+    @Test
+    fun sharedSnapshot() {
+        Benchmark.measure("$ruleCount rules, shared snapshot") {
+            runBlocking {
+                val snapshot = TriggerDummy(injector).newSnapshot()
+                events.count { it.canRun(snapshot) }
+            }
+        }
+    }
+
+    @Test
+    fun networkChange() {
+        val plan = AutomationPlan(events, 0)
+        Benchmark.measure("$ruleCount rules, network change (${plan.select(setOf(TriggerInput.WIFI)).size} affected)") {
+            runBlocking {
+                val snapshot = TriggerDummy(injector).newSnapshot()
+                plan.select(setOf(TriggerInput.WIFI)).count { it.canRun(snapshot) }
+            }
+        }
+    }
+
+    @Test
+    fun buildPlan() {
+        Benchmark.measure("$ruleCount rules, plan build") { AutomationPlan(events, 0) }
+    }
+}
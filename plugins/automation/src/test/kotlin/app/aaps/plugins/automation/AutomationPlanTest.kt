@@ -0,0 +1,77 @@
+package app.aaps.plugins.automation
+
+import app.aaps.plugins.automation.actions.ActionStopProcessing
+import app.aaps.plugins.automation.triggers.TriggerBTDevice
+import app.aaps.plugins.automation.triggers.TriggerBg
+import app.aaps.plugins.automation.triggers.TriggerConnector
+import app.aaps.plugins.automation.triggers.TriggerInput
+import app.aaps.plugins.automation.triggers.TriggerLocation
+import app.aaps.plugins.automation.triggers.TriggerTestBase
+import app.aaps.plugins.automation.triggers.TriggerTime
+import app.aaps.plugins.automation.triggers.TriggerWifiSsid
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+
+class AutomationPlanTest : TriggerTestBase() {
+
+    init {
+        addInjector {
+            if (it is AutomationEventObject) {
+                it.aapsLogger = aapsLogger
+                it.dateUtil = dateUtil
+            }
+        }
+    }
+
+    private fun event(title: String, vararg triggers: TriggerConnector.() -> Unit) = AutomationEventObject(injector).apply {
+        this.title = title
+        trigger = TriggerConnector(injector, TriggerConnector.Type.OR).apply { triggers.forEach { it() } }
+    }
+
+    private val events by lazy {
+        listOf(
+            event("bg", { list.add(TriggerBg(injector)) }),
+            event("location", { list.add(TriggerLocation(injector)) }),
+            event("wifi or bt", { list.add(TriggerWifiSsid(injector)) }, { list.add(TriggerBTDevice(injector)) }),
+            event("location and time", {
+                list.add(TriggerConnector(injector, TriggerConnector.Type.AND).apply {
+                    list.add(TriggerLocation(injector))
+                    list.add(TriggerTime(injector))
+                })
+            }),
+            event("empty")
+        )
+    }
+
+    @Test
+    fun selectAll() {
+        val plan = AutomationPlan(events, 1)
+        assertThat(plan.select(null)).containsExactlyElementsIn(events).inOrder()
+    }
+
+    @Test
+    fun selectByInput() {
+        val plan = AutomationPlan(events, 1)
+        assertThat(plan.select(setOf(TriggerInput.LOCATION)).map { it.title }).containsExactly("location", "location and time").inOrder()
+        assertThat(plan.select(setOf(TriggerInput.BLUETOOTH)).map { it.title }).containsExactly("wifi or bt")
+        assertThat(plan.select(setOf(TriggerInput.WIFI, TriggerInput.GLUCOSE)).map { it.title }).containsExactly("bg", "wifi or bt").inOrder()
+        assertThat(plan.select(setOf(TriggerInput.STEPS))).isEmpty()
+        assertThat(plan.select(emptySet())).isEmpty()
+    }
+
+    @Test
+    fun stopProcessingIsAlwaysSelected() {
+        val stop = event("bg stop", { list.add(TriggerBg(injector)) }).apply { addAction(ActionStopProcessing(injector)) }
+        val plan = AutomationPlan(listOf(events[0], stop) + events.drop(1), 1)
+        assertThat(plan.select(setOf(TriggerInput.WIFI)).map { it.title }).containsExactly("bg stop", "wifi or bt").inOrder()
+        assertThat(plan.select(emptySet()).map { it.title }).containsExactly("bg stop")
+    }
+
+    @Test
+    fun planIsNotAffectedByLaterChanges() {
+        val list = events.toMutableList()
+        val plan = AutomationPlan(list, 1)
+        list.removeAt(0)
+        assertThat(plan.events).hasSize(events.size)
+    }
+}
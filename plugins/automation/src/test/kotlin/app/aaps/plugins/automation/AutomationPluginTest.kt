@@ -1,33 +1,57 @@
 package app.aaps.plugins.automation
 
 import android.Manifest
+import app.aaps.core.data.model.RM
 import app.aaps.core.interfaces.aps.Loop
 import app.aaps.core.interfaces.constraints.ConstraintsChecker
-import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.logging.UserEntryLogger
+import app.aaps.core.interfaces.plugin.PluginBase
 import app.aaps.core.interfaces.receivers.ReceiverStatusStore
 import app.aaps.core.interfaces.scenes.SceneAutomationApi
+import app.aaps.core.objects.constraints.ConstraintObject
+import app.aaps.plugins.automation.actions.Action
+import app.aaps.plugins.automation.actions.ActionStopProcessing
+import app.aaps.plugins.automation.elements.Comparator
 import app.aaps.plugins.automation.services.LocationServiceHelper
-import app.aaps.shared.tests.TestBaseWithProfile
+import app.aaps.plugins.automation.triggers.TriggerConnector
+import app.aaps.plugins.automation.triggers.TriggerDummy
+import app.aaps.plugins.automation.triggers.TriggerInput
+import app.aaps.plugins.automation.triggers.TriggerTestBase
+import app.aaps.plugins.automation.triggers.TriggerWifiSsid
 import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.test.runTest
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.mockito.Mock
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
 
-class AutomationPluginTest : TestBaseWithProfile() {
+class AutomationPluginTest : TriggerTestBase() {
 
     @Mock lateinit var constraintChecker: ConstraintsChecker
-    @Mock lateinit var persistenceLayer: PersistenceLayer
-    @Mock lateinit var loop: Loop
+    @Mock(extraInterfaces = [Loop::class]) lateinit var loopPlugin: PluginBase
     @Mock lateinit var locationServiceHelper: LocationServiceHelper
     @Mock lateinit var timerUtil: TimerUtil
-    @Mock lateinit var receiverStatusStore: ReceiverStatusStore
     @Mock lateinit var uel: UserEntryLogger
     @Mock lateinit var sceneApi: SceneAutomationApi
-    private lateinit var automationPlugin: AutomationPlugin
+    private lateinit var sut: AutomationPlugin
+
+    private val loop get() = loopPlugin as Loop
+
+    init {
+        addInjector {
+            if (it is AutomationEventObject) {
+                it.aapsLogger = aapsLogger
+                it.dateUtil = dateUtil
+            }
+        }
+    }
 
     @BeforeEach fun prepare() {
-        automationPlugin = AutomationPlugin(
+        sut = AutomationPlugin(
             injector, aapsLogger, rh, preferences, context, fabricPrivacy, loop, rxBus, constraintChecker,
             aapsSchedulers, config, locationServiceHelper, dateUtil, activePlugin, timerUtil, receiverStatusStore, uel, profileRepository, sceneApi
         )
@@ -35,9 +59,40 @@ class AutomationPluginTest : TestBaseWithProfile() {
 
     @Test
     fun `requiredPermissions should include location permissions`() {
-        val allPermissions = automationPlugin.requiredPermissions().flatMap { it.permissions }
+        val allPermissions = sut.requiredPermissions().flatMap { it.permissions }
         assertThat(allPermissions).contains(Manifest.permission.ACCESS_FINE_LOCATION)
         assertThat(allPermissions).contains(Manifest.permission.ACCESS_COARSE_LOCATION)
         assertThat(allPermissions).contains(Manifest.permission.ACCESS_BACKGROUND_LOCATION)
     }
+
+    @Test
+    fun stopProcessingIsAppliedOnInputChange() = runTest {
+        whenever(config.appInitialized).thenReturn(true)
+        whenever(loop.runningMode()).thenReturn(RM.Mode.CLOSED_LOOP)
+        whenever(loopPlugin.isEnabled()).thenReturn(true)
+        whenever(constraintChecker.isAutomationEnabled()).thenReturn(ConstraintObject(true, aapsLogger))
+        whenever(receiverStatusStore.networkStatusFlow).thenReturn(MutableStateFlow(ReceiverStatusStore.NetworkStatus(wifiConnected = true, ssid = "home")))
+
+        // stop processing rule doesn't depend on wifi but must guard rules behind it
+        val stopAction = mock<ActionStopProcessing>()
+        sut.add(AutomationEventObject(injector).apply {
+            title = "stop"
+            trigger = TriggerConnector(injector).apply { list.add(TriggerDummy(injector, shouldRun = true)) }
+            addAction(stopAction)
+        })
+        val wifiAction = mock<Action>()
+        sut.add(AutomationEventObject(injector).apply {
+            title = "wifi"
+            trigger = TriggerConnector(injector, TriggerConnector.Type.OR).apply {
+                list.add(TriggerDummy(injector, shouldRun = true))
+                list.add(TriggerWifiSsid(injector, "home", Comparator.Compare.IS_EQUAL))
+            }
+            addAction(wifiAction)
+        })
+
+        sut.processActions(setOf(TriggerInput.WIFI))
+
+        verify(stopAction).isValid()
+        verify(wifiAction, never()).isValid()
+    }
 }
@@ -0,0 +1,83 @@
+package app.aaps.plugins.automation.triggers
+
+import app.aaps.core.data.iob.CobInfo
+import app.aaps.core.data.iob.InMemoryGlucoseValue
+import app.aaps.core.data.model.GlucoseUnit
+import app.aaps.core.data.model.HR
+import app.aaps.core.data.model.SourceSensor
+import app.aaps.core.data.model.TrendArrow
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.plugins.automation.elements.Comparator
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.ArgumentMatchers.anyLong
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class TriggerSnapshotTest : TriggerTestBase() {
+
+    @BeforeEach
+    fun prepare() = runBlocking {
+        whenever(profileFunction.getProfile()).thenReturn(effectiveProfile)
+        whenever(profileFunction.getUnits()).thenReturn(GlucoseUnit.MGDL)
+        whenever(autosensDataStore.getBucketedDataTable())
+            .thenReturn(mutableListOf(InMemoryGlucoseValue(value = 214.0, timestamp = now - 1, trendArrow = TrendArrow.FLAT, sourceSensor = SourceSensor.UNKNOWN)))
+        whenever(iobCobCalculator.calculateFromTreatmentsAndTemps(anyLong(), anyOrNull())).thenReturn(IobTotal(now).also { it.iob = 1.0 })
+        whenever(iobCobCalculator.getCobInfo("AutomationTriggerCOB")).thenReturn(CobInfo(0, 6.0, 2.0))
+        Unit
+    }
+
+    @Test
+    fun valuesAreLoadedOnce() = runTest {
+        val connector = TriggerConnector(injector, TriggerConnector.Type.OR).apply {
+            list.add(TriggerIob(injector).setValue(1.0).comparator(Comparator.Compare.IS_EQUAL))
+            list.add(TriggerIob(injector).setValue(2.0).comparator(Comparator.Compare.IS_GREATER))
+            list.add(TriggerCOB(injector).setValue(5.0).comparator(Comparator.Compare.IS_GREATER))
+            list.add(TriggerCOB(injector).setValue(1.0).comparator(Comparator.Compare.IS_GREATER))
+        }
+        assertThat(connector.shouldRun()).isTrue()
+        verify(profileFunction, times(1)).getProfile()
+        verify(iobCobCalculator, times(1)).calculateFromTreatmentsAndTemps(anyLong(), anyOrNull())
+        verify(iobCobCalculator, times(1)).getCobInfo("AutomationTriggerCOB")
+    }
+
+    @Test
+    fun snapshotIsSharedByTriggers() = runTest {
+        val snapshot = TriggerDummy(injector).newSnapshot()
+        assertThat(TriggerBg(injector, 214.0, GlucoseUnit.MGDL, Comparator.Compare.IS_EQUAL).shouldRun(snapshot)).isTrue()
+        assertThat(TriggerBg(injector, 100.0, GlucoseUnit.MGDL, Comparator.Compare.IS_LESSER).shouldRun(snapshot)).isFalse()
+        assertThat(TriggerIob(injector).setValue(1.0).comparator(Comparator.Compare.IS_EQUAL).shouldRun(snapshot)).isTrue()
+        assertThat(TriggerIob(injector).setValue(1.0).comparator(Comparator.Compare.IS_GREATER).shouldRun(snapshot)).isFalse()
+        verify(autosensDataStore, times(1)).getBucketedDataTable()
+        verify(iobCobCalculator, times(1)).calculateFromTreatmentsAndTemps(anyLong(), anyOrNull())
+    }
+
+    @Test
+    fun heartRatesAreLoadedOnce() = runTest {
+        whenever(persistenceLayer.getHeartRatesFromTime(anyLong())).thenReturn(listOf(HR(duration = 300_000, timestamp = now, beatsPerMinute = 80.0, device = "test")))
+        val snapshot = TriggerDummy(injector).newSnapshot()
+        val lower = TriggerHeartRate(injector).apply { heartRate.value = 70.0; comparator.value = Comparator.Compare.IS_GREATER }
+        val higher = TriggerHeartRate(injector).apply { heartRate.value = 90.0; comparator.value = Comparator.Compare.IS_GREATER }
+        assertThat(lower.shouldRun(snapshot)).isTrue()
+        assertThat(higher.shouldRun(snapshot)).isFalse()
+        verify(persistenceLayer, times(1)).getHeartRatesFromTime(now - lower.averageHeartRateDurationMillis)
+    }
+
+    @Test
+    fun connectorInputs() {
+        val connector = TriggerConnector(injector, TriggerConnector.Type.AND).apply {
+            list.add(TriggerBg(injector))
+            list.add(TriggerConnector(injector, TriggerConnector.Type.OR).apply {
+                list.add(TriggerIob(injector))
+                list.add(TriggerWifiSsid(injector))
+            })
+        }
+        assertThat(connector.inputs).containsExactly(TriggerInput.GLUCOSE, TriggerInput.IOB, TriggerInput.WIFI)
+        assertThat(TriggerConnector(injector).inputs).isEmpty()
+    }
+}
@@ -51,6 +51,7 @@ open class TriggerTestBase : TestBaseWithProfile() {
                 it.glucoseStatusProvider = smbGlucoseStatusProvider
                 it.dateUtil = dateUtil
                 it.profileUtil = profileUtil
+                it.receiverStatusStore = receiverStatusStore
             }
             if (it is TriggerReservoirLevel) {
                 it.insulin = insulin
@@ -71,9 +72,6 @@ open class TriggerTestBase : TestBaseWithProfile() {
                 it.context = context
                 it.automationPlugin = automationPlugin
             }
-            if (it is TriggerWifiSsid) {
-                it.receiverStatusStore = receiverStatusStore
-            }
         }
     }
 
@@ -0,0 +1,189 @@
+package app.aaps.plugins.main.iob.iobCobCalculator
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.ICfg
+import app.aaps.core.data.model.TB
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.profile.EffectiveProfile
+import app.aaps.core.objects.extensions.forEachInsulinPart
+import app.aaps.core.objects.extensions.forEachNetInsulinPart
+
+/**
+ * Incremental IOB calculation over ascending time points
+ *
+ * Treatments are split once into primitive insulin parts (boluses, 5 min parts of TBRs and extended boluses)
+ * and kept ordered by start of the treatment. [calculate] must be called with non-decreasing time.
+ * Treatments leaving the IOB window are dropped permanently so every point walks only active parts.
+ *
+ * Splitting is done to the end of the treatment, so all calculated points must be at or after
+ * end of every added TBR/EB (ie. running treatments cut to now and points >= now).
+ *
+ * Results are the same as IobCobCalculatorPlugin per point calculation
+ * (bolus part of calculateIobFromBolusToTime and TBR/EB part of calculateIobToTimeFromTempBasalsIncludingConvertedExtended)
+ *
+ * @param range time range to the past for IOB calculation in milliseconds
+ * @param snoozeDivisor ApsAmaBolusSnoozeDivisor
+ */
+class IobAccumulator(private val range: Long, private val snoozeDivisor: Double) {
+
+    private companion object {
+
+        const val BOLUS: Byte = 0
+        const val SMB: Byte = 1
+        const val PRIMING: Byte = 2
+        const val EXTENDED: Byte = 3
+        const val TEMP_BASAL: Byte = 4
+        const val FAKE_EXTENDED: Byte = 5
+    }
+
+    private var size = 0
+    private var treatmentStarts = LongArray(64)
+    private var timestamps = LongArray(64)
+    private var amounts = DoubleArray(64)
+    private var kinds = ByteArray(64)
+    private var iCfgIndexes = IntArray(64)
+    private val iCfgs = ArrayList<ICfg>()
+
+    private var sorted = false
+    private var first = 0
+    private var lastTime = Long.MIN_VALUE
+
+    fun addBolus(bolus: BS) {
+        val kind = when (bolus.type) {
+            BS.Type.SMB     -> SMB
+            BS.Type.PRIMING -> PRIMING
+            else            -> BOLUS
+        }
+        add(bolus.timestamp, bolus.timestamp, bolus.amount, kind, bolus.iCfg)
+    }
+
+    /**
+     * @param sensitivityRatio null for calculation without autosens
+     */
+    fun addTemporaryBasal(temporaryBasal: TB, profile: EffectiveProfile, sensitivityRatio: Double?) {
+        if (!temporaryBasal.isValid) return
+        temporaryBasal.forEachNetInsulinPart(temporaryBasal.end, profile, sensitivityRatio) { calcDate, amount ->
+            add(temporaryBasal.timestamp, calcDate, amount, TEMP_BASAL, profile.iCfg)
+        }
+    }
+
+    /**
+     * @param emulatingTempBasal pump is faking TBRs by extended boluses. Insulin is accounted as basal IOB
+     * @param sensitivityRatio null for calculation without autosens
+     */
+    fun addExtendedBolus(extendedBolus: EB, profile: EffectiveProfile, emulatingTempBasal: Boolean, sensitivityRatio: Double?) {
+        if (!extendedBolus.isValid) return
+        val kind = if (emulatingTempBasal) FAKE_EXTENDED else EXTENDED
+        extendedBolus.forEachInsulinPart(extendedBolus.end, profile, sensitivityRatio) { calcDate, amount ->
+            add(extendedBolus.timestamp, calcDate, amount, kind, profile.iCfg)
+        }
+    }
+
+    /**
+     * Calculate IOB at [time]
+     *
+     * @param bolusIob receives IOB from boluses and not emulating extended boluses
+     * @param basalIob receives IOB from TBRs and emulating extended boluses
+     */
+    fun calculate(time: Long, bolusIob: IobTotal, basalIob: IobTotal) {
+        require(time >= lastTime) { "Time must not decrease" }
+        lastTime = time
+        if (!sorted) sort()
+        // drop treatments out of window
+        val from = time - range
+        while (first < size && treatmentStarts[first] < from) first++
+
+        var extendedIob = 0.0
+        var extendedActivity = 0.0
+        var extendedInsulin = 0.0
+        var netBasalAmount = 0.0
+        for (i in first until size) {
+            val start = treatmentStarts[i]
+            if (start > time) break
+            val kind = kinds[i]
+            val timestamp = timestamps[i]
+            val amount = amounts[i]
+            val iCfg = iCfgs[iCfgIndexes[i]]
+            if (kind == BOLUS || kind == SMB || kind == PRIMING) {
+                if (timestamp == time) continue
+                if (amount > 0 && timestamp > bolusIob.lastBolusTime) bolusIob.lastBolusTime = timestamp
+                if (kind == PRIMING) continue
+                bolusIob.iob += iCfg.iobContrib(amount, timestamp, time)
+                bolusIob.activity += iCfg.activityContrib(amount, timestamp, time)
+                if (kind != SMB) {
+                    // instead of dividing the DIA that only worked on the bilinear curves,
+                    // multiply the time the treatment is seen active.
+                    val snoozeTime = timestamp + ((time - timestamp) * snoozeDivisor).toLong()
+                    bolusIob.bolussnooze += iCfg.iobContrib(amount, timestamp, snoozeTime)
+                }
+                continue
+            }
+            if (timestamp <= time - iCfg.insulinEndTime || timestamp > time) continue
+            val iob = iCfg.iobContrib(amount, timestamp, time)
+            val activity = iCfg.activityContrib(amount, timestamp, time)
+            when (kind) {
+                EXTENDED      -> {
+                    bolusIob.iob += iob
+                    bolusIob.activity += activity
+                    bolusIob.extendedBolusInsulin += amount
+                }
+
+                TEMP_BASAL    -> {
+                    netBasalAmount += amount
+                    basalIob.basaliob += iob
+                    basalIob.activity += activity
+                    basalIob.netbasalinsulin += amount
+                    if (amount > 0) basalIob.hightempinsulin += amount
+                }
+
+                FAKE_EXTENDED -> {
+                    extendedIob += iob
+                    extendedActivity += activity
+                    extendedInsulin += amount
+                }
+            }
+        }
+        basalIob.netInsulin += netBasalAmount
+        // Convert emulating extended boluses to basal iob
+        basalIob.basaliob += extendedIob
+        basalIob.activity += extendedActivity
+        basalIob.netbasalinsulin += extendedInsulin
+        basalIob.hightempinsulin += extendedInsulin
+        basalIob.extendedBolusInsulin += extendedInsulin
+    }
+
+    private fun add(treatmentStart: Long, timestamp: Long, amount: Double, kind: Byte, iCfg: ICfg) {
+        check(!sorted) { "Treatments must be added before calculation" }
+        if (size == treatmentStarts.size) {
+            val newCapacity = size * 2
+            treatmentStarts = treatmentStarts.copyOf(newCapacity)
+            timestamps = timestamps.copyOf(newCapacity)
+            amounts = amounts.copyOf(newCapacity)
+            kinds = kinds.copyOf(newCapacity)
+            iCfgIndexes = iCfgIndexes.copyOf(newCapacity)
+        }
+        var iCfgIndex = iCfgs.indexOf(iCfg)
+        if (iCfgIndex < 0) {
+            iCfgs.add(iCfg)
+            iCfgIndex = iCfgs.size - 1
+        }
+        treatmentStarts[size] = treatmentStart
+        timestamps[size] = timestamp
+        amounts[size] = amount
+        kinds[size] = kind
+        iCfgIndexes[size] = iCfgIndex
+        size++
+    }
+
+    // order parts by start of treatment (stable)
+    private fun sort() {
+        sorted = true
+        val order = (0 until size).sortedBy { treatmentStarts[it] }
+        treatmentStarts = LongArray(size) { treatmentStarts[order[it]] }
+        timestamps = LongArray(size) { timestamps[order[it]] }
+        amounts = DoubleArray(size) { amounts[order[it]] }
+        kinds = ByteArray(size) { kinds[order[it]] }
+        iCfgIndexes = IntArray(size) { iCfgIndexes[order[it]] }
+    }
+}
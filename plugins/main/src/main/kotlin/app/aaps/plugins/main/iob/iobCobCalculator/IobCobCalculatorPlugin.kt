@@ -46,6 +46,7 @@ import app.aaps.core.keys.DoubleKey
 import app.aaps.core.keys.IntKey
 import app.aaps.core.keys.StringKey
 import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.core.objects.extensions.basalSensitivityRatio
 import app.aaps.core.objects.extensions.combine
 import app.aaps.core.objects.extensions.convertedToAbsolute
 import app.aaps.core.objects.extensions.iobCalc
@@ -53,6 +54,7 @@ import app.aaps.core.objects.extensions.plus
 import app.aaps.core.objects.extensions.round
 import app.aaps.plugins.main.R
 import app.aaps.plugins.main.iob.iobCobCalculator.data.AutosensDataStoreObject
+import app.aaps.plugins.main.iob.iobCobCalculator.data.TreatmentTimeline
 import io.reactivex.rxjava3.disposables.CompositeDisposable
 import io.reactivex.rxjava3.kotlin.plusAssign
 import kotlinx.coroutines.CoroutineScope
@@ -113,6 +115,9 @@ class IobCobCalculatorPlugin @Inject constructor(
 
     override var ads: AutosensDataStore = AutosensDataStoreObject()
 
+    // Boluses, TBRs and EBs used for IOB calculation, served from memory
+    private val treatmentTimeline = TreatmentTimeline(persistenceLayer, dateUtil)
+
     private val dataLock = Any()
     private var thread: Thread? = null
 
@@ -155,15 +160,18 @@ class IobCobCalculatorPlugin @Inject constructor(
             .onEach { list -> list.minOfOrNull { it.timestamp }?.let { scheduleHistoryDataChange(it, reloadBgData = false) } }
             .launchIn(newScope)
         persistenceLayer.observeChanges(BS::class.java)
+            .onEach { list -> treatmentTimeline.updateBoluses(list) }
             .onEach { list -> list.minOfOrNull { it.timestamp }?.let { scheduleHistoryDataChange(it, reloadBgData = false) } }
             .launchIn(newScope)
         persistenceLayer.observeChanges(BCR::class.java)
             .onEach { list -> list.minOfOrNull { it.timestamp }?.let { scheduleHistoryDataChange(it, reloadBgData = false) } }
             .launchIn(newScope)
         persistenceLayer.observeChanges(TB::class.java)
+            .onEach { list -> treatmentTimeline.updateTemporaryBasals(list) }
             .onEach { list -> list.minOfOrNull { it.timestamp }?.let { scheduleHistoryDataChange(it, reloadBgData = false) } }
             .launchIn(newScope)
         persistenceLayer.observeChanges(EB::class.java)
+            .onEach { list -> treatmentTimeline.updateExtendedBoluses(list) }
             .onEach { list -> list.minOfOrNull { it.timestamp }?.let { scheduleHistoryDataChange(it, reloadBgData = false) } }
             .launchIn(newScope)
         // Units change
@@ -225,6 +233,8 @@ class IobCobCalculatorPlugin @Inject constructor(
             iobTable = LongSparseArray()
             basalDataTable = LongSparseArray()
         }
+        // reloaded once per calculation run, kept current by observeChanges in between
+        treatmentTimeline.reset()
     }
 
     private suspend fun oldestDataAvailable(): Long {
@@ -265,22 +275,8 @@ class IobCobCalculatorPlugin @Inject constructor(
         } // else log.debug(">>> calculateFromTreatmentsAndTemps Cache miss " + new Date(time).toLocaleString());
         val bolusIob = calculateIobFromBolusToTime(time).round()
         val basalIob = calculateIobToTimeFromTempBasalsIncludingConvertedExtended(time).round()
-        // OpenAPSSMB only
-        // Add expected zero temp basal for next 240 minutes
-        val basalIobWithZeroTemp = basalIob.copy()
-        val t = TB(
-            timestamp = now + 60 * 1000L,
-            duration = 240 * 60 * 1000L,
-            rate = 0.0,
-            isAbsolute = true,
-            type = TB.Type.NORMAL,
-        )
-        if (t.timestamp < time) {
-            val calc = t.iobCalc(time, profile)
-            basalIobWithZeroTemp.plus(calc)
-        }
-        basalIob.iobWithZeroTemp = IobTotal.combine(bolusIob, basalIobWithZeroTemp).round()
-        val iobTotal = IobTotal.combine(bolusIob, basalIob).round()
+        val zeroTemp = expectedZeroTemp(now)
+        val iobTotal = combineWithZeroTemp(bolusIob, basalIob, if (zeroTemp.timestamp < time) zeroTemp.iobCalc(time, profile) else null)
         if (time < System.currentTimeMillis()) {
             synchronized(dataLock) {
                 iobTable.put(time, iobTotal)
@@ -289,31 +285,52 @@ class IobCobCalculatorPlugin @Inject constructor(
         return iobTotal
     }
 
-    private suspend fun calculateFromTreatmentsAndTemps(time: Long, lastAutosensResult: AutosensResult, exerciseMode: Boolean, halfBasalExerciseTarget: Int, isTempTarget: Boolean): IobTotal {
-        val now = dateUtil.now()
-        val bolusIob = calculateIobFromBolusToTime(time).round()
-        val basalIob = getCalculationToTimeTempBasals(time, lastAutosensResult, exerciseMode, halfBasalExerciseTarget, isTempTarget).round()
-        // OpenAPSSMB only
-        // Add expected zero temp basal for next 240 minutes
-        val basalIobWithZeroTemp = basalIob.copy()
-        val t = TB(
+    /**
+     * OpenAPSSMB only
+     * Expected zero temp basal for next 240 minutes
+     */
+    private fun expectedZeroTemp(now: Long): TB =
+        TB(
             timestamp = now + 60 * 1000L,
             duration = 240 * 60 * 1000L,
             rate = 0.0,
             isAbsolute = true,
             type = TB.Type.NORMAL
         )
-        if (t.timestamp < time) {
-            val profile = profileFunction.getProfile(t.timestamp)
-            if (profile != null) {
-                val calc = t.iobCalc(time, profile, lastAutosensResult, exerciseMode, halfBasalExerciseTarget, isTempTarget)
-                basalIobWithZeroTemp.plus(calc)
-            }
-        }
+
+    /**
+     * Combine rounded bolus and basal IOB and add iobWithZeroTemp
+     */
+    private fun combineWithZeroTemp(bolusIob: IobTotal, basalIob: IobTotal, zeroTempIob: IobTotal?): IobTotal {
+        val basalIobWithZeroTemp = basalIob.copy()
+        if (zeroTempIob != null) basalIobWithZeroTemp.plus(zeroTempIob)
         basalIob.iobWithZeroTemp = IobTotal.combine(bolusIob, basalIobWithZeroTemp).round()
         return IobTotal.combine(bolusIob, basalIob).round()
     }
 
+    /**
+     * Split boluses, TBRs and EBs affecting IOB in [from, to] into [IobAccumulator]
+     * Running TBR and EB are cut to [now] so points must be >= [now]
+     *
+     * @param sensitivityRatio autosens ratio for profile or null for calculation without autosens
+     */
+    private suspend fun prepareIobAccumulator(from: Long, to: Long, now: Long, sensitivityRatio: (EffectiveProfile) -> Double?): IobAccumulator {
+        val range = range()
+        val accumulator = IobAccumulator(range, preferences.get(DoubleKey.ApsAmaBolusSnoozeDivisor))
+        treatmentTimeline.getBolusesFromTime(from - range).forEach { accumulator.addBolus(it) }
+        for (tb in treatmentTimeline.getTemporaryBasalsStartingFromTimeToTime(from - range, to)) {
+            val profile = profileFunction.getProfile(tb.timestamp) ?: continue
+            accumulator.addTemporaryBasal(tb.cutToTime(now), profile, sensitivityRatio(profile))
+        }
+        val emulatingTempBasal = activePlugin.activePump.isFakingTempsByExtendedBoluses
+        for (eb in treatmentTimeline.getExtendedBolusesStartingFromTimeToTime(from - range, to)) {
+            val profile = profileFunction.getProfile(eb.timestamp) ?: continue
+            // not emulating extended boluses are calculated without autosens
+            accumulator.addExtendedBolus(eb.cutToTime(now), profile, emulatingTempBasal, if (emulatingTempBasal) sensitivityRatio(profile) else null)
+        }
+        return accumulator
+    }
+
     override suspend fun getBasalData(profile: Profile, fromTime: Long): BasalData {
         val now = System.currentTimeMillis()
         val time = ads.roundUpTime(fromTime)
@@ -399,29 +416,39 @@ class IobCobCalculatorPlugin @Inject constructor(
 
     override suspend fun calculateIobArrayInDia(profile: EffectiveProfile): Array<IobTotal> {
         // predict IOB out to DIA plus 30m
-        var time = System.currentTimeMillis()
-        time = ads.roundUpTime(time)
+        val now = System.currentTimeMillis()
+        val time = ads.roundUpTime(now)
         val len = ((profile.iCfg.dia * 60 + 30) / 5).toInt()
-        val array = Array(len) { IobTotal(0) }
-        for ((pos, i) in (0 until len).withIndex()) {
-            val t = time + i * 5 * 60000
-            val iob = calculateFromTreatmentsAndTemps(t, profile)
-            array[pos] = iob
+        val accumulator = prepareIobAccumulator(time, time + len * 5 * 60000L, now) { null }
+        val zeroTemp = expectedZeroTemp(now)
+        return Array(len) { i ->
+            val t = time + i * 5 * 60000L
+            val bolusIob = IobTotal(t)
+            val basalIob = IobTotal(t)
+            accumulator.calculate(t, bolusIob, basalIob)
+            combineWithZeroTemp(bolusIob.round(), basalIob.round(), if (zeroTemp.timestamp < t) zeroTemp.iobCalc(t, profile) else null)
         }
-        return array
     }
 
     override suspend fun calculateIobArrayForSMB(lastAutosensResult: AutosensResult, exerciseMode: Boolean, halfBasalExerciseTarget: Int, isTempTarget: Boolean): Array<IobTotal> {
         // predict IOB out to DIA plus 30m
         val now = dateUtil.now()
         val len = 4 * 60 / 5
-        val array = Array(len) { IobTotal(0) }
-        for ((pos, i) in (0 until len).withIndex()) {
-            val t = now + i * 5 * 60000
-            val iob = calculateFromTreatmentsAndTemps(t, lastAutosensResult, exerciseMode, halfBasalExerciseTarget, isTempTarget)
-            array[pos] = iob
+        val accumulator = prepareIobAccumulator(now, now + len * 5 * 60000L, now) { profile ->
+            basalSensitivityRatio(profile, lastAutosensResult, exerciseMode, halfBasalExerciseTarget, isTempTarget)
+        }
+        val zeroTemp = expectedZeroTemp(now)
+        val zeroTempProfile = profileFunction.getProfile(zeroTemp.timestamp)
+        return Array(len) { i ->
+            val t = now + i * 5 * 60000L
+            val bolusIob = IobTotal(t)
+            val basalIob = IobTotal(t)
+            accumulator.calculate(t, bolusIob, basalIob)
+            val zeroTempIob =
+                if (zeroTemp.timestamp < t && zeroTempProfile != null) zeroTemp.iobCalc(t, zeroTempProfile, lastAutosensResult, exerciseMode, halfBasalExerciseTarget, isTempTarget)
+                else null
+            combineWithZeroTemp(bolusIob.round(), basalIob.round(), zeroTempIob)
         }
-        return array
     }
 
     override fun iobArrayToString(array: Array<IobTotal>): String {
@@ -539,7 +566,7 @@ class IobCobCalculatorPlugin @Inject constructor(
         val divisor = preferences.get(DoubleKey.ApsAmaBolusSnoozeDivisor)
         assert(divisor > 0)
 
-        val boluses = persistenceLayer.getBolusesFromTime(toTime - range(), true)
+        val boluses = treatmentTimeline.getBolusesFromTime(toTime - range())
 
         boluses.forEach { t ->
             if (t.isValid && t.timestamp < toTime) {
@@ -567,15 +594,10 @@ class IobCobCalculatorPlugin @Inject constructor(
         val now = dateUtil.now()
         val pumpInterface = activePlugin.activePump
         if (!pumpInterface.isFakingTempsByExtendedBoluses) {
-            val extendedBoluses = persistenceLayer.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime, true)
+            val extendedBoluses = treatmentTimeline.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime)
             for (pos in extendedBoluses.indices) {
-                val e = extendedBoluses[pos]
+                val e = extendedBoluses[pos].cutToTime(now)
                 if (e.timestamp > toTime) continue
-                if (e.end > now) {
-                    val newDuration = now - e.timestamp
-                    e.amount *= newDuration.toDouble() / e.duration
-                    e.duration = newDuration
-                }
                 val profile = profileFunction.getProfile(e.timestamp) ?: return total
                 val calc = e.iobCalc(toTime, profile)
                 total.plus(calc)
@@ -594,16 +616,9 @@ class IobCobCalculatorPlugin @Inject constructor(
                 continue
             }
             val running = profile.getBasal(i)
-            val bolus = BS(
-                timestamp = i,
-                amount = running * 5.0 / 60.0,
-                type = BS.Type.NORMAL,
-                isBasalInsulin = true,
-                iCfg = profile.iCfg
-            )
-            val iob = bolus.iobCalc(toTime)
-            total.basaliob += iob.iobContrib
-            total.activity += iob.activityContrib
+            val amount = running * 5.0 / 60.0
+            total.basaliob += profile.iCfg.iobContrib(amount, i, toTime)
+            total.activity += profile.iCfg.activityContrib(amount, i, toTime)
             i += T.mins(5).msecs()
         }
         return total
@@ -617,29 +632,25 @@ class IobCobCalculatorPlugin @Inject constructor(
         val now = dateUtil.now()
         val pumpInterface = activePlugin.activePump
 
-        val temporaryBasals = persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(toTime - range(), toTime, true)
+        val temporaryBasals = treatmentTimeline.getTemporaryBasalsStartingFromTimeToTime(toTime - range(), toTime)
         for (pos in temporaryBasals.indices) {
             val t = temporaryBasals[pos]
             if (t.timestamp > toTime) continue
             val profile = profileFunction.getProfile(t.timestamp) ?: continue
-            if (t.end > now) t.duration = now - t.timestamp
-            val calc = t.iobCalc(toTime, profile)
+            val tb = t.cutToTime(now)
+            val calc = tb.iobCalc(toTime, profile)
             //log.debug("BasalIOB " + new Date(time) + " >>> " + calc.basalIob);
             total.plus(calc)
         }
         if (pumpInterface.isFakingTempsByExtendedBoluses) {
             val totalExt = IobTotal(toTime)
-            val extendedBoluses = persistenceLayer.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime, true)
+            val extendedBoluses = treatmentTimeline.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime)
             for (pos in extendedBoluses.indices) {
                 val e = extendedBoluses[pos]
                 if (e.timestamp > toTime) continue
                 val profile = profileFunction.getProfile(e.timestamp) ?: continue
-                if (e.end > now) {
-                    val newDuration = now - e.timestamp
-                    e.amount *= newDuration.toDouble() / e.duration
-                    e.duration = newDuration
-                }
-                val calc = e.iobCalc(toTime, profile)
+                val eb = e.cutToTime(now)
+                val calc = eb.iobCalc(toTime, profile)
                 totalExt.plus(calc)
             }
             // Convert to basal iob
@@ -652,42 +663,21 @@ class IobCobCalculatorPlugin @Inject constructor(
         return total
     }
 
-    private suspend fun getCalculationToTimeTempBasals(toTime: Long, lastAutosensResult: AutosensResult, exerciseMode: Boolean, halfBasalExerciseTarget: Int, isTempTarget: Boolean): IobTotal {
-        val total = IobTotal(toTime)
-        val pumpInterface = activePlugin.activePump
-        val now = dateUtil.now()
-        val temporaryBasals = persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(toTime - range(), toTime, true)
-        for (pos in temporaryBasals.indices) {
-            val t = temporaryBasals[pos]
-            if (t.timestamp > toTime) continue
-            val profile = profileFunction.getProfile(t.timestamp) ?: continue
-            if (t.end > now) t.duration = now - t.timestamp
-            val calc = t.iobCalc(toTime, profile, lastAutosensResult, exerciseMode, halfBasalExerciseTarget, isTempTarget)
-            //log.debug("BasalIOB " + new Date(time) + " >>> " + calc.basalIob);
-            total.plus(calc)
-        }
-        if (pumpInterface.isFakingTempsByExtendedBoluses) {
-            val totalExt = IobTotal(toTime)
-            val extendedBoluses = persistenceLayer.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime, true)
-            for (pos in extendedBoluses.indices) {
-                val e = extendedBoluses[pos]
-                if (e.timestamp > toTime) continue
-                val profile = profileFunction.getProfile(e.timestamp) ?: continue
-                if (e.end > now) {
-                    val newDuration = now - e.timestamp
-                    e.amount *= newDuration.toDouble() / e.duration
-                    e.duration = newDuration
-                }
-                val calc = e.iobCalc(toTime, profile, lastAutosensResult, exerciseMode, halfBasalExerciseTarget, isTempTarget)
-                totalExt.plus(calc)
-            }
-            // Convert to basal iob
-            totalExt.basaliob = totalExt.iob
-            totalExt.iob = 0.0
-            totalExt.netbasalinsulin = totalExt.extendedBolusInsulin
-            totalExt.hightempinsulin = totalExt.extendedBolusInsulin
-            total.plus(totalExt)
-        }
-        return total
-    }
-}
\ No newline at end of file
+    /**
+     * Running TBR is accounted only up to now.
+     * Timeline records are shared so a modified copy is returned
+     */
+    private fun TB.cutToTime(now: Long): TB =
+        if (end > now) copy().also { it.duration = now - timestamp } else this
+
+    /**
+     * Running EB is accounted only up to now (amount is reduced proportionally).
+     * Timeline records are shared so a modified copy is returned
+     */
+    private fun EB.cutToTime(now: Long): EB =
+        if (end > now) copy().also {
+            val newDuration = now - timestamp
+            it.amount *= newDuration.toDouble() / duration
+            it.duration = newDuration
+        } else this
+}
@@ -1,12 +1,13 @@
 package app.aaps.plugins.main.iob.iobCobCalculator.data
 
-import androidx.collection.LongSparseArray
-import androidx.collection.size
 import app.aaps.core.data.iob.InMemoryGlucoseValue
 import app.aaps.core.data.model.GV
+import app.aaps.core.data.model.SourceSensor
 import app.aaps.core.data.time.T
 import app.aaps.core.interfaces.aps.AutosensData
 import app.aaps.core.interfaces.aps.AutosensDataStore
+import app.aaps.core.interfaces.aps.AutosensDataTable
+import app.aaps.core.interfaces.aps.BucketedGlucose
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.utils.DateUtil
@@ -33,40 +34,52 @@ class AutosensDataStoreObject : AutosensDataStore {
         @Synchronized set
         @Synchronized get
 
-    override var autosensDataTable = LongSparseArray<AutosensData>() // oldest at index 0
+    override var autosensDataTable = AutosensDataTable() // oldest at index 0
         @Synchronized set
         @Synchronized get
 
+    @Volatile override var autosensDataGeneration = 0L
+        private set
+
     override var bucketedData: MutableList<InMemoryGlucoseValue>? = null
-        @Synchronized set
+        @Synchronized set(value) {
+            field = value
+            bucketedGlucose = null
+        }
         @Synchronized get
 
-    override fun clone(): AutosensDataStore =
-        AutosensDataStoreObject().also {
-            synchronized(dataLock) {
-                it.bgReadings = this.bgReadings.toMutableList()
-                it.autosensDataTable = LongSparseArray<AutosensData>(this.autosensDataTable.size).apply { putAll(this@AutosensDataStoreObject.autosensDataTable) }
-                it.bucketedData = this.bucketedData?.toMutableList()
-            }
+    // columnar view of bucketedData, built on first use after bucketedData is replaced
+    private var bucketedGlucose: BucketedGlucose? = null
+
+    override fun appendAutosensData(generation: Long, autosensData: AutosensData): AutosensDataTable? =
+        synchronized(dataLock) {
+            if (generation != autosensDataGeneration) null
+            else autosensDataTable.plus(autosensData.time, autosensData).also { autosensDataTable = it }
         }
 
-    override fun getBucketedDataTableCopy(): MutableList<InMemoryGlucoseValue>? = synchronized(dataLock) { bucketedData?.toMutableList() }
+    override fun getBucketedDataTable(): List<InMemoryGlucoseValue>? = bucketedData
+
+    @Synchronized
+    override fun getBucketedGlucose(): BucketedGlucose? =
+        bucketedGlucose ?: bucketedData?.let { BucketedGlucose(it) }?.also { bucketedGlucose = it }
     override fun getBgReadingsDataTableCopy(): List<GV> = synchronized(dataLock) { bgReadings.toMutableList() }
 
     override fun reset() {
-        synchronized(autosensDataTable) { autosensDataTable = LongSparseArray() }
+        synchronized(dataLock) {
+            autosensDataGeneration++
+            autosensDataTable = AutosensDataTable()
+        }
     }
 
     override fun newHistoryData(time: Long, aapsLogger: AAPSLogger, dateUtil: DateUtil) {
-        synchronized(autosensDataTable) {
-            for (index in autosensDataTable.size() - 1 downTo 0) {
-                if (autosensDataTable.keyAt(index) > time) {
-                    aapsLogger.debug(LTag.AUTOSENS) { "Removing from autosensDataTable: ${dateUtil.dateAndTimeAndSecondsString(autosensDataTable.keyAt(index))}" }
-                    autosensDataTable.removeAt(index)
-                } else {
-                    break
-                }
+        synchronized(dataLock) {
+            autosensDataGeneration++
+            val table = autosensDataTable
+            for (index in table.size() - 1 downTo 0) {
+                if (table.keyAt(index) > time) aapsLogger.debug(LTag.AUTOSENS) { "Removing from autosensDataTable: ${dateUtil.dateAndTimeAndSecondsString(table.keyAt(index))}" }
+                else break
             }
+            autosensDataTable = table.removeNewerThan(time)
         }
     }
 
@@ -98,11 +111,11 @@ class AutosensDataStoreObject : AutosensDataStore {
         return if (lastBg.timestamp > System.currentTimeMillis() - T.mins(9).msecs()) lastBg else null
     }
 
-    override fun lastDataTime(dateUtil: DateUtil): String =
-        synchronized(dataLock) {
-            if (autosensDataTable.size() > 0) dateUtil.dateAndTimeAndSecondsString(autosensDataTable.valueAt(autosensDataTable.size() - 1).time)
-            else "autosensDataTable empty"
-        }
+    override fun lastDataTime(dateUtil: DateUtil): String {
+        val table = autosensDataTable
+        return if (table.size() > 0) dateUtil.dateAndTimeAndSecondsString(table.valueAt(table.size() - 1).time)
+        else "autosensDataTable empty"
+    }
 
     fun findPreviousTimeFromBucketedData(time: Long): Long? {
         val bData = bucketedData ?: return null
@@ -226,101 +239,111 @@ class AutosensDataStoreObject : AutosensDataStore {
     }
 
     private fun createBucketedDataRecalculated(aapsLogger: AAPSLogger, dateUtil: DateUtil) {
-        if (bgReadings.size < 3) {
+        val readings = bgReadings
+        if (readings.size < 3) {
             bucketedData = null
             return
         }
-        val lastBg = bgReadings[0]
-        val newBucketedData = ArrayList<InMemoryGlucoseValue>()
-        var currentTime = bgReadings[0].timestamp
+        val lastBg = readings[0]
+        val size = readings.size
+        val timestamps = LongArray(size) { readings[it].timestamp }
+        val values = DoubleArray(size) { readings[it].value }
+        var currentTime = timestamps[0]
         val adjustedTime = adjustToReferenceTime(currentTime)
         // after adjusting time may be newer. In this case use T-5min
         currentTime = if (adjustedTime > currentTime) adjustedTime - T.mins(5).msecs() else adjustedTime
         aapsLogger.debug("Adjusted time " + dateUtil.dateAndTimeAndSecondsString(currentTime))
+        val bData = BucketColumns(((timestamps[0] - timestamps[size - 1]) / T.mins(5).msecs()).toInt() + 2)
+        // Single merge pass: currentTime only moves to the past so both cursors only move forward.
+        // Results are the same as findNewer(currentTime) and findOlder(currentTime)
+        var newerCursor = 1 // first index >= 1 with timestamp <= currentTime
+        var olderCursor = -1 // last index with timestamp >= currentTime
         while (true) {
-            // test if current value is older than current time
-            val newer = findNewer(currentTime)
-            val older = findOlder(currentTime)
-            if (newer == null || older == null) break
-            if (older.timestamp == newer.timestamp) { // direct hit
-                newBucketedData.add(InMemoryGlucoseValue.fromGv(newer))
+            while (newerCursor < size && timestamps[newerCursor] > currentTime) newerCursor++
+            while (olderCursor + 1 < size && timestamps[olderCursor + 1] >= currentTime) olderCursor++
+            if (timestamps[0] < currentTime || timestamps[size - 1] > currentTime) break
+            val newer = when {
+                newerCursor == size                     -> 0
+                timestamps[newerCursor] == currentTime -> newerCursor
+                else                                    -> newerCursor - 1
+            }
+            val olderCandidate = min(olderCursor, size - 2)
+            val older = when {
+                olderCandidate < 0                         -> size - 1
+                timestamps[olderCandidate] == currentTime -> olderCandidate
+                else                                       -> olderCandidate + 1
+            }
+            if (timestamps[older] == timestamps[newer]) { // direct hit
+                bData.add(timestamps[newer], values[newer], false, source = newer)
             } else {
-                val bgDelta = newer.value - older.value
-                val timeDiffToNew = newer.timestamp - currentTime
-                val timeDiffToOlder = currentTime - older.timestamp
+                val bgDelta = values[newer] - values[older]
+                val timeDiffToNew = timestamps[newer] - currentTime
+                val timeDiffToOlder = currentTime - timestamps[older]
                 val filledGap = min(timeDiffToOlder, timeDiffToNew) > T.secs(IRREGULAR_DATA_SEC).msecs()
-                val currentBg = newer.value - timeDiffToNew.toDouble() / (newer.timestamp - older.timestamp) * bgDelta
-                val newBgReading = InMemoryGlucoseValue(currentTime, currentBg.roundToLong().toDouble(), filledGap = filledGap, sourceSensor = lastBg.sourceSensor)
-                newBucketedData.add(newBgReading)
+                val currentBg = values[newer] - timeDiffToNew.toDouble() / (timestamps[newer] - timestamps[older]) * bgDelta
+                bData.add(currentTime, currentBg.roundToLong().toDouble(), filledGap)
             }
             currentTime -= T.mins(5).msecs()
         }
-        bucketedData = newBucketedData
+        bucketedData = bData.toGlucoseValues(readings, lastBg.sourceSensor)
     }
 
     private fun createBucketedData5min(aapsLogger: AAPSLogger, dateUtil: DateUtil) {
-        if (bgReadings.size < 3) {
+        val readings = bgReadings
+        if (readings.size < 3) {
             bucketedData = null
             return
         }
-        val lastBg = bgReadings[0]
-        val bData: MutableList<InMemoryGlucoseValue> = ArrayList()
-        bData.add(InMemoryGlucoseValue.fromGv(bgReadings[0]))
-        aapsLogger.debug(LTag.AUTOSENS) { "Adding. bgTime: ${dateUtil.toISOString(bgReadings[0].timestamp)} lastBgTime: none-first-value ${bgReadings[0]}" }
-        var j = 0
-        for (i in 1 until bgReadings.size) {
-            val bgTime = bgReadings[i].timestamp
-            var lastBgTime = bgReadings[i - 1].timestamp
+        val lastBg = readings[0]
+        val bData = BucketColumns(readings.size + 16)
+        bData.add(readings[0].timestamp, readings[0].value, false, source = 0)
+        aapsLogger.debug(LTag.AUTOSENS) { "Adding. bgTime: ${dateUtil.toISOString(readings[0].timestamp)} lastBgTime: none-first-value ${readings[0]}" }
+        for (i in 1 until readings.size) {
+            val bgTime = readings[i].timestamp
+            var lastBgTime = readings[i - 1].timestamp
             var elapsedMinutes = (bgTime - lastBgTime) / (60 * 1000)
             when {
                 abs(elapsedMinutes) > 8 -> {
                     // interpolate missing data points
-                    var lastBgValue = bgReadings[i - 1].value
+                    var lastBgValue = readings[i - 1].value
                     elapsedMinutes = abs(elapsedMinutes)
                     var nextBgTime: Long
                     while (elapsedMinutes > 5) {
                         nextBgTime = lastBgTime - 5 * 60 * 1000
-                        j++
-                        val gapDelta = bgReadings[i].value - lastBgValue
+                        val gapDelta = readings[i].value - lastBgValue
                         val nextBg = lastBgValue + 5.0 / elapsedMinutes * gapDelta
-                        val newBgReading = InMemoryGlucoseValue(nextBgTime, nextBg.roundToLong().toDouble(), filledGap = true, sourceSensor = lastBg.sourceSensor)
-                        bData.add(newBgReading)
-                        aapsLogger.debug(LTag.AUTOSENS) { "Adding. bgTime: ${dateUtil.toISOString(bgTime)} lastBgTime: ${dateUtil.toISOString(lastBgTime)} $newBgReading" }
+                        bData.add(nextBgTime, nextBg.roundToLong().toDouble(), true)
+                        aapsLogger.debug(LTag.AUTOSENS) { "Adding. bgTime: ${dateUtil.toISOString(bgTime)} lastBgTime: ${dateUtil.toISOString(lastBgTime)} ${bData.describe(bData.size - 1)}" }
                         elapsedMinutes -= 5
                         lastBgValue = nextBg
                         lastBgTime = nextBgTime
                     }
-                    j++
-                    val newBgReading = InMemoryGlucoseValue(bgTime, bgReadings[i].value, sourceSensor = lastBg.sourceSensor)
-                    bData.add(newBgReading)
-                    aapsLogger.debug(LTag.AUTOSENS) { "Adding. bgTime: ${dateUtil.toISOString(bgTime)} lastBgTime: ${dateUtil.toISOString(lastBgTime)} $newBgReading" }
+                    bData.add(bgTime, readings[i].value, false)
+                    aapsLogger.debug(LTag.AUTOSENS) { "Adding. bgTime: ${dateUtil.toISOString(bgTime)} lastBgTime: ${dateUtil.toISOString(lastBgTime)} ${bData.describe(bData.size - 1)}" }
                 }
 
                 abs(elapsedMinutes) > 2 -> {
-                    j++
-                    val newBgReading = InMemoryGlucoseValue(bgTime, bgReadings[i].value, sourceSensor = lastBg.sourceSensor)
-                    bData.add(newBgReading)
-                    aapsLogger.debug(LTag.AUTOSENS) { "Adding. bgTime: ${dateUtil.toISOString(bgTime)} lastBgTime: ${dateUtil.toISOString(lastBgTime)} $newBgReading" }
+                    bData.add(bgTime, readings[i].value, false)
+                    aapsLogger.debug(LTag.AUTOSENS) { "Adding. bgTime: ${dateUtil.toISOString(bgTime)} lastBgTime: ${dateUtil.toISOString(lastBgTime)} ${bData.describe(bData.size - 1)}" }
                 }
 
                 else                    -> {
-                    bData[j].value = (bData[j].value + bgReadings[i].value) / 2
+                    val j = bData.size - 1
+                    bData.values[j] = (bData.values[j] + readings[i].value) / 2
                 }
             }
         }
 
         // Normalize bucketed data
-        val oldest = bData[bData.size - 1]
-        oldest.timestamp = adjustToReferenceTime(oldest.timestamp)
-        aapsLogger.debug("Adjusted time " + dateUtil.dateAndTimeAndSecondsString(oldest.timestamp))
+        val timestamps = bData.timestamps
+        timestamps[bData.size - 1] = adjustToReferenceTime(timestamps[bData.size - 1])
+        aapsLogger.debug("Adjusted time " + dateUtil.dateAndTimeAndSecondsString(timestamps[bData.size - 1]))
         for (i in bData.size - 2 downTo 0) {
-            val current = bData[i]
-            val previous = bData[i + 1]
-            val mSecDiff = current.timestamp - previous.timestamp
+            val mSecDiff = timestamps[i] - timestamps[i + 1]
             val adjusted = (mSecDiff - T.mins(5).msecs()) / 1000
             aapsLogger.debug(LTag.AUTOSENS) {
-                "Adjusting bucketed data time. Current: ${dateUtil.dateAndTimeAndSecondsString(current.timestamp)} to: ${
-                    dateUtil.dateAndTimeAndSecondsString(previous.timestamp + T.mins(5).msecs())
+                "Adjusting bucketed data time. Current: ${dateUtil.dateAndTimeAndSecondsString(timestamps[i])} to: ${
+                    dateUtil.dateAndTimeAndSecondsString(timestamps[i + 1] + T.mins(5).msecs())
                 } by $adjusted sec"
             }
             if (abs(adjusted) > 90) {
@@ -329,23 +352,67 @@ class AutosensDataStoreObject : AutosensDataStore {
                 createBucketedDataRecalculated(aapsLogger, dateUtil)
                 return
             }
-            current.timestamp = previous.timestamp + T.mins(5).msecs()
+            timestamps[i] = timestamps[i + 1] + T.mins(5).msecs()
         }
         aapsLogger.debug(LTag.AUTOSENS, "Bucketed data created. Size: " + bData.size)
-        bucketedData = bData
+        bucketedData = bData.toGlucoseValues(readings, lastBg.sourceSensor)
+    }
+
+    /**
+     * Buckets under construction in primitive columns.
+     * InMemoryGlucoseValue objects are created only for the final result (and not at all if 5min bucketing falls back to recalculation).
+     */
+    private class BucketColumns(initialCapacity: Int) {
+
+        var timestamps = LongArray(initialCapacity)
+            private set
+        var values = DoubleArray(initialCapacity)
+            private set
+        var filledGaps = BooleanArray(initialCapacity)
+            private set
+
+        // index of GV the bucket is taken from (keeps trend arrow and sensor), -1 if bucket is calculated
+        private var sources = IntArray(initialCapacity)
+        var size = 0
+            private set
+
+        fun add(timestamp: Long, value: Double, filledGap: Boolean, source: Int = -1) {
+            if (size == timestamps.size) {
+                val newCapacity = timestamps.size * 2 + 1
+                timestamps = timestamps.copyOf(newCapacity)
+                values = values.copyOf(newCapacity)
+                filledGaps = filledGaps.copyOf(newCapacity)
+                sources = sources.copyOf(newCapacity)
+            }
+            timestamps[size] = timestamp
+            values[size] = value
+            filledGaps[size] = filledGap
+            sources[size] = source
+            size++
+        }
+
+        fun toGlucoseValues(readings: List<GV>, sourceSensor: SourceSensor): MutableList<InMemoryGlucoseValue> =
+            MutableList(size) { i ->
+                if (sources[i] >= 0) InMemoryGlucoseValue.fromGv(readings[sources[i]]).also {
+                    it.timestamp = timestamps[i]
+                    it.value = values[i]
+                }
+                else InMemoryGlucoseValue(timestamps[i], values[i], filledGap = filledGaps[i], sourceSensor = sourceSensor)
+            }
+
+        fun describe(index: Int) = "timestamp=${timestamps[index]} value=${values[index]} filledGap=${filledGaps[index]}"
     }
 
     override fun slowAbsorptionPercentage(timeInMinutes: Int): Double {
         var sum = 0.0
         var count = 0
         val valuesToProcess = timeInMinutes / 5
-        synchronized(dataLock) {
-            var i = autosensDataTable.size() - 1
-            while (i >= 0 && count < valuesToProcess) {
-                if (autosensDataTable.valueAt(i).failOverToMinAbsorptionRate) sum++
-                count++
-                i--
-            }
+        val table = autosensDataTable
+        var i = table.size() - 1
+        while (i >= 0 && count < valuesToProcess) {
+            if (table.valueAt(i).failOverToMinAbsorptionRate) sum++
+            count++
+            i--
         }
         return if (count != 0) sum / count else 0.0
     }
@@ -0,0 +1,230 @@
+package app.aaps.plugins.main.iob.iobCobCalculator.data
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.HasIDs
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.model.TimeStamped
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.utils.DateUtil
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlin.math.min
+
+/**
+ * In-memory, time-indexed snapshot of boluses, temporary basals and extended boluses
+ * used by IOB calculation.
+ *
+ * Data is loaded from database once (see [ensureLoaded]) and then kept current by
+ * feeding changed records from [PersistenceLayer.observeChanges] to [update].
+ * Range queries are binary searches over primitive timestamp arrays so every IOB point
+ * is served from memory instead of running a Room query.
+ *
+ * Returned records are shared and must not be modified by caller.
+ */
+class TreatmentTimeline(
+    private val persistenceLayer: PersistenceLayer,
+    private val dateUtil: DateUtil
+) {
+
+    companion object {
+
+        /** Minimal window loaded to the past. Covers autosens detection (24h + DIA) plus DIA of IOB */
+        val DEFAULT_WINDOW = T.hours(48).msecs()
+    }
+
+    private val lock = Any()
+    private val loadMutex = Mutex()
+
+    private val boluses = Series<BS>()
+    private val temporaryBasals = Series<TB>()
+    private val extendedBoluses = Series<EB>()
+
+    // Oldest timestamp covered by loaded data. Long.MAX_VALUE if nothing is loaded
+    @Volatile private var loadedFrom = Long.MAX_VALUE
+
+    // Incremented on every change to detect updates racing with load
+    private var generation = 0L
+
+    /**
+     * Make sure data from [from] (inclusive) are available in memory
+     */
+    suspend fun ensureLoaded(from: Long) {
+        if (from >= loadedFrom) return
+        loadMutex.withLock {
+            if (from >= loadedFrom) return
+            val start = min(from, dateUtil.now() - DEFAULT_WINDOW)
+            while (true) {
+                val startGeneration = synchronized(lock) { generation }
+                val bs = persistenceLayer.getBolusesFromTime(start, true)
+                val tbs = persistenceLayer.getTemporaryBasalsStartingFromTime(start, true)
+                val ebs = persistenceLayer.getExtendedBolusesStartingFromTime(start, true)
+                synchronized(lock) {
+                    // if something has changed during load, data may be stale. Repeat
+                    if (startGeneration == generation) {
+                        boluses.set(bs)
+                        temporaryBasals.set(tbs)
+                        extendedBoluses.set(ebs)
+                        loadedFrom = start
+                        return
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop all data. Next query loads it again from database
+     */
+    fun reset() {
+        synchronized(lock) {
+            generation++
+            loadedFrom = Long.MAX_VALUE
+            boluses.clear()
+            temporaryBasals.clear()
+            extendedBoluses.clear()
+        }
+    }
+
+    fun updateBoluses(changes: List<BS>) = update(boluses, changes)
+    fun updateTemporaryBasals(changes: List<TB>) = update(temporaryBasals, changes)
+    fun updateExtendedBoluses(changes: List<EB>) = update(extendedBoluses, changes)
+
+    private fun <E> update(series: Series<E>, changes: List<E>) where E : TimeStamped, E : HasIDs {
+        synchronized(lock) {
+            generation++
+            if (loadedFrom == Long.MAX_VALUE) return
+            for (record in changes) {
+                // historic copies are not part of the timeline
+                if (record.referenceId != null) continue
+                series.remove(record.id)
+                if (record.isValid && record.timestamp >= loadedFrom) series.insert(record)
+            }
+        }
+    }
+
+    /**
+     * Equivalent of [PersistenceLayer.getBolusesFromTime]
+     * @return valid boluses with timestamp >= [from] sorted by timestamp
+     */
+    suspend fun getBolusesFromTime(from: Long): List<BS> {
+        ensureLoaded(from)
+        return synchronized(lock) { boluses.range(from, Long.MAX_VALUE) }
+    }
+
+    /**
+     * Equivalent of [PersistenceLayer.getTemporaryBasalsStartingFromTimeToTime]
+     * @return valid temporary basals with timestamp in [from, to] sorted by timestamp
+     */
+    suspend fun getTemporaryBasalsStartingFromTimeToTime(from: Long, to: Long): List<TB> {
+        ensureLoaded(from)
+        return synchronized(lock) { temporaryBasals.range(from, to) }
+    }
+
+    /**
+     * Equivalent of [PersistenceLayer.getExtendedBolusesStartingFromTimeToTime]
+     * @return valid extended boluses with timestamp in [from, to] sorted by timestamp
+     */
+    suspend fun getExtendedBolusesStartingFromTimeToTime(from: Long, to: Long): List<EB> {
+        ensureLoaded(from)
+        return synchronized(lock) { extendedBoluses.range(from, to) }
+    }
+
+    /**
+     * Records sorted by timestamp with parallel primitive arrays of timestamps and ids.
+     * Not thread safe, guarded by [lock]
+     */
+    private class Series<E> where E : TimeStamped, E : HasIDs {
+
+        private var timestamps = LongArray(16)
+        private var ids = LongArray(16)
+        private var records = arrayOfNulls<Any>(16)
+        private var size = 0
+
+        fun clear() {
+            records.fill(null, 0, size)
+            size = 0
+        }
+
+        fun set(list: List<E>) {
+            clear()
+            ensureCapacity(list.size)
+            list.sortedBy { it.timestamp }.forEach { append(it) }
+        }
+
+        fun insert(record: E) {
+            ensureCapacity(size + 1)
+            val index = upperBound(record.timestamp)
+            System.arraycopy(timestamps, index, timestamps, index + 1, size - index)
+            System.arraycopy(ids, index, ids, index + 1, size - index)
+            System.arraycopy(records, index, records, index + 1, size - index)
+            timestamps[index] = record.timestamp
+            ids[index] = record.id
+            records[index] = record
+            size++
+        }
+
+        fun remove(id: Long) {
+            for (index in 0 until size) {
+                if (ids[index] == id) {
+                    System.arraycopy(timestamps, index + 1, timestamps, index, size - index - 1)
+                    System.arraycopy(ids, index + 1, ids, index, size - index - 1)
+                    System.arraycopy(records, index + 1, records, index, size - index - 1)
+                    records[--size] = null
+                    return
+                }
+            }
+        }
+
+        /**
+         * @return records with timestamp in [from, to]
+         */
+        @Suppress("UNCHECKED_CAST")
+        fun range(from: Long, to: Long): List<E> {
+            val start = lowerBound(from)
+            val end = upperBound(to)
+            if (start >= end) return emptyList()
+            val result = ArrayList<E>(end - start)
+            for (index in start until end) result.add(records[index] as E)
+            return result
+        }
+
+        private fun append(record: E) {
+            timestamps[size] = record.timestamp
+            ids[size] = record.id
+            records[size] = record
+            size++
+        }
+
+        private fun ensureCapacity(capacity: Int) {
+            if (capacity <= timestamps.size) return
+            val newCapacity = maxOf(capacity, timestamps.size * 2)
+            timestamps = timestamps.copyOf(newCapacity)
+            ids = ids.copyOf(newCapacity)
+            records = records.copyOf(newCapacity)
+        }
+
+        // first index with timestamp >= time
+        private fun lowerBound(time: Long): Int {
+            var low = 0
+            var high = size
+            while (low < high) {
+                val mid = (low + high) ushr 1
+                if (timestamps[mid] < time) low = mid + 1 else high = mid
+            }
+            return low
+        }
+
+        // first index with timestamp > time
+        private fun upperBound(time: Long): Int {
+            var low = 0
+            var high = size
+            while (low < high) {
+                val mid = (low + high) ushr 1
+                if (timestamps[mid] <= time) low = mid + 1 else high = mid
+            }
+            return low
+        }
+    }
+}
@@ -1,11 +1,11 @@
 package app.aaps.plugins.main.iob
 
-import androidx.collection.LongSparseArray
+import app.aaps.core.data.iob.InMemoryGlucoseValue
 import app.aaps.core.data.model.GV
 import app.aaps.core.data.model.SourceSensor
 import app.aaps.core.data.model.TrendArrow
 import app.aaps.core.data.time.T
-import app.aaps.core.interfaces.aps.AutosensData
+import app.aaps.core.interfaces.aps.AutosensDataTable
 import app.aaps.implementation.iob.AutosensDataObject
 import app.aaps.plugins.main.iob.iobCobCalculator.data.AutosensDataStoreObject
 import app.aaps.shared.tests.TestBaseWithProfile
@@ -1519,19 +1519,93 @@ class AutosensDataStoreTest : TestBaseWithProfile() {
         val ads = AutosensDataStoreObject()
         ads.storedLastAutosensResult = AutosensDataObject(aapsLogger, preferences, dateUtil).apply { time = now - 10 }
         // empty array, return last stored
-        ads.autosensDataTable = LongSparseArray<AutosensData>()
+        ads.autosensDataTable = AutosensDataTable()
         assertThat(ads.getLastAutosensData("test", aapsLogger, dateUtil)?.time).isEqualTo(now - 10)
 
         // data is there, return it
-        ads.autosensDataTable.append(now - 1, AutosensDataObject(aapsLogger, preferences, dateUtil).apply { time = now - 1 })
+        ads.autosensDataTable = ads.autosensDataTable.plus(now - 1, AutosensDataObject(aapsLogger, preferences, dateUtil).apply { time = now - 1 })
         assertThat(ads.getLastAutosensData("test", aapsLogger, dateUtil)?.time).isEqualTo(now - 1)
         // and latest value should be saved
         assertThat(ads.storedLastAutosensResult?.time).isEqualTo(now - 1)
 
         // data is old, return last stored
         ads.storedLastAutosensResult = AutosensDataObject(aapsLogger, preferences, dateUtil).apply { time = now - 1 }
-        ads.autosensDataTable = LongSparseArray<AutosensData>()
-        ads.autosensDataTable.append(now - T.mins(20).msecs(), AutosensDataObject(aapsLogger, preferences, dateUtil).apply { time = now - T.mins(20).msecs() })
+        ads.autosensDataTable = AutosensDataTable().plus(now - T.mins(20).msecs(), AutosensDataObject(aapsLogger, preferences, dateUtil).apply { time = now - T.mins(20).msecs() })
         assertThat(ads.getLastAutosensData("test", aapsLogger, dateUtil)?.time).isEqualTo(now - 1)
     }
+
+    private fun autosensData(time: Long) = AutosensDataObject(aapsLogger, preferences, dateUtil).apply { this.time = time }
+
+    @Test
+    fun autosensDataTableSnapshotsTest() {
+        var table = AutosensDataTable()
+        for (i in 0 until 100) table = table.plus(i * 300_000L, autosensData(i * 300_000L))
+        val snapshot = table
+        // appending to snapshot doesn't change it
+        val appended = snapshot.plus(100 * 300_000L, autosensData(100 * 300_000L))
+        assertThat(snapshot.size()).isEqualTo(100)
+        assertThat(appended.size()).isEqualTo(101)
+        // shortened table doesn't overwrite entries of other snapshots
+        val shortened = appended.removeNewerThan(50 * 300_000L)
+        assertThat(shortened.size()).isEqualTo(51)
+        val branched = shortened.plus(51 * 300_000L + 1, autosensData(51 * 300_000L + 1))
+        assertThat(branched.size()).isEqualTo(52)
+        assertThat(branched.keyAt(51)).isEqualTo(51 * 300_000L + 1)
+        assertThat(appended.keyAt(51)).isEqualTo(51 * 300_000L)
+        assertThat(appended[100 * 300_000L]?.time).isEqualTo(100 * 300_000L)
+        assertThat(branched[52 * 300_000L]).isNull()
+        // inserting and replacing
+        val replaced = table.plus(10 * 300_000L, autosensData(1))
+        assertThat(replaced.size()).isEqualTo(100)
+        assertThat(replaced[10 * 300_000L]?.time).isEqualTo(1)
+        assertThat(table[10 * 300_000L]?.time).isEqualTo(10 * 300_000L)
+        val inserted = table.plus(10 * 300_000L + 1, autosensData(2))
+        assertThat(inserted.size()).isEqualTo(101)
+        assertThat(inserted.indexOfKey(10 * 300_000L + 1)).isEqualTo(11)
+        assertThat(inserted.keyAt(12)).isEqualTo(11 * 300_000L)
+        assertThat(table.indexOfKey(10 * 300_000L + 1)).isLessThan(0)
+    }
+
+    @Test
+    fun appendAutosensDataTest() {
+        val ads = AutosensDataStoreObject()
+        val generation = ads.autosensDataGeneration
+        assertThat(ads.appendAutosensData(generation, autosensData(now - T.mins(10).msecs()))?.size()).isEqualTo(1)
+        assertThat(ads.appendAutosensData(generation, autosensData(now - T.mins(5).msecs()))?.size()).isEqualTo(2)
+        ads.newHistoryData(now - T.mins(6).msecs(), aapsLogger, dateUtil)
+        assertThat(ads.autosensDataTable.size()).isEqualTo(1)
+        // calculation started before invalidation must not append
+        assertThat(ads.appendAutosensData(generation, autosensData(now))).isNull()
+        assertThat(ads.appendAutosensData(ads.autosensDataGeneration, autosensData(now))?.size()).isEqualTo(2)
+        ads.reset()
+        assertThat(ads.autosensDataTable.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun bucketedGlucoseTest() {
+        val ads = AutosensDataStoreObject()
+        assertThat(ads.getBucketedGlucose()).isNull()
+        ads.bucketedData = mutableListOf(
+            InMemoryGlucoseValue(timestamp = T.mins(10).msecs(), value = 110.0, trendArrow = TrendArrow.FLAT),
+            InMemoryGlucoseValue(timestamp = T.mins(5).msecs(), value = 105.0, trendArrow = TrendArrow.FLAT, filledGap = true),
+            InMemoryGlucoseValue(timestamp = T.mins(0).msecs(), value = 100.0, trendArrow = TrendArrow.FLAT)
+        )
+        val bucketedGlucose = ads.getBucketedGlucose()!!
+        assertThat(bucketedGlucose.size).isEqualTo(3)
+        assertThat(bucketedGlucose.timestamp(0)).isEqualTo(T.mins(10).msecs())
+        assertThat(bucketedGlucose.value(1)).isEqualTo(105.0)
+        assertThat(bucketedGlucose.recalculated(2)).isEqualTo(100.0)
+        assertThat(bucketedGlucose.filledGap(0)).isFalse()
+        assertThat(bucketedGlucose.filledGap(1)).isTrue()
+        // view is built once per published data
+        assertThat(ads.getBucketedGlucose()).isSameInstanceAs(bucketedGlucose)
+        // smoothed data is published by reassignment
+        ads.bucketedData = ads.bucketedData?.map { it.copy(smoothed = it.value + 1) }?.toMutableList()
+        val smoothed = ads.getBucketedGlucose()!!
+        assertThat(smoothed).isNotSameInstanceAs(bucketedGlucose)
+        assertThat(smoothed.value(0)).isEqualTo(110.0)
+        assertThat(smoothed.recalculated(0)).isEqualTo(111.0)
+        ads.bucketedData = null
+        assertThat(ads.getBucketedGlucose()).isNull()
+    }
 }
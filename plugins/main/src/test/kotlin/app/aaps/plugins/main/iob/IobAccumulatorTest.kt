@@ -0,0 +1,95 @@
+package app.aaps.plugins.main.iob
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.objects.extensions.iobCalc
+import app.aaps.core.objects.extensions.plus
+import app.aaps.plugins.main.iob.iobCobCalculator.IobAccumulator
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+
+class IobAccumulatorTest : TestBaseWithProfile() {
+
+    private val range = T.hours(9).msecs()
+    private val divisor = 2.0
+
+    private val boluses = listOf(
+        BS(timestamp = now - T.hours(10).msecs(), amount = 3.0, type = BS.Type.NORMAL, iCfg = someICfg),
+        BS(timestamp = now - T.hours(3).msecs(), amount = 5.0, type = BS.Type.NORMAL, iCfg = someICfg),
+        BS(timestamp = now - T.mins(20).msecs(), amount = 0.4, type = BS.Type.SMB, iCfg = someICfg),
+        BS(timestamp = now - T.mins(10).msecs(), amount = 0.2, type = BS.Type.PRIMING, iCfg = someICfg)
+    )
+    private val temporaryBasals = listOf(
+        TB(timestamp = now - T.hours(9).msecs() + T.mins(30).msecs(), rate = 0.0, isAbsolute = true, duration = T.mins(60).msecs(), type = TB.Type.NORMAL),
+        TB(timestamp = now - T.hours(2).msecs(), rate = 150.0, isAbsolute = false, duration = T.mins(47).msecs(), type = TB.Type.NORMAL),
+        TB(timestamp = now - T.mins(40).msecs(), rate = 2.5, isAbsolute = true, duration = T.mins(33).msecs(), type = TB.Type.NORMAL)
+    )
+    private val extendedBoluses = listOf(
+        EB(timestamp = now - T.hours(4).msecs(), amount = 2.0, duration = T.mins(90).msecs())
+    )
+
+    private fun expected(time: Long, emulatingTempBasal: Boolean): Pair<IobTotal, IobTotal> {
+        val bolusIob = IobTotal(time)
+        boluses.filter { it.timestamp >= time - range && it.timestamp < time }.forEach { t ->
+            val tIOB = t.iobCalc(time)
+            bolusIob.iob += tIOB.iobContrib
+            bolusIob.activity += tIOB.activityContrib
+            if (t.amount > 0 && t.timestamp > bolusIob.lastBolusTime) bolusIob.lastBolusTime = t.timestamp
+            if (t.type != BS.Type.SMB) bolusIob.bolussnooze += t.iobCalc(t.timestamp + ((time - t.timestamp) * divisor).toLong()).iobContrib
+        }
+        val basalIob = IobTotal(time)
+        temporaryBasals.filter { it.timestamp >= time - range && it.timestamp <= time }.forEach { basalIob.plus(it.iobCalc(time, effectiveProfile)) }
+        val extended = IobTotal(time)
+        extendedBoluses.filter { it.timestamp >= time - range && it.timestamp <= time }.forEach { extended.plus(it.iobCalc(time, effectiveProfile)) }
+        if (emulatingTempBasal) {
+            extended.basaliob = extended.iob
+            extended.iob = 0.0
+            extended.netbasalinsulin = extended.extendedBolusInsulin
+            extended.hightempinsulin = extended.extendedBolusInsulin
+            basalIob.plus(extended)
+        } else bolusIob.plus(extended)
+        return Pair(bolusIob, basalIob)
+    }
+
+    private fun assertSame(actual: IobTotal, expected: IobTotal) {
+        assertThat(actual.iob).isWithin(1e-6).of(expected.iob)
+        assertThat(actual.activity).isWithin(1e-8).of(expected.activity)
+        assertThat(actual.bolussnooze).isWithin(1e-6).of(expected.bolussnooze)
+        assertThat(actual.basaliob).isWithin(1e-6).of(expected.basaliob)
+        assertThat(actual.netbasalinsulin).isWithin(1e-9).of(expected.netbasalinsulin)
+        assertThat(actual.hightempinsulin).isWithin(1e-9).of(expected.hightempinsulin)
+        assertThat(actual.netInsulin).isWithin(1e-9).of(expected.netInsulin)
+        assertThat(actual.extendedBolusInsulin).isWithin(1e-9).of(expected.extendedBolusInsulin)
+        assertThat(actual.lastBolusTime).isEqualTo(expected.lastBolusTime)
+    }
+
+    private fun verify(emulatingTempBasal: Boolean) {
+        val accumulator = IobAccumulator(range, divisor)
+        boluses.forEach { accumulator.addBolus(it) }
+        temporaryBasals.forEach { accumulator.addTemporaryBasal(it, effectiveProfile, null) }
+        extendedBoluses.forEach { accumulator.addExtendedBolus(it, effectiveProfile, emulatingTempBasal, null) }
+        for (i in 0 until 120) {
+            val time = now + i * T.mins(5).msecs()
+            val bolusIob = IobTotal(time)
+            val basalIob = IobTotal(time)
+            accumulator.calculate(time, bolusIob, basalIob)
+            val expected = expected(time, emulatingTempBasal)
+            assertSame(bolusIob, expected.first)
+            assertSame(basalIob, expected.second)
+        }
+    }
+
+    @Test
+    fun sameResultAsPerPointCalculation() {
+        verify(emulatingTempBasal = false)
+    }
+
+    @Test
+    fun sameResultAsPerPointCalculationWithEmulatedTempBasals() {
+        verify(emulatingTempBasal = true)
+    }
+}
@@ -0,0 +1,71 @@
+package app.aaps.plugins.main.iob
+
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.overview.OverviewData
+import app.aaps.core.interfaces.overview.graph.OverviewDataCache
+import app.aaps.core.interfaces.workflow.CalculationSignalsEmitter
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+import app.aaps.core.keys.DoubleKey
+import app.aaps.plugins.main.iob.iobCobCalculator.IobCobCalculatorPlugin
+import app.aaps.plugins.main.iob.iobCobCalculator.data.AutosensDataStoreObject
+import app.aaps.shared.tests.TestBaseWithProfile
+import app.aaps.shared.tests.benchmark.AAPSLoggerSilent
+import app.aaps.shared.tests.benchmark.Benchmark
+import app.aaps.shared.tests.benchmark.LoopFixture
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.whenever
+
+@EnabledIfSystemProperty(named = Benchmark.PROPERTY, matches = "true")
+class IobCobCalculatorBenchmark : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var overviewData: OverviewData
+    @Mock lateinit var calculationWorkflow: CalculationWorkflow
+    @Mock lateinit var signals: CalculationSignalsEmitter
+    @Mock lateinit var overviewDataCache: OverviewDataCache
+
+    private val silentLogger = AAPSLoggerSilent()
+    private lateinit var fixture: LoopFixture
+
+    @BeforeEach
+    fun setup() {
+        fixture = LoopFixture(now, iCfg = someICfg)
+        whenever(preferences.get(DoubleKey.ApsAmaBolusSnoozeDivisor)).thenReturn(2.0)
+        runTest {
+            whenever(profileFunction.getProfile()).thenReturn(effectiveProfile)
+            whenever(profileFunction.getProfile(any())).thenReturn(effectiveProfile)
+            whenever(persistenceLayer.getBolusesFromTime(any(), any())).thenReturn(fixture.boluses)
+            whenever(persistenceLayer.getTemporaryBasalsStartingFromTime(any(), any())).thenReturn(fixture.temporaryBasals)
+            whenever(persistenceLayer.getExtendedBolusesStartingFromTime(any(), any())).thenReturn(emptyList())
+        }
+    }
+
+    @Test
+    fun createBucketedData() {
+        val ads = AutosensDataStoreObject()
+        Benchmark.measure("AutosensDataStoreObject.createBucketedData (${fixture.glucoseValues.size} values)") {
+            ads.bgReadings = fixture.glucoseValues
+            ads.createBucketedData(silentLogger, dateUtil)
+            ads.bucketedData
+        }
+    }
+
+    @Test
+    fun calculateIobArrayForSMB() {
+        val iobCobCalculator = IobCobCalculatorPlugin(
+            silentLogger, aapsSchedulers, rxBus, preferences, rh, profileFunction, activePlugin, fabricPrivacy, dateUtil, persistenceLayer,
+            overviewData, calculationWorkflow, decimalFormatter, processedTbrEbData, signals
+        ) { overviewDataCache }
+        val autosensResult = AutosensResult(ratio = 0.9)
+        Benchmark.measure("IobCobCalculatorPlugin.calculateIobArrayForSMB (${fixture.boluses.size} BS, ${fixture.temporaryBasals.size} TB)") {
+            runBlocking { iobCobCalculator.calculateIobArrayForSMB(autosensResult, exerciseMode = false, halfBasalExerciseTarget = 160, isTempTarget = false) }
+        }
+    }
+}
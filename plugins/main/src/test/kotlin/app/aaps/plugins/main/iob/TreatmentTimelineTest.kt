@@ -0,0 +1,91 @@
+package app.aaps.plugins.main.iob
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.plugins.main.iob.iobCobCalculator.data.TreatmentTimeline
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class TreatmentTimelineTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private lateinit var sut: TreatmentTimeline
+
+    private fun bolus(id: Long, timestamp: Long, amount: Double = 1.0) =
+        BS(id = id, timestamp = timestamp, amount = amount, type = BS.Type.NORMAL, iCfg = someICfg)
+
+    private fun tbr(id: Long, timestamp: Long) =
+        TB(id = id, timestamp = timestamp, duration = T.mins(30).msecs(), rate = 50.0, isAbsolute = false, type = TB.Type.NORMAL)
+
+    @BeforeEach
+    fun setup() {
+        sut = TreatmentTimeline(persistenceLayer, dateUtil)
+        runTest {
+            whenever(persistenceLayer.getBolusesFromTime(any(), any())).thenReturn(
+                listOf(bolus(3, now - T.hours(1).msecs()), bolus(1, now - T.hours(3).msecs()), bolus(2, now - T.hours(2).msecs()))
+            )
+            whenever(persistenceLayer.getTemporaryBasalsStartingFromTime(any(), any())).thenReturn(
+                listOf(tbr(10, now - T.hours(2).msecs()), tbr(11, now - T.hours(1).msecs()))
+            )
+            whenever(persistenceLayer.getExtendedBolusesStartingFromTime(any(), any())).thenReturn(emptyList())
+        }
+    }
+
+    @Test
+    fun rangeQueriesAreServedFromMemory() = runTest {
+        val boluses = sut.getBolusesFromTime(now - T.mins(150).msecs())
+        assertThat(boluses.map { it.id }).containsExactly(2L, 3L).inOrder()
+
+        val tbrs = sut.getTemporaryBasalsStartingFromTimeToTime(now - T.hours(2).msecs(), now - T.hours(2).msecs())
+        assertThat(tbrs.map { it.id }).containsExactly(10L)
+
+        sut.getBolusesFromTime(now - T.hours(4).msecs())
+        sut.getTemporaryBasalsStartingFromTimeToTime(now - T.hours(4).msecs(), now)
+        // whole window is loaded by first query
+        verify(persistenceLayer, times(1)).getBolusesFromTime(any(), any())
+    }
+
+    @Test
+    fun incrementalUpdates() = runTest {
+        sut.ensureLoaded(now)
+
+        // new record
+        sut.updateBoluses(listOf(bolus(4, now - T.mins(90).msecs())))
+        assertThat(sut.getBolusesFromTime(now - T.hours(4).msecs()).map { it.id }).containsExactly(1L, 2L, 4L, 3L).inOrder()
+
+        // moved record
+        sut.updateBoluses(listOf(bolus(1, now - T.mins(30).msecs(), 2.0)))
+        assertThat(sut.getBolusesFromTime(now - T.hours(4).msecs()).map { it.id }).containsExactly(2L, 4L, 3L, 1L).inOrder()
+        assertThat(sut.getBolusesFromTime(now - T.hours(4).msecs()).last().amount).isEqualTo(2.0)
+
+        // invalidated record
+        sut.updateBoluses(listOf(bolus(2, now - T.hours(2).msecs()).also { it.isValid = false }))
+        assertThat(sut.getBolusesFromTime(now - T.hours(4).msecs()).map { it.id }).containsExactly(4L, 3L, 1L).inOrder()
+
+        // historic copy is ignored
+        sut.updateBoluses(listOf(bolus(5, now - T.hours(2).msecs()).also { it.referenceId = 3 }))
+        assertThat(sut.getBolusesFromTime(now - T.hours(4).msecs()).map { it.id }).containsExactly(4L, 3L, 1L).inOrder()
+
+        sut.updateTemporaryBasals(listOf(tbr(11, now - T.mins(10).msecs())))
+        assertThat(sut.getTemporaryBasalsStartingFromTimeToTime(now - T.mins(15).msecs(), now).map { it.id }).containsExactly(11L)
+    }
+
+    @Test
+    fun resetReloadsData() = runTest {
+        sut.ensureLoaded(now)
+        sut.reset()
+        sut.ensureLoaded(now)
+        verify(persistenceLayer, times(2)).getBolusesFromTime(any(), any())
+    }
+}
@@ -0,0 +1,79 @@
+package app.aaps.plugins.sensitivity
+
+import kotlin.math.floor
+
+/**
+ * Sliding window of deviations with order statistics
+ *
+ * Values are kept twice in primitive arrays: in ring buffer in insertion order (to drop the oldest one)
+ * and sorted (to read percentile without copying and sorting whole window).
+ * Sorting order is the same as [java.util.Arrays.sort] of boxed doubles,
+ * so [percentile] returns exactly the same value as [app.aaps.core.utils.Percentile.percentile].
+ */
+internal class DeviationWindow(initialCapacity: Int = 64) {
+
+    private var ring = DoubleArray(initialCapacity)
+    private var sorted = DoubleArray(initialCapacity)
+    private var head = 0
+
+    var size = 0
+        private set
+
+    fun clear() {
+        head = 0
+        size = 0
+    }
+
+    fun add(value: Double) {
+        if (size == ring.size) grow()
+        ring[(head + size) % ring.size] = value
+        // insert behind equal values
+        var low = 0
+        var high = size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (sorted[mid].compareTo(value) <= 0) low = mid + 1 else high = mid
+        }
+        System.arraycopy(sorted, low, sorted, low + 1, size - low)
+        sorted[low] = value
+        size++
+    }
+
+    fun removeOldest() {
+        if (size == 0) return
+        val value = ring[head]
+        head = (head + 1) % ring.size
+        var low = 0
+        var high = size - 1
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (sorted[mid].compareTo(value) < 0) low = mid + 1 else high = mid
+        }
+        System.arraycopy(sorted, low + 1, sorted, low, size - low - 1)
+        size--
+    }
+
+    /**
+     * "Linear interpolation between closest ranks" method, same as [app.aaps.core.utils.Percentile.percentile]
+     */
+    fun percentile(p: Double): Double {
+        if (size == 0) return 0.0
+        if (p <= 0) return sorted[0]
+        if (p >= 1) return sorted[size - 1]
+        val index = size * p
+        val lower = floor(index)
+        val upper = lower + 1
+        val weight = index % 1
+        return if (upper >= size) sorted[lower.toInt()] else sorted[lower.toInt()] * (1 - weight) + sorted[upper.toInt()] * weight
+    }
+
+    fun sortedValues(): DoubleArray = sorted.copyOf(size)
+
+    private fun grow() {
+        val newRing = DoubleArray(ring.size * 2)
+        for (i in 0 until size) newRing[i] = ring[(head + i) % ring.size]
+        ring = newRing
+        sorted = sorted.copyOf(newRing.size)
+        head = 0
+    }
+}
@@ -22,12 +22,10 @@ import app.aaps.core.objects.extensions.store
 import app.aaps.core.ui.compose.icons.IcAs
 import app.aaps.core.ui.compose.preference.PreferenceSubScreenDef
 import app.aaps.core.utils.MidnightUtils
-import app.aaps.core.utils.Percentile
 import app.aaps.plugins.sensitivity.extensions.isPSEvent5minBack
 import app.aaps.plugins.sensitivity.extensions.isTherapyEventEvent5minBack
 import kotlinx.coroutines.runBlocking
 import kotlinx.serialization.json.JsonObject
-import java.util.Arrays
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.math.roundToInt
@@ -74,11 +72,12 @@ class SensitivityAAPSPlugin @Inject constructor(
         }
         val siteChanges = runBlocking { persistenceLayer.getTherapyEventDataFromTime(fromTime, TE.Type.CANNULA_CHANGE, true) }
         val profileSwitches = runBlocking { persistenceLayer.getProfileSwitchesFromTime(fromTime, true) }
-        val deviationsArray: MutableList<Double> = ArrayList()
-        var pastSensitivity = ""
+        val deviationsArray = DeviationWindow()
+        val pastSensitivity = StringBuilder()
+        val autosensDataTable = ads.autosensDataTable
         var index = 0
-        while (index < ads.autosensDataTable.size()) {
-            val autosensData = ads.autosensDataTable.valueAt(index)
+        while (index < autosensDataTable.size()) {
+            val autosensData = autosensDataTable.valueAt(index)
             if (autosensData.time < fromTime) {
                 index++
                 continue
@@ -91,35 +90,33 @@ class SensitivityAAPSPlugin @Inject constructor(
             // reset deviations after site change
             if (siteChanges.isTherapyEventEvent5minBack(autosensData.time)) {
                 deviationsArray.clear()
-                pastSensitivity += "(SITECHANGE)"
+                pastSensitivity.append("(SITECHANGE)")
             }
 
             // reset deviations after profile switch
             if (profileSwitches.isPSEvent5minBack(autosensData.time)) {
                 deviationsArray.clear()
-                pastSensitivity += "(PROFILESWITCH)"
+                pastSensitivity.append("(PROFILESWITCH)")
             }
             var deviation = autosensData.deviation
 
             //set positive deviations to zero if bg < 80
             if (autosensData.bg < 80 && deviation > 0) deviation = 0.0
             if (autosensData.validDeviation) if (autosensData.time > toTime - hoursForDetection * 60 * 60 * 1000L) deviationsArray.add(deviation)
-            if (deviationsArray.size > hoursForDetection * 60 / 5) deviationsArray.removeAt(0)
-            pastSensitivity += autosensData.pastSensitivity
+            if (deviationsArray.size > hoursForDetection * 60 / 5) deviationsArray.removeOldest()
+            pastSensitivity.append(autosensData.pastSensitivity)
             val secondsFromMidnight = MidnightUtils.secondsFromMidnight(autosensData.time)
             if (secondsFromMidnight % 3600 < 2.5 * 60 || secondsFromMidnight % 3600 > 57.5 * 60) {
-                pastSensitivity += "(" + (secondsFromMidnight / 3600.0).roundToInt() + ")"
+                pastSensitivity.append('(').append((secondsFromMidnight / 3600.0).roundToInt()).append(')')
             }
             index++
         }
-        val deviations = Array(deviationsArray.size) { i -> deviationsArray[i] }
         //val sens = profile.getIsfMgdl(toTime, current.bg, "SensitivityAAPSPlugin")
         val sens = current.sens
         val ratioLimit = ""
         val sensResult: String
-        aapsLogger.debug(LTag.AUTOSENS, "Records: $index   $pastSensitivity")
-        Arrays.sort(deviations)
-        val percentile = Percentile.percentile(deviations, 0.50)
+        aapsLogger.debug(LTag.AUTOSENS) { "Records: $index   $pastSensitivity" }
+        val percentile = deviationsArray.percentile(0.50)
         val basalOff = percentile * (60.0 / 5.0) / sens
         val ratio = 1 + basalOff / profile.getMaxDailyBasal()
         sensResult = when {
@@ -130,7 +127,7 @@ class SensitivityAAPSPlugin @Inject constructor(
         }
         aapsLogger.debug(LTag.AUTOSENS, sensResult)
         val output = fillResult(
-            ratio, current.cob, pastSensitivity, ratioLimit,
+            ratio, current.cob, pastSensitivity.toString(), ratioLimit,
             sensResult, deviationsArray.size
         )
         aapsLogger.debug(
@@ -139,7 +136,7 @@ class SensitivityAAPSPlugin @Inject constructor(
                 " ratio: " + output.ratio
                 + " mealCOB: " + current.cob
         )
-        aapsLogger.debug(LTag.AUTOSENS, "Sensitivity to: deviations " + deviations.contentToString())
+        aapsLogger.debug(LTag.AUTOSENS) { "Sensitivity to: deviations " + deviationsArray.sortedValues().contentToString() }
         return output
     }
 
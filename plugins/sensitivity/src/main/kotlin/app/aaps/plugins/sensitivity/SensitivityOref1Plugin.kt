@@ -21,12 +21,10 @@ import app.aaps.core.objects.extensions.store
 import app.aaps.core.ui.compose.icons.IcAs
 import app.aaps.core.ui.compose.preference.PreferenceSubScreenDef
 import app.aaps.core.utils.MidnightUtils
-import app.aaps.core.utils.Percentile
 import app.aaps.plugins.sensitivity.extensions.isPSEvent5minBack
 import app.aaps.plugins.sensitivity.extensions.isTherapyEventEvent5minBack
 import kotlinx.coroutines.runBlocking
 import kotlinx.serialization.json.JsonObject
-import java.util.Arrays
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.math.roundToInt
@@ -74,16 +72,17 @@ class SensitivityOref1Plugin @Inject constructor(
         //[0] = 8 hour
         //[1] = 24 hour
         //deviationsHour has DeviationsArray
-        val deviationsHour = mutableListOf(ArrayList(), ArrayList<Double>())
-        val pastSensitivityArray = mutableListOf("", "")
+        val deviationsHour = listOf(DeviationWindow(), DeviationWindow())
+        val pastSensitivityArray = listOf(StringBuilder(), StringBuilder())
         val sensResultArray = mutableListOf("", "")
         val ratioArray = mutableListOf(0.0, 0.0)
         val deviationCategory = listOf(96.0, 288.0)
         val ratioLimitArray = mutableListOf("", "")
         val hoursDetection = listOf(8.0, 24.0)
+        val autosensDataTable = ads.autosensDataTable
         var index = 0
-        while (index < ads.autosensDataTable.size()) {
-            val autosensData = ads.autosensDataTable.valueAt(index)
+        while (index < autosensDataTable.size()) {
+            val autosensData = autosensDataTable.valueAt(index)
             if (autosensData.time < fromTime) {
                 index++
                 continue
@@ -92,43 +91,40 @@ class SensitivityOref1Plugin @Inject constructor(
                 index++
                 continue
             }
-            var hourSegment = 0
+            val siteChange = siteChanges.isTherapyEventEvent5minBack(autosensData.time)
+            val profileSwitch = profileSwitches.isPSEvent5minBack(autosensData.time)
+            var deviation = autosensData.deviation
+
+            //set positive deviations to zero if bg < 80
+            if (autosensData.bg < 80 && deviation > 0) deviation = 0.0
+            val secondsFromMidnight = MidnightUtils.secondsFromMidnight(autosensData.time)
+            val fullHour = secondsFromMidnight % 3600 < 2.5 * 60 || secondsFromMidnight % 3600 > 57.5 * 60
             //hourSegment = 0 = 8 hour
             //hourSegment = 1 = 24 hour
-            while (hourSegment < deviationsHour.size) {
+            for (hourSegment in deviationsHour.indices) {
                 val deviationsArray = deviationsHour[hourSegment]
-                var pastSensitivity = pastSensitivityArray[hourSegment]
+                val pastSensitivity = pastSensitivityArray[hourSegment]
 
                 // reset deviations after site change
-                if (siteChanges.isTherapyEventEvent5minBack(autosensData.time)) {
+                if (siteChange) {
                     deviationsArray.clear()
-                    pastSensitivity += "(SITECHANGE)"
+                    pastSensitivity.append("(SITECHANGE)")
                 }
 
                 // reset deviations after profile switch
-                if (profileSwitches.isPSEvent5minBack(autosensData.time)) {
+                if (profileSwitch) {
                     deviationsArray.clear()
-                    pastSensitivity += "(PROFILESWITCH)"
+                    pastSensitivity.append("(PROFILESWITCH)")
                 }
-                var deviation = autosensData.deviation
-
-                //set positive deviations to zero if bg < 80
-                if (autosensData.bg < 80 && deviation > 0) deviation = 0.0
                 if (autosensData.validDeviation) if (autosensData.time > toTime - hoursDetection[hourSegment] * 60 * 60 * 1000L) deviationsArray.add(deviation)
-                deviationsArray.addAll(autosensData.extraDeviation)
+                for (extraDeviation in autosensData.extraDeviation) deviationsArray.add(extraDeviation)
                 if (deviationsArray.size > deviationCategory[hourSegment]) {
-                    deviationsArray.removeAt(0)
+                    deviationsArray.removeOldest()
                 }
-                pastSensitivity += autosensData.pastSensitivity
-                val secondsFromMidnight = MidnightUtils.secondsFromMidnight(autosensData.time)
-                if (secondsFromMidnight % 3600 < 2.5 * 60 || secondsFromMidnight % 3600 > 57.5 * 60) {
-                    pastSensitivity += "(" + (secondsFromMidnight / 3600.0).roundToInt() + ")"
+                pastSensitivity.append(autosensData.pastSensitivity)
+                if (fullHour) {
+                    pastSensitivity.append('(').append((secondsFromMidnight / 3600.0).roundToInt()).append(')')
                 }
-
-                //Update the data back to the parent
-                deviationsHour[hourSegment] = deviationsArray
-                pastSensitivityArray[hourSegment] = pastSensitivity
-                hourSegment++
             }
             index++
         }
@@ -137,31 +133,24 @@ class SensitivityOref1Plugin @Inject constructor(
         // this dampens any large sensitivity changes detected based on too little data, without ignoring them completely
         for (i in deviationsHour.indices) {
             val deviations = deviationsHour[i]
-            aapsLogger.debug(LTag.AUTOSENS, "Using most recent " + deviations.size + " deviations")
+            aapsLogger.debug(LTag.AUTOSENS) { "Using most recent " + deviations.size + " deviations" }
             if (deviations.size < deviationCategory[i]) {
                 val pad = ((1 - deviations.size.toDouble() / deviationCategory[i]) * 18).roundToInt()
-                aapsLogger.debug(LTag.AUTOSENS, "Adding $pad more zero deviations")
-                (0 until pad).forEach {
-                    deviations.add(0.0)
-                }
+                aapsLogger.debug(LTag.AUTOSENS) { "Adding $pad more zero deviations" }
+                repeat(pad) { deviations.add(0.0) }
             }
-            //Update the data back to the parent
-            deviationsHour[i] = deviations
         }
-        var hourUsed = 0
         //val sens = profile.getIsfMgdl(toTime, current.bg, "SensitivityOref1Plugin")
         val sens = current.sens
-        while (hourUsed < deviationsHour.size) {
-            val deviationsArray: ArrayList<Double> = deviationsHour[hourUsed]
+        for (hourUsed in deviationsHour.indices) {
+            val deviations = deviationsHour[hourUsed]
             val pastSensitivity = pastSensitivityArray[hourUsed]
             var sensResult = "(8 hours) "
             if (hourUsed == 1) sensResult = "(24 hours) "
             val ratioLimit = ""
-            val deviations: Array<Double> = Array(deviationsArray.size) { i -> deviationsArray[i] }
-            aapsLogger.debug(LTag.AUTOSENS, "Records: $index   $pastSensitivity")
-            Arrays.sort(deviations)
-            val pSensitive = Percentile.percentile(deviations, 0.50)
-            val pResistant = Percentile.percentile(deviations, 0.50)
+            aapsLogger.debug(LTag.AUTOSENS) { "Records: $index   $pastSensitivity" }
+            val pSensitive = deviations.percentile(0.50)
+            val pResistant = deviations.percentile(0.50)
             var basalOff = 0.0
             when {
                 pSensitive < 0 -> { // sensitive
@@ -183,7 +172,6 @@ class SensitivityOref1Plugin @Inject constructor(
             sensResultArray[hourUsed] = sensResult
             ratioArray[hourUsed] = ratio
             ratioLimitArray[hourUsed] = ratioLimit
-            hourUsed++
         }
         var key = 1
         val comparison = " 8 h ratio " + ratioArray[0] + " vs 24h ratio " + ratioArray[1]
@@ -193,7 +181,7 @@ class SensitivityOref1Plugin @Inject constructor(
             key = 0
         }
         //String message = hoursDetection.get(key) + " of sensitivity used";
-        val output = fillResult(ratioArray[key], current.cob, pastSensitivityArray[key], ratioLimitArray[key], sensResultArray[key] + comparison, deviationsHour[key].size)
+        val output = fillResult(ratioArray[key], current.cob, pastSensitivityArray[key].toString(), ratioLimitArray[key], sensResultArray[key] + comparison, deviationsHour[key].size)
         aapsLogger.debug(
             LTag.AUTOSENS, "Sensitivity to: "
                 + dateUtil.dateAndTimeString(toTime) +
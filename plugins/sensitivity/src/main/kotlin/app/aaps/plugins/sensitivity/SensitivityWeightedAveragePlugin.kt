@@ -73,11 +73,12 @@ class SensitivityWeightedAveragePlugin @Inject constructor(
         }
         val siteChanges = runBlocking { persistenceLayer.getTherapyEventDataFromTime(fromTime, TE.Type.CANNULA_CHANGE, true) }
         val profileSwitches = runBlocking { persistenceLayer.getProfileSwitchesFromTime(fromTime, true) }
-        var pastSensitivity = ""
+        val pastSensitivity = StringBuilder()
+        val autosensDataTable = ads.autosensDataTable
         var index = 0
         val data = LongSparseArray<Double>()
-        while (index < ads.autosensDataTable.size()) {
-            val autosensData = ads.autosensDataTable.valueAt(index)
+        while (index < autosensDataTable.size()) {
+            val autosensData = autosensDataTable.valueAt(index)
             if (autosensData.time < fromTime) {
                 index++
                 continue
@@ -94,13 +95,13 @@ class SensitivityWeightedAveragePlugin @Inject constructor(
             // reset deviations after site change
             if (siteChanges.isTherapyEventEvent5minBack(autosensData.time)) {
                 data.clear()
-                pastSensitivity += "(SITECHANGE)"
+                pastSensitivity.append("(SITECHANGE)")
             }
 
             // reset deviations after profile switch
             if (profileSwitches.isPSEvent5minBack(autosensData.time)) {
                 data.clear()
-                pastSensitivity += "(PROFILESWITCH)"
+                pastSensitivity.append("(PROFILESWITCH)")
             }
             var deviation = autosensData.deviation
 
@@ -110,10 +111,10 @@ class SensitivityWeightedAveragePlugin @Inject constructor(
             //data.append(autosensData.time);
             val reverseWeight = (toTime - autosensData.time) / (5 * 60 * 1000L)
             if (autosensData.validDeviation) data.append(reverseWeight, deviation)
-            pastSensitivity += autosensData.pastSensitivity
+            pastSensitivity.append(autosensData.pastSensitivity)
             val secondsFromMidnight = MidnightUtils.secondsFromMidnight(autosensData.time)
             if (secondsFromMidnight % 3600 < 2.5 * 60 || secondsFromMidnight % 3600 > 57.5 * 60) {
-                pastSensitivity += "(" + (secondsFromMidnight / 3600.0).roundToInt() + ")"
+                pastSensitivity.append('(').append((secondsFromMidnight / 3600.0).roundToInt()).append(')')
             }
             index++
         }
@@ -140,7 +141,7 @@ class SensitivityWeightedAveragePlugin @Inject constructor(
         val sens = current.sens
         val ratioLimit = ""
         val sensResult: String
-        aapsLogger.debug(LTag.AUTOSENS, "Records: $index   $pastSensitivity")
+        aapsLogger.debug(LTag.AUTOSENS) { "Records: $index   $pastSensitivity" }
         val average = weightedSum / weights
         val basalOff = average * (60 / 5.0) / sens
         val ratio = 1 + basalOff / profile.getMaxDailyBasal()
@@ -151,7 +152,7 @@ class SensitivityWeightedAveragePlugin @Inject constructor(
         }
         aapsLogger.debug(LTag.AUTOSENS, sensResult)
         val output = fillResult(
-            ratio, current.cob, pastSensitivity, ratioLimit,
+            ratio, current.cob, pastSensitivity.toString(), ratioLimit,
             sensResult, data.size()
         )
         aapsLogger.debug(
@@ -0,0 +1,60 @@
+package app.aaps.plugins.sensitivity
+
+import app.aaps.core.utils.Percentile
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import java.util.Arrays
+import kotlin.random.Random
+
+class DeviationWindowTest {
+
+    @Test
+    fun emptyWindow() {
+        val sut = DeviationWindow()
+        assertThat(sut.size).isEqualTo(0)
+        assertThat(sut.percentile(0.5)).isEqualTo(0.0)
+        sut.removeOldest()
+        assertThat(sut.size).isEqualTo(0)
+    }
+
+    @Test
+    fun slidingWindowMatchesSortedList() {
+        val random = Random(1)
+        val sut = DeviationWindow(4)
+        val reference = ArrayList<Double>()
+        repeat(5000) { step ->
+            when (random.nextInt(20)) {
+                0    -> {
+                    sut.clear()
+                    reference.clear()
+                }
+
+                1, 2 -> {
+                    sut.removeOldest()
+                    if (reference.isNotEmpty()) reference.removeAt(0)
+                }
+
+                else -> {
+                    // duplicates, signed zeros and rounded values as deviations are
+                    val value = when (random.nextInt(4)) {
+                        0    -> 0.0
+                        1    -> -0.0
+                        else -> (random.nextDouble(-20.0, 20.0) * 10).toInt() / 10.0
+                    }
+                    sut.add(value)
+                    reference.add(value)
+                    if (reference.size > 288) {
+                        sut.removeOldest()
+                        reference.removeAt(0)
+                    }
+                }
+            }
+            val sorted = Array(reference.size) { reference[it] }
+            Arrays.sort(sorted)
+            assertThat(sut.size).isEqualTo(reference.size)
+            for (p in listOf(0.0, 0.25, 0.5, 0.75, 1.0))
+                assertThat(sut.percentile(p).toRawBits()).isEqualTo(Percentile.percentile(sorted, p).toRawBits())
+            if (step % 100 == 0) assertThat(sut.sortedValues().contentToString()).isEqualTo(sorted.contentToString())
+        }
+    }
+}
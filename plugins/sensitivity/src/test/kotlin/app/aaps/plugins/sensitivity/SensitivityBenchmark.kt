@@ -0,0 +1,67 @@
+package app.aaps.plugins.sensitivity
+
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.AutosensDataStore
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.keys.DoubleKey
+import app.aaps.core.keys.IntKey
+import app.aaps.shared.tests.TestBaseWithProfile
+import app.aaps.shared.tests.benchmark.AAPSLoggerSilent
+import app.aaps.shared.tests.benchmark.Benchmark
+import app.aaps.shared.tests.benchmark.LoopFixture
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.whenever
+
+@EnabledIfSystemProperty(named = Benchmark.PROPERTY, matches = "true")
+class SensitivityBenchmark : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var ads: AutosensDataStore
+
+    private val silentLogger = AAPSLoggerSilent()
+    private val fromTime get() = now - T.hours(24).msecs()
+
+    @BeforeEach
+    fun setup() {
+        val table = LoopFixture(now, iCfg = someICfg).autosensDataTable(silentLogger, preferences, dateUtil)
+        whenever(ads.autosensDataTable).thenReturn(table)
+        whenever(ads.getAutosensDataAtTime(now)).thenReturn(table[now])
+        whenever(preferences.get(DoubleKey.AutosensMin)).thenReturn(0.7)
+        whenever(preferences.get(DoubleKey.AutosensMax)).thenReturn(1.2)
+        whenever(preferences.get(IntKey.AutosensPeriod)).thenReturn(24)
+        runTest {
+            whenever(profileFunction.getProfile()).thenReturn(effectiveProfile)
+            whenever(persistenceLayer.getTherapyEventDataFromTime(any(), any(), any())).thenReturn(emptyList())
+            whenever(persistenceLayer.getProfileSwitchesFromTime(any(), any())).thenReturn(emptyList())
+        }
+    }
+
+    @Test
+    fun oref1() {
+        val plugin = SensitivityOref1Plugin(silentLogger, rh, preferences, profileFunction, dateUtil, persistenceLayer)
+        Benchmark.measure("SensitivityOref1Plugin.detectSensitivity (${ads.autosensDataTable.size()} buckets)") {
+            plugin.detectSensitivity(ads, fromTime, now)
+        }
+    }
+
+    @Test
+    fun aaps() {
+        val plugin = SensitivityAAPSPlugin(silentLogger, rh, preferences, profileFunction, dateUtil, persistenceLayer, activePlugin)
+        Benchmark.measure("SensitivityAAPSPlugin.detectSensitivity (${ads.autosensDataTable.size()} buckets)") {
+            plugin.detectSensitivity(ads, fromTime, now)
+        }
+    }
+
+    @Test
+    fun weightedAverage() {
+        val plugin = SensitivityWeightedAveragePlugin(silentLogger, rh, preferences, profileFunction, dateUtil, persistenceLayer, activePlugin)
+        Benchmark.measure("SensitivityWeightedAveragePlugin.detectSensitivity (${ads.autosensDataTable.size()} buckets)") {
+            plugin.detectSensitivity(ads, fromTime, now)
+        }
+    }
+}
@@ -17,6 +17,8 @@ dependencies {
     implementation(project(":core:keys"))
     implementation(project(":core:ui"))
 
+    testImplementation(project(":shared:tests"))
+
     ksp(libs.com.google.dagger.compiler)
     ksp(libs.com.google.dagger.hilt.compiler)
     ksp(libs.com.google.dagger.android.processor)
@@ -1,5 +1,6 @@
 package app.aaps.plugins.smoothing
 
+import androidx.annotation.VisibleForTesting
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.filled.Timeline
 import app.aaps.core.data.iob.InMemoryGlucoseValue
@@ -45,6 +46,8 @@ import kotlin.math.sqrt
  * - Automatically resets learning on actual sensor changes (via EventTherapyEventChange).
  * - Outlier threshold scales with current uncertainty (P + R).
  * - Event-based reset (not time-based guessing).
+ * - Incremental mode: forward pass resumes from the state [smootherLag] readings behind the newest one,
+ *   backward pass runs only over newer readings (see [findResumeIndex]).
  *
  * State vector: x = [G, Ġ]^T
  *   - G: glucose concentration (mg/dL)
@@ -131,6 +134,11 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
     private val majorGapThreshold = 60.0      // Minutes - segment data.
     private val rateDecayTimeConstant = 30.0 // Minutes - physiological decay.
 
+    // Incremental smoothing.
+    // The forward pass resumes from the state at this many readings behind the newest one and the backward
+    // RTS pass is repeated only over newer readings; older readings keep their smoothed values.
+    private val smootherLag = 24  // 2 hours at 5‑min intervals.
+
     // Hoisted constant for millis → minutes conversion to avoid repeated literal expressions.
     private val millisPerMinute = 1000.0 * 60.0
 
@@ -152,40 +160,164 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
     )
 
     /**
-     * Internal data class for storing filter state during the forward pass.
-     * Used by the RTS smoother to perform backward smoothing.
+     * Running state of the forward pass.
      *
-     * @property x state estimate before update [glucose, rate].
-     * @property p state covariance before update (2x2 in row-major).
-     * @property xPred predicted state [glucose, rate].
-     * @property pPred predicted covariance (2x2 in row-major).
-     * @property dt time step used for this prediction (minutes).
+     * @property x state estimate [glucose, rate].
+     * @property p state covariance (2x2 in row-major).
+     * @property r adaptive measurement noise variance.
+     * @property recentSigns local 2-of-3 same-sign gate for trend persistence (>2σ), [0] is the newest.
      */
-    private data class FilterState(
-        val x: DoubleArray,
-        val p: DoubleArray,
-        val xPred: DoubleArray,
-        val pPred: DoubleArray,
-        val dt: Double
-    ) {
+    private class ForwardState {
+
+        val x = DoubleArray(2)
+        val p = DoubleArray(4)
+        var r = 0.0
+        val recentSigns = IntArray(3)
+        var recentSignCount = 0
+
+        fun addSign(sign: Int) {
+            recentSigns[2] = recentSigns[1]
+            recentSigns[1] = recentSigns[0]
+            recentSigns[0] = sign
+            if (recentSignCount < 3) recentSignCount++
+        }
+
+        fun countSigns(sign: Int): Int {
+            var count = 0
+            for (i in 0 until recentSignCount) if (recentSigns[i] == sign) count++
+            return count
+        }
+
+        fun copyFrom(other: ForwardState) {
+            other.x.copyInto(x)
+            other.p.copyInto(p)
+            r = other.r
+            other.recentSigns.copyInto(recentSigns)
+            recentSignCount = other.recentSignCount
+        }
+    }
+
+    /**
+     * Fixed-size window of recent values backed by a ring buffer, [get] (0) is the newest value.
+     */
+    private class Window(private val capacity: Int) {
+
+        private val buffer = DoubleArray(capacity)
+        private var head = 0
+        var size = 0
+            private set
+
+        operator fun get(i: Int): Double = buffer[(head + i) % capacity]
+
+        fun addFirst(value: Double) {
+            head = (head + capacity - 1) % capacity
+            buffer[head] = value
+            if (size < capacity) size++
+        }
+
+        fun isEmpty(): Boolean = size == 0
+        fun isNotEmpty(): Boolean = size != 0
+
+        fun clear() {
+            size = 0
+        }
+
+        fun average(): Double {
+            if (size == 0) return Double.NaN
+            var sum = 0.0
+            for (i in 0 until size) sum += get(i)
+            return sum / size
+        }
+
+        /**
+         * Mean of the newest [count] values without [trim] fraction of the lowest and highest ones.
+         *
+         * @param scratch work array of at least [count] elements.
+         */
+        fun trimmedMean(count: Int, trim: Double, scratch: DoubleArray): Double {
+            val size = min(count, size)
+            if (size == 0) return 0.0
+            for (i in 0 until size) scratch[i] = get(i)
+            scratch.sort(0, size)
+            val k = (size * trim).toInt().coerceAtMost((size - 1) / 2)
+            var sum = 0.0
+            for (i in k until size - k) sum += scratch[i]
+            return sum / (size - 2 * k)
+        }
+
+        fun copyFrom(other: Window) {
+            other.buffer.copyInto(buffer)
+            head = other.head
+            size = other.size
+        }
+    }
+
+    /**
+     * Forward pass state after reading [timestamp], stored at index [smootherLag] of the newest segment
+     * together with adaptive R statistics. The next call resumes the forward pass from here
+     * if the readings up to [timestamp] have not changed.
+     */
+    private class Checkpoint(innovationWindow: Int) {
+
+        var valid = false
+        var timestamp = 0L
+        val state = ForwardState()
+        val innovations = Window(innovationWindow)
+        val rawInnovationVariance = Window(innovationWindow)
+        val predVarHistory = Window(innovationWindow)
+    }
+
+    /**
+     * Readings and results of the last call indexed like its data ([0] is the newest), together with
+     * forward pass states used by the RTS smoother. Arrays are reused between calls and grow when needed.
+     *
+     * State stored at index i is the state before update with reading i: [rate] and [p] are the filtered
+     * state of reading i + 1, [xPred] and [pPred] are the prediction to reading i, [dt] is the time step.
+     */
+    private class FilterStates {
+
+        var size = 0
+        var timestamps = LongArray(0)
+        var values = DoubleArray(0)
+        var filtered = DoubleArray(0)
+        var smoothed = DoubleArray(0)   // NaN if the reading is not part of any segment.
+        var trendArrows = emptyArray<TrendArrow>()
+        var rate = DoubleArray(0)
+        var p = DoubleArray(0)          // 2x2 in row-major per reading.
+        var xPred = DoubleArray(0)      // [glucose, rate] per reading.
+        var pPred = DoubleArray(0)      // 2x2 in row-major per reading.
+        var dt = DoubleArray(0)
+
+        fun ensureCapacity(capacity: Int) {
+            if (timestamps.size >= capacity) return
+            val newCapacity = max(capacity, timestamps.size * 3 / 2)
+            timestamps = timestamps.copyOf(newCapacity)
+            values = values.copyOf(newCapacity)
+            filtered = filtered.copyOf(newCapacity)
+            smoothed = smoothed.copyOf(newCapacity)
+            trendArrows = Array(newCapacity) { trendArrows.getOrNull(it) ?: TrendArrow.NONE }
+            rate = rate.copyOf(newCapacity)
+            p = p.copyOf(newCapacity * 4)
+            xPred = xPred.copyOf(newCapacity * 2)
+            pPred = pPred.copyOf(newCapacity * 4)
+            dt = dt.copyOf(newCapacity)
+        }
 
-        override fun equals(other: Any?): Boolean {
-            if (this === other) return true
-            if (other !is FilterState) return false
-            if (!x.contentEquals(other.x)) return false
-            if (!p.contentEquals(other.p)) return false
-            if (!xPred.contentEquals(other.xPred)) return false
-            if (!pPred.contentEquals(other.pPred)) return false
-            return dt == other.dt
+        fun store(i: Int, x: DoubleArray, p: DoubleArray, xPred: DoubleArray, pPred: DoubleArray, dt: Double) {
+            rate[i] = x[1]
+            p.copyInto(this.p, i * 4)
+            xPred.copyInto(this.xPred, i * 2)
+            pPred.copyInto(this.pPred, i * 4)
+            this.dt[i] = dt
         }
 
-        override fun hashCode(): Int {
-            var result = x.contentHashCode()
-            result = 31 * result + p.contentHashCode()
-            result = 31 * result + xPred.contentHashCode()
-            result = 31 * result + pPred.contentHashCode()
-            result = 31 * result + dt.hashCode()
-            return result
+        /** Move readings and results from [from] by [offset] indexes to older position */
+        fun moveResults(from: Int, count: Int, offset: Int) {
+            timestamps.copyInto(timestamps, from + offset, from, from + count)
+            values.copyInto(values, from + offset, from, from + count)
+            filtered.copyInto(filtered, from + offset, from, from + count)
+            smoothed.copyInto(smoothed, from + offset, from, from + count)
+            trendArrows.copyInto(trendArrows, from + offset, from, from + count)
         }
     }
 
@@ -200,9 +332,29 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
     // - innovations: normalized innovation squared ν² / (P[0] + R).
     // - rawInnovationVariance: raw innovation squared ν².
     // - predVarHistory: history of predicted variance P_pred[0].
-    private val innovations = ArrayDeque<Double>(innovationWindow + 1)
-    private val rawInnovationVariance = ArrayDeque<Double>(innovationWindow + 1)
-    private val predVarHistory = ArrayDeque<Double>(innovationWindow + 1)
+    private val innovations = Window(innovationWindow)
+    private val rawInnovationVariance = Window(innovationWindow)
+    private val predVarHistory = Window(innovationWindow)
+
+    // Forward pass states and results of the last call, kept in memory for the incremental mode.
+    @VisibleForTesting
+    var incremental = true
+    private val states = FilterStates()
+    private val forwardState = ForwardState()
+    private val checkpoint = Checkpoint(innovationWindow)
+
+    // Preallocated work arrays, the filter arithmetic runs without allocation.
+    private val sigmaPoints = DoubleArray((2 * n + 1) * n)      // Row-major, one row per sigma point.
+    private val sigmaPointsPred = DoubleArray((2 * n + 1) * n)
+    private val sqrtP = DoubleArray(4)
+    private val xPredBase = DoubleArray(n)
+    private val pPredBase = DoubleArray(4)
+    private val xPredEff = DoubleArray(n)
+    private val pPredEff = DoubleArray(4)
+    private val tempQ = DoubleArray(4)
+    private val smootherGain = DoubleArray(4)
+    private val xSmooth = DoubleArray(n)
+    private val trimScratch = DoubleArray(innovationWindow)
 
     // Session tracking.
     private var lastProcessedTimestamp: Long = 0
@@ -488,6 +640,7 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
         innovations.clear()
         rawInnovationVariance.clear()
         predVarHistory.clear()
+        checkpoint.valid = false
         sensorSessionId++
         sessionMeasurementCount = 0
         sessionOutlierCount = 0
@@ -509,6 +662,7 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
     // MAIN FILTERING API
     // ============================================================
 
+    @Synchronized
     override fun smooth(data: MutableList<InMemoryGlucoseValue>): MutableList<InMemoryGlucoseValue> {
         if (data.isEmpty()) return data
 
@@ -520,6 +674,7 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
                 "UKF: Error during smoothing, falling back to raw values",
                 e
             )
+            checkpoint.valid = false
             copyRawToSmoothed(data)
             return data
         }
@@ -567,31 +722,33 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
         val segments = findDataSegments(data)
 
         if (segments.isEmpty()) {
+            checkpoint.valid = false
             copyRawToSmoothed(data)
             return data
         }
 
-        aapsLogger.debug(LTag.GLUCOSE, "UKF: Processing ${segments.size} data segments")
-
         // Track new measurements across all segments.
         val previousTimestamp = lastProcessedTimestamp
         lastProcessedTimestamp = data[0].timestamp
 
-        // Process each segment independently.
-        for ((idx, segment) in segments.withIndex()) {
-            val segmentSize = segment.endIdx - segment.startIdx + 1
-            aapsLogger.debug(
-                LTag.GLUCOSE,
-                "UKF: Segment $idx: $segmentSize points " +
-                    "(idx ${segment.startIdx} to ${segment.endIdx})"
-            )
-
-            processSegment(data, segment.startIdx, segment.endIdx, previousTimestamp)
+        val resumeIdx = findResumeIndex(data, segments[0])
+        val segmentsProcessed = if (resumeIdx > 0) {
+            aapsLogger.debug(LTag.GLUCOSE, "UKF: Resuming forward pass from checkpoint, $resumeIdx newer points")
+            processIncremental(data, resumeIdx, previousTimestamp)
+            1
+        } else {
+            aapsLogger.debug(LTag.GLUCOSE, "UKF: Processing ${segments.size} data segments")
+            processAll(data, segments, previousTimestamp)
+            segments.size
         }
 
-        // Fill any unprocessed points with raw values.
+        // Apply results, fill any unprocessed points with raw values.
         for (i in data.indices) {
-            if (data[i].smoothed == 0.0) {  // Not yet processed.
+            val smoothed = states.smoothed[i]
+            if (!smoothed.isNaN()) {
+                data[i].smoothed = smoothed
+                data[i].trendArrow = states.trendArrows[i]
+            } else if (data[i].smoothed == 0.0) {  // Not yet processed.
                 data[i].smoothed = max(data[i].value, 39.0)
                 data[i].trendArrow = TrendArrow.NONE
             }
@@ -627,7 +784,7 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
                 "avg_innovation" to if (innovations.isNotEmpty()) innovations.average() else 0.0,
                 "innovation_count" to innovations.size,
                 "consecutive_outliers" to consecutiveOutliers,
-                "segments_processed" to segments.size
+                "segments_processed" to segmentsProcessed
             )
             aapsLogger.debug(LTag.GLUCOSE, "UKF_DIAGNOSTICS: $diagnostics")
         }
@@ -639,6 +796,94 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
         return data
     }
 
+    /**
+     * Find the checkpoint in [data] to resume the forward pass from.
+     *
+     * Readings from the checkpoint back must be the same as in the last call and must belong
+     * to the newest segment. Newer readings may be added or changed; older readings may drop out.
+     *
+     * @return index of the checkpoint reading, -1 if all segments must be processed.
+     */
+    private fun findResumeIndex(data: List<InMemoryGlucoseValue>, newestSegment: DataSegment): Int {
+        if (!incremental || !checkpoint.valid || newestSegment.startIdx != 0) return -1
+
+        var idx = 0
+        while (idx < data.size && data[idx].timestamp > checkpoint.timestamp) idx++
+        if (idx == data.size || data[idx].timestamp != checkpoint.timestamp) return -1
+        if (idx < smootherLag || idx > newestSegment.endIdx) return -1
+
+        // Checkpoint is stored at index smootherLag, older readings are shifted by the number of new ones.
+        val offset = idx - smootherLag
+        if (data.size - offset > states.size) return -1
+        for (i in idx until data.size) {
+            if (data[i].timestamp != states.timestamps[i - offset] || data[i].value != states.values[i - offset]) return -1
+        }
+        return idx
+    }
+
+    /**
+     * Process all segments of [data] from scratch.
+     *
+     * A checkpoint is saved if the newest segment is long enough.
+     */
+    private fun processAll(
+        data: MutableList<InMemoryGlucoseValue>,
+        segments: List<DataSegment>,
+        previousTimestamp: Long
+    ) {
+        checkpoint.valid = false
+        states.ensureCapacity(data.size)
+        states.size = data.size
+        for (i in data.indices) {
+            states.timestamps[i] = data[i].timestamp
+            states.values[i] = data[i].value
+            states.smoothed[i] = Double.NaN
+            states.trendArrows[i] = TrendArrow.NONE
+        }
+
+        // Process each segment independently.
+        for ((idx, segment) in segments.withIndex()) {
+            val segmentSize = segment.endIdx - segment.startIdx + 1
+            aapsLogger.debug(
+                LTag.GLUCOSE,
+                "UKF: Segment $idx: $segmentSize points " +
+                    "(idx ${segment.startIdx} to ${segment.endIdx})"
+            )
+
+            processSegment(data, segment.startIdx, segment.endIdx, previousTimestamp)
+        }
+    }
+
+    /**
+     * Resume the forward pass from the checkpoint at [resumeIdx] and run the backward RTS smoother over
+     * newer readings only. Results of older readings are taken over from the last call.
+     */
+    private fun processIncremental(
+        data: MutableList<InMemoryGlucoseValue>,
+        resumeIdx: Int,
+        previousTimestamp: Long
+    ) {
+        states.ensureCapacity(data.size)
+        states.moveResults(smootherLag, data.size - resumeIdx, resumeIdx - smootherLag)
+        states.size = data.size
+        for (i in 0 until resumeIdx) {
+            states.timestamps[i] = data[i].timestamp
+            states.values[i] = data[i].value
+        }
+
+        forwardState.copyFrom(checkpoint.state)
+        innovations.copyFrom(checkpoint.innovations)
+        rawInnovationVariance.copyFrom(checkpoint.rawInnovationVariance)
+        predVarHistory.copyFrom(checkpoint.predVarHistory)
+
+        forwardPass(data, resumeIdx - 1, 0, previousTimestamp)
+        learnedR = forwardState.r
+
+        states.filtered.copyInto(states.smoothed, 0, 0, resumeIdx + 1)
+        smoothBackward(0, resumeIdx, forwardState.x[1])
+        applySegmentResults(0, resumeIdx, forwardState.x[1])
+    }
+
     /**
      * Process a single continuous segment of data.
      *
@@ -652,8 +897,8 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
     ) {
         val segmentSize = endIdx - startIdx + 1
         if (segmentSize < 2) {
-            data[startIdx].smoothed = max(data[startIdx].value, 39.0)
-            data[startIdx].trendArrow = TrendArrow.NONE
+            states.smoothed[startIdx] = max(data[startIdx].value, 39.0)
+            states.trendArrows[startIdx] = TrendArrow.NONE
             return
         }
 
@@ -669,22 +914,49 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
             }
         }
 
-        val x = doubleArrayOf(initialGlucose, initialRate)
-        val p = doubleArrayOf(16.0, 0.0, 0.0, 1.0)
-        var r = learnedR
+        val state = forwardState
+        state.x[0] = initialGlucose
+        state.x[1] = initialRate
+        state.p[0] = 16.0
+        state.p[1] = 0.0
+        state.p[2] = 0.0
+        state.p[3] = 1.0
+        state.r = learnedR
+        state.recentSignCount = 0
+        states.filtered[endIdx] = initialGlucose
+
+        forwardPass(data, endIdx - 1, startIdx, previousTimestamp)
+
+        // Update learned R from the segment.
+        learnedR = state.r
 
-        val forwardStates = ArrayDeque<FilterState>(segmentSize)
-        val forwardResults = DoubleArray(segmentSize)
-        forwardResults[segmentSize - 1] = x[0]
+        // === BACKWARD SMOOTHING (RTS) - within segment only ===
+        states.filtered.copyInto(states.smoothed, startIdx, startIdx, endIdx + 1)
+        if (segmentSize >= 3) smoothBackward(startIdx, segmentSize - 1, state.x[1])
+
+        applySegmentResults(startIdx, endIdx, state.x[1])
+    }
+
+    /**
+     * Forward UKF pass over readings [from] down to newer [to] continuing from [forwardState].
+     *
+     * Stores filtered values and states for the smoother and saves the checkpoint
+     * when passing index [smootherLag] of the newest segment.
+     */
+    private fun forwardPass(
+        data: MutableList<InMemoryGlucoseValue>,
+        from: Int,
+        to: Int,
+        previousTimestamp: Long
+    ) {
+        val state = forwardState
+        val x = state.x
+        val p = state.p
 
         var segmentNewMeasurements = 0
         var segmentOutliers = 0
 
-        // Local 2-of-3 same-sign gate for trend persistence (>2σ).
-        val recentSigns = ArrayDeque<Int>(3)
-
-        // === FORWARD PASS (within segment only) ===
-        for (i in (endIdx - 1) downTo startIdx) {
+        for (i in from downTo to) {
             val dt = (data[i].timestamp - data[i + 1].timestamp) / millisPerMinute
 
             // Handle minor gaps within the segment.
@@ -704,37 +976,26 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
             val dtUsed = dt
 
             // One-step prediction with fixed Q (base prediction).
-            val (xPredBase, pPredBase) = predict(x, p, q, dtUsed)
+            predict(x, p, q, dtUsed, xPredBase, pPredBase)
 
             val z = data[i].value
 
             // Skip only error code values (e.g., 38 mg/dL).
             if (z <= 38.0) {
                 // For smoothing, still record the pre-update state and prediction.
-                val stateBefore = FilterState(
-                    x.copyOf(),
-                    p.copyOf(),
-                    xPredBase.copyOf(),
-                    pPredBase.copyOf(),
-                    dtUsed
-                )
+                states.store(i, x, p, xPredBase, pPredBase, dtUsed)
 
-                x[0] = xPredBase[0]
-                x[1] = xPredBase[1]
-                p[0] = pPredBase[0]
-                p[1] = pPredBase[1]
-                p[2] = pPredBase[2]
-                p[3] = pPredBase[3]
+                xPredBase.copyInto(x)
+                pPredBase.copyInto(p)
 
-                val resultIdx = i - startIdx
-                forwardResults[resultIdx] = x[0]
-                forwardStates.addFirst(stateBefore)
+                states.filtered[i] = x[0]
+                if (to == 0 && i == smootherLag) saveCheckpoint(data[i].timestamp)
                 continue
             }
 
             // --- Innovation stats (pre-inflation, for gating only) ---
             val innovation = z - xPredBase[0]
-            val innovationVarianceRaw = pPredBase[0] + r
+            val innovationVarianceRaw = pPredBase[0] + state.r
             val stdRaw = sqrt(innovationVarianceRaw)
             val normRaw = innovation / stdRaw
             val isNewData = data[i].timestamp > previousTimestamp
@@ -746,9 +1007,8 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
                 else          -> 0
             }
 
-            if (recentSigns.size == 3) recentSigns.removeLast()
-            recentSigns.addFirst(if (abs(normRaw) > 2.0) sign else 0)
-            val sameSignCount = if (sign == 0) 0 else recentSigns.count { it == sign }
+            state.addSign(if (abs(normRaw) > 2.0) sign else 0)
+            val sameSignCount = if (sign == 0) 0 else state.countSigns(sign)
             val qInflateAllowed = sameSignCount >= 2
 
             val absn = abs(normRaw)
@@ -756,33 +1016,26 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
             // --- Measurement noise inflation (R_eff) ---
             // Huber-like per-sample R inflation with soft caps.
             val rScale = 1.0 + max(0.0, absn - 2.0) // Grows linearly beyond 2σ.
-            val rEff = min(r * rScale, min(r + 100.0, rEffMax)) // Gentle ceiling.
+            val rEff = min(state.r * rScale, min(state.r + 100.0, rEffMax)) // Gentle ceiling.
 
             // --- Process noise inflation (Q) for real trends ---
             // Temporary Q inflation: prioritize rate agility, keep glucose bounded.
             val zScore = absn.coerceAtLeast(1.0)
             val qScale = if (qInflateAllowed) zScore.coerceIn(1.0, 3.0) else 1.0
-            val tempQ = if (qScale > 1.0) {
-                q.copyOf().apply {
-                    this[0] = q[0] * min(qScale, 2.0) // Modest glucose variance.
-                    this[3] = q[3] * qScale          // Agile slope.
-                }
-            } else {
-                q
-            }
 
             // Re-predict if Q inflated, then update with R_eff.
-            val (xPredEff, pPredEff) =
-                if (qScale > 1.0) predict(x, p, tempQ, dtUsed) else Pair(xPredBase, pPredBase)
+            if (qScale > 1.0) {
+                q.copyInto(tempQ)
+                tempQ[0] = q[0] * min(qScale, 2.0) // Modest glucose variance.
+                tempQ[3] = q[3] * qScale          // Agile slope.
+                predict(x, p, tempQ, dtUsed, xPredEff, pPredEff)
+            } else {
+                xPredBase.copyInto(xPredEff)
+                pPredBase.copyInto(pPredEff)
+            }
 
             // Store prediction for RTS smoothing (uses the effective prediction).
-            val stateBefore = FilterState(
-                x.copyOf(),
-                p.copyOf(),
-                xPredEff.copyOf(),
-                pPredEff.copyOf(),
-                dtUsed
-            )
+            states.store(i, x, p, xPredEff, pPredEff, dtUsed)
 
             // Effective innovation variance used by the filter (PPredEff + R_eff).
             val innovationVarianceEff = pPredEff[0] + rEff
@@ -790,7 +1043,6 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
 
             // Track predicted variance history for adaptive-R.
             predVarHistory.addFirst(pPredEff[0])
-            if (predVarHistory.size > innovationWindow) predVarHistory.removeLast()
 
             // UKF update with effective parameters.
             update(xPredEff, pPredEff, z, rEff, x, p)
@@ -801,7 +1053,7 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
             // Pause R learning during real trend and on very large residuals.
             val skipRUpdate = qInflateAllowed || absn > 3.0
             if (!skipRUpdate) {
-                r = adaptMeasurementNoise(r, innovations, rawInnovationVariance)
+                state.r = adaptMeasurementNoise(state.r, innovations, rawInnovationVariance)
             }
 
             // Diagnostics on outliers, using effective covariance.
@@ -826,7 +1078,7 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
             // Logging with effective parameters (just switch to xPredEff for consistency).
             aapsLogger.warn(
                 LTag.GLUCOSE,
-                "UKF: live R=${String.format(Locale.US, "%.1f", r)}, " +
+                "UKF: live R=${String.format(Locale.US, "%.1f", state.r)}, " +
                     "R_eff=${String.format(Locale.US, "%.1f", rEff)}, " +
                     "BG=${String.format(Locale.US, "%.0f", z)}, " +
                     "predBG=${String.format(Locale.US, "%.0f", xPredEff[0])}, " +
@@ -837,14 +1089,10 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
                     "P[3]=${String.format(Locale.US, "%.4f", p[3])}"
             )
 
-            val resultIdx = i - startIdx
-            forwardResults[resultIdx] = x[0]
-            forwardStates.addFirst(stateBefore)
+            states.filtered[i] = x[0]
+            if (to == 0 && i == smootherLag) saveCheckpoint(data[i].timestamp)
         }
 
-        // Update learned R from the segment.
-        learnedR = r
-
         // Log segment processing.
         if (segmentNewMeasurements > 0) {
             val segmentOutlierRate =
@@ -856,33 +1104,49 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
                     "(${String.format(Locale.US, "%.1f%%", segmentOutlierRate * 100)})"
             )
         }
+    }
 
-        // === BACKWARD SMOOTHING (RTS) - within segment only ===
-        val smoothedResults = forwardResults.copyOf()
-        if (segmentSize >= 3 && forwardStates.isNotEmpty()) {
-            val maxSmoothSteps = min(segmentSize - 1, forwardStates.size)
-            val xSmooth = doubleArrayOf(forwardResults[0], x[1])
-
-            for (i in 1..maxSmoothSteps) {
-                val state = forwardStates[i - 1]
-                val c = computeSmootherGain(state.p, state.pPred, state.dt)
-                val dx0 = xSmooth[0] - state.xPred[0]
-                val dx1 = xSmooth[1] - state.xPred[1]
-                xSmooth[0] = forwardResults[i] + c[0] * dx0 + c[1] * dx1
-                xSmooth[1] = state.x[1] + c[2] * dx0 + c[3] * dx1
-                smoothedResults[i] = xSmooth[0]
-            }
+    /**
+     * Backward RTS pass from the newest reading [startIdx] over [steps] older readings.
+     *
+     * Uses stored forward states, readings not reached keep their smoothed values.
+     *
+     * @param rate filtered rate of reading [startIdx].
+     */
+    private fun smoothBackward(startIdx: Int, steps: Int, rate: Double) {
+        val c = smootherGain
+        xSmooth[0] = states.filtered[startIdx]
+        xSmooth[1] = rate
+
+        for (step in 1..steps) {
+            val i = startIdx + step
+            // State stored with the newer reading holds the filtered state of this one.
+            val s = i - 1
+            computeSmootherGain(states.p, s * 4, states.pPred, s * 4, states.dt[s], c)
+            val dx0 = xSmooth[0] - states.xPred[s * 2]
+            val dx1 = xSmooth[1] - states.xPred[s * 2 + 1]
+            xSmooth[0] = states.filtered[i] + c[0] * dx0 + c[1] * dx1
+            xSmooth[1] = states.rate[s] + c[2] * dx0 + c[3] * dx1
+            states.smoothed[i] = xSmooth[0]
         }
+    }
 
-        // Apply results to this segment.
+    private fun applySegmentResults(startIdx: Int, endIdx: Int, rate: Double) {
         for (i in startIdx..endIdx) {
-            val resultIdx = i - startIdx
-            data[i].smoothed = max(smoothedResults[resultIdx], 39.0)
-            data[i].trendArrow =
-                if (i == startIdx) computeTrendArrow(x[1]) else TrendArrow.NONE
+            states.smoothed[i] = max(states.smoothed[i], 39.0)
+            states.trendArrows[i] = if (i == startIdx) computeTrendArrow(rate) else TrendArrow.NONE
         }
     }
 
+    private fun saveCheckpoint(timestamp: Long) {
+        checkpoint.timestamp = timestamp
+        checkpoint.state.copyFrom(forwardState)
+        checkpoint.innovations.copyFrom(innovations)
+        checkpoint.rawInnovationVariance.copyFrom(rawInnovationVariance)
+        checkpoint.predVarHistory.copyFrom(predVarHistory)
+        checkpoint.valid = true
+    }
+
     // ============================================================
     // ADAPTIVE R ESTIMATION
     // ============================================================
@@ -899,14 +1163,6 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
 
         innovations.addFirst(normalizedSq)
         rawInnovationVariance.addFirst(rawSq)
-
-        if (innovations.size > innovationWindow) {
-            innovations.removeLast()
-        }
-
-        if (rawInnovationVariance.size > innovationWindow) {
-            rawInnovationVariance.removeLast()
-        }
     }
 
     /**
@@ -926,22 +1182,14 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
      */
     private fun adaptMeasurementNoise(
         currentR: Double,
-        innovations: ArrayDeque<Double>,  // Stores ν²/(P[0] + R).
-        rawSq: ArrayDeque<Double>         // Stores ν².
+        innovations: Window,  // Stores ν²/(P[0] + R).
+        rawSq: Window         // Stores ν².
     ): Double {
         if (innovations.size < 12 || predVarHistory.isEmpty()) return currentR
 
-        fun trimmedMean(v: List<Double>, trim: Double = 0.20): Double {
-            if (v.isEmpty()) return 0.0
-            val s = v.sorted()
-            val k = (s.size * trim).toInt().coerceAtMost((s.size - 1) / 2)
-            val core = s.subList(k, s.size - k)
-            return core.average()
-        }
-
         val nSize = innovations.size
-        val mRaw = trimmedMean(rawSq.take(nSize))        // Robust Var(ν).
-        val pyyMed = trimmedMean(predVarHistory.take(nSize)) // Robust P_pred[0].
+        val mRaw = rawSq.trimmedMean(nSize, 0.20, trimScratch)             // Robust Var(ν).
+        val pyyMed = predVarHistory.trimmedMean(nSize, 0.20, trimScratch) // Robust P_pred[0].
 
         // Robust, decoupled target.
         val rHatRaw = (mRaw - pyyMed).coerceAtLeast(rMin) // Ensure positivity.
@@ -1001,42 +1249,50 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
      * Where F is the state transition Jacobian:
      * F = [[1, dt], [0, damping]]
      *
-     * @param p forward-filtered covariance (2x2).
-     * @param pPred one-step-ahead predicted covariance (2x2).
+     * @param p forward-filtered covariances (2x2 in row-major from [pOffset]).
+     * @param pPred one-step-ahead predicted covariances (2x2 in row-major from [pPredOffset]).
      * @param dt time step (minutes).
-     * @return smoother gain matrix C (2x2 in row-major).
+     * @param c output: smoother gain matrix C (2x2 in row-major).
      */
     private fun computeSmootherGain(
         p: DoubleArray,
+        pOffset: Int,
         pPred: DoubleArray,
-        dt: Double
-    ): DoubleArray {
+        pPredOffset: Int,
+        dt: Double,
+        c: DoubleArray
+    ) {
         // F = [[1, dt],
         //      [0, exp(-dt/τ)]].
         val damp = rateDamp(dt)
 
         // Compute P · Fᵀ.
-        val pfT00 = p[0] + p[1] * dt
-        val pfT01 = p[1] * damp
-        val pfT10 = p[2] + p[3] * dt
-        val pfT11 = p[3] * damp
+        val pfT00 = p[pOffset] + p[pOffset + 1] * dt
+        val pfT01 = p[pOffset + 1] * damp
+        val pfT10 = p[pOffset + 2] + p[pOffset + 3] * dt
+        val pfT11 = p[pOffset + 3] * damp
 
         // Invert PPred (2x2).
-        val det = pPred[0] * pPred[3] - pPred[1] * pPred[2]
-        if (abs(det) < 1e-10) return doubleArrayOf(0.0, 0.0, 0.0, 0.0)
+        val pp0 = pPred[pPredOffset]
+        val pp1 = pPred[pPredOffset + 1]
+        val pp2 = pPred[pPredOffset + 2]
+        val pp3 = pPred[pPredOffset + 3]
+        val det = pp0 * pp3 - pp1 * pp2
+        if (abs(det) < 1e-10) {
+            c.fill(0.0)
+            return
+        }
 
-        val inv00 = pPred[3] / det
-        val inv01 = -pPred[1] / det
-        val inv10 = -pPred[2] / det
-        val inv11 = pPred[0] / det
+        val inv00 = pp3 / det
+        val inv01 = -pp1 / det
+        val inv10 = -pp2 / det
+        val inv11 = pp0 / det
 
         // C = P · Fᵀ · PPred^{-1}.
-        return doubleArrayOf(
-            pfT00 * inv00 + pfT01 * inv10,
-            pfT00 * inv01 + pfT01 * inv11,
-            pfT10 * inv00 + pfT11 * inv10,
-            pfT10 * inv01 + pfT11 * inv11
-        )
+        c[0] = pfT00 * inv00 + pfT01 * inv10
+        c[1] = pfT00 * inv01 + pfT01 * inv11
+        c[2] = pfT10 * inv00 + pfT11 * inv10
+        c[3] = pfT10 * inv01 + pfT11 * inv11
     }
 
     /**
@@ -1052,39 +1308,41 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
      * @param p current covariance (2x2 in row-major).
      * @param q fixed process noise covariance (2x2 in row-major).
      * @param dt time step in minutes.
-     * @return pair of (predicted state, predicted covariance).
+     * @param xPred output: predicted state.
+     * @param pPred output: predicted covariance (2x2 in row-major).
      */
     private fun predict(
         x: DoubleArray,
         p: DoubleArray,
         q: DoubleArray,
-        dt: Double
-    ): Pair<DoubleArray, DoubleArray> {
+        dt: Double,
+        xPred: DoubleArray,
+        pPred: DoubleArray
+    ) {
         // 1) Sigma points from current state.
-        val sigmaPoints = generateSigmaPoints(x, p)
+        generateSigmaPoints(x, p)
 
         // 2) Propagate through process model with dt-based rate damping.
-        val sigmaPointsPred = Array(2 * n + 1) { DoubleArray(n) }
         val damp = rateDamp(dt)
         for (i in 0 until (2 * n + 1)) {
             // Glucose: G_{t+1} = G_t + Ġ_t · dt.
-            sigmaPointsPred[i][0] = sigmaPoints[i][0] + sigmaPoints[i][1] * dt
+            sigmaPointsPred[i * n] = sigmaPoints[i * n] + sigmaPoints[i * n + 1] * dt
             // Rate: Ġ_{t+1} = Ġ_t · exp(-dt/τ).
-            sigmaPointsPred[i][1] = sigmaPoints[i][1] * damp
+            sigmaPointsPred[i * n + 1] = sigmaPoints[i * n + 1] * damp
         }
 
         // 3) Predicted mean.
-        val xPred = DoubleArray(n)
+        xPred.fill(0.0)
         for (i in 0 until (2 * n + 1)) {
-            xPred[0] += wm[i] * sigmaPointsPred[i][0]
-            xPred[1] += wm[i] * sigmaPointsPred[i][1]
+            xPred[0] += wm[i] * sigmaPointsPred[i * n]
+            xPred[1] += wm[i] * sigmaPointsPred[i * n + 1]
         }
 
         // 4) Predicted covariance.
-        val pPred = DoubleArray(4)
+        pPred.fill(0.0)
         for (i in 0 until (2 * n + 1)) {
-            val dx0 = sigmaPointsPred[i][0] - xPred[0]
-            val dx1 = sigmaPointsPred[i][1] - xPred[1]
+            val dx0 = sigmaPointsPred[i * n] - xPred[0]
+            val dx1 = sigmaPointsPred[i * n + 1] - xPred[1]
             pPred[0] += wc[i] * dx0 * dx0
             pPred[1] += wc[i] * dx0 * dx1
             pPred[2] += wc[i] * dx1 * dx0
@@ -1099,8 +1357,6 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
         // 6) Ensure positive definiteness.
         pPred[0] = max(pPred[0], 0.1)
         pPred[3] = max(pPred[3], 0.001)
-
-        return Pair(xPred, pPred)
     }
 
     /**
@@ -1129,24 +1385,19 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
         p: DoubleArray
     ) {
         // Generate sigma points from predicted state.
-        val sigmaPoints = generateSigmaPoints(xPred, pPred)
-        val zSigma = DoubleArray(2 * n + 1)
-
-        // Transform sigma points through measurement model (h(x) = glucose).
-        for (i in 0 until 2 * n + 1) {
-            zSigma[i] = sigmaPoints[i][0]
-        }
+        // Measurement model h(x) = glucose, so transformed sigma points are sigmaPoints[i * n].
+        generateSigmaPoints(xPred, pPred)
 
         // Compute predicted measurement: z̄ = Σ W_i^(m) · Z_i.
         var zPred = 0.0
         for (i in 0 until 2 * n + 1) {
-            zPred += wm[i] * zSigma[i]
+            zPred += wm[i] * sigmaPoints[i * n]
         }
 
         // Compute innovation covariance: Pzz = Σ W_i^(c) · (Z_i - z̄)² + R.
         var pzz = 0.0
         for (i in 0 until 2 * n + 1) {
-            val dz = zSigma[i] - zPred
+            val dz = sigmaPoints[i * n] - zPred
             pzz += wc[i] * dz * dz
         }
         pzz += r
@@ -1157,43 +1408,39 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
                 LTag.GLUCOSE,
                 "UKF: Innovation covariance too small (Pzz=$pzz), skipping update"
             )
-            x[0] = xPred[0]
-            x[1] = xPred[1]
-            p[0] = pPred[0]
-            p[1] = pPred[1]
-            p[2] = pPred[2]
-            p[3] = pPred[3]
+            xPred.copyInto(x)
+            pPred.copyInto(p)
             return
         }
 
         // Compute cross-covariance: Pxz = Σ W_i^(c) · (χ_i - x̄)(Z_i - z̄).
-        val pxz = DoubleArray(n)
+        var pxz0 = 0.0
+        var pxz1 = 0.0
         for (i in 0 until 2 * n + 1) {
-            val dx0 = sigmaPoints[i][0] - xPred[0]
-            val dx1 = sigmaPoints[i][1] - xPred[1]
-            val dz = zSigma[i] - zPred
-            pxz[0] += wc[i] * dx0 * dz
-            pxz[1] += wc[i] * dx1 * dz
+            val dx0 = sigmaPoints[i * n] - xPred[0]
+            val dx1 = sigmaPoints[i * n + 1] - xPred[1]
+            val dz = sigmaPoints[i * n] - zPred
+            pxz0 += wc[i] * dx0 * dz
+            pxz1 += wc[i] * dx1 * dz
         }
 
         // Compute Kalman gain: K = Pxz / Pzz.
-        val k = DoubleArray(n)
-        k[0] = pxz[0] / pzz
-        k[1] = pxz[1] / pzz
+        val k0 = pxz0 / pzz
+        val k1 = pxz1 / pzz
 
         // Update state: x = x̄ + K · (z - z̄).
         val innovation = z - zPred
-        x[0] = xPred[0] + k[0] * innovation
-        x[1] = xPred[1] + k[1] * innovation
+        x[0] = xPred[0] + k0 * innovation
+        x[1] = xPred[1] + k1 * innovation
 
         // Clamp rate to physiological range.
         x[1] = x[1].coerceIn(-4.0, 4.0)
 
         // Update covariance: P = P̄ - K · Pzz · Kᵀ.
-        p[0] = pPred[0] - k[0] * pzz * k[0]
-        p[1] = pPred[1] - k[0] * pzz * k[1]
-        p[2] = pPred[2] - k[1] * pzz * k[0]
-        p[3] = pPred[3] - k[1] * pzz * k[1]
+        p[0] = pPred[0] - k0 * pzz * k0
+        p[1] = pPred[1] - k0 * pzz * k1
+        p[2] = pPred[2] - k1 * pzz * k0
+        p[3] = pPred[3] - k1 * pzz * k1
 
         // Ensure positive definiteness.
         p[0] = max(p[0], 0.1)
@@ -1209,32 +1456,29 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
      * - χᵢ = x - γ·sqrt(P)_{i-n} for i = n+1..2n.
      *
      * Where γ = sqrt(n + λ) and λ is the scaling parameter.
+     * Result is written to [sigmaPoints] (row-major, one row per sigma point).
      *
      * @param x mean state [glucose, rate].
      * @param p covariance (2x2 in row-major).
-     * @return array of 2n+1 sigma points.
      */
     private fun generateSigmaPoints(
         x: DoubleArray,
         p: DoubleArray
-    ): Array<DoubleArray> {
-        val sigmaPoints = Array(2 * n + 1) { DoubleArray(n) }
-        val sqrtP = matrixSqrt2x2(p)
+    ) {
+        matrixSqrt2x2(p, sqrtP)
 
         // Center sigma point.
-        sigmaPoints[0][0] = x[0]
-        sigmaPoints[0][1] = x[1]
+        sigmaPoints[0] = x[0]
+        sigmaPoints[1] = x[1]
 
         // Positive and negative perturbations.
         for (i in 0 until n) {
-            sigmaPoints[i + 1][0] = x[0] + gamma * sqrtP[i * 2 + 0]
-            sigmaPoints[i + 1][1] = x[1] + gamma * sqrtP[i * 2 + 1]
+            sigmaPoints[(i + 1) * n] = x[0] + gamma * sqrtP[i * 2 + 0]
+            sigmaPoints[(i + 1) * n + 1] = x[1] + gamma * sqrtP[i * 2 + 1]
 
-            sigmaPoints[i + 1 + n][0] = x[0] - gamma * sqrtP[i * 2 + 0]
-            sigmaPoints[i + 1 + n][1] = x[1] - gamma * sqrtP[i * 2 + 1]
+            sigmaPoints[(i + 1 + n) * n] = x[0] - gamma * sqrtP[i * 2 + 0]
+            sigmaPoints[(i + 1 + n) * n + 1] = x[1] - gamma * sqrtP[i * 2 + 1]
         }
-
-        return sigmaPoints
     }
 
     /**
@@ -1254,9 +1498,9 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
      * Includes validation for numerical stability and non-positive-definite matrices.
      *
      * @param p covariance matrix [a, b, c, d] in row-major order.
-     * @return lower-triangular Cholesky factor L in column-major order.
+     * @param l output: lower-triangular Cholesky factor L in column-major order.
      */
-    private fun matrixSqrt2x2(p: DoubleArray): DoubleArray {
+    private fun matrixSqrt2x2(p: DoubleArray, l: DoubleArray) {
         val a = p[0]
         val b = (p[1] + p[2]) / 2.0 // Enforce symmetry.
         val d = p[3]
@@ -1269,18 +1513,20 @@ class UnscentedKalmanFilterPlugin @Inject constructor(
                 LTag.GLUCOSE,
                 "UKF: Non-positive-definite covariance, using fallback"
             )
-            return doubleArrayOf(
-                sqrt(max(a, 0.1)),
-                0.0,
-                0.0,
-                sqrt(max(d, 0.01))
-            )
+            l[0] = sqrt(max(a, 0.1))
+            l[1] = 0.0
+            l[2] = 0.0
+            l[3] = sqrt(max(d, 0.01))
+            return
         }
 
         val l22 = sqrt(max(discriminant, 1e-9))
 
-        // Return in column-major order for easy extraction.
-        return doubleArrayOf(l11, l21, 0.0, l22)
+        // Column-major order for easy extraction.
+        l[0] = l11
+        l[1] = l21
+        l[2] = 0.0
+        l[3] = l22
     }
 
     // ============================================================
@@ -0,0 +1,39 @@
+package app.aaps.plugins.smoothing
+
+import app.aaps.core.data.iob.InMemoryGlucoseValue
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.smoothing.Smoothing
+import app.aaps.shared.tests.TestBaseWithProfile
+import app.aaps.shared.tests.benchmark.AAPSLoggerSilent
+import app.aaps.shared.tests.benchmark.Benchmark
+import app.aaps.shared.tests.benchmark.LoopFixture
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty
+import org.mockito.Mock
+
+@EnabledIfSystemProperty(named = Benchmark.PROPERTY, matches = "true")
+class SmoothingBenchmark : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private val silentLogger = AAPSLoggerSilent()
+
+    private fun benchmark(name: String, smoothing: Smoothing) {
+        val glucose = LoopFixture(now, iCfg = someICfg).glucoseValues.map { InMemoryGlucoseValue.fromGv(it) }
+        Benchmark.measure("$name.smooth (${glucose.size} values)") {
+            smoothing.smooth(glucose.mapTo(ArrayList(glucose.size)) { it.copy() })
+        }
+    }
+
+    @Test
+    fun noSmoothing() = benchmark("NoSmoothing", NoSmoothingPlugin(silentLogger, rh))
+
+    @Test
+    fun avgSmoothing() = benchmark("AvgSmoothing", AvgSmoothingPlugin(silentLogger, rh))
+
+    @Test
+    fun exponentialSmoothing() = benchmark("ExponentialSmoothing", ExponentialSmoothingPlugin(silentLogger, rh))
+
+    @Test
+    fun unscentedKalmanFilter() = benchmark("UnscentedKalmanFilter", UnscentedKalmanFilterPlugin(silentLogger, rh, preferences, persistenceLayer))
+}
@@ -0,0 +1,89 @@
+package app.aaps.plugins.smoothing
+
+import app.aaps.core.data.iob.InMemoryGlucoseValue
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.shared.tests.TestBaseWithProfile
+import app.aaps.shared.tests.benchmark.AAPSLoggerSilent
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import java.util.Random
+import kotlin.math.roundToLong
+
+class UnscentedKalmanFilterPluginTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private val silentLogger = AAPSLoggerSilent()
+
+    private fun ukf(incremental: Boolean) =
+        UnscentedKalmanFilterPlugin(silentLogger, rh, preferences, persistenceLayer).also { it.incremental = incremental }
+
+    /** Noisy CGM readings every 5 min with meals, outliers and minor gaps, oldest first */
+    private val readings: List<InMemoryGlucoseValue> by lazy {
+        val random = Random(42)
+        var timestamp = now - 48 * 60 * 60 * 1000L
+        var glucose = 120.0
+        var rate = 0.0
+        List(WINDOW + 144) {
+            if (random.nextDouble() < 0.01) rate += 2.0 + random.nextDouble()
+            rate = rate * 0.93 + random.nextGaussian() * 0.15 - (glucose - 110.0) * 0.002
+            glucose = (glucose + rate * 5).coerceIn(45.0, 380.0)
+            timestamp += if (random.nextDouble() < 0.01) 25 * 60 * 1000L else 5 * 60 * 1000L
+            val outlier = if (random.nextDouble() < 0.005) 60.0 else 0.0
+            InMemoryGlucoseValue(timestamp = timestamp, value = (glucose + random.nextGaussian() * 4).roundToLong() + outlier)
+        }
+    }
+
+    /** Latest [WINDOW] readings up to [end] (exclusive), newest first */
+    private fun data(end: Int): MutableList<InMemoryGlucoseValue> =
+        (end - 1 downTo maxOf(0, end - WINDOW)).mapTo(ArrayList()) { readings[it].copy() }
+
+    @Test
+    fun incrementalMatchesFullRecompute() {
+        val full = ukf(incremental = false)
+        val incremental = ukf(incremental = true)
+        for (end in WINDOW..readings.size) {
+            val expected = full.smooth(data(end))
+            val actual = incremental.smooth(data(end))
+            for (i in 0 until expected.size - SETTLING) {
+                val tolerance = if (i < LAG) RECENT_TOLERANCE else TOLERANCE
+                assertThat(actual[i].smoothed!!).isWithin(tolerance).of(expected[i].smoothed!!)
+            }
+            assertThat(actual[0].trendArrow).isEqualTo(expected[0].trendArrow)
+        }
+    }
+
+    @Test
+    fun unchangedDataGivesSameResult() {
+        val ukf = ukf(incremental = true)
+        ukf.smooth(data(WINDOW))
+        val first = ukf.smooth(data(WINDOW + 1)).map { it.smoothed }
+        val second = ukf.smooth(data(WINDOW + 1)).map { it.smoothed }
+        assertThat(second).containsExactlyElementsIn(first).inOrder()
+    }
+
+    @Test
+    fun changedHistoryIsRecomputed() {
+        val full = ukf(incremental = false)
+        val incremental = ukf(incremental = true)
+        full.smooth(data(WINDOW))
+        incremental.smooth(data(WINDOW))
+        // reading older than smoother lag has changed, both must process all data from the same state
+        val expected = full.smooth(data(WINDOW + 1).also { it[WINDOW / 2].value += 40.0 }).map { it.smoothed }
+        val actual = incremental.smooth(data(WINDOW + 1).also { it[WINDOW / 2].value += 40.0 }).map { it.smoothed }
+        assertThat(actual).containsExactlyElementsIn(expected).inOrder()
+    }
+
+    companion object {
+
+        private const val WINDOW = 408      // 34 hours loaded by PrepareGraphDataWorker
+        private const val LAG = 24          // smootherLag of the plugin
+        private const val SETTLING = 36     // full recompute starts from the oldest raw reading
+
+        // Incremental results may differ from full recompute by adaptive R continuing instead of restarting
+        // and by backward pass not reaching readings older than LAG
+        private const val RECENT_TOLERANCE = 0.25   // mg/dl
+        private const val TOLERANCE = 1.5           // mg/dl
+    }
+}
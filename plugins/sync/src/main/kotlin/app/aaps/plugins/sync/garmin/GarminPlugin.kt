@@ -37,7 +37,7 @@ import java.time.Clock
 import java.time.Duration
 import java.time.Instant
 import java.util.Date
-import java.util.concurrent.locks.Condition
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.locks.ReentrantLock
 import javax.inject.Inject
 import javax.inject.Singleton
@@ -105,10 +105,34 @@ class GarminPlugin @Inject constructor(
     var clock: Clock = Clock.systemUTC()
 
     private val valueLock = ReentrantLock()
-
-    @VisibleForTesting
-    var newValue: Condition = valueLock.newCondition()
     private var lastGlucoseValueTimestamp: Long? = null
+
+    /** Incremented on every change of glucose values, outdates cached [GlucoseSnapshot]s. */
+    private var glucoseGeneration = 0L
+
+    /** Last glucose values read by order (ascending) and length of time window, so requests
+     *  for different windows don't evict each other. */
+    private val glucoseSnapshots = ConcurrentHashMap<Pair<Boolean, Duration>, GlucoseSnapshot>()
+    private val maxGlucoseSnapshots = 8
+
+    /** Glucose values since [from] read once per glucose change. Devices poll every few seconds,
+     *  so values and encoding are reused until glucose changes or values leave the time window. */
+    private inner class GlucoseSnapshot(val generation: Long, val from: Instant, val values: List<GV>) {
+
+        val encoded: String by lazy { encodedGlucose(values) }
+
+        /** Last result of [since], values leave the time window only every few minutes. */
+        @Volatile private var window: GlucoseSnapshot? = null
+
+        /** Values since [from], which must not be earlier than the start of this snapshot. */
+        fun since(from: Instant): GlucoseSnapshot {
+            val fromMillis = from.toEpochMilli()
+            val count = values.count { it.timestamp >= fromMillis }
+            if (count == values.size) return this
+            return window?.takeIf { it.values.size == count }
+                ?: GlucoseSnapshot(generation, from, values.filter { it.timestamp >= fromMillis }).also { window = it }
+        }
+    }
     private val glucoseUnitStr get() = if (loopHub.glucoseUnit == GlucoseUnit.MGDL) "mgdl" else "mmoll"
     private val garminAapsKey get() = preferences.get(GarminStringKey.RequestKey)
 
@@ -161,10 +185,10 @@ class GarminPlugin @Inject constructor(
             aapsLogger.info(LTag.GARMIN, "starting HTTP server on $port")
             server?.close()
             server = HttpServer(aapsLogger, port).apply {
-                registerEndpoint("/get", requestHandler(::onGetBloodGlucose))
-                registerEndpoint("/carbs", requestHandler(::onPostCarbs))
-                registerEndpoint("/connect", requestHandler(::onConnectPump))
-                registerEndpoint("/sgv.json", requestHandler(::onSgv))
+                registerReplyEndpoint("/get", replyHandler(::onGetBloodGlucose))
+                registerReplyEndpoint("/carbs", requestHandler(::onPostCarbs))
+                registerReplyEndpoint("/connect", requestHandler(::onConnectPump))
+                registerReplyEndpoint("/sgv.json", requestHandler(::onSgv))
                 awaitReady(wait)
             }
         } else if (server != null) {
@@ -193,10 +217,11 @@ class GarminPlugin @Inject constructor(
         val timestamp = glucoseValues.maxOfOrNull { it.timestamp } ?: return
         aapsLogger.info(LTag.GARMIN, "onNewBloodGlucose ${Date(timestamp)}")
         valueLock.withLock {
+            glucoseGeneration++
             if ((lastGlucoseValueTimestamp ?: 0) >= timestamp) return
             lastGlucoseValueTimestamp = timestamp
-            newValue.signalAll()
         }
+        server?.wakeParked()
     }
 
     @VisibleForTesting
@@ -220,7 +245,7 @@ class GarminPlugin @Inject constructor(
         "key" to garminAapsKey,
         "command" to "glucose",
         "profile" to loopHub.currentProfileName.first().toString(),
-        "encodedGlucose" to encodedGlucose(getGlucoseValues()),
+        "encodedGlucose" to recentGlucose().encoded,
         "remainingInsulin" to loopHub.insulinOnboard,
         "remainingBasalInsulin" to loopHub.insulinBasalOnboard,
         "glucoseUnit" to glucoseUnitStr,
@@ -232,28 +257,33 @@ class GarminPlugin @Inject constructor(
 
     /** Gets the last 2+ hours of glucose values. */
     @VisibleForTesting
-    fun getGlucoseValues(): List<GV> {
-        val from = clock.instant().minus(Duration.ofHours(2).plusMinutes(9))
-        return loopHub.getGlucoseValues(from, true)
-    }
+    fun getGlucoseValues(): List<GV> = recentGlucose().values
 
-    /** Get the last 2+ hours of glucose values and waits in case a new value should arrive soon. */
-    private fun getGlucoseValues(maxWait: Duration): List<GV> {
+    private fun recentGlucose() = glucoseSnapshot(Duration.ofHours(2).plusMinutes(9), true)
+
+    /** Whether a new value should arrive soon, so the request is worth waiting for it. */
+    private fun shouldWaitForGlucose(snapshot: GlucoseSnapshot, maxWait: Duration): Boolean {
         val glucoseFrequency = Duration.ofMinutes(5)
-        val glucoseValues = getGlucoseValues()
-        val last = glucoseValues.lastOrNull() ?: return emptyList()
+        val last = snapshot.values.lastOrNull() ?: return false
         val delay = Duration.ofMillis(clock.millis() - last.timestamp)
-        return if (!maxWait.isZero
+        return !maxWait.isZero
             && delay > glucoseFrequency
             && delay < glucoseFrequency.plusMinutes(1)
-        ) {
-            valueLock.withLock {
-                aapsLogger.debug(LTag.GARMIN, "waiting for new glucose (delay=$delay)")
-                newValue.awaitNanos(maxWait.toNanos())
-            }
-            getGlucoseValues()
-        } else {
-            glucoseValues
+    }
+
+    /** Returns glucose values of the last [window], reads from database only if glucose has changed or the window
+     *  starts earlier than the cached snapshot. */
+    private fun glucoseSnapshot(window: Duration, ascending: Boolean): GlucoseSnapshot {
+        val from = clock.instant().minus(window)
+        val generation = valueLock.withLock { glucoseGeneration }
+        val key = ascending to window
+        val cached = glucoseSnapshots[key]
+        if (cached != null && cached.generation == generation && cached.from <= from) return cached.since(from)
+        return GlucoseSnapshot(generation, from, loopHub.getGlucoseValues(from, ascending)).also {
+            // snapshots of older glucose are never used again, windows differ only by requested count
+            glucoseSnapshots.values.removeIf { snapshot -> snapshot.generation != generation }
+            if (glucoseSnapshots.size >= maxGlucoseSnapshots) glucoseSnapshots.clear()
+            glucoseSnapshots[key] = it
         }
     }
 
@@ -268,17 +298,21 @@ class GarminPlugin @Inject constructor(
     }
 
     @VisibleForTesting
-    fun requestHandler(action: (URI) -> CharSequence) = { caller: SocketAddress, uri: URI, _: String? ->
+    fun requestHandler(action: (URI) -> CharSequence) =
+        replyHandler { uri -> HttpServer.Reply.Now(HttpURLConnection.HTTP_OK, action(uri)) }
+
+    /** Checks the key of the request. Invalid key is answered after a delay, without blocking a worker. */
+    @VisibleForTesting
+    fun replyHandler(action: (URI) -> HttpServer.Reply) = { caller: SocketAddress, uri: URI, _: String? ->
         val key = garminAapsKey
         val deviceKey = getQueryParameter(uri, "key")
         if (key.isNotEmpty() && key != deviceKey) {
             aapsLogger.warn(LTag.GARMIN, "Invalid AAPS Key from $caller, got '$deviceKey' want '$key' $uri")
             sendPhoneAppMessage()
-            Thread.sleep(1000L)
-            HttpURLConnection.HTTP_UNAUTHORIZED to "{}"
+            HttpServer.Reply.Delayed(Duration.ofSeconds(1), HttpURLConnection.HTTP_UNAUTHORIZED, "{}")
         } else {
             aapsLogger.info(LTag.GARMIN, "get from $caller resp , req: $uri")
-            HttpURLConnection.HTTP_OK to action(uri).also {
+            action(uri).also {
                 aapsLogger.info(LTag.GARMIN, "get from $caller resp , req: $uri, result: $it")
             }
         }
@@ -286,16 +320,25 @@ class GarminPlugin @Inject constructor(
 
     /** Responses to get glucose value request by the device.
      *
-     * Also, gets the heart rate readings from the device.
+     * Also, gets the heart rate readings from the device. The request is parked
+     * in case a new value should arrive within the requested wait.
      */
     @VisibleForTesting
-    fun onGetBloodGlucose(uri: URI): CharSequence {
+    fun onGetBloodGlucose(uri: URI): HttpServer.Reply {
         receiveHeartRate(uri)
+        val maxWait = Duration.ofSeconds(getQueryParameter(uri, "wait", 0L))
+        val glucose = recentGlucose()
+        if (shouldWaitForGlucose(glucose, maxWait)) {
+            aapsLogger.debug(LTag.GARMIN, "waiting for new glucose")
+            return HttpServer.Reply.Parked(maxWait) { HttpURLConnection.HTTP_OK to glucoseResponse(recentGlucose()) }
+        }
+        return HttpServer.Reply.Now(HttpURLConnection.HTTP_OK, glucoseResponse(glucose))
+    }
+
+    private fun glucoseResponse(glucose: GlucoseSnapshot): CharSequence {
         val profileName = loopHub.currentProfileName
-        val waitSec = getQueryParameter(uri, "wait", 0L)
-        val glucoseValues = getGlucoseValues(Duration.ofSeconds(waitSec))
         val jo = JsonObject()
-        jo.addProperty("encodedGlucose", encodedGlucose(glucoseValues))
+        jo.addProperty("encodedGlucose", glucose.encoded)
         jo.addProperty("remainingInsulin", loopHub.insulinOnboard)
         jo.addProperty("remainingBasalInsulin", loopHub.insulinBasalOnboard)
         loopHub.lowGlucoseMark.takeIf { it > 0.0 }?.let {
@@ -426,8 +469,7 @@ class GarminPlugin @Inject constructor(
         // every 5 minutes and we're not missing readings. We truncate in case we get more readings but we'll
         // get less, e.g., in case we're missing readings for the last half hour. We get one extra reading,
         // to compute the glucose delta.
-        val from = clock.instant().minus(Duration.ofMinutes(5L * (count + 1)))
-        val glucoseValues = loopHub.getGlucoseValues(from, false)
+        val glucoseValues = glucoseSnapshot(Duration.ofMinutes(5L * (count + 1)), false).values
         val joa = JsonArray()
         for (i in 0 until count.coerceAtMost(glucoseValues.size)) {
             val jo = JsonObject()
@@ -4,39 +4,131 @@ import android.os.StrictMode
 import androidx.annotation.VisibleForTesting
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
-import app.aaps.core.utils.pump.ThreadUtil
-import java.io.BufferedOutputStream
+import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.io.Closeable
 import java.io.IOException
 import java.io.InputStream
-import java.io.OutputStream
 import java.lang.Thread.UncaughtExceptionHandler
 import java.net.HttpURLConnection
 import java.net.Inet4Address
 import java.net.InetSocketAddress
-import java.net.ServerSocket
-import java.net.Socket
 import java.net.SocketAddress
-import java.net.SocketTimeoutException
+import java.net.StandardSocketOptions
 import java.net.URI
+import java.nio.ByteBuffer
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
 import java.nio.charset.Charset
 import java.nio.charset.StandardCharsets
 import java.time.Duration
+import java.util.TreeMap
+import java.util.concurrent.ArrayBlockingQueue
 import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.Executors
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.locks.ReentrantLock
 import java.util.regex.Pattern
+import java.util.zip.CRC32
 import kotlin.concurrent.withLock
 
-/** Basic HTTP server to communicate with Garmin device via localhost. */
+/** Basic HTTP server to communicate with Garmin device via localhost.
+ *
+ * One selector thread accepts connections, reads requests and writes responses of all
+ * connections. Endpoints run on a bounded worker pool. Connections are kept alive for
+ * following requests of the device. Responses carry an ETag so devices polling unchanged
+ * data get 304 without body.
+ *
+ * Endpoints don't block workers while waiting. A [Reply.Delayed] response and a
+ * [Reply.Parked] request are kept by the selector thread until they are due.
+ */
 class HttpServer internal constructor(private var aapsLogger: AAPSLogger, val port: Int) : Closeable {
 
+    /** Result of an endpoint. */
+    sealed class Reply {
+
+        /** Respond with [code] and [body] right away. */
+        data class Now(val code: Int, val body: CharSequence) : Reply()
+
+        /** Respond with [code] and [body] after [delay], e.g., to slow down clients with invalid key. */
+        data class Delayed(val delay: Duration, val code: Int, val body: CharSequence) : Reply()
+
+        /** Respond when [wakeParked] is called or after [maxWait], [resume] computes the response on a worker. */
+        class Parked(val maxWait: Duration, val resume: () -> Pair<Int, CharSequence>) : Reply() {
+
+            override fun toString() = "Parked(maxWait=$maxWait)"
+        }
+    }
+
+    /** Request read from a connection. */
+    internal data class Request(val uri: URI, val body: String?, val headers: Map<String, String>)
+
+    /** Whole HTTP response, connection is closed after it unless [keepAlive]. */
+    private class Response(val data: ByteArray, val keepAlive: Boolean)
+
+    /** Response waiting for [due] (System.nanoTime()) without a worker thread.
+     *
+     * Either [response] is written when due, or [resume] computes it on a worker when due or
+     * after [wakeParked] was called since [wakeups]. */
+    private class Waiting(
+        val connection: Connection,
+        val due: Long,
+        val response: Response?,
+        val resume: (() -> Response)?,
+        val wakeups: Long
+    )
+
+    /** State of one client connection, accessed only by the selector thread. */
+    private class Connection(val channel: SocketChannel, val remoteAddress: SocketAddress) {
+
+        var input = ByteArray(1024)
+        var inputSize = 0
+        var eof = false
+        var busy = false
+        var keepAlive = true
+        var output: ByteBuffer? = null
+        var lastActive = System.nanoTime()
+
+        fun append(buffer: ByteBuffer) {
+            if (inputSize + buffer.remaining() > input.size)
+                input = input.copyOf(maxOf(input.size * 2, inputSize + buffer.remaining()))
+            val size = buffer.remaining()
+            buffer.get(input, inputSize, size)
+            inputSize += size
+        }
+
+        /** Removes first [length] bytes and returns them. */
+        fun take(length: Int): ByteArray {
+            val request = input.copyOf(length)
+            input.copyInto(input, 0, length, inputSize)
+            inputSize -= length
+            return request
+        }
+    }
+
     private val serverThread: Thread
-    private val workerExecutor = Executors.newCachedThreadPool()
-    private val endpoints: MutableMap<String, (SocketAddress, URI, String?) -> Pair<Int, CharSequence>> =
+    private val workerCount = AtomicInteger()
+    private val workerExecutor = ThreadPoolExecutor(
+        WORKERS, WORKERS, 60L, TimeUnit.SECONDS, ArrayBlockingQueue(QUEUED_REQUESTS)
+    ) { r -> Thread(r, "GarminHttpWorker" + workerCount.incrementAndGet()).apply { isDaemon = true } }
+        .apply { allowCoreThreadTimeOut(true) }
+    private val endpoints: MutableMap<String, (SocketAddress, URI, String?) -> Reply> =
         ConcurrentHashMap()
-    private var serverSocket: ServerSocket? = null
+    private val selector: Selector = Selector.open()
+    private val completed = ConcurrentLinkedQueue<Pair<Connection, Response>>()
+    private val newWaiting = ConcurrentLinkedQueue<Waiting>()
+    /** Waiting responses, accessed only by the selector thread. */
+    private val waiting = ArrayList<Waiting>()
+    private val wakeups = AtomicLong()
+    @Volatile private var running = true
+    @Volatile private var ready = false
+    private var serverChannel: ServerSocketChannel? = null
     private val readyLock = ReentrantLock()
     private val readyCond = readyLock.newCondition()
 
@@ -47,18 +139,15 @@ class HttpServer internal constructor(private var aapsLogger: AAPSLogger, val po
         serverThread.uncaughtExceptionHandler = UncaughtExceptionHandler { _, e ->
             e.printStackTrace()
             aapsLogger.error(LTag.GARMIN, "uncaught in HTTP server", e)
-            serverSocket?.use {}
+            serverChannel?.use {}
         }
         serverThread.start()
     }
 
     override fun close() {
         workerExecutor.shutdown()
-        try {
-            serverSocket?.close()
-            serverSocket = null
-        } catch (_: IOException) {
-        }
+        running = false
+        selector.wakeup()
         try {
             serverThread.join(10_000L)
         } catch (_: InterruptedException) {
@@ -69,127 +158,281 @@ class HttpServer internal constructor(private var aapsLogger: AAPSLogger, val po
     fun awaitReady(wait: Duration): Boolean {
         var waitNanos = wait.toNanos()
         readyLock.withLock {
-            while (serverSocket?.isBound != true && waitNanos > 0L) {
+            while (!ready && waitNanos > 0L) {
                 waitNanos = readyCond.awaitNanos(waitNanos)
             }
         }
-        return serverSocket?.isBound == true
+        return ready
     }
 
     /** Register an endpoint (path) to handle requests. */
-    fun registerEndpoint(path: String, endpoint: (SocketAddress, URI, String?) -> Pair<Int, CharSequence>) {
+    fun registerEndpoint(path: String, endpoint: (SocketAddress, URI, String?) -> Pair<Int, CharSequence>) =
+        registerReplyEndpoint(path) { remoteAddress, uri, body ->
+            endpoint(remoteAddress, uri, body).let { (code, response) -> Reply.Now(code, response) }
+        }
+
+    /** Register an endpoint (path) which may respond later without blocking a worker. */
+    fun registerReplyEndpoint(path: String, endpoint: (SocketAddress, URI, String?) -> Reply) {
         aapsLogger.info(LTag.GARMIN, "Register: '$path'")
         endpoints[path] = endpoint
     }
 
-    // @Suppress("all")
-    private fun respond(
-        @Suppress("SameParameterValue") code: Int,
-        body: CharSequence,
-        @Suppress("SameParameterValue") contentType: String,
-        out: OutputStream
-    ) {
-        respond(code, body.toString().toByteArray(Charset.forName("UTF8")), contentType, out)
-    }
-
-    private fun respond(code: Int, out: OutputStream) {
-        respond(code, null as ByteArray?, null, out)
+    /** Responds to all [Reply.Parked] requests, e.g., when new data arrived. */
+    fun wakeParked() {
+        wakeups.incrementAndGet()
+        selector.wakeup()
     }
 
-    private fun respond(code: Int, body: ByteArray?, contentType: String?, out: OutputStream) {
-        val header = StringBuilder()
-        header.append("HTTP/1.1 ").append(code).append(" OK\r\n")
-        if (body != null) {
-            appendHeader("Content-Length", "" + body.size, header)
+    /** Runs endpoint of request on worker thread and returns the whole HTTP response,
+     *  or null if the response is waiting. */
+    private fun handleRequest(connection: Connection, data: ByteArray): Response? {
+        val request = try {
+            readRequest(ByteArrayInputStream(data))
+        } catch (e: IOException) {
+            aapsLogger.error(LTag.GARMIN, "Invalid request", e)
+            return response(HttpURLConnection.HTTP_BAD_REQUEST, null, null, keepAlive = false)
         }
-        if (contentType != null) {
-            appendHeader("Content-Type", contentType, header)
+        val uri = request.uri
+        val keepAlive = !"close".equals(request.headers["Connection"], ignoreCase = true)
+        if ("favicon.ico" == uri.path) {
+            return response(HttpURLConnection.HTTP_NOT_FOUND, null, null, keepAlive)
         }
-        header.append("\r\n")
-        val bout = BufferedOutputStream(out)
-        bout.write(header.toString().toByteArray(StandardCharsets.US_ASCII))
-        if (body != null) {
-            bout.write(body)
+        val endpoint = endpoints[uri.path ?: ""]
+        if (endpoint == null) {
+            aapsLogger.error(LTag.GARMIN, "request path not found '" + uri.path + "'")
+            return response(HttpURLConnection.HTTP_NOT_FOUND, null, null, keepAlive)
         }
-        bout.flush()
-    }
+        // Read before the endpoint, so a wake-up while it runs isn't missed.
+        val wakeupsBefore = wakeups.get()
+        val reply = try {
+            endpoint(connection.remoteAddress, uri, request.body)
+        } catch (e: Exception) {
+            aapsLogger.error(LTag.GARMIN, "endpoint " + uri.path + " failed", e)
+            return response(HttpURLConnection.HTTP_INTERNAL_ERROR, null, null, keepAlive)
+        }
+        return when (reply) {
+            is Reply.Now     -> endpointResponse(request, keepAlive, reply.code, reply.body)
 
-    private fun handleRequest(s: Socket) {
-        val out = s.getOutputStream()
-        try {
-            val (uri, reqBody) = parseRequest(s.getInputStream())
-            if ("favicon.ico" == uri.path) {
-                respond(HttpURLConnection.HTTP_NOT_FOUND, out)
-                return
+            is Reply.Delayed -> {
+                val response = endpointResponse(request, keepAlive, reply.code, reply.body)
+                newWaiting.add(Waiting(connection, System.nanoTime() + reply.delay.toNanos(), response, null, wakeupsBefore))
+                null
             }
-            val endpoint = endpoints[uri.path ?: ""]
-            if (endpoint == null) {
-                aapsLogger.error(LTag.GARMIN, "request path not found '" + uri.path + "'")
-                respond(HttpURLConnection.HTTP_NOT_FOUND, out)
-            } else {
-                try {
-                    val (code, body) = endpoint(s.remoteSocketAddress, uri, reqBody)
-                    respond(code, body, "application/json", out)
-                } catch (e: Exception) {
-                    aapsLogger.error(LTag.GARMIN, "endpoint " + uri.path + " failed", e)
-                    respond(HttpURLConnection.HTTP_INTERNAL_ERROR, out)
+
+            is Reply.Parked  -> {
+                val resume = {
+                    try {
+                        val (code, body) = reply.resume()
+                        endpointResponse(request, keepAlive, code, body)
+                    } catch (e: Exception) {
+                        aapsLogger.error(LTag.GARMIN, "endpoint " + uri.path + " failed", e)
+                        response(HttpURLConnection.HTTP_INTERNAL_ERROR, null, null, keepAlive)
+                    }
                 }
+                newWaiting.add(Waiting(connection, System.nanoTime() + reply.maxWait.toNanos(), null, resume, wakeupsBefore))
+                null
             }
-        } catch (e: SocketTimeoutException) {
-            // Client may just connect without sending anything.
-            aapsLogger.debug(LTag.GARMIN, "socket timeout: " + e.message)
-            return
-        } catch (e: IOException) {
-            aapsLogger.error(LTag.GARMIN, "Invalid request", e)
-            respond(HttpURLConnection.HTTP_BAD_REQUEST, out)
-            return
         }
     }
 
+    private fun endpointResponse(request: Request, keepAlive: Boolean, code: Int, body: CharSequence): Response {
+        val bytes = body.toString().toByteArray(Charsets.UTF_8)
+        val eTag = eTag(bytes)
+        return if (code == HttpURLConnection.HTTP_OK && eTag == request.headers["If-None-Match"])
+            response(HttpURLConnection.HTTP_NOT_MODIFIED, null, null, keepAlive, eTag)
+        else
+            response(code, bytes, "application/json", keepAlive, eTag.takeIf { code == HttpURLConnection.HTTP_OK })
+    }
+
     private fun runServer() = try {
         // Policy won't work in unit tests, so ignore NULL builder.
         @Suppress("UNNECESSARY_SAFE_CALL")
         val policy = StrictMode.ThreadPolicy.Builder()?.permitAll()?.build()
         if (policy != null) StrictMode.setThreadPolicy(policy)
         readyLock.withLock {
-            serverSocket = ServerSocket()
-            serverSocket!!.bind(
-                // Garmin will only connect to IP4 localhost. Therefore, we need to explicitly listen
-                // on that loopback interface and cannot use InetAddress.getLoopbackAddress(). That
-                // gives ::1 (IP6 localhost).
-                InetSocketAddress(Inet4Address.getByAddress(byteArrayOf(127, 0, 0, 1)), port)
-            )
+            val channel = ServerSocketChannel.open()
+            serverChannel = channel
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true)
+            // Garmin will only connect to IP4 localhost. Therefore, we need to explicitly listen
+            // on that loopback interface and cannot use InetAddress.getLoopbackAddress(). That
+            // gives ::1 (IP6 localhost).
+            channel.bind(InetSocketAddress(Inet4Address.getByAddress(byteArrayOf(127, 0, 0, 1)), port))
+            channel.configureBlocking(false)
+            channel.register(selector, SelectionKey.OP_ACCEPT)
+            ready = true
             readyCond.signalAll()
         }
-        aapsLogger.info(LTag.GARMIN, "accept connections on " + serverSocket!!.localSocketAddress)
-        while (true) {
-            val socket = serverSocket!!.accept()
-            aapsLogger.info(LTag.GARMIN, "accept " + socket.remoteSocketAddress)
-            workerExecutor.execute {
-                Thread.currentThread().name = "worker" + ThreadUtil.threadId()
+        aapsLogger.info(LTag.GARMIN, "accept connections on " + serverChannel!!.localAddress)
+        val buffer = ByteBuffer.allocate(8192)
+        while (running) {
+            selector.select(selectTimeoutMillis())
+            while (true) {
+                val (connection, response) = completed.poll() ?: break
+                startWrite(connection, response)
+            }
+            while (true) waiting.add(newWaiting.poll() ?: break)
+            completeWaiting()
+            val keys = selector.selectedKeys().iterator()
+            while (keys.hasNext()) {
+                val key = keys.next()
+                keys.remove()
                 try {
-                    socket.use { s ->
-                        s.soTimeout = 10_000
-                        handleRequest(s)
+                    when {
+                        !key.isValid     -> {}
+                        key.isAcceptable -> accept()
+                        key.isReadable   -> read(key.attachment() as Connection, buffer)
+                        key.isWritable   -> write(key.attachment() as Connection)
                     }
-                } catch (e: Exception) {
-                    aapsLogger.error(LTag.GARMIN, "response failed", e)
+                } catch (e: IOException) {
+                    aapsLogger.debug(LTag.GARMIN, "connection failed: " + e.message)
+                    (key.attachment() as? Connection)?.let(::closeConnection)
                 }
             }
+            closeIdleConnections()
         }
     } catch (e: IOException) {
         aapsLogger.error("Server crashed", e)
     } finally {
         try {
-            serverSocket?.close()
-            serverSocket = null
+            ready = false
+            serverChannel?.close()
+            serverChannel = null
+            selector.keys().forEach { it.channel().close() }
+            selector.close()
         } catch (e: IOException) {
             aapsLogger.error(LTag.GARMIN, "Socked close failed", e)
         }
     }
 
+    private fun accept() {
+        val channel = serverChannel?.accept() ?: return
+        val connection = Connection(channel, channel.remoteAddress)
+        aapsLogger.info(LTag.GARMIN, "accept " + connection.remoteAddress)
+        channel.configureBlocking(false)
+        channel.register(selector, SelectionKey.OP_READ, connection)
+    }
+
+    private fun read(connection: Connection, buffer: ByteBuffer) {
+        buffer.clear()
+        val count = connection.channel.read(buffer)
+        if (count < 0) connection.eof = true
+        buffer.flip()
+        connection.append(buffer)
+        connection.lastActive = System.nanoTime()
+        dispatch(connection)
+    }
+
+    /** Waits for next selected key at most until the first waiting response is due. */
+    private fun selectTimeoutMillis(): Long {
+        val now = System.nanoTime()
+        val due = waiting.minOfOrNull { it.due - now } ?: return 1000L
+        return TimeUnit.NANOSECONDS.toMillis(due).coerceIn(1L, 1000L)
+    }
+
+    /** Writes due responses and resumes parked requests which are due or woken up. */
+    private fun completeWaiting() {
+        if (waiting.isEmpty()) return
+        val now = System.nanoTime()
+        val wakeupsNow = wakeups.get()
+        val iterator = waiting.iterator()
+        while (iterator.hasNext()) {
+            val w = iterator.next()
+            val resume = w.resume
+            if (now - w.due < 0 && (resume == null || w.wakeups == wakeupsNow)) continue
+            iterator.remove()
+            if (resume == null) startWrite(w.connection, w.response!!)
+            else execute(w.connection, resume)
+        }
+    }
+
+    /** Hands next complete request of [connection] to worker pool. */
+    private fun dispatch(connection: Connection) {
+        val length = requestLength(connection.input, connection.inputSize, connection.eof)
+        if (length <= 0) {
+            // Client may close connection without sending anything.
+            if (connection.eof) closeConnection(connection)
+            return
+        }
+        val data = connection.take(length)
+        connection.busy = true
+        connection.channel.keyFor(selector)?.interestOps(0)
+        execute(connection) { handleRequest(connection, data) }
+    }
+
+    /** Runs [task] on worker pool, [task] returns null if it added a waiting response. */
+    private fun execute(connection: Connection, task: () -> Response?) {
+        try {
+            workerExecutor.execute {
+                val response = try {
+                    task()
+                } catch (e: Exception) {
+                    aapsLogger.error(LTag.GARMIN, "response failed", e)
+                    response(HttpURLConnection.HTTP_INTERNAL_ERROR, null, null, keepAlive = false)
+                }
+                if (response != null) completed.add(connection to response)
+                selector.wakeup()
+            }
+        } catch (_: RejectedExecutionException) {
+            aapsLogger.warn(LTag.GARMIN, "too many requests, reject " + connection.remoteAddress)
+            startWrite(connection, response(HttpURLConnection.HTTP_UNAVAILABLE, null, null, keepAlive = false))
+        }
+    }
+
+    private fun startWrite(connection: Connection, response: Response) {
+        if (!connection.channel.isOpen) return
+        connection.keepAlive = response.keepAlive && !connection.eof
+        connection.output = ByteBuffer.wrap(response.data)
+        try {
+            write(connection)
+        } catch (e: IOException) {
+            aapsLogger.debug(LTag.GARMIN, "write failed: " + e.message)
+            closeConnection(connection)
+        }
+    }
+
+    private fun write(connection: Connection) {
+        val output = connection.output ?: return
+        connection.channel.write(output)
+        connection.lastActive = System.nanoTime()
+        val key = connection.channel.keyFor(selector) ?: return
+        if (output.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_WRITE)
+            return
+        }
+        connection.output = null
+        connection.busy = false
+        if (!connection.keepAlive) {
+            closeConnection(connection)
+            return
+        }
+        key.interestOps(SelectionKey.OP_READ)
+        // Requests sent without waiting for the response.
+        dispatch(connection)
+    }
+
+    private fun closeIdleConnections() {
+        val now = System.nanoTime()
+        selector.keys()
+            .mapNotNull { it.attachment() as? Connection }
+            .filter { !it.busy && now - it.lastActive > IDLE_TIMEOUT.toNanos() }
+            .forEach(::closeConnection)
+    }
+
+    private fun closeConnection(connection: Connection) {
+        try {
+            connection.channel.close()
+        } catch (e: IOException) {
+            aapsLogger.debug(LTag.GARMIN, "close failed: " + e.message)
+        }
+    }
+
     companion object {
 
+        /** Endpoints don't block, requests waiting for new glucose value are parked. */
+        private const val WORKERS = 4
+        private const val QUEUED_REQUESTS = 32
+        private val IDLE_TIMEOUT = Duration.ofSeconds(10)
+
         private val REQUEST_HEADER = Pattern.compile("(GET|POST) (\\S*) HTTP/1.1")
         private val HEADER_LINE = Pattern.compile("([A-Za-z-]+)\\s*:\\s*(.*)")
 
@@ -220,7 +463,12 @@ class HttpServer internal constructor(private var aapsLogger: AAPSLogger, val po
 
         /** Parses a requests and returns the URI and the request body. */
         @VisibleForTesting
-        internal fun parseRequest(input: InputStream): Pair<URI, String?> {
+        internal fun parseRequest(input: InputStream): Pair<URI, String?> =
+            readRequest(input).let { it.uri to it.body }
+
+        /** Parses a request, header names are case-insensitive. */
+        @VisibleForTesting
+        internal fun readRequest(input: InputStream): Request {
             val headerLine = readLine(input, Charset.forName("ASCII"))
             val p = REQUEST_HEADER.matcher(headerLine)
             if (!p.matches()) {
@@ -228,7 +476,7 @@ class HttpServer internal constructor(private var aapsLogger: AAPSLogger, val po
             }
             val post = ("POST" == p.group(1))
             var uri = URI(p.group(2))
-            val headers: MutableMap<String, String?> = HashMap()
+            val headers: MutableMap<String, String> = TreeMap(String.CASE_INSENSITIVE_ORDER)
             while (true) {
                 val line = readLine(input, Charset.forName("ASCII"))
                 if (line.isEmpty()) {
@@ -238,7 +486,7 @@ class HttpServer internal constructor(private var aapsLogger: AAPSLogger, val po
                 if (!m.matches()) {
                     throw IOException("invalid header line '$line'")
                 }
-                headers[m.group(1)!!] = m.group(2)
+                headers[m.group(1)!!] = m.group(2)!!
             }
             var body: String?
             if (post) {
@@ -259,7 +507,59 @@ class HttpServer internal constructor(private var aapsLogger: AAPSLogger, val po
             } else {
                 body = null
             }
-            return Pair(uri, body?.takeUnless(String::isBlank))
+            return Request(uri, body?.takeUnless(String::isBlank), headers)
+        }
+
+        /** Returns the length of the first complete request in [data] or -1 if more data is needed.
+         *
+         * A POST request without Content-Length ends when the client stops sending ([eof]). */
+        @VisibleForTesting
+        internal fun requestLength(data: ByteArray, size: Int, eof: Boolean): Int {
+            var headerEnd = -1
+            for (i in 0 until size) {
+                if (data[i] != '\n'.code.toByte()) continue
+                if (i + 1 < size && data[i + 1] == '\n'.code.toByte()) {
+                    headerEnd = i + 2
+                    break
+                }
+                if (i + 2 < size && data[i + 1] == '\r'.code.toByte() && data[i + 2] == '\n'.code.toByte()) {
+                    headerEnd = i + 3
+                    break
+                }
+            }
+            if (headerEnd < 0) return if (eof && size > 0) size else -1
+            val head = String(data, 0, headerEnd, StandardCharsets.US_ASCII)
+            if (!head.startsWith("POST")) return headerEnd
+            val contentLength = head.lineSequence()
+                .map { HEADER_LINE.matcher(it.trimEnd()) }
+                .firstOrNull { it.matches() && it.group(1).equals("Content-Length", ignoreCase = true) }
+                ?.group(2)?.trim()?.toIntOrNull()
+            return when {
+                contentLength != null && size >= headerEnd + contentLength -> headerEnd + contentLength
+                eof                                                        -> size
+                else                                                       -> -1
+            }
+        }
+
+        @VisibleForTesting
+        internal fun eTag(body: ByteArray) =
+            "\"" + CRC32().apply { update(body) }.value.toString(16) + "-" + body.size.toString(16) + "\""
+
+        private fun response(code: Int, body: ByteArray?, contentType: String?, keepAlive: Boolean, eTag: String? = null): Response {
+            val header = StringBuilder()
+            header.append("HTTP/1.1 ").append(code).append(" OK\r\n")
+            appendHeader("Content-Length", "" + (body?.size ?: 0), header)
+            if (contentType != null) {
+                appendHeader("Content-Type", contentType, header)
+            }
+            if (eTag != null) {
+                appendHeader("ETag", eTag, header)
+            }
+            if (!keepAlive) {
+                appendHeader("Connection", "close", header)
+            }
+            header.append("\r\n")
+            return Response(header.toString().toByteArray(StandardCharsets.US_ASCII) + (body ?: ByteArray(0)), keepAlive)
         }
 
         private fun appendHeader(name: String, value: String, header: StringBuilder) {
@@ -1,6 +1,7 @@
 package app.aaps.plugins.sync.nsclient.data
 
 import app.aaps.core.interfaces.aps.RT
+import app.aaps.core.interfaces.aps.VariableSensitivityCache
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.di.ApplicationScope
@@ -89,6 +90,7 @@ class NSDeviceStatusHandler @Inject constructor(
     private val overviewData: OverviewData,
     private val calculationWorkflow: CalculationWorkflow,
     private val rxBus: RxBus,
+    private val variableSensitivityCache: VariableSensitivityCache,
     @ApplicationScope private val appScope: CoroutineScope
 ) {
 
@@ -168,6 +170,7 @@ class NSDeviceStatusHandler @Inject constructor(
                     }
                     processedDeviceStatusData.openAPSData.clockSuggested = clock
                     processedDeviceStatusData.getAPSResult()?.let { apsResult ->
+                        variableSensitivityCache.addApsResult(apsResult)
                         appScope.launch { persistenceLayer.insertOrUpdateApsResult(apsResult) }
                     }
                 }
@@ -1,6 +1,7 @@
 package app.aaps.plugins.sync.nsclientV3
 
 import androidx.annotation.OpenForTesting
+import app.aaps.core.data.model.HasIDs
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.logging.AAPSLogger
@@ -8,8 +9,12 @@ import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.nsclient.NSClientRepository
 import app.aaps.core.interfaces.nsclient.StoreDataForDb
 import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.interfaces.profile.Profile
 import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profile.ProfileRepository
+import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.profiling.TraceStage
+import app.aaps.core.interfaces.profiling.trace
 import app.aaps.core.interfaces.source.NSClientSource
 import app.aaps.core.interfaces.sync.DataSyncSelector
 import app.aaps.core.interfaces.utils.DateUtil
@@ -36,7 +41,8 @@ class DataSyncSelectorV3 @Inject constructor(
     private val storeDataForDb: StoreDataForDb,
     private val config: Config,
     private val nsClientRepository: NSClientRepository,
-    private val nsClientV3Plugin: Lazy<NSClientV3Plugin>
+    private val nsClientV3Plugin: Lazy<NSClientV3Plugin>,
+    private val profiler: Profiler
 ) : DataSyncSelector {
 
     data class QueueCounter(
@@ -74,6 +80,7 @@ class DataSyncSelectorV3 @Inject constructor(
     }
 
     private val queueCounter = QueueCounter()
+    private val uploadPipeline = NsUploadPipeline()
     private val isPaused get() = preferences.get(NsclientBooleanKey.NsPaused)
 
     override fun queueSize(): Long = queueCounter.size()
@@ -82,7 +89,7 @@ class DataSyncSelectorV3 @Inject constructor(
 
     override suspend fun doUpload() {
         nsClientRepository.updateStatus(nsClientV3Plugin.get().status)
-        if ((config.AAPSCLIENT || preferences.get(BooleanKey.NsClientUploadData)) && !isPaused) {
+        if ((config.AAPSCLIENT || preferences.get(BooleanKey.NsClientUploadData)) && !isPaused) profiler.trace(TraceStage.NS_UPLOAD) {
             queueCounter.bolusesRemaining = (persistenceLayer.getLastBolusId() ?: 0L) - preferences.get(NsclientLongKey.BolusLastSyncedId)
             queueCounter.carbsRemaining = (persistenceLayer.getLastCarbsId() ?: 0L) - preferences.get(NsclientLongKey.CarbsLastSyncedId)
             queueCounter.bcrRemaining = (persistenceLayer.getLastBolusCalculatorResultId() ?: 0L) - preferences.get(NsclientLongKey.BolusCalculatorLastSyncedId)
@@ -139,6 +146,133 @@ class DataSyncSelectorV3 @Inject constructor(
         else preferences.remove(NsclientLongKey.DeviceStatusLastSyncedId)
     }
 
+    /**
+     * Upload changed records of one collection page by page
+     *
+     * Records of a page are uploaded concurrently by [NsUploadPipeline] and
+     * sync cursor is moved once per page to the last record acknowledged in order.
+     *
+     * More changes of the same record not yet known to NS can appear in one page.
+     * Uploading them concurrently would create the record in NS more times,
+     * so only the last of them is uploaded and the others are acknowledged with it.
+     *
+     * @param nextElement next record to sync after id
+     * @param syncId id to move sync cursor to when record is processed
+     * @param newRecordId id of the record if it is to be created in NS, null otherwise
+     * @param upload upload record with progress
+     */
+    private suspend fun <T> processChanged(
+        name: String,
+        lastSyncedKey: NsclientLongKey,
+        lastDbId: suspend () -> Long?,
+        updateRemaining: (Long) -> Unit,
+        nextElement: suspend (Long) -> T?,
+        syncId: (T) -> Long,
+        confirm: (Long) -> Unit,
+        newRecordId: (T) -> Long? = { null },
+        upload: suspend (T, String) -> NsUploadPipeline.Result
+    ) {
+        var ignored = 0; var added = 0; var updated = 0; var lastId = 0L
+        val firstId = preferences.get(lastSyncedKey)
+        var startId = firstId
+        val slowSync = preferences.get(BooleanKey.NsClientSlowSync)
+        while (true) {
+            if (isPaused) return
+            val lastDbIdValue = lastDbId() ?: 0L
+            if (startId > lastDbIdValue) {
+                aapsLogger.info(LTag.NSCLIENT, "Resetting startId: $startId lastDbId: $lastDbIdValue")
+                preferences.put(lastSyncedKey, 0)
+                startId = 0
+            }
+            updateRemaining(lastDbIdValue - startId)
+            nsClientRepository.updateQueueSize(queueCounter.size())
+            val page = readPage(startId, nextElement, syncId)
+            if (page.isEmpty()) break
+            val progress = "$startId/$lastDbIdValue"
+            val lastChange = HashMap<Long, Int>()
+            page.forEachIndexed { index, element -> newRecordId(element)?.let { lastChange[it] = index } }
+            val results = uploadPipeline.upload(
+                records = page.indices.toList(),
+                maxInFlight = if (slowSync) 1 else NsUploadPipeline.MAX_IN_FLIGHT,
+                pause = if (slowSync) 250 else 0
+            ) { index ->
+                val element = page[index]
+                val recordId = newRecordId(element)
+                if (recordId != null && lastChange[recordId] != index) {
+                    aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring $name. Uploaded with later change: ${syncId(element)}")
+                    NsUploadPipeline.Result.IGNORED
+                } else upload(element, progress)
+            }
+            val acknowledged = uploadPipeline.acknowledged(results)
+            for (i in 0 until acknowledged)
+                when (results[i]) {
+                    NsUploadPipeline.Result.IGNORED -> ignored++
+                    NsUploadPipeline.Result.ADDED   -> added++
+                    NsUploadPipeline.Result.UPDATED -> updated++
+                    else                            -> Unit
+                }
+            if (acknowledged > 0) {
+                lastId = syncId(page[acknowledged - 1])
+                confirm(lastId)
+            }
+            if (acknowledged < page.size || lastId <= startId) break
+            startId = lastId
+        }
+        if (ignored + added + updated > 0)
+            aapsLogger.info(LTag.NSCLIENT, "$name: from=$firstId to=$lastId ignored=$ignored added=$added updated=$updated")
+    }
+
+    private suspend fun <T> readPage(startId: Long, nextElement: suspend (Long) -> T?, syncId: (T) -> Long): List<T> {
+        val page = ArrayList<T>()
+        var id = startId
+        while (page.size < NsUploadPipeline.PAGE_SIZE) {
+            val element = nextElement(id) ?: break
+            page.add(element)
+            // cursor must move forward
+            if (syncId(element) <= id) break
+            id = syncId(element)
+        }
+        return page
+    }
+
+    private fun <T : HasIDs> newRecordId(pair: Pair<T, T>): Long? =
+        if (pair.first.ids.nightscoutId == null) pair.first.id else null
+
+    /**
+     * Upload change of a record
+     *
+     * @param pair current record and the change (new or historic record) to sync
+     */
+    private suspend fun <T : HasIDs> uploadPair(
+        name: String,
+        pair: Pair<T, T>,
+        onlyNsIdAdded: Boolean,
+        collection: String,
+        dataPair: DataSyncSelector.DataPair,
+        progress: String,
+        profile: Profile? = null
+    ): NsUploadPipeline.Result =
+        when {
+            // new record with existing NS id => must be coming from NS => ignore
+            pair.first.id == pair.second.id && pair.first.ids.nightscoutId != null -> {
+                aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring $name. Loaded from NS: ${pair.second.id}")
+                NsUploadPipeline.Result.IGNORED
+            }
+            // only NsId changed, no need to upload
+            onlyNsIdAdded                                                          -> {
+                aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring $name. Only NS id changed: ${pair.second.id}")
+                NsUploadPipeline.Result.IGNORED
+            }
+            // without nsId = create new
+            pair.first.ids.nightscoutId == null                                    ->
+                if (activePlugin.activeNsClient?.nsAdd(collection, dataPair, progress, profile) == true) NsUploadPipeline.Result.ADDED
+                else NsUploadPipeline.Result.FAILED
+            // with nsId = update
+            else                                                                   ->
+                if (activePlugin.activeNsClient?.nsUpdate(collection, dataPair, progress, profile) == true) NsUploadPipeline.Result.UPDATED
+                else NsUploadPipeline.Result.FAILED
+        }
+
     @OpenForTesting
     fun confirmLastBolusIdIfGreater(lastSynced: Long) {
         if (lastSynced > preferences.get(NsclientLongKey.BolusLastSyncedId)) {
@@ -148,51 +282,18 @@ class DataSyncSelectorV3 @Inject constructor(
 
     @OpenForTesting
     suspend fun processChangedBoluses() {
-        var cont = true
-        var ignored = 0; var added = 0; var updated = 0; var lastId = 0L
-        val firstId = preferences.get(NsclientLongKey.BolusLastSyncedId)
-        while (cont) {
-            if (isPaused) return
-            val lastDbId = persistenceLayer.getLastBolusId() ?: 0L
-            var startId = preferences.get(NsclientLongKey.BolusLastSyncedId)
-            if (startId > lastDbId) {
-                aapsLogger.info(LTag.NSCLIENT, "Resetting startId: $startId lastDbId: $lastDbId")
-                preferences.put(NsclientLongKey.BolusLastSyncedId, 0)
-                startId = 0
-            }
-            queueCounter.bolusesRemaining = lastDbId - startId
-            nsClientRepository.updateQueueSize(queueCounter.size())
-            persistenceLayer.getNextSyncElementBolus(startId)?.let { bolus ->
-                lastId = bolus.second.id
-                when {
-                    // new record with existing NS id => must be coming from NS => ignore
-                    bolus.first.id == bolus.second.id && bolus.first.ids.nightscoutId != null -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring Bolus. Loaded from NS: ${bolus.second.id}")
-                        ignored++
-                    }
-                    // only NsId changed, no need to upload
-                    bolus.first.onlyNsIdAdded(bolus.second)                                   -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring Bolus. Only NS id changed: ${bolus.second.id}")
-                        ignored++
-                    }
-                    // without nsId = create new
-                    bolus.first.ids.nightscoutId == null                                      -> {
-                        cont = activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairBolus(bolus.first, bolus.second.id), " $startId/$lastDbId") == true
-                        if (cont) added++
-                    }
-                    // with nsId = update if it's modified record
-                    bolus.first.ids.nightscoutId != null && bolus.first.id != bolus.second.id -> {
-                        cont = activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairBolus(bolus.first, bolus.second.id), "$startId/$lastDbId") == true
-                        if (cont) updated++
-                    }
-                }
-                if (cont) confirmLastBolusIdIfGreater(bolus.second.id)
-            } ?: run {
-                cont = false
-            }
+        processChanged(
+            name = "Bolus",
+            lastSyncedKey = NsclientLongKey.BolusLastSyncedId,
+            lastDbId = { persistenceLayer.getLastBolusId() },
+            updateRemaining = { queueCounter.bolusesRemaining = it },
+            nextElement = { persistenceLayer.getNextSyncElementBolus(it) },
+            syncId = { it.second.id },
+            confirm = ::confirmLastBolusIdIfGreater,
+            newRecordId = { newRecordId(it) }
+        ) { bolus, progress ->
+            uploadPair("Bolus", bolus, bolus.first.onlyNsIdAdded(bolus.second), "treatments", DataSyncSelector.PairBolus(bolus.first, bolus.second.id), progress)
         }
-        if (ignored + added + updated > 0)
-            aapsLogger.info(LTag.NSCLIENT, "Bolus: from=$firstId to=$lastId ignored=$ignored added=$added updated=$updated")
     }
 
     @OpenForTesting
@@ -204,51 +305,18 @@ class DataSyncSelectorV3 @Inject constructor(
 
     @OpenForTesting
     suspend fun processChangedCarbs() {
-        var cont = true
-        var ignored = 0; var added = 0; var updated = 0; var lastId = 0L
-        val firstId = preferences.get(NsclientLongKey.CarbsLastSyncedId)
-        while (cont) {
-            if (isPaused) return
-            val lastDbId = persistenceLayer.getLastCarbsId() ?: 0L
-            var startId = preferences.get(NsclientLongKey.CarbsLastSyncedId)
-            if (startId > lastDbId) {
-                aapsLogger.info(LTag.NSCLIENT, "Resetting startId: $startId lastDbId: $lastDbId")
-                preferences.put(NsclientLongKey.CarbsLastSyncedId, 0)
-                startId = 0
-            }
-            queueCounter.carbsRemaining = lastDbId - startId
-            nsClientRepository.updateQueueSize(queueCounter.size())
-            persistenceLayer.getNextSyncElementCarbs(startId)?.let { carb ->
-                lastId = carb.second.id
-                when {
-                    // new record with existing NS id => must be coming from NS => ignore
-                    carb.first.id == carb.second.id && carb.first.ids.nightscoutId != null -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring Carbs. Loaded from NS: ${carb.second.id}")
-                        ignored++
-                    }
-                    // only NsId changed, no need to upload
-                    carb.first.onlyNsIdAdded(carb.second)                                  -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring Carbs. Only NS id changed: ${carb.second.id}")
-                        ignored++
-                    }
-                    // without nsId = create new
-                    carb.first.ids.nightscoutId == null                                    -> {
-                        cont = activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairCarbs(carb.first, carb.second.id), "$startId/$lastDbId") == true
-                        if (cont) added++
-                    }
-                    // with nsId = update if it's modified record
-                    carb.first.ids.nightscoutId != null && carb.first.id != carb.second.id -> {
-                        cont = activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairCarbs(carb.first, carb.second.id), "$startId/$lastDbId") == true
-                        if (cont) updated++
-                    }
-                }
-                if (cont) confirmLastCarbsIdIfGreater(carb.second.id)
-            } ?: run {
-                cont = false
-            }
+        processChanged(
+            name = "Carbs",
+            lastSyncedKey = NsclientLongKey.CarbsLastSyncedId,
+            lastDbId = { persistenceLayer.getLastCarbsId() },
+            updateRemaining = { queueCounter.carbsRemaining = it },
+            nextElement = { persistenceLayer.getNextSyncElementCarbs(it) },
+            syncId = { it.second.id },
+            confirm = ::confirmLastCarbsIdIfGreater,
+            newRecordId = { newRecordId(it) }
+        ) { carb, progress ->
+            uploadPair("Carbs", carb, carb.first.onlyNsIdAdded(carb.second), "treatments", DataSyncSelector.PairCarbs(carb.first, carb.second.id), progress)
         }
-        if (ignored + added + updated > 0)
-            aapsLogger.info(LTag.NSCLIENT, "Carbs: from=$firstId to=$lastId ignored=$ignored added=$added updated=$updated")
     }
 
     @OpenForTesting
@@ -260,59 +328,21 @@ class DataSyncSelectorV3 @Inject constructor(
 
     @OpenForTesting
     suspend fun processChangedBolusCalculatorResults() {
-        var cont = true
-        var ignored = 0; var added = 0; var updated = 0; var lastId = 0L
-        val firstId = preferences.get(NsclientLongKey.BolusCalculatorLastSyncedId)
-        while (cont) {
-            if (isPaused) return
-            val lastDbId = persistenceLayer.getLastBolusCalculatorResultId() ?: 0L
-            var startId = preferences.get(NsclientLongKey.BolusCalculatorLastSyncedId)
-            if (startId > lastDbId) {
-                aapsLogger.info(LTag.NSCLIENT, "Resetting startId: $startId lastDbId: $lastDbId")
-                preferences.put(NsclientLongKey.BolusCalculatorLastSyncedId, 0)
-                startId = 0
-            }
-            queueCounter.bcrRemaining = lastDbId - startId
-            nsClientRepository.updateQueueSize(queueCounter.size())
-            persistenceLayer.getNextSyncElementBolusCalculatorResult(startId)?.let { bolusCalculatorResult ->
-                lastId = bolusCalculatorResult.second.id
-                when {
-                    // new record with existing NS id => must be coming from NS => ignore
-                    bolusCalculatorResult.first.id == bolusCalculatorResult.second.id && bolusCalculatorResult.first.ids.nightscoutId != null -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring BolusCalculatorResult. Loaded from NS: ${bolusCalculatorResult.second.id}")
-                        ignored++
-                    }
-                    // only NsId changed, no need to upload
-                    bolusCalculatorResult.first.onlyNsIdAdded(bolusCalculatorResult.second)                                                   -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring BolusCalculatorResult. Only NS id changed: ${bolusCalculatorResult.second.id}")
-                        ignored++
-                    }
-                    // without nsId = create new
-                    bolusCalculatorResult.first.ids.nightscoutId == null                                                                      -> {
-                        cont = activePlugin.activeNsClient?.nsAdd(
-                            "treatments",
-                            DataSyncSelector.PairBolusCalculatorResult(bolusCalculatorResult.first, bolusCalculatorResult.second.id),
-                            "$startId/$lastDbId"
-                        ) == true
-                        if (cont) added++
-                    }
-                    // with nsId = update if it's modified record
-                    bolusCalculatorResult.first.ids.nightscoutId != null && bolusCalculatorResult.first.id != bolusCalculatorResult.second.id -> {
-                        cont = activePlugin.activeNsClient?.nsUpdate(
-                            "treatments",
-                            DataSyncSelector.PairBolusCalculatorResult(bolusCalculatorResult.first, bolusCalculatorResult.second.id),
-                            "$startId/$lastDbId"
-                        ) == true
-                        if (cont) updated++
-                    }
-                }
-                if (cont) confirmLastBolusCalculatorResultsIdIfGreater(bolusCalculatorResult.second.id)
-            } ?: run {
-                cont = false
-            }
+        processChanged(
+            name = "BolusCalculatorResult",
+            lastSyncedKey = NsclientLongKey.BolusCalculatorLastSyncedId,
+            lastDbId = { persistenceLayer.getLastBolusCalculatorResultId() },
+            updateRemaining = { queueCounter.bcrRemaining = it },
+            nextElement = { persistenceLayer.getNextSyncElementBolusCalculatorResult(it) },
+            syncId = { it.second.id },
+            confirm = ::confirmLastBolusCalculatorResultsIdIfGreater,
+            newRecordId = { newRecordId(it) }
+        ) { bolusCalculatorResult, progress ->
+            uploadPair(
+                "BolusCalculatorResult", bolusCalculatorResult, bolusCalculatorResult.first.onlyNsIdAdded(bolusCalculatorResult.second), "treatments",
+                DataSyncSelector.PairBolusCalculatorResult(bolusCalculatorResult.first, bolusCalculatorResult.second.id), progress
+            )
         }
-        if (ignored + added + updated > 0)
-            aapsLogger.info(LTag.NSCLIENT, "BolusCalculatorResult: from=$firstId to=$lastId ignored=$ignored added=$added updated=$updated")
     }
 
     @OpenForTesting
@@ -324,51 +354,18 @@ class DataSyncSelectorV3 @Inject constructor(
 
     @OpenForTesting
     suspend fun processChangedTempTargets() {
-        var cont = true
-        var ignored = 0; var added = 0; var updated = 0; var lastId = 0L
-        val firstId = preferences.get(NsclientLongKey.TemporaryTargetLastSyncedId)
-        while (cont) {
-            if (isPaused) return
-            val lastDbId = persistenceLayer.getLastTemporaryTargetId() ?: 0L
-            var startId = preferences.get(NsclientLongKey.TemporaryTargetLastSyncedId)
-            if (startId > lastDbId) {
-                aapsLogger.info(LTag.NSCLIENT, "Resetting startId: $startId lastDbId: $lastDbId")
-                preferences.put(NsclientLongKey.TemporaryTargetLastSyncedId, 0)
-                startId = 0
-            }
-            queueCounter.ttsRemaining = lastDbId - startId
-            nsClientRepository.updateQueueSize(queueCounter.size())
-            persistenceLayer.getNextSyncElementTemporaryTarget(startId)?.let { tt ->
-                lastId = tt.second.id
-                when {
-                    // new record with existing NS id => must be coming from NS => ignore
-                    tt.first.id == tt.second.id && tt.first.ids.nightscoutId != null -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring TemporaryTarget. Loaded from NS: ${tt.second.id}")
-                        ignored++
-                    }
-                    // only NsId changed, no need to upload
-                    tt.first.onlyNsIdAdded(tt.second)                                -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring TemporaryTarget. Only NS id changed: ${tt.second.id}")
-                        ignored++
-                    }
-                    // without nsId = create new
-                    tt.first.ids.nightscoutId == null                                -> {
-                        cont = activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairTemporaryTarget(tt.first, tt.second.id), "$startId/$lastDbId") == true
-                        if (cont) added++
-                    }
-                    // existing with nsId = update
-                    tt.first.ids.nightscoutId != null                                -> {
-                        cont = activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairTemporaryTarget(tt.first, tt.second.id), "$startId/$lastDbId") == true
-                        if (cont) updated++
-                    }
-                }
-                if (cont) confirmLastTempTargetsIdIfGreater(tt.second.id)
-            } ?: run {
-                cont = false
-            }
+        processChanged(
+            name = "TemporaryTarget",
+            lastSyncedKey = NsclientLongKey.TemporaryTargetLastSyncedId,
+            lastDbId = { persistenceLayer.getLastTemporaryTargetId() },
+            updateRemaining = { queueCounter.ttsRemaining = it },
+            nextElement = { persistenceLayer.getNextSyncElementTemporaryTarget(it) },
+            syncId = { it.second.id },
+            confirm = ::confirmLastTempTargetsIdIfGreater,
+            newRecordId = { newRecordId(it) }
+        ) { tt, progress ->
+            uploadPair("TemporaryTarget", tt, tt.first.onlyNsIdAdded(tt.second), "treatments", DataSyncSelector.PairTemporaryTarget(tt.first, tt.second.id), progress)
         }
-        if (ignored + added + updated > 0)
-            aapsLogger.info(LTag.NSCLIENT, "TemporaryTarget: from=$firstId to=$lastId ignored=$ignored added=$added updated=$updated")
     }
 
     /*
@@ -424,52 +421,20 @@ class DataSyncSelectorV3 @Inject constructor(
 
     @OpenForTesting
     suspend fun processChangedGlucoseValues() {
-        var cont = true
-        var ignored = 0; var added = 0; var updated = 0; var lastId = 0L
-        val firstId = preferences.get(NsclientLongKey.GlucoseValueLastSyncedId)
-        while (cont) {
-            if (isPaused) return
-            val lastDbId = persistenceLayer.getLastGlucoseValueId() ?: 0L
-            var startId = preferences.get(NsclientLongKey.GlucoseValueLastSyncedId)
-            if (startId > lastDbId) {
-                aapsLogger.info(LTag.NSCLIENT, "Resetting startId: $startId lastDbId: $lastDbId")
-                preferences.put(NsclientLongKey.GlucoseValueLastSyncedId, 0)
-                startId = 0
-            }
-            queueCounter.gvsRemaining = lastDbId - startId
-            nsClientRepository.updateQueueSize(queueCounter.size())
-            persistenceLayer.getNextSyncElementGlucoseValue(startId)?.let { gv ->
-                lastId = gv.second.id
-                if (bgUploadEnabled) {
-                    when {
-                        // new record with existing NS id => must be coming from NS => ignore
-                        gv.first.id == gv.second.id && gv.first.ids.nightscoutId != null -> {
-                            aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring GlucoseValue. Loaded from NS: ${gv.second.id}")
-                            ignored++
-                        }
-                        // only NsId changed, no need to upload
-                        gv.first.onlyNsIdAdded(gv.second)                                -> {
-                            aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring GlucoseValue. Only NS id changed: ${gv.second.id}")
-                            ignored++
-                        }
-                        // without nsId = create new
-                        gv.first.ids.nightscoutId == null                                -> {
-                            cont = activePlugin.activeNsClient?.nsAdd("entries", DataSyncSelector.PairGlucoseValue(gv.first, gv.second.id), "$startId/$lastDbId") == true
-                            if (cont) added++
-                        }
-                        else                                                             -> {  //  gv.first.interfaceIDs.nightscoutId != null
-                            cont = activePlugin.activeNsClient?.nsUpdate("entries", DataSyncSelector.PairGlucoseValue(gv.first, gv.second.id), "$startId/$lastDbId") == true
-                            if (cont) updated++
-                        }
-                    }
-                }
-                if (cont) confirmLastGlucoseValueIdIfGreater(gv.second.id)
-            } ?: run {
-                cont = false
-            }
+        processChanged(
+            name = "GlucoseValue",
+            lastSyncedKey = NsclientLongKey.GlucoseValueLastSyncedId,
+            lastDbId = { persistenceLayer.getLastGlucoseValueId() },
+            updateRemaining = { queueCounter.gvsRemaining = it },
+            nextElement = { persistenceLayer.getNextSyncElementGlucoseValue(it) },
+            syncId = { it.second.id },
+            confirm = ::confirmLastGlucoseValueIdIfGreater,
+            newRecordId = { newRecordId(it) }
+        ) { gv, progress ->
+            if (bgUploadEnabled)
+                uploadPair("GlucoseValue", gv, gv.first.onlyNsIdAdded(gv.second), "entries", DataSyncSelector.PairGlucoseValue(gv.first, gv.second.id), progress)
+            else NsUploadPipeline.Result.IGNORED
         }
-        if (ignored + added + updated > 0)
-            aapsLogger.info(LTag.NSCLIENT, "GlucoseValue: from=$firstId to=$lastId ignored=$ignored added=$added updated=$updated")
     }
 
     @OpenForTesting
@@ -481,51 +446,18 @@ class DataSyncSelectorV3 @Inject constructor(
 
     @OpenForTesting
     suspend fun processChangedTherapyEvents() {
-        var cont = true
-        var ignored = 0; var added = 0; var updated = 0; var lastId = 0L
-        val firstId = preferences.get(NsclientLongKey.TherapyEventLastSyncedId)
-        while (cont) {
-            if (isPaused) return
-            val lastDbId = persistenceLayer.getLastTherapyEventId() ?: 0L
-            var startId = preferences.get(NsclientLongKey.TherapyEventLastSyncedId)
-            if (startId > lastDbId) {
-                aapsLogger.info(LTag.NSCLIENT, "Resetting startId: $startId lastDbId: $lastDbId")
-                preferences.put(NsclientLongKey.TherapyEventLastSyncedId, 0)
-                startId = 0
-            }
-            queueCounter.tesRemaining = lastDbId - startId
-            nsClientRepository.updateQueueSize(queueCounter.size())
-            persistenceLayer.getNextSyncElementTherapyEvent(startId)?.let { te ->
-                lastId = te.second.id
-                when {
-                    // new record with existing NS id => must be coming from NS => ignore
-                    te.first.id == te.second.id && te.first.ids.nightscoutId != null -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring TherapyEvent. Loaded from NS: ${te.second.id}")
-                        ignored++
-                    }
-                    // only NsId changed, no need to upload
-                    te.first.onlyNsIdAdded(te.second)                                -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring TherapyEvent. Only NS id changed: ${te.second.id}")
-                        ignored++
-                    }
-                    // without nsId = create new
-                    te.first.ids.nightscoutId == null                                -> {
-                        cont = activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairTherapyEvent(te.first, te.second.id), "$startId/$lastDbId") == true
-                        if (cont) added++
-                    }
-                    // nsId = update
-                    te.first.ids.nightscoutId != null                                -> {
-                        cont = activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairTherapyEvent(te.first, te.second.id), "$startId/$lastDbId") == true
-                        if (cont) updated++
-                    }
-                }
-                if (cont) confirmLastTherapyEventIdIfGreater(te.second.id)
-            } ?: run {
-                cont = false
-            }
+        processChanged(
+            name = "TherapyEvent",
+            lastSyncedKey = NsclientLongKey.TherapyEventLastSyncedId,
+            lastDbId = { persistenceLayer.getLastTherapyEventId() },
+            updateRemaining = { queueCounter.tesRemaining = it },
+            nextElement = { persistenceLayer.getNextSyncElementTherapyEvent(it) },
+            syncId = { it.second.id },
+            confirm = ::confirmLastTherapyEventIdIfGreater,
+            newRecordId = { newRecordId(it) }
+        ) { te, progress ->
+            uploadPair("TherapyEvent", te, te.first.onlyNsIdAdded(te.second), "treatments", DataSyncSelector.PairTherapyEvent(te.first, te.second.id), progress)
         }
-        if (ignored + added + updated > 0)
-            aapsLogger.info(LTag.NSCLIENT, "TherapyEvent: from=$firstId to=$lastId ignored=$ignored added=$added updated=$updated")
     }
 
     @OpenForTesting
@@ -537,31 +469,20 @@ class DataSyncSelectorV3 @Inject constructor(
 
     @OpenForTesting
     suspend fun processChangedDeviceStatuses() {
-        var cont = true
-        var added = 0; var lastId = 0L
-        val firstId = preferences.get(NsclientLongKey.DeviceStatusLastSyncedId)
-        while (cont) {
-            if (isPaused) return
-            val lastDbId = persistenceLayer.getLastDeviceStatusId() ?: 0L
-            var startId = preferences.get(NsclientLongKey.DeviceStatusLastSyncedId)
-            if (startId > lastDbId) {
-                aapsLogger.info(LTag.NSCLIENT, "Resetting startId: $startId lastDbId: $lastDbId")
-                preferences.put(NsclientLongKey.DeviceStatusLastSyncedId, 0)
-                startId = 0
-            }
-            queueCounter.dssRemaining = lastDbId - startId
-            nsClientRepository.updateQueueSize(queueCounter.size())
-            persistenceLayer.getNextSyncElementDeviceStatus(startId)?.let { deviceStatus ->
-                lastId = deviceStatus.id
-                cont = activePlugin.activeNsClient?.nsAdd("devicestatus", DataSyncSelector.PairDeviceStatus(deviceStatus, lastDbId), "$startId/$lastDbId") == true
-                if (cont) { added++; confirmLastDeviceStatusIdIfGreater(deviceStatus.id) }
-                // with nsId = ignore
-            } ?: run {
-                cont = false
-            }
+        var lastDeviceStatusId = 0L
+        processChanged(
+            name = "DeviceStatus",
+            lastSyncedKey = NsclientLongKey.DeviceStatusLastSyncedId,
+            lastDbId = { persistenceLayer.getLastDeviceStatusId().also { lastDeviceStatusId = it ?: 0L } },
+            updateRemaining = { queueCounter.dssRemaining = it },
+            nextElement = { persistenceLayer.getNextSyncElementDeviceStatus(it) },
+            syncId = { it.id },
+            confirm = ::confirmLastDeviceStatusIdIfGreater
+        ) { deviceStatus, progress ->
+            // with nsId = ignore
+            if (activePlugin.activeNsClient?.nsAdd("devicestatus", DataSyncSelector.PairDeviceStatus(deviceStatus, lastDeviceStatusId), progress) == true) NsUploadPipeline.Result.ADDED
+            else NsUploadPipeline.Result.FAILED
         }
-        if (added > 0)
-            aapsLogger.info(LTag.NSCLIENT, "DeviceStatus: from=$firstId to=$lastId added=$added")
     }
 
     @OpenForTesting
@@ -573,52 +494,19 @@ class DataSyncSelectorV3 @Inject constructor(
 
     @OpenForTesting
     suspend fun processChangedTemporaryBasals() {
-        var cont = true
-        var ignored = 0; var added = 0; var updated = 0; var lastId = 0L
-        val firstId = preferences.get(NsclientLongKey.TemporaryBasalLastSyncedId)
-        while (cont) {
-            if (isPaused) return
-            val lastDbId = persistenceLayer.getLastTemporaryBasalId() ?: 0L
-            var startId = preferences.get(NsclientLongKey.TemporaryBasalLastSyncedId)
-            if (startId > lastDbId) {
-                aapsLogger.info(LTag.NSCLIENT, "Resetting startId: $startId lastDbId: $lastDbId")
-                preferences.put(NsclientLongKey.TemporaryBasalLastSyncedId, 0)
-                startId = 0
-            }
-            queueCounter.tbrsRemaining = lastDbId - startId
-            nsClientRepository.updateQueueSize(queueCounter.size())
-            persistenceLayer.getNextSyncElementTemporaryBasal(startId)?.let { tb ->
-                lastId = tb.second.id
-                val profile = profileFunction.getProfile(tb.first.timestamp)
-                when {
-                    // new record with existing NS id => must be coming from NS => ignore
-                    tb.first.id == tb.second.id && tb.first.ids.nightscoutId != null -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring TemporaryBasal. Loaded from NS: ${tb.second.id}")
-                        ignored++
-                    }
-                    // only NsId changed, no need to upload
-                    tb.first.onlyNsIdAdded(tb.second)                                -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring TemporaryBasal. Only NS id changed: ${tb.second.id}")
-                        ignored++
-                    }
-                    // without nsId = create new
-                    tb.first.ids.nightscoutId == null                                -> {
-                        cont = activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairTemporaryBasal(tb.first, tb.second.id), "$startId/$lastDbId", profile) == true
-                        if (cont) added++
-                    }
-                    // with nsId = update
-                    tb.first.ids.nightscoutId != null                                -> {
-                        cont = activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairTemporaryBasal(tb.first, tb.second.id), "$startId/$lastDbId", profile) == true
-                        if (cont) updated++
-                    }
-                }
-                if (cont) confirmLastTemporaryBasalIdIfGreater(tb.second.id)
-            } ?: run {
-                cont = false
-            }
+        processChanged(
+            name = "TemporaryBasal",
+            lastSyncedKey = NsclientLongKey.TemporaryBasalLastSyncedId,
+            lastDbId = { persistenceLayer.getLastTemporaryBasalId() },
+            updateRemaining = { queueCounter.tbrsRemaining = it },
+            nextElement = { persistenceLayer.getNextSyncElementTemporaryBasal(it) },
+            syncId = { it.second.id },
+            confirm = ::confirmLastTemporaryBasalIdIfGreater,
+            newRecordId = { newRecordId(it) }
+        ) { tb, progress ->
+            val profile = profileFunction.getProfile(tb.first.timestamp)
+            uploadPair("TemporaryBasal", tb, tb.first.onlyNsIdAdded(tb.second), "treatments", DataSyncSelector.PairTemporaryBasal(tb.first, tb.second.id), progress, profile)
         }
-        if (ignored + added + updated > 0)
-            aapsLogger.info(LTag.NSCLIENT, "TemporaryBasal: from=$firstId to=$lastId ignored=$ignored added=$added updated=$updated")
     }
 
     @OpenForTesting
@@ -630,57 +518,24 @@ class DataSyncSelectorV3 @Inject constructor(
 
     @OpenForTesting
     suspend fun processChangedExtendedBoluses() {
-        var cont = true
-        var ignored = 0; var added = 0; var updated = 0; var lastId = 0L
-        val firstId = preferences.get(NsclientLongKey.ExtendedBolusLastSyncedId)
-        while (cont) {
-            if (isPaused) return
-            val lastDbId = persistenceLayer.getLastExtendedBolusId() ?: 0L
-            var startId = preferences.get(NsclientLongKey.ExtendedBolusLastSyncedId)
-            if (startId > lastDbId) {
-                aapsLogger.info(LTag.NSCLIENT, "Resetting startId: $startId lastDbId: $lastDbId")
-                preferences.put(NsclientLongKey.ExtendedBolusLastSyncedId, 0)
-                startId = 0
-            }
-            queueCounter.ebsRemaining = lastDbId - startId
-            nsClientRepository.updateQueueSize(queueCounter.size())
-            persistenceLayer.getNextSyncElementExtendedBolus(startId)?.let { eb ->
-                lastId = eb.second.id
-                val profile = profileFunction.getProfile(eb.first.timestamp)
-                if (profile != null) {
-                    when {
-                        // new record with existing NS id => must be coming from NS => ignore
-                        eb.first.id == eb.second.id && eb.first.ids.nightscoutId != null -> {
-                            aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring ExtendedBolus. Loaded from NS: ${eb.second.id}")
-                            ignored++
-                        }
-                        // only NsId changed, no need to upload
-                        eb.first.onlyNsIdAdded(eb.second)                                -> {
-                            aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring ExtendedBolus. Only NS id changed: ${eb.second.id}")
-                            ignored++
-                        }
-                        // without nsId = create new
-                        eb.first.ids.nightscoutId == null                                -> {
-                            cont = activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairExtendedBolus(eb.first, eb.second.id), "$startId/$lastDbId", profile) == true
-                            if (cont) added++
-                        }
-                        // with nsId = update
-                        eb.first.ids.nightscoutId != null                                -> {
-                            cont = activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairExtendedBolus(eb.first, eb.second.id), "$startId/$lastDbId", profile) == true
-                            if (cont) updated++
-                        }
-                    }
-                } else {
-                    aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring ExtendedBolus. No profile: ${eb.second.id}")
-                    ignored++
-                }
-                if (cont) confirmLastExtendedBolusIdIfGreater(eb.second.id)
-            } ?: run {
-                cont = false
+        processChanged(
+            name = "ExtendedBolus",
+            lastSyncedKey = NsclientLongKey.ExtendedBolusLastSyncedId,
+            lastDbId = { persistenceLayer.getLastExtendedBolusId() },
+            updateRemaining = { queueCounter.ebsRemaining = it },
+            nextElement = { persistenceLayer.getNextSyncElementExtendedBolus(it) },
+            syncId = { it.second.id },
+            confirm = ::confirmLastExtendedBolusIdIfGreater,
+            newRecordId = { newRecordId(it) }
+        ) { eb, progress ->
+            val profile = profileFunction.getProfile(eb.first.timestamp)
+            if (profile != null)
+                uploadPair("ExtendedBolus", eb, eb.first.onlyNsIdAdded(eb.second), "treatments", DataSyncSelector.PairExtendedBolus(eb.first, eb.second.id), progress, profile)
+            else {
+                aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring ExtendedBolus. No profile: ${eb.second.id}")
+                NsUploadPipeline.Result.IGNORED
             }
         }
-        if (ignored + added + updated > 0)
-            aapsLogger.info(LTag.NSCLIENT, "ExtendedBolus: from=$firstId to=$lastId ignored=$ignored added=$added updated=$updated")
     }
 
     @OpenForTesting
@@ -692,51 +547,18 @@ class DataSyncSelectorV3 @Inject constructor(
 
     @OpenForTesting
     suspend fun processChangedProfileSwitches() {
-        var cont = true
-        var ignored = 0; var added = 0; var updated = 0; var lastId = 0L
-        val firstId = preferences.get(NsclientLongKey.ProfileSwitchLastSyncedId)
-        while (cont) {
-            if (isPaused) return
-            val lastDbId = persistenceLayer.getLastProfileSwitchId() ?: 0L
-            var startId = preferences.get(NsclientLongKey.ProfileSwitchLastSyncedId)
-            if (startId > lastDbId) {
-                aapsLogger.info(LTag.NSCLIENT, "Resetting startId: $startId lastDbId: $lastDbId")
-                preferences.put(NsclientLongKey.ProfileSwitchLastSyncedId, 0)
-                startId = 0
-            }
-            queueCounter.pssRemaining = lastDbId - startId
-            nsClientRepository.updateQueueSize(queueCounter.size())
-            persistenceLayer.getNextSyncElementProfileSwitch(startId)?.let { ps ->
-                lastId = ps.second.id
-                when {
-                    // new record with existing NS id => must be coming from NS => ignore
-                    ps.first.id == ps.second.id && ps.first.ids.nightscoutId != null -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring ProfileSwitch. Loaded from NS: ${ps.second.id}")
-                        ignored++
-                    }
-                    // only NsId changed, no need to upload
-                    ps.first.onlyNsIdAdded(ps.second)                                -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring ProfileSwitch. Only NS id changed: ${ps.second.id}")
-                        ignored++
-                    }
-                    // without nsId = create new
-                    ps.first.ids.nightscoutId == null                                -> {
-                        cont = activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairProfileSwitch(ps.first, ps.second.id), "$startId/$lastDbId") == true
-                        if (cont) added++
-                    }
-                    // with nsId = update
-                    ps.first.ids.nightscoutId != null                                -> {
-                        cont = activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairProfileSwitch(ps.first, ps.second.id), "$startId/$lastDbId") == true
-                        if (cont) updated++
-                    }
-                }
-                if (cont) confirmLastProfileSwitchIdIfGreater(ps.second.id)
-            } ?: run {
-                cont = false
-            }
+        processChanged(
+            name = "ProfileSwitch",
+            lastSyncedKey = NsclientLongKey.ProfileSwitchLastSyncedId,
+            lastDbId = { persistenceLayer.getLastProfileSwitchId() },
+            updateRemaining = { queueCounter.pssRemaining = it },
+            nextElement = { persistenceLayer.getNextSyncElementProfileSwitch(it) },
+            syncId = { it.second.id },
+            confirm = ::confirmLastProfileSwitchIdIfGreater,
+            newRecordId = { newRecordId(it) }
+        ) { ps, progress ->
+            uploadPair("ProfileSwitch", ps, ps.first.onlyNsIdAdded(ps.second), "treatments", DataSyncSelector.PairProfileSwitch(ps.first, ps.second.id), progress)
         }
-        if (ignored + added + updated > 0)
-            aapsLogger.info(LTag.NSCLIENT, "ProfileSwitch: from=$firstId to=$lastId ignored=$ignored added=$added updated=$updated")
     }
 
     @OpenForTesting
@@ -748,51 +570,18 @@ class DataSyncSelectorV3 @Inject constructor(
 
     @OpenForTesting
     suspend fun processChangedEffectiveProfileSwitches() {
-        var cont = true
-        var ignored = 0; var added = 0; var updated = 0; var lastId = 0L
-        val firstId = preferences.get(NsclientLongKey.EffectiveProfileSwitchLastSyncedId)
-        while (cont) {
-            if (isPaused) return
-            val lastDbId = persistenceLayer.getLastEffectiveProfileSwitchId() ?: 0L
-            var startId = preferences.get(NsclientLongKey.EffectiveProfileSwitchLastSyncedId)
-            if (startId > lastDbId) {
-                aapsLogger.info(LTag.NSCLIENT, "Resetting startId: $startId lastDbId: $lastDbId")
-                preferences.put(NsclientLongKey.EffectiveProfileSwitchLastSyncedId, 0)
-                startId = 0
-            }
-            queueCounter.epssRemaining = lastDbId - startId
-            nsClientRepository.updateQueueSize(queueCounter.size())
-            persistenceLayer.getNextSyncElementEffectiveProfileSwitch(startId)?.let { ps ->
-                lastId = ps.second.id
-                when {
-                    // new record with existing NS id => must be coming from NS => ignore
-                    ps.first.id == ps.second.id && ps.first.ids.nightscoutId != null -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring EffectiveProfileSwitch. Loaded from NS: ${ps.second.id}")
-                        ignored++
-                    }
-                    // only NsId changed, no need to upload
-                    ps.first.onlyNsIdAdded(ps.second)                                -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring EffectiveProfileSwitch. Only NS id changed: ${ps.second.id}")
-                        ignored++
-                    }
-                    // without nsId = create new
-                    ps.first.ids.nightscoutId == null                                -> {
-                        cont = activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairEffectiveProfileSwitch(ps.first, ps.second.id), "$startId/$lastDbId") == true
-                        if (cont) added++
-                    }
-                    // with nsId = update
-                    ps.first.ids.nightscoutId != null                                -> {
-                        cont = activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairEffectiveProfileSwitch(ps.first, ps.second.id), "$startId/$lastDbId") == true
-                        if (cont) updated++
-                    }
-                }
-                if (cont) confirmLastEffectiveProfileSwitchIdIfGreater(ps.second.id)
-            } ?: run {
-                cont = false
-            }
+        processChanged(
+            name = "EffectiveProfileSwitch",
+            lastSyncedKey = NsclientLongKey.EffectiveProfileSwitchLastSyncedId,
+            lastDbId = { persistenceLayer.getLastEffectiveProfileSwitchId() },
+            updateRemaining = { queueCounter.epssRemaining = it },
+            nextElement = { persistenceLayer.getNextSyncElementEffectiveProfileSwitch(it) },
+            syncId = { it.second.id },
+            confirm = ::confirmLastEffectiveProfileSwitchIdIfGreater,
+            newRecordId = { newRecordId(it) }
+        ) { ps, progress ->
+            uploadPair("EffectiveProfileSwitch", ps, ps.first.onlyNsIdAdded(ps.second), "treatments", DataSyncSelector.PairEffectiveProfileSwitch(ps.first, ps.second.id), progress)
         }
-        if (ignored + added + updated > 0)
-            aapsLogger.info(LTag.NSCLIENT, "EffectiveProfileSwitch: from=$firstId to=$lastId ignored=$ignored added=$added updated=$updated")
     }
 
     @OpenForTesting
@@ -804,51 +593,18 @@ class DataSyncSelectorV3 @Inject constructor(
 
     @OpenForTesting
     suspend fun processChangedRunningModes() {
-        var cont = true
-        var ignored = 0; var added = 0; var updated = 0; var lastId = 0L
-        val firstId = preferences.get(NsclientLongKey.RunningModeLastSyncedId)
-        while (cont) {
-            if (isPaused) return
-            val lastDbId = persistenceLayer.getLastRunningModeId() ?: 0L
-            var startId = preferences.get(NsclientLongKey.RunningModeLastSyncedId)
-            if (startId > lastDbId) {
-                aapsLogger.info(LTag.NSCLIENT, "Resetting startId: $startId lastDbId: $lastDbId")
-                preferences.put(NsclientLongKey.RunningModeLastSyncedId, 0)
-                startId = 0
-            }
-            queueCounter.rmsRemaining = lastDbId - startId
-            nsClientRepository.updateQueueSize(queueCounter.size())
-            persistenceLayer.getNextSyncElementRunningMode(startId)?.let { rm ->
-                lastId = rm.second.id
-                when {
-                    // new record with existing NS id => must be coming from NS => ignore
-                    rm.first.id == rm.second.id && rm.first.ids.nightscoutId != null -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring RunningMode. Loaded from NS: ${rm.second.id}")
-                        ignored++
-                    }
-                    // only NsId changed, no need to upload
-                    rm.first.onlyNsIdAdded(rm.second)                                -> {
-                        aapsLogger.debug(LTag.NSCLIENT_SYNC, "Ignoring RunningMode. Only NS id changed: ${rm.second.id}")
-                        ignored++
-                    }
-                    // without nsId = create new
-                    rm.first.ids.nightscoutId == null                                -> {
-                        cont = activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairRunningMode(rm.first, rm.second.id), "$startId/$lastDbId") == true
-                        if (cont) added++
-                    }
-                    // existing with nsId = update
-                    rm.first.ids.nightscoutId != null                                -> {
-                        cont = activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairRunningMode(rm.first, rm.second.id), "$startId/$lastDbId") == true
-                        if (cont) updated++
-                    }
-                }
-                if (cont) confirmLastRunningModeIdIfGreater(rm.second.id)
-            } ?: run {
-                cont = false
-            }
+        processChanged(
+            name = "RunningMode",
+            lastSyncedKey = NsclientLongKey.RunningModeLastSyncedId,
+            lastDbId = { persistenceLayer.getLastRunningModeId() },
+            updateRemaining = { queueCounter.rmsRemaining = it },
+            nextElement = { persistenceLayer.getNextSyncElementRunningMode(it) },
+            syncId = { it.second.id },
+            confirm = ::confirmLastRunningModeIdIfGreater,
+            newRecordId = { newRecordId(it) }
+        ) { rm, progress ->
+            uploadPair("RunningMode", rm, rm.first.onlyNsIdAdded(rm.second), "treatments", DataSyncSelector.PairRunningMode(rm.first, rm.second.id), progress)
         }
-        if (ignored + added + updated > 0)
-            aapsLogger.info(LTag.NSCLIENT, "RunningMode: from=$firstId to=$lastId ignored=$ignored added=$added updated=$updated")
     }
 
     @OpenForTesting
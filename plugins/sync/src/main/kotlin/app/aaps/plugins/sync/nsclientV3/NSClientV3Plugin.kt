@@ -7,7 +7,6 @@ import android.content.ServiceConnection
 import android.os.Handler
 import android.os.HandlerThread
 import android.os.IBinder
-import android.os.SystemClock
 import androidx.annotation.VisibleForTesting
 import androidx.work.ExistingWorkPolicy
 import androidx.work.OneTimeWorkRequest
@@ -414,11 +413,6 @@ class NSClientV3Plugin @Inject constructor(
 
     enum class Operation { CREATE, UPDATE }
 
-    private fun slowDown() {
-        if (preferences.get(BooleanKey.NsClientSlowSync)) SystemClock.sleep(250)
-        else SystemClock.sleep(10)
-    }
-
     private suspend fun dbOperationProfileStore(collection: String = "profile", dataPair: DataSyncSelector.DataPair, progress: String): Boolean {
         val data = (dataPair as DataSyncSelector.PairProfileStore).value
         try {
@@ -434,7 +428,6 @@ class NSClientV3Plugin @Inject constructor(
                         return config.isEnabled(ExternalOptions.IGNORE_NS_V3_ERRORS)
                     }
                 }
-                slowDown()
                 return true
             }
         } catch (e: Exception) {
@@ -464,7 +457,6 @@ class NSClientV3Plugin @Inject constructor(
                     storeDataForDb.addToNsIdDeviceStatuses(dataPair.value)
                     preferences.put(BooleanNonKey.ObjectivesPumpStatusIsAvailableInNS, true)
                 }
-                slowDown()
                 return true
             }
         } catch (e: Exception) {
@@ -509,7 +501,6 @@ class NSClientV3Plugin @Inject constructor(
                     dataPair.value.ids.nightscoutId = it
                     storeDataForDb.addToNsIdGlucoseValues(dataPair.value)
                 }
-                slowDown()
                 return true
             }
         } catch (e: Exception) {
@@ -554,7 +545,6 @@ class NSClientV3Plugin @Inject constructor(
                     dataPair.value.ids.nightscoutId = it
                     storeDataForDb.addToNsIdFoods(dataPair.value)
                 }
-                slowDown()
                 return true
             }
         } catch (e: Exception) {
@@ -673,7 +663,6 @@ class NSClientV3Plugin @Inject constructor(
                             }
                         }
                     }
-                    slowDown()
                     return true
                 }
             } catch (e: Exception) {
@@ -0,0 +1,65 @@
+package app.aaps.plugins.sync.nsclientV3
+
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Uploads a page of changed records to Nightscout with bounded number of requests in flight
+ *
+ * Results are returned in record order, so caller can acknowledge the longest
+ * successfully processed prefix of the page and move sync cursor once per page.
+ * After first failure no more uploads are started, records behind it are
+ * reported as [Result.SKIPPED] and uploaded again on next run.
+ *
+ * Every upload sends current state of the record, so completion order inside of the page doesn't matter.
+ */
+class NsUploadPipeline {
+
+    companion object {
+
+        const val PAGE_SIZE = 50
+        const val MAX_IN_FLIGHT = 4
+    }
+
+    enum class Result(val acknowledged: Boolean) {
+        IGNORED(true),
+        ADDED(true),
+        UPDATED(true),
+        FAILED(false),
+        SKIPPED(false)
+    }
+
+    /**
+     * @param maxInFlight maximal number of concurrent uploads
+     * @param pause delay in ms after every upload (slow sync)
+     * @return result for every record in the same order as [records]
+     */
+    suspend fun <T> upload(records: List<T>, maxInFlight: Int = MAX_IN_FLIGHT, pause: Long = 0, upload: suspend (T) -> Result): List<Result> {
+        val semaphore = Semaphore(maxInFlight.coerceAtLeast(1))
+        val failed = AtomicBoolean(false)
+        return coroutineScope {
+            records.map { record ->
+                async {
+                    semaphore.withPermit {
+                        if (failed.get()) Result.SKIPPED
+                        else upload(record).also { result ->
+                            if (!result.acknowledged) failed.set(true)
+                            else if (pause > 0 && result != Result.IGNORED) delay(pause)
+                        }
+                    }
+                }
+            }.awaitAll()
+        }
+    }
+
+    /**
+     * @return number of leading records which can be acknowledged
+     */
+    fun acknowledged(results: List<Result>): Int =
+        results.indexOfFirst { !it.acknowledged }.let { if (it == -1) results.size else it }
+}
@@ -152,6 +152,7 @@ class DataHandlerMobile @Inject constructor(
     private val pumpStatusProvider: PumpStatusProvider,
     private val ch: ConcentrationHelper,
     private val runningModeGuard: RunningModeGuard,
+    private val wearSync: WearSync,
     @ApplicationScope private val appScope: CoroutineScope,
 ) {
 
@@ -171,6 +172,10 @@ class DataHandlerMobile @Inject constructor(
                            aapsLogger.debug(LTag.WEAR, "Pong received from ${it.sourceNodeId}")
                            fabricPrivacy.logCustom("WearOS_${it.apiLevel}")
                        }, fabricPrivacy::logException)
+        disposable += rxBus
+            .toObservable(EventData.WearSyncAck::class.java)
+            .observeOn(aapsSchedulers.io)
+            .subscribe({ wearSync.onAck(it) }, fabricPrivacy::logException)
         disposable += rxBus
             .toObservable(EventData.CancelBolus::class.java)
             .observeOn(aapsSchedulers.io)
@@ -1595,24 +1600,8 @@ class DataHandlerMobile @Inject constructor(
         // Scenes
         sendScenes()
         sendActiveSceneState(scenes.isAnySceneActive())
-        // GraphData
-        iobCobCalculator.ads.getBucketedDataTableCopy()?.let { bucketedData ->
-            // Hoist out of the per-bucket map: getGlucoseStatusData copies the bucketed table and runs a polynomial fit on every call.
-            val glucoseStatus = glucoseStatusProvider.getGlucoseStatusData(true)
-            val units = profileFunction.getUnits()
-            val lowLine = profileUtil.convertToMgdl(preferences.get(UnitDoubleKey.OverviewLowMark), units)
-            val highLine = profileUtil.convertToMgdl(preferences.get(UnitDoubleKey.OverviewHighMark), units)
-            val slopeArrow = (trendCalculator.getTrendArrow(iobCobCalculator.ads) ?: TrendArrow.NONE).symbol
-            rxBus.send(
-                EventMobileToWear(
-                    EventData.GraphData(
-                        ArrayList(bucketedData.map { buildSingleBg(it, glucoseStatus, units, lowLine, highLine, slopeArrow) })
-                    )
-                )
-            )
-        }
-        // Treatments
-        sendTreatments()
+        // GraphData and Treatments
+        wearSync.send(buildGraphData(), buildTreatmentData())
         // Status
         // Keep status last. Wear start refreshing after status received
         sendStatus(from)
@@ -1665,15 +1654,28 @@ class DataHandlerMobile @Inject constructor(
         rxBus.send(EventMobileToWear(EventData.ActiveSceneState(active)))
     }
 
-    private suspend fun sendTreatments() {
+    private fun buildGraphData(): EventData.GraphData? =
+        iobCobCalculator.ads.getBucketedDataTable()?.let { bucketedData ->
+            // Hoist out of the per-bucket map: getGlucoseStatusData runs a polynomial fit on every call.
+            val glucoseStatus = glucoseStatusProvider.getGlucoseStatusData(true)
+            val units = profileFunction.getUnits()
+            val lowLine = profileUtil.convertToMgdl(preferences.get(UnitDoubleKey.OverviewLowMark), units)
+            val highLine = profileUtil.convertToMgdl(preferences.get(UnitDoubleKey.OverviewHighMark), units)
+            val slopeArrow = (trendCalculator.getTrendArrow(iobCobCalculator.ads) ?: TrendArrow.NONE).symbol
+            EventData.GraphData(
+                ArrayList(bucketedData.map { buildSingleBg(it, glucoseStatus, units, lowLine, highLine, slopeArrow) })
+            )
+        }
+
+    private suspend fun buildTreatmentData(): EventData.TreatmentData? {
         val now = System.currentTimeMillis()
         val startTimeWindow = now - (60000 * 60 * 5.5).toLong()
         val basals = arrayListOf<EventData.TreatmentData.Basal>()
         val temps = arrayListOf<EventData.TreatmentData.TempBasal>()
         val boluses = arrayListOf<EventData.TreatmentData.Treatment>()
         val predictions = arrayListOf<EventData.SingleBg>()
-        if (!config.appInitialized) return
-        val profile = profileFunction.getProfile() ?: return
+        if (!config.appInitialized) return null
+        val profile = profileFunction.getProfile() ?: return null
         var beginBasalSegmentTime = startTimeWindow
         var runningTime = startTimeWindow
         var beginBasalValue = profile.getBasal(beginBasalSegmentTime)
@@ -1691,7 +1693,7 @@ class DataHandlerMobile @Inject constructor(
             }
         }
         while (runningTime < now) {
-            val profileTB = profileFunction.getProfile(runningTime) ?: return
+            val profileTB = profileFunction.getProfile(runningTime) ?: return null
             //basal rate
             endBasalValue = profile.getBasal(runningTime)
             if (endBasalValue != beginBasalValue) {
@@ -1797,7 +1799,7 @@ class DataHandlerMobile @Inject constructor(
                     )
                 )
             }
-        rxBus.send(EventMobileToWear(EventData.TreatmentData(temps, basals, boluses, predictions)))
+        return EventData.TreatmentData(temps, basals, boluses, predictions)
     }
 
     private fun predictionColor(data: GV): Int {
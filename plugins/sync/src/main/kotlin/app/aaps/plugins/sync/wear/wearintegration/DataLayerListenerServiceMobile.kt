@@ -10,6 +10,7 @@ import app.aaps.core.interfaces.plugin.ActivePlugin
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.AapsSchedulers
 import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.rx.events.EventMobileDataToWear
 import app.aaps.core.interfaces.rx.events.EventMobileToWear
 import app.aaps.core.interfaces.rx.events.EventMobileToWearWatchface
 import app.aaps.core.interfaces.rx.events.EventWearUpdateGui
@@ -49,6 +50,7 @@ class DataLayerListenerServiceMobile : WearableListenerService() {
     @Inject lateinit var activePlugin: ActivePlugin
     @Inject lateinit var rxBus: RxBus
     @Inject lateinit var aapsSchedulers: AapsSchedulers
+    @Inject lateinit var wearSync: WearSync
 
     inner class LocalBinder : Binder() {
 
@@ -67,7 +69,9 @@ class DataLayerListenerServiceMobile : WearableListenerService() {
 
     private val rxPath get() = getString(app.aaps.core.interfaces.R.string.path_rx_bridge)
     private val rxWatchfacePath get() = getString(app.aaps.core.interfaces.R.string.path_rx_data_bridge)
+    private val rxSyncPath get() = getString(app.aaps.core.interfaces.R.string.path_rx_sync_bridge)
 
+    @ExperimentalSerializationApi
     override fun onCreate() {
         AndroidInjection.inject(this)
         super.onCreate()
@@ -81,6 +85,10 @@ class DataLayerListenerServiceMobile : WearableListenerService() {
             .toObservable(EventMobileToWearWatchface::class.java)
             .observeOn(aapsSchedulers.io)
             .subscribe { sendMessage(rxWatchfacePath, it.payload) }
+        disposable += rxBus
+            .toObservable(EventMobileDataToWear::class.java)
+            .observeOn(aapsSchedulers.io)
+            .subscribe { sendMessage(rxSyncPath, it.payload.serializeByte()) }
     }
 
     override fun onCapabilityChanged(p0: CapabilityInfo) {
@@ -127,6 +135,8 @@ class DataLayerListenerServiceMobile : WearableListenerService() {
             )
             aapsLogger.debug(LTag.WEAR, "Nodes: ${capabilityInfo.nodes.joinToString(", ") { it.displayName + "(" + it.id + ")" }}")
             val bestNode = pickBestNodeId(capabilityInfo.nodes)
+            // watch doesn't have to know last acknowledged data after reconnect
+            wearSync.reset()
             transcriptionNodeId = bestNode?.id
             wearPlugin.updateConnectedDevice(bestNode?.displayName)
             rxBus.send(EventWearUpdateGui())
@@ -0,0 +1,96 @@
+package app.aaps.plugins.sync.wear.wearintegration
+
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
+import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.rx.events.EventMobileDataToWear
+import app.aaps.core.interfaces.rx.events.EventMobileToWear
+import app.aaps.core.interfaces.rx.weardata.EventData
+import app.aaps.core.interfaces.rx.weardata.WearSyncContent
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Sends graph and treatment data to watch as [EventData.WearSyncDelta] against last acknowledged content.
+ *
+ * Every delta has a new sequence number and watch acknowledges it by [EventData.WearSyncAck].
+ * Lost deltas are covered by the next one because it is computed from acknowledged content again.
+ * Snapshot is sent on first update, after reconnect and when watch asks for resync (missing base).
+ * Watches without delta support never acknowledge and keep receiving whole [EventData.GraphData] and [EventData.TreatmentData].
+ */
+@Singleton
+class WearSync @Inject constructor(
+    private val rxBus: RxBus,
+    private val aapsLogger: AAPSLogger
+) {
+
+    private var supported = false
+    private var sequence = 0L
+    private var acknowledgedSequence = 0L
+    private var acknowledged: WearSyncContent? = null
+    private var latest: WearSyncContent? = null
+    private var snapshotSequence = 0L
+
+    /** Sent but not acknowledged contents by sequence */
+    private val sent = LinkedHashMap<Long, WearSyncContent>()
+
+    /**
+     * @param graphData new graph, null if not available
+     * @param treatmentData new treatments, null if not available
+     */
+    @Synchronized
+    fun send(graphData: EventData.GraphData?, treatmentData: EventData.TreatmentData?) {
+        if (graphData == null && treatmentData == null) return
+        val content = WearSyncContent.of(graphData, treatmentData, latest)
+        if (!supported || content == null) {
+            if (content != null) latest = content
+            graphData?.let { rxBus.send(EventMobileToWear(it)) }
+            treatmentData?.let { rxBus.send(EventMobileToWear(it)) }
+            return
+        }
+        latest = content
+        // content is sent again while it is not acknowledged
+        if (acknowledged?.sameAs(content) == true) return
+        sendDelta(content)
+    }
+
+    @Synchronized
+    fun onAck(ack: EventData.WearSyncAck) {
+        supported = true
+        if (ack.resync) {
+            // resync of delta older than last snapshot is already handled by that snapshot
+            if (ack.sequence != 0L && ack.sequence < snapshotSequence) return
+            aapsLogger.debug(LTag.WEAR, "WearSync resync requested at ${ack.sequence}")
+            acknowledged = null
+            sent.clear()
+            latest?.let { sendDelta(it) }
+            return
+        }
+        val content = sent[ack.sequence] ?: return
+        acknowledgedSequence = ack.sequence
+        acknowledged = content
+        sent.keys.removeAll { it <= ack.sequence }
+    }
+
+    /** Watch connection has changed, state of watch is unknown */
+    @Synchronized
+    fun reset() {
+        supported = false
+        acknowledged = null
+        sent.clear()
+    }
+
+    private fun sendDelta(content: WearSyncContent) {
+        val delta = content.deltaFrom(++sequence, acknowledgedSequence, acknowledged)
+        if (delta.baseSequence == 0L) snapshotSequence = sequence
+        sent[sequence] = content
+        while (sent.size > MAX_UNACKNOWLEDGED) sent.remove(sent.keys.first())
+        aapsLogger.debug(LTag.WEAR, "WearSync sending ${delta.sequence} based on ${delta.baseSequence}")
+        rxBus.send(EventMobileDataToWear(delta))
+    }
+
+    companion object {
+
+        private const val MAX_UNACKNOWLEDGED = 8
+    }
+}
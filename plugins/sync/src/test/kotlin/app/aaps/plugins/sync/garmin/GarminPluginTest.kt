@@ -20,7 +20,6 @@ import org.junit.jupiter.api.Assertions.assertThrows
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.mockito.ArgumentCaptor
-import org.mockito.ArgumentMatchers.anyLong
 import org.mockito.Mock
 import org.mockito.kotlin.any
 import org.mockito.kotlin.anyOrNull
@@ -28,6 +27,7 @@ import org.mockito.kotlin.atLeastOnce
 import org.mockito.kotlin.atMost
 import org.mockito.kotlin.eq
 import org.mockito.kotlin.mock
+import org.mockito.kotlin.timeout
 import org.mockito.kotlin.times
 import org.mockito.kotlin.verify
 import org.mockito.kotlin.verifyNoMoreInteractions
@@ -41,7 +41,8 @@ import java.time.Duration
 import java.time.Instant
 import java.time.ZoneId
 import java.time.temporal.ChronoUnit
-import java.util.concurrent.locks.Condition
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
 import kotlin.ranges.LongProgression.Companion.fromClosedRange
 
 class GarminPluginTest : TestBaseWithProfile() {
@@ -146,12 +147,41 @@ class GarminPluginTest : TestBaseWithProfile() {
         val from = getGlucoseValuesFrom
         val lastTimestamp = clock.instant()
         val prev = createGlucoseValue(clock.instant())
-        gp.newValue = mock<Condition>()
         whenever(loopHub.getGlucoseValues(from, true)).thenReturn(listOf(prev))
         gp.onNewBloodGlucose(listOf(createGlucoseValue(lastTimestamp)))
         assertArrayEquals(arrayOf(prev), gp.getGlucoseValues().toTypedArray())
 
-        verify(gp.newValue).signalAll()
+        verify(loopHub).getGlucoseValues(from, true)
+    }
+
+    @Test
+    fun testGetGlucoseValues_Snapshot() {
+        val from = getGlucoseValuesFrom
+        val prev = createGlucoseValue(clock.instant().minusSeconds(310))
+        val last = createGlucoseValue(clock.instant())
+        whenever(loopHub.getGlucoseValues(from, true)).thenReturn(listOf(prev))
+        assertArrayEquals(arrayOf(prev), gp.getGlucoseValues().toTypedArray())
+        assertArrayEquals(arrayOf(prev), gp.getGlucoseValues().toTypedArray())
+        verify(loopHub).getGlucoseValues(from, true)
+
+        // new value outdates snapshot
+        whenever(loopHub.getGlucoseValues(from, true)).thenReturn(listOf(prev, last))
+        gp.onNewBloodGlucose(listOf(last))
+        assertArrayEquals(arrayOf(prev, last), gp.getGlucoseValues().toTypedArray())
+        verify(loopHub, times(2)).getGlucoseValues(from, true)
+    }
+
+    @Test
+    fun testGetGlucoseValues_SnapshotWindowMoves() {
+        val from = getGlucoseValuesFrom
+        val old = createGlucoseValue(from)
+        val prev = createGlucoseValue(clock.instant().minusSeconds(310))
+        whenever(loopHub.getGlucoseValues(from, true)).thenReturn(listOf(old, prev))
+        assertArrayEquals(arrayOf(old, prev), gp.getGlucoseValues().toTypedArray())
+
+        // values leaving the window are dropped without reading again
+        gp.clock = Clock.offset(clock, Duration.ofMinutes(1))
+        assertArrayEquals(arrayOf(prev), gp.getGlucoseValues().toTypedArray())
         verify(loopHub).getGlucoseValues(from, true)
     }
 
@@ -179,7 +209,8 @@ class GarminPluginTest : TestBaseWithProfile() {
         }
         gp.onStop()
 
-        verify(loopHub, times(2)).getGlucoseValues(anyOrNull(), eq(true))
+        // glucose values are read once, second request is served from snapshot
+        verify(loopHub).getGlucoseValues(anyOrNull(), eq(true))
         verify(loopHub, times(2)).insulinOnboard
         verify(loopHub, times(2)).temporaryBasal
         verify(loopHub, times(2)).isConnected
@@ -188,6 +219,34 @@ class GarminPluginTest : TestBaseWithProfile() {
         verify(loopHub, times(2)).highGlucoseMark
     }
 
+    @Test
+    fun setupHttpServer_waitCompletesOnNewValue() = runBlocking {
+        whenever(preferences.get(GarminStringKey.RequestKey)).thenReturn("")
+        whenever(preferences.get(GarminBooleanKey.LocalHttpServer)).thenReturn(true)
+        whenever(preferences.get(GarminIntKey.LocalHttpPort)).thenReturn(28891)
+        val old = createGlucoseValue(clock.instant().minusSeconds(330))
+        val new = createGlucoseValue(clock.instant())
+        whenever(loopHub.getGlucoseValues(getGlucoseValuesFrom, true)).thenReturn(listOf(old))
+        gp.setupHttpServer(Duration.ofSeconds(10))
+        val request = CompletableFuture.supplyAsync {
+            val resp = URI("http://127.0.0.1:28891/get?wait=60").toURL().openConnection() as HttpURLConnection
+            resp.inputStream.use { it.reader().readText() }
+        }
+        verify(loopHub, timeout(10_000)).getGlucoseValues(getGlucoseValuesFrom, true)
+
+        whenever(loopHub.getGlucoseValues(getGlucoseValuesFrom, true)).thenReturn(listOf(old, new))
+        gp.onNewBloodGlucose(listOf(new))
+        // parked request is answered with the new value instead of waiting the whole minute
+        val expected = (gp.onGetBloodGlucose(createUri(emptyMap())) as HttpServer.Reply.Now).body.toString()
+        assertEquals(expected, request.get(30, TimeUnit.SECONDS))
+        gp.onStop()
+
+        verify(loopHub, atLeastOnce()).getGlucoseValues(getGlucoseValuesFrom, true)
+        verify(loopHub, times(2)).isConnected
+        verify(loopHub, times(2)).glucoseUnit
+        Unit
+    }
+
     @Test
     fun setupHttpServer_disabled() {
         gp.setupHttpServer(Duration.ofSeconds(10))
@@ -203,7 +262,7 @@ class GarminPluginTest : TestBaseWithProfile() {
         val uri = createUri(emptyMap())
         val handler = gp.requestHandler { u: URI -> assertEquals(uri, u); "OK" }
         assertEquals(
-            HttpURLConnection.HTTP_OK to "OK",
+            HttpServer.Reply.Now(HttpURLConnection.HTTP_OK, "OK"),
             handler(mock<SocketAddress>(), uri, null)
         )
     }
@@ -214,7 +273,7 @@ class GarminPluginTest : TestBaseWithProfile() {
         val uri = createUri(mapOf("key" to "foo"))
         val handler = gp.requestHandler { u: URI -> assertEquals(uri, u); "OK" }
         assertEquals(
-            HttpURLConnection.HTTP_OK to "OK",
+            HttpServer.Reply.Now(HttpURLConnection.HTTP_OK, "OK"),
             handler(mock<SocketAddress>(), uri, null)
         )
     }
@@ -225,7 +284,7 @@ class GarminPluginTest : TestBaseWithProfile() {
         val uri = createUri(mapOf("key" to "foo"))
         val handler = gp.requestHandler { u: URI -> assertEquals(uri, u); "OK" }
         assertEquals(
-            HttpURLConnection.HTTP_OK to "OK",
+            HttpServer.Reply.Now(HttpURLConnection.HTTP_OK, "OK"),
             handler(mock<SocketAddress>(), uri, null)
         )
 
@@ -239,7 +298,7 @@ class GarminPluginTest : TestBaseWithProfile() {
         val uri = createUri(emptyMap())
         val handler = gp.requestHandler { u: URI -> assertEquals(uri, u); "OK" }
         assertEquals(
-            HttpURLConnection.HTTP_UNAUTHORIZED to "{}",
+            HttpServer.Reply.Delayed(Duration.ofSeconds(1), HttpURLConnection.HTTP_UNAUTHORIZED, "{}"),
             handler(mock<SocketAddress>(), uri, null)
         )
 
@@ -311,7 +370,7 @@ class GarminPluginTest : TestBaseWithProfile() {
                 """"lowGlucoseMark":70,"highGlucoseMark":130,""" +
                 """"glucoseUnit":"mmoll","temporaryBasalRate":0.8,""" +
                 """"profile":"D","connected":true}""",
-            result.toString()
+            (result as HttpServer.Reply.Now).body.toString()
         )
         verify(loopHub).getGlucoseValues(from, true)
         verify(loopHub).insulinOnboard
@@ -341,17 +400,19 @@ class GarminPluginTest : TestBaseWithProfile() {
         val params = createHeartRate(99).toMutableMap()
         params["wait"] = 10
         val uri = createUri(params)
-        gp.newValue = mock<Condition>()
         val result = gp.onGetBloodGlucose(uri)
+        // request is parked instead of blocking a worker, response is computed when resumed
+        assertEquals(Duration.ofSeconds(10), (result as HttpServer.Reply.Parked).maxWait)
         assertEquals(
-            """{"encodedGlucose":"/wS6AQ==",""" +
+            HttpURLConnection.HTTP_OK to
+                """{"encodedGlucose":"/wS6AQ==",""" +
                 """"remainingInsulin":3.14,"remainingBasalInsulin":0.0,""" +
                 """"glucoseUnit":"mmoll","temporaryBasalRate":0.8,""" +
                 """"profile":"D","connected":true}""",
-            result.toString()
+            result.resume().let { (code, body) -> code to body.toString() }
         )
-        verify(gp.newValue).awaitNanos(anyLong())
-        verify(loopHub, times(2)).getGlucoseValues(from, true)
+        // no new value arrived while waiting, snapshot is reused
+        verify(loopHub).getGlucoseValues(from, true)
         verify(loopHub).insulinOnboard
         verify(loopHub).temporaryBasal
         verify(loopHub).isConnected
@@ -457,7 +518,18 @@ class GarminPluginTest : TestBaseWithProfile() {
                 """{"date":-290000,"sgv":120,"delta":10,"direction":"Flat","noise":4.5}]""",
             gp.onSgv(createUri(mapOf("count" to "2", "brief_mode" to "true")))
         )
-        verify(loopHub, times(2)).getGlucoseValues(
+        // same window is served from snapshot
+        verify(loopHub).getGlucoseValues(
+            clock.instant().minusSeconds(900L), false
+        )
+
+        // alternating windows don't evict each other
+        gp.onSgv(createUri(mapOf("count" to "1")))
+        gp.onSgv(createUri(mapOf("count" to "2")))
+        verify(loopHub).getGlucoseValues(
+            clock.instant().minusSeconds(600L), false
+        )
+        verify(loopHub).getGlucoseValues(
             clock.instant().minusSeconds(900L), false
         )
 
@@ -7,13 +7,22 @@ import org.junit.jupiter.api.Test
 import java.io.ByteArrayInputStream
 import java.io.InputStream
 import java.net.HttpURLConnection
+import java.net.ServerSocket
+import java.net.Socket
 import java.net.SocketAddress
 import java.net.URI
 import java.nio.charset.Charset
 import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 internal class HttpServerTest: TestBase() {
 
+    /** Port free at the moment, so tests don't collide on fixed ports */
+    private fun freePort(): Int = ServerSocket(0).use { it.localPort }
+
     private fun toInputStream(s: String): InputStream {
         return ByteArrayInputStream(s.toByteArray(Charset.forName("ASCII")))
     }
@@ -96,4 +105,119 @@ internal class HttpServerTest: TestBase() {
             assertEquals(404, resp.responseCode)
         }
     }
+
+    @Test fun testRequestLength() {
+        val get = "GET /foo HTTP/1.1\r\nHost: x\r\n\r\n".toByteArray()
+        assertEquals(-1, HttpServer.requestLength(get, get.size - 2, false))
+        assertEquals(get.size, HttpServer.requestLength(get, get.size, false))
+        val twoGets = get + get
+        assertEquals(get.size, HttpServer.requestLength(twoGets, twoGets.size, false))
+        val post = "POST /foo HTTP/1.1\r\ncontent-length: 3\r\n\r\na=1".toByteArray()
+        assertEquals(-1, HttpServer.requestLength(post, post.size - 1, false))
+        assertEquals(post.size, HttpServer.requestLength(post, post.size, false))
+        val postNoLength = "POST /foo HTTP/1.1\n\na=1".toByteArray()
+        assertEquals(-1, HttpServer.requestLength(postNoLength, postNoLength.size, false))
+        assertEquals(postNoLength.size, HttpServer.requestLength(postNoLength, postNoLength.size, true))
+    }
+
+    @Test fun testRequest_NotModified() {
+        val port = 28896
+        val reqUri = URI("http://127.0.0.1:$port/foo")
+        HttpServer(aapsLogger, port).use { server ->
+            server.registerEndpoint("/foo") { _: SocketAddress, _: URI, _: String? -> HttpURLConnection.HTTP_OK to "test" }
+            assertTrue(server.awaitReady(Duration.ofSeconds(10)))
+            val resp = reqUri.toURL().openConnection() as HttpURLConnection
+            assertEquals(200, resp.responseCode)
+            val eTag = resp.getHeaderField("ETag")
+            assertEquals(HttpServer.eTag("test".toByteArray()), eTag)
+            resp.inputStream.use { it.readBytes() }
+
+            val resp2 = reqUri.toURL().openConnection() as HttpURLConnection
+            resp2.setRequestProperty("If-None-Match", eTag)
+            assertEquals(304, resp2.responseCode)
+        }
+    }
+
+    @Test fun testRequest_KeepAlive() {
+        val port = 28897
+        var count = 0
+        HttpServer(aapsLogger, port).use { server ->
+            server.registerEndpoint("/foo") { _: SocketAddress, _: URI, _: String? -> HttpURLConnection.HTTP_OK to "test${++count}" }
+            assertTrue(server.awaitReady(Duration.ofSeconds(10)))
+            Socket("127.0.0.1", port).use { socket ->
+                socket.soTimeout = 10_000
+                val request = "GET /foo HTTP/1.1\r\nHost: localhost\r\n\r\n".toByteArray(Charsets.US_ASCII)
+                // second request is sent before first response
+                socket.getOutputStream().write(request + request)
+                val input = socket.getInputStream()
+                for (i in 1..2) {
+                    val head = generateSequence { input.read().takeIf { it >= 0 } }
+                        .runningFold("") { acc, c -> acc + c.toChar() }
+                        .first { it.endsWith("\r\n\r\n") }
+                    assertTrue(head.startsWith("HTTP/1.1 200"))
+                    assertTrue(head.contains("Content-Length: 5"))
+                    assertEquals("test$i", String(ByteArray(5) { input.read().toByte() }))
+                }
+            }
+        }
+    }
+
+    @Test fun testRequest_ParkedDoesNotBlockWorkers() {
+        val port = freePort()
+        HttpServer(aapsLogger, port).use { server ->
+            val arrived = AtomicInteger()
+            val resumed = AtomicInteger()
+            server.registerReplyEndpoint("/wait") { _: SocketAddress, _: URI, _: String? ->
+                arrived.incrementAndGet()
+                HttpServer.Reply.Parked(Duration.ofMinutes(1)) { HttpURLConnection.HTTP_OK to "woken${resumed.incrementAndGet()}" }
+            }
+            server.registerEndpoint("/foo") { _: SocketAddress, _: URI, _: String? -> HttpURLConnection.HTTP_OK to "test" }
+            assertTrue(server.awaitReady(Duration.ofSeconds(10)))
+            // more parked requests than workers
+            val clients = Executors.newFixedThreadPool(8)
+            val parked = List(8) {
+                CompletableFuture.supplyAsync({
+                    val resp = URI("http://127.0.0.1:$port/wait").toURL().openConnection() as HttpURLConnection
+                    resp.inputStream.use { it.reader().readText() }
+                }, clients)
+            }
+            while (arrived.get() < 8) Thread.sleep(10L)
+            // other requests are still served
+            val resp = URI("http://127.0.0.1:$port/foo").toURL().openConnection() as HttpURLConnection
+            resp.readTimeout = 10_000
+            assertEquals(200, resp.responseCode)
+            assertTrue(parked.none { it.isDone })
+
+            server.wakeParked()
+            assertEquals((1..8).map { "woken$it" }.toSet(), parked.map { it.get(10, TimeUnit.SECONDS) }.toSet())
+            clients.shutdown()
+        }
+    }
+
+    @Test fun testRequest_ParkedResumesAfterMaxWait() {
+        val port = freePort()
+        HttpServer(aapsLogger, port).use { server ->
+            server.registerReplyEndpoint("/wait") { _: SocketAddress, _: URI, _: String? ->
+                HttpServer.Reply.Parked(Duration.ofMillis(100)) { HttpURLConnection.HTTP_OK to "timeout" }
+            }
+            assertTrue(server.awaitReady(Duration.ofSeconds(10)))
+            val resp = URI("http://127.0.0.1:$port/wait").toURL().openConnection() as HttpURLConnection
+            resp.readTimeout = 10_000
+            assertEquals(200, resp.responseCode)
+            assertEquals("timeout", resp.inputStream.use { it.reader().readText() })
+        }
+    }
+
+    @Test fun testRequest_Delayed() {
+        val port = freePort()
+        HttpServer(aapsLogger, port).use { server ->
+            server.registerReplyEndpoint("/foo") { _: SocketAddress, _: URI, _: String? ->
+                HttpServer.Reply.Delayed(Duration.ofMillis(100), HttpURLConnection.HTTP_UNAUTHORIZED, "{}")
+            }
+            assertTrue(server.awaitReady(Duration.ofSeconds(10)))
+            val resp = URI("http://127.0.0.1:$port/foo").toURL().openConnection() as HttpURLConnection
+            resp.readTimeout = 10_000
+            assertEquals(401, resp.responseCode)
+        }
+    }
 }
@@ -6,6 +6,7 @@ import app.aaps.core.data.model.IDs
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.nsclient.NSClientRepository
 import app.aaps.core.interfaces.nsclient.StoreDataForDb
+import app.aaps.core.interfaces.profiling.Profiler
 import app.aaps.core.interfaces.pump.VirtualPump
 import app.aaps.core.interfaces.source.BgSource
 import app.aaps.core.interfaces.source.NSClientSource
@@ -27,6 +28,7 @@ import org.mockito.Mock
 import org.mockito.internal.verification.Times
 import org.mockito.kotlin.any
 import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.argThat
 import org.mockito.kotlin.clearInvocations
 import org.mockito.kotlin.eq
 import org.mockito.kotlin.verify
@@ -39,6 +41,7 @@ class DataSyncSelectorV3Test : TestBaseWithProfile() {
     @Mock lateinit var nsClient: NsClient
     @Mock lateinit var nsClientRepository: NSClientRepository
     @Mock lateinit var nsClientV3Plugin: NSClientV3Plugin
+    @Mock lateinit var profiler: Profiler
 
     private lateinit var storeDataForDb: StoreDataForDb
     private lateinit var sut: DataSyncSelectorV3
@@ -46,7 +49,7 @@ class DataSyncSelectorV3Test : TestBaseWithProfile() {
     @BeforeEach
     fun setUp() {
         storeDataForDb = StoreDataForDbImpl(aapsLogger, persistenceLayer, preferences, config, virtualPump, nsClientRepository, CoroutineScope(SupervisorJob() + Dispatchers.Unconfined))
-        sut = DataSyncSelectorV3(preferences, aapsLogger, dateUtil, profileFunction, activePlugin, profileRepository, persistenceLayer, storeDataForDb, config, nsClientRepository, dagger.Lazy { nsClientV3Plugin })
+        sut = DataSyncSelectorV3(preferences, aapsLogger, dateUtil, profileFunction, activePlugin, profileRepository, persistenceLayer, storeDataForDb, config, nsClientRepository, dagger.Lazy { nsClientV3Plugin }, profiler)
     }
 
     @Test
@@ -943,6 +946,91 @@ class DataSyncSelectorV3Test : TestBaseWithProfile() {
         Unit
     }
 
+    @Test
+    fun processChangedBolusesConfirmsOncePerPageTest() = runTest {
+        whenever(preferences.get(NsclientBooleanKey.NsPaused)).thenReturn(false)
+        whenever(persistenceLayer.getLastBolusId()).thenReturn(10L)
+        whenever(preferences.get(NsclientLongKey.BolusLastSyncedId)).thenReturn(5L)
+        whenever(activePlugin.activeNsClient).thenReturn(nsClient)
+
+        for (id in 6L..8L) {
+            val bolus = BS(id = id, timestamp = id * 1000L, amount = 1.0, type = BS.Type.NORMAL, ids = IDs(), iCfg = someICfg)
+            whenever(persistenceLayer.getNextSyncElementBolus(id - 1)).thenReturn(Pair(bolus, bolus))
+        }
+        whenever(nsClient.nsAdd(eq("treatments"), any<DataSyncSelector.PairBolus>(), any(), anyOrNull())).thenReturn(true)
+
+        sut.processChangedBoluses()
+
+        verify(nsClient, Times(3)).nsAdd(eq("treatments"), any<DataSyncSelector.PairBolus>(), any(), anyOrNull())
+        // cursor is stored once for the whole page
+        verify(preferences, Times(1)).put(eq(NsclientLongKey.BolusLastSyncedId), any<Long>())
+        verify(preferences, Times(1)).put(NsclientLongKey.BolusLastSyncedId, 8L)
+    }
+
+    @Test
+    fun processChangedBolusesConfirmsUpToFailureTest() = runTest {
+        whenever(preferences.get(NsclientBooleanKey.NsPaused)).thenReturn(false)
+        whenever(persistenceLayer.getLastBolusId()).thenReturn(10L)
+        whenever(preferences.get(NsclientLongKey.BolusLastSyncedId)).thenReturn(5L)
+        whenever(activePlugin.activeNsClient).thenReturn(nsClient)
+
+        for (id in 6L..8L) {
+            val bolus = BS(id = id, timestamp = id * 1000L, amount = 1.0, type = BS.Type.NORMAL, ids = IDs(), iCfg = someICfg)
+            whenever(persistenceLayer.getNextSyncElementBolus(id - 1)).thenReturn(Pair(bolus, bolus))
+        }
+        whenever(nsClient.nsAdd(eq("treatments"), any<DataSyncSelector.PairBolus>(), any(), anyOrNull())).thenReturn(true)
+        whenever(nsClient.nsAdd(eq("treatments"), argThat<DataSyncSelector.DataPair> { id == 7L }, any(), anyOrNull())).thenReturn(false)
+
+        sut.processChangedBoluses()
+
+        // 6 is acknowledged, 7 failed, 8 is uploaded again on next run
+        verify(preferences, Times(1)).put(NsclientLongKey.BolusLastSyncedId, 6L)
+        verify(preferences, Times(0)).put(NsclientLongKey.BolusLastSyncedId, 8L)
+    }
+
+    @Test
+    fun processChangedBolusesUploadsNewRecordOncePerPageTest() = runTest {
+        whenever(preferences.get(NsclientBooleanKey.NsPaused)).thenReturn(false)
+        whenever(persistenceLayer.getLastBolusId()).thenReturn(10L)
+        whenever(preferences.get(NsclientLongKey.BolusLastSyncedId)).thenReturn(5L)
+        whenever(activePlugin.activeNsClient).thenReturn(nsClient)
+
+        // bolus 6 is created and modified before it is uploaded, 7 is its historic record
+        val bolus = BS(id = 6, timestamp = 1000L, amount = 5.5, type = BS.Type.NORMAL, ids = IDs(), iCfg = someICfg)
+        val historic = BS(id = 7, timestamp = 1000L, amount = 5.0, type = BS.Type.NORMAL, referenceId = 6, ids = IDs(), iCfg = someICfg)
+        whenever(persistenceLayer.getNextSyncElementBolus(5L)).thenReturn(Pair(bolus, bolus))
+        whenever(persistenceLayer.getNextSyncElementBolus(6L)).thenReturn(Pair(bolus, historic))
+        whenever(nsClient.nsAdd(eq("treatments"), any<DataSyncSelector.PairBolus>(), any(), anyOrNull())).thenReturn(true)
+
+        sut.processChangedBoluses()
+
+        // only the last change is uploaded, both are acknowledged
+        verify(nsClient, Times(1)).nsAdd(eq("treatments"), argThat<DataSyncSelector.DataPair> { id == 7L }, any(), anyOrNull())
+        verify(nsClient, Times(1)).nsAdd(any(), any<DataSyncSelector.PairBolus>(), any(), anyOrNull())
+        verify(preferences, Times(1)).put(NsclientLongKey.BolusLastSyncedId, 7L)
+    }
+
+    @Test
+    fun processChangedBolusesUpdatesExistingRecordForEveryChangeTest() = runTest {
+        whenever(preferences.get(NsclientBooleanKey.NsPaused)).thenReturn(false)
+        whenever(persistenceLayer.getLastBolusId()).thenReturn(10L)
+        whenever(preferences.get(NsclientLongKey.BolusLastSyncedId)).thenReturn(5L)
+        whenever(activePlugin.activeNsClient).thenReturn(nsClient)
+
+        val bolus = BS(id = 4, timestamp = 1000L, amount = 6.0, type = BS.Type.NORMAL, ids = IDs(nightscoutId = "ns123"), iCfg = someICfg)
+        val historic1 = BS(id = 6, timestamp = 1000L, amount = 5.0, type = BS.Type.NORMAL, referenceId = 4, ids = IDs(nightscoutId = "ns123"), iCfg = someICfg)
+        val historic2 = BS(id = 7, timestamp = 1000L, amount = 5.5, type = BS.Type.NORMAL, referenceId = 4, ids = IDs(nightscoutId = "ns123"), iCfg = someICfg)
+        whenever(persistenceLayer.getNextSyncElementBolus(5L)).thenReturn(Pair(bolus, historic1))
+        whenever(persistenceLayer.getNextSyncElementBolus(6L)).thenReturn(Pair(bolus, historic2))
+        whenever(nsClient.nsUpdate(eq("treatments"), any<DataSyncSelector.PairBolus>(), any(), anyOrNull())).thenReturn(true)
+
+        sut.processChangedBoluses()
+
+        // record known to NS cannot be duplicated, updates are not coalesced
+        verify(nsClient, Times(2)).nsUpdate(eq("treatments"), any<DataSyncSelector.PairBolus>(), any(), anyOrNull())
+        verify(preferences, Times(1)).put(NsclientLongKey.BolusLastSyncedId, 7L)
+    }
+
     // Tests for processChangedCarbs with getNextSyncElement returning data
 
     @Test
@@ -1065,8 +1153,9 @@ class DataSyncSelectorV3Test : TestBaseWithProfile() {
 
         // Verify all carbs were synced
         verify(nsClient, Times(3)).nsAdd(eq("treatments"), any<DataSyncSelector.PairCarbs>(), any(), anyOrNull())
-        verify(preferences, Times(1)).put(NsclientLongKey.CarbsLastSyncedId, 6L)
-        verify(preferences, Times(1)).put(NsclientLongKey.CarbsLastSyncedId, 7L)
+        // cursor is moved once per page
+        verify(preferences, Times(0)).put(NsclientLongKey.CarbsLastSyncedId, 6L)
+        verify(preferences, Times(0)).put(NsclientLongKey.CarbsLastSyncedId, 7L)
         verify(preferences, Times(1)).put(NsclientLongKey.CarbsLastSyncedId, 8L)
     }
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package app.aaps.plugins.sync.nsclientV3
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.util.UUID
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Local Nightscout v3 server for upload throughput tests
+ *
+ * Accepts create (POST) and update (PATCH) of documents in any collection under /api/v3/
+ * and answers like Nightscout does. Every request is delayed by [latencyMs] to simulate network round trip.
+ */
+class MockNightscoutV3Server(private val latencyMs: Long = 0) : AutoCloseable {
+
+    private val executor = Executors.newCachedThreadPool()
+    private val server = HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0).also {
+        it.executor = executor
+        it.createContext("/api/v3/") { exchange -> handle(exchange) }
+        it.start()
+    }
+
+    val baseUrl: String get() = "http://${server.address.hostString}:${server.address.port}/api/"
+
+    /** Number of handled requests */
+    val requests = AtomicInteger(0)
+    private val inFlight = AtomicInteger(0)
+
+    /** Maximal number of requests handled at the same time */
+    val maxInFlight = AtomicInteger(0)
+
+    private fun handle(exchange: HttpExchange) {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet()) { a, b -> maxOf(a, b) }
+        try {
+            exchange.requestBody.use { it.readBytes() }
+            if (latencyMs > 0) Thread.sleep(latencyMs)
+            val (code, body) = when (exchange.requestMethod) {
+                "POST"  -> 201 to """{"status":201,"identifier":"${UUID.randomUUID()}","lastModified":${System.currentTimeMillis()}}"""
+                "PATCH" -> 200 to """{"status":200}"""
+                else    -> 405 to """{"status":405}"""
+            }
+            requests.incrementAndGet()
+            val bytes = body.toByteArray()
+            exchange.responseHeaders.add("Content-Type", "application/json")
+            exchange.sendResponseHeaders(code, bytes.size.toLong())
+            exchange.responseBody.use { it.write(bytes) }
+        } finally {
+            inFlight.decrementAndGet()
+        }
+    }
+
+    override fun close() {
+        server.stop(0)
+        executor.shutdownNow()
+    }
+}
@@ -0,0 +1,95 @@
+package app.aaps.plugins.sync.nsclientV3
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.IDs
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.nsclient.NSClientRepository
+import app.aaps.core.interfaces.nsclient.StoreDataForDb
+import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.sync.DataSyncSelector
+import app.aaps.core.interfaces.sync.NsClient
+import app.aaps.shared.tests.TestBaseWithProfile
+import app.aaps.shared.tests.benchmark.Benchmark
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.test.runTest
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.whenever
+
+/**
+ * Upload throughput against [MockNightscoutV3Server] with simulated network latency
+ */
+@EnabledIfSystemProperty(named = Benchmark.PROPERTY, matches = "true")
+class NsUploadBenchmark : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var nsClient: NsClient
+    @Mock lateinit var nsClientRepository: NSClientRepository
+    @Mock lateinit var nsClientV3Plugin: NSClientV3Plugin
+    @Mock lateinit var profiler: Profiler
+    @Mock lateinit var storeDataForDb: StoreDataForDb
+
+    private val records = 500
+    private val latencyMs = 20L
+    private lateinit var server: MockNightscoutV3Server
+    private val httpClient = OkHttpClient()
+
+    private val boluses = List(records) { index ->
+        val id = index + 1L
+        BS(id = id, timestamp = id * 60_000L, amount = 1.0, type = BS.Type.NORMAL, ids = IDs(), iCfg = someICfg)
+    }
+
+    private fun post(collection: String, id: Long): Boolean {
+        val request = Request.Builder()
+            .url(server.baseUrl + "v3/$collection")
+            .post("""{"identifier":null,"id":$id}""".toRequestBody("application/json".toMediaType()))
+            .build()
+        httpClient.newCall(request).execute().use { return it.isSuccessful }
+    }
+
+    @BeforeEach
+    fun setup() {
+        server = MockNightscoutV3Server(latencyMs)
+        whenever(activePlugin.activeNsClient).thenReturn(nsClient)
+        runTest {
+            whenever(persistenceLayer.getLastBolusId()).thenReturn(records.toLong())
+            boluses.forEach { bolus -> whenever(persistenceLayer.getNextSyncElementBolus(bolus.id - 1)).thenReturn(Pair(bolus, bolus)) }
+            whenever(nsClient.nsAdd(any(), any(), any(), anyOrNull())).thenAnswer { post(it.getArgument(0), it.getArgument<DataSyncSelector.DataPair>(1).id) }
+        }
+    }
+
+    @AfterEach
+    fun tearDown() {
+        server.close()
+    }
+
+    @Test
+    fun pagedUpload() {
+        val sut = DataSyncSelectorV3(preferences, aapsLogger, dateUtil, profileFunction, activePlugin, profileRepository, persistenceLayer, storeDataForDb, config, nsClientRepository, dagger.Lazy { nsClientV3Plugin }, profiler)
+        Benchmark.measure("DataSyncSelectorV3.processChangedBoluses ($records records, $latencyMs ms latency)", warmupIterations = 1, iterations = 5) {
+            runBlocking(Dispatchers.IO) { sut.processChangedBoluses() }
+        }
+        println("Requests: ${server.requests.get()} max in flight: ${server.maxInFlight.get()}")
+    }
+
+    @Test
+    fun oneRecordPerRoundTrip() {
+        // previous behavior: next record is sent after previous one is acknowledged
+        val pipeline = NsUploadPipeline()
+        Benchmark.measure("One record per round trip ($records records, $latencyMs ms latency)", warmupIterations = 1, iterations = 5) {
+            runBlocking(Dispatchers.IO) {
+                pipeline.upload(boluses, maxInFlight = 1) { if (post("treatments", it.id)) NsUploadPipeline.Result.ADDED else NsUploadPipeline.Result.FAILED }
+            }
+        }
+    }
+}
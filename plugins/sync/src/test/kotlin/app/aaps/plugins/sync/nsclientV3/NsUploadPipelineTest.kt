@@ -0,0 +1,62 @@
+package app.aaps.plugins.sync.nsclientV3
+
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class NsUploadPipelineTest {
+
+    private val sut = NsUploadPipeline()
+
+    @Test
+    fun resultsAreInRecordOrder() = runTest {
+        // later records finish first
+        val results = sut.upload((1..10).toList()) { record ->
+            delay(100L - record * 10)
+            if (record % 2 == 0) NsUploadPipeline.Result.ADDED else NsUploadPipeline.Result.IGNORED
+        }
+
+        assertThat(results).hasSize(10)
+        results.forEachIndexed { index, result ->
+            assertThat(result).isEqualTo(if ((index + 1) % 2 == 0) NsUploadPipeline.Result.ADDED else NsUploadPipeline.Result.IGNORED)
+        }
+        assertThat(sut.acknowledged(results)).isEqualTo(10)
+    }
+
+    @Test
+    fun inFlightUploadsAreBounded() = runTest {
+        val inFlight = AtomicInteger(0)
+        val maxSeen = AtomicInteger(0)
+
+        sut.upload((1..20).toList(), maxInFlight = 3) {
+            maxSeen.accumulateAndGet(inFlight.incrementAndGet()) { a, b -> maxOf(a, b) }
+            delay(10)
+            inFlight.decrementAndGet()
+            NsUploadPipeline.Result.ADDED
+        }
+
+        assertThat(maxSeen.get()).isEqualTo(3)
+    }
+
+    @Test
+    fun noUploadIsStartedAfterFailure() = runTest {
+        val uploaded = mutableListOf<Int>()
+
+        val results = sut.upload((1..6).toList(), maxInFlight = 1) { record ->
+            uploaded.add(record)
+            if (record == 3) NsUploadPipeline.Result.FAILED else NsUploadPipeline.Result.UPDATED
+        }
+
+        assertThat(uploaded).containsExactly(1, 2, 3).inOrder()
+        assertThat(results.drop(3)).containsExactly(NsUploadPipeline.Result.SKIPPED, NsUploadPipeline.Result.SKIPPED, NsUploadPipeline.Result.SKIPPED)
+        assertThat(sut.acknowledged(results)).isEqualTo(2)
+    }
+
+    @Test
+    fun nothingIsAcknowledgedWhenFirstFails() {
+        assertThat(sut.acknowledged(listOf(NsUploadPipeline.Result.FAILED, NsUploadPipeline.Result.ADDED))).isEqualTo(0)
+        assertThat(sut.acknowledged(emptyList())).isEqualTo(0)
+    }
+}
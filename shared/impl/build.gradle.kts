@@ -23,7 +23,7 @@ dependencies {
 
     //Logger
     implementation(libs.org.slf4j.api)
-    runtimeOnly(libs.com.github.tony19.logback.android)
+    implementation(libs.com.github.tony19.logback.android)
 
     implementation(libs.com.caverock.androidsvg)
 
@@ -33,6 +33,8 @@ dependencies {
     api(libs.com.google.dagger.android.support)
     api(libs.com.google.dagger.hilt.android)
 
+    testImplementation(project(":shared:tests"))
+
     ksp(libs.com.google.dagger.compiler)
     ksp(libs.com.google.dagger.hilt.compiler)
     ksp(libs.com.google.dagger.android.processor)
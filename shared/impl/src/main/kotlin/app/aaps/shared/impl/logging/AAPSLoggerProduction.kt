@@ -3,104 +3,127 @@ package app.aaps.shared.impl.logging
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.L
 import app.aaps.core.interfaces.logging.LTag
-import org.slf4j.LoggerFactory
+import org.slf4j.event.Level
 
 /**
  * Created by adrian on 2019-12-27.
+ *
+ * Logging is asynchronous. Caller only checks enabled tag and level and queues raw parameters
+ * to [AsyncLogWriter], everything else (except capturing stack of call location) is done on the writer thread.
  */
+class AAPSLoggerProduction internal constructor(val l: L, private val writer: AsyncLogWriter) : AAPSLogger {
 
-class AAPSLoggerProduction(val l: L) : AAPSLogger {
+    constructor(l: L) : this(l, AsyncLogWriter(LogbackSink())) {
+        // write queued records (including the crash itself) before the process is killed
+        val previousHandler = Thread.getDefaultUncaughtExceptionHandler()
+        Thread.setDefaultUncaughtExceptionHandler { thread, throwable ->
+            writer.log(LTag.CORE, Level.ERROR, "Uncaught exception in thread ${thread.name}", throwable = throwable)
+            writer.drain(CRASH_DRAIN_TIMEOUT)
+            previousHandler?.uncaughtException(thread, throwable)
+        }
+    }
+
+    // LogElement of LTag by ordinal, enabled flag is updated in place by L
+    private val elements by lazy(LazyThreadSafetyMode.PUBLICATION) { LTag.entries.map { l.findByName(it.tag) } }
+
+    private fun enabled(tag: LTag, level: Level): Boolean = elements[tag.ordinal].enabled && writer.isEnabled(tag, level)
 
     override fun debug(message: String) {
-        LoggerFactory.getLogger(LTag.CORE.tag).debug(stackLogMarker() + message)
+        if (writer.isEnabled(LTag.CORE, Level.DEBUG))
+            writer.log(LTag.CORE, Level.DEBUG, message)
     }
 
     override fun debug(enable: Boolean, tag: LTag, message: String) {
-        if (enable && l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).debug(stackLogMarker() + message)
+        if (enable && enabled(tag, Level.DEBUG))
+            writer.log(tag, Level.DEBUG, message)
     }
 
     override fun debug(tag: LTag, message: String) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).debug(stackLogMarker() + message)
+        if (enabled(tag, Level.DEBUG))
+            writer.log(tag, Level.DEBUG, message)
     }
 
     override fun debug(tag: LTag, accessor: () -> String) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).debug(stackLogMarker() + accessor.invoke())
+        if (enabled(tag, Level.DEBUG))
+            writer.log(tag, Level.DEBUG, accessor.invoke())
     }
 
     override fun debug(tag: LTag, format: String, vararg arguments: Any?) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).debug(stackLogMarker() + format, arguments)
+        if (enabled(tag, Level.DEBUG))
+            writer.log(tag, Level.DEBUG, format, arguments)
     }
 
     override fun warn(tag: LTag, message: String) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).warn(stackLogMarker() + message)
+        if (enabled(tag, Level.WARN))
+            writer.log(tag, Level.WARN, message)
     }
 
     override fun warn(tag: LTag, format: String, vararg arguments: Any?) {
-        LoggerFactory.getLogger(tag.tag).warn(stackLogMarker() + format, arguments)
+        if (writer.isEnabled(tag, Level.WARN))
+            writer.log(tag, Level.WARN, format, arguments)
     }
 
     override fun info(tag: LTag, message: String) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).info(stackLogMarker() + message)
+        if (enabled(tag, Level.INFO))
+            writer.log(tag, Level.INFO, message)
     }
 
     override fun info(tag: LTag, format: String, vararg arguments: Any?) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).info(stackLogMarker() + format, arguments)
+        if (enabled(tag, Level.INFO))
+            writer.log(tag, Level.INFO, format, arguments)
     }
 
     override fun error(tag: LTag, message: String) {
-        LoggerFactory.getLogger(tag.tag).error(stackLogMarker() + message)
+        writer.log(tag, Level.ERROR, message)
     }
 
     override fun error(message: String) {
-        LoggerFactory.getLogger(LTag.CORE.tag).error(stackLogMarker() + message)
+        writer.log(LTag.CORE, Level.ERROR, message)
     }
 
     override fun error(message: String, throwable: Throwable) {
-        LoggerFactory.getLogger(LTag.CORE.tag).error(stackLogMarker() + message, throwable)
+        writer.log(LTag.CORE, Level.ERROR, message, throwable = throwable)
     }
 
     override fun error(format: String, vararg arguments: Any?) {
-        LoggerFactory.getLogger(LTag.CORE.tag).error(stackLogMarker() + format, arguments)
+        writer.log(LTag.CORE, Level.ERROR, format, arguments)
     }
 
     override fun error(tag: LTag, message: String, throwable: Throwable) {
-        LoggerFactory.getLogger(tag.tag).error(stackLogMarker() + message, throwable)
+        writer.log(tag, Level.ERROR, message, throwable = throwable)
     }
 
     override fun error(tag: LTag, format: String, vararg arguments: Any?) {
-        LoggerFactory.getLogger(tag.tag).error(stackLogMarker() + format, arguments)
+        writer.log(tag, Level.ERROR, format, arguments)
     }
 
     override fun debug(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {
-        LoggerFactory.getLogger(tag.tag).debug(logLocationPrefix(className, methodName, lineNumber) + message)
+        if (writer.isEnabled(tag, Level.DEBUG))
+            writer.log(tag, Level.DEBUG, message, className, methodName, lineNumber)
     }
 
     override fun info(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {
-        LoggerFactory.getLogger(tag.tag).info(logLocationPrefix(className, methodName, lineNumber) + message)
+        if (writer.isEnabled(tag, Level.INFO))
+            writer.log(tag, Level.INFO, message, className, methodName, lineNumber)
     }
 
     override fun warn(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {
-        LoggerFactory.getLogger(tag.tag).warn(logLocationPrefix(className, methodName, lineNumber) + message)
+        if (writer.isEnabled(tag, Level.WARN))
+            writer.log(tag, Level.WARN, message, className, methodName, lineNumber)
     }
 
     override fun error(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {
-        LoggerFactory.getLogger(tag.tag).error(logLocationPrefix(className, methodName, lineNumber) + message)
+        writer.log(tag, Level.ERROR, message, className, methodName, lineNumber)
+    }
+
+    companion object {
+
+        private const val CRASH_DRAIN_TIMEOUT = 2000L
     }
 }
 
-private fun logLocationPrefix(className: String, methodName: String, lineNumber: Int) =
+internal fun logLocationPrefix(className: String, methodName: String, lineNumber: Int) =
     "[$className.$methodName():$lineNumber]: "
 
 fun StackTraceElement.toLogString(): String =
     logLocationPrefix(this.className.substringAfterLast("."), this.methodName, this.lineNumber)
-
-/* Needs to be inline. Don't remove even if IDE suggests it. */
-@Suppress("NOTHING_TO_INLINE")
-inline fun stackLogMarker() = Throwable().stackTrace[1].toLogString()
\ No newline at end of file
@@ -0,0 +1,205 @@
+package app.aaps.shared.impl.logging
+
+import app.aaps.core.interfaces.logging.LTag
+import org.slf4j.event.Level
+import org.slf4j.helpers.MessageFormatter
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Log records queued in preallocated ring buffer and written to [sink] by single background thread
+ *
+ * Callers only fill a slot with raw parameters. Call location is captured only for queued records
+ * (when [includeLocation] is set) and resolved, together with message formatting and writing
+ * to the file (including rollover and compression done by appenders), on the writer thread.
+ * Arguments are formatted later, so they should not be mutated after logging.
+ *
+ * When the ring is full DEBUG and INFO records are dropped (and reported later),
+ * WARN and ERROR records wait for free slot.
+ */
+internal class AsyncLogWriter(
+    private val sink: LogSink,
+    capacity: Int = DEFAULT_CAPACITY,
+    threadName: String = "AAPSLogWriter",
+    private val includeLocation: Boolean = true
+) {
+
+    private class Record {
+
+        var tag = LTag.CORE
+        var level = Level.DEBUG
+        var threadName = ""
+        var timestamp = 0L
+        var message: String? = null
+        var arguments: Array<out Any?>? = null
+        var throwable: Throwable? = null
+
+        // call location, resolved from stack trace on writer thread
+        var location: Throwable? = null
+        var className: String? = null
+        var methodName: String? = null
+        var lineNumber = 0
+
+        // sequence of published record, -1 for free slot
+        @Volatile var sequence = -1L
+
+        fun clear() {
+            message = null
+            arguments = null
+            throwable = null
+            location = null
+            className = null
+            methodName = null
+        }
+    }
+
+    private val mask = Integer.highestOneBit(capacity - 1).shl(1).coerceAtLeast(2) - 1
+    private val slots = Array(mask + 1) { Record() }
+
+    // next sequence to claim by producers
+    private val claimed = AtomicLong()
+
+    // records with lower sequence are written
+    private val written = AtomicLong()
+    private val dropped = AtomicLong()
+
+    @Volatile private var sleeping = false
+    private val thread = Thread(::run, threadName).apply {
+        isDaemon = true
+        start()
+    }
+
+    fun isEnabled(tag: LTag, level: Level): Boolean = sink.isEnabled(tag, level)
+
+    /**
+     * Queue record. First caller outside of logging classes is used as location,
+     * its stack is not captured when the record is dropped
+     */
+    fun log(tag: LTag, level: Level, message: String, arguments: Array<out Any?>? = null, throwable: Throwable? = null) {
+        val sequence = claim(level) ?: return
+        val record = slots[(sequence and mask.toLong()).toInt()]
+        record.fill(tag, level, message, arguments, throwable)
+        record.location = if (includeLocation) Throwable() else null
+        publish(record, sequence)
+    }
+
+    /** Queue record with explicitly provided location */
+    fun log(tag: LTag, level: Level, message: String, className: String, methodName: String, lineNumber: Int) {
+        val sequence = claim(level) ?: return
+        val record = slots[(sequence and mask.toLong()).toInt()]
+        record.fill(tag, level, message, null, null)
+        record.className = className
+        record.methodName = methodName
+        record.lineNumber = lineNumber
+        publish(record, sequence)
+    }
+
+    /**
+     * Wait until all records queued before this call are written
+     * @return false on timeout
+     */
+    fun drain(timeoutMillis: Long): Boolean {
+        val target = claimed.get()
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+        while (written.get() < target) {
+            if (System.nanoTime() > deadline) return false
+            LockSupport.unpark(thread)
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1))
+        }
+        return true
+    }
+
+    private fun Record.fill(tag: LTag, level: Level, message: String, arguments: Array<out Any?>?, throwable: Throwable?) {
+        this.tag = tag
+        this.level = level
+        this.threadName = Thread.currentThread().name
+        this.timestamp = System.currentTimeMillis()
+        this.message = message
+        this.arguments = arguments
+        this.throwable = throwable
+    }
+
+    /** @return claimed sequence or null if the record is dropped */
+    private fun claim(level: Level): Long? {
+        while (true) {
+            val sequence = claimed.get()
+            if (sequence - written.get() > mask) {
+                // writer thread can't wait for itself
+                if (level == Level.DEBUG || level == Level.INFO || level == Level.TRACE || Thread.currentThread() === thread) {
+                    dropped.incrementAndGet()
+                    return null
+                }
+                LockSupport.unpark(thread)
+                Thread.yield()
+                continue
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) return sequence
+        }
+    }
+
+    private fun publish(record: Record, sequence: Long) {
+        record.sequence = sequence
+        if (sleeping) LockSupport.unpark(thread)
+    }
+
+    private fun run() {
+        var next = 0L
+        var pendingFlush = false
+        while (true) {
+            val record = slots[(next and mask.toLong()).toInt()]
+            if (record.sequence != next) {
+                if (pendingFlush) {
+                    pendingFlush = false
+                    runCatching {
+                        reportDropped()
+                        sink.flush()
+                    }
+                    continue
+                }
+                sleeping = true
+                if (record.sequence != next) LockSupport.park(this)
+                sleeping = false
+                continue
+            }
+            write(record)
+            record.clear()
+            written.set(++next)
+            pendingFlush = true
+        }
+    }
+
+    private fun write(record: Record) {
+        try {
+            var message = record.message ?: ""
+            var throwable = record.throwable
+            record.arguments?.let { arguments ->
+                val tuple = MessageFormatter.arrayFormat(message, arguments)
+                message = tuple.message
+                throwable = throwable ?: tuple.throwable
+            }
+            val prefix = when {
+                record.className != null -> logLocationPrefix(record.className!!, record.methodName ?: "", record.lineNumber)
+                record.location != null  -> record.location!!.stackTrace.firstOrNull { it.className.substringBefore('$') !in LOGGING_CLASSES }?.toLogString() ?: ""
+                else                     -> ""
+            }
+            sink.write(record.tag, record.level, record.threadName, record.timestamp, prefix + message, throwable)
+        } catch (e: Throwable) {
+            runCatching { sink.write(LTag.CORE, Level.ERROR, record.threadName, record.timestamp, "Unable to write log record: ${record.message}", e) }
+        }
+    }
+
+    private fun reportDropped() {
+        val count = dropped.getAndSet(0)
+        if (count > 0)
+            sink.write(LTag.CORE, Level.WARN, thread.name, System.currentTimeMillis(), "$count log records dropped, log buffer full", null)
+    }
+
+    companion object {
+
+        const val DEFAULT_CAPACITY = 4096
+
+        // frames of these classes (including nested and lambdas) are skipped when looking for call location
+        private val LOGGING_CLASSES = setOf(AsyncLogWriter::class.java.name, AAPSLoggerProduction::class.java.name)
+    }
+}
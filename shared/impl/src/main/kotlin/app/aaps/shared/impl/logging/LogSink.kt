@@ -0,0 +1,18 @@
+package app.aaps.shared.impl.logging
+
+import app.aaps.core.interfaces.logging.LTag
+import org.slf4j.event.Level
+
+/**
+ * Destination of formatted log records. Called from [AsyncLogWriter] thread only (except [isEnabled])
+ */
+internal interface LogSink {
+
+    /** Called on caller thread before anything is formatted or queued */
+    fun isEnabled(tag: LTag, level: Level): Boolean
+
+    fun write(tag: LTag, level: Level, threadName: String, timestamp: Long, message: String, throwable: Throwable?)
+
+    /** Called when there is no more record waiting */
+    fun flush() {}
+}
@@ -0,0 +1,41 @@
+package app.aaps.shared.impl.logging
+
+import app.aaps.core.interfaces.logging.LTag
+import ch.qos.logback.classic.Logger
+import ch.qos.logback.classic.spi.LoggingEvent
+import org.slf4j.LoggerFactory
+import org.slf4j.event.Level
+
+/**
+ * Passes records to logback appenders configured in logback.xml
+ *
+ * Events are created with thread name and time of the original call so the output is the same
+ * as if appenders were called synchronously.
+ */
+internal class LogbackSink : LogSink {
+
+    private val loggers = LTag.entries.map { LoggerFactory.getLogger(it.tag) as Logger }
+
+    override fun isEnabled(tag: LTag, level: Level): Boolean = loggers[tag.ordinal].isEnabledFor(level.toLogback())
+
+    override fun write(tag: LTag, level: Level, threadName: String, timestamp: Long, message: String, throwable: Throwable?) {
+        val logger = loggers[tag.ordinal]
+        val event = LoggingEvent(FQCN, logger, level.toLogback(), message, throwable, null)
+        event.threadName = threadName
+        event.timeStamp = timestamp
+        logger.callAppenders(event)
+    }
+
+    private fun Level.toLogback(): ch.qos.logback.classic.Level = when (this) {
+        Level.ERROR -> ch.qos.logback.classic.Level.ERROR
+        Level.WARN  -> ch.qos.logback.classic.Level.WARN
+        Level.INFO  -> ch.qos.logback.classic.Level.INFO
+        Level.DEBUG -> ch.qos.logback.classic.Level.DEBUG
+        Level.TRACE -> ch.qos.logback.classic.Level.TRACE
+    }
+
+    companion object {
+
+        private val FQCN = AAPSLoggerProduction::class.java.name
+    }
+}
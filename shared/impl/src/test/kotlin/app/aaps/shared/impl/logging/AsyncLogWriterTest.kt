@@ -0,0 +1,104 @@
+package app.aaps.shared.impl.logging
+
+import app.aaps.core.interfaces.logging.L
+import app.aaps.core.interfaces.logging.LTag
+import app.aaps.core.interfaces.logging.LogElement
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.slf4j.event.Level
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+
+class AsyncLogWriterTest {
+
+    private class ListSink(private val blocker: CountDownLatch? = null) : LogSink {
+
+        val lines: MutableList<String> = Collections.synchronizedList(ArrayList())
+
+        override fun isEnabled(tag: LTag, level: Level): Boolean = level != Level.TRACE
+
+        override fun write(tag: LTag, level: Level, threadName: String, timestamp: Long, message: String, throwable: Throwable?) {
+            blocker?.await()
+            lines.add("$threadName ${level.name.first()}/${tag.tag}: $message" + (throwable?.let { " (${it.message})" } ?: ""))
+        }
+    }
+
+    private val l: L = mock {
+        on { findByName(any()) } doReturn mock<LogElement> { on { enabled } doReturn true }
+        on { findByName(LTag.UI.tag) } doReturn mock<LogElement> { on { enabled } doReturn false }
+    }
+
+    @Test
+    fun recordsAreFormattedOnWriterThread() {
+        val sink = ListSink()
+        val writer = AsyncLogWriter(sink, 16)
+        val logger = AAPSLoggerProduction(l, writer)
+        val thread = Thread.currentThread().name
+        val line = Throwable().stackTrace[0].lineNumber
+
+        logger.debug(LTag.APS, "value {} of {}", 1, "x")
+        logger.debug(LTag.UI, "disabled tag")
+        logger.error(LTag.PUMP, "failed {}", 5, RuntimeException("boom"))
+        logger.info("Class", "method", 7, LTag.CORE, "explicit location")
+
+        assertThat(writer.drain(5000)).isTrue()
+        assertThat(sink.lines).containsExactly(
+            "$thread D/APS: [AsyncLogWriterTest.recordsAreFormattedOnWriterThread():${line + 2}]: value 1 of x",
+            "$thread E/PUMP: [AsyncLogWriterTest.recordsAreFormattedOnWriterThread():${line + 4}]: failed 5 (boom)",
+            "$thread I/CORE: [Class.method():7]: explicit location"
+        ).inOrder()
+    }
+
+    @Test
+    fun locationIsNotCapturedWhenNotIncluded() {
+        val sink = ListSink()
+        val writer = AsyncLogWriter(sink, 16, includeLocation = false)
+        val logger = AAPSLoggerProduction(l, writer)
+        val thread = Thread.currentThread().name
+
+        logger.debug(LTag.APS, "value {} of {}", 1, "x")
+        logger.warn(LTag.PUMP, "plain")
+
+        assertThat(writer.drain(5000)).isTrue()
+        assertThat(sink.lines).containsExactly(
+            "$thread D/APS: value 1 of x",
+            "$thread W/PUMP: plain"
+        ).inOrder()
+    }
+
+    @Test
+    fun recordsOfEachThreadKeepOrder() {
+        val sink = ListSink()
+        val writer = AsyncLogWriter(sink, 64)
+        val logger = AAPSLoggerProduction(l, writer)
+        val threads = List(4) { t -> Thread({ repeat(10000) { logger.warn(LTag.PUMP, "{}", it) } }, "producer$t") }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        assertThat(writer.drain(5000)).isTrue()
+        assertThat(sink.lines).hasSize(40000)
+        repeat(4) { t ->
+            val values = sink.lines.filter { it.startsWith("producer$t ") }.map { it.substringAfterLast(' ').toInt() }
+            assertThat(values).isEqualTo((0 until 10000).toList())
+        }
+    }
+
+    @Test
+    fun debugIsDroppedWhenFull() {
+        val blocker = CountDownLatch(1)
+        val sink = ListSink(blocker)
+        val writer = AsyncLogWriter(sink, 8)
+        val logger = AAPSLoggerProduction(l, writer)
+
+        // first record blocks writer, the rest fills the ring
+        repeat(20) { logger.debug(LTag.PUMP, "debug {}", it) }
+        blocker.countDown()
+
+        assertThat(writer.drain(5000)).isTrue()
+        assertThat(sink.lines).hasSize(9)
+        assertThat(sink.lines.last()).endsWith("12 log records dropped, log buffer full")
+    }
+}
@@ -0,0 +1,115 @@
+package app.aaps.shared.impl.logging
+
+import app.aaps.core.interfaces.logging.L
+import app.aaps.core.interfaces.logging.LTag
+import app.aaps.core.interfaces.logging.LogElement
+import app.aaps.shared.tests.benchmark.Benchmark
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.slf4j.event.Level
+import org.slf4j.helpers.MessageFormatter
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileOutputStream
+import java.io.OutputStreamWriter
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import kotlin.concurrent.thread
+
+/**
+ * Latency of pump callback logging few lines while other threads log heavily
+ *
+ * Baseline is the previous synchronous path: location from stack trace and formatting on caller thread
+ * and write with flush of every line to the file under appender lock.
+ */
+@EnabledIfSystemProperty(named = Benchmark.PROPERTY, matches = "true")
+class LoggingBenchmark {
+
+    /** Simplified logback file appender with immediate flush and the same pattern */
+    private class FileSink(file: File, private val immediateFlush: Boolean) : LogSink {
+
+        private val output = BufferedWriter(OutputStreamWriter(FileOutputStream(file)))
+        private val timeFormat = SimpleDateFormat("HH:mm:ss.SSS", Locale.US)
+
+        override fun isEnabled(tag: LTag, level: Level): Boolean = true
+
+        @Synchronized
+        override fun write(tag: LTag, level: Level, threadName: String, timestamp: Long, message: String, throwable: Throwable?) {
+            output.write("${timeFormat.format(Date(timestamp))} [$threadName] ${level.name.first()}/${tag.tag}: $message\n")
+            if (immediateFlush) output.flush()
+        }
+
+        @Synchronized
+        override fun flush() = output.flush()
+
+        fun close() = output.close()
+    }
+
+    private val l: L = mock {
+        on { findByName(any()) } doReturn mock<LogElement> { on { enabled } doReturn true }
+    }
+
+    private val backgroundThreads = 3
+    private val payload = ByteArray(64) { it.toByte() }.joinToString(" ") { String.format(Locale.US, "%02X", it) }
+    private lateinit var file: File
+
+    @Volatile private var running = false
+
+    @BeforeEach
+    fun setup() {
+        file = File.createTempFile("AndroidAPS", ".log")
+    }
+
+    @AfterEach
+    fun tearDown() {
+        file.delete()
+    }
+
+    private fun underHeavyLogging(name: String, log: (LTag, String, Array<out Any?>) -> Unit) {
+        running = true
+        val threads = List(backgroundThreads) { t ->
+            thread(name = "comm$t") {
+                var i = 0
+                while (running) log(LTag.PUMPBTCOMM, "Packet {} received: {}", arrayOf(i++, payload))
+            }
+        }
+        try {
+            Benchmark.measure("$name ($backgroundThreads threads logging)", warmupIterations = 1000, iterations = 10000) {
+                // typical pump callback
+                log(LTag.PUMP, "Command {} finished in {} ms", arrayOf("TEMPBASAL", 1234))
+                log(LTag.PUMPQUEUE, "Result success: {} enacted: {}", arrayOf(true, true))
+                log(LTag.PUMP, "Reservoir {} battery {}", arrayOf(123.4, 75))
+            }
+        } finally {
+            running = false
+            threads.forEach { it.join() }
+        }
+    }
+
+    @Test
+    fun synchronousAppender() {
+        val sink = FileSink(file, immediateFlush = true)
+        underHeavyLogging("Synchronous appender") { tag, format, arguments ->
+            val location = Throwable().stackTrace[1].toLogString()
+            sink.write(tag, Level.DEBUG, Thread.currentThread().name, System.currentTimeMillis(), location + MessageFormatter.arrayFormat(format, arguments).message, null)
+        }
+        sink.close()
+    }
+
+    @Test
+    fun asyncLogWriter() {
+        val sink = FileSink(file, immediateFlush = false)
+        val writer = AsyncLogWriter(sink)
+        val logger = AAPSLoggerProduction(l, writer)
+        underHeavyLogging("Async log writer") { tag, format, arguments -> logger.debug(tag, format, *arguments) }
+        writer.drain(10000)
+        sink.close()
+        println("Written ${file.length() / 1024} kB")
+    }
+}
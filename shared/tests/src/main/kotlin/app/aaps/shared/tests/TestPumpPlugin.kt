@@ -24,6 +24,7 @@ class TestPumpPlugin(val rh: ResourceHelper) : PumpWithConcentration {
     var connected = false
     var isProfileSet = true
     var pumpSuspended = false
+    var waitForDisconnection = 0
 
     override fun isConnected() = connected
     override fun isConnecting() = false
@@ -53,7 +54,7 @@ class TestPumpPlugin(val rh: ResourceHelper) : PumpWithConcentration {
         connected = false
     }
 
-    override fun waitForDisconnectionInSeconds(): Int = 0
+    override fun waitForDisconnectionInSeconds(): Int = waitForDisconnection
     override suspend fun getPumpStatus(reason: String) { /* not needed */
     }
 
@@ -0,0 +1,31 @@
+package app.aaps.shared.tests.benchmark
+
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
+
+/**
+ * Logger dropping everything but errors, so benchmarks don't measure console output
+ */
+class AAPSLoggerSilent : AAPSLogger {
+
+    override fun debug(message: String) {}
+    override fun debug(enable: Boolean, tag: LTag, message: String) {}
+    override fun debug(tag: LTag, message: String) {}
+    override fun debug(tag: LTag, accessor: () -> String) {}
+    override fun debug(tag: LTag, format: String, vararg arguments: Any?) {}
+    override fun warn(tag: LTag, message: String) {}
+    override fun warn(tag: LTag, format: String, vararg arguments: Any?) {}
+    override fun info(tag: LTag, message: String) {}
+    override fun info(tag: LTag, format: String, vararg arguments: Any?) {}
+    override fun error(tag: LTag, message: String) = println("ERROR: " + tag.tag + " " + message)
+    override fun error(tag: LTag, message: String, throwable: Throwable) = println("ERROR: " + tag.tag + " " + message + " " + throwable)
+    override fun error(tag: LTag, format: String, vararg arguments: Any?) = println("ERROR: : " + tag.tag + " " + String.format(format, *arguments))
+    override fun error(message: String) = println("ERROR: $message")
+    override fun error(message: String, throwable: Throwable) = println("ERROR: $message $throwable")
+    override fun error(format: String, vararg arguments: Any?) = println("ERROR: : " + String.format(format, *arguments))
+    override fun debug(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {}
+    override fun info(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {}
+    override fun warn(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {}
+    override fun error(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) =
+        println("ERROR: : ${tag.tag} $className.$methodName():$lineNumber $message")
+}
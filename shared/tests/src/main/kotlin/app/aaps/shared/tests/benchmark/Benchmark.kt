@@ -0,0 +1,80 @@
+package app.aaps.shared.tests.benchmark
+
+import java.lang.reflect.Method
+import java.util.Locale
+import kotlin.math.ceil
+
+/**
+ * Minimal JVM micro benchmark runner for unit test source sets
+ *
+ * Benchmarks are regular JUnit tests annotated with
+ * `@EnabledIfSystemProperty(named = Benchmark.PROPERTY, matches = "true")`
+ * so they are skipped in normal test runs. Run them by
+ *
+ * `./gradlew testFullDebugUnitTest -Paaps.benchmark=true --tests "*Benchmark"`
+ *
+ * Reported: throughput, allocated bytes per operation, allocation rate and p50/p99 latency.
+ * Allocation is measured by HotSpot thread allocation counter and reported as -1 when not available.
+ */
+object Benchmark {
+
+    const val PROPERTY = "aaps.benchmark"
+
+    @Volatile private var sink = 0
+
+    private val threadMXBean: Any? =
+        runCatching { Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null) }.getOrNull()
+    private val currentThreadAllocatedBytes: Method? =
+        runCatching { Class.forName("com.sun.management.ThreadMXBean").getMethod("getCurrentThreadAllocatedBytes") }.getOrNull()
+
+    fun <T> measure(name: String, warmupIterations: Int = 20, iterations: Int = 100, block: () -> T): BenchmarkResult {
+        repeat(warmupIterations) { consume(block()) }
+        val latencies = LongArray(iterations)
+        val startBytes = allocatedBytes()
+        val start = System.nanoTime()
+        for (i in 0 until iterations) {
+            val t0 = System.nanoTime()
+            consume(block())
+            latencies[i] = System.nanoTime() - t0
+        }
+        val elapsed = System.nanoTime() - start
+        val endBytes = allocatedBytes()
+        latencies.sort()
+        val allocated = if (startBytes < 0 || endBytes < 0) -1L else endBytes - startBytes
+        return BenchmarkResult(
+            name = name,
+            iterations = iterations,
+            opsPerSecond = iterations * 1e9 / elapsed,
+            bytesPerOp = if (allocated < 0) -1 else allocated / iterations,
+            allocationRateMBs = if (allocated < 0) -1.0 else allocated / (elapsed / 1e9) / (1024 * 1024),
+            p50Ms = latencies.percentile(0.50) / 1e6,
+            p99Ms = latencies.percentile(0.99) / 1e6
+        ).also { println(it) }
+    }
+
+    private fun consume(value: Any?) {
+        sink = sink xor System.identityHashCode(value)
+    }
+
+    private fun allocatedBytes(): Long =
+        threadMXBean?.let { bean -> currentThreadAllocatedBytes?.let { runCatching { it.invoke(bean) as Long }.getOrNull() } } ?: -1L
+
+    private fun LongArray.percentile(p: Double): Long = this[(ceil(p * size).toInt() - 1).coerceIn(0, size - 1)]
+}
+
+data class BenchmarkResult(
+    val name: String,
+    val iterations: Int,
+    val opsPerSecond: Double,
+    val bytesPerOp: Long,
+    val allocationRateMBs: Double,
+    val p50Ms: Double,
+    val p99Ms: Double
+) {
+
+    override fun toString(): String =
+        String.format(
+            Locale.US, "BENCHMARK: %-50s %10.1f ops/s %12d B/op %9.1f MB/s p50 %8.3f ms p99 %8.3f ms (n=%d)",
+            name, opsPerSecond, bytesPerOp, allocationRateMBs, p50Ms, p99Ms, iterations
+        )
+}
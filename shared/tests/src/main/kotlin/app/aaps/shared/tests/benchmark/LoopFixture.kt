@@ -0,0 +1,118 @@
+package app.aaps.shared.tests.benchmark
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.CA
+import app.aaps.core.data.model.EPS
+import app.aaps.core.data.model.GV
+import app.aaps.core.data.model.ICfg
+import app.aaps.core.data.model.SourceSensor
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.model.TrendArrow
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.AutosensDataTable
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.utils.DateUtil
+import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.implementation.iob.AutosensDataObject
+import kotlin.math.PI
+import kotlin.math.exp
+import kotlin.math.roundToLong
+import kotlin.math.sin
+import kotlin.random.Random
+
+/**
+ * Deterministic therapy history for benchmarks
+ *
+ * Simulates CGM readings every 5 min (with jitter and occasional gaps), 3 meals a day with boluses,
+ * SMBs, 30 min temp basals and daily profile switches for [hours] before [now].
+ *
+ * Lists of treatments are ordered ascending (as returned from database), [glucoseValues] newest first (as in AutosensDataStore).
+ */
+class LoopFixture(val now: Long, val hours: Int = 48, private val iCfg: ICfg, seed: Int = 1) {
+
+    private val random = Random(seed)
+    private val start = now - T.hours(hours.toLong()).msecs()
+    private val mealTimes = (0 until hours).filter { it % 24 in listOf(7, 12, 19) }.map { start + T.hours(it.toLong()).msecs() }
+
+    val glucoseValues: List<GV> = buildList {
+        var time = now
+        while (time > start) {
+            // ~1 % missing readings
+            if (random.nextInt(100) != 0)
+                add(
+                    GV(
+                        timestamp = time + random.nextLong(-20_000, 20_000),
+                        raw = 0.0,
+                        value = glucoseAt(time).roundToLong().toDouble(),
+                        trendArrow = TrendArrow.FLAT,
+                        noise = 0.0,
+                        sourceSensor = SourceSensor.DEXCOM_G6_NATIVE
+                    )
+                )
+            time -= T.mins(5).msecs()
+        }
+    }
+
+    val carbs: List<CA> = mealTimes.map { CA(timestamp = it, amount = 30.0 + random.nextInt(40), duration = 0) }
+
+    val boluses: List<BS> = buildList {
+        for (meal in mealTimes) add(BS(timestamp = meal - T.mins(10).msecs(), amount = 3.0 + random.nextInt(40) / 10.0, type = BS.Type.NORMAL, iCfg = iCfg))
+        var time = start
+        while (time < now) {
+            if (random.nextInt(3) == 0) add(BS(timestamp = time, amount = 0.1 * (1 + random.nextInt(8)), type = BS.Type.SMB, iCfg = iCfg))
+            time += T.mins(5).msecs()
+        }
+    }.sortedBy { it.timestamp }
+
+    val temporaryBasals: List<TB> = buildList {
+        var time = start
+        while (time < now) {
+            if (random.nextInt(4) != 0)
+                add(TB(timestamp = time, duration = T.mins(30).msecs(), rate = random.nextInt(300).toDouble(), isAbsolute = false, type = TB.Type.NORMAL))
+            time += T.mins(30).msecs()
+        }
+    }
+
+    /**
+     * One switch per day created from [template] with alternating percentage
+     */
+    fun effectiveProfileSwitches(template: EPS): List<EPS> =
+        (0 until hours / 24 + 1).map { day ->
+            template.copy(id = day + 1L, timestamp = start + T.hours(day * 24L).msecs(), originalPercentage = if (day % 2 == 0) 100 else 90)
+        }
+
+    /**
+     * Autosens results for every 5 min bucket, oldest first
+     */
+    fun autosensDataTable(aapsLogger: AAPSLogger, preferences: Preferences, dateUtil: DateUtil): AutosensDataTable {
+        var table = AutosensDataTable()
+        var time = start
+        while (time <= now) {
+            val deviation = (glucoseAt(time) - glucoseAt(time - T.mins(5).msecs())) * 0.6 + random.nextDouble(-3.0, 3.0)
+            val autosensData = AutosensDataObject(aapsLogger, preferences, dateUtil).also {
+                it.time = time
+                it.bg = glucoseAt(time)
+                it.sens = 50.0
+                it.deviation = deviation
+                it.validDeviation = random.nextInt(20) != 0
+                it.pastSensitivity = if (deviation > 0) "+" else "-"
+                it.cob = 0.0
+            }
+            table = table.plus(time, autosensData)
+            time += T.mins(5).msecs()
+        }
+        return table
+    }
+
+    /**
+     * Daily sine with meal peaks
+     */
+    fun glucoseAt(time: Long): Double {
+        var value = 120 + 30 * sin(2 * PI * (time - start) / T.hours(24).msecs())
+        for (meal in mealTimes) {
+            val minutes = (time - meal) / 60000.0
+            if (minutes > 0) value += 80 * minutes / 60 * exp(1 - minutes / 60)
+        }
+        return value
+    }
+}
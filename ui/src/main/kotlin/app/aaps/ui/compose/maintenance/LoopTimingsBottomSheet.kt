@@ -0,0 +1,176 @@
+package app.aaps.ui.compose.maintenance
+
+import androidx.compose.foundation.layout.Arrangement
+import androidx.compose.foundation.layout.Column
+import androidx.compose.foundation.layout.Row
+import androidx.compose.foundation.layout.fillMaxWidth
+import androidx.compose.foundation.layout.padding
+import androidx.compose.foundation.layout.size
+import androidx.compose.foundation.rememberScrollState
+import androidx.compose.foundation.verticalScroll
+import androidx.compose.material.icons.Icons
+import androidx.compose.material.icons.filled.FileUpload
+import androidx.compose.material.icons.filled.Refresh
+import androidx.compose.material3.ExperimentalMaterial3Api
+import androidx.compose.material3.Icon
+import androidx.compose.material3.MaterialTheme
+import androidx.compose.material3.ModalBottomSheet
+import androidx.compose.material3.OutlinedButton
+import androidx.compose.material3.Switch
+import androidx.compose.material3.Text
+import androidx.compose.material3.rememberModalBottomSheetState
+import androidx.compose.runtime.Composable
+import androidx.compose.ui.Alignment
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.res.stringResource
+import androidx.compose.ui.text.font.FontWeight
+import androidx.compose.ui.text.style.TextAlign
+import androidx.compose.ui.tooling.preview.Preview
+import androidx.compose.ui.unit.dp
+import app.aaps.core.interfaces.profiling.TraceStage
+import app.aaps.core.interfaces.profiling.TraceStageStats
+import app.aaps.core.ui.compose.consumeOverscroll
+import java.util.Locale
+import app.aaps.core.ui.R as CoreUiR
+
+@OptIn(ExperimentalMaterial3Api::class)
+@Composable
+fun LoopTimingsBottomSheet(
+    stats: List<TraceStageStats>,
+    tracingEnabled: Boolean,
+    onDismiss: () -> Unit,
+    onToggleTracing: (Boolean) -> Unit,
+    onReset: () -> Unit,
+    onExport: () -> Unit
+) {
+    val sheetState = rememberModalBottomSheetState(skipPartiallyExpanded = true)
+
+    ModalBottomSheet(
+        onDismissRequest = onDismiss,
+        sheetState = sheetState,
+        containerColor = MaterialTheme.colorScheme.surface
+    ) {
+        LoopTimingsBottomSheetContent(
+            stats = stats,
+            tracingEnabled = tracingEnabled,
+            onToggleTracing = onToggleTracing,
+            onReset = onReset,
+            onExport = onExport
+        )
+    }
+}
+
+@Composable
+internal fun LoopTimingsBottomSheetContent(
+    stats: List<TraceStageStats>,
+    tracingEnabled: Boolean,
+    onToggleTracing: (Boolean) -> Unit,
+    onReset: () -> Unit,
+    onExport: () -> Unit
+) {
+    Column(
+        modifier = Modifier
+            .consumeOverscroll()
+            .verticalScroll(rememberScrollState())
+            .padding(bottom = 24.dp)
+    ) {
+        Text(
+            text = stringResource(CoreUiR.string.loop_timings),
+            style = MaterialTheme.typography.titleMedium,
+            color = MaterialTheme.colorScheme.onSurfaceVariant,
+            modifier = Modifier.padding(horizontal = 24.dp, vertical = 12.dp)
+        )
+
+        Row(
+            verticalAlignment = Alignment.CenterVertically,
+            modifier = Modifier
+                .fillMaxWidth()
+                .padding(horizontal = 24.dp)
+        ) {
+            Text(
+                text = stringResource(CoreUiR.string.loop_timings_record),
+                style = MaterialTheme.typography.bodyLarge,
+                modifier = Modifier.weight(1f)
+            )
+            Switch(checked = tracingEnabled, onCheckedChange = onToggleTracing)
+        }
+
+        if (stats.isEmpty()) {
+            Text(
+                text = stringResource(CoreUiR.string.loop_timings_no_data),
+                style = MaterialTheme.typography.bodyMedium,
+                color = MaterialTheme.colorScheme.onSurfaceVariant,
+                modifier = Modifier.padding(horizontal = 24.dp, vertical = 16.dp)
+            )
+        } else {
+            Column(modifier = Modifier.padding(horizontal = 24.dp, vertical = 8.dp)) {
+                TimingsRow(
+                    stage = stringResource(CoreUiR.string.loop_timings_stage),
+                    count = stringResource(CoreUiR.string.loop_timings_count),
+                    p50 = "p50", p95 = "p95", p99 = "p99",
+                    header = true
+                )
+                stats.forEach {
+                    TimingsRow(
+                        stage = it.stage.name,
+                        count = it.count.toString(),
+                        p50 = formatDuration(it.p50),
+                        p95 = formatDuration(it.p95),
+                        p99 = formatDuration(it.p99)
+                    )
+                }
+            }
+        }
+
+        Row(
+            horizontalArrangement = Arrangement.spacedBy(16.dp),
+            modifier = Modifier
+                .align(Alignment.CenterHorizontally)
+                .padding(top = 16.dp)
+        ) {
+            OutlinedButton(onClick = onReset) {
+                Icon(imageVector = Icons.Default.Refresh, contentDescription = null, modifier = Modifier.size(18.dp))
+                Text(text = stringResource(CoreUiR.string.reset), modifier = Modifier.padding(start = 8.dp))
+            }
+            OutlinedButton(onClick = onExport, enabled = stats.isNotEmpty()) {
+                Icon(imageVector = Icons.Default.FileUpload, contentDescription = null, modifier = Modifier.size(18.dp))
+                Text(text = stringResource(CoreUiR.string.loop_timings_export), modifier = Modifier.padding(start = 8.dp))
+            }
+        }
+    }
+}
+
+@Composable
+private fun TimingsRow(stage: String, count: String, p50: String, p95: String, p99: String, header: Boolean = false) {
+    val style = if (header) MaterialTheme.typography.labelMedium.copy(fontWeight = FontWeight.Bold) else MaterialTheme.typography.bodySmall
+    Row(modifier = Modifier.padding(vertical = 2.dp)) {
+        Text(text = stage, style = style, modifier = Modifier.weight(2f))
+        listOf(count, p50, p95, p99).forEach {
+            Text(text = it, style = style, textAlign = TextAlign.End, modifier = Modifier.weight(1f))
+        }
+    }
+}
+
+/** Percentiles are in microseconds */
+private fun formatDuration(micros: Long): String =
+    if (micros < 10_000_000) String.format(Locale.getDefault(), "%.1f ms", micros / 1000.0)
+    else String.format(Locale.getDefault(), "%.0f s", micros / 1_000_000.0)
+
+@Preview(showBackground = true)
+@Composable
+private fun LoopTimingsBottomSheetContentPreview() {
+    MaterialTheme {
+        LoopTimingsBottomSheetContent(
+            stats = listOf(
+                TraceStageStats(TraceStage.LOOP, 120, 2_621_440, 5_242_880, 7_340_032),
+                TraceStageStats(TraceStage.BG_ARRIVAL, 120, 41_943_040, 83_886_080, 100_663_296),
+                TraceStageStats(TraceStage.DETERMINE_BASAL, 120, 14_336, 28_672, 40_960),
+                TraceStageStats(TraceStage.PUMP, 48, 1_310_720, 3_145_728, 4_194_304)
+            ),
+            tracingEnabled = true,
+            onToggleTracing = {},
+            onReset = {},
+            onExport = {}
+        )
+    }
+}
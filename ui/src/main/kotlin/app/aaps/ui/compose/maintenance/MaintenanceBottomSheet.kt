@@ -19,6 +19,7 @@ import androidx.compose.material.icons.filled.FileUpload
 import androidx.compose.material.icons.filled.Folder
 import androidx.compose.material.icons.filled.Settings
 import androidx.compose.material.icons.filled.TableChart
+import androidx.compose.material.icons.filled.Timer
 import androidx.compose.material3.Badge
 import androidx.compose.material3.BadgedBox
 import androidx.compose.material3.ExperimentalMaterial3Api
@@ -52,6 +53,7 @@ fun MaintenanceBottomSheet(
     onLogSettingsClick: () -> Unit,
     onSendLogsClick: () -> Unit,
     onDeleteLogsClick: () -> Unit,
+    onLoopTimingsClick: () -> Unit,
     onDirectoryClick: () -> Unit,
     onCloudDirectoryClick: () -> Unit,
     onClearCloudClick: () -> Unit,
@@ -82,6 +84,7 @@ fun MaintenanceBottomSheet(
             onLogSettingsClick = onLogSettingsClick,
             onSendLogsClick = onSendLogsClick,
             onDeleteLogsClick = onDeleteLogsClick,
+            onLoopTimingsClick = onLoopTimingsClick,
             onDirectoryClick = onDirectoryClick,
             onCloudDirectoryClick = onCloudDirectoryClick,
             onClearCloudClick = onClearCloudClick,
@@ -109,6 +112,7 @@ internal fun MaintenanceBottomSheetContent(
     onLogSettingsClick: () -> Unit = {},
     onSendLogsClick: () -> Unit = {},
     onDeleteLogsClick: () -> Unit = {},
+    onLoopTimingsClick: () -> Unit = {},
     onDirectoryClick: () -> Unit = {},
     onCloudDirectoryClick: () -> Unit = {},
     onClearCloudClick: () -> Unit = {},
@@ -180,6 +184,14 @@ internal fun MaintenanceBottomSheetContent(
             onDismiss = onDismiss,
             onClick = onDeleteLogsClick
         )
+        MaintenanceItem(
+            text = stringResource(CoreUiR.string.loop_timings),
+            description = stringResource(CoreUiR.string.maintenance_loop_timings_desc),
+            icon = Icons.Default.Timer,
+            color = primaryColor,
+            onDismiss = onDismiss,
+            onClick = onLoopTimingsClick
+        )
 
         // Section: File management
         HorizontalDivider(modifier = Modifier.padding(start = 56.dp))
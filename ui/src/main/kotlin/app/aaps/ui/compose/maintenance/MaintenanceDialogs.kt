@@ -19,6 +19,7 @@ import app.aaps.core.ui.R as CoreUiR
  * Encapsulates all maintenance-related dialogs and sheets from MainScreen:
  * - Maintenance bottom sheet with export/import/cleanup actions
  * - Log settings bottom sheet
+ * - Loop timings bottom sheet
  * - Cloud directory sheet
  * - 5 confirmation dialogs (reset APS, reset DB, cleanup DB, send logs, export CSV)
  * - Export state machine dialogs (missing password, confirm, ask password)
@@ -40,6 +41,7 @@ fun MaintenanceDialogs(
 ) {
     // Confirmation dialog states
     var showLogSettings by remember { mutableStateOf(false) }
+    var showLoopTimings by remember { mutableStateOf(false) }
     var showConfirmResetAps by remember { mutableStateOf(false) }
     var showConfirmResetDb by remember { mutableStateOf(false) }
     var showConfirmCleanupDb by remember { mutableStateOf(false) }
@@ -52,6 +54,8 @@ fun MaintenanceDialogs(
     val cloudDirectoryState by maintenanceViewModel.cloudDirectoryState.collectAsStateWithLifecycle()
     val exportConfig by maintenanceViewModel.exportConfig.collectAsStateWithLifecycle()
     val isDirectoryAccessGranted by maintenanceViewModel.isDirectoryAccessGranted.collectAsStateWithLifecycle()
+    val loopTimings by maintenanceViewModel.loopTimings.collectAsStateWithLifecycle()
+    val loopTracingEnabled by maintenanceViewModel.loopTracingEnabled.collectAsStateWithLifecycle()
 
     // Collect maintenance events
     LaunchedEffect(Unit) {
@@ -78,6 +82,10 @@ fun MaintenanceDialogs(
             onLogSettingsClick = { showLogSettings = true },
             onSendLogsClick = { showConfirmSendLogs = true },
             onDeleteLogsClick = { maintenanceViewModel.deleteLogs() },
+            onLoopTimingsClick = {
+                maintenanceViewModel.refreshLoopTimings()
+                showLoopTimings = true
+            },
             onDirectoryClick = {
                 maintenanceViewModel.logSelectDirectory()
                 onDirectoryClick()
@@ -114,6 +122,18 @@ fun MaintenanceDialogs(
         )
     }
 
+    // Loop timings bottom sheet
+    if (showLoopTimings) {
+        LoopTimingsBottomSheet(
+            stats = loopTimings,
+            tracingEnabled = loopTracingEnabled,
+            onDismiss = { showLoopTimings = false },
+            onToggleTracing = { maintenanceViewModel.toggleLoopTracing(it) },
+            onReset = { maintenanceViewModel.resetLoopTimings() },
+            onExport = { maintenanceViewModel.exportLoopTimings() }
+        )
+    }
+
     // Cloud directory dialog
     CloudDirectorySheet(
         state = cloudDirectoryState,
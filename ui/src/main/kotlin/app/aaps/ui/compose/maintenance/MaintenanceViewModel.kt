@@ -1,5 +1,6 @@
 package app.aaps.ui.compose.maintenance
 
+import android.content.Context
 import androidx.annotation.StringRes
 import androidx.compose.runtime.Stable
 import androidx.lifecycle.ViewModel
@@ -25,11 +26,14 @@ import app.aaps.core.interfaces.overview.OverviewData
 import app.aaps.core.interfaces.overview.graph.OverviewDataCache
 import app.aaps.core.interfaces.plugin.ActivePlugin
 import app.aaps.core.interfaces.plugin.OwnDatabasePlugin
+import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.profiling.TraceStageStats
 import app.aaps.core.interfaces.pump.PumpSync
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.sync.DataSyncSelectorXdrip
 import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
 import dagger.hilt.android.lifecycle.HiltViewModel
+import dagger.hilt.android.qualifiers.ApplicationContext
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.MutableStateFlow
@@ -53,6 +57,7 @@ sealed interface MaintenanceEvent {
 @HiltViewModel
 @Stable
 class MaintenanceViewModel @Inject constructor(
+    @ApplicationContext private val context: Context,
     private val aapsLogger: AAPSLogger,
     private val rh: ResourceHelper,
     private val l: L,
@@ -68,7 +73,8 @@ class MaintenanceViewModel @Inject constructor(
     private val pumpSync: PumpSync,
     private val iobCobCalculator: IobCobCalculator,
     private val overviewData: OverviewData,
-    private val overviewDataCache: OverviewDataCache
+    private val overviewDataCache: OverviewDataCache,
+    private val profiler: Profiler
 ) : ViewModel() {
 
     private val _events = MutableSharedFlow<MaintenanceEvent>()
@@ -133,6 +139,44 @@ class MaintenanceViewModel @Inject constructor(
         l.resetToDefaults()
     }
 
+    // Loop timings for LoopTimingsBottomSheet
+    private val _loopTimings = MutableStateFlow<List<TraceStageStats>>(emptyList())
+    val loopTimings: StateFlow<List<TraceStageStats>> = _loopTimings.asStateFlow()
+
+    private val _loopTracingEnabled = MutableStateFlow(false)
+    val loopTracingEnabled: StateFlow<Boolean> = _loopTracingEnabled.asStateFlow()
+
+    fun refreshLoopTimings() {
+        _loopTimings.value = profiler.stageStats().filter { it.count > 0 }
+        _loopTracingEnabled.value = profiler.tracingEnabled
+    }
+
+    fun toggleLoopTracing(enabled: Boolean) {
+        profiler.tracingEnabled = enabled
+        refreshLoopTimings()
+    }
+
+    fun resetLoopTimings() {
+        profiler.resetTraces()
+        refreshLoopTimings()
+    }
+
+    fun exportLoopTimings() {
+        viewModelScope.launch {
+            val exported = withContext(Dispatchers.IO) {
+                try {
+                    val file = fileListProvider.newTraceFile() ?: return@withContext false
+                    context.contentResolver.openOutputStream(file.uri)?.use { profiler.exportTraces(it) } != null
+                } catch (e: Exception) {
+                    aapsLogger.error(LTag.CORE, "Loop timings export failed", e)
+                    false
+                }
+            }
+            val message = rh.gs(if (exported) CoreUiR.string.loop_timings_exported else CoreUiR.string.loop_timings_export_failed)
+            _events.emit(MaintenanceEvent.Snackbar(message))
+        }
+    }
+
     // Log actions
 
     fun sendLogs() {
@@ -0,0 +1,82 @@
+package app.aaps.ui.compose.overview
+
+/**
+ * Sorted points of one graph series updated by changed records instead of full reload.
+ *
+ * Every point is stored with the key of its source record (DB id or timestamp).
+ * [apply] replaces or removes the points of changed records only, [removeIf] drops points leaving the graph window.
+ * [points] is an immutable snapshot. It stays the same instance until the series is modified,
+ * so publishing an unchanged series doesn't trigger recomposition. [version] is incremented on every modification.
+ *
+ * Not thread safe, callers synchronize access.
+ */
+class IncrementalSeries<K : Any, P : Any>(comparator: Comparator<in P>) {
+
+    private val entryComparator = Comparator<Pair<K, P>> { a, b -> comparator.compare(a.second, b.second) }
+    private var entries: List<Pair<K, P>> = emptyList()
+
+    var version = 0L
+        private set
+
+    var points: List<P> = emptyList()
+        private set
+
+    /**
+     * Replace content by full reload
+     * @return true if content has changed
+     */
+    fun replaceAll(newEntries: Collection<Pair<K, P>>): Boolean {
+        val sorted = newEntries.sortedWith(entryComparator)
+        if (sorted == entries) return false
+        set(sorted)
+        return true
+    }
+
+    /**
+     * Apply changed records
+     * @param changes new point of record, null if record is not part of series anymore (invalidated, out of window)
+     * @return true if content has changed
+     */
+    fun apply(changes: Map<K, P?>): Boolean {
+        if (changes.isEmpty()) return false
+        val current = entries.filter { it.first in changes }.groupBy({ it.first }, { it.second })
+        if (changes.all { (key, point) -> (current[key] ?: emptyList()) == listOfNotNull(point) }) return false
+        val kept = if (current.isEmpty()) entries else entries.filter { it.first !in changes }
+        val added = changes.mapNotNull { (key, point) -> point?.let { key to it } }.sortedWith(entryComparator)
+        set(merge(kept, added))
+        return true
+    }
+
+    /**
+     * Remove points matching [predicate]
+     * @return true if content has changed
+     */
+    fun removeIf(predicate: (P) -> Boolean): Boolean {
+        val kept = entries.filterNot { predicate(it.second) }
+        if (kept.size == entries.size) return false
+        set(kept)
+        return true
+    }
+
+    fun clear() {
+        if (entries.isNotEmpty()) set(emptyList())
+    }
+
+    private fun set(sorted: List<Pair<K, P>>) {
+        entries = sorted
+        points = sorted.map { it.second }
+        version++
+    }
+
+    private fun merge(a: List<Pair<K, P>>, b: List<Pair<K, P>>): List<Pair<K, P>> {
+        if (b.isEmpty()) return a
+        val result = ArrayList<Pair<K, P>>(a.size + b.size)
+        var i = 0
+        var j = 0
+        while (i < a.size && j < b.size)
+            if (entryComparator.compare(b[j], a[i]) < 0) result.add(b[j++]) else result.add(a[i++])
+        while (i < a.size) result.add(a[i++])
+        while (j < b.size) result.add(b[j++])
+        return result
+    }
+}
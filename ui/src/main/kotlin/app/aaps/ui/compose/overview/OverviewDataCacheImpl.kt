@@ -34,6 +34,7 @@ import app.aaps.core.interfaces.overview.graph.BasalGraphData
 import app.aaps.core.interfaces.overview.graph.BgDataPoint
 import app.aaps.core.interfaces.overview.graph.BgInfoData
 import app.aaps.core.interfaces.overview.graph.BgRange
+import app.aaps.core.interfaces.overview.graph.BgType
 import app.aaps.core.interfaces.overview.graph.BgiGraphData
 import app.aaps.core.interfaces.overview.graph.BolusGraphPoint
 import app.aaps.core.interfaces.overview.graph.BolusType
@@ -94,17 +95,23 @@ import kotlinx.coroutines.FlowPreview
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.collectLatest
 import kotlinx.coroutines.flow.debounce
 import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.filter
 import kotlinx.coroutines.flow.filterNotNull
 import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.merge
+import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.util.concurrent.ConcurrentLinkedQueue
 import kotlin.math.abs
 import kotlin.math.max
 import kotlin.math.min
@@ -118,6 +125,8 @@ import kotlin.math.min
  * - Updates state flows immediately when data changes
  * - No dependency on calculation workflow for basic display data
  * - Each data type has its own StateFlow for granular recomposition
+ * - Graph series are updated from changed records (IncrementalSeries, SampledStepSeries) and keep
+ *   their list instances while unchanged, so graphs skip work for series that didn't change
  *
  * MIGRATION NOTE: This coexists with OverviewDataImpl during migration.
  * Workers populate graph data. After migration complete, OverviewDataImpl will be deleted.
@@ -238,6 +247,24 @@ class OverviewDataCacheImpl @AssistedInject constructor(
     private val _runningModeGraphFlow = MutableStateFlow(RunningModeGraphData(emptyList()))
     override val runningModeGraphFlow: StateFlow<RunningModeGraphData> = _runningModeGraphFlow.asStateFlow()
 
+    // Incremental graph series. Unchanged series keep their list instance between publications.
+    private val bgReadingsSeries = IncrementalSeries<Long, BgDataPoint>(compareByDescending { it.timestamp })
+
+    // Treatments keyed by record id, expanded carbs have no id and are keyed by timestamp
+    private val treatmentMutex = Mutex()
+    private val bolusSeries = IncrementalSeries<Long, BolusGraphPoint>(compareBy { it.timestamp })
+    private val carbsSeries = IncrementalSeries<Long, CarbsGraphPoint>(compareBy { it.timestamp })
+    private val extendedBolusSeries = IncrementalSeries<Long, ExtendedBolusGraphPoint>(compareBy { it.timestamp })
+    private val therapyEventSeries = IncrementalSeries<Long, TherapyEventGraphPoint>(compareBy { it.timestamp })
+    private var treatmentWindow: Pair<Long, Long>? = null
+    private var treatmentBolusStep = 0.0
+    private var treatmentShowsExtendedBoluses = false
+
+    private val basalMutex = Mutex()
+    private val basalSeries = SampledStepSeries(lineCount = 2, interval = T.mins(1).msecs())
+    private val targetMutex = Mutex()
+    private val targetSeries = SampledStepSeries(lineCount = 1, interval = T.mins(5).msecs())
+
     // NSClient status
     private val _nsClientStatusFlow = MutableStateFlow(AapsClientStatusData())
     override val nsClientStatusFlow: StateFlow<AapsClientStatusData> = _nsClientStatusFlow.asStateFlow()
@@ -256,7 +283,7 @@ class OverviewDataCacheImpl @AssistedInject constructor(
                 .filterNotNull()
                 .debounce(300)
                 .collect {
-                    rebuildTreatmentGraph()
+                    updateTreatmentGraph()
                     rebuildEpsGraph()
                     rebuildRunningModeGraph()
                     rebuildTargetLine()
@@ -287,6 +314,7 @@ class OverviewDataCacheImpl @AssistedInject constructor(
             scope.launch {
                 persistenceLayer.observeChanges(GV::class.java).collect { glucoseValues ->
                     aapsLogger.debug(LTag.UI, "GV change detected, updating BgInfo (${glucoseValues.size} values)")
+                    applyGlucoseValueChanges(glucoseValues)
                     updateBgInfoFromDatabase()
                 }
             }
@@ -305,9 +333,11 @@ class OverviewDataCacheImpl @AssistedInject constructor(
             // Observe unit changes — affects BG value formatting and TT target range text
             scope.launch {
                 preferences.observe(StringKey.GeneralUnits).collect {
-                    aapsLogger.debug(LTag.UI, "Units changed, refreshing BgInfo and TempTarget")
+                    aapsLogger.debug(LTag.UI, "Units changed, refreshing BgInfo, TempTarget and target line")
                     updateBgInfoFromDatabase()
                     updateTempTargetFromDatabase()
+                    targetMutex.withLock { targetSeries.invalidate() }
+                    rebuildTargetLine()
                 }
             }
 
@@ -329,33 +359,33 @@ class OverviewDataCacheImpl @AssistedInject constructor(
             // Category B reactive graph observers (treatments, RM, TT, basal)
             // =========================================================================
 
-            // Observe treatment-related DB changes
-            for (type in listOf(
-                BS::class.java, CA::class.java, EB::class.java, TE::class.java
-            )) {
-                scope.launch {
-                    persistenceLayer.observeChanges(type)
-                        .debounce(300)
-                        .collect { rebuildTreatmentGraph() }
-                }
+            // Observe treatment-related DB changes, changed records are applied to graph series
+            scope.launch {
+                persistenceLayer.observeChanges(BS::class.java)
+                    .debounceAccumulating(300)
+                    .collect { updateTreatmentGraph(boluses = it) }
             }
-            // Observe HR changes for treatment graph + heart rate graph
+            scope.launch {
+                persistenceLayer.observeChanges(CA::class.java)
+                    .debounce(300)
+                    .collect { updateTreatmentGraph(carbsChanged = true) }
+            }
+            scope.launch {
+                persistenceLayer.observeChanges(TE::class.java)
+                    .debounceAccumulating(300)
+                    .collect { updateTreatmentGraph(therapyEvents = it) }
+            }
+            // Observe HR changes for heart rate graph
             scope.launch {
                 persistenceLayer.observeChanges(HR::class.java)
                     .debounce(300)
-                    .collect {
-                        rebuildTreatmentGraph()
-                        rebuildHeartRateGraph()
-                    }
+                    .collect { rebuildHeartRateGraph() }
             }
-            // Observe SC changes for treatment graph + steps graph
+            // Observe SC changes for steps graph
             scope.launch {
                 persistenceLayer.observeChanges(SC::class.java)
                     .debounce(300)
-                    .collect {
-                        rebuildTreatmentGraph()
-                        rebuildStepsGraph()
-                    }
+                    .collect { rebuildStepsGraph() }
             }
             // Observe running mode changes for graph + chip
             scope.launch {
@@ -370,12 +400,13 @@ class OverviewDataCacheImpl @AssistedInject constructor(
 
             // Observe TT changes for target line graph + chip
             scope.launch {
+                val changeTimes = RecordChangeTimes<TT>(persistenceLayer.getLastTemporaryTargetId())
                 persistenceLayer.observeChanges(TT::class.java)
                     .compensateForClockSkew(config, dateUtil)
-                    .debounce(300)
-                    .collect {
+                    .debounceAccumulating(300)
+                    .collect { temporaryTargets ->
                         updateTempTargetFromDatabase()
-                        rebuildTargetLine()
+                        rebuildTargetLine(since = changeTimes.since(temporaryTargets, keepFrom = changeTimesKeepFrom()))
                     }
             }
             // Refresh TT chip after APS loop runs so the APS-adjusted target (read from
@@ -405,27 +436,34 @@ class OverviewDataCacheImpl @AssistedInject constructor(
                     .debounce(300)
                     .collect {
                         rebuildEpsGraph()
-                        delay(500) // Allow ProfileFunctionImpl cache invalidation
                         updateProfileFromDatabase()
                         updateTempTargetFromDatabase()
+                        // profile change moves target and basal of whole window
+                        targetMutex.withLock { targetSeries.invalidate() }
+                        basalMutex.withLock { basalSeries.invalidate() }
                         rebuildTargetLine()
                         rebuildBasalGraph()
                     }
             }
 
-            // Observe basal-related DB changes
+            // Observe basal-related DB changes, basal is sampled again from earliest time affected by changed records
             scope.launch {
+                val changeTimes = RecordChangeTimes<TB>(persistenceLayer.getLastTemporaryBasalId())
                 persistenceLayer.observeChanges(TB::class.java)
-                    .debounce(300)
-                    .collect {
-                        rebuildBasalGraph()
+                    .debounceAccumulating(300)
+                    .collect { temporaryBasals ->
+                        rebuildBasalGraph(since = changeTimes.since(temporaryBasals, keepFrom = changeTimesKeepFrom()))
                         updateTbrFromDatabase()
                     }
             }
             scope.launch {
+                val changeTimes = RecordChangeTimes<EB>(persistenceLayer.getLastExtendedBolusId())
                 persistenceLayer.observeChanges(EB::class.java)
-                    .debounce(300)
-                    .collect { rebuildBasalGraph() }
+                    .debounceAccumulating(300)
+                    .collect { extendedBoluses ->
+                        updateTreatmentGraph(extendedBoluses = extendedBoluses)
+                        rebuildBasalGraph(since = changeTimes.since(extendedBoluses, keepFrom = changeTimesKeepFrom()))
+                    }
             }
 
             // observeChanges() does not fire when the DB is wiped via clearAllTables().
@@ -672,7 +710,38 @@ class OverviewDataCacheImpl @AssistedInject constructor(
     }
 
     override fun updateBgReadings(data: List<BgDataPoint>) {
-        _bgReadingsFlow.value = data
+        synchronized(bgReadingsSeries) {
+            if (bgReadingsSeries.replaceAll(data.map { it.timestamp to it })) _bgReadingsFlow.value = bgReadingsSeries.points
+        }
+    }
+
+    /**
+     * Apply changed glucose values to BG readings of current window.
+     * Points are built like PrepareGraphDataWorker does so that its next full update is a no-op.
+     */
+    private fun applyGlucoseValueChanges(glucoseValues: List<GV>) {
+        val range = timeRangeFlow.value ?: return
+        val highMark = preferences.get(UnitDoubleKey.OverviewHighMark)
+        val lowMark = preferences.get(UnitDoubleKey.OverviewLowMark)
+        // Readings are keyed by timestamp, invalidated value may be replaced by another one with the same timestamp
+        val changes = glucoseValues.groupBy { it.timestamp }.mapValues { (_, values) ->
+            values.lastOrNull { it.isValid && it.value >= 39 && it.timestamp in range.fromTime..range.toTime }?.let { gv ->
+                val valueInUnits = profileUtil.fromMgdlToUnits(gv.value)
+                BgDataPoint(
+                    timestamp = gv.timestamp,
+                    value = valueInUnits,
+                    range = when {
+                        valueInUnits > highMark -> BgRange.HIGH
+                        valueInUnits < lowMark  -> BgRange.LOW
+                        else                    -> BgRange.IN_RANGE
+                    },
+                    type = BgType.REGULAR
+                )
+            }
+        }
+        synchronized(bgReadingsSeries) {
+            if (bgReadingsSeries.apply(changes)) _bgReadingsFlow.value = bgReadingsSeries.points
+        }
     }
 
     override fun updateBucketedData(data: List<BgDataPoint>) {
@@ -743,76 +812,130 @@ class OverviewDataCacheImpl @AssistedInject constructor(
         return fromTime to toTime
     }
 
-    private suspend fun rebuildTreatmentGraph() {
+    /** Changed records older than live window are not tracked, their update rebuilds whole window */
+    private fun changeTimesKeepFrom(): Long = dateUtil.now() - T.hours(Constants.GRAPH_TIME_RANGE_HOURS.toLong()).msecs()
+
+    /**
+     * Bring treatment series to current window and apply changed records.
+     * Only window parts not loaded yet are queried, points leaving the window are dropped.
+     * Series are reloaded if the window doesn't overlap the loaded one or pump settings used by points have changed.
+     * Expanded carbs have no record id and are reloaded whenever carbs change or the window moves.
+     */
+    private suspend fun updateTreatmentGraph(
+        boluses: List<BS> = emptyList(),
+        carbsChanged: Boolean = false,
+        extendedBoluses: List<EB> = emptyList(),
+        therapyEvents: List<TE> = emptyList()
+    ) {
         val (fromTime, toTime) = graphTimeRange() ?: return
-        val bolusStep = activePlugin.activePump.pumpDescription.bolusStep
-
-        // Boluses and SMBs
-        val bolusPoints = persistenceLayer.getBolusesFromTimeToTime(fromTime, toTime, true)
-            .filter { it.type == BS.Type.NORMAL || it.type == BS.Type.SMB }
-            .map { bs ->
-                BolusGraphPoint(
-                    timestamp = bs.timestamp,
-                    amount = bs.amount,
-                    bolusType = if (bs.type == BS.Type.SMB) BolusType.SMB else BolusType.NORMAL,
-                    isValid = bs.isValid,
-                    label = decimalFormatter.toPumpSupportedBolus(bs.amount, bolusStep)
-                )
+        treatmentMutex.withLock {
+            val pump = activePlugin.activePump
+            val bolusStep = pump.pumpDescription.bolusStep
+            val showExtendedBoluses = !pump.isFakingTempsByExtendedBoluses
+            val loaded = treatmentWindow?.takeIf { (loadedFrom, loadedTo) ->
+                fromTime <= loadedTo && toTime >= loadedFrom && bolusStep == treatmentBolusStep && showExtendedBoluses == treatmentShowsExtendedBoluses
             }
-
-        // Carbs
-        val carbsPoints = persistenceLayer.getCarbsFromTimeToTimeExpanded(fromTime, toTime, true)
-            .map { ca ->
-                CarbsGraphPoint(
-                    timestamp = ca.timestamp,
-                    amount = ca.amount,
-                    isValid = ca.isValid && ca.amount > 0,
-                    label = rh.gs(R.string.format_carbs, ca.amount.toInt())
+            var changed: Boolean
+            if (loaded == null) {
+                changed = bolusSeries.replaceAll(
+                    persistenceLayer.getBolusesFromTimeToTime(fromTime, toTime, true).mapNotNull { bs -> bolusPoint(bs, fromTime, toTime, bolusStep)?.let { bs.id to it } }
                 )
-            }
-
-        // Extended boluses
-        val extendedBolusPoints = if (!activePlugin.activePump.isFakingTempsByExtendedBoluses) {
-            persistenceLayer.getExtendedBolusesStartingFromTimeToTime(fromTime, toTime, true)
-                .filter { it.duration != 0L }
-                .map { eb ->
-                    ExtendedBolusGraphPoint(
-                        timestamp = eb.timestamp,
-                        amount = eb.amount,
-                        rate = eb.rate,
-                        duration = eb.duration,
-                        label = rh.gs(R.string.extended_bolus_data_point_graph, eb.amount, eb.rate)
-                    )
-                }
-        } else emptyList()
-
-        // Therapy events
-        val therapyEventPoints = persistenceLayer.getTherapyEventDataFromToTime(fromTime - T.hours(6).msecs(), toTime)
-            .filter { te -> te.timestamp + te.duration >= fromTime && te.timestamp <= toTime }
-            .map { te ->
-                val teType = when {
-                    te.type == TE.Type.NS_MBG                -> TherapyEventType.MBG
-                    te.type == TE.Type.FINGER_STICK_BG_VALUE -> TherapyEventType.FINGER_STICK
-                    te.type == TE.Type.ANNOUNCEMENT          -> TherapyEventType.ANNOUNCEMENT
-                    te.type == TE.Type.SETTINGS_EXPORT       -> TherapyEventType.SETTINGS_EXPORT
-                    te.type == TE.Type.EXERCISE              -> TherapyEventType.EXERCISE
-                    te.duration > 0                          -> TherapyEventType.GENERAL_WITH_DURATION
-                    else                                     -> TherapyEventType.GENERAL
+                changed = extendedBolusSeries.replaceAll(
+                    if (showExtendedBoluses)
+                        persistenceLayer.getExtendedBolusesStartingFromTimeToTime(fromTime, toTime, true).mapNotNull { eb -> extendedBolusPoint(eb, fromTime, toTime)?.let { eb.id to it } }
+                    else emptyList()
+                ) or changed
+                changed = therapyEventSeries.replaceAll(
+                    persistenceLayer.getTherapyEventDataFromToTime(fromTime - T.hours(6).msecs(), toTime).mapNotNull { te -> therapyEventPoint(te, fromTime, toTime)?.let { te.id to it } }
+                ) or changed
+            } else {
+                val (loadedFrom, loadedTo) = loaded
+                changed = bolusSeries.removeIf { it.timestamp !in fromTime..toTime }
+                changed = extendedBolusSeries.removeIf { it.timestamp !in fromTime..toTime } or changed
+                changed = therapyEventSeries.removeIf { !isTherapyEventInWindow(it.timestamp, it.duration, fromTime, toTime) } or changed
+
+                // Records of window parts not loaded yet (timestamps from window start minus lead), followed by changed records
+                fun missing(lead: Long = 0L) = listOf(fromTime - lead to loadedFrom - lead - 1, loadedTo + 1 to toTime).filter { (start, end) -> start <= end }
+                val bolusChanges = missing().flatMap { (start, end) -> persistenceLayer.getBolusesFromTimeToTime(start, end, true) } + boluses
+                changed = bolusSeries.apply(bolusChanges.associate { bs -> bs.id to bolusPoint(bs, fromTime, toTime, bolusStep) }) or changed
+                if (showExtendedBoluses) {
+                    val extendedBolusChanges = missing().flatMap { (start, end) -> persistenceLayer.getExtendedBolusesStartingFromTimeToTime(start, end, true) } + extendedBoluses
+                    changed = extendedBolusSeries.apply(extendedBolusChanges.associate { eb -> eb.id to extendedBolusPoint(eb, fromTime, toTime) }) or changed
                 }
-                val teLabel = if (!te.note.isNullOrBlank()) te.note!! else translator.translate(te.type)
-                TherapyEventGraphPoint(
-                    timestamp = te.timestamp,
-                    eventType = teType,
-                    label = teLabel,
-                    duration = te.duration
-                )
+                val therapyEventChanges = missing(T.hours(6).msecs()).flatMap { (start, end) -> persistenceLayer.getTherapyEventDataFromToTime(start, end) } + therapyEvents
+                changed = therapyEventSeries.apply(therapyEventChanges.associate { te -> te.id to therapyEventPoint(te, fromTime, toTime) }) or changed
             }
+            if (loaded == null || carbsChanged || loaded != fromTime to toTime)
+                changed = carbsSeries.replaceAll(
+                    persistenceLayer.getCarbsFromTimeToTimeExpanded(fromTime, toTime, true).map { ca ->
+                        ca.timestamp to CarbsGraphPoint(
+                            timestamp = ca.timestamp,
+                            amount = ca.amount,
+                            isValid = ca.isValid && ca.amount > 0,
+                            label = rh.gs(R.string.format_carbs, ca.amount.toInt())
+                        )
+                    }
+                ) or changed
+
+            treatmentWindow = fromTime to toTime
+            treatmentBolusStep = bolusStep
+            treatmentShowsExtendedBoluses = showExtendedBoluses
+            if (changed)
+                _treatmentGraphFlow.value = TreatmentGraphData(
+                    boluses = bolusSeries.points,
+                    carbs = carbsSeries.points,
+                    extendedBoluses = extendedBolusSeries.points,
+                    therapyEvents = therapyEventSeries.points
+                )
+        }
+    }
+
+    /** Bolus or SMB point, null if record is not shown in window */
+    private fun bolusPoint(bs: BS, fromTime: Long, toTime: Long, bolusStep: Double): BolusGraphPoint? {
+        if (!bs.isValid || bs.timestamp !in fromTime..toTime || (bs.type != BS.Type.NORMAL && bs.type != BS.Type.SMB)) return null
+        return BolusGraphPoint(
+            timestamp = bs.timestamp,
+            amount = bs.amount,
+            bolusType = if (bs.type == BS.Type.SMB) BolusType.SMB else BolusType.NORMAL,
+            isValid = bs.isValid,
+            label = decimalFormatter.toPumpSupportedBolus(bs.amount, bolusStep)
+        )
+    }
+
+    /** Extended bolus point, null if record is not shown in window */
+    private fun extendedBolusPoint(eb: EB, fromTime: Long, toTime: Long): ExtendedBolusGraphPoint? {
+        if (!eb.isValid || eb.timestamp !in fromTime..toTime || eb.duration == 0L) return null
+        return ExtendedBolusGraphPoint(
+            timestamp = eb.timestamp,
+            amount = eb.amount,
+            rate = eb.rate,
+            duration = eb.duration,
+            label = rh.gs(R.string.extended_bolus_data_point_graph, eb.amount, eb.rate)
+        )
+    }
 
-        _treatmentGraphFlow.value = TreatmentGraphData(
-            boluses = bolusPoints,
-            carbs = carbsPoints,
-            extendedBoluses = extendedBolusPoints,
-            therapyEvents = therapyEventPoints
+    /** Therapy events starting up to 6h before window are shown if they last into it */
+    private fun isTherapyEventInWindow(timestamp: Long, duration: Long, fromTime: Long, toTime: Long): Boolean =
+        timestamp in fromTime - T.hours(6).msecs()..toTime && timestamp + duration >= fromTime
+
+    /** Therapy event point, null if record is not shown in window */
+    private fun therapyEventPoint(te: TE, fromTime: Long, toTime: Long): TherapyEventGraphPoint? {
+        if (!te.isValid || !isTherapyEventInWindow(te.timestamp, te.duration, fromTime, toTime)) return null
+        val teType = when {
+            te.type == TE.Type.NS_MBG                -> TherapyEventType.MBG
+            te.type == TE.Type.FINGER_STICK_BG_VALUE -> TherapyEventType.FINGER_STICK
+            te.type == TE.Type.ANNOUNCEMENT          -> TherapyEventType.ANNOUNCEMENT
+            te.type == TE.Type.SETTINGS_EXPORT       -> TherapyEventType.SETTINGS_EXPORT
+            te.type == TE.Type.EXERCISE              -> TherapyEventType.EXERCISE
+            te.duration > 0                          -> TherapyEventType.GENERAL_WITH_DURATION
+            else                                     -> TherapyEventType.GENERAL
+        }
+        val teLabel = if (!te.note.isNullOrBlank()) te.note!! else translator.translate(te.type)
+        return TherapyEventGraphPoint(
+            timestamp = te.timestamp,
+            eventType = teType,
+            label = teLabel,
+            duration = te.duration
         )
     }
 
@@ -866,71 +989,46 @@ class OverviewDataCacheImpl @AssistedInject constructor(
         _runningModeGraphFlow.value = RunningModeGraphData(segments = segments)
     }
 
-    private suspend fun rebuildTargetLine() {
+    /**
+     * @param since earliest time whose target may have changed, null if only the window has moved
+     */
+    private suspend fun rebuildTargetLine(since: Long? = null) {
         val (fromTime, toTime) = graphTimeRange() ?: return
         val profile = profileFunction.getProfile() ?: return
         var endTime = toTime
         loop.lastRun?.constraintsProcessed?.let { endTime = max(it.latestPredictionsTime, endTime) }
 
-        val targets = mutableListOf<GraphDataPoint>()
-        var lastTarget = -1.0
-        var time = fromTime
-        while (time < endTime) {
-            val tt = persistenceLayer.getTemporaryTargetActiveAt(time)
-            val value = if (tt != null) {
-                profileUtil.fromMgdlToUnits(tt.target())
-            } else {
-                profileUtil.fromMgdlToUnits((profile.getTargetLowMgdl(time) + profile.getTargetHighMgdl(time)) / 2)
-            }
-            if (value != lastTarget) {
-                targets.add(GraphDataPoint(time, value))
-                lastTarget = value
+        targetMutex.withLock {
+            targetSeries.update(fromTime, endTime, since) { time ->
+                val tt = persistenceLayer.getTemporaryTargetActiveAt(time)
+                val value = if (tt != null) {
+                    profileUtil.fromMgdlToUnits(tt.target())
+                } else {
+                    profileUtil.fromMgdlToUnits((profile.getTargetLowMgdl(time) + profile.getTargetHighMgdl(time)) / 2)
+                }
+                doubleArrayOf(value)
             }
-            time += 5 * 60 * 1000L
+            _targetLineFlow.value = TargetLineData(targetSeries.line(0))
         }
-        // Final point
-        if (lastTarget >= 0.0) targets.add(GraphDataPoint(endTime, lastTarget))
-
-        _targetLineFlow.value = TargetLineData(targets)
     }
 
-    private suspend fun rebuildBasalGraph() {
+    /**
+     * @param since earliest time whose basal may have changed, null if only the window has moved
+     */
+    private suspend fun rebuildBasalGraph(since: Long? = null) {
         val (fromTime, toTime) = graphTimeRange() ?: return
-        val profileBasal = mutableListOf<GraphDataPoint>()
-        val actualBasal = mutableListOf<GraphDataPoint>()
-        var lastProfileBasal = -1.0
-        var lastActualBasal = -1.0
-        var maxBasal = 0.0
-
-        var time = fromTime
-        while (time < toTime) {
-            val profile = profileFunction.getProfile(time)
-            if (profile == null) {
-                time += 60 * 1000L
-                continue
-            }
-            val basalData = iobCobCalculator.getBasalData(profile, time)
-            val profileBasalValue = basalData.basal
-            val actualBasalValue = if (basalData.isTempBasalRunning) basalData.tempBasalAbsolute else profileBasalValue
-
-            if (profileBasalValue != lastProfileBasal) {
-                profileBasal.add(GraphDataPoint(time, profileBasalValue))
-                lastProfileBasal = profileBasalValue
-            }
-            if (actualBasalValue != lastActualBasal) {
-                actualBasal.add(GraphDataPoint(time, actualBasalValue))
-                lastActualBasal = actualBasalValue
+        basalMutex.withLock {
+            basalSeries.update(fromTime, toTime, since) { time ->
+                val profile = profileFunction.getProfile(time) ?: return@update null
+                val basalData = iobCobCalculator.getBasalData(profile, time)
+                val actualBasalValue = if (basalData.isTempBasalRunning) basalData.tempBasalAbsolute else basalData.basal
+                doubleArrayOf(basalData.basal, actualBasalValue)
             }
-            maxBasal = max(maxBasal, max(profileBasalValue, actualBasalValue))
-
-            time += 60 * 1000L
+            val profileBasal = basalSeries.line(0)
+            val actualBasal = basalSeries.line(1)
+            val maxBasal = max(profileBasal.maxOfOrNull { it.value } ?: 0.0, actualBasal.maxOfOrNull { it.value } ?: 0.0)
+            _basalGraphFlow.value = BasalGraphData(profileBasal, actualBasal, maxBasal)
         }
-
-        // Final points
-        if (lastProfileBasal >= 0.0) profileBasal.add(GraphDataPoint(toTime, lastProfileBasal))
-        if (lastActualBasal >= 0.0) actualBasal.add(GraphDataPoint(toTime, lastActualBasal))
-
-        _basalGraphFlow.value = BasalGraphData(profileBasal, actualBasal, maxBasal)
     }
 
     // =========================================================================
@@ -1054,6 +1152,15 @@ class OverviewDataCacheImpl @AssistedInject constructor(
 
     override fun reset() {
         _timeRangeFlow.value = null
+        synchronized(bgReadingsSeries) { bgReadingsSeries.clear() }
+        scope.launch {
+            treatmentMutex.withLock {
+                listOf(bolusSeries, carbsSeries, extendedBolusSeries, therapyEventSeries).forEach { it.clear() }
+                treatmentWindow = null
+            }
+            basalMutex.withLock { basalSeries.clear() }
+            targetMutex.withLock { targetSeries.clear() }
+        }
         _bgReadingsFlow.value = emptyList()
         _bucketedDataFlow.value = emptyList()
         _predictionsFlow.value = emptyList()
@@ -1084,4 +1191,16 @@ class OverviewDataCacheImpl @AssistedInject constructor(
         _nsClientStatusFlow.value = AapsClientStatusData()
         _calcProgressFlow.value = 100
     }
-}
\ No newline at end of file
+
+    /**
+     * [debounce] for observeChanges lists. Lists dropped by debounce are not lost,
+     * emitted list contains all records changed since previous emission in order of change.
+     */
+    private fun <E : Any> Flow<List<E>>.debounceAccumulating(timeoutMillis: Long): Flow<List<E>> {
+        val pending = ConcurrentLinkedQueue<E>()
+        return onEach { pending.addAll(it) }
+            .debounce(timeoutMillis)
+            .map { generateSequence { pending.poll() }.toList() }
+            .filter { it.isNotEmpty() }
+    }
+}
@@ -0,0 +1,49 @@
+package app.aaps.ui.compose.overview
+
+import app.aaps.core.data.model.HasIDs
+import app.aaps.core.data.model.TimeStamped
+
+/**
+ * Earliest time affected by changed records of one table (temporary basals, targets, extended boluses).
+ *
+ * Update of a record can move its timestamp, so the time before the update is affected too.
+ * Timestamps are remembered for records seen in changes. Old timestamp of a record created
+ * before observing started (or forgotten already) is not known, its update affects the whole window.
+ * Ids grow, so a record with id above all such records is a new one.
+ *
+ * Not thread safe, callers synchronize access.
+ *
+ * @param lastKnownId last id in database when observing started, records up to it may have unknown timestamp
+ */
+class RecordChangeTimes<T>(lastKnownId: Long?) where T : HasIDs, T : TimeStamped {
+
+    // records up to this id may have unknown timestamp
+    private var unknownUpToId = lastKnownId ?: 0L
+    private val timestamps = HashMap<Long, Long>()
+
+    /**
+     * @param changes changed records
+     * @param keepFrom timestamps older than this are forgotten, update of such record affects the whole window anyway
+     * @return earliest affected time, [Long.MIN_VALUE] if it's not known
+     */
+    fun since(changes: List<T>, keepFrom: Long): Long {
+        var since = Long.MAX_VALUE
+        for (record in changes) {
+            val previous = timestamps.put(record.id, record.timestamp)
+            since = when {
+                previous != null            -> minOf(since, previous, record.timestamp)
+                record.id > unknownUpToId   -> minOf(since, record.timestamp)
+                else                        -> Long.MIN_VALUE
+            }
+        }
+        val iterator = timestamps.entries.iterator()
+        while (iterator.hasNext()) {
+            val (id, timestamp) = iterator.next()
+            if (timestamp < keepFrom) {
+                unknownUpToId = maxOf(unknownUpToId, id)
+                iterator.remove()
+            }
+        }
+        return since
+    }
+}
@@ -0,0 +1,120 @@
+package app.aaps.ui.compose.overview
+
+import app.aaps.core.interfaces.overview.graph.GraphDataPoint
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Step lines sampled on a fixed grid and stored as points where value changes (basal, target line).
+ *
+ * The grid starts at window start. [update] keeps points before the first changed time, moves window start
+ * by whole intervals and samples only times not sampled yet. The result is the same as sampling the whole window.
+ * Each line is closed by a final point at window end.
+ *
+ * Not thread safe, callers synchronize access.
+ *
+ * @param lineCount number of lines sampled together
+ * @param interval sampling step in ms
+ */
+class SampledStepSeries(private val lineCount: Int, private val interval: Long) {
+
+    private val lines = List(lineCount) { mutableListOf<GraphDataPoint>() }
+    private var snapshots: List<List<GraphDataPoint>> = List(lineCount) { emptyList() }
+    private var from = 0L
+    private var to = 0L
+    private var valid = false
+
+    var version = 0L
+        private set
+
+    /** Snapshot of line [index], same instance until the line changes */
+    fun line(index: Int): List<GraphDataPoint> = snapshots[index]
+
+    /** Next [update] samples the whole window */
+    fun invalidate() {
+        valid = false
+    }
+
+    fun clear() {
+        lines.forEach { it.clear() }
+        valid = false
+        publish()
+    }
+
+    /**
+     * @param since earliest time whose value may have changed, null if only the window has moved
+     * @param sample values of all lines at time, null to skip time
+     */
+    suspend fun update(from: Long, to: Long, since: Long?, sample: suspend (Long) -> DoubleArray?) {
+        val incremental = valid && from <= this.to && to >= this.from && (from - this.from) % interval == 0L && (since == null || since > from)
+        if (!incremental || !moveStart(from, sample)) {
+            lines.forEach { it.clear() }
+            this.from = from
+            this.to = from
+        }
+        // sampling restarts at first changed grid time, at first time not sampled yet or at new window end
+        val start = minOf(since?.let { alignDown(max(it, this.from)) } ?: alignUp(this.to), alignUp(this.to), alignUp(to))
+        // final points are at previous window end
+        lines.forEach { line -> line.removeAll { it.timestamp >= min(start, this.to) } }
+
+        val last = DoubleArray(lineCount) { lines[it].lastOrNull()?.value ?: -1.0 }
+        var time = start
+        while (time < to) {
+            val values = sample(time)
+            if (values != null)
+                for (i in 0 until lineCount)
+                    if (values[i] != last[i]) {
+                        lines[i].add(GraphDataPoint(time, values[i]))
+                        last[i] = values[i]
+                    }
+            time += interval
+        }
+        for (i in 0 until lineCount)
+            if (last[i] >= 0.0) lines[i].add(GraphDataPoint(to, last[i]))
+        this.to = to
+        valid = true
+        publish()
+    }
+
+    /**
+     * Move window start to [newFrom] keeping sampled points of the rest of the window
+     * @return false if window must be sampled again
+     */
+    private suspend fun moveStart(newFrom: Long, sample: suspend (Long) -> DoubleArray?): Boolean {
+        if (newFrom > from) {
+            val values = sample(newFrom) ?: return false
+            for (i in 0 until lineCount) {
+                val line = lines[i]
+                line.removeAll { it.timestamp <= newFrom }
+                line.add(0, GraphDataPoint(newFrom, values[i]))
+            }
+        } else if (newFrom < from) {
+            // sample the head, first old point stays only if value changes there
+            val head = List(lineCount) { mutableListOf<GraphDataPoint>() }
+            var time = newFrom
+            while (time < from) {
+                val values = sample(time)
+                if (values != null)
+                    for (i in 0 until lineCount)
+                        if (values[i] != head[i].lastOrNull()?.value) head[i].add(GraphDataPoint(time, values[i]))
+                time += interval
+            }
+            for (i in 0 until lineCount) {
+                val line = lines[i]
+                if (line.isNotEmpty() && line.first().value == head[i].lastOrNull()?.value) line.removeAt(0)
+                line.addAll(0, head[i])
+            }
+        }
+        from = newFrom
+        return true
+    }
+
+    private fun publish() {
+        val new = lines.mapIndexed { i, line -> if (line == snapshots[i]) snapshots[i] else line.toList() }
+        if (new.indices.any { new[it] !== snapshots[it] }) version++
+        snapshots = new
+    }
+
+    private fun alignDown(time: Long) = from + (time - from) / interval * interval
+    private fun alignUp(time: Long) = from + (time - from + interval - 1) / interval * interval
+}
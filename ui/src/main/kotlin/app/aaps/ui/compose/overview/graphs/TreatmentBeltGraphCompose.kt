@@ -154,7 +154,8 @@ fun TreatmentBeltGraphCompose(
         lastRunningModeData.value = runningModeData
     }
 
-    LaunchedEffect(runningModeData, treatmentGraphData, stableTimeRange) {
+    // Only therapy events are drawn here, bolus and carbs changes keep the same therapyEvents instance
+    LaunchedEffect(runningModeData, treatmentGraphData.therapyEvents, stableTimeRange) {
         // Don't skip when hasRealTimeRange is false — always populate model to avoid flicker.
         // Use fallback time range so the chart skeleton (axes/border) always renders.
         if (!hasRealTimeRange && lastRunningModeData.value.segments.isEmpty() && lastTreatmentData.value.therapyEvents.isEmpty()) {
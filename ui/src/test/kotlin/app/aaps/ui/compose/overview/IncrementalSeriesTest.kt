@@ -0,0 +1,59 @@
+package app.aaps.ui.compose.overview
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+
+class IncrementalSeriesTest {
+
+    private data class Point(val timestamp: Long, val value: Int)
+
+    private val series = IncrementalSeries<Long, Point>(compareBy { it.timestamp })
+
+    @Test
+    fun replaceAll_sortsPoints() {
+        assertThat(series.replaceAll(listOf(2L to Point(20, 2), 1L to Point(10, 1)))).isTrue()
+        assertThat(series.points).containsExactly(Point(10, 1), Point(20, 2)).inOrder()
+    }
+
+    @Test
+    fun replaceAll_sameContent_keepsSnapshot() {
+        series.replaceAll(listOf(1L to Point(10, 1), 2L to Point(20, 2)))
+        val points = series.points
+        val version = series.version
+
+        assertThat(series.replaceAll(listOf(2L to Point(20, 2), 1L to Point(10, 1)))).isFalse()
+        assertThat(series.points).isSameInstanceAs(points)
+        assertThat(series.version).isEqualTo(version)
+    }
+
+    @Test
+    fun apply_insertsUpdatesAndDeletes() {
+        series.replaceAll(listOf(1L to Point(10, 1), 2L to Point(20, 2), 3L to Point(30, 3)))
+        val version = series.version
+
+        // record 1 moved after record 3, record 2 invalidated, record 4 inserted
+        assertThat(series.apply(mapOf(1L to Point(35, 1), 2L to null, 4L to Point(15, 4)))).isTrue()
+        assertThat(series.points).containsExactly(Point(15, 4), Point(30, 3), Point(35, 1)).inOrder()
+        assertThat(series.version).isGreaterThan(version)
+    }
+
+    @Test
+    fun apply_unchangedRecords_keepsSnapshot() {
+        series.replaceAll(listOf(1L to Point(10, 1), 2L to Point(20, 2)))
+        val points = series.points
+
+        assertThat(series.apply(mapOf(1L to Point(10, 1), 5L to null))).isFalse()
+        assertThat(series.points).isSameInstanceAs(points)
+    }
+
+    @Test
+    fun removeIf_dropsPointsOutOfWindow() {
+        series.replaceAll(listOf(1L to Point(10, 1), 2L to Point(20, 2)))
+        val points = series.points
+
+        assertThat(series.removeIf { it.timestamp < 5 }).isFalse()
+        assertThat(series.points).isSameInstanceAs(points)
+        assertThat(series.removeIf { it.timestamp < 15 }).isTrue()
+        assertThat(series.points).containsExactly(Point(20, 2))
+    }
+}
@@ -0,0 +1,42 @@
+package app.aaps.ui.compose.overview
+
+import app.aaps.core.data.model.TB
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+
+class RecordChangeTimesTest {
+
+    private fun tb(id: Long, timestamp: Long) = TB(id = id, timestamp = timestamp, type = TB.Type.NORMAL, isAbsolute = true, rate = 1.0, duration = 1000)
+
+    @Test
+    fun newRecordAffectsItsTime() {
+        val sut = RecordChangeTimes<TB>(lastKnownId = 10)
+        assertThat(sut.since(listOf(tb(11, 5000), tb(12, 3000)), keepFrom = 0)).isEqualTo(3000)
+    }
+
+    @Test
+    fun movedRecordAffectsPreviousTime() {
+        val sut = RecordChangeTimes<TB>(lastKnownId = 10)
+        sut.since(listOf(tb(11, 5000)), keepFrom = 0)
+        // record moved later, interval from its previous time must be sampled again
+        assertThat(sut.since(listOf(tb(11, 8000)), keepFrom = 0)).isEqualTo(5000)
+        assertThat(sut.since(listOf(tb(11, 2000)), keepFrom = 0)).isEqualTo(2000)
+    }
+
+    @Test
+    fun updateOfRecordCreatedBeforeObservingIsUnknown() {
+        val sut = RecordChangeTimes<TB>(lastKnownId = 10)
+        assertThat(sut.since(listOf(tb(11, 5000), tb(10, 6000)), keepFrom = 0)).isEqualTo(Long.MIN_VALUE)
+        // time is known from now on
+        assertThat(sut.since(listOf(tb(10, 7000)), keepFrom = 0)).isEqualTo(6000)
+    }
+
+    @Test
+    fun forgottenRecordIsUnknown() {
+        val sut = RecordChangeTimes<TB>(lastKnownId = null)
+        sut.since(listOf(tb(1, 1000), tb(2, 5000)), keepFrom = 2000)
+        assertThat(sut.since(listOf(tb(1, 6000)), keepFrom = 2000)).isEqualTo(Long.MIN_VALUE)
+        assertThat(sut.since(listOf(tb(2, 6000)), keepFrom = 2000)).isEqualTo(5000)
+        assertThat(sut.since(listOf(tb(3, 7000)), keepFrom = 2000)).isEqualTo(7000)
+    }
+}
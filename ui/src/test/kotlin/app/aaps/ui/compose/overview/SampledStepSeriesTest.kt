@@ -0,0 +1,79 @@
+package app.aaps.ui.compose.overview
+
+import app.aaps.core.interfaces.overview.graph.GraphDataPoint
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.Test
+
+class SampledStepSeriesTest {
+
+    private val interval = 10L
+
+    // value changes at 25 and 62, no value before 5
+    private var steps = mapOf(5L to 1.0, 25L to 2.0, 62L to 3.0)
+    private var sampledTimes = mutableListOf<Long>()
+
+    private fun sample(time: Long): DoubleArray? {
+        sampledTimes.add(time)
+        return steps.filterKeys { it <= time }.maxByOrNull { it.key }?.let { doubleArrayOf(it.value) }
+    }
+
+    /** Whole window sampled from scratch */
+    private suspend fun full(from: Long, to: Long): List<GraphDataPoint> =
+        SampledStepSeries(1, interval).also { it.update(from, to, null) { time -> sample(time) } }.line(0)
+
+    @Test
+    fun update_samplesWindowAndClosesLine() = runTest {
+        val series = SampledStepSeries(1, interval)
+        series.update(0, 100, null) { sample(it) }
+        assertThat(series.line(0)).containsExactly(
+            GraphDataPoint(10, 1.0), GraphDataPoint(30, 2.0), GraphDataPoint(70, 3.0), GraphDataPoint(100, 3.0)
+        ).inOrder()
+    }
+
+    @Test
+    fun update_movedWindow_samplesOnlyNewTimes() = runTest {
+        val series = SampledStepSeries(1, interval)
+        series.update(0, 100, null) { sample(it) }
+        sampledTimes.clear()
+
+        series.update(20, 120, null) { sample(it) }
+        assertThat(sampledTimes).containsExactly(20L, 100L, 110L)
+        assertThat(series.line(0)).isEqualTo(full(20, 120))
+
+        series.update(0, 90, null) { sample(it) }
+        assertThat(series.line(0)).isEqualTo(full(0, 90))
+    }
+
+    @Test
+    fun update_changedValue_samplesFromChange() = runTest {
+        val series = SampledStepSeries(1, interval)
+        series.update(0, 100, null) { sample(it) }
+        sampledTimes.clear()
+
+        steps = steps + (45L to 5.0)
+        series.update(0, 100, since = 45) { sample(it) }
+        assertThat(sampledTimes.first()).isEqualTo(40L)
+        assertThat(series.line(0)).isEqualTo(full(0, 100))
+    }
+
+    @Test
+    fun update_unchangedContent_keepsSnapshot() = runTest {
+        val series = SampledStepSeries(1, interval)
+        series.update(0, 100, null) { sample(it) }
+        val line = series.line(0)
+        val version = series.version
+
+        series.update(0, 100, since = 80) { sample(it) }
+        assertThat(series.line(0)).isSameInstanceAs(line)
+        assertThat(series.version).isEqualTo(version)
+    }
+
+    @Test
+    fun update_misalignedWindow_samplesAgain() = runTest {
+        val series = SampledStepSeries(1, interval)
+        series.update(0, 100, null) { sample(it) }
+        series.update(3, 103, null) { sample(it) }
+        assertThat(series.line(0)).isEqualTo(full(3, 103))
+    }
+}
@@ -21,6 +21,7 @@ import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventWearDataToMobile
 import app.aaps.core.interfaces.rx.events.EventWearToMobile
 import app.aaps.core.interfaces.rx.weardata.EventData
+import app.aaps.core.interfaces.rx.weardata.WearSyncContent
 import app.aaps.core.interfaces.sharedPreferences.SP
 import app.aaps.core.keys.BooleanKey
 import app.aaps.core.keys.DoubleKey
@@ -84,10 +85,26 @@ class DataHandlerWear @Inject constructor(
 
     private val disposable = CompositeDisposable()
 
+    /** Recently applied sync contents by sequence, bases of next deltas */
+    private val syncHistory = LinkedHashMap<Long, WearSyncContent>()
+
     init {
         setupBus()
     }
 
+    /**
+     * @return new content or null if base of [delta] is not known
+     */
+    @Synchronized
+    private fun applySyncDelta(delta: EventData.WearSyncDelta): WearSyncContent? {
+        val base = if (delta.baseSequence == 0L) WearSyncContent.EMPTY.also { syncHistory.clear() }
+        else syncHistory[delta.baseSequence] ?: return null
+        return base.apply(delta).also { content ->
+            syncHistory[delta.sequence] = content
+            while (syncHistory.size > SYNC_HISTORY_SIZE) syncHistory.remove(syncHistory.keys.first())
+        }
+    }
+
     private fun setupBus() {
         disposable += rxBus
             .toObservable(EventData.ActionPing::class.java)
@@ -95,6 +112,8 @@ class DataHandlerWear @Inject constructor(
             .subscribe {
                 aapsLogger.debug(LTag.WEAR, "Ping received from ${it.sourceNodeId}")
                 rxBus.send(EventWearToMobile(EventData.ActionPong(System.currentTimeMillis(), Build.VERSION.SDK_INT)))
+                // announce delta support, mobile answers by snapshot
+                rxBus.send(EventWearToMobile(EventData.WearSyncAck(0, resync = true)))
             }
         disposable += rxBus
             .toObservable(EventData.ConfirmAction::class.java)
@@ -259,6 +278,24 @@ class DataHandlerWear @Inject constructor(
                 }
                 LocalBroadcastManager.getInstance(context).sendBroadcast(Intent(DataLayerListenerServiceWear.INTENT_NEW_DATA))
             }
+        disposable += rxBus
+            .toObservable(EventData.WearSyncDelta::class.java)
+            .observeOn(aapsSchedulers.io)
+            .subscribe { delta ->
+                aapsLogger.debug(LTag.WEAR, "WearSyncDelta ${delta.sequence} based on ${delta.baseSequence} received from ${delta.sourceNodeId}")
+                val content = applySyncDelta(delta)
+                if (content == null) {
+                    rxBus.send(EventWearToMobile(EventData.WearSyncAck(delta.sequence, resync = true)))
+                    return@subscribe
+                }
+                rxBus.send(EventWearToMobile(EventData.WearSyncAck(delta.sequence)))
+                // Store in DataStore
+                dataStoreScope.launch {
+                    if (delta.changesGraph) complicationDataRepository.updateGraphData(content.graphData)
+                    if (delta.changesTreatments) complicationDataRepository.updateTreatmentData(content.treatmentData)
+                }
+                LocalBroadcastManager.getInstance(context).sendBroadcast(Intent(DataLayerListenerServiceWear.INTENT_NEW_DATA))
+            }
         disposable += rxBus
             .toObservable(EventData.Preferences::class.java)
             .observeOn(aapsSchedulers.io)
@@ -534,4 +571,10 @@ class DataHandlerWear @Inject constructor(
             }
         }
     }
+
+    companion object {
+
+        // more than unacknowledged deltas kept by mobile
+        private const val SYNC_HISTORY_SIZE = 10
+    }
 }
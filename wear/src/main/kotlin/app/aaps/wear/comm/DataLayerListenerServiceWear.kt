@@ -65,6 +65,7 @@ class DataLayerListenerServiceWear : WearableListenerService() {
 
     private val rxPath get() = getString(app.aaps.core.interfaces.R.string.path_rx_bridge)
     private val rxDataPath get() = getString(app.aaps.core.interfaces.R.string.path_rx_data_bridge)
+    private val rxSyncPath get() = getString(app.aaps.core.interfaces.R.string.path_rx_sync_bridge)
 
     @ExperimentalSerializationApi
     override fun onCreate() {
@@ -110,6 +111,7 @@ class DataLayerListenerServiceWear : WearableListenerService() {
         disposable.clear()
     }
 
+    @ExperimentalSerializationApi
     override fun onMessageReceived(messageEvent: MessageEvent) {
         super.onMessageReceived(messageEvent)
 
@@ -123,6 +125,15 @@ class DataLayerListenerServiceWear : WearableListenerService() {
                 aapsLogger.debug(LTag.WEAR, "Updated node: $transcriptionNodeId")
             }
 
+            rxSyncPath -> {
+                aapsLogger.debug(LTag.WEAR, "onMessageReceived rxSyncPath: ${messageEvent.data.size}")
+                val command = EventData.deserializeByte(messageEvent.data)
+                rxBus.send(command.also { it.sourceNodeId = messageEvent.sourceNodeId })
+                // Use this sender
+                transcriptionNodeId = messageEvent.sourceNodeId
+                aapsLogger.debug(LTag.WEAR, "Updated node: $transcriptionNodeId")
+            }
+
             rxDataPath -> {
                 aapsLogger.debug(LTag.WEAR, "onMessageReceived: ${messageEvent.data.size}")
                 ZipWatchfaceFormat.loadCustomWatchface(messageEvent.data, "", false)?.let {
@@ -0,0 +1,30 @@
+package app.aaps.workflow
+
+import app.aaps.core.interfaces.aps.AutosensData
+import app.aaps.core.interfaces.aps.AutosensDataStore
+import app.aaps.core.interfaces.aps.AutosensDataTable
+import app.aaps.core.interfaces.utils.DateUtil
+
+/**
+ * View of [live] store with [pending] entry added to [table], without publishing it
+ *
+ * Sensitivity of a new entry is detected on this view, so the entry is appended to the live store
+ * only after its [AutosensData.autosensResult] is set and loop never reads a half built entry.
+ */
+internal class PendingAutosensDataStore(
+    private val live: AutosensDataStore,
+    table: AutosensDataTable,
+    pending: AutosensData
+) : AutosensDataStore by live {
+
+    override var autosensDataTable: AutosensDataTable = table.plus(pending.time, pending)
+
+    override fun lastDataTime(dateUtil: DateUtil): String =
+        dateUtil.dateAndTimeAndSecondsString(autosensDataTable.valueAt(autosensDataTable.size() - 1).time)
+
+    override fun getAutosensDataAtTime(fromTime: Long): AutosensData? {
+        if (fromTime > System.currentTimeMillis()) return null
+        val previous = live.bucketedData?.firstOrNull { it.timestamp <= fromTime } ?: return null
+        return autosensDataTable[live.roundUpTime(previous.timestamp)]
+    }
+}
@@ -16,6 +16,9 @@ import app.aaps.core.interfaces.overview.graph.BgRange
 import app.aaps.core.interfaces.overview.graph.BgType
 import app.aaps.core.interfaces.overview.graph.OverviewDataCache
 import app.aaps.core.interfaces.profile.ProfileUtil
+import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.profiling.TraceStage
+import app.aaps.core.interfaces.profiling.trace
 import app.aaps.core.interfaces.widget.WidgetUpdater
 import app.aaps.core.interfaces.workflow.CalculationSignalsEmitter
 import app.aaps.core.interfaces.workflow.CalculationWorkflow
@@ -49,6 +52,7 @@ class PostCalculationWorker(
     @Inject lateinit var processedDeviceStatusData: ProcessedDeviceStatusData
     @Inject lateinit var profileUtil: ProfileUtil
     @Inject lateinit var preferences: Preferences
+    @Inject lateinit var profiler: Profiler
 
     class PostCalculationData(
         val overviewData: OverviewData,
@@ -87,7 +91,8 @@ class PostCalculationWorker(
         val glucoseValue = iobCobCalculator.ads.actualBg() ?: return
         if (glucoseValue.timestamp <= loop.lastBgTriggeredRun) return
         loop.lastBgTriggeredRun = glucoseValue.timestamp
-        loop.invoke("Calculation for $glucoseValue", true)
+        profiler.record(TraceStage.BG_ARRIVAL, glucoseValue.timestamp)
+        profiler.trace(TraceStage.LOOP) { loop.invoke("Calculation for $glucoseValue", true) }
     }
 
     private fun preparePredictions(data: PostCalculationData) {
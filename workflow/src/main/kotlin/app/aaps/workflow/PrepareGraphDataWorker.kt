@@ -11,6 +11,7 @@ import app.aaps.core.interfaces.aps.AutosensData
 import app.aaps.core.interfaces.aps.AutosensDataStore
 import app.aaps.core.interfaces.aps.AutosensResult
 import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.aps.VariableSensitivityCache
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.iob.IobCobCalculator
@@ -39,6 +40,8 @@ import app.aaps.core.interfaces.plugin.ActivePlugin
 import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.profiling.TraceStage
+import app.aaps.core.interfaces.profiling.trace
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventAutosensCalculationFinished
@@ -52,6 +55,7 @@ import app.aaps.core.keys.UnitDoubleKey
 import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.core.objects.extensions.combine
 import app.aaps.core.objects.workflow.LoggingWorker
+import app.aaps.workflow.iob.CarbTimeline
 import app.aaps.workflow.iob.fromCarbs
 import kotlinx.coroutines.Dispatchers
 import java.util.Calendar
@@ -89,6 +93,7 @@ class PrepareGraphDataWorker(
     @Inject lateinit var rh: ResourceHelper
     @Inject lateinit var decimalFormatter: DecimalFormatter
     @Inject lateinit var processedDeviceStatusData: ProcessedDeviceStatusData
+    @Inject lateinit var variableSensitivityCache: VariableSensitivityCache
     @Inject lateinit var autosensDataProvider: Provider<AutosensData>
 
     class PrepareGraphData(
@@ -170,8 +175,8 @@ class PrepareGraphDataWorker(
     // ---------- Phase 2 (PrepareBucketedDataWorker logic) ----------
 
     private fun prepareBucketedData(data: PrepareGraphData) {
-        val bucketedData = data.iobCobCalculator.ads.getBucketedDataTableCopy() ?: return
-        if (bucketedData.isEmpty()) {
+        val bucketedData = data.iobCobCalculator.ads.getBucketedGlucose() ?: return
+        if (bucketedData.size == 0) {
             aapsLogger.debug("No bucketed data.")
             return
         }
@@ -183,21 +188,21 @@ class PrepareGraphDataWorker(
         val highMark = preferences.get(UnitDoubleKey.OverviewHighMark)
         val lowMark = preferences.get(UnitDoubleKey.OverviewLowMark)
 
-        val bucketedDataPoints = bucketedData
-            .filter { it.timestamp in newFromTime..newToTime }
-            .map { value ->
-                val valueInUnits = profileUtil.fromMgdlToUnits(value.recalculated)
+        val bucketedDataPoints = (0 until bucketedData.size)
+            .filter { bucketedData.timestamp(it) in newFromTime..newToTime }
+            .map { i ->
+                val valueInUnits = profileUtil.fromMgdlToUnits(bucketedData.recalculated(i))
                 val range = when {
                     valueInUnits > highMark -> BgRange.HIGH
                     valueInUnits < lowMark  -> BgRange.LOW
                     else                    -> BgRange.IN_RANGE
                 }
                 BgDataPoint(
-                    timestamp = value.timestamp,
+                    timestamp = bucketedData.timestamp(i),
                     value = valueInUnits,
                     range = range,
                     type = BgType.BUCKETED,
-                    filledGap = value.filledGap
+                    filledGap = bucketedData.filledGap(i)
                 )
             }
         data.cache.updateBucketedData(bucketedDataPoints)
@@ -237,6 +242,7 @@ class PrepareGraphDataWorker(
 
     private suspend fun runIobCobOref1(data: PrepareGraphData) {
         val start = dateUtil.now()
+        val span = profiler.begin()
         try {
             aapsLogger.debug(LTag.AUTOSENS, "AUTOSENSDATA thread started: ${data.reason}")
             if (!profileFunction.isProfileValid("IobCobThread")) {
@@ -244,15 +250,17 @@ class PrepareGraphDataWorker(
                 return
             }
             val oldestTimeWithData = data.iobCobCalculator.calculateDetectionStart(data.end, data.limitDataToOldestAvailable)
-            // work on local copy and set back when finished
-            val ads = data.iobCobCalculator.ads.clone()
-            val bucketedData = ads.bucketedData
-            val autosensDataTable = ads.autosensDataTable
+            // work on live store. New results are appended, calculation is aborted if data is invalidated meanwhile
+            val ads = data.iobCobCalculator.ads
+            val generation = ads.autosensDataGeneration
+            val bucketedData = ads.getBucketedGlucose()
+            var autosensDataTable = ads.autosensDataTable
             if (bucketedData == null || bucketedData.size < 3) {
                 aapsLogger.debug(LTag.AUTOSENS) { "Aborting calculation thread (No bucketed data available): ${data.reason}" }
                 return
             }
-            val prevDataTime = ads.roundUpTime(bucketedData[bucketedData.size - 3].timestamp)
+            val prevDataTime = ads.roundUpTime(bucketedData.timestamp(bucketedData.size - 3))
+            val carbTimeline = CarbTimeline(persistenceLayer, ads.roundUpTime(bucketedData.timestamp(0)))
             aapsLogger.debug(LTag.AUTOSENS) { "Prev data time: " + dateUtil.dateAndTimeString(prevDataTime) }
             var previous = autosensDataTable[prevDataTime]
             // start from oldest to be able sub cob
@@ -263,7 +271,7 @@ class PrepareGraphDataWorker(
                     return
                 }
                 // check if data already exists
-                var bgTime = bucketedData[i].timestamp
+                var bgTime = bucketedData.timestamp(i)
                 bgTime = ads.roundUpTime(bgTime)
                 if (bgTime > ads.roundUpTime(dateUtil.now())) continue
                 var existing: AutosensData?
@@ -283,14 +291,14 @@ class PrepareGraphDataWorker(
 
                 var avgDelta: Double
                 var delta: Double
-                val bg: Double = bucketedData[i].recalculated
-                if (bg < 39 || bucketedData[i + 3].recalculated < 39) {
+                val bg: Double = bucketedData.recalculated(i)
+                if (bg < 39 || bucketedData.recalculated(i + 3) < 39) {
                     aapsLogger.error("! value < 39")
                     continue
                 }
                 autosensData.bg = bg
-                delta = bg - bucketedData[i + 1].recalculated
-                avgDelta = (bg - bucketedData[i + 3].recalculated) / 3
+                delta = bg - bucketedData.recalculated(i + 1)
+                avgDelta = (bg - bucketedData.recalculated(i + 3)) / 3
                 val sens = profile.getIsfMgdlForCarbs(bgTime, "iobCobOref1Worker", config, processedDeviceStatusData)
                 val iob = data.iobCobCalculator.calculateFromTreatmentsAndTemps(bgTime, profile)
                 val bgi = -iob.activity * sens * 5
@@ -328,9 +336,7 @@ class PrepareGraphDataWorker(
                         aapsLogger.debug(LTag.AUTOSENS) { ">>>>> bucketed_data.size()=${bucketedData.size} i=$i hourAgoData=null" }
                     }
                 }
-                // Use exclusive start (+1ms) to avoid double-counting carbs at window boundaries
-                // when consecutive 5-min windows share a boundary timestamp (issue #4596)
-                val recentCarbTreatments = persistenceLayer.getCarbsFromTimeToTimeExpanded(bgTime - T.mins(5).msecs() + 1, bgTime, true)
+                val recentCarbTreatments = carbTimeline.getCarbsInBucket(bgTime)
                 for (recentCarbTreatment in recentCarbTreatments) {
                     autosensData.carbsFromBolus += recentCarbTreatment.amount
                     val isAAPSOrWeighted = activePlugin.activeSensitivity.isMinCarbsAbsorptionDynamic
@@ -431,16 +437,23 @@ class PrepareGraphDataWorker(
                 val hours = calendar[Calendar.HOUR_OF_DAY]
                 if (minute in 0..4 && hours % 2 == 0) autosensData.extraDeviation.add(0.0)
                 previous = autosensData
-                if (bgTime < dateUtil.now()) autosensDataTable.put(bgTime, autosensData)
+                // detect sensitivity before publishing, loop must not read entry without autosensResult
+                val publish = bgTime < dateUtil.now()
+                val sensitivityData = if (publish) PendingAutosensDataStore(ads, autosensDataTable, autosensData) else ads
                 aapsLogger.debug(LTag.AUTOSENS) {
-                    "Running detectSensitivity from: " + dateUtil.dateAndTimeString(oldestTimeWithData) + " to: " + dateUtil.dateAndTimeString(bgTime) + " lastDataTime:" + ads.lastDataTime(dateUtil)
+                    "Running detectSensitivity from: " + dateUtil.dateAndTimeString(oldestTimeWithData) + " to: " + dateUtil.dateAndTimeString(bgTime) + " lastDataTime:" + sensitivityData.lastDataTime(dateUtil)
                 }
-                val sensitivity = activePlugin.activeSensitivity.detectSensitivity(ads, oldestTimeWithData, bgTime)
+                val sensitivity = profiler.trace(TraceStage.AUTOSENS) { activePlugin.activeSensitivity.detectSensitivity(sensitivityData, oldestTimeWithData, bgTime) }
                 aapsLogger.debug(LTag.AUTOSENS, "Sensitivity result: $sensitivity")
                 autosensData.autosensResult = sensitivity
                 aapsLogger.debug(LTag.AUTOSENS) { autosensData.toString() }
+                if (publish) {
+                    autosensDataTable = ads.appendAutosensData(generation, autosensData) ?: run {
+                        aapsLogger.debug(LTag.AUTOSENS, "Aborting calculation thread (data invalidated): ${data.reason}")
+                        return
+                    }
+                }
             }
-            data.iobCobCalculator.ads = ads
             Thread {
                 SystemClock.sleep(1000)
                 rxBus.send(EventAutosensCalculationFinished(data.triggeredByNewBG))
@@ -449,6 +462,7 @@ class PrepareGraphDataWorker(
             data.signals.emitProgress(CalculationWorkflow.ProgressData.IOB_COB_OREF, 100)
             aapsLogger.debug(LTag.AUTOSENS) { "AUTOSENSDATA thread ended: ${data.reason}" }
             profiler.log(LTag.AUTOSENS, "IobCobOref1Thread", start)
+            profiler.end(TraceStage.IOB_COB, span)
         }
     }
 
@@ -456,6 +470,7 @@ class PrepareGraphDataWorker(
 
     private suspend fun runIobCobOref(data: PrepareGraphData) {
         val start = dateUtil.now()
+        val span = profiler.begin()
         try {
             aapsLogger.debug(LTag.AUTOSENS) { "AUTOSENSDATA thread started: ${data.reason}" }
             if (!profileFunction.isProfileValid("IobCobThread")) {
@@ -463,15 +478,17 @@ class PrepareGraphDataWorker(
                 return
             }
             val oldestTimeWithData = data.iobCobCalculator.calculateDetectionStart(data.end, data.limitDataToOldestAvailable)
-            // work on local copy and set back when finished
-            val ads = data.iobCobCalculator.ads.clone()
-            val bucketedData = ads.bucketedData
-            val autosensDataTable = ads.autosensDataTable
+            // work on live store. New results are appended, calculation is aborted if data is invalidated meanwhile
+            val ads = data.iobCobCalculator.ads
+            val generation = ads.autosensDataGeneration
+            val bucketedData = ads.getBucketedGlucose()
+            var autosensDataTable = ads.autosensDataTable
             if (bucketedData == null || bucketedData.size < 3) {
                 aapsLogger.debug(LTag.AUTOSENS) { "Aborting calculation thread (No bucketed data available): ${data.reason}" }
                 return
             }
-            val prevDataTime = ads.roundUpTime(bucketedData[bucketedData.size - 3].timestamp)
+            val prevDataTime = ads.roundUpTime(bucketedData.timestamp(bucketedData.size - 3))
+            val carbTimeline = CarbTimeline(persistenceLayer, ads.roundUpTime(bucketedData.timestamp(0)))
             aapsLogger.debug(LTag.AUTOSENS) { "Prev data time: " + dateUtil.dateAndTimeString(prevDataTime) }
             var previous = autosensDataTable[prevDataTime]
             // start from oldest to be able to sub cob
@@ -482,7 +499,7 @@ class PrepareGraphDataWorker(
                     return
                 }
                 // check if data already exists
-                var bgTime = bucketedData[i].timestamp
+                var bgTime = bucketedData.timestamp(i)
                 bgTime = ads.roundUpTime(bgTime)
                 if (bgTime > ads.roundUpTime(dateUtil.now())) continue
                 var existing: AutosensData?
@@ -502,14 +519,14 @@ class PrepareGraphDataWorker(
 
                 var avgDelta: Double
                 var delta: Double
-                val bg: Double = bucketedData[i].recalculated
-                if (bg < 39 || bucketedData[i + 3].recalculated < 39) {
+                val bg: Double = bucketedData.recalculated(i)
+                if (bg < 39 || bucketedData.recalculated(i + 3) < 39) {
                     aapsLogger.error("! value < 39")
                     continue
                 }
                 autosensData.bg = bg
-                delta = bg - bucketedData[i + 1].recalculated
-                avgDelta = (bg - bucketedData[i + 3].recalculated) / 3
+                delta = bg - bucketedData.recalculated(i + 1)
+                avgDelta = (bg - bucketedData.recalculated(i + 3)) / 3
                 val sens = profile.getIsfMgdlForCarbs(bgTime, "IobCobOrefWorker", config, processedDeviceStatusData)
                 val iob = data.iobCobCalculator.calculateFromTreatmentsAndTemps(bgTime, profile)
                 val bgi = -iob.activity * sens * 5
@@ -546,8 +563,7 @@ class PrepareGraphDataWorker(
                         aapsLogger.debug(LTag.AUTOSENS) { ">>>>> bucketed_data.size()=${bucketedData.size} i=$i hourAgoData=null" }
                     }
                 }
-                // Use exclusive start (+1ms) to avoid double-counting carbs at window boundaries (issue #4596)
-                val recentCarbTreatments = persistenceLayer.getCarbsFromTimeToTimeExpanded(bgTime - T.mins(5).msecs() + 1, bgTime, true)
+                val recentCarbTreatments = carbTimeline.getCarbsInBucket(bgTime)
                 for (recentCarbTreatment in recentCarbTreatments) {
                     autosensData.carbsFromBolus += recentCarbTreatment.amount
                     val isAAPSOrWeighted = activePlugin.activeSensitivity.isMinCarbsAbsorptionDynamic
@@ -610,16 +626,23 @@ class PrepareGraphDataWorker(
                     autosensData.pastSensitivity += "C"
                 }
                 previous = autosensData
-                if (bgTime < dateUtil.now()) autosensDataTable.put(bgTime, autosensData)
+                // detect sensitivity before publishing, loop must not read entry without autosensResult
+                val publish = bgTime < dateUtil.now()
+                val sensitivityData = if (publish) PendingAutosensDataStore(ads, autosensDataTable, autosensData) else ads
                 aapsLogger.debug(LTag.AUTOSENS) {
-                    "Running detectSensitivity from: ${dateUtil.dateAndTimeString(oldestTimeWithData)} to: ${dateUtil.dateAndTimeString(bgTime)} lastDataTime:${ads.lastDataTime(dateUtil)}"
+                    "Running detectSensitivity from: ${dateUtil.dateAndTimeString(oldestTimeWithData)} to: ${dateUtil.dateAndTimeString(bgTime)} lastDataTime:${sensitivityData.lastDataTime(dateUtil)}"
                 }
-                val sensitivity = activePlugin.activeSensitivity.detectSensitivity(ads, oldestTimeWithData, bgTime)
+                val sensitivity = profiler.trace(TraceStage.AUTOSENS) { activePlugin.activeSensitivity.detectSensitivity(sensitivityData, oldestTimeWithData, bgTime) }
                 aapsLogger.debug(LTag.AUTOSENS) { "Sensitivity result: $sensitivity" }
                 autosensData.autosensResult = sensitivity
                 aapsLogger.debug(LTag.AUTOSENS, autosensData.toString())
+                if (publish) {
+                    autosensDataTable = ads.appendAutosensData(generation, autosensData) ?: run {
+                        aapsLogger.debug(LTag.AUTOSENS, "Aborting calculation thread (data invalidated): ${data.reason}")
+                        return
+                    }
+                }
             }
-            data.iobCobCalculator.ads = ads
             Thread {
                 SystemClock.sleep(1000)
                 rxBus.send(EventAutosensCalculationFinished(data.triggeredByNewBG))
@@ -628,6 +651,7 @@ class PrepareGraphDataWorker(
             data.signals.emitProgress(CalculationWorkflow.ProgressData.IOB_COB_OREF, 100)
             aapsLogger.debug(LTag.AUTOSENS) { "AUTOSENSDATA thread ended: ${data.reason}" }
             profiler.log(LTag.AUTOSENS, "IobCobThread", start)
+            profiler.end(TraceStage.IOB_COB, span)
         }
     }
 
@@ -657,7 +681,7 @@ class PrepareGraphDataWorker(
         val dsMaxListCompose: MutableList<GraphDataPoint> = ArrayList()
         val dsMinListCompose: MutableList<GraphDataPoint> = ArrayList()
 
-        val adsData = data.iobCobCalculator.ads.clone()
+        val adsData = data.iobCobCalculator.ads
 
         while (time <= endTime) {
             if (isStopped) return
@@ -721,12 +745,8 @@ class PrepareGraphDataWorker(
         aapsLogger.debug(LTag.AUTOSENS, "IOB prediction for AS=" + decimalFormatter.to2Decimal(lastAutosensResult.ratio) + ": " + data.iobCobCalculator.iobArrayToString(iobPredictionArray))
 
         val varSensListCompose: MutableList<GraphDataPoint> = ArrayList()
-        val apsResults = persistenceLayer.getApsResults(fromTime, endTime)
-        apsResults.forEach {
-            it.variableSens?.let { variableSens ->
-                val varSens = profileUtil.fromMgdlToUnits(variableSens)
-                varSensListCompose.add(GraphDataPoint(it.date, varSens))
-            }
+        variableSensitivityCache.getApsResultSensitivities(fromTime, endTime).forEach { (timestamp, variableSens) ->
+            varSensListCompose.add(GraphDataPoint(timestamp, profileUtil.fromMgdlToUnits(variableSens)))
         }
 
         data.cache.updateIobGraph(IobGraphData(iob = iobListCompose, predictions = iobPredictionsListCompose))
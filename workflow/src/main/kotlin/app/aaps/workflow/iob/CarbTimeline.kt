@@ -0,0 +1,34 @@
+package app.aaps.workflow.iob
+
+import app.aaps.core.data.model.CA
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.PersistenceLayer
+
+/**
+ * Expanded carbs for one autosens pass
+ *
+ * Carbs are loaded by one query on first request, from the first requested bucket to [to].
+ * Buckets must be requested in ascending order, cursor moves forward only.
+ *
+ * @param to end of last bucket of the pass
+ */
+class CarbTimeline(private val persistenceLayer: PersistenceLayer, private val to: Long) {
+
+    private var carbs: List<CA>? = null
+    private var cursor = 0
+
+    /**
+     * Carbs in 5 min bucket ending at [bucketEnd] (ascending)
+     *
+     * Start is exclusive to avoid double-counting carbs at window boundaries
+     * when consecutive 5-min windows share a boundary timestamp (issue #4596)
+     */
+    suspend fun getCarbsInBucket(bucketEnd: Long): List<CA> {
+        val from = bucketEnd - T.mins(5).msecs()
+        val data = carbs ?: persistenceLayer.getCarbsFromTimeToTimeExpanded(from + 1, to, true).also { carbs = it }
+        while (cursor < data.size && data[cursor].timestamp <= from) cursor++
+        var end = cursor
+        while (end < data.size && data[end].timestamp <= bucketEnd) end++
+        return data.subList(cursor, end)
+    }
+}
@@ -0,0 +1,52 @@
+package app.aaps.workflow
+
+import app.aaps.core.data.iob.InMemoryGlucoseValue
+import app.aaps.core.data.model.SourceSensor
+import app.aaps.core.data.model.TrendArrow
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.AutosensData
+import app.aaps.core.interfaces.aps.AutosensDataStore
+import app.aaps.core.interfaces.aps.AutosensDataTable
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class PendingAutosensDataStoreTest : TestBase() {
+
+    @Mock lateinit var live: AutosensDataStore
+
+    private val now = System.currentTimeMillis() - T.mins(1).msecs()
+    private val fiveMinutes = T.mins(5).msecs()
+
+    private fun autosensData(time: Long): AutosensData = mock<AutosensData>().also { whenever(it.time).thenReturn(time) }
+
+    @Test
+    fun pendingEntryIsVisibleOnlyInView() {
+        val older = autosensData(now - fiveMinutes)
+        val pending = autosensData(now)
+        val table = AutosensDataTable().plus(older.time, older)
+        whenever(live.autosensDataTable).thenReturn(table)
+        whenever(live.bucketedData).thenReturn(
+            mutableListOf(
+                InMemoryGlucoseValue(timestamp = now, value = 100.0, trendArrow = TrendArrow.FLAT, sourceSensor = SourceSensor.UNKNOWN),
+                InMemoryGlucoseValue(timestamp = now - fiveMinutes, value = 100.0, trendArrow = TrendArrow.FLAT, sourceSensor = SourceSensor.UNKNOWN)
+            )
+        )
+        whenever(live.roundUpTime(any())).thenAnswer { it.getArgument<Long>(0) }
+
+        val sut = PendingAutosensDataStore(live, table, pending)
+
+        assertThat(sut.autosensDataTable.size()).isEqualTo(2)
+        assertThat(sut.getAutosensDataAtTime(now)).isSameInstanceAs(pending)
+        assertThat(sut.getAutosensDataAtTime(now - 1)).isSameInstanceAs(older)
+        // live store is not modified
+        assertThat(live.autosensDataTable.size()).isEqualTo(1)
+        verify(live, never()).appendAutosensData(any(), any())
+    }
+}
@@ -0,0 +1,43 @@
+package app.aaps.workflow.iob
+
+import app.aaps.core.data.model.CA
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class CarbTimelineTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private val fiveMinutes = T.mins(5).msecs()
+
+    @Test
+    fun carbsAreServedPerBucket() = runTest {
+        val start = now - T.hours(1).msecs()
+        val carbs = listOf(
+            CA(timestamp = start + 1, amount = 10.0, duration = 0),
+            CA(timestamp = start + fiveMinutes, amount = 20.0, duration = 0),
+            CA(timestamp = start + fiveMinutes, amount = 5.0, duration = 0),
+            CA(timestamp = start + 3 * fiveMinutes - 1, amount = 30.0, duration = 0)
+        )
+        whenever(persistenceLayer.getCarbsFromTimeToTimeExpanded(start + 1, now, true)).thenReturn(carbs)
+        val sut = CarbTimeline(persistenceLayer, now)
+
+        assertThat(sut.getCarbsInBucket(start + fiveMinutes).map { it.amount }).containsExactly(10.0, 20.0, 5.0).inOrder()
+        // carbs at boundary are counted in one bucket only (issue #4596)
+        assertThat(sut.getCarbsInBucket(start + 2 * fiveMinutes)).isEmpty()
+        assertThat(sut.getCarbsInBucket(start + 3 * fiveMinutes).map { it.amount }).containsExactly(30.0)
+        // skipped buckets
+        assertThat(sut.getCarbsInBucket(now)).isEmpty()
+        // whole pass is loaded by one query
+        verify(persistenceLayer, times(1)).getCarbsFromTimeToTimeExpanded(any(), any(), any())
+    }
+}